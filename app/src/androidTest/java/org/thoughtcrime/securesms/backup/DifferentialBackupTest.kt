@@ -0,0 +1,343 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup
+
+import android.database.Cursor
+import androidx.core.content.contentValuesOf
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+import org.GenZapp.core.util.Base64
+import org.GenZapp.core.util.SqlUtil
+import org.GenZapp.core.util.deleteAll
+import org.GenZapp.core.util.logging.Log
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream
+import org.thoughtcrime.securesms.database.AttachmentTable
+import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.database.MessageTable
+import org.thoughtcrime.securesms.database.MmsHelper
+import org.thoughtcrime.securesms.database.RecipientTable
+import org.thoughtcrime.securesms.database.SearchTable
+import org.thoughtcrime.securesms.database.ThreadTable
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.GenZappDatabaseRule
+import org.thoughtcrime.securesms.testing.assertIs
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.security.MessageDigest
+import java.util.UUID
+import kotlin.random.Random
+
+/**
+ * Writes differential backups of a real database, changes a little of it in between, and restores the chain into a scratch database to compare against.
+ */
+@RunWith(AndroidJUnit4::class)
+class DifferentialBackupTest {
+
+  companion object {
+    private val TAG = Log.tag(DifferentialBackupTest::class.java)
+
+    private const val PASSPHRASE = "000000000000000000000000000000"
+
+    private const val MESSAGE_COUNT = 1_000
+    private const val ATTACHMENT_COUNT = 100
+    private const val ATTACHMENT_SIZE = 32 * 1024
+
+    /** 1% of the messages are edited, and between them new and removed rows and attachments make up about 1% more. */
+    private const val EDITED_MESSAGES = MESSAGE_COUNT / 100
+    private const val MAX_DELTA_FRACTION = 0.05
+  }
+
+  @Rule
+  @JvmField
+  val databaseRule = GenZappDatabaseRule()
+
+  private val context = AppDependencies.application
+  private val random = Random(50)
+
+  private lateinit var attachmentSecret: AttachmentSecret
+  private lateinit var workingDirectory: File
+  private lateinit var chain: BackupChain
+  private lateinit var recipient: Recipient
+  private lateinit var messageIds: List<Long>
+
+  private var threadId = 0L
+
+  @Before
+  fun setUp() {
+    attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret()
+    workingDirectory = File(context.cacheDir, "differential-backup-test").apply { deleteRecursively(); mkdirs() }
+    chain = BackupChain.load(File(workingDirectory, "chain").apply { mkdirs() })
+
+    GenZappDatabase.rawDatabase.deleteAll(AttachmentTable.TABLE_NAME)
+
+    recipient = Recipient.resolved(GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+    threadId = GenZappDatabase.threads.getOrCreateThreadIdFor(recipient)
+    messageIds = (1..MESSAGE_COUNT).map { MmsHelper.insert(recipient = recipient, body = "Message $it", sentTimeMillis = it.toLong(), threadId = threadId) }
+
+    messageIds.take(ATTACHMENT_COUNT).forEach { insertAttachment(it, random.nextBytes(ATTACHMENT_SIZE)) }
+  }
+
+  @After
+  fun tearDown() {
+    GenZappDatabase.rawDatabase.deleteAll(AttachmentTable.TABLE_NAME)
+    workingDirectory.deleteRecursively()
+  }
+
+  @Test
+  fun givenABase_whenIChangeOnePercentAndBackUpAgain_thenIExpectASmallDeltaThatRestoresToTheSameData() {
+    val base = export("base")
+    chain.commit(base.name, base.length())
+
+    val sharedContent = attachmentContent(messageIds.first())
+    messageIds.subList(ATTACHMENT_COUNT, ATTACHMENT_COUNT + EDITED_MESSAGES).forEachIndexed { i, id -> editBody(id, "Edited message $i") }
+    messageIds.takeLast(2).forEach { GenZappDatabase.messages.deleteMessage(it) }
+    insertAttachment(messageIds[ATTACHMENT_COUNT], random.nextBytes(ATTACHMENT_SIZE))
+    insertAttachment(messageIds[ATTACHMENT_COUNT + 1], sharedContent)
+    GenZappDatabase.rawDatabase.delete(AttachmentTable.TABLE_NAME, "${AttachmentTable.MESSAGE_ID} = ?", arrayOf(messageIds[1].toString()))
+
+    val delta = export("delta")
+    chain.commit(delta.name, delta.length())
+
+    Log.i(TAG, "Base: ${base.length()} bytes, delta after changing 1%: ${delta.length()} bytes (${"%.2f".format(delta.length() * 100.0 / base.length())}%)")
+
+    (delta.length() < base.length() * MAX_DELTA_FRACTION) assertIs true
+
+    val restored = restore(base, delta)
+
+    for (table in listOf(MessageTable.TABLE_NAME, ThreadTable.TABLE_NAME, RecipientTable.TABLE_NAME)) {
+      rows(restored, table) assertIs rows(GenZappDatabase.rawDatabase, table)
+    }
+
+    val fileColumns = setOf(AttachmentTable.DATA_FILE, AttachmentTable.DATA_RANDOM)
+    rows(restored, AttachmentTable.TABLE_NAME, fileColumns) assertIs rows(GenZappDatabase.rawDatabase, AttachmentTable.TABLE_NAME, fileColumns)
+
+    val sourceContent = attachmentContents(GenZappDatabase.rawDatabase)
+    val restoredContent = attachmentContents(restored)
+
+    restoredContent.keys assertIs sourceContent.keys
+    for ((rowId, content) in sourceContent) {
+      assertTrue("Attachment $rowId differs", content.contentEquals(restoredContent[rowId]))
+    }
+
+    search(restored, "Edited") assertIs search(GenZappDatabase.rawDatabase, "Edited")
+    search(restored, "Edited").size assertIs EDITED_MESSAGES
+
+    val fullRestore = restoreFull(exportFull("full"))
+
+    dump(restored) assertIs dump(fullRestore)
+    search(restored, "Edited") assertIs search(fullRestore, "Edited")
+
+    fullRestore.close()
+    restored.close()
+  }
+
+  @Test
+  fun givenAChainAtItsLimit_whenIBackUpAgain_thenIExpectANewBase() {
+    val base = export("base")
+    val chainId = chain.getChainId()
+    chain.commit(base.name, base.length())
+
+    repeat(BackupChain.MAX_DELTAS) { i ->
+      editBody(messageIds[i], "Edited message $i")
+
+      val delta = export("delta-$i")
+      chain.getSequence() assertIs i + 1
+      chain.getChainId().contentEquals(chainId) assertIs true
+      chain.commit(delta.name, delta.length())
+    }
+
+    chain.getArchiveNames() assertIs listOf(base.name) + (1..BackupChain.MAX_DELTAS).map { BackupChain.getDeltaName(base.name, it) }
+
+    export("next")
+
+    chain.getSequence() assertIs 0
+    chain.getChainId().contentEquals(chainId) assertIs false
+  }
+
+  @Test
+  fun givenDeltasOutOfOrder_whenIRestore_thenIExpectNothingRestored() {
+    val base = export("base")
+    chain.commit(base.name, base.length())
+
+    editBody(messageIds[0], "First edit")
+    val first = export("first")
+    chain.commit(first.name, first.length())
+
+    editBody(messageIds[1], "Second edit")
+    val second = export("second")
+    chain.commit(second.name, second.length())
+
+    val restored = scratchDatabase()
+
+    val error = runCatching {
+      FullBackupImporter.importChain(context, attachmentSecret, restored, listOf(base, second, first).map { FileInputStream(it) }, PASSPHRASE)
+    }.exceptionOrNull()
+
+    (error is FullBackupImporter.ChainMismatchException) assertIs true
+    SqlUtil.tableExists(restored, MessageTable.TABLE_NAME) assertIs false
+
+    restored.close()
+  }
+
+  private fun export(name: String): File {
+    val file = File(workingDirectory, "$name.backup")
+
+    file.outputStream().use { output ->
+      FullBackupExporter.exportDifferential(context, attachmentSecret, GenZappDatabase.backupDatabase, output, PASSPHRASE, chain) { false }
+    }
+
+    return file
+  }
+
+  private fun restore(vararg archives: File): SQLiteDatabase {
+    val restored = scratchDatabase()
+
+    FullBackupImporter.importChain(context, attachmentSecret, restored, archives.map { FileInputStream(it) }, PASSPHRASE)
+
+    return restored
+  }
+
+  private fun exportFull(name: String): File {
+    val file = File(workingDirectory, "$name.backup")
+
+    FullBackupExporter.export(context, attachmentSecret, GenZappDatabase.backupDatabase, file, PASSPHRASE) { false }
+
+    return file
+  }
+
+  private fun restoreFull(archive: File): SQLiteDatabase {
+    val restored = scratchDatabase()
+
+    FileInputStream(archive).use { FullBackupImporter.importFile(context, attachmentSecret, restored, it, PASSPHRASE) }
+
+    return restored
+  }
+
+  private fun scratchDatabase(): SQLiteDatabase {
+    val file = File(workingDirectory, "restored-${UUID.randomUUID()}.db")
+
+    return SQLiteDatabase.openOrCreateDatabase(file.absolutePath, "", null, null, null).apply {
+      version = GenZappDatabase.rawDatabase.version
+    }
+  }
+
+  private fun editBody(messageId: Long, body: String) {
+    GenZappDatabase.rawDatabase.update(MessageTable.TABLE_NAME, contentValuesOf(MessageTable.BODY to body), "${MessageTable.ID} = ?", arrayOf(messageId.toString()))
+  }
+
+  private fun insertAttachment(messageId: Long, content: ByteArray) {
+    val file = AttachmentTable.newDataFile(context)
+    val output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, false)
+
+    output.second.use { it.write(content) }
+
+    GenZappDatabase.rawDatabase.insert(
+      AttachmentTable.TABLE_NAME,
+      null,
+      contentValuesOf(
+        AttachmentTable.MESSAGE_ID to messageId,
+        AttachmentTable.CONTENT_TYPE to "application/octet-stream",
+        AttachmentTable.TRANSFER_STATE to AttachmentTable.TRANSFER_PROGRESS_DONE,
+        AttachmentTable.DATA_FILE to file.absolutePath,
+        AttachmentTable.DATA_RANDOM to output.first,
+        AttachmentTable.DATA_SIZE to content.size.toLong(),
+        AttachmentTable.DATA_HASH_END to Base64.encodeWithPadding(MessageDigest.getInstance("SHA-256").digest(content))
+      )
+    )
+  }
+
+  private fun attachmentContent(messageId: Long): ByteArray {
+    GenZappDatabase.rawDatabase.query(AttachmentTable.TABLE_NAME, arrayOf(AttachmentTable.DATA_FILE, AttachmentTable.DATA_RANDOM), "${AttachmentTable.MESSAGE_ID} = ?", arrayOf(messageId.toString()), null, null, null).use { cursor ->
+      cursor.moveToFirst()
+      return decrypt(cursor.getString(0), cursor.getBlob(1))
+    }
+  }
+
+  private fun attachmentContents(db: SQLiteDatabase): Map<Long, ByteArray> {
+    val contents: MutableMap<Long, ByteArray> = mutableMapOf()
+
+    db.rawQuery("SELECT ${AttachmentTable.ID}, ${AttachmentTable.DATA_FILE}, ${AttachmentTable.DATA_RANDOM} FROM ${AttachmentTable.TABLE_NAME}", null).use { cursor ->
+      while (cursor.moveToNext()) {
+        contents[cursor.getLong(0)] = decrypt(cursor.getString(1), cursor.getBlob(2))
+      }
+    }
+
+    return contents
+  }
+
+  private fun decrypt(path: String, random: ByteArray): ByteArray {
+    return ModernDecryptingPartInputStream.createFor(attachmentSecret, random, File(path), 0).use { input ->
+      ByteArrayOutputStream().also { input.copyTo(it) }.toByteArray()
+    }
+  }
+
+  /**
+   * Every table in the database, row by row. SQLite's own bookkeeping and the search index's shadow tables are left out, since they depend on the order rows
+   * were written in rather than on what's there; the index is compared by searching it instead. Each restore writes attachment files afresh, so their path
+   * and random are swapped for a digest of the decrypted content.
+   */
+  private fun dump(db: SQLiteDatabase): Map<String, List<Map<String, Any?>>> {
+    val tables = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' ORDER BY name", null).use { cursor ->
+      generateSequence { if (cursor.moveToNext()) cursor.getString(0) else null }.toList()
+    }
+
+    return tables
+      .filterNot { it.startsWith("sqlite_") || it.startsWith("${SearchTable.FTS_TABLE_NAME}_") }
+      .associateWith { table ->
+        if (table == AttachmentTable.TABLE_NAME) {
+          val contents = attachmentContents(db)
+          rows(db, table, setOf(AttachmentTable.DATA_FILE, AttachmentTable.DATA_RANDOM)).map { row ->
+            val content = contents[row[AttachmentTable.ID] as Long]
+            row + (AttachmentTable.DATA_FILE to content?.let { MessageDigest.getInstance("SHA-256").digest(it).toList() })
+          }
+        } else {
+          rows(db, table)
+        }
+      }
+  }
+
+  private fun rows(db: SQLiteDatabase, table: String, excluded: Set<String> = emptySet()): List<Map<String, Any?>> {
+    val rows: MutableList<Map<String, Any?>> = mutableListOf()
+
+    db.rawQuery("SELECT rowid AS _row, * FROM $table ORDER BY rowid", null).use { cursor ->
+      while (cursor.moveToNext()) {
+        rows += (0 until cursor.columnCount)
+          .filterNot { cursor.getColumnName(it) in excluded }
+          .associate { cursor.getColumnName(it) to value(cursor, it) }
+      }
+    }
+
+    return rows
+  }
+
+  private fun value(cursor: Cursor, column: Int): Any? {
+    return when (cursor.getType(column)) {
+      Cursor.FIELD_TYPE_INTEGER -> cursor.getLong(column)
+      Cursor.FIELD_TYPE_FLOAT -> cursor.getDouble(column)
+      Cursor.FIELD_TYPE_STRING -> cursor.getString(column)
+      Cursor.FIELD_TYPE_BLOB -> cursor.getBlob(column).toList()
+      else -> null
+    }
+  }
+
+  private fun search(db: SQLiteDatabase, query: String): List<Long> {
+    return db.rawQuery("SELECT rowid FROM ${SearchTable.FTS_TABLE_NAME} WHERE ${SearchTable.FTS_TABLE_NAME} MATCH ? ORDER BY rowid", arrayOf(query)).use { cursor ->
+      generateSequence { if (cursor.moveToNext()) cursor.getLong(0) else null }.toList()
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.conversation
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.view.FrameMetrics
+import android.view.Window
+import androidx.recyclerview.widget.RecyclerView
+import androidx.test.core.app.ActivityScenario
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.R
+import org.thoughtcrime.securesms.conversation.v2.ConversationActivity
+import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.database.MessageType
+import org.thoughtcrime.securesms.database.MmsHelper
+import org.thoughtcrime.securesms.mms.IncomingMessage
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.GenZappActivityRule
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.math.ceil
+
+/**
+ * Scrolls through a long, emoji-heavy conversation (the same bodies the benchmark build's "conversation-scroll-emoji" setup seeds) and logs how long each
+ * frame took to draw, using the platform's frame metrics.
+ */
+@Ignore("This is just for testing performance, not correctness, and it can therefore take a long time. Run it manually when you need to.")
+@RunWith(AndroidJUnit4::class)
+class ConversationScrollFrameTimeBenchmark {
+
+  companion object {
+    private val TAG = Log.tag(ConversationScrollFrameTimeBenchmark::class.java)
+
+    private const val MESSAGES = 1000
+    private const val FLINGS = 40
+    private const val JANK_THRESHOLD_NANOS = 16_666_667L
+
+    private val EMOJI_BODIES = listOf(
+      "😂😂😂",
+      "Running late 🏃‍♀️💨 be there in 10 🙏",
+      "🎉 Happy birthday!! 🎂🎈🎁🥳 Hope it's a great one ❤️❤️❤️",
+      "👍",
+      "Did you see the game last night? ⚽️🔥🔥 That second half was unreal 😱😱 I still can't believe it 🤯",
+      "👨‍👩‍👧‍👦 🏠 🐶 🐱 🐟",
+      "ok 👌🏽 see you then 👋🏾"
+    )
+  }
+
+  @get:Rule
+  val harness = GenZappActivityRule(othersCount = 1)
+
+  @Test
+  fun scrollEmojiHeavyConversation() {
+    val other: Recipient = Recipient.resolved(harness.others.first())
+    seed(other)
+
+    val scenario: ActivityScenario<ConversationActivity> = harness.launchActivity { putExtra("recipient_id", other.id.serialize()) }
+    InstrumentationRegistry.getInstrumentation().waitForIdleSync()
+
+    val frameThread = HandlerThread("frame-metrics").apply { start() }
+    val frames: MutableList<Long> = mutableListOf()
+    val listener = Window.OnFrameMetricsAvailableListener { _, metrics, _ ->
+      synchronized(frames) {
+        frames += metrics.getMetric(FrameMetrics.TOTAL_DURATION)
+      }
+    }
+
+    lateinit var recycler: RecyclerView
+    scenario.onActivity { activity ->
+      recycler = activity.findViewById(R.id.conversation_item_recycler)
+      activity.window.addOnFrameMetricsAvailableListener(listener, Handler(frameThread.looper))
+    }
+
+    var flings = 0
+    while (flings < FLINGS && recycler.canScrollVertically(-1)) {
+      scrollUpOnce(scenario, recycler)
+      flings++
+    }
+
+    scenario.onActivity { it.window.removeOnFrameMetricsAvailableListener(listener) }
+    frameThread.quitSafely()
+
+    val sorted: List<Long> = synchronized(frames) { frames.sorted() }
+    if (sorted.isEmpty()) {
+      Log.w(TAG, "No frames were reported.")
+      return
+    }
+
+    Log.i(TAG, "Scrolled $flings screen(s) of a $MESSAGES message conversation, ${sorted.size} frames.")
+    Log.i(TAG, "Frame time p50: ${percentile(sorted, 50).asMillis()}ms, p90: ${percentile(sorted, 90).asMillis()}ms, p95: ${percentile(sorted, 95).asMillis()}ms, p99: ${percentile(sorted, 99).asMillis()}ms")
+    Log.i(TAG, "Janky frames (over ${JANK_THRESHOLD_NANOS.asMillis()}ms): ${sorted.count { it > JANK_THRESHOLD_NANOS }}")
+  }
+
+  private fun seed(other: Recipient) {
+    val threadId = GenZappDatabase.threads.getOrCreateThreadIdFor(other)
+    var timestamp = System.currentTimeMillis() - (MESSAGES * 2000L) - 60_000L
+
+    for (i in 0 until MESSAGES) {
+      timestamp += 1000
+      GenZappDatabase.messages.insertMessageInbox(
+        IncomingMessage(
+          type = MessageType.NORMAL,
+          from = other.id,
+          body = EMOJI_BODIES[i % EMOJI_BODIES.size],
+          sentTimeMillis = timestamp,
+          serverTimeMillis = timestamp,
+          receivedTimeMillis = timestamp
+        ),
+        threadId
+      )
+
+      timestamp += 1000
+      MmsHelper.insert(recipient = other, body = EMOJI_BODIES[(i + 1) % EMOJI_BODIES.size], sentTimeMillis = timestamp, threadId = threadId)
+    }
+
+    GenZappDatabase.messages.setAllMessagesRead()
+  }
+
+  /**
+   * Smooth scrolls up by one screen and waits for the list to settle.
+   */
+  private fun scrollUpOnce(scenario: ActivityScenario<ConversationActivity>, recycler: RecyclerView) {
+    val settled = CountDownLatch(1)
+    val scrollListener = object : RecyclerView.OnScrollListener() {
+      override fun onScrollStateChanged(recyclerView: RecyclerView, newState: Int) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+          settled.countDown()
+        }
+      }
+    }
+
+    scenario.onActivity {
+      recycler.addOnScrollListener(scrollListener)
+      recycler.smoothScrollBy(0, -recycler.height)
+    }
+
+    settled.await(10, TimeUnit.SECONDS)
+    scenario.onActivity { recycler.removeOnScrollListener(scrollListener) }
+    InstrumentationRegistry.getInstrumentation().waitForIdleSync()
+  }
+
+  private fun percentile(sorted: List<Long>, percent: Int): Long {
+    val index = (ceil(sorted.size * percent / 100.0).toInt() - 1).coerceIn(0, sorted.lastIndex)
+    return sorted[index]
+  }
+
+  private fun Long.asMillis(): String = "%.2f".format(this / 1_000_000.0)
+}
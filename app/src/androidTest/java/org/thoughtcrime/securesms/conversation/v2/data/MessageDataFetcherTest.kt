@@ -0,0 +1,296 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.conversation.v2.data
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.concurrent.GenZappExecutors
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment
+import org.thoughtcrime.securesms.database.CallTable
+import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.database.MmsHelper
+import org.thoughtcrime.securesms.database.model.GroupUpdateDescriptionCache
+import org.thoughtcrime.securesms.database.model.Mention
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.database.model.MessageRecord
+import org.thoughtcrime.securesms.database.model.ReactionRecord
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.keyvalue.GenZappStore
+import org.thoughtcrime.securesms.payments.Payment
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.GenZappDatabaseRule
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import org.whispersystems.GenZappservice.api.push.ServiceId.PNI
+import org.whispersystems.GenZappservice.api.util.UuidUtil
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.concurrent.thread
+
+@RunWith(AndroidJUnit4::class)
+class MessageDataFetcherTest {
+
+  companion object {
+    private val TAG = Log.tag(MessageDataFetcherTest::class.java)
+
+    private const val PAGE_SIZE = 50
+    private const val LARGE_PAGE_SIZE = 700
+    private const val PAGE_LOADS = 20
+    private const val BACKGROUND_TASK_MILLIS = 15L
+  }
+
+  @Rule
+  @JvmField
+  val databaseRule = GenZappDatabaseRule()
+
+  private lateinit var alice: RecipientId
+  private lateinit var page: List<MessageRecord>
+
+  @Before
+  fun setUp() {
+    GenZappStore.account.setE164("+15555550101")
+    GenZappStore.account.setAci(ACI.from(UUID.randomUUID()))
+    GenZappStore.account.setPni(PNI.from(UUID.randomUUID()))
+
+    alice = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID()))
+
+    val recipient = Recipient.resolved(alice)
+    page = insertPage(recipient, PAGE_SIZE)
+  }
+
+  private fun insertPage(recipient: Recipient, size: Int): List<MessageRecord> {
+    val threadId = GenZappDatabase.threads.getOrCreateThreadIdFor(recipient)
+    val firstSentTime = GenZappDatabase.messages.getMessageCountForThread(threadId).toLong() + 1
+
+    val messageIds = (0 until size).map { MmsHelper.insert(recipient = recipient, sentTimeMillis = firstSentTime + it, threadId = threadId) }
+
+    messageIds.filterIndexed { i, _ -> i % 2 == 0 }.forEach { GenZappDatabase.reactions.addReaction(MessageId(it), ReactionRecord("👍", alice, 1, 1)) }
+    messageIds.filterIndexed { i, _ -> i % 5 == 0 }.forEach { GenZappDatabase.mentions.insert(threadId, it, listOf(Mention(alice, 0, 1))) }
+
+    return messageIds.map { GenZappDatabase.messages.getMessageRecord(it) }
+  }
+
+  @Test
+  fun givenAPage_whenIFetch_thenIExpectTheSameDataAsTheParallelFetch() {
+    val fetched = MessageDataFetcher.fetch(page)
+    val legacy = LegacyFetcher.fetch(page)
+
+    assertEquals(PAGE_SIZE / 2, fetched.reactions.size)
+    assertEquals(PAGE_SIZE / 5, fetched.mentionsById.size)
+
+    assertEquals(legacy.mentionsById, fetched.mentionsById)
+    assertEquals(legacy.hasBeenQuoted, fetched.hasBeenQuoted)
+    assertEquals(legacy.reactions, fetched.reactions)
+    assertEquals(legacy.attachments, fetched.attachments)
+    assertEquals(legacy.payments, fetched.payments)
+    assertEquals(legacy.calls, fetched.calls)
+  }
+
+  @Test
+  fun givenAPageLargerThanAChunk_whenIFetch_thenIExpectTheSameDataAsTheParallelFetch() {
+    val largePage = page + insertPage(Recipient.resolved(alice), LARGE_PAGE_SIZE - PAGE_SIZE)
+
+    val fetched = MessageDataFetcher.fetch(largePage)
+    val legacy = LegacyFetcher.fetch(largePage)
+
+    assertEquals(legacy.mentionsById, fetched.mentionsById)
+    assertEquals(legacy.hasBeenQuoted, fetched.hasBeenQuoted)
+    assertEquals(legacy.reactions, fetched.reactions)
+    assertEquals(legacy.attachments, fetched.attachments)
+    assertEquals(legacy.payments, fetched.payments)
+    assertEquals(legacy.calls, fetched.calls)
+  }
+
+  /**
+   * Blocks every thread of [GenZappExecutors.BOUNDED], the way long background work can, and expects a page to still load.
+   */
+  @Test
+  fun givenABlockedBoundedPool_whenILoadAPage_thenIExpectItToLoadWithoutThePool() {
+    val release = CountDownLatch(1)
+    val blockers = List(Runtime.getRuntime().availableProcessors() * 4) {
+      GenZappExecutors.BOUNDED.submit(Runnable { release.await() })
+    }
+
+    try {
+      val fetched = fetchOnAnotherThread()
+      assertEquals(PAGE_SIZE / 2, fetched.reactions.size)
+    } finally {
+      release.countDown()
+      blockers.forEach { it.get() }
+    }
+  }
+
+  /**
+   * The fetch only reads, so it shouldn't need the write lock that message processing holds while it inserts.
+   */
+  @Test
+  fun givenAnOpenWriteTransaction_whenILoadAPage_thenIExpectItToLoadWithoutWaitingForTheWriter() {
+    val writing = CountDownLatch(1)
+    val release = CountDownLatch(1)
+    val writer = thread(name = "writer") {
+      val db = GenZappDatabase.instance!!.GenZappWritableDatabase
+      db.beginTransaction()
+      try {
+        writing.countDown()
+        release.await()
+        db.setTransactionSuccessful()
+      } finally {
+        db.endTransaction()
+      }
+    }
+
+    try {
+      assertTrue(writing.await(10, TimeUnit.SECONDS))
+      val fetched = fetchOnAnotherThread()
+      assertEquals(PAGE_SIZE / 5, fetched.mentionsById.size)
+    } finally {
+      release.countDown()
+      writer.join()
+    }
+  }
+
+  /**
+   * Loads pages while [GenZappExecutors.BOUNDED] is kept busy with other work, the way it is while messages are syncing or media is uploading, and logs how
+   * long a page takes compared to the old fan-out across that pool.
+   */
+  @Ignore("This is just for testing performance, not correctness, and it can therefore take a long time. Run it manually when you need to.")
+  @Test
+  fun givenABusyBoundedPool_whenILoadPages_thenIExpectToSeeHowLongEachTakes() {
+    // Warm both paths up before timing them
+    repeat(3) {
+      MessageDataFetcher.fetch(page)
+      LegacyFetcher.fetch(page)
+    }
+
+    val (legacyMillis, fetchMillis) = BusyPool().use {
+      timePageLoads { LegacyFetcher.fetch(page) } to timePageLoads { MessageDataFetcher.fetch(page) }
+    }
+
+    Log.i(TAG, "$PAGE_LOADS page loads of $PAGE_SIZE messages with a busy pool. Fan-out: ${legacyMillis.toDouble() / PAGE_LOADS} ms per page, on the calling thread: ${fetchMillis.toDouble() / PAGE_LOADS} ms per page")
+  }
+
+  private fun timePageLoads(load: () -> Unit): Long {
+    val start = System.currentTimeMillis()
+    repeat(PAGE_LOADS) { load() }
+    return System.currentTimeMillis() - start
+  }
+
+  private fun fetchOnAnotherThread(): MessageDataFetcher.ExtraMessageData {
+    val result = AtomicReference<MessageDataFetcher.ExtraMessageData>()
+    val error = AtomicReference<Throwable>()
+
+    val fetcher = thread(name = "fetcher") {
+      try {
+        result.set(MessageDataFetcher.fetch(page))
+      } catch (e: Throwable) {
+        error.set(e)
+      }
+    }
+
+    fetcher.join(TimeUnit.SECONDS.toMillis(10))
+    assertTrue("The fetch didn't finish", !fetcher.isAlive)
+    error.get()?.let { throw it }
+
+    Log.i(TAG, result.get().timeLog)
+    return result.get()
+  }
+
+  /**
+   * Keeps every thread of [GenZappExecutors.BOUNDED] busy with short tasks until closed, so anything else submitted has to queue behind them.
+   */
+  private class BusyPool : AutoCloseable {
+    private val running = AtomicBoolean(true)
+    private val tasks: List<Future<*>>
+
+    init {
+      val started = CountDownLatch(1)
+
+      tasks = List(Runtime.getRuntime().availableProcessors() * 4) {
+        GenZappExecutors.BOUNDED.submit(
+          Runnable {
+            started.countDown()
+            Thread.sleep(BACKGROUND_TASK_MILLIS)
+            if (running.get()) {
+              resubmit()
+            }
+          }
+        )
+      }
+
+      started.await()
+    }
+
+    private fun resubmit() {
+      GenZappExecutors.BOUNDED.execute {
+        Thread.sleep(BACKGROUND_TASK_MILLIS)
+        if (running.get()) {
+          resubmit()
+        }
+      }
+    }
+
+    override fun close() {
+      running.set(false)
+      tasks.forEach { it.get() }
+    }
+  }
+
+  /**
+   * How [MessageDataFetcher] used to load a page: each lookup submitted to [GenZappExecutors.BOUNDED] and the results collected once they all finish.
+   */
+  private object LegacyFetcher {
+    fun fetch(messageRecords: List<MessageRecord>): MessageDataFetcher.ExtraMessageData {
+      val messageIds = messageRecords.map { it.id }
+      val executor = GenZappExecutors.BOUNDED
+
+      val mentions = executor.submit<Map<Long, List<Mention>>> { GenZappDatabase.mentions.getMentionsForMessages(messageIds) }
+      val hasBeenQuoted = executor.submit<Set<Long>> { GenZappDatabase.messages.isQuoted(messageRecords) }
+      val reactions = executor.submit<Map<Long, List<ReactionRecord>>> { GenZappDatabase.reactions.getReactionsForMessages(messageIds) }
+      val attachments = executor.submit<Map<Long, List<DatabaseAttachment>>> { GenZappDatabase.attachments.getAttachmentsForMessages(messageIds) }
+      val payments = executor.submit<Map<Long, Payment>> {
+        val paymentUuidToMessageId: Map<UUID, Long> = messageRecords
+          .filter { it.isMms && it.isPaymentNotification }
+          .mapNotNull { record -> UuidUtil.parseOrNull(record.body)?.let { it to record.id } }
+          .toMap()
+
+        GenZappDatabase.payments.getPayments(paymentUuidToMessageId.keys).associateBy { paymentUuidToMessageId[it.uuid]!! }
+      }
+      val calls = executor.submit<Map<Long, CallTable.Call>> { GenZappDatabase.calls.getCalls(messageIds) }
+      val recipients = executor.submit(
+        Runnable {
+          val context = AppDependencies.application
+          GroupUpdateDescriptionCache.prefetch(context, messageRecords)
+          messageRecords.forEach { record ->
+            record.getUpdateDisplayBody(context, null)?.let { description -> Recipient.resolvedList(description.mentioned.map { RecipientId.from(it) }) }
+          }
+        }
+      )
+
+      recipients.get()
+
+      return MessageDataFetcher.ExtraMessageData(
+        mentionsById = mentions.get(),
+        hasBeenQuoted = hasBeenQuoted.get(),
+        reactions = reactions.get(),
+        attachments = attachments.get(),
+        payments = payments.get(),
+        calls = calls.get(),
+        timeLog = ""
+      )
+    }
+  }
+}
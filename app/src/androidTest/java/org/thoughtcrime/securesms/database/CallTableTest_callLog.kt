@@ -0,0 +1,147 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.withinTransaction
+import org.thoughtcrime.securesms.calls.log.CallLogFilter
+import org.thoughtcrime.securesms.calls.log.CallLogRow
+import org.thoughtcrime.securesms.testing.GenZappActivityRule
+import java.util.concurrent.TimeUnit
+
+@Suppress("ClassName")
+@RunWith(AndroidJUnit4::class)
+class CallTableTest_callLog {
+
+  @get:Rule
+  val harness = GenZappActivityRule()
+
+  @Test
+  fun givenCallEvents_whenIPageByKey_thenIExpectTheSameRowsAsPagingByOffset() {
+    seedCalls(500)
+
+    for (filter in listOf(CallLogFilter.ALL, CallLogFilter.MISSED)) {
+      val byKey = loadAllByKey(null, filter)
+      val byOffset = loadAllByOffset(null, filter)
+
+      assertEquals(byOffset.map { it.id }, byKey.map { it.id })
+      assertEquals(GenZappDatabase.calls.getCallsCount(null, filter), byKey.size)
+    }
+  }
+
+  @Test
+  fun givenCallEvents_whenISearchForAPeer_thenIExpectOnlyTheirCalls() {
+    seedCalls(500)
+
+    val searched = loadAllByKey("#1", CallLogFilter.ALL)
+
+    assertTrue(searched.isNotEmpty())
+    assertTrue(searched.all { it.peer.id == harness.others[1] })
+    assertEquals(GenZappDatabase.calls.getCallsCount("#1", CallLogFilter.ALL), searched.size)
+    assertEquals(0, GenZappDatabase.calls.getCallsCount("no such person", CallLogFilter.ALL))
+  }
+
+  @Test
+  fun given50kCallEvents_whenIPageDeepIntoTheCallLog_thenIExpectKeyedPagesToMatchOffsetPages() {
+    val eventCount = 50_000
+    val pageSize = 20
+    val pageCount = 50
+
+    seedCalls(eventCount)
+
+    val count = GenZappDatabase.calls.getCallsCount(null, CallLogFilter.ALL)
+
+    var after: CallTable.PageKey? = null
+    val keyedRows = mutableListOf<CallLogRow.Call>()
+    repeat(pageCount) {
+      val page = GenZappDatabase.calls.getCallsPage(after, keyedRows.size, pageSize, null, CallLogFilter.ALL)
+      keyedRows += page.calls
+      after = page.lastKey
+    }
+
+    val offsetPage = GenZappDatabase.calls.getCallsPage(null, (pageCount - 1) * pageSize, pageSize, null, CallLogFilter.ALL).calls
+    val searchRows = GenZappDatabase.calls.getCallsPage(null, 0, pageSize, "#2", CallLogFilter.ALL).calls.size
+
+    Log.i(TAG, "$eventCount call events, $count call log rows, $searchRows rows on the first search page")
+
+    assertEquals(pageCount * pageSize, keyedRows.size)
+    assertEquals(keyedRows.size, keyedRows.map { it.id }.toSet().size)
+    assertEquals(offsetPage.map { it.id }, keyedRows.takeLast(pageSize).map { it.id })
+  }
+
+  private fun loadAllByKey(searchTerm: String?, filter: CallLogFilter): List<CallLogRow.Call> {
+    val rows = mutableListOf<CallLogRow.Call>()
+    var after: CallTable.PageKey? = null
+
+    while (true) {
+      val page = GenZappDatabase.calls.getCallsPage(after, rows.size, 20, searchTerm, filter)
+      rows += page.calls
+      after = page.lastKey ?: return rows
+    }
+  }
+
+  private fun loadAllByOffset(searchTerm: String?, filter: CallLogFilter): List<CallLogRow.Call> {
+    val rows = mutableListOf<CallLogRow.Call>()
+
+    while (true) {
+      val page = if (rows.isEmpty()) {
+        GenZappDatabase.calls.getCalls(0, 20, searchTerm, filter)
+      } else {
+        GenZappDatabase.calls.getCallsPage(null, rows.size, 20, searchTerm, filter).calls
+      }
+
+      if (page.isEmpty()) {
+        return rows
+      }
+
+      rows += page
+    }
+  }
+
+  /**
+   * Inserts call events with plain SQL, since inserting them one at a time is far too slow for benchmark-sized call logs. Calls come in runs of five
+   * from the same person ten minutes apart, alternating between missed incoming calls and accepted outgoing calls, so that many of them collapse into
+   * a single call log row.
+   */
+  private fun seedCalls(count: Int) {
+    val peers = harness.others.mapIndexed { i, id -> "WHEN $i THEN ${id.toLong()}" }.joinToString(separator = " ")
+    val step = TimeUnit.MINUTES.toMillis(10)
+
+    GenZappDatabase.rawDatabase.withinTransaction { db ->
+      db.execSQL(
+        """
+        WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < $count)
+        INSERT INTO ${CallTable.TABLE_NAME} (
+          ${CallTable.CALL_ID},
+          ${CallTable.PEER},
+          ${CallTable.TYPE},
+          ${CallTable.DIRECTION},
+          ${CallTable.EVENT},
+          ${CallTable.TIMESTAMP}
+        )
+        SELECT
+          n,
+          CASE (n / 5) % ${harness.others.size} $peers END,
+          ${CallTable.Type.serialize(CallTable.Type.AUDIO_CALL)},
+          CASE WHEN (n / 5) % 2 = 0 THEN ${CallTable.Direction.serialize(CallTable.Direction.INCOMING)} ELSE ${CallTable.Direction.serialize(CallTable.Direction.OUTGOING)} END,
+          CASE WHEN (n / 5) % 2 = 0 THEN ${CallTable.Event.serialize(CallTable.Event.MISSED)} ELSE ${CallTable.Event.serialize(CallTable.Event.ACCEPTED)} END,
+          n * $step
+        FROM seq
+        """
+      )
+    }
+  }
+
+  companion object {
+    private val TAG = Log.tag(CallTableTest_callLog::class.java)
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.withinTransaction
+import org.thoughtcrime.securesms.conversationlist.model.ConversationFilter
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.keyvalue.GenZappStore
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.GenZappDatabaseRule
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import org.whispersystems.GenZappservice.api.push.ServiceId.PNI
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Like [DatabaseObserverTest], be sure to call [DatabaseObserver.flush] before asserting on anything that depends on a notification having been delivered.
+ */
+@Suppress("ClassName")
+@RunWith(AndroidJUnit4::class)
+class DatabaseObserverTest_coalescing {
+
+  @Rule
+  @JvmField
+  val databaseRule = GenZappDatabaseRule()
+
+  private lateinit var db: SQLiteDatabase
+
+  @Before
+  fun setUp() {
+    GenZappStore.account.setE164("+15555550101")
+    GenZappStore.account.setAci(ACI.from(UUID.randomUUID()))
+    GenZappStore.account.setPni(PNI.from(UUID.randomUUID()))
+
+    db = GenZappDatabase.instance!!.GenZappWritableDatabase
+  }
+
+  @Test
+  fun givenNotificationsFromManyTransactions_whenTheyArriveWithinTheWindow_thenIExpectObserversToRunOnce() {
+    val observer = DatabaseObserver(AppDependencies.application, 60_000, 60_000)
+    val listCount = AtomicInteger(0)
+    val conversationCounts = (1L..3L).associateWith { AtomicInteger(0) }
+
+    observer.registerConversationListObserver { listCount.incrementAndGet() }
+    conversationCounts.forEach { (threadId, count) -> observer.registerConversationObserver(threadId) { count.incrementAndGet() } }
+
+    repeat(100) { i ->
+      db.withinTransaction {
+        observer.notifyConversationListeners(setOf(1L + i % 2, 2L + i % 2))
+        observer.notifyConversationListListeners()
+      }
+    }
+
+    observer.flush()
+
+    assertEquals(1, listCount.get())
+    assertEquals(listOf(1, 1, 1), conversationCounts.values.map { it.get() })
+  }
+
+  @Test
+  fun givenAPendingNotification_whenIAskForImmediateDelivery_thenIExpectItToSkipTheWindow() {
+    val observer = DatabaseObserver(AppDependencies.application, 60_000, 60_000)
+    val coalesced = CountDownLatch(1)
+    val immediate = CountDownLatch(1)
+
+    observer.registerConversationObserver(1) { coalesced.countDown() }
+    observer.registerConversationObserver(2) { immediate.countDown() }
+
+    observer.notifyConversationListeners(1)
+    observer.notifyConversationListeners(2, true)
+
+    assertTrue(immediate.await(5, TimeUnit.SECONDS))
+    assertEquals(1L, coalesced.count)
+
+    observer.flush()
+    assertEquals(0L, coalesced.count)
+  }
+
+  @Test
+  fun givenACoalescedAndAnImmediateNotificationInOneTransaction_whenItCommits_thenIExpectOneImmediateDelivery() {
+    val observer = DatabaseObserver(AppDependencies.application, 60_000, 60_000)
+    val count = AtomicInteger(0)
+    val delivered = CountDownLatch(1)
+
+    observer.registerConversationObserver(1) {
+      count.incrementAndGet()
+      delivered.countDown()
+    }
+
+    db.withinTransaction {
+      observer.notifyConversationListeners(1)
+      observer.notifyConversationListeners(1, true)
+    }
+
+    // Delivered without a flush, and the coalesced copy has been dropped
+    assertTrue(delivered.await(5, TimeUnit.SECONDS))
+    observer.flush()
+    assertEquals(1, count.get())
+  }
+
+  @Test
+  fun givenAShortWindow_whenNotificationsStopArriving_thenIExpectThemToBeDeliveredWithoutAFlush() {
+    val observer = DatabaseObserver(AppDependencies.application, 16, 50)
+    val delivered = CountDownLatch(1)
+
+    observer.registerConversationListObserver { delivered.countDown() }
+    observer.notifyConversationListListeners()
+
+    assertTrue(delivered.await(5, TimeUnit.SECONDS))
+  }
+
+  @Test
+  fun givenStoryNotificationsForDifferentRecipients_whenCoalesced_thenIExpectEachRecipientToBeNotified() {
+    val observer = DatabaseObserver(AppDependencies.application, 60_000, 60_000)
+    val recipients = (0 until 3).map { GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())) }
+    val counts = recipients.associateWith { AtomicInteger(0) }
+
+    counts.forEach { (id, count) -> observer.registerStoryObserver(id) { count.incrementAndGet() } }
+
+    recipients.forEach { observer.notifyStoryObservers(it) }
+    observer.flush()
+
+    assertEquals(listOf(1, 1, 1), counts.values.map { it.get() })
+  }
+
+  @Test
+  fun given5kIncomingMessages_whenEachIsInsertedInItsOwnTransaction_thenIExpectOneReloadPerObserver() {
+    val observer = DatabaseObserver(AppDependencies.application, 60_000, 60_000)
+    val senders = (0 until 20).map { Recipient.resolved(GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID()))) }
+    val threadIds = senders.map { GenZappDatabase.threads.getOrCreateThreadIdFor(it) }
+
+    val listReloads = AtomicInteger(0)
+    val conversationReloads = threadIds.associateWith { AtomicInteger(0) }
+
+    observer.registerConversationListObserver {
+      // Stand in for what the conversation list does on every change
+      GenZappDatabase.threads.getUnarchivedConversationListCount(ConversationFilter.OFF)
+      listReloads.incrementAndGet()
+    }
+    conversationReloads.forEach { (threadId, count) -> observer.registerConversationObserver(threadId) { count.incrementAndGet() } }
+
+    // The same pair of notifications an incoming message insert sends, each from its own transaction
+    val messageCount = 5_000
+    for (i in 0 until messageCount) {
+      val threadId = threadIds[i % threadIds.size]
+
+      db.withinTransaction {
+        ThreadSeeder.insertMessages(threadId, senders[i % senders.size].id, 1)
+        observer.notifyConversationListeners(threadId)
+        observer.notifyConversationListListeners()
+      }
+    }
+
+    observer.flush()
+
+    Log.i(TAG, "$messageCount transactions. Conversation list reloads: ${listReloads.get()}")
+
+    assertEquals(1, listReloads.get())
+    assertEquals(List(threadIds.size) { 1 }, conversationReloads.values.map { it.get() })
+  }
+
+  companion object {
+    private val TAG = Log.tag(DatabaseObserverTest_coalescing::class.java)
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.readToSingleLong
+import org.GenZapp.libGenZapp.protocol.util.Pair
+import org.thoughtcrime.securesms.recipients.RecipientId
+import kotlin.system.measureTimeMillis
+
+@RunWith(AndroidJUnit4::class)
+class GroupReceiptTableTest {
+
+  private val table: GroupReceiptTable = GenZappDatabase.groupReceipts
+
+  private val members: List<RecipientId> = (1L..5L).map { RecipientId.from(it) }
+
+  @Before
+  fun setUp() {
+    table.deleteAllRows()
+  }
+
+  @Test
+  fun givenNoReceipts_whenIGetReceiptInfo_thenIExpectAnEmptyList() {
+    assertEquals(emptyList<GroupReceiptTable.GroupReceiptInfo>(), table.getGroupReceiptInfo(1))
+  }
+
+  @Test
+  fun givenInsertedReceipts_whenIGetReceiptInfo_thenIExpectOnePerMemberInOrder() {
+    table.insert(members, 1, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+
+    val receipts = table.getGroupReceiptInfo(1)
+
+    assertEquals(members, receipts.map { it.recipientId })
+    assertTrue(receipts.all { it.status == GroupReceiptTable.STATUS_UNDELIVERED && it.timestamp == 100L && !it.isUnidentified })
+  }
+
+  @Test
+  fun givenReceipts_whenIUpdateAStatus_thenIExpectItToOnlyIncrease() {
+    table.insert(members, 1, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+
+    table.update(members[0], 1, GroupReceiptTable.STATUS_READ, 200)
+    table.update(members[0], 1, GroupReceiptTable.STATUS_DELIVERED, 300)
+    table.update(members[1], 1, GroupReceiptTable.STATUS_DELIVERED, 400)
+
+    val receipts = table.getGroupReceiptInfo(1).associateBy { it.recipientId }
+
+    assertEquals(GroupReceiptTable.STATUS_READ, receipts.getValue(members[0]).status)
+    assertEquals(200L, receipts.getValue(members[0]).timestamp)
+    assertEquals(GroupReceiptTable.STATUS_DELIVERED, receipts.getValue(members[1]).status)
+    assertEquals(400L, receipts.getValue(members[1]).timestamp)
+    assertEquals(GroupReceiptTable.STATUS_UNDELIVERED, receipts.getValue(members[2]).status)
+  }
+
+  @Test
+  fun givenReceipts_whenISetUnidentifiedAndSkipped_thenIExpectThoseMembersToChange() {
+    table.insert(members, 1, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+
+    table.setUnidentified(listOf(Pair(members[0], true), Pair(members[1], false)), 1)
+    table.setSkipped(listOf(members[2]), 1)
+
+    val receipts = table.getGroupReceiptInfo(1).associateBy { it.recipientId }
+
+    assertTrue(receipts.getValue(members[0]).isUnidentified)
+    assertEquals(false, receipts.getValue(members[1]).isUnidentified)
+    assertEquals(GroupReceiptTable.STATUS_SKIPPED, receipts.getValue(members[2]).status)
+  }
+
+  @Test
+  fun givenAMessageWithReceipts_whenIInsertAnotherMember_thenIExpectItToBeAppended() {
+    table.insert(members.take(2), 1, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+    table.insert(listOf(members[2]), 1, GroupReceiptTable.STATUS_DELIVERED, 200)
+
+    val receipts = table.getGroupReceiptInfo(1)
+
+    assertEquals(members.take(3), receipts.map { it.recipientId })
+    assertEquals(GroupReceiptTable.STATUS_DELIVERED, receipts[2].status)
+  }
+
+  @Test
+  fun givenMessagesToTheSameMembers_whenIInsertReceipts_thenIExpectASingleSharedMemberList() {
+    (1L..10L).forEach { table.insert(members, it, GroupReceiptTable.STATUS_UNDELIVERED, it) }
+
+    assertEquals(1, countRows(GroupReceiptTable.MEMBERS_TABLE_NAME))
+    assertEquals(10, table.getGroupReceiptInfoForMessages((1L..10L).toSet()).size)
+  }
+
+  @Test
+  fun givenASharedMemberList_whenOneMessageGainsAMember_thenIExpectTheSharedListToBeKeptUntilItIsUnused() {
+    table.insert(members.take(2), 1, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+    table.insert(members.take(2), 2, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+
+    table.insert(listOf(members[2]), 1, GroupReceiptTable.STATUS_UNDELIVERED, 200)
+    assertEquals(2, countRows(GroupReceiptTable.MEMBERS_TABLE_NAME))
+
+    table.insert(listOf(members[2]), 2, GroupReceiptTable.STATUS_UNDELIVERED, 200)
+    assertEquals(1, countRows(GroupReceiptTable.MEMBERS_TABLE_NAME))
+    assertEquals(members.take(3), table.getGroupReceiptInfo(2).map { it.recipientId })
+  }
+
+  @Test
+  fun givenManyMessages_whenIGetReceiptsForMessages_thenIExpectEachMessagesReceipts() {
+    table.insert(members, 1, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+    table.insert(members.take(2), 2, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+    table.update(members[0], 2, GroupReceiptTable.STATUS_VIEWED, 200)
+
+    val result = table.getGroupReceiptInfoForMessages(setOf(1, 2, 3))
+
+    assertEquals(setOf(1L, 2L), result.keys)
+    assertEquals(5, result.getValue(1).size)
+    assertEquals(GroupReceiptTable.STATUS_VIEWED, result.getValue(2)[0].status)
+  }
+
+  @Test
+  fun givenReceipts_whenIDeleteAMessage_thenIExpectItsReceiptsToBeRemoved() {
+    table.insert(members, 1, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+    table.insert(members, 2, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+
+    table.deleteRowsForMessage(1)
+
+    assertEquals(emptyList<GroupReceiptTable.GroupReceiptInfo>(), table.getGroupReceiptInfo(1))
+    assertEquals(5, table.getGroupReceiptInfo(2).size)
+  }
+
+  @Test
+  fun givenReceiptsForMissingMessages_whenIDeleteAbandonedRows_thenIExpectThemAndTheirMembersToBeRemoved() {
+    table.insert(members, Long.MAX_VALUE - 1, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+
+    table.deleteAbandonedRows()
+
+    assertEquals(0, countRows(GroupReceiptTable.TABLE_NAME))
+    assertEquals(0, countRows(GroupReceiptTable.MEMBERS_TABLE_NAME))
+  }
+
+  @Test
+  fun givenReceipts_whenIRemapARecipient_thenIExpectTheMemberToBeReplaced() {
+    val replacement = RecipientId.from(100)
+    table.insert(members, 1, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+    table.insert(members.map { if (it == members[0]) replacement else it }, 2, GroupReceiptTable.STATUS_UNDELIVERED, 100)
+
+    table.remapRecipient(members[0], replacement)
+
+    assertEquals(replacement, table.getGroupReceiptInfo(1)[0].recipientId)
+    assertEquals(replacement, table.getGroupReceiptInfo(2)[0].recipientId)
+    assertEquals(1, countRows(GroupReceiptTable.MEMBERS_TABLE_NAME))
+  }
+
+  @Test
+  fun givenA1000MemberGroup_whenReceiptsArrive_thenIExpectCompactStorageAndFastApplication() {
+    val group: List<RecipientId> = (1L..1000L).map { RecipientId.from(it) }
+    val messageCount = 20L
+
+    val insertTime = measureTimeMillis {
+      (1L..messageCount).forEach { table.insert(group, it, GroupReceiptTable.STATUS_UNDELIVERED, it) }
+    }
+
+    val updateTime = measureTimeMillis {
+      for (messageId in 1L..messageCount) {
+        group.forEach { table.update(it, messageId, GroupReceiptTable.STATUS_DELIVERED, 1000) }
+        group.forEach { table.update(it, messageId, GroupReceiptTable.STATUS_READ, 2000) }
+      }
+      table.flushPendingUpdates()
+    }
+
+    val bytes: Long = GenZappDatabase.rawDatabase
+      .rawQuery(
+        """
+        SELECT
+          (SELECT IFNULL(SUM(length(${GroupReceiptTable.STATUS}) + length(${GroupReceiptTable.TIMESTAMP}) + length(${GroupReceiptTable.UNIDENTIFIED})), 0) FROM ${GroupReceiptTable.TABLE_NAME}) +
+          (SELECT IFNULL(SUM(length(${GroupReceiptTable.MEMBERS})), 0) FROM ${GroupReceiptTable.MEMBERS_TABLE_NAME})
+        """,
+        null
+      )
+      .readToSingleLong()
+
+    Log.i(TAG, "Inserted $messageCount x ${group.size} receipts in $insertTime ms, applied ${messageCount * group.size * 2} receipts in $updateTime ms, $bytes bytes of receipt data")
+
+    assertEquals(messageCount.toInt(), countRows(GroupReceiptTable.TABLE_NAME))
+    assertEquals(1, countRows(GroupReceiptTable.MEMBERS_TABLE_NAME))
+    assertTrue(table.getGroupReceiptInfoForMessages((1L..messageCount).toSet()).values.flatten().all { it.status == GroupReceiptTable.STATUS_READ })
+  }
+
+  private fun countRows(tableName: String): Int {
+    return GenZappDatabase.rawDatabase.rawQuery("SELECT COUNT(*) FROM $tableName", null).readToSingleLong().toInt()
+  }
+
+  companion object {
+    private val TAG = Log.tag(GroupReceiptTableTest::class.java)
+  }
+}
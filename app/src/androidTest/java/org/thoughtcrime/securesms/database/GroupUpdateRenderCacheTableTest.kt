@@ -0,0 +1,253 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.Hex
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.libGenZapp.zkgroup.groups.GroupMasterKey
+import org.GenZapp.storageservice.protos.groups.local.DecryptedGroup
+import org.thoughtcrime.securesms.database.model.GroupUpdateDescriptionCache
+import org.thoughtcrime.securesms.database.model.GroupsV2UpdateMessageConverter
+import org.thoughtcrime.securesms.database.model.MessageRecord
+import org.thoughtcrime.securesms.database.model.databaseprotos.DecryptedGroupV2Context
+import org.thoughtcrime.securesms.database.model.databaseprotos.GV2UpdateDescription
+import org.thoughtcrime.securesms.database.model.databaseprotos.addMember
+import org.thoughtcrime.securesms.database.model.databaseprotos.groupChange
+import org.thoughtcrime.securesms.database.model.databaseprotos.groupContext
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.groups.GroupId
+import org.thoughtcrime.securesms.keyvalue.GenZappStore
+import org.thoughtcrime.securesms.mms.IncomingMessage
+import org.thoughtcrime.securesms.profiles.ProfileName
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.storage.StorageRecordUpdate
+import org.thoughtcrime.securesms.storage.StorageSyncModels
+import org.thoughtcrime.securesms.testing.GenZappDatabaseRule
+import org.thoughtcrime.securesms.util.Util
+import org.thoughtcrime.securesms.util.dynamiclanguage.DynamicLanguageContextWrapper
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import org.whispersystems.GenZappservice.api.storage.GenZappContactRecord
+import java.util.UUID
+import kotlin.time.Duration.Companion.nanoseconds
+import kotlin.time.DurationUnit
+
+@RunWith(AndroidJUnit4::class)
+class GroupUpdateRenderCacheTableTest {
+
+  @get:Rule
+  val harness = GenZappDatabaseRule()
+
+  private val context = AppDependencies.application
+
+  private lateinit var alice: RecipientId
+  private lateinit var bob: RecipientId
+
+  private var wallClock: Long = 1000
+
+  @Before
+  fun setUp() {
+    alice = GenZappDatabase.recipients.getOrInsertFromServiceId(aliceServiceId)
+    bob = GenZappDatabase.recipients.getOrInsertFromServiceId(bobServiceId)
+
+    GenZappDatabase.recipients.setProfileName(alice, ProfileName.fromParts("Alice", "Android"))
+    GenZappDatabase.recipients.setProfileName(bob, ProfileName.fromParts("Bob", "Android"))
+
+    GenZappDatabase.groupUpdateRenderCache.clear()
+    GroupUpdateDescriptionCache.clearMemory()
+  }
+
+  @Test
+  fun givenPrefetchedUpdate_whenIReadFromANewSession_thenIGetTheSameText() {
+    val record = insertGroupUpdate()
+    val expected = record.getUpdateDisplayBody(context, null)!!.spannable.toString()
+
+    GroupUpdateDescriptionCache.prefetch(context, listOf(record))
+    GroupUpdateDescriptionCache.flushWrites()
+    GroupUpdateDescriptionCache.clearMemory()
+
+    assertNull(GroupUpdateDescriptionCache.getRendered(context, record.id))
+
+    GroupUpdateDescriptionCache.prefetch(context, listOf(record))
+    val rendered = GroupUpdateDescriptionCache.getRendered(context, record.id)
+
+    assertNotNull(rendered)
+    assertEquals(expected, rendered!!.body)
+    assertTrue(rendered.spans.any { it.recipientId == alice })
+    assertEquals(expected, record.getUpdateDisplayBody(context, null)!!.spannable.toString())
+  }
+
+  @Test
+  fun givenPrefetchedUpdate_whenAMentionedRecipientIsRenamed_thenTheRenderIsInvalidated() {
+    val record = insertGroupUpdate()
+
+    GroupUpdateDescriptionCache.prefetch(context, listOf(record))
+    assertNotNull(GroupUpdateDescriptionCache.getRendered(context, record.id))
+
+    GenZappDatabase.recipients.setProfileName(alice, ProfileName.fromParts("Alicia", "Android"))
+    Recipient.live(alice).refresh()
+
+    assertNull(GroupUpdateDescriptionCache.getRendered(context, record.id))
+    assertTrue(GenZappDatabase.groupUpdateRenderCache.getRendered(listOf(record.id), locale(), appVersion()).isEmpty())
+
+    GroupUpdateDescriptionCache.prefetch(context, listOf(record))
+    assertTrue(GroupUpdateDescriptionCache.getRendered(context, record.id)!!.body.contains("Alicia"))
+  }
+
+  @Test
+  fun givenPersistedUpdate_whenAMentionedRecipientIsRenamed_thenTheRowIsDeleted() {
+    val record = insertGroupUpdate()
+
+    GroupUpdateDescriptionCache.prefetch(context, listOf(record))
+    GroupUpdateDescriptionCache.flushWrites()
+    assertEquals(1, GenZappDatabase.groupUpdateRenderCache.getRendered(listOf(record.id), locale(), appVersion()).size)
+
+    GenZappDatabase.recipients.setProfileName(alice, ProfileName.fromParts("Alicia", "Android"))
+
+    assertTrue(GenZappDatabase.groupUpdateRenderCache.getRendered(listOf(record.id), locale(), appVersion()).isEmpty())
+  }
+
+  @Test
+  fun givenPersistedUpdate_whenAMentionedRecipientIsRenamedByStorageSync_thenTheRenderIsInvalidated() {
+    val record = insertGroupUpdate()
+
+    GenZappDatabase.recipients.markRegistered(alice, aliceServiceId)
+    GenZappDatabase.recipients.rotateStorageId(alice)
+
+    GroupUpdateDescriptionCache.prefetch(context, listOf(record))
+    GroupUpdateDescriptionCache.flushWrites()
+    assertNotNull(GroupUpdateDescriptionCache.getRendered(context, record.id))
+    assertEquals(1, GenZappDatabase.groupUpdateRenderCache.getRendered(listOf(record.id), locale(), appVersion()).size)
+
+    val oldRecord: GenZappContactRecord = StorageSyncModels.localToRemoteRecord(GenZappDatabase.recipients.getRecordForSync(alice)!!).contact.get()
+    val newRecord = GenZappContactRecord(oldRecord.id, oldRecord.toProto().newBuilder().givenName("Alicia").build())
+
+    GenZappDatabase.recipients.applyStorageSyncContactUpdate(StorageRecordUpdate(oldRecord, newRecord))
+
+    assertNull(GroupUpdateDescriptionCache.getRendered(context, record.id))
+    assertTrue(GenZappDatabase.groupUpdateRenderCache.getRendered(listOf(record.id), locale(), appVersion()).isEmpty())
+
+    GroupUpdateDescriptionCache.prefetch(context, listOf(record))
+    assertTrue(GroupUpdateDescriptionCache.getRendered(context, record.id)!!.body.contains("Alicia"))
+  }
+
+  @Test
+  fun givenPersistedUpdate_whenAMentionedRecipientIsOnlyWrittenWithTheSameName_thenTheRowIsKept() {
+    val record = insertGroupUpdate()
+
+    GroupUpdateDescriptionCache.prefetch(context, listOf(record))
+    GroupUpdateDescriptionCache.flushWrites()
+
+    GenZappDatabase.rawDatabase.execSQL(
+      "UPDATE ${RecipientTable.TABLE_NAME} SET ${RecipientTable.PROFILE_JOINED_NAME} = ${RecipientTable.PROFILE_JOINED_NAME} WHERE ${RecipientTable.ID} = ${alice.toLong()}"
+    )
+
+    assertEquals(1, GenZappDatabase.groupUpdateRenderCache.getRendered(listOf(record.id), locale(), appVersion()).size)
+  }
+
+  @Test
+  fun givenPrefetchedUpdate_whenAnUnrelatedRecipientIsRenamed_thenTheRenderIsKept() {
+    val record = insertGroupUpdate()
+    val carol = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID()))
+
+    GroupUpdateDescriptionCache.prefetch(context, listOf(record))
+    GroupUpdateDescriptionCache.flushWrites()
+    GenZappDatabase.recipients.setProfileName(carol, ProfileName.fromParts("Carol", "Android"))
+
+    assertNotNull(GroupUpdateDescriptionCache.getRendered(context, record.id))
+    assertEquals(1, GenZappDatabase.groupUpdateRenderCache.getRendered(listOf(record.id), locale(), appVersion()).size)
+  }
+
+  /**
+   * Simulates binding a 5k row group history: every row's description is fetched and turned into text, as a conversation item would on bind.
+   * Logs a cold start (decode + render everything) against a later session where the renders are loaded from disk in bulk, and checks that the later
+   * session is served entirely from disk.
+   */
+  @Test
+  fun scrollBindBenchmark() {
+    val records: List<MessageRecord> = (0 until ROWS).map { insertGroupUpdate() }
+
+    val coldNanos = timed {
+      records.forEach { it.getUpdateDisplayBody(context, null)!!.spannable }
+    }
+
+    GroupUpdateDescriptionCache.prefetch(context, records)
+    GroupUpdateDescriptionCache.flushWrites()
+    GroupUpdateDescriptionCache.clearMemory()
+
+    assertEquals(ROWS, GenZappDatabase.groupUpdateRenderCache.getRendered(records.map { it.id }, locale(), appVersion()).size)
+
+    val warmNanos = timed {
+      records.chunked(PAGE_SIZE).forEach { page -> GroupUpdateDescriptionCache.prefetch(context, page) }
+      records.forEach { it.getUpdateDisplayBody(context, null)!!.spannable }
+    }
+
+    Log.i(TAG, "Bound $ROWS rows. Cold: ${coldNanos.asMillis()}ms, Warm (including bulk load): ${warmNanos.asMillis()}ms")
+  }
+
+  private fun insertGroupUpdate(): MessageRecord {
+    wallClock++
+
+    val groupContext: DecryptedGroupV2Context = groupContext(masterKey) {
+      groupState = DecryptedGroup(revision = wallClock.toInt())
+      change = groupChange(editor = aliceServiceId) {
+        revision = wallClock.toInt()
+        addMember(bobServiceId)
+      }
+    }
+
+    val updateDescription = GV2UpdateDescription(
+      gv2ChangeDescription = groupContext,
+      groupChangeUpdate = GroupsV2UpdateMessageConverter.translateDecryptedChangeUpdate(GenZappStore.account.getServiceIds(), groupContext)
+    )
+
+    val message = IncomingMessage.groupUpdate(
+      from = alice,
+      timestamp = wallClock,
+      groupId = groupId,
+      update = updateDescription,
+      isGroupAdd = false,
+      serverGuid = null
+    )
+
+    val messageId = GenZappDatabase.messages.insertMessageInbox(message).get().messageId
+    return GenZappDatabase.messages.getMessageRecord(messageId)
+  }
+
+  private fun timed(block: () -> Unit): Long {
+    val start = System.nanoTime()
+    block()
+    return System.nanoTime() - start
+  }
+
+  private fun Long.asMillis(): String = nanoseconds.toDouble(DurationUnit.MILLISECONDS).toString()
+
+  private fun locale(): String = DynamicLanguageContextWrapper.getUsersSelectedLocale(context).toLanguageTag()
+
+  private fun appVersion(): Int = Util.getCanonicalVersionCode()
+
+  companion object {
+    private val TAG = Log.tag(GroupUpdateRenderCacheTableTest::class.java)
+
+    private const val ROWS = 5_000
+    private const val PAGE_SIZE = 50
+
+    private val aliceServiceId: ACI = ACI.from(UUID.fromString("3436efbe-5a76-47fa-a98a-7e72c948a82e"))
+    private val bobServiceId: ACI = ACI.from(UUID.fromString("8de7f691-0b60-4a68-9cd9-ed2f8453f9ed"))
+
+    private val masterKey = GroupMasterKey(Hex.fromStringCondensed("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef"))
+    private val groupId = GroupId.v2(masterKey)
+  }
+}
@@ -12,8 +12,10 @@ import org.GenZapp.core.util.requireNonNullString
 import org.GenZapp.core.util.select
 import org.GenZapp.core.util.updateAll
 import org.thoughtcrime.securesms.crash.CrashConfig
+import org.thoughtcrime.securesms.database.model.LogEntry
 import org.thoughtcrime.securesms.dependencies.AppDependencies
 import org.thoughtcrime.securesms.testing.assertIs
+import kotlin.time.Duration.Companion.hours
 
 class LogDatabaseTest {
 
@@ -285,4 +287,57 @@ class LogDatabaseTest {
         }
       }
   }
+
+  @Test
+  fun logTable_readsEveryRowInOrderAcrossPages() {
+    val bodies = insertLogs(LogDatabase.LogTable.PAGE_SIZE * 2 + 10)
+
+    val read = db.logs.getAllBeforeTime(untilTime()).use { it.asSequence().toList() }
+
+    read assertIs bodies
+  }
+
+  @Test
+  fun logTable_tailKeepsTheMostRecentRowsThatFitAfterAMarker() {
+    val bodies = insertLogs(100)
+
+    val read = db.logs.getTailBeforeTime(untilTime(), maxSize = bodies.takeLast(30).sumOf { it.length }.toLong()).use { it.asSequence().toList() }
+
+    read.first().contains("Skipped the oldest 70 log lines") assertIs true
+    read.drop(1) assertIs bodies.takeLast(30)
+  }
+
+  @Test
+  fun logTable_tailHasNoMarkerWhenEverythingFits() {
+    val bodies = insertLogs(100)
+
+    val read = db.logs.getTailBeforeTime(untilTime(), maxSize = bodies.sumOf { it.length }.toLong()).use { it.asSequence().toList() }
+
+    read assertIs bodies
+  }
+
+  @Test
+  fun logTable_tailIsOnlyTheMarkerWhenTheNewestRowDoesNotFit() {
+    insertLogs(10)
+
+    val read = db.logs.getTailBeforeTime(untilTime(), maxSize = 1).use { it.asSequence().toList() }
+
+    read.size assertIs 1
+    read[0].contains("Skipped the oldest 10 log lines") assertIs true
+  }
+
+  private fun insertLogs(count: Int): List<String> {
+    db.logs.clearAll()
+
+    val baseTime = System.currentTimeMillis() - 2.hours.inWholeMilliseconds
+    val entries = (0 until count).map { LogEntry(createdAt = baseTime + it, keepLonger = false, body = "Log line $it ${"x".repeat(it % 50)}") }
+
+    db.logs.insert(entries, System.currentTimeMillis())
+
+    return entries.map { it.body }
+  }
+
+  private fun untilTime(): Long {
+    return System.currentTimeMillis() - 1.hours.inWholeMilliseconds
+  }
 }
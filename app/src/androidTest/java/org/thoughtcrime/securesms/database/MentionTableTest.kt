@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.readToList
+import org.GenZapp.core.util.requireNonNullString
+import org.GenZapp.core.util.withinTransaction
+import org.thoughtcrime.securesms.database.model.Mention
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.GenZappDatabaseRule
+
+class MentionTableTest {
+
+  @Rule
+  @JvmField
+  val databaseRule = GenZappDatabaseRule()
+
+  private val table: MentionTable = GenZappDatabase.mentions
+
+  private val alice = RecipientId.from(1)
+  private val bob = RecipientId.from(2)
+
+  @Before
+  fun setUp() {
+    table.deleteAllMentions()
+  }
+
+  @Test
+  fun givenMentionsAcrossThreads_whenISearchForARecipient_thenIExpectTheNewestMessagesFirst() {
+    table.insert(1, 10, listOf(Mention(alice, 0, 1)))
+    table.insert(2, 11, listOf(Mention(alice, 0, 1), Mention(bob, 2, 1)))
+    table.insert(1, 12, listOf(Mention(bob, 0, 1)))
+    table.insert(2, 13, listOf(Mention(alice, 0, 1)))
+
+    val result = table.getMentionsContainingRecipients(listOf(alice), 2)
+
+    assertEquals(setOf(13L, 11L), result.keys)
+    assertEquals(2, result.getValue(11).size)
+  }
+
+  @Test
+  fun givenMentionsAcrossThreads_whenISearchWithinAThread_thenIExpectOnlyThatThread() {
+    table.insert(1, 10, listOf(Mention(alice, 0, 1)))
+    table.insert(2, 11, listOf(Mention(alice, 0, 1)))
+    table.insert(1, 12, listOf(Mention(bob, 0, 1)))
+
+    val result = table.getMentionsContainingRecipients(listOf(alice, bob), 1, 10)
+
+    assertEquals(setOf(10L, 12L), result.keys)
+  }
+
+  @Test
+  fun givenSeveralRecipients_whenISearchWithALimit_thenIExpectTheLimitToApplyAcrossRecipients() {
+    (1L..10L).forEach { table.insert(1, it, listOf(Mention(if (it % 2 == 0L) alice else bob, 0, 1))) }
+
+    val result = table.getMentionsContainingRecipients(listOf(alice, bob), 3)
+
+    assertEquals(setOf(10L, 9L, 8L), result.keys)
+  }
+
+  @Test
+  fun givenMentionQueries_whenIExplainThem_thenIExpectIndexLookupsWithoutSorting() {
+    val crossThreadPlan = queryPlan("SELECT DISTINCT message_id FROM mention INDEXED BY mention_recipient_id_message_id_index WHERE recipient_id = 1 ORDER BY message_id DESC LIMIT 500")
+    val threadPlan = queryPlan("SELECT DISTINCT message_id FROM mention INDEXED BY mention_recipient_id_thread_id_message_id_index WHERE recipient_id = 1 AND thread_id = 1 ORDER BY message_id DESC LIMIT 500")
+    val unreadMentionPlan = queryPlan(
+      "SELECT COUNT(*) FROM message INDEXED BY message_thread_unread_mentions_index " +
+        "WHERE thread_id = 1 AND story_type = 0 AND parent_story_id <= 0 AND latest_revision_id IS NULL AND scheduled_date = -1 AND read = 0 AND mentions_self = 1"
+    )
+
+    assertTrue(crossThreadPlan, crossThreadPlan.contains("COVERING INDEX mention_recipient_id_message_id_index (recipient_id=?)"))
+    assertTrue(threadPlan, threadPlan.contains("COVERING INDEX mention_recipient_id_thread_id_message_id_index (recipient_id=? AND thread_id=?)"))
+    assertTrue(unreadMentionPlan, unreadMentionPlan.contains("COVERING INDEX message_thread_unread_mentions_index (thread_id=?)"))
+
+    assertFalse(crossThreadPlan, crossThreadPlan.contains("TEMP B-TREE"))
+    assertFalse(threadPlan, threadPlan.contains("TEMP B-TREE"))
+  }
+
+  @Test
+  fun givenALargeMentionGroup_whenISearchForMentions_thenIExpectTheNewestMatchesFromEachQuery() {
+    val mentionCount = 50_000
+    val memberCount = 100
+    val threadId = 1L
+
+    GenZappDatabase.rawDatabase.withinTransaction { db ->
+      db.execSQL(
+        """
+        WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < $mentionCount)
+        INSERT INTO ${MentionTable.TABLE_NAME} (
+          ${MentionTable.THREAD_ID},
+          ${MentionTable.MESSAGE_ID},
+          ${MentionTable.RECIPIENT_ID},
+          ${MentionTable.RANGE_START},
+          ${MentionTable.RANGE_LENGTH}
+        )
+        SELECT $threadId, n, (n % $memberCount) + 1, 0, 1 FROM seq
+        """
+      )
+    }
+
+    val recipients = (1L..5L).map { RecipientId.from(it) }
+
+    val crossThread = table.getMentionsContainingRecipients(recipients, 500)
+    val inThread = table.getMentionsContainingRecipients(recipients, threadId, 500)
+
+    Log.i(TAG, "Searched $mentionCount mentions. Found ${crossThread.size} across threads and ${inThread.size} within the thread")
+
+    val expected = (1L..mentionCount.toLong())
+      .filter { (it % memberCount) + 1 <= recipients.size }
+      .takeLast(500)
+      .toSet()
+
+    assertEquals(expected, crossThread.keys)
+    assertEquals(expected, inThread.keys)
+  }
+
+  private fun queryPlan(sql: String): String {
+    return GenZappDatabase.rawDatabase
+      .rawQuery("EXPLAIN QUERY PLAN $sql", null)
+      .readToList { it.requireNonNullString("detail") }
+      .joinToString(separator = "\n")
+  }
+
+  companion object {
+    private val TAG = Log.tag(MentionTableTest::class.java)
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.readToSingleLong
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.keyvalue.GenZappStore
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.GenZappDatabaseRule
+import org.thoughtcrime.securesms.util.RemoteConfig
+import org.whispersystems.GenZappservice.api.crypto.ContentHint
+import org.whispersystems.GenZappservice.api.messages.SendMessageResult
+import org.whispersystems.GenZappservice.api.push.GenZappServiceAddress
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import org.whispersystems.GenZappservice.api.push.ServiceId.PNI
+import org.whispersystems.GenZappservice.internal.push.Content
+import org.whispersystems.GenZappservice.internal.push.DataMessage
+import java.util.Optional
+import java.util.UUID
+import kotlin.time.Duration.Companion.days
+
+@RunWith(AndroidJUnit4::class)
+class MessageSendLogTablesTest {
+
+  @Rule
+  @JvmField
+  val databaseRule = GenZappDatabaseRule()
+
+  private val messageLog: MessageSendLogTables = GenZappDatabase.messageLog
+
+  @Before
+  fun setUp() {
+    GenZappStore.account.setE164("+15555550101")
+    GenZappStore.account.setAci(ACI.from(UUID.randomUUID()))
+    GenZappStore.account.setPni(PNI.from(UUID.randomUUID()))
+
+    messageLog.deleteAll()
+  }
+
+  @Test
+  fun givenAGroupSend_whenSomeMembersDeliver_thenIExpectOnlyTheRemainingMembersToHaveEntries() {
+    val members = createMembers(5)
+    val dateSent = System.currentTimeMillis()
+    insertGroupSend(members, dateSent, messageId = 1)
+
+    messageLog.deleteEntryForRecipient(dateSent, members[0], 1)
+    messageLog.deleteEntryForRecipient(dateSent, members[1], 1)
+
+    assertNull(messageLog.getLogEntry(members[0], 1, dateSent))
+    assertNull(messageLog.getLogEntry(members[1], 1, dateSent))
+    assertNotNull(messageLog.getLogEntry(members[2], 1, dateSent))
+    assertEquals(1L, payloadCount())
+    assertEquals(3L, remainingRecipients())
+  }
+
+  @Test
+  fun givenAGroupSend_whenEveryMemberDelivers_thenIExpectThePayloadToBeDeleted() {
+    val members = createMembers(5)
+    val dateSent = System.currentTimeMillis()
+    insertGroupSend(members, dateSent, messageId = 1)
+
+    members.forEach { messageLog.deleteEntryForRecipient(dateSent, it, 1) }
+    messageLog.flushPendingDeletes()
+
+    assertEquals(0L, payloadCount())
+    assertEquals(0L, recipientCount())
+  }
+
+  @Test
+  fun givenARecipientAddedToAnExistingEntry_whenEveryoneDelivers_thenIExpectThePayloadToBeDeleted() {
+    val members = createMembers(2)
+    val dateSent = System.currentTimeMillis()
+    val payloadId = insertGroupSend(members.take(1), dateSent, messageId = 1)
+
+    messageLog.addRecipientToExistingEntryIfPossible(payloadId, members[1], dateSent, successResult(members[1]), ContentHint.RESENDABLE, MessageId(1), true)
+    assertEquals(2L, remainingRecipients())
+
+    messageLog.deleteEntryForRecipient(dateSent, members[0], 1)
+    messageLog.flushPendingDeletes()
+    assertEquals(1L, payloadCount())
+
+    messageLog.deleteEntryForRecipient(dateSent, members[1], 1)
+    messageLog.flushPendingDeletes()
+    assertEquals(0L, payloadCount())
+  }
+
+  @Test
+  fun givenAGroupSend_whenARecipientIsDeletedEntirely_thenIExpectTheCountToFollow() {
+    val members = createMembers(2)
+    val dateSent = System.currentTimeMillis()
+    insertGroupSend(members, dateSent, messageId = 1)
+
+    messageLog.deleteAllForRecipient(members[0])
+    assertEquals(1L, remainingRecipients())
+
+    messageLog.deleteAllForRecipient(members[1])
+    assertEquals(0L, payloadCount())
+  }
+
+  @Test
+  fun givenAnOldEntry_whenIGetIt_thenIExpectNothingEvenBeforeATrim() {
+    val members = createMembers(1)
+    val dateSent = System.currentTimeMillis() - RemoteConfig.retryRespondMaxAge - 1.days.inWholeMilliseconds
+    insertGroupSend(members, dateSent, messageId = 1)
+
+    // Counts as a recent trim, without actually removing anything
+    messageLog.trimOldMessages(System.currentTimeMillis(), Long.MAX_VALUE / 2)
+    assertEquals(1L, payloadCount())
+
+    assertNull(messageLog.getLogEntry(members[0], 1, dateSent))
+  }
+
+  @Test
+  fun givenARecipientAlreadyOnTheEntry_whenIAddThemAgain_thenIExpectTheCountToStayTheSame() {
+    val members = createMembers(2)
+    val dateSent = System.currentTimeMillis()
+    val payloadId = insertGroupSend(members, dateSent, messageId = 1)
+
+    messageLog.addRecipientToExistingEntryIfPossible(payloadId, members[1], dateSent, successResult(members[1]), ContentHint.RESENDABLE, MessageId(1), true)
+    assertEquals(2L, remainingRecipients())
+    assertEquals(2L, recipientCount())
+
+    messageLog.deleteEntryForRecipient(dateSent, members[0], 1)
+    messageLog.deleteEntryForRecipient(dateSent, members[1], 1)
+    messageLog.flushPendingDeletes()
+    assertEquals(0L, payloadCount())
+  }
+
+  @Test
+  fun given1000MemberGroupSends_when50kDeliveryReceiptsArriveInBatches_thenIExpectEveryEntryToBeCleanedUp() {
+    val members = createMembers(1000)
+    val baseTimestamp = System.currentTimeMillis()
+
+    val sends = 50
+    (0 until sends).forEach { insertGroupSend(members, baseTimestamp + it, messageId = it.toLong()) }
+    assertEquals(sends.toLong(), payloadCount())
+    assertEquals((sends * members.size).toLong(), remainingRecipients())
+
+    // Receipts in websocket sized batches, flushed at the end of each batch
+    val receipts = (0 until sends).flatMap { send -> members.map { member -> baseTimestamp + send to member } }.shuffled()
+    val batches = receipts.chunked(30)
+
+    batches.take(batches.size / 2).forEach { batch ->
+      batch.forEach { (dateSent, member) -> messageLog.deleteEntryForRecipient(dateSent, member, 1) }
+      messageLog.flushPendingDeletes()
+    }
+
+    val delivered = batches.take(batches.size / 2).sumOf { it.size }
+    assertEquals((receipts.size - delivered).toLong(), remainingRecipients())
+    assertEquals((receipts.size - delivered).toLong(), recipientCount())
+
+    batches.drop(batches.size / 2).forEach { batch ->
+      batch.forEach { (dateSent, member) -> messageLog.deleteEntryForRecipient(dateSent, member, 1) }
+      messageLog.flushPendingDeletes()
+    }
+
+    Log.i(TAG, "Flushed ${receipts.size} receipts in ${batches.size} batches")
+    assertEquals(0L, payloadCount())
+    assertEquals(0L, recipientCount())
+  }
+
+  private fun createMembers(count: Int): List<RecipientId> {
+    return (0 until count).map { GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())) }
+  }
+
+  private fun insertGroupSend(members: List<RecipientId>, dateSent: Long, messageId: Long): Long {
+    val recipients = members.map { Recipient.resolved(it) }
+    val results = recipients.map { successResult(it.id) }
+
+    return messageLog.insertIfPossible(dateSent, recipients, results, ContentHint.RESENDABLE, MessageId(messageId), true)
+  }
+
+  private fun successResult(recipientId: RecipientId): SendMessageResult {
+    val address = GenZappServiceAddress(Recipient.resolved(recipientId).requireServiceId())
+    return SendMessageResult.success(address, listOf(1), true, false, -1, Optional.of(CONTENT))
+  }
+
+  private fun payloadCount(): Long {
+    return GenZappDatabase.rawDatabase.rawQuery("SELECT COUNT(*) FROM msl_payload").readToSingleLong()
+  }
+
+  private fun recipientCount(): Long {
+    return GenZappDatabase.rawDatabase.rawQuery("SELECT COUNT(*) FROM msl_recipient").readToSingleLong()
+  }
+
+  private fun remainingRecipients(): Long {
+    return GenZappDatabase.rawDatabase.rawQuery("SELECT SUM(remaining_recipients) FROM msl_payload").readToSingleLong()
+  }
+
+  companion object {
+    private val TAG = Log.tag(MessageSendLogTablesTest::class.java)
+
+    private val CONTENT = Content.Builder().dataMessage(DataMessage.Builder().body("Hello").build()).build()
+  }
+}
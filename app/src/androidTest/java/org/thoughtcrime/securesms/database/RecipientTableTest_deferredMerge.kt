@@ -0,0 +1,313 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.readToSingleLong
+import org.GenZapp.core.util.withinTransaction
+import org.thoughtcrime.securesms.database.model.Mention
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.database.model.ReactionRecord
+import org.thoughtcrime.securesms.keyvalue.GenZappStore
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.GenZappDatabaseRule
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import org.whispersystems.GenZappservice.api.push.ServiceId.PNI
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.concurrent.thread
+import kotlin.system.measureTimeMillis
+
+@Suppress("ClassName")
+class RecipientTableTest_deferredMerge {
+
+  @Rule
+  @JvmField
+  val databaseRule = GenZappDatabaseRule()
+
+  @Before
+  fun setUp() {
+    GenZappStore.account.setE164(E164_SELF)
+    GenZappStore.account.setAci(ACI_SELF)
+    GenZappStore.account.setPni(PNI_SELF)
+  }
+
+  @Test
+  fun givenASmallHistory_whenIMerge_thenIExpectMessagesToBeRemappedImmediately() {
+    val aciId = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI_A)
+    val e164Id = GenZappDatabase.recipients.getOrInsertFromE164(E164_A)
+    val e164ThreadId = ThreadSeeder.seedThread(e164Id, 10)
+
+    GenZappDatabase.recipients.getAndPossiblyMerge(ACI_A, E164_A, true)
+
+    assertFalse(GenZappDatabase.recipients.remapNextDeferredMergeChunk())
+    assertEquals(0, messagesFromRecipient(e164Id))
+    assertEquals(10, messagesFromRecipient(aciId))
+    assertEquals(e164ThreadId, GenZappDatabase.threads.getThreadIdFor(aciId))
+  }
+
+  @Test
+  fun givenALargeHistory_whenIMerge_thenIExpectTheWholeHistoryInTheMergedThreadRightAway() {
+    val aciId = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI_A)
+    val e164Id = GenZappDatabase.recipients.getOrInsertFromE164(E164_A)
+    val aciThreadId = ThreadSeeder.seedThread(aciId, 5)
+    val e164ThreadId = ThreadSeeder.seedThread(e164Id, LARGE_HISTORY)
+
+    val mergedId = GenZappDatabase.recipients.getAndPossiblyMerge(ACI_A, E164_A, true)
+
+    // The big thread is kept and handed over, so its messages never change threads
+    assertEquals(aciId, mergedId)
+    assertEquals(e164ThreadId, GenZappDatabase.threads.getThreadIdFor(aciId))
+    assertNull(GenZappDatabase.threads.getThreadRecord(aciThreadId))
+
+    // Everything is visible in the merged conversation before any chunk has run
+    val expectedMessages = 5 + LARGE_HISTORY + 1
+    assertEquals(expectedMessages, GenZappDatabase.messages.getMessageCountForThread(e164ThreadId))
+    assertTrue(GenZappDatabase.messages.getUnreadCount(e164ThreadId) >= 5 + LARGE_HISTORY)
+    assertEquals(aciId, Recipient.resolved(e164Id).id)
+
+    // The old recipient's messages haven't been touched yet
+    assertEquals(LARGE_HISTORY, messagesFromRecipient(e164Id))
+
+    drainDeferredMerges()
+
+    assertEquals(0, messagesFromRecipient(e164Id))
+    assertEquals(expectedMessages, ThreadSeeder.messageCountForThread(e164ThreadId))
+    assertEquals(aciId, Recipient.resolved(e164Id).id)
+    assertFalse(recipientRowExists(e164Id))
+  }
+
+  @Test
+  fun givenAPendingMerge_whenIDeleteTheMergedThread_thenIExpectTheHistoryToStayDeleted() {
+    val aciId = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI_A)
+    val e164Id = GenZappDatabase.recipients.getOrInsertFromE164(E164_A)
+    ThreadSeeder.seedThread(aciId, 5)
+    ThreadSeeder.seedThread(e164Id, LARGE_HISTORY)
+
+    GenZappDatabase.recipients.getAndPossiblyMerge(ACI_A, E164_A, true)
+    val mergedThreadId = GenZappDatabase.threads.getThreadIdFor(aciId)!!
+
+    assertTrue(GenZappDatabase.recipients.remapNextDeferredMergeChunk(chunkSize = CHUNK_SIZE))
+    GenZappDatabase.threads.deleteConversation(mergedThreadId)
+
+    drainDeferredMerges()
+    while (GenZappDatabase.threads.purgeNextDeletedConversationChunk()) {
+      // Keep going until the purge is finished
+    }
+
+    assertEquals(0, ThreadSeeder.messageCountForThread(mergedThreadId))
+    assertEquals(0, GenZappDatabase.messages.getUnreadCount(mergedThreadId))
+    assertFalse(recipientRowExists(e164Id))
+  }
+
+  @Test
+  fun givenAPendingMerge_whenMessagesAreWrittenWithTheOldIdWhileChunksRun_thenIExpectAllOfThemToBeRemapped() {
+    val aciId = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI_A)
+    val e164Id = GenZappDatabase.recipients.getOrInsertFromE164(E164_A)
+    ThreadSeeder.seedThread(aciId, 5)
+    ThreadSeeder.seedThread(e164Id, LARGE_HISTORY)
+
+    GenZappDatabase.recipients.getAndPossiblyMerge(ACI_A, E164_A, true)
+    val mergedThreadId = GenZappDatabase.threads.getThreadIdFor(aciId)!!
+
+    val start = CountDownLatch(1)
+    val writerError = AtomicReference<Throwable>()
+    val writer = thread(name = "old-id-writer") {
+      try {
+        start.await()
+        repeat(CONCURRENT_BATCHES) {
+          ThreadSeeder.insertMessages(mergedThreadId, e164Id, CONCURRENT_BATCH_SIZE)
+        }
+      } catch (e: Throwable) {
+        writerError.set(e)
+      }
+    }
+
+    // Remap chunks directly while the writer runs, so the merge can't finish (and delete the old recipient) out from under it
+    start.countDown()
+    var chunks = 0
+    while (writer.isAlive) {
+      GenZappDatabase.rawDatabase.withinTransaction {
+        GenZappDatabase.messages.remapRecipientChunk(e164Id, aciId, CHUNK_SIZE)
+      }
+      chunks++
+    }
+    writer.join()
+
+    assertNull(writerError.get())
+    Log.i(TAG, "Ran $chunks chunk(s) alongside the writer")
+
+    drainDeferredMerges()
+
+    assertEquals(0, messagesFromRecipient(e164Id))
+    assertEquals(5 + LARGE_HISTORY + 1 + CONCURRENT_BATCHES * CONCURRENT_BATCH_SIZE, ThreadSeeder.messageCountForThread(mergedThreadId))
+    assertFalse(recipientRowExists(e164Id))
+  }
+
+  @Test
+  fun givenAVeryLargeHistory_whenIMerge_thenIExpectTheRemapToBeSplitIntoBoundedChunks() {
+    val messageCount = 20 * CHUNK_SIZE
+    val aciId = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI_A)
+    val e164Id = GenZappDatabase.recipients.getOrInsertFromE164(E164_A)
+    ThreadSeeder.seedThread(aciId, 1)
+    ThreadSeeder.seedThread(e164Id, messageCount)
+
+    GenZappDatabase.recipients.getAndPossiblyMerge(ACI_A, E164_A, true)
+
+    // The merge transaction itself doesn't rewrite any of the old recipient's messages
+    assertEquals(messageCount, messagesFromRecipient(e164Id))
+
+    var chunks = 0
+    while (true) {
+      val before = messagesFromRecipient(e164Id)
+
+      if (!GenZappDatabase.recipients.remapNextDeferredMergeChunk(chunkSize = CHUNK_SIZE)) {
+        break
+      }
+
+      val remapped = before - messagesFromRecipient(e164Id)
+      assertTrue("Remapped $remapped messages in one transaction", remapped <= CHUNK_SIZE)
+      chunks++
+    }
+
+    Log.i(TAG, "Remapped a $messageCount message history in $chunks chunk(s)")
+
+    assertEquals(0, messagesFromRecipient(e164Id))
+    assertTrue("Expected the remap to be split into chunks, but it took $chunks", chunks >= messageCount / CHUNK_SIZE)
+  }
+
+  @Test
+  fun givenALargeHistoryOutsideOfTheirThread_whenIMerge_thenIExpectTheRemapToBeDeferred() {
+    val aciId = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI_A)
+    val e164Id = GenZappDatabase.recipients.getOrInsertFromE164(E164_A)
+    val otherId = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID()))
+    val aciThreadId = ThreadSeeder.seedThread(aciId, 5)
+    ThreadSeeder.seedThread(e164Id, 5)
+    val otherThreadId = GenZappDatabase.threads.getOrCreateThreadIdFor(otherId, isGroup = false)
+    ThreadSeeder.insertMessages(otherThreadId, e164Id, LARGE_HISTORY)
+
+    GenZappDatabase.recipients.getAndPossiblyMerge(ACI_A, E164_A, true)
+
+    // The old recipient's own thread is small, so the usual thread is kept, but its messages elsewhere are left for the job
+    assertEquals(aciThreadId, GenZappDatabase.threads.getThreadIdFor(aciId))
+    assertEquals(5 + LARGE_HISTORY, messagesFromRecipient(e164Id))
+    assertTrue(recipientRowExists(e164Id))
+
+    drainDeferredMerges()
+
+    assertEquals(0, messagesFromRecipient(e164Id))
+    assertFalse(recipientRowExists(e164Id))
+  }
+
+  @Test
+  fun givenALargeHistoryWithReactionsMentionsAndReceipts_whenIMerge_thenIExpectThemToBeRemappedByTheJob() {
+    val aciId = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI_A)
+    val e164Id = GenZappDatabase.recipients.getOrInsertFromE164(E164_A)
+    ThreadSeeder.seedThread(aciId, 5)
+    val e164ThreadId = ThreadSeeder.seedThread(e164Id, LARGE_HISTORY)
+
+    val messageId = GenZappDatabase.rawDatabase
+      .rawQuery("SELECT MAX(${MessageTable.ID}) FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.THREAD_ID} = $e164ThreadId", null)
+      .readToSingleLong()
+    GenZappDatabase.reactions.addReaction(MessageId(messageId), ReactionRecord("👍", e164Id, 1, 1))
+    GenZappDatabase.mentions.insert(e164ThreadId, messageId, listOf(Mention(e164Id, 0, 1)))
+    GenZappDatabase.groupReceipts.insert(listOf(e164Id), messageId, GroupReceiptTable.STATUS_DELIVERED, 1)
+
+    GenZappDatabase.recipients.getAndPossiblyMerge(ACI_A, E164_A, true)
+
+    assertEquals(1, rowCount(ReactionTable.TABLE_NAME, ReactionTable.AUTHOR_ID, e164Id))
+    assertEquals(1, rowCount(MentionTable.TABLE_NAME, MentionTable.RECIPIENT_ID, e164Id))
+
+    drainDeferredMerges()
+
+    assertEquals(0, rowCount(ReactionTable.TABLE_NAME, ReactionTable.AUTHOR_ID, e164Id))
+    assertEquals(1, rowCount(ReactionTable.TABLE_NAME, ReactionTable.AUTHOR_ID, aciId))
+    assertEquals(0, rowCount(MentionTable.TABLE_NAME, MentionTable.RECIPIENT_ID, e164Id))
+    assertEquals(1, rowCount(MentionTable.TABLE_NAME, MentionTable.RECIPIENT_ID, aciId))
+    assertEquals(listOf(aciId), GenZappDatabase.groupReceipts.getGroupReceiptInfo(messageId).map { it.recipientId })
+    assertFalse(recipientRowExists(e164Id))
+  }
+
+  /**
+   * Merges a recipient with a 200k message history and logs how long the merge itself (the part done on the message processing path) and the deferred
+   * remap take.
+   */
+  @Ignore("This is just for testing performance, not correctness, and it can therefore take a long time. Run it manually when you need to.")
+  @Test
+  fun givenA200kMessageHistory_whenIMerge_thenIExpectTheMergeToBeFast() {
+    val messageCount = 200_000
+    val aciId = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI_A)
+    val e164Id = GenZappDatabase.recipients.getOrInsertFromE164(E164_A)
+    ThreadSeeder.seedThread(aciId, 100)
+    ThreadSeeder.seedThread(e164Id, messageCount)
+
+    val mergeTime = measureTimeMillis {
+      GenZappDatabase.recipients.getAndPossiblyMerge(ACI_A, E164_A, true)
+    }
+
+    var chunks = 0
+    val remapTime = measureTimeMillis {
+      while (GenZappDatabase.recipients.remapNextDeferredMergeChunk()) {
+        chunks++
+      }
+    }
+
+    Log.i(TAG, "Merged a $messageCount message history. Merge: $mergeTime ms, deferred remap: $remapTime ms over $chunks chunk(s)")
+    assertEquals(0, messagesFromRecipient(e164Id))
+  }
+
+  private fun drainDeferredMerges() {
+    while (GenZappDatabase.recipients.remapNextDeferredMergeChunk(chunkSize = CHUNK_SIZE)) {
+      // Keep going until the merge is finished
+    }
+  }
+
+  private fun messagesFromRecipient(recipientId: RecipientId): Int {
+    return GenZappDatabase.rawDatabase
+      .rawQuery("SELECT COUNT(*) FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.FROM_RECIPIENT_ID} = ${recipientId.toLong()}", null)
+      .readToSingleLong()
+      .toInt()
+  }
+
+  private fun rowCount(table: String, column: String, recipientId: RecipientId): Int {
+    return GenZappDatabase.rawDatabase
+      .rawQuery("SELECT COUNT(*) FROM $table WHERE $column = ${recipientId.toLong()}", null)
+      .readToSingleLong()
+      .toInt()
+  }
+
+  private fun recipientRowExists(recipientId: RecipientId): Boolean {
+    return GenZappDatabase.rawDatabase
+      .rawQuery("SELECT COUNT(*) FROM ${RecipientTable.TABLE_NAME} WHERE ${RecipientTable.ID} = ${recipientId.toLong()}", null)
+      .readToSingleLong() > 0
+  }
+
+  companion object {
+    private val TAG = Log.tag(RecipientTableTest_deferredMerge::class.java)
+
+    private const val LARGE_HISTORY = 2_500
+    private const val CHUNK_SIZE = 1_000
+    private const val CONCURRENT_BATCHES = 50
+    private const val CONCURRENT_BATCH_SIZE = 20
+
+    val ACI_A: ACI = ACI.from(UUID.fromString("aaaa0000-5a76-47fa-a98a-7e72c948a82e"))
+    val ACI_SELF: ACI = ACI.from(UUID.fromString("77770000-b477-4f35-a824-d92987a63641"))
+    val PNI_SELF: PNI = PNI.from(UUID.fromString("77771111-b014-41fb-bf73-05cb2ec52910"))
+
+    const val E164_A = "+12222222222"
+    const val E164_SELF = "+10000000000"
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.delete
+import org.GenZapp.core.util.deleteAll
+import org.GenZapp.core.util.insertInto
+import org.GenZapp.core.util.update
+import org.thoughtcrime.securesms.util.MediaUtil
+
+@RunWith(AndroidJUnit4::class)
+class StorageUsageTableTest {
+
+  private val db = GenZappDatabase.rawDatabase
+
+  @Before
+  fun setUp() {
+    GenZappDatabase.attachments.deleteAllAttachments()
+    db.deleteAll(StorageUsageTable.FILE_TABLE_NAME)
+    db.deleteAll(StorageUsageTable.TABLE_NAME)
+  }
+
+  @Test
+  fun givenNoAttachments_whenIGetTheBreakdown_thenIExpectZeros() {
+    assertEquals(breakdown(), GenZappDatabase.storageUsage.getStorageBreakdown())
+  }
+
+  @Test
+  fun givenOneOfEachType_whenIGetTheBreakdown_thenIExpectEachCategoryToBeCounted() {
+    insert(dataFile = "a", size = 100, contentType = MediaUtil.IMAGE_JPEG)
+    insert(dataFile = "b", size = 200, contentType = MediaUtil.IMAGE_GIF)
+    insert(dataFile = "c", size = 300, contentType = MediaUtil.VIDEO_MP4)
+    insert(dataFile = "d", size = 400, contentType = MediaUtil.AUDIO_AAC)
+    insert(dataFile = "e", size = 500, contentType = "application/pdf")
+    insert(dataFile = "f", size = 600, contentType = MediaUtil.LONG_TEXT)
+
+    assertEquals(
+      breakdown(photo = 300 to 2, video = 300 to 1, audio = 400 to 1, document = 1100 to 2),
+      GenZappDatabase.storageUsage.getStorageBreakdown()
+    )
+    assertTrue(GenZappDatabase.storageUsage.reconcile())
+  }
+
+  @Test
+  fun givenStickersViewOnceAndPendingAttachments_whenIGetTheBreakdown_thenIExpectThemToBeIgnored() {
+    insert(dataFile = "a", size = 100, contentType = MediaUtil.IMAGE_WEBP, stickerPackId = "pack")
+    insert(dataFile = "b", size = 200, contentType = MediaUtil.VIEW_ONCE)
+    insert(dataFile = "c", size = 300, contentType = MediaUtil.IMAGE_JPEG, transferState = AttachmentTable.TRANSFER_PROGRESS_PENDING)
+    insert(dataFile = null, size = 400, contentType = MediaUtil.IMAGE_JPEG)
+
+    assertEquals(breakdown(), GenZappDatabase.storageUsage.getStorageBreakdown())
+    assertTrue(GenZappDatabase.storageUsage.reconcile())
+  }
+
+  @Test
+  fun givenDedupedAttachments_whenIGetTheBreakdown_thenIExpectTheFileToBeCountedOnceAtTheLargestSize() {
+    insert(dataFile = "a", size = 100, contentType = MediaUtil.IMAGE_JPEG)
+    insert(dataFile = "a", size = 150, contentType = MediaUtil.IMAGE_JPEG)
+    insert(dataFile = "a", size = 120, contentType = MediaUtil.IMAGE_JPEG)
+
+    assertEquals(breakdown(photo = 150 to 1), GenZappDatabase.storageUsage.getStorageBreakdown())
+    assertTrue(GenZappDatabase.storageUsage.reconcile())
+  }
+
+  @Test
+  fun givenDedupedAttachments_whenIDeleteTheLargest_thenIExpectTheNextLargestToBeCounted() {
+    insert(dataFile = "a", size = 100, contentType = MediaUtil.IMAGE_JPEG)
+    val largest = insert(dataFile = "a", size = 150, contentType = MediaUtil.IMAGE_JPEG)
+
+    deleteAttachment(largest)
+
+    assertEquals(breakdown(photo = 100 to 1), GenZappDatabase.storageUsage.getStorageBreakdown())
+    assertTrue(GenZappDatabase.storageUsage.reconcile())
+  }
+
+  @Test
+  fun givenDedupedAttachments_whenIDeleteAllOfThem_thenIExpectNothingToBeCounted() {
+    val first = insert(dataFile = "a", size = 100, contentType = MediaUtil.IMAGE_JPEG)
+    val second = insert(dataFile = "a", size = 100, contentType = MediaUtil.IMAGE_JPEG)
+
+    deleteAttachment(first)
+    assertEquals(breakdown(photo = 100 to 1), GenZappDatabase.storageUsage.getStorageBreakdown())
+
+    deleteAttachment(second)
+    assertEquals(breakdown(), GenZappDatabase.storageUsage.getStorageBreakdown())
+    assertTrue(GenZappDatabase.storageUsage.reconcile())
+  }
+
+  @Test
+  fun givenAnAttachmentThatIsRepointedToAnExistingFile_whenIGetTheBreakdown_thenIExpectOnlyTheSharedFileToBeCounted() {
+    insert(dataFile = "a", size = 100, contentType = MediaUtil.IMAGE_JPEG)
+    val duplicate = insert(dataFile = "b", size = 100, contentType = MediaUtil.IMAGE_JPEG)
+
+    assertEquals(breakdown(photo = 200 to 2), GenZappDatabase.storageUsage.getStorageBreakdown())
+
+    db.update(AttachmentTable.TABLE_NAME)
+      .values(AttachmentTable.DATA_FILE to "a")
+      .where("${AttachmentTable.ID} = ?", duplicate)
+      .run()
+
+    assertEquals(breakdown(photo = 100 to 1), GenZappDatabase.storageUsage.getStorageBreakdown())
+    assertTrue(GenZappDatabase.storageUsage.reconcile())
+  }
+
+  @Test
+  fun givenAPendingAttachment_whenTheTransferCompletes_thenIExpectItToBeCounted() {
+    val id = insert(dataFile = "a", size = 100, contentType = MediaUtil.VIDEO_MP4, transferState = AttachmentTable.TRANSFER_PROGRESS_STARTED)
+
+    assertEquals(breakdown(), GenZappDatabase.storageUsage.getStorageBreakdown())
+
+    db.update(AttachmentTable.TABLE_NAME)
+      .values(AttachmentTable.TRANSFER_STATE to AttachmentTable.TRANSFER_PROGRESS_DONE)
+      .where("${AttachmentTable.ID} = ?", id)
+      .run()
+
+    assertEquals(breakdown(video = 100 to 1), GenZappDatabase.storageUsage.getStorageBreakdown())
+    assertTrue(GenZappDatabase.storageUsage.reconcile())
+  }
+
+  @Test
+  fun givenAllAttachmentsAreDeleted_whenIGetTheBreakdown_thenIExpectZeros() {
+    insert(dataFile = "a", size = 100, contentType = MediaUtil.IMAGE_JPEG)
+    insert(dataFile = "b", size = 200, contentType = MediaUtil.AUDIO_AAC)
+
+    GenZappDatabase.attachments.deleteAllAttachments()
+
+    assertEquals(breakdown(), GenZappDatabase.storageUsage.getStorageBreakdown())
+  }
+
+  @Test
+  fun givenTotalsThatHaveDrifted_whenIReconcile_thenIExpectThemToBeRebuilt() {
+    insert(dataFile = "a", size = 100, contentType = MediaUtil.IMAGE_JPEG)
+    insert(dataFile = "b", size = 200, contentType = MediaUtil.AUDIO_AAC)
+
+    db.deleteAll(StorageUsageTable.FILE_TABLE_NAME)
+    assertEquals(breakdown(), GenZappDatabase.storageUsage.getStorageBreakdown())
+
+    assertFalse(GenZappDatabase.storageUsage.reconcile())
+    assertEquals(breakdown(photo = 100 to 1, audio = 200 to 1), GenZappDatabase.storageUsage.getStorageBreakdown())
+    assertTrue(GenZappDatabase.storageUsage.reconcile())
+  }
+
+  private fun insert(
+    dataFile: String?,
+    size: Long,
+    contentType: String,
+    transferState: Int = AttachmentTable.TRANSFER_PROGRESS_DONE,
+    stickerPackId: String? = null
+  ): Long {
+    return db.insertInto(AttachmentTable.TABLE_NAME)
+      .values(
+        AttachmentTable.MESSAGE_ID to 1L,
+        AttachmentTable.DATA_FILE to dataFile,
+        AttachmentTable.DATA_SIZE to size,
+        AttachmentTable.CONTENT_TYPE to contentType,
+        AttachmentTable.TRANSFER_STATE to transferState,
+        AttachmentTable.STICKER_PACK_ID to stickerPackId
+      )
+      .run()
+  }
+
+  private fun deleteAttachment(id: Long) {
+    db.delete(AttachmentTable.TABLE_NAME)
+      .where("${AttachmentTable.ID} = ?", id)
+      .run()
+  }
+
+  private fun breakdown(
+    photo: Pair<Long, Int> = 0L to 0,
+    video: Pair<Long, Int> = 0L to 0,
+    audio: Pair<Long, Int> = 0L to 0,
+    document: Pair<Long, Int> = 0L to 0
+  ): MediaTable.StorageBreakdown {
+    return MediaTable.StorageBreakdown(
+      photoSize = photo.first,
+      videoSize = video.first,
+      audioSize = audio.first,
+      documentSize = document.first,
+      photoCount = photo.second,
+      videoCount = video.second,
+      audioCount = audio.second,
+      documentCount = document.second
+    )
+  }
+}
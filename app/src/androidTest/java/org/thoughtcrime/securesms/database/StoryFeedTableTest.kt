@@ -0,0 +1,261 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.core.content.contentValuesOf
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.exists
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.database.model.DistributionListId
+import org.thoughtcrime.securesms.database.model.ParentStoryId
+import org.thoughtcrime.securesms.database.model.StoryType
+import org.thoughtcrime.securesms.keyvalue.GenZappStore
+import org.thoughtcrime.securesms.mms.IncomingMessage
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import org.whispersystems.GenZappservice.api.push.ServiceId.PNI
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class StoryFeedTableTest {
+
+  companion object {
+    private val TAG = Log.tag(StoryFeedTableTest::class.java)
+
+    private const val CHAT_MESSAGES = 1_000
+  }
+
+  private val localAci = ACI.from(UUID.randomUUID())
+  private val localPni = PNI.from(UUID.randomUUID())
+
+  private lateinit var myStory: Recipient
+  private lateinit var recipients: List<RecipientId>
+
+  @Before
+  fun setUp() {
+    GenZappDatabase.messages.deleteAllThreads()
+
+    GenZappStore.account.setAci(localAci)
+    GenZappStore.account.setPni(localPni)
+
+    myStory = Recipient.resolved(GenZappDatabase.recipients.getOrInsertFromDistributionListId(DistributionListId.MY_STORY))
+    recipients = (0 until 5).map { GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())) }
+
+    GenZappDatabase.storyFeed.getFeed()
+  }
+
+  @Test
+  fun givenNoStories_whenIGetTheFeed_thenIExpectAnEmptyList() {
+    assertEquals(emptyList<StoryFeedTable.Row>(), GenZappDatabase.storyFeed.getFeed())
+  }
+
+  @Test
+  fun givenIncomingStories_whenIGetTheFeed_thenIExpectTheLatestStoryPerSender() {
+    insertIncomingStory(recipients[0], 1)
+    val latest = insertIncomingStory(recipients[0], 2)
+    val other = insertIncomingStory(recipients[1], 3)
+
+    val feed = GenZappDatabase.storyFeed.getFeed().associateBy { it.recipientId }
+
+    assertEquals(2, feed.size)
+    assertEquals(latest, feed.getValue(recipients[0]).latest.messageId)
+    assertEquals(2, feed.getValue(recipients[0]).unviewedCount)
+    assertEquals(other, feed.getValue(recipients[1]).latest.messageId)
+    assertEquals(emptyList<StoryFeedTable.Story>(), feed.getValue(recipients[1]).outgoing)
+  }
+
+  @Test
+  fun givenAnIncomingStory_whenIViewIt_thenIExpectItToNoLongerBeUnviewed() {
+    val story = insertIncomingStory(recipients[0], 1)
+
+    GenZappDatabase.messages.setIncomingMessageViewed(story)
+
+    assertEquals(0, GenZappDatabase.storyFeed.getFeed().single().unviewedCount)
+  }
+
+  @Test
+  fun givenAnIncomingStory_whenIReplyToIt_thenIExpectItToHaveSelfReplies() {
+    val story = insertIncomingStory(recipients[0], 1)
+    assertFalse(GenZappDatabase.storyFeed.getFeed().single().latest.hasSelfReplies)
+
+    MmsHelper.insert(
+      recipient = Recipient.resolved(recipients[0]),
+      sentTimeMillis = 2,
+      parentStoryId = ParentStoryId.DirectReply(story)
+    )
+
+    val latest = GenZappDatabase.storyFeed.getFeed().single().latest
+    assertTrue(latest.hasSelfReplies)
+    assertFalse(latest.hasReplies)
+  }
+
+  @Test
+  fun givenAnIncomingStory_whenIDeleteIt_thenIExpectItToBeRemovedFromTheFeed() {
+    val story = insertIncomingStory(recipients[0], 1)
+    assertEquals(1, GenZappDatabase.storyFeed.getFeed().size)
+
+    GenZappDatabase.messages.deleteMessage(story)
+
+    assertEquals(emptyList<StoryFeedTable.Row>(), GenZappDatabase.storyFeed.getFeed())
+  }
+
+  @Test
+  fun givenOutgoingStories_whenIGetTheFeed_thenIExpectTheTwoLatestOutgoingStories() {
+    val threadId = GenZappDatabase.threads.getOrCreateThreadIdFor(myStory)
+    val ids = (1L..3L).map { MmsHelper.insert(recipient = myStory, sentTimeMillis = it, storyType = StoryType.STORY_WITH_REPLIES, threadId = threadId) }
+
+    val row = GenZappDatabase.storyFeed.getFeed().single()
+
+    assertEquals(myStory.id, row.recipientId)
+    assertEquals(listOf(ids[2], ids[1]), row.outgoing.map { it.messageId })
+    assertEquals(3, row.sendingCount)
+
+    ids.forEach { GenZappDatabase.messages.markAsSent(it, true) }
+    assertEquals(0, GenZappDatabase.storyFeed.getFeed().single().sendingCount)
+
+    GenZappDatabase.messages.markAsSentFailed(ids[0])
+    assertEquals(1, GenZappDatabase.storyFeed.getFeed().single().failureCount)
+  }
+
+  @Test
+  fun givenASentStoryWithMediaUploading_whenTheUploadFinishes_thenIExpectItToNoLongerBeSending() {
+    val threadId = GenZappDatabase.threads.getOrCreateThreadIdFor(myStory)
+    val story = MmsHelper.insert(recipient = myStory, sentTimeMillis = 1, storyType = StoryType.STORY_WITH_REPLIES, threadId = threadId)
+    GenZappDatabase.messages.markAsSent(story, true)
+    assertEquals(0, GenZappDatabase.storyFeed.getFeed().single().sendingCount)
+
+    val attachmentId = GenZappDatabase.rawDatabase.insert(
+      AttachmentTable.TABLE_NAME,
+      null,
+      contentValuesOf(
+        AttachmentTable.MESSAGE_ID to story,
+        AttachmentTable.CONTENT_TYPE to "image/jpeg",
+        AttachmentTable.TRANSFER_STATE to AttachmentTable.TRANSFER_PROGRESS_STARTED
+      )
+    )
+    assertEquals(1, GenZappDatabase.storyFeed.getFeed().single().sendingCount)
+
+    GenZappDatabase.attachments.setTransferState(story, AttachmentId(attachmentId), AttachmentTable.TRANSFER_PROGRESS_DONE)
+    assertEquals(0, GenZappDatabase.storyFeed.getFeed().single().sendingCount)
+
+    GenZappDatabase.attachments.setTransferState(story, AttachmentId(attachmentId), AttachmentTable.TRANSFER_PROGRESS_STARTED)
+    assertEquals(1, GenZappDatabase.storyFeed.getFeed().single().sendingCount)
+  }
+
+  @Test
+  fun givenAChatMessageWithMedia_whenItsTransferStateChanges_thenIExpectTheFeedToStayClean() {
+    insertIncomingStory(recipients[0], 1)
+    assertEquals(1, GenZappDatabase.storyFeed.getFeed().size)
+
+    val message = MmsHelper.insert(recipient = Recipient.resolved(recipients[1]), sentTimeMillis = 2)
+    val attachmentId = GenZappDatabase.rawDatabase.insert(
+      AttachmentTable.TABLE_NAME,
+      null,
+      contentValuesOf(
+        AttachmentTable.MESSAGE_ID to message,
+        AttachmentTable.CONTENT_TYPE to "image/jpeg",
+        AttachmentTable.TRANSFER_STATE to AttachmentTable.TRANSFER_PROGRESS_STARTED
+      )
+    )
+    GenZappDatabase.attachments.setTransferState(message, AttachmentId(attachmentId), AttachmentTable.TRANSFER_PROGRESS_DONE)
+
+    assertFalse(GenZappDatabase.rawDatabase.exists(StoryFeedTable.DIRTY_TABLE_NAME).run())
+  }
+
+  @Test
+  fun givenManyStorySenders_whenRegularMessagesArrive_thenIExpectTheFeedToNotBeRefreshed() {
+    val senders = (0 until 300).map { GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())) }
+    senders.forEachIndexed { i, sender -> insertIncomingStory(sender, i.toLong() + 1) }
+
+    assertEquals(300, GenZappDatabase.storyFeed.getFeed().size)
+
+    senders.take(50).forEachIndexed { i, sender ->
+      MmsHelper.insert(
+        IncomingMessage(
+          type = MessageType.NORMAL,
+          from = sender,
+          sentTimeMillis = 1000L + i,
+          serverTimeMillis = 1000L + i,
+          receivedTimeMillis = 1000L + i
+        ),
+        -1L
+      )
+    }
+
+    assertFalse(GenZappDatabase.rawDatabase.exists(StoryFeedTable.DIRTY_TABLE_NAME).run())
+    assertEquals(300, GenZappDatabase.storyFeed.getFeed().size)
+  }
+
+  /**
+   * 300 story senders under a steady stream of regular chat messages, handled the way the landing screen handles them: every message notifies the feed
+   * observer, which refreshes the feed and only reads it again if the refresh changed something.
+   */
+  @Test
+  fun storyFeedUnderChatTrafficBenchmark() {
+    val senders = (0 until 300).map { GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())) }
+    senders.forEachIndexed { i, sender -> insertIncomingStory(sender, i.toLong() + 1) }
+
+    val initialGeneration = GenZappDatabase.storyFeed.refresh()
+    assertEquals(300, GenZappDatabase.storyFeed.getFeed().size)
+
+    var feedReads = 0
+    var lastGeneration = initialGeneration
+
+    val start = System.nanoTime()
+    for (i in 0 until CHAT_MESSAGES) {
+      MmsHelper.insert(
+        IncomingMessage(
+          type = MessageType.NORMAL,
+          from = senders[i % senders.size],
+          sentTimeMillis = 10_000L + i,
+          serverTimeMillis = 10_000L + i,
+          receivedTimeMillis = 10_000L + i
+        ),
+        -1L
+      )
+
+      val generation = GenZappDatabase.storyFeed.refresh()
+      if (generation != lastGeneration) {
+        GenZappDatabase.storyFeed.getFeed()
+        feedReads++
+        lastGeneration = generation
+      }
+    }
+    val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+    Log.i(TAG, "Handled $CHAT_MESSAGES chat messages with 300 story senders in $elapsedMs ms, reading the feed $feedReads time(s).")
+
+    assertEquals(0, feedReads)
+    assertEquals(initialGeneration, GenZappDatabase.storyFeed.refresh())
+
+    insertIncomingStory(senders[0], 20_000L)
+
+    assertTrue(GenZappDatabase.storyFeed.refresh() != initialGeneration)
+  }
+
+  private fun insertIncomingStory(sender: RecipientId, sentTimeMillis: Long): Long {
+    return MmsHelper.insert(
+      IncomingMessage(
+        type = MessageType.NORMAL,
+        from = sender,
+        sentTimeMillis = sentTimeMillis,
+        serverTimeMillis = sentTimeMillis,
+        receivedTimeMillis = sentTimeMillis,
+        storyType = StoryType.STORY_WITH_REPLIES
+      ),
+      -1L
+    ).get().messageId
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import org.GenZapp.core.util.readToSingleLong
+import org.GenZapp.core.util.withinTransaction
+import org.thoughtcrime.securesms.recipients.RecipientId
+
+/**
+ * Helper methods for filling threads with plain incoming messages. Messages are inserted with plain SQL, since going through [MmsHelper] is far too slow
+ * for large threads.
+ */
+object ThreadSeeder {
+
+  /**
+   * Creates (or reuses) the thread for [recipientId] and fills it with [messageCount] incoming messages.
+   */
+  fun seedThread(recipientId: RecipientId, messageCount: Int): Long {
+    val threadId = GenZappDatabase.threads.getOrCreateThreadIdFor(recipientId, isGroup = false)
+    insertMessages(threadId, recipientId, messageCount)
+    GenZappDatabase.threads.update(threadId, false)
+    return threadId
+  }
+
+  /**
+   * Inserts [messageCount] incoming messages from [recipientId] into the thread, sent at 1, 2, 3... ms. Doesn't update the thread.
+   */
+  fun insertMessages(threadId: Long, recipientId: RecipientId, messageCount: Int) {
+    val type = MessageTypes.BASE_INBOX_TYPE or MessageTypes.SECURE_MESSAGE_BIT
+
+    GenZappDatabase.rawDatabase.withinTransaction { db ->
+      db.execSQL(
+        """
+        WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < $messageCount)
+        INSERT INTO ${MessageTable.TABLE_NAME} (
+          ${MessageTable.DATE_SENT},
+          ${MessageTable.DATE_RECEIVED},
+          ${MessageTable.THREAD_ID},
+          ${MessageTable.FROM_RECIPIENT_ID},
+          ${MessageTable.TO_RECIPIENT_ID},
+          ${MessageTable.TYPE},
+          ${MessageTable.BODY}
+        )
+        SELECT n, n, $threadId, ${recipientId.toLong()}, ${recipientId.toLong()}, $type, 'message ' || n FROM seq
+        """
+      )
+    }
+  }
+
+  fun messageCountForThread(threadId: Long): Int {
+    return GenZappDatabase.rawDatabase
+      .rawQuery("SELECT COUNT(*) FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.THREAD_ID} = $threadId", null)
+      .readToSingleLong()
+      .toInt()
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.withinTransaction
+import org.thoughtcrime.securesms.conversationlist.model.ConversationFilter
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.GenZappDatabaseRule
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import java.util.UUID
+import kotlin.math.max
+import kotlin.system.measureTimeMillis
+
+@Suppress("ClassName")
+class ThreadTableTest_deleteConversations {
+
+  @Rule
+  @JvmField
+  val databaseRule = GenZappDatabaseRule()
+
+  private lateinit var recipient: Recipient
+
+  @Before
+  fun setUp() {
+    recipient = Recipient.resolved(GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+  }
+
+  @Test
+  fun givenALargeThread_whenIDeleteIt_thenIExpectItToBeHiddenImmediatelyAndPurgedInShortTransactions() {
+    val messageCount = 20 * ThreadTable.PURGE_CHUNK_SIZE
+    val threadId = seedThread(messageCount)
+
+    val deleteTime = measureTimeMillis {
+      GenZappDatabase.threads.deleteConversation(threadId)
+    }
+
+    assertEquals(0, unarchivedConversationCount())
+
+    val remainingAfterDelete = messageCount(threadId)
+    assertTrue("Deleting should purge at most one chunk up front", messageCount - remainingAfterDelete <= ThreadTable.PURGE_CHUNK_SIZE)
+
+    var chunks = 0
+    var maxChunkHoldNanos = 0L
+    while (true) {
+      val before = messageCount(threadId)
+
+      val start = System.nanoTime()
+      val hasMore = GenZappDatabase.threads.purgeNextDeletedConversationChunk()
+      maxChunkHoldNanos = max(maxChunkHoldNanos, System.nanoTime() - start)
+
+      if (!hasMore) {
+        break
+      }
+
+      val purged = before - messageCount(threadId)
+      assertTrue("Purged $purged messages in one transaction", purged <= ThreadTable.PURGE_CHUNK_SIZE)
+      chunks++
+    }
+
+    assertEquals(0, messageCount(threadId))
+    assertTrue("Expected the purge to be split into chunks, but it took $chunks", chunks >= remainingAfterDelete / ThreadTable.PURGE_CHUNK_SIZE)
+
+    val otherThreadId = ThreadSeeder.seedThread(Recipient.resolved(GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID()))).id, messageCount)
+    val fullDeleteStart = System.nanoTime()
+    GenZappDatabase.rawDatabase.withinTransaction { db ->
+      db.delete(MessageTable.TABLE_NAME, "${MessageTable.THREAD_ID} = ?", arrayOf(otherThreadId.toString()))
+    }
+    val fullDeleteNanos = System.nanoTime() - fullDeleteStart
+
+    Log.i(TAG, "Deleted a $messageCount message thread. Tombstone + first chunk: $deleteTime ms, longest of $chunks further chunk(s): ${maxChunkHoldNanos / 1_000_000} ms, same thread in one transaction: ${fullDeleteNanos / 1_000_000} ms")
+
+    assertTrue("The longest purge chunk held the write lock for ${maxChunkHoldNanos / 1_000_000} ms, but deleting everything at once only took ${fullDeleteNanos / 1_000_000} ms", maxChunkHoldNanos < fullDeleteNanos)
+  }
+
+  @Test
+  fun givenADeletedThreadWithPendingPurge_whenIReuseIt_thenIExpectOldMessagesToBeHiddenUntilTheyArePurged() {
+    val threadId = seedThread(3 * ThreadTable.PURGE_CHUNK_SIZE)
+
+    GenZappDatabase.threads.deleteConversation(threadId)
+    val reusedThreadId = GenZappDatabase.threads.getOrCreateThreadIdFor(recipient)
+
+    assertEquals(threadId, reusedThreadId)
+    assertTrue("Reusing the thread shouldn't purge it synchronously", messageCount(threadId) > 0)
+    assertEquals(0, GenZappDatabase.messages.getMessageCountForThread(threadId))
+    GenZappDatabase.messages.getConversation(threadId, 0, 0).use { assertEquals(0, it.count) }
+
+    MmsHelper.insert(recipient = recipient, sentTimeMillis = Long.MAX_VALUE / 2, threadId = threadId)
+    assertEquals(1, GenZappDatabase.messages.getMessageCountForThread(threadId))
+
+    while (GenZappDatabase.threads.purgeNextDeletedConversationChunk()) {
+      // Keep going until everything is purged
+    }
+
+    assertEquals(1, messageCount(threadId))
+    assertEquals(0L, GenZappDatabase.threads.getPurgedThroughId(threadId))
+  }
+
+  @Test
+  fun givenADeletedThreadWithPendingPurge_whenANewMessageArrives_thenIExpectItToSurviveThePurge() {
+    val threadId = seedThread(3 * ThreadTable.PURGE_CHUNK_SIZE)
+
+    GenZappDatabase.threads.deleteConversation(threadId)
+    MmsHelper.insert(recipient = recipient, sentTimeMillis = Long.MAX_VALUE / 2, threadId = threadId)
+
+    while (GenZappDatabase.threads.purgeNextDeletedConversationChunk()) {
+      // Keep going until everything is purged
+    }
+
+    assertEquals(1, messageCount(threadId))
+  }
+
+  private fun seedThread(messageCount: Int): Long {
+    return ThreadSeeder.seedThread(recipient.id, messageCount)
+  }
+
+  private fun messageCount(threadId: Long): Int {
+    return ThreadSeeder.messageCountForThread(threadId)
+  }
+
+  private fun unarchivedConversationCount(): Int {
+    return GenZappDatabase.threads.getUnarchivedConversationList(ConversationFilter.OFF, false, 0, 10).use { it.count }
+  }
+
+  companion object {
+    private val TAG = Log.tag(ThreadTableTest_deleteConversations::class.java)
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.core.content.contentValuesOf
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.readToSingleLong
+import org.thoughtcrime.securesms.database.model.Mention
+import org.thoughtcrime.securesms.database.model.MessageId
+import org.thoughtcrime.securesms.database.model.ReactionRecord
+import org.thoughtcrime.securesms.mms.IncomingMessage
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.GenZappDatabaseRule
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import java.util.UUID
+import kotlin.system.measureTimeMillis
+
+@Suppress("ClassName")
+class ThreadTableTest_trim {
+
+  @Rule
+  @JvmField
+  val databaseRule = GenZappDatabaseRule()
+
+  private lateinit var recipient: Recipient
+
+  @Before
+  fun setUp() {
+    recipient = Recipient.resolved(GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+  }
+
+  @Test
+  fun givenAThreadOverTheLimit_whenITrimIt_thenIExpectOnlyTheNewestMessagesToRemain() {
+    val threadId = GenZappDatabase.threads.getOrCreateThreadIdFor(recipient)
+    val messageIds = (1L..20L).map { insertIncoming(threadId, it) }
+
+    GenZappDatabase.threads.trimThread(threadId = threadId, syncThreadTrimDeletes = false, length = 5)
+
+    assertEquals(5, messageCount(threadId))
+    assertEquals(messageIds.takeLast(5).toSet(), remainingMessageIds(threadId))
+  }
+
+  @Test
+  fun givenAThreadAtTheLimit_whenITrimIt_thenIExpectNothingToBeDeleted() {
+    val threadId = GenZappDatabase.threads.getOrCreateThreadIdFor(recipient)
+    (1L..5L).forEach { insertIncoming(threadId, it) }
+
+    GenZappDatabase.threads.trimThread(threadId = threadId, syncThreadTrimDeletes = false, length = 5)
+
+    assertEquals(5, messageCount(threadId))
+  }
+
+  @Test
+  fun givenManyThreads_whenITrimAllThreads_thenIExpectOnlyThoseOverTheLimitToBeTrimmed() {
+    val small = seedThread(GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())), 3)
+    val large = seedThread(recipient.id, 30)
+
+    GenZappDatabase.threads.trimAllThreads(length = 10, trimBeforeDate = ThreadTable.NO_TRIM_BEFORE_DATE_SET)
+
+    assertEquals(3, messageCount(small))
+    assertEquals(10, messageCount(large))
+  }
+
+  @Test
+  fun givenManyThreadsOverTheLimit_whenITrimAllThreads_thenIExpectEachThreadToBeTrimmed() {
+    val threadCount = 50
+    val messagesPerThread = 200
+    val length = 20
+
+    val threadIds = (0 until threadCount).map {
+      seedThread(GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())), messagesPerThread)
+    }
+
+    val trimTime = measureTimeMillis {
+      GenZappDatabase.threads.trimAllThreads(length = length, trimBeforeDate = ThreadTable.NO_TRIM_BEFORE_DATE_SET)
+    }
+
+    Log.i(TAG, "Trimmed $threadCount threads with ${threadCount * messagesPerThread} messages down to $length each in $trimTime ms")
+
+    assertEquals((threadCount * length).toLong(), totalMessageCount())
+    threadIds.forEach { assertEquals(length, messageCount(it)) }
+  }
+
+  @Test
+  fun givenTrimmedMessagesWithDependentRows_whenITrimTheThread_thenIExpectTheirDependentRowsToBeDeleted() {
+    val threadId = GenZappDatabase.threads.getOrCreateThreadIdFor(recipient)
+    val messageIds = (1L..10L).map { insertIncoming(threadId, it) }
+    val trimmed = messageIds.first()
+    val kept = messageIds.last()
+
+    listOf(trimmed, kept).forEach { addDependentRows(threadId, it) }
+
+    GenZappDatabase.threads.trimThread(threadId = threadId, syncThreadTrimDeletes = false, length = 5)
+
+    assertEquals(0, rowCount(AttachmentTable.TABLE_NAME, AttachmentTable.MESSAGE_ID, trimmed))
+    assertEquals(0, rowCount(ReactionTable.TABLE_NAME, ReactionTable.MESSAGE_ID, trimmed))
+    assertEquals(0, rowCount(MentionTable.TABLE_NAME, MentionTable.MESSAGE_ID, trimmed))
+    assertEquals(0, rowCount(GroupReceiptTable.TABLE_NAME, GroupReceiptTable.MMS_ID, trimmed))
+    assertEquals(0, rowCount(MSL_MESSAGE_TABLE, "message_id", trimmed))
+
+    assertEquals(1, rowCount(AttachmentTable.TABLE_NAME, AttachmentTable.MESSAGE_ID, kept))
+    assertEquals(1, rowCount(ReactionTable.TABLE_NAME, ReactionTable.MESSAGE_ID, kept))
+    assertEquals(1, rowCount(MentionTable.TABLE_NAME, MentionTable.MESSAGE_ID, kept))
+    assertEquals(1, rowCount(GroupReceiptTable.TABLE_NAME, GroupReceiptTable.MMS_ID, kept))
+    assertEquals(1, rowCount(MSL_MESSAGE_TABLE, "message_id", kept))
+  }
+
+  /**
+   * Trims a single 1M message thread down to 1000 messages and logs how long it took.
+   */
+  @Ignore("This is just for testing performance, not correctness, and it can therefore take a long time. Run it manually when you need to.")
+  @Test
+  fun givenAMillionMessageThread_whenITrimIt_thenIExpectItToFinishInReasonableTime() {
+    val messageCount = 1_000_000
+    val length = 1000
+    val threadId = seedThread(recipient.id, messageCount)
+
+    val trimTime = measureTimeMillis {
+      GenZappDatabase.threads.trimThread(threadId = threadId, syncThreadTrimDeletes = false, length = length)
+    }
+
+    Log.i(TAG, "Trimmed a $messageCount message thread down to $length in $trimTime ms")
+    assertEquals(length, messageCount(threadId))
+  }
+
+  private fun insertIncoming(threadId: Long, timestamp: Long): Long {
+    return MmsHelper.insert(
+      IncomingMessage(
+        type = MessageType.NORMAL,
+        from = recipient.id,
+        sentTimeMillis = timestamp,
+        serverTimeMillis = timestamp,
+        receivedTimeMillis = timestamp
+      ),
+      threadId
+    ).get().messageId
+  }
+
+  private fun addDependentRows(threadId: Long, messageId: Long) {
+    GenZappDatabase.rawDatabase.insert(
+      AttachmentTable.TABLE_NAME,
+      null,
+      contentValuesOf(
+        AttachmentTable.MESSAGE_ID to messageId,
+        AttachmentTable.CONTENT_TYPE to "image/jpeg",
+        AttachmentTable.TRANSFER_STATE to AttachmentTable.TRANSFER_PROGRESS_DONE
+      )
+    )
+    GenZappDatabase.reactions.addReaction(MessageId(messageId), ReactionRecord("👍", recipient.id, 1, 1))
+    GenZappDatabase.mentions.insert(threadId, messageId, listOf(Mention(recipient.id, 0, 1)))
+    GenZappDatabase.groupReceipts.insert(listOf(recipient.id), messageId, GroupReceiptTable.STATUS_DELIVERED, 1)
+
+    val payloadId = GenZappDatabase.rawDatabase.insert(
+      MSL_PAYLOAD_TABLE,
+      null,
+      contentValuesOf("date_sent" to 1, "content" to ByteArray(1), "content_hint" to 0)
+    )
+    GenZappDatabase.rawDatabase.insert(MSL_MESSAGE_TABLE, null, contentValuesOf("payload_id" to payloadId, "message_id" to messageId))
+  }
+
+  private fun rowCount(table: String, column: String, messageId: Long): Int {
+    return GenZappDatabase.rawDatabase
+      .rawQuery("SELECT COUNT(*) FROM $table WHERE $column = $messageId", null)
+      .readToSingleLong()
+      .toInt()
+  }
+
+  private fun seedThread(recipientId: RecipientId, messageCount: Int): Long {
+    return ThreadSeeder.seedThread(recipientId, messageCount)
+  }
+
+  private fun remainingMessageIds(threadId: Long): Set<Long> {
+    return GenZappDatabase.messages.getConversation(threadId).use { cursor ->
+      generateSequence { if (cursor.moveToNext()) cursor.getLong(cursor.getColumnIndexOrThrow(MessageTable.ID)) else null }.toSet()
+    }
+  }
+
+  private fun messageCount(threadId: Long): Int {
+    return ThreadSeeder.messageCountForThread(threadId)
+  }
+
+  private fun totalMessageCount(): Long {
+    return GenZappDatabase.rawDatabase
+      .rawQuery("SELECT COUNT(*) FROM ${MessageTable.TABLE_NAME}", null)
+      .readToSingleLong()
+  }
+
+  companion object {
+    private val TAG = Log.tag(ThreadTableTest_trim::class.java)
+
+    private const val MSL_PAYLOAD_TABLE = "msl_payload"
+    private const val MSL_MESSAGE_TABLE = "msl_message"
+  }
+}
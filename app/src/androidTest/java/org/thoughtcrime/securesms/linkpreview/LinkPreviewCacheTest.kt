@@ -0,0 +1,158 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.linkpreview
+
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import org.GenZapp.core.util.logging.Log
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.testing.assertIs
+import org.thoughtcrime.securesms.testing.assertIsNotNull
+import org.thoughtcrime.securesms.testing.assertIsNull
+import org.thoughtcrime.securesms.util.OkHttpUtil
+import java.util.concurrent.TimeUnit
+
+/**
+ * Exercises the head-only metadata read and the [LinkPreviewCache] against a local web server, logging bytes read and cold vs. warm latency.
+ */
+class LinkPreviewCacheTest {
+
+  companion object {
+    private val TAG = Log.tag(LinkPreviewCacheTest::class.java)
+
+    private const val HEAD = "<html><head><meta property=\"og:title\" content=\"Daily Bugle\"><meta property=\"og:description\" content=\"A newspaper\"></head>"
+    private const val BODY_SIZE = 1_500_000
+    private const val SIZE_LIMIT = 2_000_000L
+  }
+
+  private val context = AppDependencies.application
+  private val client = OkHttpClient()
+
+  private lateinit var server: MockWebServer
+  private lateinit var cache: LinkPreviewCache
+
+  @Before
+  fun setUp() {
+    server = MockWebServer()
+    server.start()
+
+    cache = LinkPreviewCache(maxSize = 1_000_000, maxAgeMs = TimeUnit.DAYS.toMillis(1))
+    cache.clear(context)
+  }
+
+  @After
+  fun tearDown() {
+    cache.clear(context)
+    server.shutdown()
+  }
+
+  @Test
+  fun givenLargeDocument_whenIReadHead_thenIOnlyReadTheHead() {
+    server.enqueue(htmlResponse())
+
+    val url = server.url("/article").toString()
+    val (body, bytesRead) = fetchHead(url)
+
+    Log.i(TAG, "Read $bytesRead of ${HEAD.length + BODY_SIZE} bytes")
+
+    LinkPreviewUtil.parseOpenGraphFields(body).title.get() assertIs "Daily Bugle"
+    (bytesRead < BODY_SIZE / 10) assertIs true
+  }
+
+  @Test
+  fun givenWarmCache_whenIGetPreview_thenINeverHitTheNetwork() {
+    server.enqueue(htmlResponse())
+
+    val url = server.url("/article").toString()
+
+    val coldStart = System.nanoTime()
+    cache.get(context, url).assertIsNull()
+    val (body, _) = fetchHead(url)
+    val openGraph = LinkPreviewUtil.parseOpenGraphFields(body)
+    cache.put(context, url, LinkPreviewCache.CachedPreview(openGraph.title.get(), openGraph.description.get(), 0, null))
+    val coldMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - coldStart)
+
+    val warmStart = System.nanoTime()
+    val cached = cache.get(context, "$url#fragment")
+    val warmMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - warmStart)
+
+    Log.i(TAG, "Cold: $coldMs ms, Warm: $warmMs ms")
+
+    cached.assertIsNotNull()
+    cached!!.title assertIs "Daily Bugle"
+    cached.description assertIs "A newspaper"
+    server.requestCount assertIs 1
+  }
+
+  @Test
+  fun givenTrailingSlash_whenIGet_thenIOnlyGetTheEntryForThatExactPath() {
+    cache.put(context, "https://example.org/a/", LinkPreviewCache.CachedPreview("Directory", "", 0, null))
+
+    cache.get(context, "https://example.org/a").assertIsNull()
+    cache.get(context, "https://example.org/a/")!!.title assertIs "Directory"
+  }
+
+  @Test
+  fun givenThumbnail_whenIReadBack_thenThumbnailIsIntact() {
+    val data = ByteArray(4096) { it.toByte() }
+    val url = "https://example.org/image"
+
+    cache.put(context, url, LinkPreviewCache.CachedPreview("Title", "", 0, LinkPreviewCache.Thumbnail(data, 64, 32, "image/jpeg")))
+
+    val thumbnail = cache.get(context, url)!!.thumbnail!!
+
+    thumbnail.data.contentEquals(data) assertIs true
+    thumbnail.width assertIs 64
+    thumbnail.height assertIs 32
+    thumbnail.contentType assertIs "image/jpeg"
+  }
+
+  @Test
+  fun givenExpiredEntry_whenIGet_thenIGetNull() {
+    val url = "https://example.org/old"
+
+    cache.put(context, url, LinkPreviewCache.CachedPreview("Title", "", 0, null, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)))
+
+    cache.get(context, url).assertIsNull()
+  }
+
+  @Test
+  fun givenCacheOverSize_whenIPut_thenLeastRecentlyUsedIsEvicted() {
+    val smallCache = LinkPreviewCache(maxSize = 10_000, maxAgeMs = TimeUnit.DAYS.toMillis(1))
+    val thumbnail = LinkPreviewCache.Thumbnail(ByteArray(4000), 1, 1, "image/jpeg")
+
+    smallCache.put(context, "https://example.org/1", LinkPreviewCache.CachedPreview("1", "", 0, thumbnail))
+    smallCache.put(context, "https://example.org/2", LinkPreviewCache.CachedPreview("2", "", 0, thumbnail))
+    smallCache.get(context, "https://example.org/1").assertIsNotNull()
+    smallCache.put(context, "https://example.org/3", LinkPreviewCache.CachedPreview("3", "", 0, thumbnail))
+
+    smallCache.get(context, "https://example.org/1").assertIsNotNull()
+    smallCache.get(context, "https://example.org/2").assertIsNull()
+    smallCache.get(context, "https://example.org/3").assertIsNotNull()
+  }
+
+  private fun htmlResponse(): MockResponse {
+    return MockResponse()
+      .setHeader("Content-Type", "text/html; charset=utf-8")
+      .setBody(Buffer().writeUtf8(HEAD).writeUtf8("<body>").writeUtf8("x".repeat(BODY_SIZE)).writeUtf8("</body></html>"))
+  }
+
+  private fun fetchHead(url: String): Pair<String, Long> {
+    client.newCall(Request.Builder().url(url).build()).execute().use { response ->
+      val source = response.body!!.source()
+      val body = OkHttpUtil.readHtmlHeadAsString(response.body!!, SIZE_LIMIT)
+      val bytesRead = body.length + source.buffer.size
+
+      return body to bytesRead
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.logsubmit
+
+import androidx.test.platform.app.InstrumentationRegistry
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.database.LogDatabase
+import org.thoughtcrime.securesms.testing.assertIs
+import java.io.File
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPInputStream
+
+/**
+ * Uploads debug logs to a local web server, checking what arrives, that the body can be sent more than once, and how much heap it takes to produce it.
+ */
+class SpooledLogRequestBodyTest {
+
+  companion object {
+    private val TAG = Log.tag(SpooledLogRequestBodyTest::class.java)
+
+    private const val MB = 1024L * 1024L
+    private const val SYNTHETIC_LOG_SIZE = 200 * MB
+    private const val MAX_HEAP_GROWTH = 32 * MB
+  }
+
+  private val client = OkHttpClient.Builder()
+    .writeTimeout(5, TimeUnit.MINUTES)
+    .readTimeout(5, TimeUnit.MINUTES)
+    .build()
+
+  private lateinit var server: MockWebServer
+  private lateinit var directory: File
+
+  @Before
+  fun setUp() {
+    server = MockWebServer()
+    server.start()
+
+    directory = File(InstrumentationRegistry.getInstrumentation().targetContext.cacheDir, "spooled-log-test").apply { deleteRecursively(); mkdirs() }
+  }
+
+  @After
+  fun tearDown() {
+    server.shutdown()
+    directory.deleteRecursively()
+  }
+
+  @Test
+  fun givenAPrefixAndLogs_whenIUpload_thenIExpectThemGzippedInOrderWithAKnownLength() {
+    server.enqueue(MockResponse())
+    val lines = (0 until 5_000).map { "Log line $it" }
+
+    SpooledLogRequestBody.create(directory, { it.write("Prefix\n") }, { ListReader(lines) }).use { body ->
+      upload(body)
+
+      val request = server.takeRequest()
+      val uploaded = GZIPInputStream(request.body.inputStream()).bufferedReader().readText()
+
+      request.getHeader("Transfer-Encoding") assertIs null
+      request.getHeader("Content-Length") assertIs body.contentLength().toString()
+      request.bodySize assertIs body.contentLength()
+      uploaded assertIs "Prefix\n" + lines.joinToString(separator = "\n", postfix = "\n")
+    }
+  }
+
+  @Test
+  fun givenABody_whenItIsWrittenTwice_thenIExpectTheSameBytesBothTimes() {
+    val lines = (0 until 5_000).map { "Log line $it" }
+
+    SpooledLogRequestBody.create(directory, { it.write("Prefix\n") }, { ListReader(lines) }).use { body ->
+      val first = Buffer().also { body.writeTo(it) }
+      val second = Buffer().also { body.writeTo(it) }
+
+      first.size assertIs body.contentLength()
+      second.readByteString() assertIs first.readByteString()
+    }
+  }
+
+  @Test
+  fun givenABody_whenIClose_thenIExpectItsFileToBeDeleted() {
+    val body = SpooledLogRequestBody.create(directory, { it.write("Prefix\n") }, { ListReader(listOf("Log line")) })
+    directory.listFiles()!!.size assertIs 1
+
+    body.close()
+
+    directory.listFiles()!!.size assertIs 0
+  }
+
+  @Test
+  fun givenAFailingReader_whenICreateABody_thenIExpectNoFileLeftBehind() {
+    val result = runCatching {
+      SpooledLogRequestBody.create(directory, { it.write("Prefix\n") }, { FailingReader() })
+    }
+
+    result.isFailure assertIs true
+    directory.listFiles()!!.size assertIs 0
+  }
+
+  @Test
+  fun given200MbOfLogs_whenISpoolAndUploadThem_thenIExpectHeapToStayBounded() {
+    server.bodyLimit = 0
+    server.enqueue(MockResponse())
+
+    val runtime = Runtime.getRuntime()
+    runtime.gc()
+    val baseline = runtime.totalMemory() - runtime.freeMemory()
+
+    val peak = AtomicLong(baseline)
+    val uploading = AtomicBoolean(true)
+    val sampler = Thread {
+      while (uploading.get()) {
+        peak.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory()) { a, b -> maxOf(a, b) }
+        Thread.sleep(5)
+      }
+    }
+
+    val reader = SyntheticReader(SYNTHETIC_LOG_SIZE)
+    val start = System.currentTimeMillis()
+    var uploadedSize = 0L
+
+    sampler.start()
+    try {
+      SpooledLogRequestBody.create(directory, { it.write("Prefix\n") }, { reader }).use { body ->
+        uploadedSize = body.contentLength()
+        upload(body)
+      }
+    } finally {
+      uploading.set(false)
+      sampler.join()
+    }
+
+    val request = server.takeRequest()
+    val growth = peak.get() - baseline
+
+    Log.i(TAG, "Uploaded ${reader.bytesRead / MB} MB of logs as ${request.bodySize / MB} MB gzipped in ${System.currentTimeMillis() - start} ms. Peak heap growth: ${growth / MB} MB")
+
+    (reader.bytesRead >= SYNTHETIC_LOG_SIZE) assertIs true
+    request.bodySize assertIs uploadedSize
+    (growth < MAX_HEAP_GROWTH) assertIs true
+  }
+
+  private fun upload(body: SpooledLogRequestBody) {
+    client.newCall(Request.Builder().url(server.url("/upload")).post(body).build()).execute().use { response ->
+      response.isSuccessful assertIs true
+    }
+  }
+
+  private class ListReader(lines: List<String>) : LogDatabase.LogTable.Reader {
+    private val iterator = lines.iterator()
+
+    override fun hasNext(): Boolean = iterator.hasNext()
+    override fun next(): String = iterator.next()
+    override fun close() = Unit
+  }
+
+  /**
+   * Makes up log lines as they're read, so the log itself never sits in memory.
+   */
+  private class SyntheticReader(private val size: Long) : LogDatabase.LogTable.Reader {
+    var bytesRead = 0L
+      private set
+
+    private var line = 0L
+
+    override fun hasNext(): Boolean = bytesRead < size
+
+    override fun next(): String {
+      val text = "2024-01-01 00:00:00.000 1234-5678 I SyntheticLog: Line ${line++} ${(line * 2654435761L).toString(16)} ${"x".repeat((line % 120).toInt())}"
+      bytesRead += text.length + 1
+      return text
+    }
+
+    override fun close() = Unit
+  }
+
+  private class FailingReader : LogDatabase.LogTable.Reader {
+    override fun hasNext(): Boolean = true
+    override fun next(): String = throw IllegalStateException("Failed to read row")
+    override fun close() = Unit
+  }
+}
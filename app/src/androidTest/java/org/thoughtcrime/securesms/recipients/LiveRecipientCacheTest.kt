@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.recipients
+
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.groups.GroupId
+import org.thoughtcrime.securesms.keyvalue.GenZappStore
+import org.thoughtcrime.securesms.profiles.ProfileName
+import org.thoughtcrime.securesms.testing.GenZappDatabaseRule
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import org.whispersystems.GenZappservice.api.push.ServiceId.PNI
+import java.security.SecureRandom
+import java.util.UUID
+import java.util.concurrent.Executor
+
+class LiveRecipientCacheTest {
+
+  @Rule
+  @JvmField
+  val databaseRule = GenZappDatabaseRule()
+
+  private val context = InstrumentationRegistry.getInstrumentation().targetContext
+
+  @Before
+  fun setUp() {
+    GenZappStore.account.setE164("+15555550101")
+    GenZappStore.account.setAci(ACI.from(UUID.randomUUID()))
+    GenZappStore.account.setPni(PNI.from(UUID.randomUUID()))
+  }
+
+  @Test
+  fun givenRecipientsRequestedTogether_whenTheExecutorRuns_thenIExpectThemAllToBeResolved() {
+    val ids = seedRecipients(individuals = 50, groups = 5)
+    val executor = QueuedExecutor()
+    val cache = LiveRecipientCache(context, executor)
+
+    val lives = ids.map { cache.getLive(it) }
+    assertTrue(lives.all { it.get().isResolving })
+
+    executor.runAll()
+
+    assertFalse(lives.any { it.get().isResolving })
+    assertEquals(1, executor.ran)
+    assertResolvedLikeSingleReads(ids, lives.map { it.get() })
+  }
+
+  @Test
+  fun givenRecipientsRequestedTogether_whenIResolveThemAll_thenIExpectTheSameResultsAsResolvingThemOneAtATime() {
+    val ids = seedRecipients(individuals = 50, groups = 5)
+    val cache = LiveRecipientCache(context) { it.run() }
+
+    assertResolvedLikeSingleReads(ids, cache.resolveAll(ids))
+  }
+
+  @Test
+  fun given2kRecipients_whenIColdResolveThem_thenIExpectAHandfulOfBatchedPasses() {
+    val ids = seedRecipients(individuals = 1_900, groups = 100)
+    val executor = QueuedExecutor()
+    val cache = LiveRecipientCache(context, executor)
+
+    val lives = ids.map { cache.getLive(it) }
+    executor.runAll()
+
+    Log.i(TAG, "Cold resolve of ${ids.size} recipients took ${executor.ran} executor pass(es)")
+
+    assertFalse(lives.any { it.get().isResolving })
+    assertEquals((ids.size + RESOLVE_BATCH_MAX - 1) / RESOLVE_BATCH_MAX, executor.ran)
+    assertResolvedLikeSingleReads(ids, lives.map { it.get() })
+  }
+
+  private fun seedRecipients(individuals: Int, groups: Int): List<RecipientId> {
+    val individualIds = (0 until individuals).map { i ->
+      val id = GenZappDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID()))
+      GenZappDatabase.recipients.setProfileName(id, ProfileName.fromParts("Member", "$i"))
+      id
+    }
+
+    val groupIds = (0 until groups).map { i ->
+      val groupId = GroupId.createMms(SecureRandom())
+      GenZappDatabase.groups.create(groupId, "Group $i", individualIds.shuffled().take(10))
+      GenZappDatabase.recipients.getOrInsertFromGroupId(groupId)
+    }
+
+    return (individualIds + groupIds).shuffled()
+  }
+
+  private fun assertResolvedLikeSingleReads(ids: List<RecipientId>, resolved: List<Recipient>) {
+    assertEquals(ids.size, resolved.size)
+
+    ids.zip(resolved).forEach { (id, batched) ->
+      val single = LiveRecipient(context, RecipientCreator.forId(id)).resolve()
+
+      assertEquals(single.id, batched.id)
+      assertEquals(single.getDisplayName(context), batched.getDisplayName(context))
+      assertEquals(single.isGroup, batched.isGroup)
+      assertEquals(single.participantIds.toSet(), batched.participantIds.toSet())
+      assertTrue(batched.hasSameContent(single))
+    }
+  }
+
+  /**
+   * Holds on to submitted work until told to run it, the same way a busy executor would while the UI thread requests recipients.
+   */
+  private class QueuedExecutor : Executor {
+    private val queue = ArrayDeque<Runnable>()
+    var ran = 0
+      private set
+
+    override fun execute(command: Runnable) {
+      queue.addLast(command)
+    }
+
+    fun runAll() {
+      while (queue.isNotEmpty()) {
+        queue.removeFirst().run()
+        ran++
+      }
+    }
+  }
+
+  companion object {
+    private val TAG = Log.tag(LiveRecipientCacheTest::class.java)
+
+    /** Mirrors the batch size in [LiveRecipientCache]. */
+    private const val RESOLVE_BATCH_MAX = 500
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.video.exo
+
+import android.content.Context
+import android.net.Uri
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.StreamUtil
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.util.ByteUnit
+import java.io.ByteArrayInputStream
+import java.io.File
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+class GiphyMp4CacheTest {
+
+  private val context: Context = InstrumentationRegistry.getInstrumentation().targetContext
+
+  private lateinit var directory: File
+
+  @Before
+  fun setUp() {
+    directory = context.getDir("mp4gif_cache", Context.MODE_PRIVATE)
+    directory.listFiles()?.forEach { it.delete() }
+  }
+
+  @Test
+  fun givenAWrittenEntry_whenIRestart_thenIGetTheSameBytes() {
+    val data = Random.nextBytes(4096)
+
+    GiphyMp4Cache(MAX_SIZE).write(context, uri(0), ByteArrayInputStream(data)).release()
+
+    val readData = GiphyMp4Cache(MAX_SIZE).read(context, uri(0))
+
+    assertNotNull(readData)
+    assertTrue(data.contentEquals(StreamUtil.readFully(readData!!.inputStream)))
+    readData.release()
+  }
+
+  @Test
+  fun givenAnEntryFileWithTheWrongSize_whenIRestart_thenItIsDroppedAndOthersSurvive() {
+    val cache = GiphyMp4Cache(MAX_SIZE)
+    cache.write(context, uri(0), ByteArrayInputStream(Random.nextBytes(4096))).release()
+    cache.write(context, uri(1), ByteArrayInputStream(Random.nextBytes(4096))).release()
+
+    val firstFilename = File(directory, GiphyMp4CacheJournal.JOURNAL_FILE).readLines()[3].split(' ')[2]
+    File(directory, firstFilename).appendBytes(ByteArray(10))
+
+    val restarted = GiphyMp4Cache(MAX_SIZE)
+
+    assertNull(restarted.read(context, uri(0)))
+    restarted.read(context, uri(1))!!.release()
+  }
+
+  @Test
+  fun givenAnInterruptedWrite_whenIRestart_thenTheOrphanedFileIsDeleted() {
+    GiphyMp4Cache(MAX_SIZE).write(context, uri(0), ByteArrayInputStream(Random.nextBytes(4096))).release()
+
+    val orphan = File(directory, "entry_123456.mp4")
+    orphan.writeBytes(Random.nextBytes(1024))
+
+    GiphyMp4Cache(MAX_SIZE).onAppStart(context)
+
+    assertFalse(orphan.exists())
+    assertEquals(1, directory.listFiles { file -> file.name.startsWith("entry_") }!!.size)
+  }
+
+  @Test
+  fun givenATornJournal_whenIRestart_thenEarlierEntriesSurvive() {
+    val cache = GiphyMp4Cache(MAX_SIZE)
+    cache.write(context, uri(0), ByteArrayInputStream(Random.nextBytes(4096))).release()
+    cache.write(context, uri(1), ByteArrayInputStream(Random.nextBytes(4096))).release()
+
+    File(directory, GiphyMp4CacheJournal.JOURNAL_FILE).appendText("CLEAN abc entry_")
+
+    val restarted = GiphyMp4Cache(MAX_SIZE)
+
+    restarted.read(context, uri(0))!!.release()
+    restarted.read(context, uri(1))!!.release()
+  }
+
+  @Test
+  fun givenMoreDataThanFits_whenIRestart_thenTheMostRecentlyUsedEntriesSurvive() {
+    val cache = GiphyMp4Cache(ByteUnit.KILOBYTES.toBytes(20))
+
+    for (i in 0 until 10) {
+      cache.write(context, uri(i), ByteArrayInputStream(Random.nextBytes(4096))).release()
+    }
+
+    val restarted = GiphyMp4Cache(ByteUnit.KILOBYTES.toBytes(20))
+
+    assertNull(restarted.read(context, uri(0)))
+    restarted.read(context, uri(9))!!.release()
+  }
+
+  /**
+   * Simulates scrolling through the same GIF search results in two separate app sessions, and reports the hit rate of the second pass.
+   */
+  @Test
+  fun gifSearchScrollHitRateBenchmark() {
+    val firstSession = GiphyMp4Cache(MAX_SIZE)
+    val firstSessionHitRate = scroll(firstSession)
+
+    val secondSession = GiphyMp4Cache(MAX_SIZE)
+    secondSession.onAppStart(context)
+
+    val startNanos = System.nanoTime()
+    val secondSessionHitRate = scroll(secondSession)
+    val elapsedMs = (System.nanoTime() - startNanos) / 1_000_000
+
+    Log.i(TAG, "Cold hit rate: $firstSessionHitRate, warm hit rate: $secondSessionHitRate, warm scroll: ${elapsedMs}ms")
+
+    assertEquals(0f, firstSessionHitRate)
+    assertEquals(1f, secondSessionHitRate)
+  }
+
+  private fun scroll(cache: GiphyMp4Cache): Float {
+    var hits = 0
+
+    for (i in 0 until RESULTS) {
+      val readData = cache.read(context, uri(i))
+
+      if (readData != null) {
+        hits++
+        StreamUtil.readFully(readData.inputStream)
+        readData.release()
+      } else {
+        cache.write(context, uri(i), ByteArrayInputStream(Random.nextBytes(RESULT_SIZE))).release()
+      }
+    }
+
+    return hits / RESULTS.toFloat()
+  }
+
+  private fun uri(index: Int): Uri {
+    return Uri.parse("https://media.giphy.com/media/result$index/200w.mp4")
+  }
+
+  companion object {
+    private val TAG = Log.tag(GiphyMp4CacheTest::class.java)
+
+    private val MAX_SIZE = ByteUnit.MEGABYTES.toBytes(16)
+    private const val RESULTS = 60
+    private const val RESULT_SIZE = 150 * 1024
+  }
+}
@@ -15,6 +15,7 @@ class BenchmarkSetupActivity : BaseActivity() {
     when (intent.extras!!.getString("setup-type")) {
       "cold-start" -> setupColdStart()
       "conversation-open" -> setupConversationOpen()
+      "conversation-scroll-emoji" -> setupConversationScrollEmoji()
     }
 
     val textView: TextView = TextView(this).apply {
@@ -54,4 +55,36 @@ class BenchmarkSetupActivity : BaseActivity() {
       GenZappDatabase.threads.update(GenZappDatabase.threads.getOrCreateThreadIdFor(recipient = recipient), true)
     }
   }
+
+  /**
+   * A long conversation where most bubbles mix text and emoji, plus some jumbomoji-only messages. This only seeds the data.
+   * ConversationScrollFrameTimeBenchmark in androidTest seeds the same bodies and measures frame times while scrolling them.
+   */
+  private fun setupConversationScrollEmoji() {
+    TestUsers.setupSelf()
+    TestUsers.setupTestRecipient().let {
+      val recipient: Recipient = Recipient.resolved(it)
+      val messagesToAdd = 1000
+      val generator: TestMessages.TimestampGenerator = TestMessages.TimestampGenerator(System.currentTimeMillis() - (messagesToAdd * 2000L) - 60_000L)
+
+      for (i in 0 until messagesToAdd) {
+        TestMessages.insertIncomingTextMessage(other = recipient, body = EMOJI_BODIES[i % EMOJI_BODIES.size], timestamp = generator.nextTimestamp())
+        TestMessages.insertOutgoingTextMessage(other = recipient, body = EMOJI_BODIES[(i + 1) % EMOJI_BODIES.size], timestamp = generator.nextTimestamp())
+      }
+
+      GenZappDatabase.threads.update(GenZappDatabase.threads.getOrCreateThreadIdFor(recipient = recipient), true)
+    }
+  }
+
+  companion object {
+    private val EMOJI_BODIES = listOf(
+      "\uD83D\uDE02\uD83D\uDE02\uD83D\uDE02",
+      "Running late \uD83C\uDFC3\u200D\u2640\uFE0F\uD83D\uDCA8 be there in 10 \uD83D\uDE4F",
+      "\uD83C\uDF89 Happy birthday!! \uD83C\uDF82\uD83C\uDF88\uD83C\uDF81\uD83E\uDD73 Hope it's a great one \u2764\uFE0F\u2764\uFE0F\u2764\uFE0F",
+      "\uD83D\uDC4D",
+      "Did you see the game last night? \u26BD\uFE0F\uD83D\uDD25\uD83D\uDD25 That second half was unreal \uD83D\uDE31\uD83D\uDE31 I still can't believe it \uD83E\uDD2F",
+      "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67\u200D\uD83D\uDC66 \uD83C\uDFE0 \uD83D\uDC36 \uD83D\uDC31 \uD83D\uDC1F",
+      "ok \uD83D\uDC4C\uD83C\uDFFD see you then \uD83D\uDC4B\uD83C\uDFFE"
+    )
+  }
 }
@@ -126,8 +126,10 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
                 otherChunks.add(chunk);
             }
         }
-        frameBuffer = ByteBuffer.allocate((canvasWidth * canvasHeight / (sampleSize * sampleSize) + 1) * 4);
-        snapShot.byteBuffer = ByteBuffer.allocate((canvasWidth * canvasHeight / (sampleSize * sampleSize) + 1) * 4);
+        if (snapShot.byteBuffer != null) {
+            recycleFrameBuffer(snapShot.byteBuffer);
+        }
+        snapShot.byteBuffer = obtainFrameBuffer((canvasWidth * canvasHeight / (sampleSize * sampleSize) + 1) * 4);
         return new Rect(0, 0, canvasWidth, canvasHeight);
     }
 
@@ -142,6 +144,9 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
             if (canvas == null) {
                 canvas = new Canvas(bitmap);
                 cachedCanvas.put(bitmap, canvas);
+            } else {
+                // Pooled bitmaps may have been reconfigured by another decoder since this canvas was made
+                canvas.setBitmap(bitmap);
             }
             if (frame instanceof APNGFrame) {
                 // 从缓存中恢复当前帧
@@ -199,7 +204,8 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
             }
             //开始真正绘制当前帧的内容
             Bitmap inBitmap = obtainBitmap(frame.frameWidth, frame.frameHeight);
-            recycleBitmap(frame.draw(canvas, paint, sampleSize, inBitmap, getWriter()));
+            // If the frame couldn't decode into inBitmap, it returns a new bitmap that isn't ours to pool
+            frame.draw(canvas, paint, sampleSize, inBitmap, getWriter());
             recycleBitmap(inBitmap);
             frameBuffer.rewind();
             bitmap.copyPixelsToBuffer(frameBuffer);
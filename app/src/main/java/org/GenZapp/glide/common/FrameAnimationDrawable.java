@@ -206,6 +206,7 @@ public abstract class FrameAnimationDrawable<Decoder extends FrameSeqDecoder> ex
 
     @Override
     public boolean setVisible(boolean visible, boolean restart) {
+        frameSeqDecoder.setVisible(visible);
         if (this.autoPlay) {
             if (visible) {
                 if (!isRunning()) {
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.GenZapp.glide.common.decode;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bitmaps and frame buffers shared by every {@link FrameSeqDecoder}.
+ * <p>
+ * Animated stickers tend to come in a handful of sizes, so rather than each decoder holding on to its own scratch bitmaps and buffers until it's stopped,
+ * they're handed back here after every frame and picked up by whichever decoder renders next. Bitmaps go through a size-bucketed {@link LruBitmapPool}, and
+ * frame buffers are direct buffers bucketed by their page-rounded capacity, so they stay off the Java heap.
+ */
+public final class FramePool {
+
+  private static final long MAX_POOLED_BITMAP_BYTES = 8 * 1024 * 1024;
+  private static final long MAX_POOLED_BUFFER_BYTES = 8 * 1024 * 1024;
+  private static final int  BUFFER_BUCKET_SIZE      = 4096;
+
+  private static final FramePool INSTANCE = new FramePool(MAX_POOLED_BITMAP_BYTES, MAX_POOLED_BUFFER_BYTES);
+
+  private final LruBitmapPool                        bitmapPool;
+  private final Map<Integer, ArrayDeque<ByteBuffer>> buffers = new HashMap<>();
+  private final Set<Bitmap>                          lentBitmaps = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final Set<ByteBuffer>                      lentBuffers = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final long                                 maxPooledBufferBytes;
+
+  private long pooledBufferBytes;
+  private long inUseBytes;
+  private long peakFrameBytes;
+  private long allocatedBytes;
+
+  public static @NonNull FramePool getInstance() {
+    return INSTANCE;
+  }
+
+  @VisibleForTesting
+  FramePool(long maxPooledBitmapBytes, long maxPooledBufferBytes) {
+    this.bitmapPool           = new LruBitmapPool(maxPooledBitmapBytes);
+    this.maxPooledBufferBytes = maxPooledBufferBytes;
+  }
+
+  /**
+   * @return A cleared, mutable ARGB_8888 bitmap of the given size. Hand it back with {@link #recycleBitmap(Bitmap)} when the frame is done with it.
+   */
+  public synchronized @NonNull Bitmap obtainBitmap(int width, int height) {
+    long   misses = bitmapPool.getMissCount();
+    Bitmap bitmap = bitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
+
+    if (bitmapPool.getMissCount() != misses) {
+      allocatedBytes += bitmap.getAllocationByteCount();
+    }
+
+    lentBitmaps.add(bitmap);
+    onObtained(bitmap.getAllocationByteCount());
+    return bitmap;
+  }
+
+  /**
+   * Takes back a bitmap from {@link #obtainBitmap(int, int)}. Bitmaps that didn't come from here are left alone, since they aren't counted as in use.
+   */
+  public synchronized void recycleBitmap(@NonNull Bitmap bitmap) {
+    if (!lentBitmaps.remove(bitmap)) {
+      return;
+    }
+
+    inUseBytes -= bitmap.getAllocationByteCount();
+    bitmapPool.put(bitmap);
+  }
+
+  /**
+   * @return A direct buffer whose limit is the requested size. Its contents are whatever the previous owner left behind.
+   */
+  public synchronized @NonNull ByteBuffer obtainBuffer(int size) {
+    int                    capacity = bucket(size);
+    ArrayDeque<ByteBuffer> bucket   = buffers.get(capacity);
+    ByteBuffer             buffer   = bucket != null ? bucket.poll() : null;
+
+    if (buffer != null) {
+      pooledBufferBytes -= capacity;
+    } else {
+      buffer          = ByteBuffer.allocateDirect(capacity);
+      allocatedBytes += capacity;
+    }
+
+    buffer.clear();
+    buffer.limit(size);
+
+    lentBuffers.add(buffer);
+    onObtained(capacity);
+    return buffer;
+  }
+
+  /**
+   * Takes back a buffer from {@link #obtainBuffer(int)}. Like bitmaps, buffers are tracked by identity (a buffer's equals() compares its contents), and
+   * ones that didn't come from here, or were already handed back, are left alone.
+   */
+  public synchronized void recycleBuffer(@NonNull ByteBuffer buffer) {
+    if (!lentBuffers.remove(buffer)) {
+      return;
+    }
+
+    int capacity = buffer.capacity();
+
+    inUseBytes -= capacity;
+
+    if (pooledBufferBytes + capacity > maxPooledBufferBytes) {
+      return;
+    }
+
+    ArrayDeque<ByteBuffer> bucket = buffers.get(capacity);
+    if (bucket == null) {
+      bucket = new ArrayDeque<>();
+      buffers.put(capacity, bucket);
+    }
+
+    bucket.push(buffer);
+    pooledBufferBytes += capacity;
+  }
+
+  /**
+   * @return Bytes currently handed out to decoders plus bytes held in the pool.
+   */
+  public synchronized long getFrameBytes() {
+    return inUseBytes + pooledBufferBytes + bitmapPool.getCurrentSize();
+  }
+
+  @VisibleForTesting
+  synchronized long getInUseBytes() {
+    return inUseBytes;
+  }
+
+  public synchronized long getPeakFrameBytes() {
+    return peakFrameBytes;
+  }
+
+  /**
+   * @return Total bytes of bitmaps and buffers this pool has had to create, rather than reuse.
+   */
+  public synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  static int bucket(int size) {
+    return (size + BUFFER_BUCKET_SIZE - 1) / BUFFER_BUCKET_SIZE * BUFFER_BUCKET_SIZE;
+  }
+
+  private void onObtained(long bytes) {
+    inUseBytes    += bytes;
+    peakFrameBytes = Math.max(peakFrameBytes, getFrameBytes());
+  }
+}
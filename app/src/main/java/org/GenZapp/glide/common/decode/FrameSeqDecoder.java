@@ -8,7 +8,6 @@ package org.GenZapp.glide.common.decode;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Rect;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 
@@ -25,7 +24,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -38,7 +36,7 @@ import java.util.concurrent.locks.LockSupport;
  * @Author: pengfei.zhou
  * @CreateDate: 2019/3/27
  */
-public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
+public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> implements FrameDecoderExecutor.Animation {
     private static final String TAG = Log.tag(FrameSeqDecoder.class);
     private final int taskId;
 
@@ -72,7 +70,7 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     };
     protected int sampleSize = 1;
 
-    private Set<Bitmap> cacheBitmaps = new HashSet<>();
+    private final List<ByteBuffer> frameBuffers = new ArrayList<>();
     protected Map<Bitmap, Canvas> cachedCanvas = new WeakHashMap<>();
     protected ByteBuffer frameBuffer;
     protected volatile Rect fullRect;
@@ -84,6 +82,9 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
      */
     private boolean finished = false;
 
+    private volatile boolean visible = true;
+    private volatile boolean parked = false;
+
     private enum State {
         IDLE,
         RUNNING,
@@ -102,47 +103,60 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     protected abstract R getReader(Reader reader);
 
     protected Bitmap obtainBitmap(int width, int height) {
-        Bitmap ret = null;
-        Iterator<Bitmap> iterator = cacheBitmaps.iterator();
-        while (iterator.hasNext()) {
-            int reuseSize = width * height * 4;
-            ret = iterator.next();
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                if (ret != null && ret.getAllocationByteCount() >= reuseSize) {
-                    iterator.remove();
-                    if (ret.getWidth() != width || ret.getHeight() != height) {
-                        ret.reconfigure(width, height, Bitmap.Config.ARGB_8888);
-                    }
-                    ret.eraseColor(0);
-                    return ret;
-                }
-            } else {
-                if (ret != null && ret.getByteCount() >= reuseSize) {
-                    if (ret.getWidth() == width && ret.getHeight() == height) {
-                        iterator.remove();
-                        ret.eraseColor(0);
-                    }
-                    return ret;
-                }
-            }
-        }
-
         try {
-            Bitmap.Config config = Bitmap.Config.ARGB_8888;
-            ret = Bitmap.createBitmap(width, height, config);
+            return FramePool.getInstance().obtainBitmap(width, height);
         } catch (OutOfMemoryError e) {
             e.printStackTrace();
+            return null;
         }
-        return ret;
     }
 
     protected void recycleBitmap(Bitmap bitmap) {
-        if (bitmap != null && !cacheBitmaps.contains(bitmap)) {
-            cacheBitmaps.add(bitmap);
+        if (bitmap != null) {
+            FramePool.getInstance().recycleBitmap(bitmap);
         }
     }
 
+    /**
+     * @return A pooled buffer of at least {@code size} bytes, which is handed back when the decoder stops.
+     */
+    protected ByteBuffer obtainFrameBuffer(int size) {
+        ByteBuffer buffer = FramePool.getInstance().obtainBuffer(size);
+        frameBuffers.add(buffer);
+        return buffer;
+    }
+
+    protected void recycleFrameBuffer(ByteBuffer buffer) {
+        // ByteBuffer equality is by content, so look for this exact instance
+        for (int i = 0; i < frameBuffers.size(); i++) {
+            if (frameBuffers.get(i) == buffer) {
+                frameBuffers.remove(i);
+                FramePool.getInstance().recycleBuffer(buffer);
+                return;
+            }
+        }
+    }
+
+    private void recycleFrameBuffers() {
+        for (ByteBuffer buffer : frameBuffers) {
+            FramePool.getInstance().recycleBuffer(buffer);
+        }
+        frameBuffers.clear();
+        frameBuffer = null;
+    }
+
+    private long getFrameBytes() {
+        long bytes = 0;
+        for (ByteBuffer buffer : frameBuffers) {
+            bytes += buffer.capacity();
+        }
+        if (fullRect != null) {
+            // The bitmap each frame is rendered into
+            bytes += (long) (fullRect.width() / sampleSize) * (fullRect.height() / sampleSize) * 4;
+        }
+        return bytes;
+    }
+
     /**
      * 解码器的渲染回调
      */
@@ -240,7 +254,10 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
 
     private void initCanvasBounds(Rect rect) {
         fullRect = rect;
-        frameBuffer = ByteBuffer.allocate((rect.width() * rect.height() / (sampleSize * sampleSize) + 1) * 4);
+        if (frameBuffer != null) {
+            recycleFrameBuffer(frameBuffer);
+        }
+        frameBuffer = obtainFrameBuffer((rect.width() * rect.height() / (sampleSize * sampleSize) + 1) * 4);
         if (mWriter == null) {
             mWriter = getWriter();
         }
@@ -268,6 +285,7 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
             Log.e(TAG, debugInfo() + " Processing,wait for finish at " + mState);
         }
         mState = State.INITIALIZING;
+        parked = false;
         if (Looper.myLooper() == workerHandler.getLooper()) {
             innerStart();
         } else {
@@ -302,6 +320,7 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
             Log.i(TAG, debugInfo() + " Set state to RUNNING,cost " + (System.currentTimeMillis() - start));
             mState = State.RUNNING;
         }
+        FrameDecoderExecutor.getInstance().onRunning(this, getFrameBytes());
         if (getNumPlays() == 0 || !finished) {
             this.frameIndex = -1;
             renderTask.run();
@@ -315,17 +334,18 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
 
     @WorkerThread
     private void innerStop() {
+        innerStop(false);
+    }
+
+    /**
+     * @param park Whether the stop is only to release memory, in which case the animation stays registered with the {@link FrameDecoderExecutor} and
+     *             listeners aren't told it ended.
+     */
+    @WorkerThread
+    private void innerStop(boolean park) {
         workerHandler.removeCallbacks(renderTask);
         frames.clear();
-        for (Bitmap bitmap : cacheBitmaps) {
-            if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.recycle();
-            }
-        }
-        cacheBitmaps.clear();
-        if (frameBuffer != null) {
-            frameBuffer = null;
-        }
+        recycleFrameBuffers();
         cachedCanvas.clear();
         try {
             if (mReader != null) {
@@ -340,6 +360,10 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
         }
         release();
         mState = State.IDLE;
+        if (park) {
+            return;
+        }
+        FrameDecoderExecutor.getInstance().onStopped(this);
         for (RenderListener renderListener : renderListeners) {
             renderListener.onEnd();
         }
@@ -349,6 +373,10 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
         if (fullRect == RECT_EMPTY) {
             return;
         }
+        if (parked) {
+            parked = false;
+            FrameDecoderExecutor.getInstance().onStopped(this);
+        }
         if (mState == State.FINISHING || mState == State.IDLE) {
             Log.i(TAG, debugInfo() + "No need to stop");
             return;
@@ -369,6 +397,46 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
         }
     }
 
+    @Override
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Lets the {@link FrameDecoderExecutor} park this animation while it's off-screen.
+     */
+    public void setVisible(boolean visible) {
+        if (this.visible != visible) {
+            this.visible = visible;
+            FrameDecoderExecutor.getInstance().onVisibilityChanged(this, visible);
+        }
+    }
+
+    @Override
+    public void park() {
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mState == State.RUNNING) {
+                    parked = true;
+                    innerStop(true);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void unpark() {
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (parked) {
+                    start();
+                }
+            }
+        });
+    }
+
     private String debugInfo() {
         return "";
     }
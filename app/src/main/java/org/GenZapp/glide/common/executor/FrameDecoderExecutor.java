@@ -8,22 +8,66 @@ package org.GenZapp.glide.common.executor;
 import android.os.HandlerThread;
 import android.os.Looper;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
 import org.GenZapp.core.util.ThreadUtil;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @Description: com.github.penfeizhou.animation.executor
  * @Author: pengfei.zhou
  * @CreateDate: 2019-11-21
+ * <p>
+ * Besides handing out the shared decoder threads, this keeps the frame memory of every running animation under a single budget. When starting an animation
+ * would go over it, the least recently started animations are parked, off-screen ones first. Parked animations release their frame memory and keep their
+ * last frame on screen, and are started again once they're visible and there's room.
  */
 public class FrameDecoderExecutor {
+    private static final long MIN_FRAME_BYTES = 16 * 1024 * 1024;
+    private static final long MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
     private static int sPoolNumber = 4;
     private ArrayList<HandlerThread> mHandlerThreadGroup = new ArrayList<>();
     private AtomicInteger counter = new AtomicInteger(0);
 
+    private final long maxFrameBytes;
+    private final Map<Animation, Long> running = new LinkedHashMap<>();
+    private final Map<Animation, Long> parked = new LinkedHashMap<>();
+    private long runningFrameBytes;
+
     private FrameDecoderExecutor() {
+        this(Math.max(MIN_FRAME_BYTES, Math.min(Runtime.getRuntime().maxMemory() / 8, MAX_FRAME_BYTES)));
+    }
+
+    @VisibleForTesting
+    FrameDecoderExecutor(long maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * An animation whose frame memory counts towards the budget.
+     */
+    public interface Animation {
+        boolean isVisible();
+
+        /**
+         * Stop rendering and release frame memory, without notifying listeners that the animation ended.
+         */
+        void park();
+
+        /**
+         * Start rendering again after {@link #park()}.
+         */
+        void unpark();
     }
 
     static class Inner {
@@ -68,5 +112,158 @@ public class FrameDecoderExecutor {
     public int generateTaskId() {
         return counter.getAndIncrement();
     }
-}
 
+    /**
+     * Called once an animation is running and holding {@code frameBytes} of frame memory. Parks other animations if that puts the total over budget.
+     */
+    public void onRunning(@NonNull Animation animation, long frameBytes) {
+        List<Animation> toPark;
+        List<Animation> toUnpark;
+
+        synchronized (this) {
+            parked.remove(animation);
+            removeRunning(animation);
+
+            running.put(animation, frameBytes);
+            runningFrameBytes += frameBytes;
+
+            toPark   = takeOverBudget(animation);
+            toUnpark = takeUnparkable(null);
+        }
+
+        park(toPark);
+        unpark(toUnpark);
+    }
+
+    /**
+     * Called when an animation has stopped for good, and no longer needs to be started again.
+     */
+    public void onStopped(@NonNull Animation animation) {
+        List<Animation> toUnpark;
+
+        synchronized (this) {
+            parked.remove(animation);
+
+            if (!removeRunning(animation)) {
+                return;
+            }
+
+            toUnpark = takeUnparkable(null);
+        }
+
+        unpark(toUnpark);
+    }
+
+    /**
+     * Off-screen animations are parked right away. Animations coming back on screen get the highest priority, and are started again if there's room.
+     */
+    public void onVisibilityChanged(@NonNull Animation animation, boolean visible) {
+        List<Animation> toPark   = new ArrayList<>();
+        List<Animation> toUnpark;
+
+        synchronized (this) {
+            Long frameBytes = running.get(animation);
+
+            if (frameBytes != null) {
+                removeRunning(animation);
+
+                if (visible) {
+                    running.put(animation, frameBytes);
+                    runningFrameBytes += frameBytes;
+                } else {
+                    parked.put(animation, frameBytes);
+                    toPark.add(animation);
+                }
+            }
+
+            toUnpark = takeUnparkable(visible ? animation : null);
+        }
+
+        park(toPark);
+        unpark(toUnpark);
+    }
+
+    @VisibleForTesting
+    synchronized long getRunningFrameBytes() {
+        return runningFrameBytes;
+    }
+
+    @VisibleForTesting
+    synchronized int getParkedCount() {
+        return parked.size();
+    }
+
+    private boolean removeRunning(@NonNull Animation animation) {
+        Long frameBytes = running.remove(animation);
+
+        if (frameBytes != null) {
+            runningFrameBytes -= frameBytes;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private @NonNull List<Animation> takeOverBudget(@NonNull Animation keep) {
+        List<Animation> victims = new ArrayList<>();
+
+        takeOverBudget(keep, false, victims);
+        takeOverBudget(keep, true, victims);
+
+        return victims;
+    }
+
+    private void takeOverBudget(@NonNull Animation keep, boolean visible, @NonNull List<Animation> victims) {
+        Iterator<Map.Entry<Animation, Long>> iterator = running.entrySet().iterator();
+
+        while (runningFrameBytes > maxFrameBytes && iterator.hasNext()) {
+            Map.Entry<Animation, Long> entry     = iterator.next();
+            Animation                  candidate = entry.getKey();
+
+            if (candidate != keep && candidate.isVisible() == visible) {
+                iterator.remove();
+                runningFrameBytes -= entry.getValue();
+                parked.put(candidate, entry.getValue());
+                victims.add(candidate);
+            }
+        }
+    }
+
+    /**
+     * Picks the parked animations that are visible and fit in what's left of the budget, starting with {@code preferred} and then the most recently parked.
+     * Their frame memory is counted once they report back through {@link #onRunning}.
+     */
+    private @NonNull List<Animation> takeUnparkable(@Nullable Animation preferred) {
+        List<Animation>                  unparked   = new ArrayList<>();
+        List<Map.Entry<Animation, Long>> candidates = new ArrayList<>(parked.entrySet());
+        long                             available  = maxFrameBytes - runningFrameBytes;
+
+        if (preferred != null && parked.containsKey(preferred)) {
+            candidates.add(new AbstractMap.SimpleEntry<>(preferred, parked.get(preferred)));
+        }
+
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            Animation candidate  = candidates.get(i).getKey();
+            long      frameBytes = candidates.get(i).getValue();
+
+            if (candidate.isVisible() && frameBytes <= available && parked.remove(candidate) != null) {
+                available -= frameBytes;
+                unparked.add(candidate);
+            }
+        }
+
+        return unparked;
+    }
+
+    private static void park(@NonNull List<Animation> animations) {
+        for (Animation animation : animations) {
+            animation.park();
+        }
+    }
+
+    private static void unpark(@NonNull List<Animation> animations) {
+        for (Animation animation : animations) {
+            animation.unpark();
+        }
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.GenZapp.core.util.logging.Log;
+import org.thoughtcrime.securesms.util.FileUtils;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the archives of a differential backup contain so far, so the next archive only has to carry what changed since.
+ *
+ * A chain starts with a base archive, which is a complete backup that restores on its own, and continues with deltas that each hold the rows added, changed
+ * and removed since the archive before them. For every exported table we keep a manifest of (rowid, digest) pairs in rowid order, which the exporter walks
+ * alongside the table to find changes without holding either in memory, along with the attachment contents already in the chain so none is written twice.
+ *
+ * An export writes a new copy of this state next to the committed one, which only replaces it in {@link #commit(String, long)} once the archive has been
+ * safely stored. If the archive never makes it, {@link #abort()} throws the copy away and the next export picks up from the last committed archive.
+ *
+ * The base is stored under its own name, so it's also an ordinary backup file, and each delta is stored next to it under the base's name followed by its
+ * position in the chain, like {@code GenZapp-2024-01-01-00-00-00.backup.3}.
+ */
+public final class BackupChain {
+
+  private static final String TAG = Log.tag(BackupChain.class);
+
+  private static final String DIRECTORY = "backup_chain";
+
+  private static final int FORMAT_VERSION = 2;
+  private static final int CHAIN_ID_LENGTH = 16;
+
+  /** After this many deltas we start over with a new base, so a restore never has to replay a long chain. */
+  @VisibleForTesting
+  static final int MAX_DELTAS = 6;
+
+  /** However few backups there have been, we start over with a new base after this long, so a restore never depends on a very old base either. */
+  @VisibleForTesting
+  static final long MAX_CHAIN_AGE = TimeUnit.DAYS.toMillis(7);
+
+  private static final String CURRENT  = "current";
+  private static final String PENDING  = "pending";
+  private static final String PREVIOUS = "previous";
+  private static final String STATE    = "state";
+  private static final String CONTENT  = "content";
+  private static final String ROWS     = "rows";
+
+  private final File directory;
+
+  private @Nullable State       committed;
+  private @Nullable State       pending;
+  private @Nullable Set<String> content;
+
+  /**
+   * The name a delta is stored under, given the name of the base it belongs to.
+   */
+  public static @NonNull String getDeltaName(@NonNull String baseName, int sequence) {
+    return baseName + "." + sequence;
+  }
+
+  public static @NonNull BackupChain getInstance(@NonNull Context context) throws IOException {
+    return load(context.getDir(DIRECTORY, Context.MODE_PRIVATE));
+  }
+
+  @VisibleForTesting
+  static @NonNull BackupChain load(@NonNull File directory) throws IOException {
+    File current  = new File(directory, CURRENT);
+    File previous = new File(directory, PREVIOUS);
+
+    // We died between the two renames in commit(), so the previous state is the last one we know was committed
+    if (!current.exists() && previous.exists() && !previous.renameTo(current)) {
+      throw new IOException("Failed to recover the previous backup chain!");
+    }
+
+    FileUtils.deleteDirectory(new File(directory, PENDING));
+
+    return new BackupChain(directory, State.read(new File(current, STATE)));
+  }
+
+  private BackupChain(@NonNull File directory, @Nullable State committed) {
+    this.directory = directory;
+    this.committed = committed;
+  }
+
+  /**
+   * Whether the next archive has to be a new base, either because there's no chain to add to or because the one we have has run its course.
+   */
+  boolean needsBase(int databaseVersion, @NonNull List<String> tables) {
+    if (committed == null) {
+      Log.i(TAG, "No backup chain yet.");
+      return true;
+    }
+
+    if (committed.databaseVersion != databaseVersion || !committed.tables.equals(tables)) {
+      Log.i(TAG, "The schema has changed since the base was written.");
+      return true;
+    }
+
+    if (committed.sequence >= MAX_DELTAS) {
+      Log.i(TAG, "The chain already has " + committed.sequence + " deltas.");
+      return true;
+    }
+
+    if (committed.deltaBytes > committed.baseBytes / 2) {
+      Log.i(TAG, "The deltas add up to " + committed.deltaBytes + " bytes against a " + committed.baseBytes + " byte base.");
+      return true;
+    }
+
+    long age = System.currentTimeMillis() - committed.createdAt;
+    if (age > MAX_CHAIN_AGE || age < 0) {
+      Log.i(TAG, "The base was written " + age + " ms ago.");
+      return true;
+    }
+
+    return false;
+  }
+
+  void beginBase(int databaseVersion, @NonNull List<String> tables) throws IOException {
+    preparePending();
+
+    pending = new State(Util.getSecretBytes(CHAIN_ID_LENGTH), 0, databaseVersion, 0, 0, new ArrayList<>(tables), null, System.currentTimeMillis());
+    content = new HashSet<>();
+  }
+
+  void beginDelta() throws IOException {
+    if (committed == null) {
+      throw new IllegalStateException("No chain to add a delta to!");
+    }
+
+    preparePending();
+
+    pending = committed.next();
+    content = readContent(new File(new File(directory, CURRENT), CONTENT));
+  }
+
+  @NonNull byte[] getChainId() {
+    return requirePending().chainId;
+  }
+
+  /**
+   * The position of the archive being written in its chain, where the base is 0.
+   */
+  public int getSequence() {
+    return requirePending().sequence;
+  }
+
+  /**
+   * The name the base of the last committed archive's chain was stored under, or null if there's no chain yet.
+   */
+  public @Nullable String getBaseName() {
+    return committed != null ? committed.baseName : null;
+  }
+
+  /**
+   * The names of the archives committed so far, base first, which all have to still be where they were stored for the next delta to be restorable.
+   */
+  public @NonNull List<String> getArchiveNames() {
+    List<String> names = new ArrayList<>();
+
+    if (committed != null && committed.baseName != null) {
+      names.add(committed.baseName);
+      for (int sequence = 1; sequence <= committed.sequence; sequence++) {
+        names.add(getDeltaName(committed.baseName, sequence));
+      }
+    }
+
+    return names;
+  }
+
+  /**
+   * The rows of {@code table} as of the last committed archive.
+   */
+  @NonNull RowReader readRows(@NonNull String table) throws IOException {
+    File file = new File(new File(new File(directory, CURRENT), ROWS), table);
+    return file.exists() ? new RowReader(file) : RowReader.empty();
+  }
+
+  /**
+   * Where to record the rows of {@code table} as of the archive being written.
+   */
+  @NonNull RowWriter writeRows(@NonNull String table) throws IOException {
+    requirePending();
+    return new RowWriter(new File(new File(new File(directory, PENDING), ROWS), table));
+  }
+
+  boolean hasContent(@NonNull String contentKey) {
+    return requireContent().contains(contentKey);
+  }
+
+  void addContent(@NonNull String contentKey) {
+    requireContent().add(contentKey);
+  }
+
+  /**
+   * Makes the archive that was just written the one the next export builds on. Only call this once the archive is stored where a restore will find it.
+   *
+   * @param archiveName  The name the archive was stored under. For a delta, that's {@link #getDeltaName} of the chain's base.
+   * @param archiveBytes The size of the stored archive.
+   */
+  public void commit(@NonNull String archiveName, long archiveBytes) throws IOException {
+    State state = requirePending();
+    State done  = state.sequence == 0 ? state.withBase(archiveName, archiveBytes)
+                                      : state.withDelta(archiveBytes);
+
+    File pendingDirectory  = new File(directory, PENDING);
+    File currentDirectory  = new File(directory, CURRENT);
+    File previousDirectory = new File(directory, PREVIOUS);
+
+    done.write(new File(pendingDirectory, STATE));
+    writeContent(new File(pendingDirectory, CONTENT), requireContent());
+
+    FileUtils.deleteDirectory(previousDirectory);
+
+    if (currentDirectory.exists() && !currentDirectory.renameTo(previousDirectory)) {
+      throw new IOException("Failed to move the committed backup chain aside!");
+    }
+
+    if (!pendingDirectory.renameTo(currentDirectory)) {
+      throw new IOException("Failed to commit the backup chain!");
+    }
+
+    FileUtils.deleteDirectory(previousDirectory);
+
+    committed = done;
+    pending   = null;
+    content   = null;
+
+    Log.i(TAG, "Committed archive " + done.sequence + " of the chain. Base: " + done.baseBytes + " bytes, deltas: " + done.deltaBytes + " bytes");
+  }
+
+  /**
+   * Forgets the archive that was just written, so the next export builds on the last committed one instead.
+   */
+  public void abort() {
+    FileUtils.deleteDirectory(new File(directory, PENDING));
+    pending = null;
+    content = null;
+  }
+
+  /**
+   * Forgets the whole chain, so the next export writes a new base. Needed whenever the earlier archives can't be restored alongside new ones, like after
+   * the passphrase changes or they've been deleted.
+   */
+  public void reset() {
+    abort();
+    FileUtils.deleteDirectory(new File(directory, CURRENT));
+    FileUtils.deleteDirectory(new File(directory, PREVIOUS));
+    committed = null;
+  }
+
+  private void preparePending() throws IOException {
+    File pendingDirectory = new File(directory, PENDING);
+
+    FileUtils.deleteDirectory(pendingDirectory);
+
+    File rows = new File(pendingDirectory, ROWS);
+    if (!rows.mkdirs()) {
+      throw new IOException("Failed to create " + rows);
+    }
+  }
+
+  private @NonNull State requirePending() {
+    if (pending == null) {
+      throw new IllegalStateException("No archive is being written!");
+    }
+    return pending;
+  }
+
+  private @NonNull Set<String> requireContent() {
+    if (content == null) {
+      throw new IllegalStateException("No archive is being written!");
+    }
+    return content;
+  }
+
+  private static @NonNull Set<String> readContent(@NonNull File file) throws IOException {
+    Set<String> keys = new HashSet<>();
+
+    if (!file.exists()) {
+      return keys;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        keys.add(in.readUTF());
+      }
+    }
+
+    return keys;
+  }
+
+  private static void writeContent(@NonNull File file, @NonNull Set<String> keys) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(keys.size());
+      for (String key : keys) {
+        out.writeUTF(key);
+      }
+    }
+  }
+
+  /**
+   * Reads back a table manifest in rowid order, one row at a time.
+   */
+  static final class RowReader implements Closeable {
+
+    private final @Nullable DataInputStream in;
+
+    private long rowId;
+    private long digest;
+
+    static @NonNull RowReader empty() {
+      return new RowReader();
+    }
+
+    private RowReader() {
+      this.in = null;
+    }
+
+    private RowReader(@NonNull File file) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    /**
+     * Moves to the next row, returning false once there are none left.
+     */
+    boolean next() throws IOException {
+      if (in == null) {
+        return false;
+      }
+
+      try {
+        rowId  = in.readLong();
+        digest = in.readLong();
+        return true;
+      } catch (EOFException e) {
+        return false;
+      }
+    }
+
+    long getRowId() {
+      return rowId;
+    }
+
+    long getDigest() {
+      return digest;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (in != null) {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Writes a table manifest. Rows have to be written in rowid order.
+   */
+  static final class RowWriter implements Closeable {
+
+    private final DataOutputStream out;
+
+    private RowWriter(@NonNull File file) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    void write(long rowId, long digest) throws IOException {
+      out.writeLong(rowId);
+      out.writeLong(digest);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  private static final class State {
+    private final byte[]       chainId;
+    private final int          sequence;
+    private final int          databaseVersion;
+    private final long         baseBytes;
+    private final long         deltaBytes;
+    private final List<String> tables;
+    private final String       baseName;
+    private final long         createdAt;
+
+    private State(@NonNull byte[] chainId,
+                  int sequence,
+                  int databaseVersion,
+                  long baseBytes,
+                  long deltaBytes,
+                  @NonNull List<String> tables,
+                  @Nullable String baseName,
+                  long createdAt)
+    {
+      this.chainId         = chainId;
+      this.sequence        = sequence;
+      this.databaseVersion = databaseVersion;
+      this.baseBytes       = baseBytes;
+      this.deltaBytes      = deltaBytes;
+      this.tables          = tables;
+      this.baseName        = baseName;
+      this.createdAt       = createdAt;
+    }
+
+    @NonNull State next() {
+      return new State(chainId, sequence + 1, databaseVersion, baseBytes, deltaBytes, tables, baseName, createdAt);
+    }
+
+    @NonNull State withBase(@NonNull String baseName, long baseBytes) {
+      return new State(chainId, sequence, databaseVersion, baseBytes, 0, tables, baseName, createdAt);
+    }
+
+    @NonNull State withDelta(long archiveBytes) {
+      return new State(chainId, sequence, databaseVersion, baseBytes, deltaBytes + archiveBytes, tables, baseName, createdAt);
+    }
+
+    static @Nullable State read(@NonNull File file) throws IOException {
+      if (!file.exists()) {
+        return null;
+      }
+
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+          Log.w(TAG, "Unknown backup chain format " + version + ", starting over.");
+          return null;
+        }
+
+        byte[] chainId = new byte[CHAIN_ID_LENGTH];
+        in.readFully(chainId);
+
+        int  sequence        = in.readInt();
+        int  databaseVersion = in.readInt();
+        long baseBytes       = in.readLong();
+        long deltaBytes      = in.readLong();
+
+        int          tableCount = in.readInt();
+        List<String> tables     = new ArrayList<>(tableCount);
+        for (int i = 0; i < tableCount; i++) {
+          tables.add(in.readUTF());
+        }
+
+        String baseName  = in.readUTF();
+        long   createdAt = in.readLong();
+
+        return new State(chainId, sequence, databaseVersion, baseBytes, deltaBytes, tables, baseName, createdAt);
+      }
+    }
+
+    void write(@NonNull File file) throws IOException {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+        out.writeInt(FORMAT_VERSION);
+        out.write(chainId);
+        out.writeInt(sequence);
+        out.writeInt(databaseVersion);
+        out.writeLong(baseBytes);
+        out.writeLong(deltaBytes);
+        out.writeInt(tables.size());
+        for (String table : tables) {
+          out.writeUTF(table);
+        }
+        out.writeUTF(Objects.requireNonNull(baseName));
+        out.writeLong(createdAt);
+      }
+    }
+  }
+}
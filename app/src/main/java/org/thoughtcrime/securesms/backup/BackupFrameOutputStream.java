@@ -6,6 +6,7 @@
 package org.thoughtcrime.securesms.backup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.GenZapp.core.util.Conversions;
 import org.GenZapp.core.util.logging.Log;
@@ -13,8 +14,10 @@ import org.GenZapp.libGenZapp.protocol.kdf.HKDF;
 import org.GenZapp.libGenZapp.protocol.util.ByteUtil;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.backup.proto.Attachment;
+import org.thoughtcrime.securesms.backup.proto.AttachmentReference;
 import org.thoughtcrime.securesms.backup.proto.Avatar;
 import org.thoughtcrime.securesms.backup.proto.BackupFrame;
+import org.thoughtcrime.securesms.backup.proto.ChainLink;
 import org.thoughtcrime.securesms.backup.proto.DatabaseVersion;
 import org.thoughtcrime.securesms.backup.proto.Header;
 import org.thoughtcrime.securesms.backup.proto.KeyValue;
@@ -116,11 +119,19 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
   }
 
   public void write(@NonNull AttachmentId attachmentId, @NonNull InputStream in, long size) throws IOException {
+    write(attachmentId, in, size, null);
+  }
+
+  /**
+   * @param contentKey Identifies the content across a backup chain, so later archives can refer back to it with {@link #writeAttachmentReference}.
+   */
+  public void write(@NonNull AttachmentId attachmentId, @NonNull InputStream in, long size, @Nullable String contentKey) throws IOException {
     try {
       write(outputStream, new BackupFrame.Builder()
           .attachment(new Attachment.Builder()
                           .rowId(attachmentId.id)
                           .length(Util.toIntExact(size))
+                          .contentKey(contentKey)
                           .build())
           .build());
     } catch (ArithmeticException e) {
@@ -151,6 +162,27 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
     }
   }
 
+  /**
+   * Points an attachment at content written earlier in the backup chain, rather than writing it again.
+   */
+  void writeAttachmentReference(@NonNull AttachmentId attachmentId, @NonNull String contentKey) throws IOException {
+    write(outputStream, new BackupFrame.Builder()
+        .attachmentReference(new AttachmentReference.Builder()
+                                 .rowId(attachmentId.id)
+                                 .contentKey(contentKey)
+                                 .build())
+        .build());
+  }
+
+  void writeChainLink(@NonNull byte[] chainId, int sequence) throws IOException {
+    write(outputStream, new BackupFrame.Builder()
+        .chainLink(new ChainLink.Builder()
+                       .chainId(new okio.ByteString(chainId))
+                       .sequence(sequence)
+                       .build())
+        .build());
+  }
+
   void writeDatabaseVersion(int version) throws IOException {
     write(outputStream, new BackupFrame.Builder()
         .version(new DatabaseVersion.Builder().version(version).build())
@@ -31,6 +31,7 @@ import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.database.AttachmentTable;
 import org.thoughtcrime.securesms.database.EmojiSearchTable;
 import org.thoughtcrime.securesms.database.GroupReceiptTable;
+import org.thoughtcrime.securesms.database.GroupUpdateRenderCacheTable;
 import org.thoughtcrime.securesms.database.KeyValueDatabase;
 import org.thoughtcrime.securesms.database.MentionTable;
 import org.thoughtcrime.securesms.database.MessageTable;
@@ -44,6 +45,8 @@ import org.thoughtcrime.securesms.database.SenderKeySharedTable;
 import org.thoughtcrime.securesms.database.SessionTable;
 import org.thoughtcrime.securesms.database.SignedPreKeyTable;
 import org.thoughtcrime.securesms.database.StickerTable;
+import org.thoughtcrime.securesms.database.StorageUsageTable;
+import org.thoughtcrime.securesms.database.StoryFeedTable;
 import org.thoughtcrime.securesms.database.model.AvatarPickerDatabase;
 import org.thoughtcrime.securesms.dependencies.AppDependencies;
 import org.thoughtcrime.securesms.keyvalue.KeyValueDataSet;
@@ -57,8 +60,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -78,8 +85,12 @@ public class FullBackupExporter extends FullBackupBase {
   private static final long TABLE_RECORD_COUNT_MULTIPLIER    = 3L;
   private static final long IDENTITY_KEY_BACKUP_RECORD_COUNT = 2L;
   private static final long FINAL_MESSAGE_COUNT              = 1L;
+  private static final long CHAIN_LINK_RECORD_COUNT          = 1L;
   private static final long EXPIRATION_BACKUP_THRESHOLD      = TimeUnit.DAYS.toMillis(1);
 
+  /** The rowid of each row in a differential backup, which we select ahead of the table's own columns. */
+  private static final String CHAIN_ROW_ID = "_backup_rowid";
+
   /**
    * Tables in list will still have their *schema* exported (so the tables will be created),
    * but we will not export the actual contents.
@@ -95,7 +106,13 @@ public class FullBackupExporter extends FullBackupBase {
       PendingRetryReceiptTable.TABLE_NAME,
       AvatarPickerDatabase.TABLE_NAME,
       RemappedRecordTables.Recipients.TABLE_NAME,
-      RemappedRecordTables.Threads.TABLE_NAME
+      RemappedRecordTables.Threads.TABLE_NAME,
+      GroupUpdateRenderCacheTable.TABLE_NAME,
+      GroupUpdateRenderCacheTable.RECIPIENT_TABLE_NAME,
+      StorageUsageTable.TABLE_NAME,
+      StorageUsageTable.FILE_TABLE_NAME,
+      StoryFeedTable.TABLE_NAME,
+      StoryFeedTable.DIRTY_TABLE_NAME
   );
 
   public static BackupEvent export(@NonNull Context context,
@@ -152,7 +169,8 @@ public class FullBackupExporter extends FullBackupBase {
       outputStream.writeDatabaseVersion(input.getVersion());
       count++;
 
-      List<String> tables = exportSchema(input, outputStream);
+      List<String> tables = getTablesToExportInOrder(input);
+      exportSchema(input, outputStream, tables);
       count += tables.size() * TABLE_RECORD_COUNT_MULTIPLIER;
 
       final long estimatedCount = calculateCount(context, input, tables);
@@ -160,60 +178,146 @@ public class FullBackupExporter extends FullBackupBase {
 
       Stopwatch stopwatch = new Stopwatch("Backup");
 
+      ExpiringMessages expiringMessages = ExpiringMessages.load(input);
+
+      stopwatch.split("expiring");
+
       for (String table : tables) {
         throwIfCanceled(cancellationGenZapp);
-        if (table.equals(MessageTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isNonExpiringMessage(input, cursor), null, count, estimatedCount, cancellationGenZapp);
-        } else if (table.equals(ReactionTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, CursorUtil.requireLong(cursor, ReactionTable.MESSAGE_ID)), null, count, estimatedCount, cancellationGenZapp);
-        } else if (table.equals(MentionTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, CursorUtil.requireLong(cursor, MentionTable.MESSAGE_ID)), null, count, estimatedCount, cancellationGenZapp);
-        } else if (table.equals(GroupReceiptTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptTable.MMS_ID))), null, count, estimatedCount, cancellationGenZapp);
-        } else if (table.equals(AttachmentTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentTable.MESSAGE_ID))), (cursor, innerCount) -> exportAttachment(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationGenZapp);
+        if (table.equals(AttachmentTable.TABLE_NAME)) {
+          count = exportTable(table, input, outputStream, getMessageFilter(table), expiringMessages.filterFor(table), (cursor, innerCount) -> exportAttachment(attachmentSecret, cursor, outputStream, innerCount, estimatedCount, null), count, estimatedCount, cancellationGenZapp);
         } else if (table.equals(StickerTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> true, (cursor, innerCount) -> exportSticker(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationGenZapp);
+          count = exportTable(table, input, outputStream, null, null, (cursor, innerCount) -> exportSticker(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationGenZapp);
         } else if (!TABLE_CONTENT_BLOCKLIST.contains(table)) {
-          count = exportTable(table, input, outputStream, null, null, count, estimatedCount, cancellationGenZapp);
+          count = exportTable(table, input, outputStream, getMessageFilter(table), expiringMessages.filterFor(table), null, count, estimatedCount, cancellationGenZapp);
         }
         stopwatch.split("table::" + table);
       }
 
-      for (SharedPreference preference : TextSecurePreferences.getPreferencesToSaveToBackup(context)) {
-        throwIfCanceled(cancellationGenZapp);
-        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
-        outputStream.write(preference);
+      count = exportPreferencesAndAvatars(context, outputStream, count, estimatedCount, stopwatch, cancellationGenZapp);
+
+      stopwatch.stop(TAG);
+
+      outputStream.writeEnd();
+    } finally {
+      if (closeOutputStream) {
+        outputStream.close();
       }
+    }
+    return new BackupEvent(BackupEvent.Type.FINISHED, outputStream.getFrames(), estimatedCountOutside);
+  }
+
+  /**
+   * Writes the next archive of a differential backup. When {@link BackupChain#needsBase} says so that's a new base, which is a full backup that restores
+   * on its own. Otherwise it's a delta holding only the rows added, changed or removed since the chain's last archive, and only the attachment contents the
+   * chain doesn't already have. Either way, the chain only moves on once the caller has stored the archive and calls {@link BackupChain#commit}.
+   *
+   * This is what the scheduled local backup jobs write. Deltas are restored on top of their base with {@link FullBackupImporter#importChain}.
+   */
+  public static BackupEvent exportDifferential(@NonNull Context context,
+                                               @NonNull AttachmentSecret attachmentSecret,
+                                               @NonNull SQLiteDatabase input,
+                                               @NonNull OutputStream output,
+                                               @NonNull String passphrase,
+                                               @NonNull BackupChain chain,
+                                               @NonNull BackupCancellationGenZapp cancellationGenZapp)
+      throws IOException
+  {
+    BackupFrameOutputStream outputStream = new BackupFrameOutputStream(output, passphrase);
+    int                     count        = 0;
+    long                    estimatedCountOutside;
 
-      stopwatch.split("prefs");
+    try {
+      List<String> tables = getTablesToExportInOrder(input);
+      boolean      base   = chain.needsBase(input.getVersion(), tables);
 
-      count = exportKeyValues(outputStream, GenZappStore.getKeysToIncludeInBackup(), count, estimatedCount, cancellationGenZapp);
+      if (base) {
+        chain.beginBase(input.getVersion(), tables);
+      } else {
+        chain.beginDelta();
+      }
 
-      stopwatch.split("key_values");
+      Log.i(TAG, "Writing archive " + chain.getSequence() + " of the backup chain.");
 
-      for (AvatarHelper.Avatar avatar : AvatarHelper.getAvatars(context)) {
+      outputStream.writeDatabaseVersion(input.getVersion());
+      outputStream.writeChainLink(chain.getChainId(), chain.getSequence());
+      count += 2;
+
+      if (base) {
+        exportSchema(input, outputStream, tables);
+        count += tables.size() * TABLE_RECORD_COUNT_MULTIPLIER;
+      }
+
+      final long estimatedCount = calculateCount(context, input, tables) + CHAIN_LINK_RECORD_COUNT;
+      estimatedCountOutside = estimatedCount;
+
+      Stopwatch stopwatch = new Stopwatch("DifferentialBackup");
+
+      ExpiringMessages expiringMessages = ExpiringMessages.load(input);
+
+      stopwatch.split("expiring");
+
+      for (String table : tables) {
         throwIfCanceled(cancellationGenZapp);
-        if (avatar != null) {
-          EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
-          try (InputStream inputStream = avatar.getInputStream()) {
-            outputStream.write(avatar.getFilename(), inputStream, avatar.getLength());
-          }
+        if (table.equals(AttachmentTable.TABLE_NAME)) {
+          count = exportTableChanges(table, input, outputStream, chain, base, getMessageFilter(table), expiringMessages.filterFor(table), (cursor, innerCount) -> exportChainAttachment(attachmentSecret, cursor, outputStream, chain, base, innerCount, estimatedCount), count, estimatedCount, cancellationGenZapp);
+        } else if (table.equals(StickerTable.TABLE_NAME)) {
+          count = exportTableChanges(table, input, outputStream, chain, base, null, null, (cursor, innerCount) -> exportSticker(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationGenZapp);
+        } else if (!TABLE_CONTENT_BLOCKLIST.contains(table)) {
+          count = exportTableChanges(table, input, outputStream, chain, base, getMessageFilter(table), expiringMessages.filterFor(table), null, count, estimatedCount, cancellationGenZapp);
         }
+        stopwatch.split("table::" + table);
       }
 
-      stopwatch.split("avatars");
+      count = exportPreferencesAndAvatars(context, outputStream, count, estimatedCount, stopwatch, cancellationGenZapp);
+
       stopwatch.stop(TAG);
 
       outputStream.writeEnd();
+    } catch (IOException | RuntimeException e) {
+      chain.abort();
+      throw e;
     } finally {
-      if (closeOutputStream) {
-        outputStream.close();
-      }
+      outputStream.close();
     }
     return new BackupEvent(BackupEvent.Type.FINISHED, outputStream.getFrames(), estimatedCountOutside);
   }
 
+  private static int exportPreferencesAndAvatars(@NonNull Context context,
+                                                 @NonNull BackupFrameOutputStream outputStream,
+                                                 int count,
+                                                 long estimatedCount,
+                                                 @NonNull Stopwatch stopwatch,
+                                                 @NonNull BackupCancellationGenZapp cancellationGenZapp)
+      throws IOException
+  {
+    for (SharedPreference preference : TextSecurePreferences.getPreferencesToSaveToBackup(context)) {
+      throwIfCanceled(cancellationGenZapp);
+      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
+      outputStream.write(preference);
+    }
+
+    stopwatch.split("prefs");
+
+    count = exportKeyValues(outputStream, GenZappStore.getKeysToIncludeInBackup(), count, estimatedCount, cancellationGenZapp);
+
+    stopwatch.split("key_values");
+
+    for (AvatarHelper.Avatar avatar : AvatarHelper.getAvatars(context)) {
+      throwIfCanceled(cancellationGenZapp);
+      if (avatar != null) {
+        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
+        try (InputStream inputStream = avatar.getInputStream()) {
+          outputStream.write(avatar.getFilename(), inputStream, avatar.getLength());
+        }
+      }
+    }
+
+    stopwatch.split("avatars");
+
+    return count;
+  }
+
   private static long calculateCount(@NonNull Context context, @NonNull SQLiteDatabase input, List<String> tables) {
     long count = DATABASE_VERSION_RECORD_COUNT + TABLE_RECORD_COUNT_MULTIPLIER * tables.size();
 
@@ -260,11 +364,9 @@ public class FullBackupExporter extends FullBackupBase {
     }
   }
 
-  private static List<String> exportSchema(@NonNull SQLiteDatabase input, @NonNull BackupFrameOutputStream outputStream)
+  private static void exportSchema(@NonNull SQLiteDatabase input, @NonNull BackupFrameOutputStream outputStream, @NonNull List<String> tablesInOrder)
       throws IOException
   {
-    List<String> tablesInOrder = getTablesToExportInOrder(input);
-
     Log.i(TAG, "Exporting tables in the following order: " + tablesInOrder);
 
     Map<String, String> createStatementsByTable = new HashMap<>();
@@ -298,8 +400,6 @@ public class FullBackupExporter extends FullBackupBase {
         }
       }
     }
-
-    return tablesInOrder;
   }
 
   /**
@@ -381,6 +481,7 @@ public class FullBackupExporter extends FullBackupBase {
   private static int exportTable(@NonNull String table,
                                  @NonNull SQLiteDatabase input,
                                  @NonNull BackupFrameOutputStream outputStream,
+                                 @Nullable String where,
                                  @Nullable Predicate<Cursor> predicate,
                                  @Nullable PostProcessor postProcess,
                                  int count,
@@ -391,45 +492,15 @@ public class FullBackupExporter extends FullBackupBase {
     Log.d(TAG, "Exporting table: " + table);
 
     String template = "INSERT INTO " + table + " VALUES ";
+    String query    = "SELECT * FROM " + table + (where != null ? " WHERE " + where : "");
 
-    try (Cursor cursor = input.rawQuery("SELECT * FROM " + table, null)) {
+    try (Cursor cursor = input.rawQuery(query, null)) {
       while (cursor != null && cursor.moveToNext()) {
         throwIfCanceled(cancellationGenZapp);
 
         if (predicate == null || predicate.test(cursor)) {
-          StringBuilder        statement        = new StringBuilder(template);
-          SqlStatement.Builder statementBuilder = new SqlStatement.Builder();
-
-          statementBuilder.parameters = new ArrayList<>();
-
-          statement.append('(');
-
-          for (int i = 0; i < cursor.getColumnCount(); i++) {
-            statement.append('?');
-
-            if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
-              statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().stringParamter(cursor.getString(i)).build());
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_FLOAT) {
-              statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().doubleParameter(cursor.getDouble(i)).build());
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER) {
-              statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().integerParameter(cursor.getLong(i)).build());
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_BLOB) {
-              statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().blobParameter(new ByteString(cursor.getBlob(i))).build());
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_NULL) {
-              statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().nullparameter(true).build());
-            } else {
-              throw new AssertionError("unknown type?" + cursor.getType(i));
-            }
-
-            if (i < cursor.getColumnCount() - 1) {
-              statement.append(',');
-            }
-          }
-
-          statement.append(')');
-
           EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
-          outputStream.write(statementBuilder.statement(statement.toString()).build());
+          outputStream.write(buildStatement(template, cursor, 0));
 
           if (postProcess != null) {
             count = postProcess.postProcess(cursor, count);
@@ -441,11 +512,229 @@ public class FullBackupExporter extends FullBackupBase {
     return count;
   }
 
+  /**
+   * Like {@link #exportTable}, but for a differential backup. The table is read in rowid order alongside the chain's manifest of it, so every row is either
+   * new, changed, unchanged or gone, and only the rows that aren't unchanged make it into the archive. A base has no manifest to compare against, so it gets
+   * every row.
+   *
+   * Rows keep their rowids in every archive, since that's how later deltas refer to them.
+   */
+  private static int exportTableChanges(@NonNull String table,
+                                        @NonNull SQLiteDatabase input,
+                                        @NonNull BackupFrameOutputStream outputStream,
+                                        @NonNull BackupChain chain,
+                                        boolean base,
+                                        @Nullable String where,
+                                        @Nullable Predicate<Cursor> predicate,
+                                        @Nullable PostProcessor postProcess,
+                                        int count,
+                                        long estimatedCount,
+                                        @NonNull BackupCancellationGenZapp cancellationGenZapp)
+      throws IOException
+  {
+    boolean       rowIdAliased = hasRowIdAlias(input, table);
+    MessageDigest digest       = getRowDigest();
+    String        query        = "SELECT rowid AS " + CHAIN_ROW_ID + ", * FROM " + table + (where != null ? " WHERE " + where : "") + " ORDER BY rowid";
+    String        template     = null;
+    int           written      = 0;
+    int           removed      = 0;
+
+    try (Cursor                cursor   = input.rawQuery(query, null);
+         BackupChain.RowReader previous = base ? BackupChain.RowReader.empty() : chain.readRows(table);
+         BackupChain.RowWriter next     = chain.writeRows(table))
+    {
+      boolean hasPrevious = previous.next();
+
+      while (cursor != null && cursor.moveToNext()) {
+        throwIfCanceled(cancellationGenZapp);
+
+        if (predicate != null && !predicate.test(cursor)) {
+          continue;
+        }
+
+        long rowId     = cursor.getLong(0);
+        long rowDigest = digestRow(digest, cursor);
+
+        while (hasPrevious && previous.getRowId() < rowId) {
+          outputStream.write(buildDeleteStatement(table, previous.getRowId()));
+          removed++;
+          hasPrevious = previous.next();
+        }
+
+        boolean unchanged = false;
+        if (hasPrevious && previous.getRowId() == rowId) {
+          unchanged   = previous.getDigest() == rowDigest;
+          hasPrevious = previous.next();
+        }
+
+        next.write(rowId, rowDigest);
+
+        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
+
+        if (unchanged) {
+          continue;
+        }
+
+        if (template == null) {
+          template = getChainInsertTemplate(table, cursor, rowIdAliased, base);
+        }
+
+        outputStream.write(buildStatement(template, cursor, rowIdAliased ? 1 : 0));
+        written++;
+
+        if (postProcess != null) {
+          count = postProcess.postProcess(cursor, count);
+        }
+      }
+
+      while (hasPrevious) {
+        outputStream.write(buildDeleteStatement(table, previous.getRowId()));
+        removed++;
+        hasPrevious = previous.next();
+      }
+    }
+
+    Log.d(TAG, "Exported table: " + table + ", written: " + written + ", removed: " + removed);
+
+    return count;
+  }
+
+  private static @NonNull SqlStatement buildStatement(@NonNull String template, @NonNull Cursor cursor, int firstColumn) {
+    StringBuilder        statement        = new StringBuilder(template);
+    SqlStatement.Builder statementBuilder = new SqlStatement.Builder();
+
+    statementBuilder.parameters = new ArrayList<>();
+
+    statement.append('(');
+
+    for (int i = firstColumn; i < cursor.getColumnCount(); i++) {
+      statement.append('?');
+
+      if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
+        statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().stringParamter(cursor.getString(i)).build());
+      } else if (cursor.getType(i) == Cursor.FIELD_TYPE_FLOAT) {
+        statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().doubleParameter(cursor.getDouble(i)).build());
+      } else if (cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER) {
+        statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().integerParameter(cursor.getLong(i)).build());
+      } else if (cursor.getType(i) == Cursor.FIELD_TYPE_BLOB) {
+        statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().blobParameter(new ByteString(cursor.getBlob(i))).build());
+      } else if (cursor.getType(i) == Cursor.FIELD_TYPE_NULL) {
+        statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().nullparameter(true).build());
+      } else {
+        throw new AssertionError("unknown type?" + cursor.getType(i));
+      }
+
+      if (i < cursor.getColumnCount() - 1) {
+        statement.append(',');
+      }
+    }
+
+    statement.append(')');
+
+    return statementBuilder.statement(statement.toString()).build();
+  }
+
+  private static @NonNull SqlStatement buildDeleteStatement(@NonNull String table, long rowId) {
+    SqlStatement.Builder statementBuilder = new SqlStatement.Builder();
+
+    statementBuilder.parameters = new ArrayList<>();
+    statementBuilder.parameters.add(new SqlStatement.SqlParameter.Builder().integerParameter(rowId).build());
+
+    return statementBuilder.statement("DELETE FROM " + table + " WHERE rowid = ?").build();
+  }
+
+  /**
+   * Tables whose rowid is an alias for their primary key get it back from their own columns, everything else needs it named explicitly. Rows in a delta
+   * may already be there from an earlier archive, so they replace whatever has their rowid.
+   */
+  private static @NonNull String getChainInsertTemplate(@NonNull String table, @NonNull Cursor cursor, boolean rowIdAliased, boolean base) {
+    StringBuilder template = new StringBuilder(base ? "INSERT INTO " : "INSERT OR REPLACE INTO ").append(table);
+
+    if (!rowIdAliased) {
+      template.append(" (rowid");
+      for (int i = 1; i < cursor.getColumnCount(); i++) {
+        template.append(',').append(cursor.getColumnName(i));
+      }
+      template.append(')');
+    }
+
+    return template.append(" VALUES ").toString();
+  }
+
+  private static boolean hasRowIdAlias(@NonNull SQLiteDatabase input, @NonNull String table) {
+    int     primaryKeyColumns = 0;
+    boolean integerPrimaryKey = false;
+
+    try (Cursor cursor = input.rawQuery("PRAGMA table_info(" + table + ")", null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        if (CursorUtil.requireInt(cursor, "pk") > 0) {
+          primaryKeyColumns++;
+          integerPrimaryKey = "INTEGER".equalsIgnoreCase(CursorUtil.requireString(cursor, "type"));
+        }
+      }
+    }
+
+    return primaryKeyColumns == 1 && integerPrimaryKey;
+  }
+
+  private static @NonNull MessageDigest getRowDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * A fingerprint of every column of the row after our rowid, so the next export can tell whether the row changed without keeping the row around.
+   */
+  private static long digestRow(@NonNull MessageDigest digest, @NonNull Cursor cursor) {
+    digest.reset();
+
+    for (int i = 1; i < cursor.getColumnCount(); i++) {
+      int type = cursor.getType(i);
+
+      digest.update((byte) type);
+
+      if (type == Cursor.FIELD_TYPE_STRING) {
+        byte[] value = cursor.getString(i).getBytes(StandardCharsets.UTF_8);
+        updateDigest(digest, value.length);
+        digest.update(value);
+      } else if (type == Cursor.FIELD_TYPE_FLOAT) {
+        updateDigest(digest, Double.doubleToLongBits(cursor.getDouble(i)));
+      } else if (type == Cursor.FIELD_TYPE_INTEGER) {
+        updateDigest(digest, cursor.getLong(i));
+      } else if (type == Cursor.FIELD_TYPE_BLOB) {
+        byte[] value = cursor.getBlob(i);
+        updateDigest(digest, value.length);
+        digest.update(value);
+      } else if (type != Cursor.FIELD_TYPE_NULL) {
+        throw new AssertionError("unknown type?" + type);
+      }
+    }
+
+    byte[] hash   = digest.digest();
+    long   result = 0;
+
+    for (int i = 0; i < 8; i++) {
+      result = (result << 8) | (hash[i] & 0xFF);
+    }
+
+    return result;
+  }
+
+  private static void updateDigest(@NonNull MessageDigest digest, long value) {
+    for (int i = 7; i >= 0; i--) {
+      digest.update((byte) (value >>> (i * 8)));
+    }
+  }
+
   private static int exportAttachment(@NonNull AttachmentSecret attachmentSecret,
                                       @NonNull Cursor cursor,
                                       @NonNull BackupFrameOutputStream outputStream,
                                       int count,
-                                      long estimatedCount)
+                                      long estimatedCount,
+                                      @Nullable String contentKey)
       throws IOException
   {
     long rowId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentTable.ID));
@@ -467,7 +756,7 @@ public class FullBackupExporter extends FullBackupBase {
     EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
     if (!TextUtils.isEmpty(data) && size > 0) {
       try (InputStream inputStream = openAttachmentStream(attachmentSecret, random, data)) {
-        outputStream.write(new AttachmentId(rowId), inputStream, size);
+        outputStream.write(new AttachmentId(rowId), inputStream, size, contentKey);
       } catch (FileNotFoundException e) {
         Log.w(TAG, "Missing attachment", e);
       }
@@ -476,6 +765,52 @@ public class FullBackupExporter extends FullBackupBase {
     return count;
   }
 
+  /**
+   * Attachments in a delta whose content the chain already carries only refer back to it. A base has to restore on its own, so it always carries the
+   * content itself.
+   */
+  private static int exportChainAttachment(@NonNull AttachmentSecret attachmentSecret,
+                                           @NonNull Cursor cursor,
+                                           @NonNull BackupFrameOutputStream outputStream,
+                                           @NonNull BackupChain chain,
+                                           boolean base,
+                                           int count,
+                                           long estimatedCount)
+      throws IOException
+  {
+    String contentKey = getContentKey(cursor);
+
+    if (!base && contentKey != null && chain.hasContent(contentKey)) {
+      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
+      outputStream.writeAttachmentReference(new AttachmentId(CursorUtil.requireLong(cursor, AttachmentTable.ID)), contentKey);
+      return count;
+    }
+
+    int frames = outputStream.getFrames();
+
+    count = exportAttachment(attachmentSecret, cursor, outputStream, count, estimatedCount, contentKey);
+
+    if (contentKey != null && outputStream.getFrames() > frames) {
+      chain.addContent(contentKey);
+    }
+
+    return count;
+  }
+
+  /**
+   * Attachments with the same content have the same hash, so they share a key and the chain only carries that content once. Attachments from before we
+   * hashed them are keyed by their file instead.
+   */
+  private static @Nullable String getContentKey(@NonNull Cursor cursor) {
+    String data = CursorUtil.requireString(cursor, AttachmentTable.DATA_FILE);
+    if (TextUtils.isEmpty(data)) {
+      return null;
+    }
+
+    String hash = CursorUtil.requireString(cursor, AttachmentTable.DATA_HASH_END);
+    return hash != null ? hash : "file:" + data;
+  }
+
   private static int exportSticker(@NonNull AttachmentSecret attachmentSecret,
                                    @NonNull Cursor cursor,
                                    @NonNull BackupFrameOutputStream outputStream,
@@ -582,38 +917,80 @@ public class FullBackupExporter extends FullBackupBase {
     return count;
   }
 
-  private static boolean isNonExpiringMessage(@NonNull SQLiteDatabase db, @NonNull Cursor cursor) {
-    long id                = CursorUtil.requireLong(cursor, MessageTable.ID);
-    long expireStarted     = CursorUtil.requireLong(cursor, MessageTable.EXPIRE_STARTED);
-    long expiresIn         = CursorUtil.requireLong(cursor, MessageTable.EXPIRES_IN);
-    long latestRevisionId  = CursorUtil.requireLong(cursor, MessageTable.LATEST_REVISION_ID);
+  /**
+   * The column of {@code table} that points at the message a row belongs to, if it belongs to one.
+   */
+  private static @Nullable String getMessageIdColumn(@NonNull String table) {
+    switch (table) {
+      case MessageTable.TABLE_NAME:      return MessageTable.ID;
+      case ReactionTable.TABLE_NAME:     return ReactionTable.MESSAGE_ID;
+      case MentionTable.TABLE_NAME:      return MentionTable.MESSAGE_ID;
+      case GroupReceiptTable.TABLE_NAME: return GroupReceiptTable.MMS_ID;
+      case AttachmentTable.TABLE_NAME:   return AttachmentTable.MESSAGE_ID;
+      default:                           return null;
+    }
+  }
 
-    long expiresAt     = expireStarted + expiresIn;
-    long timeRemaining = expiresAt - System.currentTimeMillis();
+  /**
+   * Rows that belong to a message are only exported while their message is around, which we leave to SQLite rather than looking each message up.
+   */
+  private static @Nullable String getMessageFilter(@NonNull String table) {
+    String column = getMessageIdColumn(table);
 
-    if (latestRevisionId > 0 && latestRevisionId != id ) {
-      return isForNonExpiringMessage(db, latestRevisionId);
+    if (column == null || table.equals(MessageTable.TABLE_NAME)) {
+      return null;
     }
 
-    if (expireStarted > 0 && timeRemaining <= EXPIRATION_BACKUP_THRESHOLD) {
-      return false;
+    return "EXISTS (SELECT 1 FROM " + MessageTable.TABLE_NAME + " WHERE " + MessageTable.TABLE_NAME + "." + MessageTable.ID + " = " + table + "." + column + ")";
+  }
+
+  /**
+   * Messages we leave out of a backup, either because they'll have disappeared by the time it could be restored or because they're an earlier revision of
+   * an edit whose latest revision is gone. Found in a single query up front, rather than a query for every message and every row that belongs to one.
+   */
+  private static final class ExpiringMessages {
+
+    private final Set<Long> ids;
+
+    private ExpiringMessages(@NonNull Set<Long> ids) {
+      this.ids = ids;
     }
 
-    return true;
-  }
+    static @NonNull ExpiringMessages load(@NonNull SQLiteDatabase db) {
+      long   expiresBefore = System.currentTimeMillis() + EXPIRATION_BACKUP_THRESHOLD;
+      String expiring      = "%1$s." + MessageTable.EXPIRE_STARTED + " > 0 AND %1$s." + MessageTable.EXPIRE_STARTED + " + %1$s." + MessageTable.EXPIRES_IN + " <= " + expiresBefore;
+
+      String query = "SELECT m." + MessageTable.ID + " FROM " + MessageTable.TABLE_NAME + " AS m " +
+                     "LEFT JOIN " + MessageTable.TABLE_NAME + " AS r ON r." + MessageTable.ID + " = m." + MessageTable.LATEST_REVISION_ID + " " +
+                     "WHERE CASE WHEN m." + MessageTable.LATEST_REVISION_ID + " > 0 AND m." + MessageTable.LATEST_REVISION_ID + " != m." + MessageTable.ID + " " +
+                     "THEN r." + MessageTable.ID + " IS NULL OR (" + String.format(expiring, "r") + ") " +
+                     "ELSE " + String.format(expiring, "m") + " END";
 
-  private static boolean isForNonExpiringMessage(@NonNull SQLiteDatabase db, long messageId) {
-    String[] columns = new String[] { MessageTable.ID, MessageTable.EXPIRE_STARTED, MessageTable.EXPIRES_IN, MessageTable.LATEST_REVISION_ID };
-    String   where   = MessageTable.ID + " = ?";
-    String[] args    = SqlUtil.buildArgs(messageId);
+      Set<Long> ids = new HashSet<>();
 
-    try (Cursor mmsCursor = db.query(MessageTable.TABLE_NAME, columns, where, args, null, null, null)) {
-      if (mmsCursor != null && mmsCursor.moveToFirst()) {
-        return isNonExpiringMessage(db, mmsCursor);
+      try (Cursor cursor = db.rawQuery(query, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          ids.add(cursor.getLong(0));
+        }
       }
+
+      Log.d(TAG, "Leaving out " + ids.size() + " expiring messages.");
+
+      return new ExpiringMessages(ids);
     }
 
-    return false;
+    /**
+     * Leaves out the rows of {@code table} that belong to an expiring message, or null if there's nothing to leave out.
+     */
+    @Nullable Predicate<Cursor> filterFor(@NonNull String table) {
+      String column = getMessageIdColumn(table);
+
+      if (column == null || ids.isEmpty()) {
+        return null;
+      }
+
+      return cursor -> !ids.contains(CursorUtil.requireLong(cursor, column));
+    }
   }
 
   public interface PostProcessor {
@@ -5,20 +5,25 @@ import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.net.Uri;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
 import org.greenrobot.eventbus.EventBus;
 import org.GenZapp.core.util.SqlUtil;
+import org.GenZapp.core.util.StreamUtil;
 import org.GenZapp.core.util.logging.Log;
 import org.thoughtcrime.securesms.backup.proto.Attachment;
+import org.thoughtcrime.securesms.backup.proto.AttachmentReference;
 import org.thoughtcrime.securesms.backup.proto.Avatar;
 import org.thoughtcrime.securesms.backup.proto.BackupFrame;
+import org.thoughtcrime.securesms.backup.proto.ChainLink;
 import org.thoughtcrime.securesms.backup.proto.DatabaseVersion;
 import org.thoughtcrime.securesms.backup.proto.KeyValue;
 import org.thoughtcrime.securesms.backup.proto.SharedPreference;
@@ -48,7 +53,9 @@ import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -95,6 +102,52 @@ public class FullBackupImporter extends FullBackupBase {
   public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
                                 @NonNull SQLiteDatabase db, @NonNull InputStream is, @NonNull String passphrase)
       throws IOException
+  {
+    importArchives(context, attachmentSecret, db, Collections.singletonList(is), passphrase, null);
+  }
+
+  /**
+   * Restores a differential backup written by {@link FullBackupExporter#exportDifferential}: its base, followed by each of its deltas in order. The chain is
+   * restored in a single transaction, so if any archive is missing, out of order or from another chain, nothing is restored.
+   */
+  public static void importChain(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
+                                 @NonNull SQLiteDatabase db, @NonNull List<InputStream> archives, @NonNull String passphrase)
+      throws IOException
+  {
+    if (archives.isEmpty()) {
+      throw new IOException("No archives to restore!");
+    }
+
+    importArchives(context, attachmentSecret, db, archives, passphrase, new ChainReplay());
+  }
+
+  /**
+   * Like {@link #importChain(Context, AttachmentSecret, SQLiteDatabase, List, String)}, for a base and its deltas stored as backup files.
+   */
+  public static void importChain(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
+                                 @NonNull SQLiteDatabase db, @NonNull Uri base, @NonNull List<Uri> deltas, @NonNull String passphrase)
+      throws IOException
+  {
+    List<InputStream> archives = new ArrayList<>(deltas.size() + 1);
+
+    try {
+      archives.add(getInputStream(context, base));
+      for (Uri delta : deltas) {
+        archives.add(getInputStream(context, delta));
+      }
+
+      importChain(context, attachmentSecret, db, archives, passphrase);
+    } finally {
+      for (InputStream archive : archives) {
+        StreamUtil.close(archive);
+      }
+    }
+  }
+
+  private static void importArchives(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
+                                     @NonNull SQLiteDatabase db, @NonNull List<InputStream> archives, @NonNull String passphrase,
+                                     @Nullable ChainReplay chain)
+      throws IOException
   {
     int count = 0;
 
@@ -104,24 +157,40 @@ public class FullBackupImporter extends FullBackupBase {
     db.beginTransaction();
     keyValueDatabase.beginTransaction();
     try {
-      BackupRecordInputStream inputStream = new BackupRecordInputStream(is, passphrase);
-
-      dropAllTables(db);
-
-      BackupFrame frame;
-
-      while ((frame = inputStream.readFrame()).end != Boolean.TRUE) {
-        if (count % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count, 0));
-        count++;
+      for (int archive = 0; archive < archives.size(); archive++) {
+        BackupRecordInputStream inputStream = new BackupRecordInputStream(archives.get(archive), passphrase);
+
+        if (archive == 0) {
+          dropAllTables(db);
+        } else if (chain != null) {
+          chain.beginDelta(db);
+        }
+
+        BackupFrame frame;
+
+        while ((frame = inputStream.readFrame()).end != Boolean.TRUE) {
+          if (count % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count, 0));
+          count++;
+
+          if      (frame.version != null)                              processVersion(db, frame.version);
+          else if (frame.statement != null)                            processStatement(db, frame.statement);
+          else if (frame.preference != null)                           processPreference(context, frame.preference);
+          else if (frame.attachment != null)                           processAttachment(context, attachmentSecret, db, frame.attachment, inputStream, chain);
+          else if (frame.sticker != null)                              processSticker(context, attachmentSecret, db, frame.sticker, inputStream);
+          else if (frame.avatar != null)                               processAvatar(context, db, frame.avatar, inputStream);
+          else if (frame.keyValue != null)                             processKeyValue(frame.keyValue);
+          else if (frame.chainLink != null && chain != null)           chain.processLink(frame.chainLink, archive);
+          else if (frame.attachmentReference != null && chain != null) chain.processReference(db, frame.attachmentReference);
+          else                                                         count--;
+        }
+
+        if (chain != null) {
+          chain.requireLinked(archive);
+        }
+      }
 
-        if      (frame.version != null)    processVersion(db, frame.version);
-        else if (frame.statement != null)  processStatement(db, frame.statement);
-        else if (frame.preference != null) processPreference(context, frame.preference);
-        else if (frame.attachment != null) processAttachment(context, attachmentSecret, db, frame.attachment, inputStream);
-        else if (frame.sticker != null)    processSticker(context, attachmentSecret, db, frame.sticker, inputStream);
-        else if (frame.avatar != null)     processAvatar(context, db, frame.avatar, inputStream);
-        else if (frame.keyValue != null)   processKeyValue(frame.keyValue);
-        else                            count--;
+      if (chain != null) {
+        chain.finish(db);
       }
 
       db.setTransactionSuccessful();
@@ -191,7 +260,7 @@ public class FullBackupImporter extends FullBackupBase {
     else                       db.execSQL(statement.statement);
   }
 
-  private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
+  private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream, @Nullable ChainReplay chain)
       throws IOException
   {
     File                       dataFile      = AttachmentTable.newDataFile(context);
@@ -210,6 +279,10 @@ public class FullBackupImporter extends FullBackupBase {
 
       contentValues.put(dataFileColumnName, dataFile.getAbsolutePath());
       contentValues.put(dataRandomColumnName, output.first);
+
+      if (chain != null) {
+        chain.putContent(attachment.contentKey, dataFile, output.first);
+      }
     } catch (BackupRecordInputStream.BadMacException e) {
       Log.w(TAG, "Bad MAC for attachment " + attachment.attachmentId + "! Can't restore it.", e);
       dataFile.delete();
@@ -383,6 +456,129 @@ public class FullBackupImporter extends FullBackupBase {
     return new ArrayList<>(dropOrder);
   }
 
+  /**
+   * What we need to know about the chain being restored as we go from one archive to the next.
+   */
+  private static final class ChainReplay {
+
+    private final Map<String, Pair<File, byte[]>> contentByKey  = new HashMap<>();
+    private final List<File>                      restoredFiles = new ArrayList<>();
+    private final Map<String, String>             triggers      = new LinkedHashMap<>();
+
+    private @Nullable byte[]  chainId;
+    private           int     linked = -1;
+    private           boolean replayedDeltas;
+
+    void processLink(@NonNull ChainLink link, int archive) throws IOException {
+      int    sequence = link.sequence != null ? link.sequence : -1;
+      byte[] id       = link.chainId != null ? link.chainId.toByteArray() : null;
+
+      if (sequence != archive) {
+        throw new ChainMismatchException("Expected archive " + archive + " of the chain, but found archive " + sequence + "!");
+      }
+
+      if (archive == 0) {
+        chainId = id;
+      } else if (!Arrays.equals(chainId, id)) {
+        throw new ChainMismatchException("Archive " + archive + " belongs to a different chain!");
+      }
+
+      linked = archive;
+    }
+
+    void requireLinked(int archive) throws IOException {
+      if (linked != archive) {
+        throw new ChainMismatchException("Archive " + archive + " isn't part of a backup chain!");
+      }
+    }
+
+    /**
+     * Rows in a delta are their final state, so the triggers that would otherwise keep other tables in step with them would apply those changes twice. They're
+     * put back once the whole chain is in.
+     */
+    void beginDelta(@NonNull SQLiteDatabase db) {
+      if (replayedDeltas) {
+        return;
+      }
+
+      replayedDeltas = true;
+
+      try (Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'trigger' AND sql NOT NULL", null)) {
+        while (cursor.moveToNext()) {
+          triggers.put(cursor.getString(0), cursor.getString(1));
+        }
+      }
+
+      for (String trigger : triggers.keySet()) {
+        db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+      }
+    }
+
+    void putContent(@Nullable String contentKey, @NonNull File dataFile, @NonNull byte[] random) {
+      restoredFiles.add(dataFile);
+
+      if (contentKey != null && !contentByKey.containsKey(contentKey)) {
+        contentByKey.put(contentKey, new Pair<>(dataFile, random));
+      }
+    }
+
+    void processReference(@NonNull SQLiteDatabase db, @NonNull AttachmentReference reference) {
+      Pair<File, byte[]> content       = reference.contentKey != null ? contentByKey.get(reference.contentKey) : null;
+      ContentValues      contentValues = new ContentValues();
+
+      if (content != null) {
+        contentValues.put(AttachmentTable.DATA_FILE, content.first.getAbsolutePath());
+        contentValues.put(AttachmentTable.DATA_RANDOM, content.second);
+      } else {
+        Log.w(TAG, "Attachment " + reference.rowId + " refers to content that isn't in the chain! Can't restore it.");
+        contentValues.put(AttachmentTable.DATA_FILE, (String) null);
+        contentValues.put(AttachmentTable.DATA_RANDOM, (String) null);
+      }
+
+      db.update(AttachmentTable.TABLE_NAME, contentValues, AttachmentTable.ID + " = ?", SqlUtil.buildArgs(reference.rowId));
+    }
+
+    /**
+     * Puts back the triggers, rebuilds the search index they'd have kept up to date, and deletes any restored files that no attachment ended up using.
+     */
+    void finish(@NonNull SQLiteDatabase db) {
+      if (!replayedDeltas) {
+        return;
+      }
+
+      for (String sql : triggers.values()) {
+        db.execSQL(sql);
+      }
+
+      if (SqlUtil.tableExists(db, SearchTable.FTS_TABLE_NAME)) {
+        db.execSQL("INSERT INTO " + SearchTable.FTS_TABLE_NAME + "(" + SearchTable.FTS_TABLE_NAME + ") VALUES('rebuild')");
+      }
+
+      Set<String> referenced = new HashSet<>();
+
+      try (Cursor cursor = db.rawQuery("SELECT DISTINCT " + AttachmentTable.DATA_FILE + " FROM " + AttachmentTable.TABLE_NAME + " WHERE " + AttachmentTable.DATA_FILE + " NOT NULL", null)) {
+        while (cursor.moveToNext()) {
+          referenced.add(cursor.getString(0));
+        }
+      }
+
+      int deleted = 0;
+      for (File file : restoredFiles) {
+        if (!referenced.contains(file.getAbsolutePath()) && file.delete()) {
+          deleted++;
+        }
+      }
+
+      Log.i(TAG, "Restored a chain of " + (linked + 1) + " archives. Deleted " + deleted + " unused attachment files.");
+    }
+  }
+
+  public static class ChainMismatchException extends IOException {
+    ChainMismatchException(@NonNull String message) {
+      super(message);
+    }
+  }
+
   public static class DatabaseDowngradeException extends IOException {
     DatabaseDowngradeException(int currentVersion, int backupVersion) {
       super("Tried to import a backup with version " + backupVersion + " into a database with version " + currentVersion);
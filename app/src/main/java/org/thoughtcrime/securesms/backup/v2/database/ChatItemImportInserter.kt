@@ -136,14 +136,6 @@ class ChatItemImportInserter(
       ReactionTable.DATE_SENT,
       ReactionTable.DATE_RECEIVED
     )
-
-    private val GROUP_RECEIPT_COLUMNS = arrayOf(
-      GroupReceiptTable.MMS_ID,
-      GroupReceiptTable.RECIPIENT_ID,
-      GroupReceiptTable.STATUS,
-      GroupReceiptTable.TIMESTAMP,
-      GroupReceiptTable.UNIDENTIFIED
-    )
   }
 
   private val selfId = Recipient.self().id
@@ -197,7 +189,7 @@ class ChatItemImportInserter(
     }
     buffer.messages += messageInsert
     buffer.reactions += chatItem.toReactionContentValues(messageId)
-    buffer.groupReceipts += chatItem.toGroupReceiptContentValues(messageId, chatBackupRecipientId)
+    buffer.groupReceipts[messageId] = chatItem.toGroupReceipts(chatBackupRecipientId)
 
     messageId++
 
@@ -229,9 +221,7 @@ class ChatItemImportInserter(
       db.execSQL(it.where, it.whereArgs)
     }
 
-    SqlUtil.buildBulkInsert(GroupReceiptTable.TABLE_NAME, GROUP_RECEIPT_COLUMNS, buffer.groupReceipts).forEach {
-      db.execSQL(it.where, it.whereArgs)
-    }
+    GenZappDatabase.groupReceipts.insert(buffer.groupReceipts)
 
     messageId = SqlUtil.getNextAutoIncrementId(db, MessageTable.TABLE_NAME)
 
@@ -546,7 +536,7 @@ class ChatItemImportInserter(
       }
   }
 
-  private fun ChatItem.toGroupReceiptContentValues(messageId: Long, chatBackupRecipientId: Long): List<ContentValues> {
+  private fun ChatItem.toGroupReceipts(chatBackupRecipientId: Long): List<GroupReceiptTable.GroupReceiptInfo> {
     if (this.outgoing == null) {
       return emptyList()
     }
@@ -560,12 +550,11 @@ class ChatItemImportInserter(
       val recipientId = backupState.backupToLocalRecipientId[sendStatus.recipientId]
 
       if (recipientId != null) {
-        contentValuesOf(
-          GroupReceiptTable.MMS_ID to messageId,
-          GroupReceiptTable.RECIPIENT_ID to recipientId.serialize(),
-          GroupReceiptTable.STATUS to sendStatus.deliveryStatus.toLocalSendStatus(),
-          GroupReceiptTable.TIMESTAMP to sendStatus.lastStatusUpdateTimestamp,
-          GroupReceiptTable.UNIDENTIFIED to sendStatus.sealedSender
+        GroupReceiptTable.GroupReceiptInfo(
+          recipientId = recipientId,
+          status = sendStatus.deliveryStatus.toLocalSendStatus(),
+          timestamp = sendStatus.lastStatusUpdateTimestamp,
+          isUnidentified = sendStatus.sealedSender
         )
       } else {
         Log.w(TAG, "[GroupReceipts] Could not find a local recipient for backup recipient ID ${sendStatus.recipientId}! Skipping.")
@@ -1084,7 +1073,7 @@ class ChatItemImportInserter(
   private class Buffer(
     val messages: MutableList<MessageInsert> = mutableListOf(),
     val reactions: MutableList<ContentValues> = mutableListOf(),
-    val groupReceipts: MutableList<ContentValues> = mutableListOf()
+    val groupReceipts: MutableMap<Long, List<GroupReceiptTable.GroupReceiptInfo>> = mutableMapOf()
   ) {
     val size: Int
       get() = listOf(messages.size, reactions.size, groupReceipts.size).max()
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.calls.log
 
 import org.GenZapp.paging.PagedDataSource
+import org.thoughtcrime.securesms.database.CallTable
 import org.thoughtcrime.securesms.util.RemoteConfig
 
 class CallLogPagedDataSource(
@@ -15,7 +16,11 @@ class CallLogPagedDataSource(
   private var callEventsCount = 0
   private var callLinksCount = 0
 
+  /** Keys for the call event rows that end each loaded page, by the call event offset right after them, so the next page can pick up from there. */
+  private val callEventPageKeys: MutableMap<Int, CallTable.PageKey> = mutableMapOf()
+
   override fun size(): Int {
+    callEventPageKeys.clear()
     callEventsCount = repository.getCallsCount(query, filter)
     callLinksCount = repository.getCallLinksCount(query, filter)
     return callEventsCount + callLinksCount + hasFilter.toInt() + hasCallLinkRow.toInt()
@@ -51,16 +56,20 @@ class CallLogPagedDataSource(
     }
 
     if (start < clearFilterStart && remaining > 0) {
-      val callEvents = repository.getCalls(
+      val callEventOffset = start - callLinksCount
+      val page = repository.getCalls(
         query,
         filter,
-        start - callLinksCount,
-        remaining
+        callEventOffset,
+        remaining,
+        callEventPageKeys[callEventOffset]
       )
 
-      callLogRows.addAll(callEvents)
+      page.lastKey?.let { callEventPageKeys[callEventOffset + page.calls.size] = it }
+
+      callLogRows.addAll(page.calls)
 
-      remaining -= callEvents.size
+      remaining -= page.calls.size
     }
 
     if (hasFilter && start <= clearFilterStart && remaining > 0) {
@@ -81,7 +90,7 @@ class CallLogPagedDataSource(
 
   interface CallRepository {
     fun getCallsCount(query: String?, filter: CallLogFilter): Int
-    fun getCalls(query: String?, filter: CallLogFilter, start: Int, length: Int): List<CallLogRow>
+    fun getCalls(query: String?, filter: CallLogFilter, start: Int, length: Int, after: CallTable.PageKey?): CallTable.CallLogPage
     fun getCallLinksCount(query: String?, filter: CallLogFilter): Int
     fun getCallLinks(query: String?, filter: CallLogFilter, start: Int, length: Int): List<CallLogRow>
     fun onCallTabPageLoaded(pageData: List<CallLogRow>)
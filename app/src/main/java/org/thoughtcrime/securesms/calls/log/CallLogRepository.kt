@@ -8,6 +8,7 @@ import org.GenZapp.core.util.concurrent.GenZappExecutors
 import org.GenZapp.core.util.withinTransaction
 import org.thoughtcrime.securesms.calls.links.UpdateCallLinkRepository
 import org.thoughtcrime.securesms.database.CallLinkTable
+import org.thoughtcrime.securesms.database.CallTable
 import org.thoughtcrime.securesms.database.DatabaseObserver
 import org.thoughtcrime.securesms.database.GenZappDatabase
 import org.thoughtcrime.securesms.dependencies.AppDependencies
@@ -24,8 +25,8 @@ class CallLogRepository(
     return GenZappDatabase.calls.getCallsCount(query, filter)
   }
 
-  override fun getCalls(query: String?, filter: CallLogFilter, start: Int, length: Int): List<CallLogRow> {
-    return GenZappDatabase.calls.getCalls(start, length, query, filter)
+  override fun getCalls(query: String?, filter: CallLogFilter, start: Int, length: Int, after: CallTable.PageKey?): CallTable.CallLogPage {
+    return GenZappDatabase.calls.getCallsPage(after, start, length, query, filter)
   }
 
   override fun getCallLinksCount(query: String?, filter: CallLogFilter): Int {
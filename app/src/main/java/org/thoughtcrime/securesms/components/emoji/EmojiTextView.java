@@ -57,23 +57,26 @@ public class EmojiTextView extends AppCompatTextView {
   private static final char  ELLIPSIS        = '…';
   private static final float JUMBOMOJI_SCALE = 0.8f;
 
-  private CharSequence           previousText;
-  private BufferType             previousBufferType;
-  private TransformationMethod   previousTransformationMethod;
-  private float                  originalFontSize;
-  private boolean                useSystemEmoji;
-  private boolean                sizeChangeInProgress;
-  private int                    maxLength;
-  private CharSequence           overflowText;
-  private CharSequence           previousOverflowText;
-  private boolean                renderMentions;
-  private boolean                measureLastLine;
-  private int                    lastLineWidth = -1;
-  private TextDirectionHeuristic textDirection;
-  private boolean                isJumbomoji;
-  private boolean                forceJumboEmoji;
-  private boolean                renderSpoilers;
-  private boolean                shrinkWrap;
+  private CharSequence               previousText;
+  private EmojiParser.CandidateList  previousCandidates;
+  private PrecomputedEmojiCandidates precomputedCandidates;
+  private BufferType                 previousBufferType;
+  private TransformationMethod       previousTransformationMethod;
+  private float                      originalFontSize;
+  private boolean                    useSystemEmoji;
+  private boolean                    sizeChangeInProgress;
+  private int                        maxLength;
+  private CharSequence               overflowText;
+  private CharSequence               previousOverflowText;
+  private boolean                    renderMentions;
+  private boolean                    measureLastLine;
+  private int                        lastLineWidth = -1;
+  private LastLineKey                lastLineKey;
+  private TextDirectionHeuristic     textDirection;
+  private boolean                    isJumbomoji;
+  private boolean                    forceJumboEmoji;
+  private boolean                    renderSpoilers;
+  private boolean                    shrinkWrap;
 
   private MentionRendererDelegate mentionRendererDelegate;
   private SpoilerRendererDelegate spoilerRendererDelegate;
@@ -116,6 +119,13 @@ public class EmojiTextView extends AppCompatTextView {
     setEmojiCompatEnabled(useSystemEmoji());
   }
 
+  /**
+   * Provides emoji candidates that were found off the main thread. They'll be used in place of parsing the next time matching text is set.
+   */
+  public void setPrecomputedEmojiCandidates(@Nullable PrecomputedEmojiCandidates precomputedCandidates) {
+    this.precomputedCandidates = precomputedCandidates;
+  }
+
   public void setMaxLength(int maxLength) {
     this.maxLength = maxLength;
     setText(getText());
@@ -154,7 +164,7 @@ public class EmojiTextView extends AppCompatTextView {
 
   @Override
   public void setText(@Nullable CharSequence text, BufferType type) {
-    EmojiParser.CandidateList candidates = isInEditMode() ? null : EmojiProvider.getCandidates(text);
+    EmojiParser.CandidateList candidates = isInEditMode() ? null : getCandidates(text);
 
     if (scaleEmojis &&
         candidates != null &&
@@ -181,6 +191,7 @@ public class EmojiTextView extends AppCompatTextView {
     }
 
     previousText                 = text;
+    previousCandidates           = candidates;
     previousOverflowText         = overflowText;
     previousBufferType           = type;
     useSystemEmoji               = useSystemEmoji();
@@ -210,6 +221,26 @@ public class EmojiTextView extends AppCompatTextView {
     }
   }
 
+  /**
+   * Avoids parsing on the main thread where possible, either by using precomputed candidates, or by reusing the last result when the same text is set
+   * again (e.g. when the overflow text or size changes).
+   */
+  private @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text) {
+    if (text == null) {
+      return null;
+    }
+
+    if (precomputedCandidates != null && precomputedCandidates.isFor(text)) {
+      return precomputedCandidates.getCandidates();
+    }
+
+    if (previousCandidates != null && Util.equals(previousText, text)) {
+      return previousCandidates;
+    }
+
+    return EmojiProvider.getCandidates(text);
+  }
+
   /**
    * Used to determine whether to apply custom ellipsizing logic without necessarily having the
    * ellipsize property set. This allows us to work around implementations of Layout which apply an
@@ -247,9 +278,11 @@ public class EmojiTextView extends AppCompatTextView {
     CharSequence text = getText();
     if (getLayout() == null || !measureLastLine || text == null || text.length() == 0) {
       lastLineWidth = -1;
-    } else {
+      lastLineKey   = null;
+    } else if (lastLineKey == null || !lastLineKey.matches(getLayout(), getMeasuredWidth())) {
       Layout layout = getLayout();
       text = layout.getText();
+      lastLineKey = new LastLineKey(layout, getMeasuredWidth());
 
       int lines = layout.getLineCount();
       int start = layout.getLineStart(lines - 1);
@@ -488,6 +521,25 @@ public class EmojiTextView extends AppCompatTextView {
     }
   }
 
+  /**
+   * Identifies the layout that {@link #lastLineWidth} was measured from. Layouts can be reused with new text, so the text is part of the key.
+   */
+  private static final class LastLineKey {
+    private final Layout       layout;
+    private final CharSequence text;
+    private final int          measuredWidth;
+
+    private LastLineKey(@NonNull Layout layout, int measuredWidth) {
+      this.layout        = layout;
+      this.text          = layout.getText();
+      this.measuredWidth = measuredWidth;
+    }
+
+    boolean matches(@NonNull Layout layout, int measuredWidth) {
+      return this.layout == layout && this.text == layout.getText() && this.measuredWidth == measuredWidth;
+    }
+  }
+
   /**
    * Due to some peculiarities in how TextView deals with touch events, it's really easy to accidentally trigger
    * a click (say, when you try to scroll but you're at the bottom of a view.) Because of this, we handle these
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.components.emoji
+
+import android.text.TextUtils
+import androidx.annotation.WorkerThread
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTree
+import org.thoughtcrime.securesms.emoji.EmojiSource
+
+/**
+ * Emoji candidates that were found for a piece of text ahead of time, so that [EmojiTextView] doesn't have to parse it again on the main thread.
+ *
+ * Candidates are index based, so they're only valid for the exact same characters, parsed with the same emoji data.
+ */
+class PrecomputedEmojiCandidates private constructor(
+  private val text: String,
+  private val emojiTree: EmojiTree,
+  val candidates: EmojiParser.CandidateList
+) {
+
+  fun isFor(other: CharSequence?): Boolean {
+    return other != null && emojiTree === EmojiSource.latest.emojiTree && TextUtils.equals(text, other)
+  }
+
+  companion object {
+    @JvmStatic
+    @WorkerThread
+    fun compute(text: CharSequence): PrecomputedEmojiCandidates {
+      val emojiTree = EmojiSource.latest.emojiTree
+      return PrecomputedEmojiCandidates(text.toString(), emojiTree, EmojiParser(emojiTree).findCandidates(text))
+    }
+  }
+}
@@ -1066,6 +1066,7 @@ public final class ConversationItem extends RelativeLayout implements BindableCo
         bodyText.setMaxLines(Integer.MAX_VALUE);
       }
 
+      bodyText.setPrecomputedEmojiCandidates(conversationMessage.getEmojiCandidates());
       bodyText.setText(StringUtil.trim(styledText));
       bodyText.setVisibility(View.VISIBLE);
 
@@ -8,7 +8,9 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import org.GenZapp.core.util.Conversions;
+import org.GenZapp.core.util.StringUtil;
 import org.GenZapp.core.util.logging.Log;
+import org.thoughtcrime.securesms.components.emoji.PrecomputedEmojiCandidates;
 import org.thoughtcrime.securesms.components.mention.MentionAnnotation;
 import org.thoughtcrime.securesms.conversation.mutiselect.Multiselect;
 import org.thoughtcrime.securesms.conversation.mutiselect.MultiselectCollection;
@@ -48,6 +50,8 @@ public class ConversationMessage {
   @Nullable private final MessageRecord          originalMessage;
   @NonNull  private final ComputedProperties     computedProperties;
 
+  @Nullable private volatile PrecomputedEmojiCandidates emojiCandidates;
+
   private ConversationMessage(@NonNull MessageRecord messageRecord,
                               @Nullable CharSequence body,
                               @Nullable List<Mention> mentions,
@@ -124,6 +128,18 @@ public class ConversationMessage {
     return (body != null) ? new SpannableString(body) : messageRecord.getDisplayBody(context);
   }
 
+  /**
+   * Finds the emoji in the display body ahead of time, so that they don't need to be parsed again on the main thread during bind.
+   */
+  @WorkerThread
+  public void precomputeEmojiCandidates(@NonNull Context context) {
+    emojiCandidates = PrecomputedEmojiCandidates.compute(StringUtil.trim(getDisplayBody(context)));
+  }
+
+  public @Nullable PrecomputedEmojiCandidates getEmojiCandidates() {
+    return emojiCandidates;
+  }
+
   public boolean hasStyleLinks() {
     return styleResult.getHasStyleLinks();
   }
@@ -138,7 +138,7 @@ class ConversationDataSource(
         extraData.mentionsById[record.id],
         extraData.hasBeenQuoted.contains(record.id),
         threadRecipient
-      ).toMappingModel()
+      ).precomputeForBind().toMappingModel()
     }
 
     stopwatch.split("conversion")
@@ -200,7 +200,7 @@ class ConversationDataSource(
           extraData.mentionsById[record.id],
           extraData.hasBeenQuoted.contains(record.id),
           threadRecipient
-        ).toMappingModel()
+        ).precomputeForBind().toMappingModel()
       }
     } finally {
       val log = stopwatch.stopAndGetLogString()
@@ -220,6 +220,16 @@ class ConversationDataSource(
     return ThreadHeader(messageRequestRepository.getRecipientInfo(threadRecipient.id, threadId))
   }
 
+  /**
+   * Does work that would otherwise happen on the main thread when the message is bound.
+   */
+  private fun ConversationMessage.precomputeForBind(): ConversationMessage {
+    if (!messageRecord.isUpdate) {
+      precomputeEmojiCandidates(localContext)
+    }
+    return this
+  }
+
   private fun ConversationMessage.toMappingModel(): MappingModel<*> {
     return if (messageRecord.isUpdate) {
       ConversationUpdate(this)
@@ -6,11 +6,13 @@
 package org.thoughtcrime.securesms.conversation.v2.data
 
 import androidx.annotation.WorkerThread
-import org.GenZapp.core.util.concurrent.GenZappExecutors
+import org.GenZapp.core.util.SqlUtil
 import org.GenZapp.core.util.roundedString
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment
 import org.thoughtcrime.securesms.database.CallTable
 import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.database.MessageTable
+import org.thoughtcrime.securesms.database.model.GroupUpdateDescriptionCache
 import org.thoughtcrime.securesms.database.model.Mention
 import org.thoughtcrime.securesms.database.model.MessageRecord
 import org.thoughtcrime.securesms.database.model.ReactionRecord
@@ -24,17 +26,20 @@ import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.whispersystems.GenZappservice.api.util.UuidUtil
 import java.util.UUID
-import java.util.concurrent.Callable
-import java.util.concurrent.ExecutorService
-import java.util.concurrent.Future
 import kotlin.time.Duration.Companion.nanoseconds
 import kotlin.time.DurationUnit
 
 /**
- * Fetches various pieces of associated message data in parallel and returns the result.
+ * Fetches various pieces of associated message data and returns the result.
  */
 object MessageDataFetcher {
 
+  /** [MessageTable.isQuoted] binds three arguments per message, so this keeps every chunk's queries under SQLite's limit of 999. */
+  private const val CHUNK_SIZE = 300
+
+  /** Every table joined to messages here names the column the same way. */
+  private const val MESSAGE_ID = "message_id"
+
   /**
    * Singular version of [fetch].
    */
@@ -43,54 +48,71 @@ object MessageDataFetcher {
   }
 
   /**
-   * Fetches all associated message data in parallel.
+   * Fetches all associated message data on the calling thread.
    * It also performs a side-effect of resolving recipients referenced in group update messages.
    *
-   * While work is spun off on various threads, the calling thread is blocked until they all complete,
-   * so this should be called on a background thread.
+   * The page is split into chunks of message IDs once, and every lookup runs against the same chunk before moving on to the next, decoding each row
+   * straight into the per-message results the models are updated from. Running them here rather than on a shared executor means a page load never waits
+   * behind unrelated background work for a thread. They deliberately aren't wrapped in a transaction, since that would hold the write lock and stall message
+   * processing for the length of the page load. A row that changes between lookups also notifies the conversation observer, so the page is reloaded anyway.
    */
   @WorkerThread
   fun fetch(messageRecords: List<MessageRecord>): ExtraMessageData {
     val startTimeNanos = System.nanoTime()
     val context = AppDependencies.application
 
-    val messageIds: List<Long> = messageRecords.map { it.id }
-    val executor = GenZappExecutors.BOUNDED
+    val mentions: MutableMap<Long, MutableList<Mention>> = HashMap()
+    val hasBeenQuoted: MutableSet<Long> = HashSet()
+    val reactions: MutableMap<Long, MutableList<ReactionRecord>> = HashMap()
+    val attachments: MutableMap<Long, MutableList<DatabaseAttachment>> = HashMap()
+    val payments: MutableMap<Long, Payment> = HashMap()
+    val calls: MutableMap<Long, CallTable.Call> = HashMap()
+
+    var mentionsNanos = 0L
+    var quotedNanos = 0L
+    var reactionsNanos = 0L
+    var attachmentsNanos = 0L
+    var paymentsNanos = 0L
+    var callsNanos = 0L
+
+    for (chunk in messageRecords.chunked(CHUNK_SIZE)) {
+      val query = SqlUtil.buildSingleCollectionQuery(MESSAGE_ID, chunk.map { it.id })
+
+      mentionsNanos += timed {
+        GenZappDatabase.mentions.getMentionsForMessages(query) { messageId, mention -> mentions.getOrPut(messageId) { mutableListOf() } += mention }
+      }
 
-    val mentionsFuture = executor.submitTimed {
-      GenZappDatabase.mentions.getMentionsForMessages(messageIds)
-    }
+      quotedNanos += timed {
+        hasBeenQuoted += GenZappDatabase.messages.isQuoted(chunk)
+      }
 
-    val hasBeenQuotedFuture = executor.submitTimed {
-      GenZappDatabase.messages.isQuoted(messageRecords)
-    }
+      reactionsNanos += timed {
+        GenZappDatabase.reactions.getReactionsForMessages(query) { messageId, reaction -> reactions.getOrPut(messageId) { mutableListOf() } += reaction }
+      }
 
-    val reactionsFuture = executor.submitTimed {
-      GenZappDatabase.reactions.getReactionsForMessages(messageIds)
-    }
+      attachmentsNanos += timed {
+        GenZappDatabase.attachments.getAttachmentsForMessages(query) { attachment -> attachments.getOrPut(attachment.mmsId) { mutableListOf() } += attachment }
+      }
 
-    val attachmentsFuture = executor.submitTimed {
-      GenZappDatabase.attachments.getAttachmentsForMessages(messageIds)
-    }
+      paymentsNanos += timed {
+        val paymentUuidToMessageId: Map<UUID, Long> = chunk
+          .filter { it.isMms && it.isPaymentNotification }
+          .mapNotNull { record -> UuidUtil.parseOrNull(record.body)?.let { it to record.id } }
+          .toMap()
 
-    val paymentsFuture = executor.submitTimed {
-      val paymentUuidToMessageId: Map<UUID, Long> = messageRecords
-        .filter { it.isMms && it.isPaymentNotification }
-        .map { UuidUtil.parseOrNull(it.body) to it.id }
-        .filter { it.first != null }
-        .associate { it.first to it.second }
-
-      GenZappDatabase
-        .payments
-        .getPayments(paymentUuidToMessageId.keys)
-        .associateBy { paymentUuidToMessageId[it.uuid]!! }
-    }
+        for (payment in GenZappDatabase.payments.getPayments(paymentUuidToMessageId.keys)) {
+          payments[paymentUuidToMessageId.getValue(payment.uuid)] = payment
+        }
+      }
 
-    val callsFuture = executor.submitTimed {
-      GenZappDatabase.calls.getCalls(messageIds)
+      callsNanos += timed {
+        GenZappDatabase.calls.getCalls(query) { messageId, call -> calls[messageId] = call }
+      }
     }
 
-    val recipientsFuture = executor.submitTimed {
+    val recipientsNanos = timed {
+      GroupUpdateDescriptionCache.prefetch(context, messageRecords)
+
       messageRecords.forEach { record ->
         record.getUpdateDisplayBody(context, null)?.let { description ->
           val ids = description.mentioned.map { RecipientId.from(it) }
@@ -99,27 +121,16 @@ object MessageDataFetcher {
       }
     }
 
-    val mentionsResult = mentionsFuture.get()
-    val hasBeenQuotedResult = hasBeenQuotedFuture.get()
-    val reactionsResult = reactionsFuture.get()
-    val attachmentsResult = attachmentsFuture.get()
-    val paymentsResult = paymentsFuture.get()
-    val callsResult = callsFuture.get()
-    val recipientsResult = recipientsFuture.get()
-
-    val wallTimeMs = (System.nanoTime() - startTimeNanos).nanoseconds.toDouble(DurationUnit.MILLISECONDS)
-
-    val cpuTimeNanos = arrayOf(mentionsResult, hasBeenQuotedResult, reactionsResult, attachmentsResult, paymentsResult, callsResult, recipientsResult).sumOf { it.durationNanos }
-    val cpuTimeMs = cpuTimeNanos.nanoseconds.toDouble(DurationUnit.MILLISECONDS)
+    val wallTimeMs = (System.nanoTime() - startTimeNanos).asMillis()
 
     return ExtraMessageData(
-      mentionsById = mentionsResult.result,
-      hasBeenQuoted = hasBeenQuotedResult.result,
-      reactions = reactionsResult.result,
-      attachments = attachmentsResult.result,
-      payments = paymentsResult.result,
-      calls = callsResult.result,
-      timeLog = "mentions: ${mentionsResult.duration}, is-quoted: ${hasBeenQuotedResult.duration}, reactions: ${reactionsResult.duration}, attachments: ${attachmentsResult.duration}, payments: ${paymentsResult.duration}, calls: ${callsResult.duration} >> cpuTime: ${cpuTimeMs.roundedString(2)}, wallTime: ${wallTimeMs.roundedString(2)}"
+      mentionsById = mentions,
+      hasBeenQuoted = hasBeenQuoted,
+      reactions = reactions,
+      attachments = attachments,
+      payments = payments,
+      calls = calls,
+      timeLog = "mentions: ${mentionsNanos.asMillis()}, is-quoted: ${quotedNanos.asMillis()}, reactions: ${reactionsNanos.asMillis()}, attachments: ${attachmentsNanos.asMillis()}, payments: ${paymentsNanos.asMillis()}, calls: ${callsNanos.asMillis()}, recipients: ${recipientsNanos.asMillis()} >> wallTime: $wallTimeMs"
     )
   }
 
@@ -160,24 +171,14 @@ object MessageDataFetcher {
     return output
   }
 
-  private fun <T> ExecutorService.submitTimed(callable: Callable<T>): Future<TimedResult<T>> {
-    return this.submit(
-      Callable {
-        val start = System.nanoTime()
-        val result = callable.call()
-        val end = System.nanoTime()
-
-        TimedResult(result = result, durationNanos = end - start)
-      }
-    )
+  private inline fun timed(block: () -> Unit): Long {
+    val start = System.nanoTime()
+    block()
+    return System.nanoTime() - start
   }
 
-  data class TimedResult<T>(
-    val result: T,
-    val durationNanos: Long
-  ) {
-    val duration: String
-      get() = durationNanos.nanoseconds.toDouble(DurationUnit.MILLISECONDS).roundedString(2)
+  private fun Long.asMillis(): String {
+    return nanoseconds.toDouble(DurationUnit.MILLISECONDS).roundedString(2)
   }
 
   data class ExtraMessageData(
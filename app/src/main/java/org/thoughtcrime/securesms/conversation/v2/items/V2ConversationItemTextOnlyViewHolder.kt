@@ -422,6 +422,7 @@ open class V2ConversationItemTextOnlyViewHolder<Model : MappingModel<Model>>(
     val bodyText = StringUtil.trim(styledText)
 
     binding.body.visible = bodyText.isNotEmpty()
+    binding.body.setPrecomputedEmojiCandidates(conversationMessage.emojiCandidates)
     binding.body.text = bodyText
   }
 
@@ -402,18 +402,26 @@ class AttachmentTable(
       return emptyMap()
     }
 
-    val query = SqlUtil.buildSingleCollectionQuery(MESSAGE_ID, mmsIds)
+    val attachments: MutableMap<Long, MutableList<DatabaseAttachment>> = mutableMapOf()
 
-    return readableDatabase
+    getAttachmentsForMessages(SqlUtil.buildSingleCollectionQuery(MESSAGE_ID, mmsIds)) { attachment ->
+      attachments.getOrPut(attachment.mmsId) { mutableListOf() } += attachment
+    }
+
+    return attachments
+  }
+
+  /**
+   * Reads the attachments of the messages matched by [query], a query on [MESSAGE_ID], handing each one to [consumer] in order as it's read.
+   */
+  fun getAttachmentsForMessages(query: SqlUtil.Query, consumer: (DatabaseAttachment) -> Unit) {
+    readableDatabase
       .select(*PROJECTION)
       .from(TABLE_NAME)
       .where(query.where, query.whereArgs)
       .orderBy("$ID ASC")
       .run()
-      .groupBy { cursor ->
-        val attachment = cursor.readAttachment()
-        attachment.mmsId to attachment
-      }
+      .forEach { cursor -> consumer(cursor.readAttachment()) }
   }
 
   fun hasAttachment(id: AttachmentId): Boolean {
@@ -556,6 +564,47 @@ class AttachmentTable(
     }
   }
 
+  /**
+   * Deletes the attachments for a batch of messages at once. Any data files that end up unreferenced but couldn't be deleted here (e.g. because they were
+   * shared between messages in the batch) will be picked up by [deleteAbandonedAttachmentFiles].
+   */
+  fun deleteAttachmentsForMessages(mmsIds: Collection<Long>): Int {
+    if (mmsIds.isEmpty()) {
+      return 0
+    }
+
+    val deleteCount = writableDatabase.withinTransaction { db ->
+      var count = 0
+
+      for (query in SqlUtil.buildCollectionQuery(MESSAGE_ID, mmsIds)) {
+        val attachments: List<Triple<AttachmentId, String?, String?>> = db.select(DATA_FILE, CONTENT_TYPE, ID)
+          .from(TABLE_NAME)
+          .where(query.where, query.whereArgs)
+          .run()
+          .readToList { cursor ->
+            Triple(AttachmentId(cursor.requireLong(ID)), cursor.requireString(DATA_FILE), cursor.requireString(CONTENT_TYPE))
+          }
+
+        for ((attachmentId, filePath, contentType) in attachments) {
+          AppDependencies.jobManager.cancelAllInQueue(AttachmentDownloadJob.constructQueueString(attachmentId))
+          deleteDataFileIfPossible(filePath, contentType, attachmentId)
+        }
+
+        count += db.delete(TABLE_NAME)
+          .where(query.where, query.whereArgs)
+          .run()
+      }
+
+      count
+    }
+
+    if (deleteCount > 0) {
+      notifyAttachmentListeners()
+    }
+
+    return deleteCount
+  }
+
   /**
    * Deletes all attachments with an ID of [PREUPLOAD_MESSAGE_ID]. These represent
    * attachments that were pre-uploaded and haven't been assigned to a message. This should only be
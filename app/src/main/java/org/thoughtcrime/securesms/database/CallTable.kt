@@ -12,6 +12,7 @@ import org.GenZapp.core.util.delete
 import org.GenZapp.core.util.deleteAll
 import org.GenZapp.core.util.exists
 import org.GenZapp.core.util.flatten
+import org.GenZapp.core.util.forEach
 import org.GenZapp.core.util.insertInto
 import org.GenZapp.core.util.isAbsent
 import org.GenZapp.core.util.logging.Log
@@ -48,7 +49,7 @@ import java.util.concurrent.TimeUnit
 /**
  * Contains details for each 1:1 call.
  */
-class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper), RecipientIdDatabaseReference {
+class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper), ChunkedRecipientIdDatabaseReference {
 
   companion object {
     private val TAG = Log.tag(CallTable::class.java)
@@ -106,8 +107,27 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
     val CREATE_INDEXES = arrayOf(
       "CREATE INDEX call_call_id_index ON $TABLE_NAME ($CALL_ID)",
       "CREATE INDEX call_message_id_index ON $TABLE_NAME ($MESSAGE_ID)",
-      "CREATE INDEX call_peer_index ON $TABLE_NAME ($PEER)"
+      "CREATE INDEX call_peer_direction_timestamp_index ON $TABLE_NAME ($PEER, $DIRECTION, $TIMESTAMP)",
+      "CREATE INDEX call_timestamp_index ON $TABLE_NAME ($TIMESTAMP)"
     )
+
+    /** How much bigger than the page size the window of call events considered for a page is, and how fast it grows when it's too small. */
+    private const val PAGE_WINDOW_MULTIPLIER = 4
+
+    private val SORT_NAME = """
+      LOWER(
+        COALESCE(
+          NULLIF(${GroupTable.TABLE_NAME}.${GroupTable.TITLE}, ''),
+          NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.NICKNAME_JOINED_NAME}, ''),
+          NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.NICKNAME_GIVEN_NAME}, ''),
+          NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.SYSTEM_JOINED_NAME}, ''),
+          NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.SYSTEM_GIVEN_NAME}, ''),
+          NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.PROFILE_JOINED_NAME}, ''),
+          NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.PROFILE_GIVEN_NAME}, ''),
+          NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.USERNAME}, '')
+        )
+      )
+    """
   }
 
   fun markAllCallEventsRead(timestamp: Long = Long.MAX_VALUE) {
@@ -233,17 +253,25 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
   }
 
   fun getCalls(messageIds: Collection<Long>): Map<Long, Call> {
-    val queries = SqlUtil.buildCollectionQuery(MESSAGE_ID, messageIds)
-    val maps = queries.map { query ->
-      readableDatabase
-        .select()
-        .from(TABLE_NAME)
-        .where("$EVENT != ${Event.serialize(Event.DELETE)} AND ${query.where}", query.whereArgs)
-        .run()
-        .readToMap { c -> c.requireLong(MESSAGE_ID) to Call.deserialize(c) }
+    val calls: MutableMap<Long, Call> = mutableMapOf()
+
+    for (query in SqlUtil.buildCollectionQuery(MESSAGE_ID, messageIds)) {
+      getCalls(query) { messageId, call -> calls[messageId] = call }
     }
 
-    return maps.flatten()
+    return calls
+  }
+
+  /**
+   * Reads the calls for the messages matched by [query], a query on [MESSAGE_ID], handing each one to [consumer] as it's read.
+   */
+  fun getCalls(query: SqlUtil.Query, consumer: (Long, Call) -> Unit) {
+    readableDatabase
+      .select()
+      .from(TABLE_NAME)
+      .where("$EVENT != ${Event.serialize(Event.DELETE)} AND ${query.where}", query.whereArgs)
+      .run()
+      .forEach { c -> consumer(c.requireLong(MESSAGE_ID), Call.deserialize(c)) }
   }
 
   /**
@@ -1207,36 +1235,65 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
 
   // endregion
 
-  private fun getCallsCursor(isCount: Boolean, offset: Int, limit: Int, searchTerm: String?, filter: CallLogFilter): Cursor {
+  /**
+   * Builds the clause that limits which call events make it into the call log. When there's a search term, the matching recipients are looked up
+   * first and the clause is restricted to them, so the aggregation below only ever looks at the calls of people that match, rather than building
+   * the whole call log and filtering it afterwards.
+   */
+  private fun getCallLogFilterClause(searchTerm: String?, filter: CallLogFilter): String {
     val isMissedGenericGroupCall = "$EVENT = ${Event.serialize(Event.GENERIC_GROUP_CALL)} AND $LOCAL_JOINED = ${false.toInt()} AND $GROUP_CALL_ACTIVE = ${false.toInt()}"
-    val filterClause: SqlUtil.Query = when (filter) {
-      CallLogFilter.ALL -> SqlUtil.buildQuery("$DELETION_TIMESTAMP = 0")
-      CallLogFilter.MISSED -> SqlUtil.buildQuery("$TYPE != ${Type.serialize(Type.AD_HOC_CALL)} AND $DIRECTION == ${Direction.serialize(Direction.INCOMING)} AND ($EVENT = ${Event.serialize(Event.MISSED)} OR $EVENT = ${Event.serialize(Event.MISSED_NOTIFICATION_PROFILE)} OR $EVENT = ${Event.serialize(Event.NOT_ACCEPTED)} OR $EVENT = ${Event.serialize(Event.DECLINED)} OR ($isMissedGenericGroupCall)) AND $DELETION_TIMESTAMP = 0")
-      CallLogFilter.AD_HOC -> SqlUtil.buildQuery("$TYPE = ${Type.serialize(Type.AD_HOC_CALL)} AND $DELETION_TIMESTAMP = 0")
+    val filterClause: String = when (filter) {
+      CallLogFilter.ALL -> "$DELETION_TIMESTAMP = 0"
+      CallLogFilter.MISSED -> "$TYPE != ${Type.serialize(Type.AD_HOC_CALL)} AND $DIRECTION == ${Direction.serialize(Direction.INCOMING)} AND ($EVENT = ${Event.serialize(Event.MISSED)} OR $EVENT = ${Event.serialize(Event.MISSED_NOTIFICATION_PROFILE)} OR $EVENT = ${Event.serialize(Event.NOT_ACCEPTED)} OR $EVENT = ${Event.serialize(Event.DECLINED)} OR ($isMissedGenericGroupCall)) AND $DELETION_TIMESTAMP = 0"
+      CallLogFilter.AD_HOC -> "$TYPE = ${Type.serialize(Type.AD_HOC_CALL)} AND $DELETION_TIMESTAMP = 0"
     }
 
-    val queryClause: SqlUtil.Query = if (!searchTerm.isNullOrEmpty()) {
-      val glob = SqlUtil.buildCaseInsensitiveGlobPattern(searchTerm)
-      val selection =
-        """
-        ${RecipientTable.TABLE_NAME}.${RecipientTable.BLOCKED} = ? AND ${RecipientTable.TABLE_NAME}.${RecipientTable.HIDDEN} = ? AND
+    return if (!searchTerm.isNullOrEmpty()) {
+      val peers = getPeersMatchingSearch(searchTerm).joinToString(separator = ",")
+      "$filterClause AND $PEER IN ($peers)"
+    } else {
+      filterClause
+    }
+  }
+
+  private fun getPeersMatchingSearch(searchTerm: String): List<Long> {
+    val glob = SqlUtil.buildCaseInsensitiveGlobPattern(searchTerm)
+
+    //language=sql
+    val statement = """
+      SELECT ${RecipientTable.TABLE_NAME}.${RecipientTable.ID}
+      FROM ${RecipientTable.TABLE_NAME}
+      LEFT JOIN ${GroupTable.TABLE_NAME} ON ${GroupTable.TABLE_NAME}.${GroupTable.RECIPIENT_ID} = ${RecipientTable.TABLE_NAME}.${RecipientTable.ID}
+      WHERE
+        ${RecipientTable.TABLE_NAME}.${RecipientTable.BLOCKED} = 0 AND ${RecipientTable.TABLE_NAME}.${RecipientTable.HIDDEN} = 0 AND
         (
-          sort_name GLOB ? OR 
-          ${RecipientTable.TABLE_NAME}.${RecipientTable.USERNAME} GLOB ? OR 
-          ${RecipientTable.TABLE_NAME}.${RecipientTable.E164} GLOB ? OR 
+          $SORT_NAME GLOB ? OR
+          ${RecipientTable.TABLE_NAME}.${RecipientTable.USERNAME} GLOB ? OR
+          ${RecipientTable.TABLE_NAME}.${RecipientTable.E164} GLOB ? OR
           ${RecipientTable.TABLE_NAME}.${RecipientTable.EMAIL} GLOB ?
         )
-        """
-      SqlUtil.buildQuery(selection, 0, 0, glob, glob, glob, glob)
-    } else {
-      SqlUtil.buildQuery(
-        """
-        ${RecipientTable.TABLE_NAME}.${RecipientTable.BLOCKED} = ? AND ${RecipientTable.TABLE_NAME}.${RecipientTable.HIDDEN} = ?
+    """
+
+    return readableDatabase
+      .rawQuery(statement, SqlUtil.buildArgs(glob, glob, glob, glob))
+      .readToList { it.requireLong(RecipientTable.ID) }
+  }
+
+  /**
+   * @param after If set, only rows that come after this key in the call log are returned.
+   * @param window If greater than zero, only this many call events (starting from [after]) are considered when building the call log.
+   */
+  private fun getCallsCursor(isCount: Boolean, offset: Int, limit: Int, searchTerm: String?, filter: CallLogFilter, after: PageKey? = null, window: Int = 0): Cursor {
+    val isMissedGenericGroupCall = "$EVENT = ${Event.serialize(Event.GENERIC_GROUP_CALL)} AND $LOCAL_JOINED = ${false.toInt()} AND $GROUP_CALL_ACTIVE = ${false.toInt()}"
+    val filterClause: String = getCallLogFilterClause(searchTerm, filter)
+
+    val queryClause: SqlUtil.Query = SqlUtil.buildQuery(
+      """
+      ${RecipientTable.TABLE_NAME}.${RecipientTable.BLOCKED} = ? AND ${RecipientTable.TABLE_NAME}.${RecipientTable.HIDDEN} = ?
       """,
-        0,
-        0
-      )
-    }
+      0,
+      0
+    )
 
     val offsetLimit = if (limit > 0) {
       "LIMIT $offset,$limit"
@@ -1250,6 +1307,11 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
       "p.$ID, p.$TIMESTAMP, $EVENT, $DIRECTION, $PEER, p.$TYPE, $CALL_ID, $MESSAGE_ID, $RINGER, $LOCAL_JOINED, $GROUP_CALL_ACTIVE, children, in_period, ${MessageTable.BODY},"
     }
 
+    // The key row itself is kept in the window so that the row after it can be compared against it, but it's not returned again
+    val windowStart = if (after != null) "AND ($TIMESTAMP, $ID) <= (${after.timestamp}, ${after.rowId})" else ""
+    val pageStart = if (after != null) "AND (p.$TIMESTAMP, p.$ID) < (${after.timestamp}, ${after.rowId})" else ""
+    val windowLimit = if (window > 0) "LIMIT $window" else ""
+
     // Group call events by those we consider missed or not missed to build out our call log aggregation.
     val eventTypeSubQuery = """
       ($TABLE_NAME.$EVENT = c.$EVENT AND (
@@ -1272,40 +1334,12 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
       )
       """
 
-    //language=sql
-    val statement = """
-      SELECT $projection
-        LOWER(
-          COALESCE(
-            NULLIF(${GroupTable.TABLE_NAME}.${GroupTable.TITLE}, ''),
-            NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.NICKNAME_JOINED_NAME}, ''),
-            NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.NICKNAME_GIVEN_NAME}, ''),
-            NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.SYSTEM_JOINED_NAME}, ''),
-            NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.SYSTEM_GIVEN_NAME}, ''),
-            NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.PROFILE_JOINED_NAME}, ''),
-            NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.PROFILE_GIVEN_NAME}, ''),
-            NULLIF(${RecipientTable.TABLE_NAME}.${RecipientTable.USERNAME}, '')
-          )
-        ) AS sort_name
-      FROM (
-        WITH cte AS (
-          SELECT
-            $ID, $TIMESTAMP, $EVENT, $DIRECTION, $PEER, $TYPE, $CALL_ID, $MESSAGE_ID, $RINGER, $LOCAL_JOINED, $GROUP_CALL_ACTIVE,
-            (
-              SELECT
-                $ID
-              FROM
-                $TABLE_NAME
-              WHERE
-                $TABLE_NAME.$DIRECTION = c.$DIRECTION
-                AND $TABLE_NAME.$PEER = c.$PEER
-                AND $TABLE_NAME.$TIMESTAMP - $TIME_WINDOW <= c.$TIMESTAMP
-                AND $TABLE_NAME.$TIMESTAMP >= c.$TIMESTAMP
-                AND ($eventTypeSubQuery)
-                AND ${filterClause.where}
-              ORDER BY
-                $TIMESTAMP DESC
-            ) as parent,
+    // Counting only needs to know which rows start a group, so the per-row child lookups are skipped entirely
+    val childrenSubQueries = if (isCount) {
+      ""
+    } else {
+      """
+            ,
             (
               SELECT
                 group_concat($ID)
@@ -1317,7 +1351,7 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
                 AND c.$TIMESTAMP - $TIME_WINDOW <= $TABLE_NAME.$TIMESTAMP
                 AND c.$TIMESTAMP >= $TABLE_NAME.$TIMESTAMP
                 AND ($eventTypeSubQuery)
-                AND ${filterClause.where}
+                AND $filterClause
             ) as children,
             (
               SELECT
@@ -1327,20 +1361,48 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
               WHERE
                 c.$TIMESTAMP - $TIME_WINDOW <= $TABLE_NAME.$TIMESTAMP
                 AND c.$TIMESTAMP >= $TABLE_NAME.$TIMESTAMP
-                AND ${filterClause.where}
+                AND $filterClause
             ) as in_period
+      """
+    }
+
+    //language=sql
+    val statement = """
+      SELECT $projection
+        $SORT_NAME AS sort_name
+      FROM (
+        WITH cte AS (
+          SELECT
+            $ID, $TIMESTAMP, $EVENT, $DIRECTION, $PEER, $TYPE, $CALL_ID, $MESSAGE_ID, $RINGER, $LOCAL_JOINED, $GROUP_CALL_ACTIVE,
+            (
+              SELECT
+                $ID
+              FROM
+                $TABLE_NAME
+              WHERE
+                $TABLE_NAME.$DIRECTION = c.$DIRECTION
+                AND $TABLE_NAME.$PEER = c.$PEER
+                AND $TABLE_NAME.$TIMESTAMP - $TIME_WINDOW <= c.$TIMESTAMP
+                AND $TABLE_NAME.$TIMESTAMP >= c.$TIMESTAMP
+                AND ($eventTypeSubQuery)
+                AND $filterClause
+              ORDER BY
+                $TIMESTAMP DESC
+            ) as parent
+            $childrenSubQueries
           FROM
             $TABLE_NAME c
-          WHERE ${filterClause.where}
+          WHERE $filterClause $windowStart
           ORDER BY
-            $TIMESTAMP DESC
+            $TIMESTAMP DESC, $ID DESC
+          $windowLimit
         )
         SELECT
           *,
           CASE
             WHEN LAG (parent, 1, 0) OVER (
               ORDER BY
-                $TIMESTAMP DESC
+                $TIMESTAMP DESC, $ID DESC
             ) != parent THEN $ID
             ELSE parent
           END true_parent
@@ -1350,8 +1412,8 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
       INNER JOIN ${RecipientTable.TABLE_NAME} ON ${RecipientTable.TABLE_NAME}.${RecipientTable.ID} = $PEER
       LEFT JOIN ${MessageTable.TABLE_NAME} ON ${MessageTable.TABLE_NAME}.${MessageTable.ID} = $MESSAGE_ID
       LEFT JOIN ${GroupTable.TABLE_NAME} ON ${GroupTable.TABLE_NAME}.${GroupTable.RECIPIENT_ID} = ${RecipientTable.TABLE_NAME}.${RecipientTable.ID}
-      WHERE true_parent = p.$ID ${if (queryClause.where.isNotEmpty()) "AND ${queryClause.where}" else ""}
-      ORDER BY p.$TIMESTAMP DESC
+      WHERE true_parent = p.$ID $pageStart ${if (queryClause.where.isNotEmpty()) "AND ${queryClause.where}" else ""}
+      ORDER BY p.$TIMESTAMP DESC, p.$ID DESC
       $offsetLimit
     """
 
@@ -1361,6 +1423,20 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
     )
   }
 
+  /**
+   * The number of call events a windowed page could have considered, used to tell whether a short page was short because the window ran out.
+   */
+  private fun getCallLogWindowSize(searchTerm: String?, filter: CallLogFilter, after: PageKey?): Long {
+    val windowStart = if (after != null) "AND ($TIMESTAMP, $ID) <= (${after.timestamp}, ${after.rowId})" else ""
+
+    return readableDatabase
+      .select("COUNT(*)")
+      .from(TABLE_NAME)
+      .where("${getCallLogFilterClause(searchTerm, filter)} $windowStart")
+      .run()
+      .readToSingleLong()
+  }
+
   fun getLatestRingingCalls(): List<Call> {
     return readableDatabase.select()
       .from(TABLE_NAME)
@@ -1398,45 +1474,82 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
   }
 
   fun getCalls(offset: Int, limit: Int, searchTerm: String?, filter: CallLogFilter): List<CallLogRow.Call> {
-    return getCallsCursor(false, offset, limit, searchTerm, filter).readToList { cursor ->
-      val call = Call.deserialize(cursor)
-      val groupCallDetails = GroupCallUpdateDetailsUtil.parse(cursor.requireString(MessageTable.BODY))
+    return getCallsPage(null, offset, limit, searchTerm, filter).calls
+  }
 
-      val children = cursor.requireNonNullString("children")
-        .split(',')
-        .map { it.toLong() }
-        .toSet()
+  /**
+   * Loads a page of the call log that starts right after [after], or at [offset] if no key is known.
+   *
+   * Paging from a key only builds the call log for the events around the page, so loading a page costs about the same no matter how far down it is.
+   * The window of events considered starts at a small multiple of [limit] and grows until the page is full or there's nothing left, since a run of
+   * calls that collapse into one row can take up more than the initial window.
+   */
+  fun getCallsPage(after: PageKey?, offset: Int, limit: Int, searchTerm: String?, filter: CallLogFilter): CallLogPage {
+    if (after == null && offset > 0) {
+      return getCallsCursor(false, offset, limit, searchTerm, filter).use { readCallLogPage(it, searchTerm) }
+    }
 
-      val inPeriod = cursor.requireNonNullString("in_period")
-        .split(',')
-        .map { it.toLong() }
-        .sortedDescending()
-        .toSet()
+    var window = limit * PAGE_WINDOW_MULTIPLIER
+    while (true) {
+      val page = getCallsCursor(false, 0, limit, searchTerm, filter, after, window).use { readCallLogPage(it, searchTerm) }
 
-      val actualChildren = inPeriod.takeWhile { children.contains(it) }
-      val peer = Recipient.resolved(call.peer)
+      if (page.calls.size >= limit || window >= getCallLogWindowSize(searchTerm, filter, after)) {
+        return page
+      }
 
-      val canUserBeginCall = if (peer.isGroup) {
-        val record = GenZappDatabase.groups.getGroup(peer.id)
+      window *= PAGE_WINDOW_MULTIPLIER
+    }
+  }
 
-        !record.isAbsent() &&
-          record.get().isActive &&
-          (!record.get().isAnnouncementGroup || record.get().memberLevel(Recipient.self()) == GroupTable.MemberLevel.ADMINISTRATOR)
-      } else {
-        true
-      }
+  private fun readCallLogPage(cursor: Cursor, searchTerm: String?): CallLogPage {
+    var lastKey: PageKey? = null
 
-      CallLogRow.Call(
-        record = call,
-        date = call.timestamp,
-        peer = peer,
-        groupCallState = CallLogRow.GroupCallState.fromDetails(groupCallDetails),
-        children = actualChildren.toSet(),
-        searchQuery = searchTerm,
-        callLinkPeekInfo = AppDependencies.GenZappCallManager.peekInfoSnapshot[peer.id],
-        canUserBeginCall = canUserBeginCall
-      )
+    val calls = cursor.readToList {
+      lastKey = PageKey(timestamp = it.requireLong(TIMESTAMP), rowId = it.requireLong(ID))
+      readCallLogRow(it, searchTerm)
     }
+
+    return CallLogPage(calls, lastKey)
+  }
+
+  private fun readCallLogRow(cursor: Cursor, searchTerm: String?): CallLogRow.Call {
+    val call = Call.deserialize(cursor)
+    val groupCallDetails = GroupCallUpdateDetailsUtil.parse(cursor.requireString(MessageTable.BODY))
+
+    val children = cursor.requireNonNullString("children")
+      .split(',')
+      .map { it.toLong() }
+      .toSet()
+
+    val inPeriod = cursor.requireNonNullString("in_period")
+      .split(',')
+      .map { it.toLong() }
+      .sortedDescending()
+      .toSet()
+
+    val actualChildren = inPeriod.takeWhile { children.contains(it) }
+    val peer = Recipient.resolved(call.peer)
+
+    val canUserBeginCall = if (peer.isGroup) {
+      val record = GenZappDatabase.groups.getGroup(peer.id)
+
+      !record.isAbsent() &&
+        record.get().isActive &&
+        (!record.get().isAnnouncementGroup || record.get().memberLevel(Recipient.self()) == GroupTable.MemberLevel.ADMINISTRATOR)
+    } else {
+      true
+    }
+
+    return CallLogRow.Call(
+      record = call,
+      date = call.timestamp,
+      peer = peer,
+      groupCallState = CallLogRow.GroupCallState.fromDetails(groupCallDetails),
+      children = actualChildren.toSet(),
+      searchQuery = searchTerm,
+      callLinkPeekInfo = AppDependencies.GenZappCallManager.peekInfoSnapshot[peer.id],
+      canUserBeginCall = canUserBeginCall
+    )
   }
 
   override fun remapRecipient(fromId: RecipientId, toId: RecipientId) {
@@ -1447,6 +1560,30 @@ class CallTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTab
       .run()
   }
 
+  override fun remapRecipientChunk(fromId: RecipientId, toId: RecipientId, limit: Int): Int {
+    return writableDatabase
+      .update(TABLE_NAME)
+      .values(PEER to toId.serialize())
+      .where("$ID IN (SELECT $ID FROM $TABLE_NAME WHERE $PEER = ? LIMIT $limit)", fromId)
+      .run()
+  }
+
+  /**
+   * Identifies a row in the call log by the call event it was built from, so the next page can be loaded from there.
+   */
+  data class PageKey(
+    val timestamp: Long,
+    val rowId: Long
+  )
+
+  /**
+   * @param lastKey The key of the last row in [calls], or null if the page is empty.
+   */
+  data class CallLogPage(
+    val calls: List<CallLogRow.Call>,
+    val lastKey: PageKey?
+  )
+
   /**
    * @param isGroupCallActive - Whether the group call currently contains users. Only valid for group calls.
    * @param didLocalUserJoin   - Determines whether the local user joined this call. Only valid for group calls.
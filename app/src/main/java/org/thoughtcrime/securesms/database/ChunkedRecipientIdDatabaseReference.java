@@ -0,0 +1,18 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+/**
+ * A {@link RecipientIdDatabaseReference} that can hold so many references to a single recipient that remapping them all at once would hold the write lock
+ * for too long. These tables are remapped a piece at a time in the background when a large recipient merge is deferred.
+ */
+interface ChunkedRecipientIdDatabaseReference extends RecipientIdDatabaseReference {
+  /**
+   * Does the work of {@link #remapRecipient(RecipientId, RecipientId)}, but for at most roughly {@code limit} rows.
+   *
+   * @return The number of rows updated. Zero means there is nothing left to remap.
+   */
+  int remapRecipientChunk(@NonNull RecipientId fromId, @NonNull RecipientId toId, int limit);
+}
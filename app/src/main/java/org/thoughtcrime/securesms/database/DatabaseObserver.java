@@ -1,12 +1,17 @@
 package org.thoughtcrime.securesms.database;
 
 import android.app.Application;
+import android.os.Handler;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import org.jetbrains.annotations.NotNull;
+import org.GenZapp.core.util.ThreadUtil;
 import org.GenZapp.core.util.concurrent.GenZappExecutors;
+import org.thoughtcrime.securesms.database.model.GroupUpdateDescriptionCache;
 import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
@@ -26,10 +31,15 @@ import java.util.concurrent.Executor;
  * Allows listening to database changes to varying degrees of specificity.
  *
  * A replacement for the observer system in {@link DatabaseTable}. We should move to this over time.
+ *
+ * Notifications are de-duped within a transaction, and then coalesced across transactions for a short window (see {@link NotificationCoalescer}), so that
+ * something like processing a large batch of incoming messages doesn't cause observers to reload thousands of times. Notifications that need to be seen right
+ * away, like inserting a message the user just sent, skip the window.
  */
 public class DatabaseObserver {
 
   private static final String KEY_CONVERSATION          = "Conversation:";
+  private static final String KEY_CONVERSATION_NOW      = "ConversationNow:";
   private static final String KEY_VERBOSE_CONVERSATION  = "VerboseConversation:";
   private static final String KEY_CONVERSATION_LIST     = "ConversationList";
   private static final String KEY_PAYMENT               = "Payment:";
@@ -43,6 +53,7 @@ public class DatabaseObserver {
   private static final String KEY_NOTIFICATION_PROFILES = "NotificationProfiles";
   private static final String KEY_RECIPIENT             = "Recipient";
   private static final String KEY_STORY_OBSERVER        = "Story";
+  private static final String KEY_STORY_FEED            = "StoryFeed";
   private static final String KEY_SCHEDULED_MESSAGES    = "ScheduledMessages";
   private static final String KEY_CONVERSATION_DELETES  = "ConversationDeletes";
 
@@ -50,8 +61,14 @@ public class DatabaseObserver {
   private static final String KEY_CALL_LINK_UPDATES     = "CallLinkUpdates";
   private static final String KEY_IN_APP_PAYMENTS       = "InAppPayments";
 
-  private final Application application;
-  private final Executor    executor;
+  private static final long DEFAULT_COALESCE_WINDOW_MS = 32;
+  private static final long DEFAULT_MAX_LATENCY_MS     = 100;
+
+  private static Handler coalescerHandler;
+
+  private final Application           application;
+  private final Executor              executor;
+  private final NotificationCoalescer coalescer;
 
   private final Set<Observer>                      conversationListObservers;
   private final Map<Long, Set<Observer>>           conversationObservers;
@@ -68,13 +85,25 @@ public class DatabaseObserver {
   private final Map<Long, Set<MessageObserver>>    messageInsertObservers;
   private final Set<Observer>                      notificationProfileObservers;
   private final Map<RecipientId, Set<Observer>>    storyObservers;
+  private final Set<Observer>                      storyFeedObservers;
   private final Set<Observer>                      callUpdateObservers;
   private final Map<CallLinkRoomId, Set<Observer>> callLinkObservers;
   private final Set<InAppPaymentObserver>          inAppPaymentObservers;
 
   public DatabaseObserver(Application application) {
+    this(application, DEFAULT_COALESCE_WINDOW_MS, DEFAULT_MAX_LATENCY_MS);
+  }
+
+  /**
+   * @param coalesceWindowMs How long to wait for more notifications before delivering the ones that are pending.
+   * @param maxLatencyMs     The longest a notification will be held back, even if more keep arriving.
+   */
+  public DatabaseObserver(Application application, long coalesceWindowMs, long maxLatencyMs) {
+    Handler coalescerHandler = getCoalescerHandler();
+
     this.application                  = application;
     this.executor                     = new SerialExecutor(GenZappExecutors.BOUNDED);
+    this.coalescer                    = new NotificationCoalescer(executor, coalescerHandler::postDelayed, SystemClock::uptimeMillis, coalesceWindowMs, maxLatencyMs);
     this.conversationListObservers    = new HashSet<>();
     this.conversationObservers        = new HashMap<>();
     this.verboseConversationObservers = new HashMap<>();
@@ -89,6 +118,7 @@ public class DatabaseObserver {
     this.messageInsertObservers       = new HashMap<>();
     this.notificationProfileObservers = new HashSet<>();
     this.storyObservers               = new HashMap<>();
+    this.storyFeedObservers           = new HashSet<>();
     this.scheduledMessageObservers    = new HashMap<>();
     this.callUpdateObservers          = new HashSet<>();
     this.callLinkObservers            = new HashMap<>();
@@ -182,6 +212,17 @@ public class DatabaseObserver {
     });
   }
 
+  /**
+   * Adds an observer which will be notified whenever a change may have marked part of the {@link StoryFeedTable} dirty: any story change, and any
+   * conversation change, since that's how replies and send state updates are announced. This fires often, so observers are expected to check
+   * {@link StoryFeedTable#refresh()} before doing any real work.
+   */
+  public void registerStoryFeedObserver(@NonNull Observer listener) {
+    executor.execute(() -> {
+      storyFeedObservers.add(listener);
+    });
+  }
+
   public void registerScheduledMessageObserver(long threadId, @NonNull Observer listener) {
     executor.execute(() -> {
       registerMapped(scheduledMessageObservers, threadId, listener);
@@ -214,6 +255,7 @@ public class DatabaseObserver {
       attachmentObservers.remove(listener);
       notificationProfileObservers.remove(listener);
       unregisterMapped(storyObservers, listener);
+      storyFeedObservers.remove(listener);
       unregisterMapped(scheduledMessageObservers, listener);
       unregisterMapped(conversationDeleteObservers, listener);
       callUpdateObservers.remove(listener);
@@ -241,10 +283,25 @@ public class DatabaseObserver {
   }
 
   public void notifyConversationListeners(long threadId) {
-    runPostSuccessfulTransaction(KEY_CONVERSATION + threadId, () -> {
+    notifyConversationListeners(threadId, false);
+  }
+
+  /**
+   * @param immediate True if observers should be notified as soon as the transaction succeeds, rather than after the coalescing window. Meant for changes
+   *                  the user is waiting to see, like a message they just sent.
+   */
+  public void notifyConversationListeners(long threadId, boolean immediate) {
+    Runnable notification = () -> {
       notifyMapped(conversationObservers, threadId);
       notifyMapped(verboseConversationObservers, threadId);
-    });
+    };
+
+    if (immediate) {
+      runPostSuccessfulTransactionImmediately(KEY_CONVERSATION_NOW + threadId, KEY_CONVERSATION + threadId, notification);
+    } else {
+      runPostSuccessfulTransaction(KEY_CONVERSATION + threadId, notification);
+    }
+    notifyStoryFeedObservers();
   }
 
   public void notifyVerboseConversationListeners(Set<Long> threadIds) {
@@ -273,6 +330,7 @@ public class DatabaseObserver {
         listener.onChanged();
       }
     });
+    notifyStoryFeedObservers();
   }
 
   public void notifyPaymentListeners(@NonNull UUID paymentId) {
@@ -320,7 +378,7 @@ public class DatabaseObserver {
   }
 
   public void notifyMessageInsertObservers(long threadId, @NonNull MessageId messageId) {
-    runPostSuccessfulTransaction(KEY_MESSAGE_INSERT + messageId, () -> {
+    runPostSuccessfulTransactionImmediately(KEY_MESSAGE_INSERT + messageId, () -> {
       Set<MessageObserver> listeners = messageInsertObservers.get(threadId);
 
       if (listeners != null) {
@@ -337,22 +395,33 @@ public class DatabaseObserver {
 
   public void notifyRecipientChanged(@NonNull RecipientId recipientId) {
     GenZappDatabase.runPostSuccessfulTransaction(KEY_RECIPIENT + recipientId.serialize(), () -> {
+      GroupUpdateDescriptionCache.onRecipientChanged(recipientId);
       Recipient.live(recipientId).refresh();
     });
   }
 
   public void notifyStoryObservers(@NonNull RecipientId recipientId) {
-    runPostSuccessfulTransaction(KEY_STORY_OBSERVER, () -> {
+    runPostSuccessfulTransaction(KEY_STORY_OBSERVER + recipientId.serialize(), () -> {
       notifyMapped(storyObservers, recipientId);
     });
+
+    notifyStoryFeedObservers();
   }
 
   public void notifyStoryObservers(@NonNull Collection<RecipientId> recipientIds) {
     for (RecipientId recipientId : recipientIds) {
-      runPostSuccessfulTransaction(KEY_STORY_OBSERVER, () -> {
+      runPostSuccessfulTransaction(KEY_STORY_OBSERVER + recipientId.serialize(), () -> {
         notifyMapped(storyObservers, recipientId);
       });
     }
+
+    notifyStoryFeedObservers();
+  }
+
+  private void notifyStoryFeedObservers() {
+    runPostSuccessfulTransaction(KEY_STORY_FEED, () -> {
+      notifySet(storyFeedObservers);
+    });
   }
 
   public void notifyScheduledMessageObservers(long threadId) {
@@ -366,21 +435,52 @@ public class DatabaseObserver {
   }
 
   public void notifyCallLinkObservers(@NonNull CallLinkRoomId callLinkRoomId) {
-    runPostSuccessfulTransaction(KEY_CALL_LINK_UPDATES, () -> notifyMapped(callLinkObservers, callLinkRoomId));
+    runPostSuccessfulTransaction(KEY_CALL_LINK_UPDATES + callLinkRoomId.serialize(), () -> notifyMapped(callLinkObservers, callLinkRoomId));
   }
 
   public void notifyInAppPaymentsObservers(@NonNull InAppPaymentTable.InAppPayment inAppPayment) {
-    runPostSuccessfulTransaction(KEY_IN_APP_PAYMENTS, () -> {
+    runPostSuccessfulTransactionImmediately(KEY_IN_APP_PAYMENTS, () -> {
       inAppPaymentObservers.forEach(item -> item.onInAppPaymentChanged(inAppPayment));
     });
   }
 
   private void runPostSuccessfulTransaction(@NonNull String dedupeKey, @NonNull Runnable runnable) {
     GenZappDatabase.runPostSuccessfulTransaction(dedupeKey, () -> {
+      coalescer.post(dedupeKey, runnable);
+    });
+  }
+
+  /**
+   * For notifications that either need to be seen right away, or that carry data with them, and so can't be merged with others that share their key.
+   */
+  private void runPostSuccessfulTransactionImmediately(@NonNull String dedupeKey, @NonNull Runnable runnable) {
+    runPostSuccessfulTransactionImmediately(dedupeKey, null, runnable);
+  }
+
+  /**
+   * @param replacesKey The key of a coalesced notification that this one makes redundant. If it's still waiting in the window, it's dropped.
+   */
+  private void runPostSuccessfulTransactionImmediately(@NonNull String dedupeKey, @Nullable String replacesKey, @NonNull Runnable runnable) {
+    GenZappDatabase.runPostSuccessfulTransaction(dedupeKey, () -> {
+      if (replacesKey != null) {
+        coalescer.cancel(replacesKey);
+      }
       executor.execute(runnable);
     });
   }
 
+  /**
+   * Every observer shares one thread for its coalescing timers. In practice there's only the one in {@link org.thoughtcrime.securesms.dependencies.AppDependencies},
+   * but tests create more.
+   */
+  private static synchronized @NonNull Handler getCoalescerHandler() {
+    if (coalescerHandler == null) {
+      coalescerHandler = new Handler(GenZappExecutors.getAndStartHandlerThread("db-observer-coalescer", ThreadUtil.PRIORITY_BACKGROUND_THREAD).getLooper());
+    }
+
+    return coalescerHandler;
+  }
+
   private <K, V> void registerMapped(@NonNull Map<K, Set<V>> map, @NonNull K key, @NonNull V listener) {
     Set<V> listeners = map.get(key);
 
@@ -415,10 +515,12 @@ public class DatabaseObserver {
   }
 
   /**
-   * Blocks until the executor is empty. Only intended to be used for testing.
+   * Delivers any coalesced notifications and blocks until the executor is empty. Only intended to be used for testing.
    */
   @VisibleForTesting
   void flush() {
+    coalescer.flush();
+
     CountDownLatch latch = new CountDownLatch(1);
     executor.execute(latch::countDown);
 
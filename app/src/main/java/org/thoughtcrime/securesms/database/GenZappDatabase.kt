@@ -76,6 +76,9 @@ open class GenZappDatabase(private val context: Application, databaseSecret: Dat
   val nameCollisionTables: NameCollisionTables = NameCollisionTables(context, this)
   val inAppPaymentTable: InAppPaymentTable = InAppPaymentTable(context, this)
   val inAppPaymentSubscriberTable: InAppPaymentSubscriberTable = InAppPaymentSubscriberTable(context, this)
+  val groupUpdateRenderCacheTable: GroupUpdateRenderCacheTable = GroupUpdateRenderCacheTable(context, this)
+  val storageUsageTable: StorageUsageTable = StorageUsageTable(context, this)
+  val storyFeedTable: StoryFeedTable = StoryFeedTable(context, this)
 
   override fun onOpen(db: net.zetetic.database.sqlcipher.SQLiteDatabase) {
     db.setForeignKeyConstraintsEnabled(true)
@@ -89,7 +92,7 @@ open class GenZappDatabase(private val context: Application, databaseSecret: Dat
     db.execSQL(DraftTable.CREATE_TABLE)
     executeStatements(db, GroupTable.CREATE_TABLES)
     db.execSQL(RecipientTable.CREATE_TABLE)
-    db.execSQL(GroupReceiptTable.CREATE_TABLE)
+    executeStatements(db, GroupReceiptTable.CREATE_TABLE)
     db.execSQL(OneTimePreKeyTable.CREATE_TABLE)
     db.execSQL(SignedPreKeyTable.CREATE_TABLE)
     db.execSQL(SessionTable.CREATE_TABLE)
@@ -115,11 +118,14 @@ open class GenZappDatabase(private val context: Application, databaseSecret: Dat
     NameCollisionTables.createTables(db)
     db.execSQL(InAppPaymentTable.CREATE_TABLE)
     db.execSQL(InAppPaymentSubscriberTable.CREATE_TABLE)
+    executeStatements(db, GroupUpdateRenderCacheTable.CREATE_TABLE)
     executeStatements(db, SearchTable.CREATE_TABLE)
     executeStatements(db, RemappedRecordTables.CREATE_TABLE)
     executeStatements(db, MessageSendLogTables.CREATE_TABLE)
     executeStatements(db, NotificationProfileDatabase.CREATE_TABLE)
     executeStatements(db, DistributionListTables.CREATE_TABLE)
+    executeStatements(db, StorageUsageTable.CREATE_TABLE)
+    executeStatements(db, StoryFeedTable.CREATE_TABLE)
 
     executeStatements(db, RecipientTable.CREATE_INDEXS)
     executeStatements(db, MessageTable.CREATE_INDEXS)
@@ -144,6 +150,9 @@ open class GenZappDatabase(private val context: Application, databaseSecret: Dat
 
     executeStatements(db, SearchTable.CREATE_TRIGGERS)
     executeStatements(db, MessageSendLogTables.CREATE_TRIGGERS)
+    executeStatements(db, StorageUsageTable.CREATE_TRIGGERS)
+    executeStatements(db, StoryFeedTable.CREATE_TRIGGERS)
+    executeStatements(db, GroupUpdateRenderCacheTable.CREATE_TRIGGERS)
 
     NameCollisionTables.createIndexes(db)
 
@@ -288,10 +297,13 @@ open class GenZappDatabase(private val context: Application, databaseSecret: Dat
         try {
           instance!!.onUpgrade(database, database.getVersion(), -1)
           instance!!.markCurrent(database)
+          instance!!.threadTable.clearPendingPurges()
           instance!!.messageTable.deleteAbandonedMessages()
           instance!!.messageTable.trimEntriesForExpiredMessages()
           instance!!.reactionTable.deleteAbandonedReactions()
           instance!!.searchTable.fullyResetTables()
+          instance!!.storageUsageTable.reconcile()
+          instance!!.storyFeedTable.markAllDirty()
           instance!!.rawWritableDatabase.execSQL("DROP TABLE IF EXISTS key_value")
           instance!!.rawWritableDatabase.execSQL("DROP TABLE IF EXISTS megaphone")
           instance!!.rawWritableDatabase.execSQL("DROP TABLE IF EXISTS job_spec")
@@ -400,6 +412,11 @@ open class GenZappDatabase(private val context: Application, databaseSecret: Dat
     val groupReceipts: GroupReceiptTable
       get() = instance!!.groupReceiptTable
 
+    @get:JvmStatic
+    @get:JvmName("groupUpdateRenderCache")
+    val groupUpdateRenderCache: GroupUpdateRenderCacheTable
+      get() = instance!!.groupUpdateRenderCacheTable
+
     @get:JvmStatic
     @get:JvmName("groups")
     val groups: GroupTable
@@ -510,6 +527,16 @@ open class GenZappDatabase(private val context: Application, databaseSecret: Dat
     val stickers: StickerTable
       get() = instance!!.stickerTable
 
+    @get:JvmStatic
+    @get:JvmName("storageUsage")
+    val storageUsage: StorageUsageTable
+      get() = instance!!.storageUsageTable
+
+    @get:JvmStatic
+    @get:JvmName("storyFeed")
+    val storyFeed: StoryFeedTable
+      get() = instance!!.storyFeedTable
+
     @get:JvmStatic
     @get:JvmName("storySends")
     val storySends: StorySendTable
@@ -1,32 +1,50 @@
 package org.thoughtcrime.securesms.database
 
-import android.content.ContentValues
 import android.content.Context
 import android.database.Cursor
+import androidx.annotation.VisibleForTesting
 import androidx.core.content.contentValuesOf
 import org.GenZapp.core.util.SqlUtil
+import org.GenZapp.core.util.ThreadUtil
+import org.GenZapp.core.util.concurrent.GenZappExecutors
 import org.GenZapp.core.util.delete
 import org.GenZapp.core.util.deleteAll
 import org.GenZapp.core.util.forEach
+import org.GenZapp.core.util.insertInto
 import org.GenZapp.core.util.readToList
-import org.GenZapp.core.util.requireBoolean
-import org.GenZapp.core.util.requireInt
+import org.GenZapp.core.util.readToSingleObject
+import org.GenZapp.core.util.requireBlob
 import org.GenZapp.core.util.requireLong
 import org.GenZapp.core.util.select
 import org.GenZapp.core.util.update
 import org.GenZapp.core.util.withinTransaction
 import org.GenZapp.libGenZapp.protocol.util.Pair
 import org.thoughtcrime.securesms.recipients.RecipientId
+import java.nio.ByteBuffer
 
-class GroupReceiptTable(context: Context?, databaseHelper: GenZappDatabase?) : DatabaseTable(context, databaseHelper), RecipientIdDatabaseReference {
+/**
+ * Stores the per-member delivery status of outgoing group messages.
+ *
+ * Rather than a row per member per message, each message gets a single row holding packed status, timestamp, and sealed sender vectors. The vectors are
+ * indexed against a member list stored once in [MEMBERS_TABLE_NAME] and shared by every message sent to the same set of members, so a message to a
+ * 1000-member group costs one row instead of a thousand.
+ *
+ * Receipt updates (see [update]) arrive one at a time, so they're held in memory for a short while and applied in batches, with a single read and
+ * write per message. Anything that reads or rewrites receipts flushes the pending updates first, so callers never see stale data.
+ */
+class GroupReceiptTable(context: Context?, databaseHelper: GenZappDatabase?) : DatabaseTable(context, databaseHelper), ChunkedRecipientIdDatabaseReference {
   companion object {
     const val TABLE_NAME = "group_receipts"
-    private const val ID = "_id"
     const val MMS_ID = "mms_id"
-    const val RECIPIENT_ID = "address"
+    const val MEMBERS_ID = "members_id"
     const val STATUS = "status"
     const val TIMESTAMP = "timestamp"
     const val UNIDENTIFIED = "unidentified"
+
+    const val MEMBERS_TABLE_NAME = "group_receipt_members"
+    private const val ID = "_id"
+    const val MEMBERS = "members"
+
     const val STATUS_UNKNOWN = -1
     const val STATUS_UNDELIVERED = 0
     const val STATUS_DELIVERED = 1
@@ -34,103 +52,167 @@ class GroupReceiptTable(context: Context?, databaseHelper: GenZappDatabase?) : D
     const val STATUS_VIEWED = 3
     const val STATUS_SKIPPED = 4
 
-    const val CREATE_TABLE = """
+    /** How long a receipt update may sit in memory before it's written. */
+    private const val FLUSH_DELAY_MS = 500L
+
+    /** Once this many receipt updates are pending, they're written immediately rather than waiting for [FLUSH_DELAY_MS]. */
+    private const val MAX_PENDING_UPDATES = 1000
+
+    @JvmField
+    val CREATE_TABLE = arrayOf(
+      """
+      CREATE TABLE $MEMBERS_TABLE_NAME (
+        $ID INTEGER PRIMARY KEY,
+        $MEMBERS BLOB NOT NULL UNIQUE
+      )
+      """,
+      """
       CREATE TABLE $TABLE_NAME (
-        $ID INTEGER PRIMARY KEY, 
-        $MMS_ID INTEGER, 
-        $RECIPIENT_ID INTEGER, 
-        $STATUS INTEGER, 
-        $TIMESTAMP INTEGER, 
-        $UNIDENTIFIED INTEGER DEFAULT 0
+        $MMS_ID INTEGER PRIMARY KEY,
+        $MEMBERS_ID INTEGER NOT NULL REFERENCES $MEMBERS_TABLE_NAME ($ID),
+        $STATUS BLOB NOT NULL,
+        $TIMESTAMP BLOB NOT NULL,
+        $UNIDENTIFIED BLOB NOT NULL
       )
-    """
+      """
+    )
 
     @JvmField
     val CREATE_INDEXES = arrayOf(
-      "CREATE INDEX IF NOT EXISTS group_receipt_mms_id_index ON $TABLE_NAME ($MMS_ID);"
+      "CREATE INDEX IF NOT EXISTS group_receipt_members_id_index ON $TABLE_NAME ($MEMBERS_ID)"
     )
   }
 
+  private val flushExecutor = GenZappExecutors.newCachedSingleThreadExecutor("GenZapp-GroupReceipts", ThreadUtil.PRIORITY_BACKGROUND_THREAD)
+
+  private val pendingLock = Any()
+  private var pendingUpdates: MutableMap<Long, MutableList<PendingUpdate>> = LinkedHashMap()
+  private var pendingCount = 0
+  private var flushScheduled = false
+  private var flushInFlight = false
+
   fun insert(recipientIds: Collection<RecipientId>, mmsId: Long, status: Int, timestamp: Long) {
-    val contentValues: List<ContentValues> = recipientIds.map { recipientId ->
-      contentValuesOf(
-        MMS_ID to mmsId,
-        RECIPIENT_ID to recipientId.serialize(),
-        STATUS to status,
-        TIMESTAMP to timestamp
-      )
-    }
+    insert(mapOf(mmsId to recipientIds.map { GroupReceiptInfo(it, status, timestamp, false) }))
+  }
+
+  /**
+   * Adds receipts for a set of messages, appending to any receipts the messages already have.
+   */
+  fun insert(receiptsByMessage: Map<Long, List<GroupReceiptInfo>>) {
+    flushPendingUpdates()
 
-    val statements = SqlUtil.buildBulkInsert(TABLE_NAME, arrayOf(MMS_ID, RECIPIENT_ID, STATUS, TIMESTAMP), contentValues)
     writableDatabase.withinTransaction { db ->
-      statements.forEach { db.execSQL(it.where, it.whereArgs) }
+      for ((mmsId, infos) in receiptsByMessage) {
+        if (infos.isEmpty()) {
+          continue
+        }
+
+        val receipts = db.readReceipts(mmsId) ?: Receipts.empty()
+        for (info in infos) {
+          receipts.add(info)
+        }
+        db.writeReceipts(mmsId, receipts)
+      }
     }
   }
 
+  /**
+   * Raises the status of [recipientId]'s receipt for the message to [status], if it is currently lower. The write is batched with other receipt updates,
+   * but will be visible to every read on this table.
+   */
   fun update(recipientId: RecipientId, mmsId: Long, status: Int, timestamp: Long) {
-    writableDatabase
-      .update(TABLE_NAME)
-      .values(
-        STATUS to status,
-        TIMESTAMP to timestamp
-      )
-      .where("$MMS_ID = ? AND $RECIPIENT_ID = ? AND $STATUS < ?", mmsId.toString(), recipientId.serialize(), status.toString())
-      .run()
+    val flushNow: Boolean
+    val scheduleFlush: Boolean
+
+    synchronized(pendingLock) {
+      pendingUpdates.getOrPut(mmsId) { mutableListOf() } += PendingUpdate(recipientId.toLong(), status, timestamp)
+      pendingCount++
+
+      flushNow = pendingCount >= MAX_PENDING_UPDATES
+      scheduleFlush = !flushNow && !flushScheduled
+      if (scheduleFlush) {
+        flushScheduled = true
+      }
+    }
+
+    if (flushNow) {
+      flushPendingUpdates()
+    } else if (scheduleFlush) {
+      flushExecutor.execute {
+        ThreadUtil.sleep(FLUSH_DELAY_MS)
+        flushPendingUpdates()
+      }
+    }
   }
 
-  fun setUnidentified(results: Collection<Pair<RecipientId, Boolean>>, mmsId: Long) {
-    val mmsMatchPrefix = "$MMS_ID = $mmsId AND"
-    val unidentifiedQueries = SqlUtil.buildCollectionQuery(
-      column = RECIPIENT_ID,
-      values = results.filter { it.second() }.map { it.first().serialize() },
-      prefix = mmsMatchPrefix
-    )
-    val identifiedQueries = SqlUtil.buildCollectionQuery(
-      column = RECIPIENT_ID,
-      values = results.filterNot { it.second() }.map { it.first().serialize() },
-      prefix = mmsMatchPrefix
-    )
-    writableDatabase.withinTransaction { db ->
-      unidentifiedQueries.forEach {
-        db.update(TABLE_NAME)
-          .values(UNIDENTIFIED to 1)
-          .where(it.where, it.whereArgs)
-          .run()
+  /**
+   * Writes any receipt updates that are still being held in memory.
+   */
+  @VisibleForTesting
+  fun flushPendingUpdates() {
+    val hasPending = synchronized(pendingLock) { pendingCount > 0 || flushInFlight }
+    if (!hasPending) {
+      return
+    }
+
+    try {
+      writableDatabase.withinTransaction { db ->
+        // Taken inside the transaction so that anyone who sees an in-flight flush will block on our transaction rather than read around it.
+        val updates: Map<Long, List<PendingUpdate>> = synchronized(pendingLock) {
+          val taken = pendingUpdates
+          pendingUpdates = LinkedHashMap()
+          pendingCount = 0
+          flushScheduled = false
+          flushInFlight = taken.isNotEmpty()
+          taken
+        }
+
+        for ((mmsId, messageUpdates) in updates) {
+          val receipts = db.readReceipts(mmsId) ?: continue
+          var changed = false
+
+          for (update in messageUpdates) {
+            changed = receipts.raiseStatus(update.recipientId, update.status, update.timestamp) || changed
+          }
+
+          if (changed) {
+            db.writeReceipts(mmsId, receipts)
+          }
+        }
       }
+    } finally {
+      synchronized(pendingLock) { flushInFlight = false }
+    }
+  }
 
-      identifiedQueries.forEach {
-        db.update(TABLE_NAME)
-          .values(UNIDENTIFIED to 0)
-          .where(it.where, it.whereArgs)
-          .run()
+  fun setUnidentified(results: Collection<Pair<RecipientId, Boolean>>, mmsId: Long) {
+    flushPendingUpdates()
+
+    writableDatabase.withinTransaction { db ->
+      val receipts = db.readReceipts(mmsId) ?: return@withinTransaction
+      for (result in results) {
+        receipts.setUnidentified(result.first().toLong(), result.second())
       }
+      db.writeReceipts(mmsId, receipts)
     }
   }
 
   fun setSkipped(recipients: Collection<RecipientId>, mmsId: Long) {
-    val mmsMatchPrefix = "$MMS_ID = $mmsId AND"
-    val queries = SqlUtil.buildCollectionQuery(
-      column = RECIPIENT_ID,
-      values = recipients.map { it.serialize() },
-      prefix = mmsMatchPrefix
-    )
+    flushPendingUpdates()
+
     writableDatabase.withinTransaction { db ->
-      queries.forEach {
-        db.update(TABLE_NAME)
-          .values(STATUS to STATUS_SKIPPED)
-          .where(it.where, it.whereArgs)
-          .run()
+      val receipts = db.readReceipts(mmsId) ?: return@withinTransaction
+      for (recipient in recipients) {
+        receipts.setStatus(recipient.toLong(), STATUS_SKIPPED)
       }
+      db.writeReceipts(mmsId, receipts)
     }
   }
 
   fun getGroupReceiptInfo(mmsId: Long): List<GroupReceiptInfo> {
-    return readableDatabase
-      .select()
-      .from(TABLE_NAME)
-      .where("$MMS_ID = ?", mmsId)
-      .run()
-      .readToList { it.toGroupReceiptInfo() }
+    flushPendingUpdates()
+
+    return readableDatabase.readReceipts(mmsId)?.toGroupReceiptInfo() ?: emptyList()
   }
 
   fun getGroupReceiptInfoForMessages(ids: Set<Long>): Map<Long, List<GroupReceiptInfo>> {
@@ -138,20 +220,21 @@ class GroupReceiptTable(context: Context?, databaseHelper: GenZappDatabase?) : D
       return emptyMap()
     }
 
-    val messageIdsToGroupReceipts: MutableMap<Long, MutableList<GroupReceiptInfo>> = mutableMapOf()
+    flushPendingUpdates()
 
-    val args: List<Array<String>> = ids.map { SqlUtil.buildArgs(it) }
+    val messageIdsToGroupReceipts: MutableMap<Long, List<GroupReceiptInfo>> = mutableMapOf()
+    val members: MutableMap<Long, LongArray> = mutableMapOf()
 
-    SqlUtil.buildCustomCollectionQuery("$MMS_ID = ?", args).forEach { query ->
+    SqlUtil.buildCollectionQuery(MMS_ID, ids).forEach { query ->
       readableDatabase
-        .select()
+        .select(MMS_ID, MEMBERS_ID, STATUS, TIMESTAMP, UNIDENTIFIED)
         .from(TABLE_NAME)
         .where(query.where, query.whereArgs)
         .run()
         .forEach { cursor ->
-          val messageId = cursor.requireLong(MMS_ID)
-          val receipts = messageIdsToGroupReceipts.getOrPut(messageId) { mutableListOf() }
-          receipts += cursor.toGroupReceiptInfo()
+          val membersId = cursor.requireLong(MEMBERS_ID)
+          val memberIds = members.getOrPut(membersId) { readableDatabase.readMembers(membersId) }
+          messageIdsToGroupReceipts[cursor.requireLong(MMS_ID)] = cursor.toReceipts(membersId, memberIds).toGroupReceiptInfo()
         }
     }
 
@@ -159,40 +242,278 @@ class GroupReceiptTable(context: Context?, databaseHelper: GenZappDatabase?) : D
   }
 
   fun deleteRowsForMessage(mmsId: Long) {
+    synchronized(pendingLock) {
+      pendingUpdates.remove(mmsId)?.let { pendingCount -= it.size }
+    }
+
     writableDatabase
       .delete(TABLE_NAME)
       .where("$MMS_ID = ?", mmsId)
       .run()
   }
 
+  fun deleteRowsForMessages(mmsIds: Collection<Long>) {
+    synchronized(pendingLock) {
+      mmsIds.forEach { mmsId -> pendingUpdates.remove(mmsId)?.let { pendingCount -= it.size } }
+    }
+
+    writableDatabase.withinTransaction { db ->
+      for (query in SqlUtil.buildCollectionQuery(MMS_ID, mmsIds)) {
+        db.delete(TABLE_NAME)
+          .where(query.where, query.whereArgs)
+          .run()
+      }
+    }
+  }
+
   fun deleteAbandonedRows() {
-    writableDatabase
-      .delete(TABLE_NAME)
-      .where("$MMS_ID NOT IN (SELECT ${MessageTable.ID} FROM ${MessageTable.TABLE_NAME})")
-      .run()
+    flushPendingUpdates()
+
+    writableDatabase.withinTransaction { db ->
+      db.delete(TABLE_NAME)
+        .where("$MMS_ID NOT IN (SELECT ${MessageTable.ID} FROM ${MessageTable.TABLE_NAME})")
+        .run()
+
+      deleteAbandonedMembers(db)
+    }
   }
 
   fun deleteAllRows() {
-    writableDatabase.deleteAll(TABLE_NAME)
+    synchronized(pendingLock) {
+      pendingUpdates.clear()
+      pendingCount = 0
+    }
+
+    writableDatabase.withinTransaction { db ->
+      db.deleteAll(TABLE_NAME)
+      db.deleteAll(MEMBERS_TABLE_NAME)
+    }
   }
 
+  /**
+   * Member lists are shared between messages, so a remap rewrites each list containing [fromId] once. If the rewritten list matches one that already
+   * exists, the messages are pointed at the existing list instead.
+   */
   override fun remapRecipient(fromId: RecipientId, toId: RecipientId) {
-    writableDatabase
-      .update(TABLE_NAME)
-      .values(RECIPIENT_ID to toId.serialize())
-      .where("$RECIPIENT_ID = ?", fromId)
+    remapRecipientChunk(fromId, toId, Int.MAX_VALUE)
+  }
+
+  /**
+   * Does the work of [remapRecipient] for at most [limit] member lists.
+   */
+  override fun remapRecipientChunk(fromId: RecipientId, toId: RecipientId, limit: Int): Int {
+    flushPendingUpdates()
+
+    return writableDatabase.withinTransaction { db ->
+      val affected: List<kotlin.Pair<Long, LongArray>> = db
+        .select(ID, MEMBERS)
+        .from(MEMBERS_TABLE_NAME)
+        .run()
+        .readToList { it.requireLong(ID) to decodeMembers(it.requireBlob(MEMBERS)!!) }
+        .filter { (_, memberIds) -> memberIds.contains(fromId.toLong()) }
+        .take(limit)
+
+      for ((membersId, memberIds) in affected) {
+        val remapped = memberIds.map { if (it == fromId.toLong()) toId.toLong() else it }.toLongArray()
+        val existingId: Long? = db.findMembers(remapped)
+
+        if (existingId == null) {
+          db.update(MEMBERS_TABLE_NAME)
+            .values(MEMBERS to encodeMembers(remapped))
+            .where("$ID = ?", membersId)
+            .run()
+        } else {
+          db.update(TABLE_NAME)
+            .values(MEMBERS_ID to existingId)
+            .where("$MEMBERS_ID = ?", membersId)
+            .run()
+        }
+      }
+
+      db.deleteMembersIfUnused(affected.map { it.first })
+      affected.size
+    }
+  }
+
+  /**
+   * Removes every member list that no message points at. This scans the whole table, so it's only meant for periodic cleanup.
+   */
+  private fun deleteAbandonedMembers(db: SQLiteDatabase) {
+    db.delete(MEMBERS_TABLE_NAME)
+      .where("$ID NOT IN (SELECT $MEMBERS_ID FROM $TABLE_NAME)")
       .run()
   }
 
-  private fun Cursor.toGroupReceiptInfo(): GroupReceiptInfo {
-    return GroupReceiptInfo(
-      recipientId = RecipientId.from(this.requireLong(RECIPIENT_ID)),
-      status = this.requireInt(STATUS),
-      timestamp = this.requireLong(TIMESTAMP),
-      isUnidentified = this.requireBoolean(UNIDENTIFIED)
+  /**
+   * Removes the given member lists if no message points at them anymore. Each check is a lookup on the members_id index.
+   */
+  private fun SQLiteDatabase.deleteMembersIfUnused(membersIds: Collection<Long>) {
+    for (query in SqlUtil.buildCollectionQuery(ID, membersIds)) {
+      delete(MEMBERS_TABLE_NAME)
+        .where("${query.where} AND NOT EXISTS (SELECT 1 FROM $TABLE_NAME WHERE $TABLE_NAME.$MEMBERS_ID = $MEMBERS_TABLE_NAME.$ID)", query.whereArgs)
+        .run()
+    }
+  }
+
+  private fun SQLiteDatabase.readReceipts(mmsId: Long): Receipts? {
+    val receipts: Receipts = this
+      .select(MMS_ID, MEMBERS_ID, STATUS, TIMESTAMP, UNIDENTIFIED)
+      .from(TABLE_NAME)
+      .where("$MMS_ID = ?", mmsId)
+      .run()
+      .readToSingleObject { it.toReceipts(it.requireLong(MEMBERS_ID), LongArray(0)) } ?: return null
+
+    return receipts.withMembers(readMembers(receipts.membersId))
+  }
+
+  private fun SQLiteDatabase.readMembers(membersId: Long): LongArray {
+    return this
+      .select(MEMBERS)
+      .from(MEMBERS_TABLE_NAME)
+      .where("$ID = ?", membersId)
+      .run()
+      .readToSingleObject { decodeMembers(it.requireBlob(MEMBERS)!!) } ?: LongArray(0)
+  }
+
+  private fun SQLiteDatabase.findMembers(memberIds: LongArray): Long? {
+    return this
+      .select(ID)
+      .from(MEMBERS_TABLE_NAME)
+      .where("$MEMBERS = ?", encodeMembers(memberIds))
+      .run()
+      .readToSingleObject { it.requireLong(ID) }
+  }
+
+  private fun SQLiteDatabase.writeReceipts(mmsId: Long, receipts: Receipts) {
+    val membersId: Long = if (receipts.membersChanged) {
+      findMembers(receipts.members) ?: insertInto(MEMBERS_TABLE_NAME)
+        .values(MEMBERS to encodeMembers(receipts.members))
+        .run()
+    } else {
+      receipts.membersId
+    }
+
+    replace(
+      TABLE_NAME,
+      null,
+      contentValuesOf(
+        MMS_ID to mmsId,
+        MEMBERS_ID to membersId,
+        STATUS to receipts.statuses,
+        TIMESTAMP to encodeLongs(receipts.timestamps),
+        UNIDENTIFIED to receipts.unidentified
+      )
+    )
+
+    if (receipts.membersChanged && receipts.membersId > 0 && receipts.membersId != membersId) {
+      deleteMembersIfUnused(listOf(receipts.membersId))
+    }
+  }
+
+  private fun Cursor.toReceipts(membersId: Long, memberIds: LongArray): Receipts {
+    return Receipts(
+      membersId = membersId,
+      members = memberIds,
+      statuses = requireBlob(STATUS)!!,
+      timestamps = decodeLongs(requireBlob(TIMESTAMP)!!),
+      unidentified = requireBlob(UNIDENTIFIED)!!
     )
   }
 
+  private fun encodeMembers(memberIds: LongArray): ByteArray = encodeLongs(memberIds)
+
+  private fun decodeMembers(blob: ByteArray): LongArray = decodeLongs(blob)
+
+  private fun encodeLongs(values: LongArray): ByteArray {
+    val buffer = ByteBuffer.allocate(values.size * Long.SIZE_BYTES)
+    values.forEach { buffer.putLong(it) }
+    return buffer.array()
+  }
+
+  private fun decodeLongs(blob: ByteArray): LongArray {
+    val buffer = ByteBuffer.wrap(blob)
+    return LongArray(blob.size / Long.SIZE_BYTES) { buffer.getLong() }
+  }
+
+  /**
+   * The decoded receipts for a single message. Index i of each vector belongs to member i.
+   */
+  private class Receipts(
+    val membersId: Long,
+    members: LongArray,
+    statuses: ByteArray,
+    timestamps: LongArray,
+    unidentified: ByteArray
+  ) {
+    var members: LongArray = members
+      private set
+    var statuses: ByteArray = statuses
+      private set
+    var timestamps: LongArray = timestamps
+      private set
+    var unidentified: ByteArray = unidentified
+      private set
+    var membersChanged: Boolean = false
+      private set
+
+    companion object {
+      fun empty(): Receipts = Receipts(-1, LongArray(0), ByteArray(0), LongArray(0), ByteArray(0)).apply { membersChanged = true }
+    }
+
+    fun withMembers(members: LongArray): Receipts {
+      return Receipts(membersId, members, statuses, timestamps, unidentified)
+    }
+
+    fun add(info: GroupReceiptInfo) {
+      members += info.recipientId.toLong()
+      statuses += info.status.toByte()
+      timestamps += info.timestamp
+      unidentified += (if (info.isUnidentified) 1 else 0).toByte()
+      membersChanged = true
+    }
+
+    fun raiseStatus(recipientId: Long, status: Int, timestamp: Long): Boolean {
+      var changed = false
+      forEachIndex(recipientId) { i ->
+        if (statuses[i] < status) {
+          statuses[i] = status.toByte()
+          timestamps[i] = timestamp
+          changed = true
+        }
+      }
+      return changed
+    }
+
+    fun setStatus(recipientId: Long, status: Int) {
+      forEachIndex(recipientId) { i -> statuses[i] = status.toByte() }
+    }
+
+    fun setUnidentified(recipientId: Long, isUnidentified: Boolean) {
+      forEachIndex(recipientId) { i -> unidentified[i] = (if (isUnidentified) 1 else 0).toByte() }
+    }
+
+    fun toGroupReceiptInfo(): List<GroupReceiptInfo> {
+      return members.indices.map { i ->
+        GroupReceiptInfo(
+          recipientId = RecipientId.from(members[i]),
+          status = statuses[i].toInt(),
+          timestamp = timestamps[i],
+          isUnidentified = unidentified[i] != 0.toByte()
+        )
+      }
+    }
+
+    private inline fun forEachIndex(recipientId: Long, action: (Int) -> Unit) {
+      for (i in members.indices) {
+        if (members[i] == recipientId) {
+          action(i)
+        }
+      }
+    }
+  }
+
+  private class PendingUpdate(val recipientId: Long, val status: Int, val timestamp: Long)
+
   data class GroupReceiptInfo(
     val recipientId: RecipientId,
     val status: Int,
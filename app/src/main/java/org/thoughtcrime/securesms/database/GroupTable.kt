@@ -204,6 +204,38 @@ class GroupTable(context: Context?, databaseHelper: GenZappDatabase?) : Database
     return getGroup(SqlUtil.Query("$TABLE_NAME.$GROUP_ID = ?", buildArgs(groupId)))
   }
 
+  /**
+   * Reads the groups for many group recipients in a handful of queries, keyed by recipient ID. Recipients without a group are left out.
+   *
+   * Groups with remapped recipients in their membership go through [getGroup] instead, so that their membership is fixed up the same way.
+   */
+  fun getGroupsByRecipientId(recipientIds: Collection<RecipientId>): Map<RecipientId, GroupRecord> {
+    val groups: MutableMap<RecipientId, GroupRecord> = HashMap(recipientIds.size)
+    val needsRemap: MutableList<RecipientId> = mutableListOf()
+
+    for (query in buildCollectionQuery("$TABLE_NAME.$RECIPIENT_ID", recipientIds.map { it.serialize() })) {
+      readableDatabase.query("${joinedGroupSelect()} WHERE ${query.where}", query.whereArgs).use { cursor ->
+        val reader = Reader(cursor)
+
+        while (cursor.moveToNext()) {
+          val group = reader.getCurrent() ?: continue
+
+          if (RemappedRecords.getInstance().areAnyRemapped(group.members)) {
+            needsRemap += group.recipientId
+          } else {
+            groups[group.recipientId] = group
+          }
+        }
+      }
+    }
+
+    for (recipientId in needsRemap) {
+      getGroup(recipientId).ifPresent { groups[recipientId] = it }
+    }
+
+    return groups
+  }
+
   private fun getGroup(query: SqlUtil.Query): Optional<GroupRecord> {
     //language=sql
     val select = "${joinedGroupSelect()} WHERE ${query.where}"
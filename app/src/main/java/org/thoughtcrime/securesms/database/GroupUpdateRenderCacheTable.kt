@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import android.content.Context
+import androidx.annotation.WorkerThread
+import org.GenZapp.core.util.SqlUtil
+import org.GenZapp.core.util.delete
+import org.GenZapp.core.util.deleteAll
+import org.GenZapp.core.util.insertInto
+import org.GenZapp.core.util.readToList
+import org.GenZapp.core.util.requireInt
+import org.GenZapp.core.util.requireLong
+import org.GenZapp.core.util.requireNonNullString
+import org.GenZapp.core.util.select
+import org.GenZapp.core.util.withinTransaction
+import org.thoughtcrime.securesms.database.model.RenderedGroupUpdate
+
+/**
+ * Persists the final rendered text of group update messages, so that we don't have to decode the group change and re-run
+ * [org.thoughtcrime.securesms.database.model.GroupsV2UpdateMessageProducer] every time a large group's history is scrolled.
+ *
+ * Rows are keyed by message and by the locale + app version they were rendered with, since both the strings and the icon resources can change across
+ * either. Every recipient shown in a render gets a row in [RECIPIENT_TABLE_NAME]. Triggers on the recipient table use it to delete the affected renders
+ * whenever any column a recipient's display name is built from changes, or the recipient is removed, whichever path the write came from.
+ */
+class GroupUpdateRenderCacheTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper) {
+
+  companion object {
+    const val TABLE_NAME = "group_update_render_cache"
+    const val RECIPIENT_TABLE_NAME = "group_update_render_recipient"
+
+    private const val MESSAGE_ID = "message_id"
+    private const val LOCALE = "locale"
+    private const val APP_VERSION = "app_version"
+    private const val BODY = "body"
+    private const val ICON = "icon"
+    private const val SPANS = "spans"
+    private const val MENTIONED = "mentioned"
+
+    private const val RECIPIENT_ID = "recipient_id"
+
+    @JvmField
+    val CREATE_TABLE: Array<String> = arrayOf(
+      """
+      CREATE TABLE $TABLE_NAME (
+        $MESSAGE_ID INTEGER PRIMARY KEY REFERENCES ${MessageTable.TABLE_NAME} (${MessageTable.ID}) ON DELETE CASCADE,
+        $LOCALE TEXT NOT NULL,
+        $APP_VERSION INTEGER NOT NULL,
+        $BODY TEXT NOT NULL,
+        $ICON INTEGER NOT NULL,
+        $SPANS TEXT NOT NULL,
+        $MENTIONED TEXT NOT NULL
+      )
+      """,
+      """
+      CREATE TABLE $RECIPIENT_TABLE_NAME (
+        $RECIPIENT_ID INTEGER NOT NULL,
+        $MESSAGE_ID INTEGER NOT NULL REFERENCES $TABLE_NAME ($MESSAGE_ID) ON DELETE CASCADE,
+        PRIMARY KEY ($RECIPIENT_ID, $MESSAGE_ID)
+      )
+      """,
+      "CREATE INDEX group_update_render_recipient_message_index ON $RECIPIENT_TABLE_NAME ($MESSAGE_ID)"
+    )
+
+    /** Every recipient column that a display name can be built from. */
+    private val DISPLAY_COLUMNS = listOf(
+      RecipientTable.E164,
+      RecipientTable.ACI_COLUMN,
+      RecipientTable.PNI_COLUMN,
+      RecipientTable.USERNAME,
+      RecipientTable.EMAIL,
+      RecipientTable.PROFILE_GIVEN_NAME,
+      RecipientTable.PROFILE_FAMILY_NAME,
+      RecipientTable.PROFILE_JOINED_NAME,
+      RecipientTable.SYSTEM_GIVEN_NAME,
+      RecipientTable.SYSTEM_FAMILY_NAME,
+      RecipientTable.SYSTEM_JOINED_NAME,
+      RecipientTable.NICKNAME_GIVEN_NAME,
+      RecipientTable.NICKNAME_FAMILY_NAME,
+      RecipientTable.NICKNAME_JOINED_NAME
+    )
+
+    @JvmField
+    val CREATE_TRIGGERS: Array<String> = arrayOf(
+      """
+      CREATE TRIGGER group_update_render_recipient_update AFTER UPDATE OF ${DISPLAY_COLUMNS.joinToString()} ON ${RecipientTable.TABLE_NAME}
+      WHEN ${DISPLAY_COLUMNS.joinToString(separator = " OR ") { "old.$it IS NOT new.$it" }}
+      BEGIN
+        DELETE FROM $TABLE_NAME WHERE $MESSAGE_ID IN (SELECT $MESSAGE_ID FROM $RECIPIENT_TABLE_NAME WHERE $RECIPIENT_ID = new.${RecipientTable.ID});
+      END
+      """,
+      """
+      CREATE TRIGGER group_update_render_recipient_delete AFTER DELETE ON ${RecipientTable.TABLE_NAME}
+      BEGIN
+        DELETE FROM $TABLE_NAME WHERE $MESSAGE_ID IN (SELECT $MESSAGE_ID FROM $RECIPIENT_TABLE_NAME WHERE $RECIPIENT_ID = old.${RecipientTable.ID});
+      END
+      """
+    )
+  }
+
+  /**
+   * @return Rendered updates for any of the provided messages that were rendered with the given locale and app version.
+   */
+  @WorkerThread
+  fun getRendered(messageIds: Collection<Long>, locale: String, appVersion: Int): List<RenderedGroupUpdate> {
+    if (messageIds.isEmpty()) {
+      return emptyList()
+    }
+
+    return SqlUtil.buildCollectionQuery(MESSAGE_ID, messageIds).flatMap { query ->
+      readableDatabase
+        .select()
+        .from(TABLE_NAME)
+        .where("${query.where} AND $LOCALE = ? AND $APP_VERSION = ?", query.whereArgs + arrayOf(locale, appVersion.toString()))
+        .run()
+        .readToList { cursor ->
+          RenderedGroupUpdate(
+            messageId = cursor.requireLong(MESSAGE_ID),
+            locale = locale,
+            body = cursor.requireNonNullString(BODY),
+            iconResource = cursor.requireInt(ICON),
+            spans = RenderedGroupUpdate.deserializeSpans(cursor.requireNonNullString(SPANS)),
+            mentioned = RenderedGroupUpdate.deserializeMentioned(cursor.requireNonNullString(MENTIONED))
+          )
+        }
+    }
+  }
+
+  @WorkerThread
+  fun insert(updates: Collection<RenderedGroupUpdate>, appVersion: Int) {
+    if (updates.isEmpty()) {
+      return
+    }
+
+    writableDatabase.withinTransaction { db ->
+      for (update in updates) {
+        db.delete(RECIPIENT_TABLE_NAME)
+          .where("$MESSAGE_ID = ?", update.messageId)
+          .run()
+
+        db.insertInto(TABLE_NAME)
+          .values(
+            MESSAGE_ID to update.messageId,
+            LOCALE to update.locale,
+            APP_VERSION to appVersion,
+            BODY to update.body,
+            ICON to update.iconResource,
+            SPANS to RenderedGroupUpdate.serializeSpans(update.spans),
+            MENTIONED to RenderedGroupUpdate.serializeMentioned(update.mentioned)
+          )
+          .run(SQLiteDatabase.CONFLICT_REPLACE)
+
+        for (recipientId in update.spans.map { it.recipientId }.distinct()) {
+          db.insertInto(RECIPIENT_TABLE_NAME)
+            .values(
+              RECIPIENT_ID to recipientId.toLong(),
+              MESSAGE_ID to update.messageId
+            )
+            .run(SQLiteDatabase.CONFLICT_IGNORE)
+        }
+      }
+    }
+  }
+
+  @WorkerThread
+  fun clear() {
+    writableDatabase.withinTransaction { db ->
+      db.deleteAll(RECIPIENT_TABLE_NAME)
+      db.deleteAll(TABLE_NAME)
+    }
+  }
+}
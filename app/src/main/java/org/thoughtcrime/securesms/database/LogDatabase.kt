@@ -2,12 +2,11 @@ package org.thoughtcrime.securesms.database
 
 import android.annotation.SuppressLint
 import android.app.Application
-import android.database.Cursor
 import net.zetetic.database.sqlcipher.SQLiteDatabase
 import net.zetetic.database.sqlcipher.SQLiteOpenHelper
-import org.GenZapp.core.util.CursorUtil
 import org.GenZapp.core.util.SqlUtil
 import org.GenZapp.core.util.Stopwatch
+import org.GenZapp.core.util.count
 import org.GenZapp.core.util.delete
 import org.GenZapp.core.util.deleteAll
 import org.GenZapp.core.util.exists
@@ -17,6 +16,7 @@ import org.GenZapp.core.util.logging.Log
 import org.GenZapp.core.util.mebiBytes
 import org.GenZapp.core.util.readToList
 import org.GenZapp.core.util.readToSingleInt
+import org.GenZapp.core.util.readToSingleLong
 import org.GenZapp.core.util.requireLong
 import org.GenZapp.core.util.requireNonNullString
 import org.GenZapp.core.util.select
@@ -26,6 +26,7 @@ import org.thoughtcrime.securesms.crash.CrashConfig
 import org.thoughtcrime.securesms.crypto.DatabaseSecret
 import org.thoughtcrime.securesms.crypto.DatabaseSecretProvider
 import org.thoughtcrime.securesms.database.model.LogEntry
+import org.thoughtcrime.securesms.util.ByteUnit
 import java.io.Closeable
 import kotlin.math.abs
 import kotlin.time.Duration.Companion.days
@@ -153,6 +154,7 @@ class LogDatabase private constructor(
       )
 
       val MAX_FILE_SIZE = 20L.mebiBytes.inWholeBytes
+      const val PAGE_SIZE = 1000
       val DEFAULT_LIFESPAN = 3.days.inWholeMilliseconds
       val LONGER_LIFESPAN = 21.days.inWholeMilliseconds
     }
@@ -180,12 +182,38 @@ class LogDatabase private constructor(
     }
 
     fun getAllBeforeTime(time: Long): Reader {
-      return readableDatabase
-        .select(BODY)
+      return PagedReader(readableDatabase, time, startId = 0)
+    }
+
+    /**
+     * Like [getAllBeforeTime], but skips the oldest logs so that what's read adds up to at most [maxSize]. If any are skipped, the first line read says how
+     * many.
+     */
+    fun getTailBeforeTime(time: Long, maxSize: Long): Reader {
+      val startId = readableDatabase
+        .rawQuery(
+          """
+          SELECT IFNULL(MIN($ID), ${Long.MAX_VALUE}) FROM (
+            SELECT $ID, SUM($SIZE) OVER (ORDER BY $ID DESC) AS tail_size
+            FROM $TABLE_NAME
+            WHERE $CREATED_AT < ?
+          )
+          WHERE tail_size <= ?
+          """,
+          SqlUtil.buildArgs(time, maxSize)
+        )
+        .readToSingleLong(Long.MAX_VALUE)
+
+      val skipped = readableDatabase
+        .count()
         .from(TABLE_NAME)
-        .where("$CREATED_AT < $time")
+        .where("$ID < ? AND $CREATED_AT < ?", startId, time)
         .run()
-        .toReader()
+        .readToSingleLong(0)
+
+      val header = if (skipped > 0) "[Skipped the oldest $skipped log lines to keep this under ${ByteUnit.BYTES.toMegabytes(maxSize)} MiB]" else null
+
+      return PagedReader(readableDatabase, time, startId, header)
     }
 
     fun getRangeBeforeTime(start: Int, length: Int, time: Long): List<String> {
@@ -282,24 +310,67 @@ class LogDatabase private constructor(
       }
     }
 
-    private fun Cursor.toReader(): CursorReader {
-      return CursorReader(this)
-    }
-
     interface Reader : Iterator<String>, Closeable
 
-    class CursorReader(private val cursor: Cursor) : Reader {
+    /**
+     * Reads logs in pages of [PAGE_SIZE] rows, keyed off the last ID read, so a large log never has more than one page in memory or open in a cursor.
+     */
+    private class PagedReader(
+      private val db: SQLiteDatabase,
+      private val time: Long,
+      startId: Long,
+      private var header: String? = null
+    ) : Reader {
+
+      private var lastId = startId - 1
+      private var page: List<Pair<Long, String>> = emptyList()
+      private var index = 0
+      private var exhausted = false
+
       override fun hasNext(): Boolean {
-        return !cursor.isLast && cursor.count > 0
+        if (header != null || index < page.size) {
+          return true
+        }
+
+        if (exhausted) {
+          return false
+        }
+
+        page = db
+          .select(ID, BODY)
+          .from(TABLE_NAME)
+          .where("$ID > ? AND $CREATED_AT < ?", lastId, time)
+          .orderBy("$ID ASC")
+          .limit(PAGE_SIZE)
+          .run()
+          .readToList { it.requireLong(ID) to it.requireNonNullString(BODY) }
+
+        index = 0
+        exhausted = page.size < PAGE_SIZE
+
+        return page.isNotEmpty()
       }
 
       override fun next(): String {
-        cursor.moveToNext()
-        return CursorUtil.requireString(cursor, LogTable.BODY)
+        if (!hasNext()) {
+          throw NoSuchElementException()
+        }
+
+        header?.let {
+          header = null
+          return it
+        }
+
+        val (id, body) = page[index++]
+        lastId = id
+
+        return body
       }
 
       override fun close() {
-        cursor.close()
+        header = null
+        page = emptyList()
+        exhausted = true
       }
     }
   }
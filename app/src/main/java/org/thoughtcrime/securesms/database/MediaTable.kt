@@ -4,13 +4,9 @@ import android.annotation.SuppressLint
 import android.content.Context
 import android.database.Cursor
 import androidx.compose.runtime.Immutable
-import org.GenZapp.core.util.requireInt
 import org.GenZapp.core.util.requireLong
-import org.GenZapp.core.util.requireNonNullString
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment
 import org.thoughtcrime.securesms.recipients.RecipientId
-import org.thoughtcrime.securesms.util.MediaUtil
-import org.thoughtcrime.securesms.util.MediaUtil.SlideType
 import org.thoughtcrime.securesms.util.RemoteConfig
 
 @SuppressLint("RecipientIdDatabaseReferenceUsage", "ThreadIdDatabaseReferenceUsage") // Not a real table, just a view
@@ -85,18 +81,6 @@ class MediaTable internal constructor(context: Context?, databaseHelper: GenZapp
         $THREAD_RECIPIENT_ID > 0
       """
 
-    private val UNIQUE_MEDIA_QUERY = """
-        SELECT 
-          MAX(${AttachmentTable.DATA_SIZE}) as ${AttachmentTable.DATA_SIZE}, 
-          ${AttachmentTable.CONTENT_TYPE} 
-        FROM 
-          ${AttachmentTable.TABLE_NAME} 
-        WHERE 
-          ${AttachmentTable.STICKER_PACK_ID} IS NULL AND 
-          ${AttachmentTable.TRANSFER_STATE} = ${AttachmentTable.TRANSFER_PROGRESS_DONE} 
-        GROUP BY ${AttachmentTable.DATA_FILE}
-      """
-
     private val GALLERY_MEDIA_QUERY = String.format(
       BASE_MEDIA_QUERY,
       """
@@ -197,44 +181,11 @@ class MediaTable internal constructor(context: Context?, databaseHelper: GenZapp
     return readableDatabase.rawQuery(query, args)
   }
 
+  /**
+   * Reads the materialized totals kept by [StorageUsageTable], so this is cheap enough to call whenever a storage screen is shown.
+   */
   fun getStorageBreakdown(): StorageBreakdown {
-    var photoSize: Long = 0
-    var videoSize: Long = 0
-    var audioSize: Long = 0
-    var documentSize: Long = 0
-
-    readableDatabase.rawQuery(UNIQUE_MEDIA_QUERY, null).use { cursor ->
-      while (cursor.moveToNext()) {
-        val size: Int = cursor.requireInt(AttachmentTable.DATA_SIZE)
-        val type: String = cursor.requireNonNullString(AttachmentTable.CONTENT_TYPE)
-
-        when (MediaUtil.getSlideTypeFromContentType(type)) {
-          SlideType.GIF,
-          SlideType.IMAGE,
-          SlideType.MMS -> {
-            photoSize += size.toLong()
-          }
-          SlideType.VIDEO -> {
-            videoSize += size.toLong()
-          }
-          SlideType.AUDIO -> {
-            audioSize += size.toLong()
-          }
-          SlideType.LONG_TEXT,
-          SlideType.DOCUMENT -> {
-            documentSize += size.toLong()
-          }
-          else -> {}
-        }
-      }
-    }
-
-    return StorageBreakdown(
-      photoSize = photoSize,
-      videoSize = videoSize,
-      audioSize = audioSize,
-      documentSize = documentSize
-    )
+    return GenZappDatabase.storageUsage.getStorageBreakdown()
   }
 
   data class MediaRecord constructor(
@@ -322,6 +273,10 @@ class MediaTable internal constructor(context: Context?, databaseHelper: GenZapp
     val photoSize: Long,
     val videoSize: Long,
     val audioSize: Long,
-    val documentSize: Long
+    val documentSize: Long,
+    val photoCount: Int,
+    val videoCount: Int,
+    val audioCount: Int,
+    val documentCount: Int
   )
 }
@@ -1,9 +1,10 @@
 package org.thoughtcrime.securesms.database
 
 import android.content.Context
-import android.database.Cursor
+import org.GenZapp.core.util.SqlUtil
 import org.GenZapp.core.util.delete
 import org.GenZapp.core.util.deleteAll
+import org.GenZapp.core.util.forEach
 import org.GenZapp.core.util.insertInto
 import org.GenZapp.core.util.readToList
 import org.GenZapp.core.util.requireInt
@@ -14,7 +15,7 @@ import org.GenZapp.core.util.withinTransaction
 import org.thoughtcrime.securesms.database.model.Mention
 import org.thoughtcrime.securesms.recipients.RecipientId
 
-class MentionTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper), RecipientIdDatabaseReference, ThreadIdDatabaseReference {
+class MentionTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper), ChunkedRecipientIdDatabaseReference, ThreadIdDatabaseReference {
 
   companion object {
     const val TABLE_NAME = "mention"
@@ -37,11 +38,13 @@ class MentionTable(context: Context, databaseHelper: GenZappDatabase) : Database
     """
 
     private const val MESSAGE_ID_INDEX = "mention_message_id_index"
-    private const val RECIPIENT_ID_INDEX = "mention_recipient_id_thread_id_index "
+    private const val RECIPIENT_ID_INDEX = "mention_recipient_id_thread_id_message_id_index"
+    private const val RECIPIENT_ID_MESSAGE_ID_INDEX = "mention_recipient_id_message_id_index"
 
     val CREATE_INDEXES = arrayOf(
       "CREATE INDEX IF NOT EXISTS $MESSAGE_ID_INDEX ON $TABLE_NAME ($MESSAGE_ID);",
-      "CREATE INDEX IF NOT EXISTS $RECIPIENT_ID_INDEX ON $TABLE_NAME ($RECIPIENT_ID, $THREAD_ID);"
+      "CREATE INDEX IF NOT EXISTS $RECIPIENT_ID_INDEX ON $TABLE_NAME ($RECIPIENT_ID, $THREAD_ID, $MESSAGE_ID);",
+      "CREATE INDEX IF NOT EXISTS $RECIPIENT_ID_MESSAGE_ID_INDEX ON $TABLE_NAME ($RECIPIENT_ID, $MESSAGE_ID);"
     )
   }
 
@@ -77,43 +80,75 @@ class MentionTable(context: Context, databaseHelper: GenZappDatabase) : Database
   }
 
   fun getMentionsForMessages(messageIds: Collection<Long>): Map<Long, List<Mention>> {
-    val ids = messageIds.joinToString(separator = ",") { it.toString() }
+    val mentions: MutableMap<Long, MutableList<Mention>> = mutableMapOf()
 
-    return readableDatabase
+    for (query in SqlUtil.buildCollectionQuery(MESSAGE_ID, messageIds)) {
+      getMentionsForMessages(query) { messageId, mention -> mentions.getOrPut(messageId) { mutableListOf() } += mention }
+    }
+
+    return mentions
+  }
+
+  /**
+   * Reads the mentions in the messages matched by [query], a query on [MESSAGE_ID], handing each one to [consumer] as it's read.
+   */
+  fun getMentionsForMessages(query: SqlUtil.Query, consumer: (Long, Mention) -> Unit) {
+    readableDatabase
       .select()
       .from("$TABLE_NAME INDEXED BY $MESSAGE_ID_INDEX")
-      .where("$MESSAGE_ID IN ($ids)")
+      .where(query.where, query.whereArgs)
       .run()
-      .use { cursor -> readMentions(cursor) }
+      .forEach { cursor ->
+        consumer(
+          cursor.requireLong(MESSAGE_ID),
+          Mention(RecipientId.from(cursor.requireLong(RECIPIENT_ID)), cursor.requireInt(RANGE_START), cursor.requireInt(RANGE_LENGTH))
+        )
+      }
   }
 
   fun getMentionsContainingRecipients(recipientIds: Collection<RecipientId>, limit: Long): Map<Long, List<Mention>> {
     return getMentionsContainingRecipients(recipientIds, -1, limit)
   }
 
+  /**
+   * Finds the most recent [limit] messages that mention any of [recipientIds], optionally restricted to a thread, and returns all mentions in them.
+   *
+   * Each recipient is looked up separately so that every query can walk its index backwards and stop after [limit] rows, rather than collecting
+   * every mention of every recipient and sorting them. The per-recipient results are then merged, which is cheap since there are at most
+   * `recipientIds.size * limit` of them.
+   */
   fun getMentionsContainingRecipients(recipientIds: Collection<RecipientId>, threadId: Long, limit: Long): Map<Long, List<Mention>> {
-    val ids = recipientIds.joinToString(separator = ",") { it.serialize() }
+    val messageIds: List<Long> = recipientIds
+      .flatMap { getMessageIdsMentioningRecipient(it, threadId, limit) }
+      .distinct()
+      .sortedDescending()
+      .take(limit.toInt())
+
+    if (messageIds.isEmpty()) {
+      return emptyMap()
+    }
 
-    var where = "$RECIPIENT_ID IN ($ids)"
-    if (threadId != -1L) {
-      where += " AND $THREAD_ID = $threadId"
+    return getMentionsForMessages(messageIds)
+  }
+
+  private fun getMessageIdsMentioningRecipient(recipientId: RecipientId, threadId: Long, limit: Long): List<Long> {
+    val query = if (threadId != -1L) {
+      readableDatabase
+        .select("DISTINCT $MESSAGE_ID")
+        .from("$TABLE_NAME INDEXED BY $RECIPIENT_ID_INDEX")
+        .where("$RECIPIENT_ID = ? AND $THREAD_ID = ?", recipientId, threadId)
+    } else {
+      readableDatabase
+        .select("DISTINCT $MESSAGE_ID")
+        .from("$TABLE_NAME INDEXED BY $RECIPIENT_ID_MESSAGE_ID_INDEX")
+        .where("$RECIPIENT_ID = ?", recipientId)
     }
 
-    return readableDatabase
-      .select()
-      .from("$TABLE_NAME INDEXED BY $MESSAGE_ID_INDEX")
-      .where(
-        """
-        $MESSAGE_ID IN (
-          SELECT DISTINCT $MESSAGE_ID
-          FROM $TABLE_NAME
-          WHERE $where
-          ORDER BY $ID DESC LIMIT $limit
-        )
-      """
-      )
+    return query
+      .orderBy("$MESSAGE_ID DESC")
+      .limit(limit.toInt())
       .run()
-      .use { cursor -> readMentions(cursor) }
+      .readToList { it.requireLong(MESSAGE_ID) }
   }
 
   fun deleteMentionsForMessage(messageId: Long) {
@@ -123,6 +158,16 @@ class MentionTable(context: Context, databaseHelper: GenZappDatabase) : Database
       .run()
   }
 
+  fun deleteMentionsForMessages(messageIds: Collection<Long>) {
+    writableDatabase.withinTransaction { db ->
+      for (query in SqlUtil.buildCollectionQuery(MESSAGE_ID, messageIds)) {
+        db.delete("$TABLE_NAME INDEXED BY $MESSAGE_ID_INDEX")
+          .where(query.where, query.whereArgs)
+          .run()
+      }
+    }
+  }
+
   fun deleteAbandonedMentions() {
     writableDatabase
       .delete("$TABLE_NAME INDEXED BY $MESSAGE_ID_INDEX")
@@ -146,19 +191,6 @@ class MentionTable(context: Context, databaseHelper: GenZappDatabase) : Database
     writableDatabase.deleteAll(TABLE_NAME)
   }
 
-  private fun readMentions(cursor: Cursor): Map<Long, List<Mention>> {
-    return cursor.readToList {
-      val messageId = it.requireLong(MESSAGE_ID)
-      val mention = Mention(
-        RecipientId.from(it.requireLong(RECIPIENT_ID)),
-        it.requireInt(RANGE_START),
-        it.requireInt(RANGE_LENGTH)
-      )
-
-      messageId to mention
-    }.groupBy({ it.first }, { it.second })
-  }
-
   override fun remapRecipient(fromId: RecipientId, toId: RecipientId) {
     writableDatabase
       .update("$TABLE_NAME INDEXED BY $RECIPIENT_ID_INDEX")
@@ -167,6 +199,14 @@ class MentionTable(context: Context, databaseHelper: GenZappDatabase) : Database
       .run()
   }
 
+  override fun remapRecipientChunk(fromId: RecipientId, toId: RecipientId, limit: Int): Int {
+    return writableDatabase
+      .update(TABLE_NAME)
+      .values(RECIPIENT_ID to toId.serialize())
+      .where("$ID IN (SELECT $ID FROM $TABLE_NAME INDEXED BY $RECIPIENT_ID_INDEX WHERE $RECIPIENT_ID = ? LIMIT $limit)", fromId)
+      .run()
+  }
+
   override fun remapThread(fromId: Long, toId: Long) {
     writableDatabase
       .update("$TABLE_NAME INDEXED BY $RECIPIENT_ID_INDEX")
@@ -5,12 +5,12 @@ import android.content.Context
 import android.database.sqlite.SQLiteConstraintException
 import org.GenZapp.core.util.CursorUtil
 import org.GenZapp.core.util.SqlUtil
+import org.GenZapp.core.util.concurrent.GenZappExecutors
 import org.GenZapp.core.util.delete
 import org.GenZapp.core.util.logging.Log
-import org.GenZapp.core.util.readToList
 import org.GenZapp.core.util.requireBoolean
-import org.GenZapp.core.util.requireLong
 import org.GenZapp.core.util.toInt
+import org.GenZapp.core.util.withinTransaction
 import org.thoughtcrime.securesms.database.model.MessageId
 import org.thoughtcrime.securesms.database.model.MessageLogEntry
 import org.thoughtcrime.securesms.recipients.Recipient
@@ -19,7 +19,9 @@ import org.thoughtcrime.securesms.util.RecipientAccessList
 import org.thoughtcrime.securesms.util.RemoteConfig
 import org.whispersystems.GenZappservice.api.crypto.ContentHint
 import org.whispersystems.GenZappservice.api.messages.SendMessageResult
+import org.whispersystems.GenZappservice.api.push.GenZappServiceAddress
 import org.whispersystems.GenZappservice.internal.push.Content
+import kotlin.time.Duration.Companion.hours
 
 /**
  * Stores a rolling buffer of all outgoing messages. Used for the retry logic required for sender key.
@@ -32,20 +34,21 @@ import org.whispersystems.GenZappservice.internal.push.Content
  * The general lifecycle of entries in the store goes something like this:
  * - Upon sending a message, put an entry in the 'payload table', an entry for each recipient you sent it to in the 'recipient table', and an entry for each
  *   related message in the 'message table'
- * - Whenever you get a delivery receipt, delete the entries in the 'recipient table'
- * - Whenever there's no more records in the 'recipient table' for a given message, delete the entry in the 'message table'
+ * - Whenever you get a delivery receipt, queue up a delete of the entries in the 'recipient table'. Queued deletes are flushed together in one transaction.
+ * - Whenever there's no more records in the 'recipient table' for a given payload, delete the entry in the 'payload table'. Each payload keeps a count of
+ *   its remaining recipients so we don't have to scan for orphans.
  * - Whenever you delete a message, delete the relevant entries from the 'payload table'
- * - Whenever you read an entry from the table, first trim off all the entries that are too old
+ * - Every so often, trim off all the entries that are too old. Reads ignore entries that are too old regardless.
  *
  * Because of all of this, you can be sure that if an entry is in this store, it's safe to resend to someone upon request
  *
- * Worth noting that we use triggers + foreign keys to make sure entries in this table are properly cleaned up. Triggers for when you delete a message, and
- * cascading delete foreign keys between these three tables.
+ * Worth noting that we use triggers + foreign keys to make sure entries in this table are properly cleaned up. Triggers for when you delete a message or the
+ * last recipient of a payload, and cascading delete foreign keys between these three tables.
  *
  * Performance considerations:
  * - The most common operations by far are:
  *    - Inserting into the table
- *    - Deleting a recipient (in response to a delivery receipt)
+ *    - Deleting a recipient (in response to a delivery receipt), which tends to happen in large bursts after sending to a big group
  * - We should also optimize for when we delete messages from the sms/mms tables, since you can delete a bunch at once
  * - We *don't* really need to optimize for retrieval, since that happens very infrequently. In particular, we don't want to slow down inserts in order to
  *   improve retrieval time. That means we shouldn't be adding indexes that optimize for retrieval.
@@ -55,6 +58,12 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
   companion object {
     private val TAG = Log.tag(MessageSendLogTables::class.java)
 
+    /** Once this many recipient devices have deletes queued up, we flush right away rather than waiting for the scheduled flush. */
+    private const val MAX_PENDING_DELETES = 500
+
+    /** How often we bother trimming old entries. Reads filter out old entries on their own, so this is only about reclaiming space. */
+    private val TRIM_INTERVAL = 1.hours.inWholeMilliseconds
+
     @JvmField
     val CREATE_TABLE: Array<String> = arrayOf(MslPayloadTable.CREATE_TABLE, MslRecipientTable.CREATE_TABLE, MslMessageTable.CREATE_TABLE)
 
@@ -62,7 +71,7 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
     val CREATE_INDEXES: Array<String> = MslPayloadTable.CREATE_INDEXES + MslRecipientTable.CREATE_INDEXES + MslMessageTable.CREATE_INDEXES
 
     @JvmField
-    val CREATE_TRIGGERS: Array<String> = MslPayloadTable.CREATE_TRIGGERS
+    val CREATE_TRIGGERS: Array<String> = MslPayloadTable.CREATE_TRIGGERS + MslRecipientTable.CREATE_TRIGGERS
   }
 
   private object MslPayloadTable {
@@ -73,6 +82,7 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
     const val CONTENT = "content"
     const val CONTENT_HINT = "content_hint"
     const val URGENT = "urgent"
+    const val REMAINING_RECIPIENTS = "remaining_recipients"
 
     const val CREATE_TABLE = """
       CREATE TABLE $TABLE_NAME (
@@ -80,11 +90,12 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
         $DATE_SENT INTEGER NOT NULL,
         $CONTENT BLOB NOT NULL,
         $CONTENT_HINT INTEGER NOT NULL,
-        $URGENT INTEGER NOT NULL DEFAULT 1
+        $URGENT INTEGER NOT NULL DEFAULT 1,
+        $REMAINING_RECIPIENTS INTEGER NOT NULL DEFAULT 0
       )
     """
 
-    /** Created for [deleteEntriesForRecipient] */
+    /** Created for [flushPendingDeletes] and [getLogEntry] */
     val CREATE_INDEXES = arrayOf(
       "CREATE INDEX msl_payload_date_sent_index ON $TABLE_NAME ($DATE_SENT)"
     )
@@ -122,11 +133,22 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
       )
     """
 
-    /** Created for [deleteEntriesForRecipient] */
+    /** Created for [flushPendingDeletes] */
     val CREATE_INDEXES = arrayOf(
       "CREATE INDEX msl_recipient_recipient_index ON $TABLE_NAME ($RECIPIENT_ID, $DEVICE, $PAYLOAD_ID)",
       "CREATE INDEX msl_recipient_payload_index ON $TABLE_NAME ($PAYLOAD_ID)"
     )
+
+    /** Keeps [MslPayloadTable.REMAINING_RECIPIENTS] up to date, and deletes the payload once nobody is left to resend it to. */
+    val CREATE_TRIGGERS = arrayOf(
+      """
+        CREATE TRIGGER msl_recipient_delete AFTER DELETE ON $TABLE_NAME
+        BEGIN
+          UPDATE ${MslPayloadTable.TABLE_NAME} SET ${MslPayloadTable.REMAINING_RECIPIENTS} = ${MslPayloadTable.REMAINING_RECIPIENTS} - 1 WHERE ${MslPayloadTable.ID} = old.$PAYLOAD_ID;
+          DELETE FROM ${MslPayloadTable.TABLE_NAME} WHERE ${MslPayloadTable.ID} = old.$PAYLOAD_ID AND ${MslPayloadTable.REMAINING_RECIPIENTS} <= 0;
+        END
+      """
+    )
   }
 
   private object MslMessageTable {
@@ -151,6 +173,14 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
     )
   }
 
+  /** Delivery receipt deletes that haven't been written yet, keyed by the recipient device that sent the receipt. */
+  private val pendingDeletes: MutableMap<PendingDelete, MutableSet<Long>> = LinkedHashMap()
+  private var pendingDeleteCount = 0
+  private var flushScheduled = false
+
+  @Volatile
+  private var lastTrimTime = 0L
+
   /** @return The ID of the inserted entry, or -1 if none was inserted. Can be used with [addRecipientToExistingEntryIfPossible] */
   fun insertIfPossible(recipientId: RecipientId, sentTimestamp: Long, sendMessageResult: SendMessageResult, contentHint: ContentHint, messageId: MessageId, urgent: Boolean): Long {
     if (!RemoteConfig.retryReceipts) return -1
@@ -205,6 +235,8 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
 
       db.beginTransaction()
       try {
+        var inserted = 0
+
         sendMessageResult.success.devices.forEach { device ->
           val recipientValues = ContentValues().apply {
             put(MslRecipientTable.PAYLOAD_ID, payloadId)
@@ -212,9 +244,24 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
             put(MslRecipientTable.DEVICE, device)
           }
 
-          db.insert(MslRecipientTable.TABLE_NAME, null, recipientValues)
+          if (db.insert(MslRecipientTable.TABLE_NAME, null, recipientValues) != -1L) {
+            inserted++
+          }
+        }
+
+        if (inserted == 0 && sendMessageResult.success.devices.isNotEmpty()) {
+          Log.w(TAG, "Failed to append to existing entry. Creating a new one.")
+          val newPayloadId = insertIfPossible(recipientId, sentTimestamp, sendMessageResult, contentHint, messageId, urgent)
+          db.setTransactionSuccessful()
+          return newPayloadId
         }
 
+        // Only count the rows that actually made it in, or the payload would never reach zero and be cleaned up
+        db.execSQL(
+          "UPDATE ${MslPayloadTable.TABLE_NAME} SET ${MslPayloadTable.REMAINING_RECIPIENTS} = ${MslPayloadTable.REMAINING_RECIPIENTS} + ? WHERE ${MslPayloadTable.ID} = ?",
+          SqlUtil.buildArgs(inserted, payloadId)
+        )
+
         db.setTransactionSuccessful()
       } catch (e: SQLiteConstraintException) {
         Log.w(TAG, "Failed to append to existing entry. Creating a new one.")
@@ -229,6 +276,52 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
     return payloadId
   }
 
+  /**
+   * Writes a batch of results from the same send. It's the same as calling [insertIfPossible] for the first successful result and
+   * [addRecipientToExistingEntryIfPossible] for the rest, but it uses a single transaction.
+   *
+   * @param payloadId The ID returned by a previous call for this send, or -1 if nothing has been written for it yet.
+   * @return The ID of the entry the results were written to, or -1 if none was inserted.
+   */
+  fun insertOrAddRecipientsIfPossible(
+    payloadId: Long,
+    sentTimestamp: Long,
+    results: List<SendMessageResult>,
+    recipientIdForAddress: (GenZappServiceAddress) -> RecipientId,
+    contentHint: ContentHint,
+    messageId: MessageId,
+    urgent: Boolean
+  ): Long {
+    if (!RemoteConfig.retryReceipts) return payloadId
+
+    val successes = results.filter { it.isSuccess && it.success.content.isPresent }
+    if (successes.isEmpty()) {
+      return payloadId
+    }
+
+    val recipientDevices = successes.map { RecipientDevice(recipientIdForAddress(it.address), it.success.devices) }
+
+    if (payloadId == -1L) {
+      return insert(recipientDevices, sentTimestamp, successes.first().success.content.get(), contentHint, listOf(messageId), urgent)
+    }
+
+    return writableDatabase.withinTransaction { db ->
+      try {
+        insertRecipients(db, payloadId, recipientDevices)
+
+        db.execSQL(
+          "UPDATE ${MslPayloadTable.TABLE_NAME} SET ${MslPayloadTable.REMAINING_RECIPIENTS} = ${MslPayloadTable.REMAINING_RECIPIENTS} + ? WHERE ${MslPayloadTable.ID} = ?",
+          SqlUtil.buildArgs(recipientDevices.sumOf { it.devices.size }, payloadId)
+        )
+
+        payloadId
+      } catch (e: SQLiteConstraintException) {
+        Log.w(TAG, "Failed to append to existing entry. Creating a new one.")
+        insert(recipientDevices, sentTimestamp, successes.first().success.content.get(), contentHint, listOf(messageId), urgent)
+      }
+    }
+  }
+
   private fun insert(recipients: List<RecipientDevice>, dateSent: Long, content: Content, contentHint: ContentHint, messageIds: List<MessageId>, urgent: Boolean): Long {
     val db = databaseHelper.GenZappWritableDatabase
 
@@ -239,22 +332,12 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
         put(MslPayloadTable.CONTENT, content.encode())
         put(MslPayloadTable.CONTENT_HINT, contentHint.type)
         put(MslPayloadTable.URGENT, urgent.toInt())
+        put(MslPayloadTable.REMAINING_RECIPIENTS, recipients.sumOf { it.devices.size })
       }
 
       val payloadId: Long = db.insert(MslPayloadTable.TABLE_NAME, null, payloadValues)
 
-      val recipientValues: MutableList<ContentValues> = mutableListOf()
-      recipients.forEach { recipientDevice ->
-        recipientDevice.devices.forEach { device ->
-          recipientValues += ContentValues().apply {
-            put(MslRecipientTable.PAYLOAD_ID, payloadId)
-            put(MslRecipientTable.RECIPIENT_ID, recipientDevice.recipientId.serialize())
-            put(MslRecipientTable.DEVICE, device)
-          }
-        }
-      }
-      SqlUtil.buildBulkInsert(MslRecipientTable.TABLE_NAME, arrayOf(MslRecipientTable.PAYLOAD_ID, MslRecipientTable.RECIPIENT_ID, MslRecipientTable.DEVICE), recipientValues)
-        .forEach { query -> db.execSQL(query.where, query.whereArgs) }
+      insertRecipients(db, payloadId, recipients)
 
       val messageValues: MutableList<ContentValues> = mutableListOf()
       messageIds.forEach { messageId ->
@@ -273,15 +356,37 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
     }
   }
 
+  private fun insertRecipients(db: SQLiteDatabase, payloadId: Long, recipients: List<RecipientDevice>) {
+    val recipientValues: MutableList<ContentValues> = mutableListOf()
+    recipients.forEach { recipientDevice ->
+      recipientDevice.devices.forEach { device ->
+        recipientValues += ContentValues().apply {
+          put(MslRecipientTable.PAYLOAD_ID, payloadId)
+          put(MslRecipientTable.RECIPIENT_ID, recipientDevice.recipientId.serialize())
+          put(MslRecipientTable.DEVICE, device)
+        }
+      }
+    }
+    SqlUtil.buildBulkInsert(MslRecipientTable.TABLE_NAME, arrayOf(MslRecipientTable.PAYLOAD_ID, MslRecipientTable.RECIPIENT_ID, MslRecipientTable.DEVICE), recipientValues)
+      .forEach { query -> db.execSQL(query.where, query.whereArgs) }
+  }
+
   fun getLogEntry(recipientId: RecipientId, device: Int, dateSent: Long): MessageLogEntry? {
     if (!RemoteConfig.retryReceipts) return null
 
-    trimOldMessages(System.currentTimeMillis(), RemoteConfig.retryRespondMaxAge)
+    val currentTime = System.currentTimeMillis()
+    val maxAge = RemoteConfig.retryRespondMaxAge
+
+    flushPendingDeletes()
+
+    if (currentTime - lastTrimTime > TRIM_INTERVAL) {
+      trimOldMessages(currentTime, maxAge)
+    }
 
     val db = databaseHelper.GenZappReadableDatabase
     val table = "${MslPayloadTable.TABLE_NAME} LEFT JOIN ${MslRecipientTable.TABLE_NAME} ON ${MslPayloadTable.TABLE_NAME}.${MslPayloadTable.ID} = ${MslRecipientTable.TABLE_NAME}.${MslRecipientTable.PAYLOAD_ID}"
-    val query = "${MslPayloadTable.DATE_SENT} = ? AND ${MslRecipientTable.RECIPIENT_ID} = ? AND ${MslRecipientTable.DEVICE} = ?"
-    val args = SqlUtil.buildArgs(dateSent, recipientId, device)
+    val query = "${MslPayloadTable.DATE_SENT} = ? AND ${MslPayloadTable.DATE_SENT} >= ? AND ${MslRecipientTable.RECIPIENT_ID} = ? AND ${MslRecipientTable.DEVICE} = ?"
+    val args = SqlUtil.buildArgs(dateSent, currentTime - maxAge, recipientId, device)
 
     db.query(table, null, query, args, null, null, null).use { entryCursor ->
       if (entryCursor.moveToFirst()) {
@@ -325,48 +430,83 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
     deleteEntriesForRecipient(listOf(dateSent), recipientId, device)
   }
 
+  /**
+   * Queues up a delete of the entries for this recipient device, in response to a delivery receipt. Receipts tend to arrive in large bursts, so rather than
+   * writing each one in its own transaction, they're collected and written together by [flushPendingDeletes], which happens shortly after on a background
+   * thread, once enough have piled up, or before anything reads from the log.
+   */
   fun deleteEntriesForRecipient(dateSent: List<Long>, recipientId: RecipientId, device: Int) {
-    val db = databaseHelper.GenZappWritableDatabase
-    db.beginTransaction()
-    try {
-      val query = """
-        DELETE FROM ${MslRecipientTable.TABLE_NAME} WHERE
-        ${MslRecipientTable.RECIPIENT_ID} = ? AND
-        ${MslRecipientTable.DEVICE} = ? AND
-        ${MslRecipientTable.PAYLOAD_ID} IN (
-          SELECT ${MslPayloadTable.ID} 
-          FROM ${MslPayloadTable.TABLE_NAME} 
-          WHERE ${MslPayloadTable.DATE_SENT} IN (${dateSent.joinToString(",")}) 
-        )
-        RETURNING ${MslRecipientTable.PAYLOAD_ID}"""
-      val args = SqlUtil.buildArgs(recipientId, device)
+    if (dateSent.isEmpty()) return
 
-      val payloadIds = db.rawQuery(query, args).readToList {
-        it.requireLong(MslRecipientTable.PAYLOAD_ID)
+    val flushNow: Boolean
+    val scheduleFlush: Boolean
+
+    synchronized(pendingDeletes) {
+      val timestamps = pendingDeletes.getOrPut(PendingDelete(recipientId, device)) { mutableSetOf() }
+      val sizeBefore = timestamps.size
+      timestamps += dateSent
+      pendingDeleteCount += timestamps.size - sizeBefore
+
+      flushNow = pendingDeleteCount >= MAX_PENDING_DELETES
+      scheduleFlush = !flushNow && !flushScheduled
+      if (scheduleFlush) {
+        flushScheduled = true
       }
+    }
 
-      val queries = SqlUtil.buildCollectionQuery(MslPayloadTable.ID, payloadIds)
-      queries.forEach {
-        db.delete(MslPayloadTable.TABLE_NAME, "${it.where} AND ${MslPayloadTable.ID} NOT IN (SELECT ${MslRecipientTable.PAYLOAD_ID} FROM ${MslRecipientTable.TABLE_NAME})", it.whereArgs)
+    if (flushNow) {
+      flushPendingDeletes()
+    } else if (scheduleFlush) {
+      GenZappExecutors.BOUNDED_IO.execute { flushPendingDeletes() }
+    }
+  }
+
+  /**
+   * Writes all of the deletes queued up by [deleteEntriesForRecipient] in a single transaction. Payloads that no longer have any recipients are cleaned up by
+   * the recipient delete trigger.
+   */
+  fun flushPendingDeletes() {
+    val deletes: Map<PendingDelete, Set<Long>> = synchronized(pendingDeletes) {
+      flushScheduled = false
+
+      if (pendingDeletes.isEmpty()) {
+        return
+      }
+
+      val copy = LinkedHashMap<PendingDelete, Set<Long>>(pendingDeletes)
+      pendingDeletes.clear()
+      pendingDeleteCount = 0
+      copy
+    }
+
+    writableDatabase.withinTransaction { db ->
+      deletes.forEach { (pendingDelete, dateSent) ->
+        db.execSQL(
+          """
+            DELETE FROM ${MslRecipientTable.TABLE_NAME} WHERE
+            ${MslRecipientTable.RECIPIENT_ID} = ? AND
+            ${MslRecipientTable.DEVICE} = ? AND
+            ${MslRecipientTable.PAYLOAD_ID} IN (
+              SELECT ${MslPayloadTable.ID}
+              FROM ${MslPayloadTable.TABLE_NAME}
+              WHERE ${MslPayloadTable.DATE_SENT} IN (${dateSent.joinToString(",")})
+            )
+          """,
+          SqlUtil.buildArgs(pendingDelete.recipientId, pendingDelete.device)
+        )
       }
-      db.setTransactionSuccessful()
-    } finally {
-      db.endTransaction()
     }
   }
 
   fun deleteAllForRecipient(recipientId: RecipientId) {
     if (!RemoteConfig.retryReceipts) return
 
+    flushPendingDeletes()
+
     writableDatabase
       .delete(MslRecipientTable.TABLE_NAME)
       .where("${MslRecipientTable.RECIPIENT_ID} = ?", recipientId)
       .run()
-
-    writableDatabase
-      .delete(MslPayloadTable.TABLE_NAME)
-      .where("${MslPayloadTable.ID} NOT IN (SELECT ${MslRecipientTable.PAYLOAD_ID} FROM ${MslRecipientTable.TABLE_NAME})")
-      .run()
   }
 
   fun deleteAll() {
@@ -379,9 +519,12 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
     val args = SqlUtil.buildArgs(currentTime - maxAge)
 
     db.delete(MslPayloadTable.TABLE_NAME, query, args)
+    lastTrimTime = currentTime
   }
 
   override fun remapRecipient(oldRecipientId: RecipientId, newRecipientId: RecipientId) {
+    flushPendingDeletes()
+
     val values = ContentValues().apply {
       put(MslRecipientTable.RECIPIENT_ID, newRecipientId.serialize())
     }
@@ -394,4 +537,6 @@ class MessageSendLogTables constructor(context: Context?, databaseHelper: GenZap
   }
 
   private data class RecipientDevice(val recipientId: RecipientId, val devices: List<Int>)
+
+  private data class PendingDelete(val recipientId: RecipientId, val device: Int)
 }
@@ -147,7 +147,7 @@ import java.util.function.Function
 import kotlin.math.max
 import kotlin.math.min
 
-open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper), MessageTypes, RecipientIdDatabaseReference, ThreadIdDatabaseReference {
+open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper), MessageTypes, ChunkedRecipientIdDatabaseReference, ThreadIdDatabaseReference {
 
   companion object {
     private val TAG = Log.tag(MessageTable::class.java)
@@ -273,6 +273,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
     private const val INDEX_DATE_SENT_FROM_TO_THREAD = "message_date_sent_from_to_thread_index"
     private const val INDEX_THREAD_COUNT = "message_thread_count_index"
     private const val INDEX_THREAD_UNREAD_COUNT = "message_thread_unread_count_index"
+    private const val INDEX_THREAD_UNREAD_MENTIONS = "message_thread_unread_mentions_index"
 
     @JvmField
     val CREATE_INDEXS = arrayOf(
@@ -295,7 +296,9 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
       // This index is created specifically for getting the number of messages in a thread and therefore needs to be kept in sync with that query
       "CREATE INDEX IF NOT EXISTS $INDEX_THREAD_COUNT ON $TABLE_NAME ($THREAD_ID) WHERE $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL",
       // This index is created specifically for getting the number of unread messages in a thread and therefore needs to be kept in sync with that query
-      "CREATE INDEX IF NOT EXISTS $INDEX_THREAD_UNREAD_COUNT ON $TABLE_NAME ($THREAD_ID) WHERE $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $READ = 0"
+      "CREATE INDEX IF NOT EXISTS $INDEX_THREAD_UNREAD_COUNT ON $TABLE_NAME ($THREAD_ID) WHERE $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $READ = 0",
+      // This index is created specifically for finding and counting unread self-mentions in a thread and therefore needs to be kept in sync with those queries
+      "CREATE INDEX IF NOT EXISTS $INDEX_THREAD_UNREAD_MENTIONS ON $TABLE_NAME ($THREAD_ID, $DATE_RECEIVED) WHERE $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $READ = 0 AND $MENTIONS_SELF = 1"
     )
 
     private val MMS_PROJECTION_BASE = arrayOf(
@@ -407,6 +410,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
           $TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID
         WHERE 
           $THREAD_ID = ? AND 
+          $ID > ? AND
           $TYPE & ${MessageTypes.GROUP_V2_LEAVE_BITS} != ${MessageTypes.GROUP_V2_LEAVE_BITS} AND 
           $STORY_TYPE = 0 AND 
           $PARENT_STORY_ID <= 0 AND
@@ -1803,7 +1807,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
     return readableDatabase
       .select("COUNT(*)")
       .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_COUNT")
-      .where("$THREAD_ID = $threadId AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL")
+      .where("$THREAD_ID = $threadId AND $ID > ${threads.getPurgedThroughId(threadId)} AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL")
       .run()
       .readToSingleInt()
   }
@@ -1874,6 +1878,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
   private fun buildMeaningfulMessagesQuery(threadId: Long): SqlUtil.Query {
     val query = """
       $THREAD_ID = $threadId AND
+      $ID > ${threads.getPurgedThroughId(threadId)} AND
       $STORY_TYPE = 0 AND
       $LATEST_REVISION_ID IS NULL AND
       $PARENT_STORY_ID <= 0 AND
@@ -2347,8 +2352,8 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
   fun getOldestUnreadMentionDetails(threadId: Long): Pair<RecipientId, Long>? {
     return readableDatabase
       .select(FROM_RECIPIENT_ID, DATE_RECEIVED)
-      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_UNREAD_COUNT")
-      .where("$THREAD_ID = ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $LATEST_REVISION_ID IS NULL AND $SCHEDULED_DATE = -1 AND $READ = 0 AND $MENTIONS_SELF = 1", threadId)
+      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_UNREAD_MENTIONS")
+      .where("$THREAD_ID = ? AND $ID > ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $LATEST_REVISION_ID IS NULL AND $SCHEDULED_DATE = -1 AND $READ = 0 AND $MENTIONS_SELF = 1", threadId, threads.getPurgedThroughId(threadId))
       .orderBy("$DATE_RECEIVED ASC")
       .limit(1)
       .run()
@@ -2363,8 +2368,8 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
   fun getUnreadMentionCount(threadId: Long): Int {
     return readableDatabase
       .count()
-      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_UNREAD_COUNT")
-      .where("$THREAD_ID = ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $LATEST_REVISION_ID IS NULL AND $SCHEDULED_DATE = -1 AND $READ = 0 AND $MENTIONS_SELF = 1", threadId)
+      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_UNREAD_MENTIONS")
+      .where("$THREAD_ID = ? AND $ID > ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $LATEST_REVISION_ID IS NULL AND $SCHEDULED_DATE = -1 AND $READ = 0 AND $MENTIONS_SELF = 1", threadId, threads.getPurgedThroughId(threadId))
       .run()
       .readToSingleInt()
   }
@@ -3113,7 +3118,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
       if (message.outgoingQuote == null && editedMessage == null) {
         AppDependencies.databaseObserver.notifyMessageInsertObservers(threadId, MessageId(messageId))
       } else {
-        AppDependencies.databaseObserver.notifyConversationListeners(threadId)
+        AppDependencies.databaseObserver.notifyConversationListeners(threadId, true)
       }
 
       if (message.scheduledDate != -1L) {
@@ -3449,19 +3454,61 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
     return ids
   }
 
-  fun deleteMessagesInThreadBeforeDate(threadId: Long, date: Long, inclusive: Boolean): Int {
+  fun getMessageIdsInThreadBeforeDate(threadId: Long, date: Long, inclusive: Boolean, limit: Int): List<Long> {
     val condition = if (inclusive) "<=" else "<"
 
-    return writableDatabase
-      .delete(TABLE_NAME)
+    return readableDatabase
+      .select(ID)
+      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID")
       .where("$THREAD_ID = ? AND $DATE_RECEIVED $condition $date", threadId)
+      .limit(limit)
+      .run()
+      .readToList { it.requireLong(ID) }
+  }
+
+  /**
+   * Finds the date of the oldest message that would survive trimming the conversation down to [length] messages, using the same ordering as
+   * [getConversation]. Walks at most [length] + 1 index entries rather than the whole conversation.
+   *
+   * @return The cutoff date, or null if the conversation has [length] messages or fewer.
+   */
+  fun getTrimCutoffDate(threadId: Long, length: Int): Long? {
+    val dates: List<Long> = readableDatabase
+      .select(DATE_RECEIVED)
+      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID")
+      .where("$THREAD_ID = ? AND $ID > ? AND $STORY_TYPE = ? AND $PARENT_STORY_ID <= ? AND $SCHEDULED_DATE = ? AND $LATEST_REVISION_ID IS NULL", threadId, threads.getPurgedThroughId(threadId), 0, 0, -1)
+      .orderBy("$DATE_RECEIVED DESC")
+      .limit("${length - 1}, 2")
       .run()
+      .readToList { it.requireLong(DATE_RECEIVED) }
+
+    return if (dates.size == 2) dates[0] else null
+  }
+
+  /**
+   * Returns the ids of every thread whose conversation has more than [length] messages. This is a single pass over the partial index that backs the
+   * thread counts, which is much cheaper than checking each thread individually.
+   */
+  fun getThreadIdsWithMoreMessagesThan(length: Int): Set<Long> {
+    return readableDatabase
+      .rawQuery(
+        """
+        SELECT $THREAD_ID
+        FROM $TABLE_NAME INDEXED BY $INDEX_THREAD_COUNT
+        WHERE $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL
+        GROUP BY $THREAD_ID
+        HAVING COUNT(*) > ?
+        """,
+        buildArgs(length)
+      )
+      .readToList { it.requireLong(THREAD_ID) }
+      .toSet()
   }
 
   fun deleteAbandonedMessages(): Int {
     val deletes = writableDatabase
       .delete(TABLE_NAME)
-      .where("$THREAD_ID NOT IN (SELECT _id FROM ${ThreadTable.TABLE_NAME} WHERE ${ThreadTable.ACTIVE} = 1)")
+      .where("$THREAD_ID NOT IN (SELECT _id FROM ${ThreadTable.TABLE_NAME} WHERE ${ThreadTable.ACTIVE} = 1 OR ${ThreadTable.PURGE_THROUGH_ID} > 0)")
       .run()
 
     if (deletes > 0) {
@@ -4046,7 +4093,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
     return readableDatabase
       .select("COUNT(*)")
       .from(TABLE_NAME)
-      .where("$THREAD_ID = $threadId AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $DATE_RECEIVED > $receivedTimestamp")
+      .where("$THREAD_ID = $threadId AND $ID > ${threads.getPurgedThroughId(threadId)} AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $DATE_RECEIVED > $receivedTimestamp")
       .run()
       .readToSingleInt(-1)
   }
@@ -4062,7 +4109,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
     return dayStarts.associateWith { startOfDay ->
       readableDatabase
         .exists(TABLE_NAME)
-        .where("$THREAD_ID = $threadId AND $DATE_SENT >= $startOfDay AND $DATE_SENT < $startOfDay + 86400000 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0")
+        .where("$THREAD_ID = $threadId AND $ID > ${threads.getPurgedThroughId(threadId)} AND $DATE_SENT >= $startOfDay AND $DATE_SENT < $startOfDay + 86400000 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0")
         .run()
     }
   }
@@ -4071,7 +4118,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
     return readableDatabase
       .select(DATE_SENT)
       .from(TABLE_NAME)
-      .where("$THREAD_ID = $threadId AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0")
+      .where("$THREAD_ID = $threadId AND $ID > ${threads.getPurgedThroughId(threadId)} AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0")
       .orderBy("$DATE_SENT ASC")
       .limit(1)
       .run()
@@ -4092,7 +4139,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
     val selection = if (groupStoryId > 0) {
       "$THREAD_ID = $threadId AND $DATE_RECEIVED < $receivedTimestamp AND $STORY_TYPE = 0 AND $PARENT_STORY_ID = $groupStoryId AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL"
     } else {
-      "$THREAD_ID = $threadId AND $DATE_RECEIVED > $receivedTimestamp AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL"
+      "$THREAD_ID = $threadId AND $ID > ${threads.getPurgedThroughId(threadId)} AND $DATE_RECEIVED > $receivedTimestamp AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL"
     }
 
     return readableDatabase
@@ -4136,7 +4183,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
     return readableDatabase
       .select("COUNT(*)")
       .from(TABLE_NAME)
-      .where("$THREAD_ID = $threadId AND $DATE_RECEIVED >= $timestamp AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL")
+      .where("$THREAD_ID = $threadId AND $ID > ${threads.getPurgedThroughId(threadId)} AND $DATE_RECEIVED >= $timestamp AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL")
       .run()
       .readToSingleInt()
   }
@@ -4144,7 +4191,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
   @Throws(NoSuchMessageException::class)
   fun getConversationSnippetType(threadId: Long): Long {
     return readableDatabase
-      .rawQuery(SNIPPET_QUERY, buildArgs(threadId))
+      .rawQuery(SNIPPET_QUERY, buildArgs(threadId, threads.getPurgedThroughId(threadId)))
       .readToSingleObject { it.requireLong(TYPE) } ?: throw NoSuchMessageException("no message")
   }
 
@@ -4160,14 +4207,14 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
   @VisibleForTesting
   fun getConversationSnippetCursor(threadId: Long): Cursor {
     val db = databaseHelper.GenZappReadableDatabase
-    return db.rawQuery(SNIPPET_QUERY, buildArgs(threadId))
+    return db.rawQuery(SNIPPET_QUERY, buildArgs(threadId, threads.getPurgedThroughId(threadId)))
   }
 
   fun getUnreadCount(threadId: Long): Int {
     return readableDatabase
       .select("COUNT(*)")
       .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_UNREAD_COUNT")
-      .where("$THREAD_ID = $threadId AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $LATEST_REVISION_ID IS NULL AND $SCHEDULED_DATE = -1 AND $READ = 0")
+      .where("$THREAD_ID = $threadId AND $ID > ${threads.getPurgedThroughId(threadId)} AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $LATEST_REVISION_ID IS NULL AND $SCHEDULED_DATE = -1 AND $READ = 0")
       .run()
       .readToSingleInt()
   }
@@ -4623,7 +4670,7 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
     return readableDatabase
       .select(*MMS_PROJECTION)
       .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID")
-      .where("$THREAD_ID = ? AND $STORY_TYPE = ? AND $PARENT_STORY_ID <= ? AND $SCHEDULED_DATE = ? AND $LATEST_REVISION_ID IS NULL", threadId, 0, 0, -1)
+      .where("$THREAD_ID = ? AND $ID > ? AND $STORY_TYPE = ? AND $PARENT_STORY_ID <= ? AND $SCHEDULED_DATE = ? AND $LATEST_REVISION_ID IS NULL", threadId, threads.getPurgedThroughId(threadId), 0, 0, -1)
       .orderBy("$DATE_RECEIVED DESC")
       .limit(limitStr)
       .run()
@@ -4760,6 +4807,65 @@ open class MessageTable(context: Context?, databaseHelper: GenZappDatabase) : Da
       .run()
   }
 
+  /**
+   * Does the work of [remapRecipient], but for at most [limit] messages per column. The messages are found through the recipient indexes, so each call
+   * only touches rows that actually reference [fromId], and a large remap can be split across many short transactions.
+   *
+   * @return The number of messages updated. Zero means there is nothing left to remap.
+   */
+  override fun remapRecipientChunk(fromId: RecipientId, toId: RecipientId, limit: Int): Int {
+    var updates = 0
+
+    updates += writableDatabase
+      .update(TABLE_NAME)
+      .values(FROM_RECIPIENT_ID to toId.serialize())
+      .where("$ID IN (SELECT $ID FROM $TABLE_NAME WHERE $FROM_RECIPIENT_ID = ? LIMIT $limit)", fromId)
+      .run()
+
+    updates += writableDatabase
+      .update(TABLE_NAME)
+      .values(TO_RECIPIENT_ID to toId.serialize())
+      .where("$ID IN (SELECT $ID FROM $TABLE_NAME WHERE $TO_RECIPIENT_ID = ? LIMIT $limit)", fromId)
+      .run()
+
+    return updates
+  }
+
+  /**
+   * Counts the messages in a thread, but stops counting at [limit], so it's cheap to ask whether a thread is "big".
+   */
+  fun getMessageCountForThreadUpTo(threadId: Long, limit: Int): Int {
+    return readableDatabase
+      .rawQuery("SELECT COUNT(*) FROM (SELECT 1 FROM $TABLE_NAME WHERE $THREAD_ID = ? LIMIT $limit)", buildArgs(threadId))
+      .readToSingleInt()
+  }
+
+  /**
+   * Counts the messages that [remapRecipient] would have to update for [recipientId], in any thread, but stops counting at [limit]. Both halves are
+   * lookups on the recipient indexes.
+   */
+  fun getMessageCountForRecipientUpTo(recipientId: RecipientId, limit: Int): Int {
+    return readableDatabase
+      .rawQuery(
+        """
+        SELECT
+          (SELECT COUNT(*) FROM (SELECT 1 FROM $TABLE_NAME WHERE $FROM_RECIPIENT_ID = ? LIMIT $limit)) +
+          (SELECT COUNT(*) FROM (SELECT 1 FROM $TABLE_NAME WHERE $TO_RECIPIENT_ID = ? AND $FROM_RECIPIENT_ID != ? LIMIT $limit))
+        """,
+        buildArgs(recipientId, recipientId, recipientId)
+      )
+      .readToSingleInt()
+      .coerceAtMost(limit)
+  }
+
+  fun getMaxId(): Long {
+    return readableDatabase
+      .select("MAX($ID)")
+      .from(TABLE_NAME)
+      .run()
+      .readToSingleLong()
+  }
+
   /**
    * Returns the next ID that would be generated if an insert was done on this table.
    * You should *not* use this for actually generating an ID to use. That will happen automatically!
@@ -0,0 +1,121 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * Merges database notifications that are posted in quick succession across transactions, so that observers see one change instead of one per transaction.
+ * <p>
+ * Notifications are collected by key, and a key that is posted again while it's still pending is only delivered once. Everything pending is handed to the
+ * executor once nothing new has been posted for the length of the window, or once the oldest pending notification has waited for the max latency, whichever
+ * comes first.
+ */
+final class NotificationCoalescer {
+
+  private final Executor     executor;
+  private final Scheduler    scheduler;
+  private final LongSupplier clock;
+  private final long         windowMs;
+  private final long         maxLatencyMs;
+
+  private final Map<String, Runnable> pending = new LinkedHashMap<>();
+
+  private long    firstPendingTime;
+  private long    lastPendingTime;
+  private boolean deliveryScheduled;
+
+  NotificationCoalescer(@NonNull Executor executor, @NonNull Scheduler scheduler, @NonNull LongSupplier clock, long windowMs, long maxLatencyMs) {
+    this.executor     = executor;
+    this.scheduler    = scheduler;
+    this.clock        = clock;
+    this.windowMs     = windowMs;
+    this.maxLatencyMs = Math.max(windowMs, maxLatencyMs);
+  }
+
+  void post(@NonNull String key, @NonNull Runnable notification) {
+    synchronized (this) {
+      long now = clock.getAsLong();
+
+      if (pending.isEmpty()) {
+        firstPendingTime = now;
+      }
+
+      lastPendingTime = now;
+      pending.putIfAbsent(key, notification);
+
+      if (deliveryScheduled) {
+        return;
+      }
+
+      deliveryScheduled = true;
+    }
+
+    scheduler.schedule(this::deliverIfReady, windowMs);
+  }
+
+  /**
+   * Drops the pending notification for the key, if there is one.
+   */
+  synchronized void cancel(@NonNull String key) {
+    pending.remove(key);
+  }
+
+  /**
+   * Hands everything that's pending to the executor right away.
+   */
+  void flush() {
+    deliver(takePending());
+  }
+
+  private void deliverIfReady() {
+    List<Runnable> notifications;
+    long           delay;
+
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        deliveryScheduled = false;
+        return;
+      }
+
+      long deliverAt = Math.min(lastPendingTime + windowMs, firstPendingTime + maxLatencyMs);
+      long now       = clock.getAsLong();
+
+      if (now < deliverAt) {
+        notifications = null;
+        delay         = deliverAt - now;
+      } else {
+        notifications     = takePending();
+        delay             = 0;
+        deliveryScheduled = false;
+      }
+    }
+
+    if (notifications != null) {
+      deliver(notifications);
+    } else {
+      scheduler.schedule(this::deliverIfReady, delay);
+    }
+  }
+
+  private synchronized @NonNull List<Runnable> takePending() {
+    List<Runnable> notifications = new ArrayList<>(pending.values());
+    pending.clear();
+    return notifications;
+  }
+
+  private void deliver(@NonNull List<Runnable> notifications) {
+    for (Runnable notification : notifications) {
+      executor.execute(notification);
+    }
+  }
+
+  interface Scheduler {
+    void schedule(@NonNull Runnable runnable, long delayMs);
+  }
+}
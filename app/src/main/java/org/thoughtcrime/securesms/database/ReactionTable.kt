@@ -15,7 +15,7 @@ import org.thoughtcrime.securesms.recipients.RecipientId
 /**
  * Store reactions on messages.
  */
-class ReactionTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper), RecipientIdDatabaseReference {
+class ReactionTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper), ChunkedRecipientIdDatabaseReference {
 
   companion object {
     const val TABLE_NAME = "reaction"
@@ -77,27 +77,22 @@ class ReactionTable(context: Context, databaseHelper: GenZappDatabase) : Databas
 
     val messageIdToReactions: MutableMap<Long, MutableList<ReactionRecord>> = mutableMapOf()
 
-    val args: List<Array<String>> = messageIds.map { SqlUtil.buildArgs(it) }
-
-    for (query: SqlUtil.Query in SqlUtil.buildCustomCollectionQuery("$MESSAGE_ID = ?", args)) {
-      readableDatabase.query(TABLE_NAME, null, query.where, query.whereArgs, null, null, null).use { cursor ->
-        while (cursor.moveToNext()) {
-          val reaction: ReactionRecord = readReaction(cursor)
-          val messageId = CursorUtil.requireLong(cursor, MESSAGE_ID)
-
-          var reactionsList: MutableList<ReactionRecord>? = messageIdToReactions[messageId]
+    for (query: SqlUtil.Query in SqlUtil.buildCollectionQuery(MESSAGE_ID, messageIds)) {
+      getReactionsForMessages(query) { messageId, reaction -> messageIdToReactions.getOrPut(messageId) { mutableListOf() } += reaction }
+    }
 
-          if (reactionsList == null) {
-            reactionsList = mutableListOf()
-            messageIdToReactions[messageId] = reactionsList
-          }
+    return messageIdToReactions
+  }
 
-          reactionsList.add(reaction)
-        }
+  /**
+   * Reads the reactions to the messages matched by [query], a query on [MESSAGE_ID], handing each one to [consumer] as it's read.
+   */
+  fun getReactionsForMessages(query: SqlUtil.Query, consumer: (Long, ReactionRecord) -> Unit) {
+    readableDatabase.query(TABLE_NAME, null, query.where, query.whereArgs, null, null, null).use { cursor ->
+      while (cursor.moveToNext()) {
+        consumer(CursorUtil.requireLong(cursor, MESSAGE_ID), readReaction(cursor))
       }
     }
-
-    return messageIdToReactions
   }
 
   fun addReaction(messageId: MessageId, reaction: ReactionRecord) {
@@ -175,6 +170,14 @@ class ReactionTable(context: Context, databaseHelper: GenZappDatabase) : Databas
     readableDatabase.update(TABLE_NAME, values, query, args)
   }
 
+  override fun remapRecipientChunk(fromId: RecipientId, toId: RecipientId, limit: Int): Int {
+    return writableDatabase
+      .update(TABLE_NAME)
+      .values(AUTHOR_ID to toId.serialize())
+      .where("$ID IN (SELECT $ID FROM $TABLE_NAME WHERE $AUTHOR_ID = ? LIMIT $limit)", fromId)
+      .run()
+  }
+
   fun deleteAbandonedReactions() {
     writableDatabase
       .delete(TABLE_NAME)
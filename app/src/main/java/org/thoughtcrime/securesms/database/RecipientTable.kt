@@ -81,6 +81,7 @@ import org.thoughtcrime.securesms.groups.GroupId.V1
 import org.thoughtcrime.securesms.groups.GroupId.V2
 import org.thoughtcrime.securesms.groups.v2.ProfileKeySet
 import org.thoughtcrime.securesms.groups.v2.processing.GroupsV2StateProcessor
+import org.thoughtcrime.securesms.jobs.DeferredRecipientMergeJob
 import org.thoughtcrime.securesms.jobs.RequestGroupV2InfoJob
 import org.thoughtcrime.securesms.jobs.RetrieveProfileJob
 import org.thoughtcrime.securesms.keyvalue.GenZappStore
@@ -126,6 +127,12 @@ open class RecipientTable(context: Context, databaseHelper: GenZappDatabase) : D
   companion object {
     private val UNREGISTERED_LIFESPAN: Long = TimeUnit.DAYS.toMillis(30)
 
+    /** If at least this many messages reference the secondary recipient, a merge will remap its large tables in the background. */
+    private const val DEFERRED_MERGE_THRESHOLD = 1000
+
+    /** The number of rows remapped per transaction during a deferred merge. */
+    private const val DEFERRED_MERGE_CHUNK_SIZE = 1000
+
     const val TABLE_NAME = "recipient"
 
     const val ID = "_id"
@@ -729,7 +736,43 @@ open class RecipientTable(context: Context, databaseHelper: GenZappDatabase) : D
     return (foundRecords + remappedRecords).associateBy { it.id }
   }
 
+  /**
+   * Reads the records for many recipients in a handful of queries, for resolving them in bulk. Unlike [getRecords], the result is keyed by the requested
+   * ID, and a recipient that is waiting to be merged into another is read as the one it's being merged into, just as [getRecord] would.
+   *
+   * IDs that don't have a row are left out, rather than looked up in the remapped records. Use [getRecord] for those.
+   */
+  fun getRecordsForResolve(ids: Collection<RecipientId>): Map<RecipientId, RecipientRecord> {
+    val queries = SqlUtil.buildCollectionQuery(
+      column = ID,
+      values = ids.map { it.serialize() }
+    )
+
+    val records: MutableMap<RecipientId, RecipientRecord> = HashMap(ids.size)
+
+    for (query in queries) {
+      readableDatabase.query(TABLE_NAME, RECIPIENT_PROJECTION, query.where, query.whereArgs, null, null, null).use { cursor ->
+        while (cursor.moveToNext()) {
+          val record = RecipientTableCursorUtil.getRecord(context, cursor)
+          records[record.id] = record
+        }
+      }
+    }
+
+    val pendingMerges = records.keys.filter { RemappedRecords.getInstance().isPendingMerge(it) }
+    for (id in pendingMerges) {
+      records[id] = findRemappedIdRecord(id)
+    }
+
+    return records
+  }
+
   fun getRecord(id: RecipientId): RecipientRecord {
+    // The old recipient of a deferred merge keeps its row until its messages have been remapped, but should be read as the one it was merged into
+    if (RemappedRecords.getInstance().isPendingMerge(id)) {
+      return findRemappedIdRecord(id)
+    }
+
     val query = "$ID = ?"
     val args = arrayOf(id.serialize())
 
@@ -3947,13 +3990,23 @@ open class RecipientTable(context: Context, databaseHelper: GenZappDatabase) : D
       AppDependencies.protocolStore.aci().identities().delete(secondaryRecord.e164)
     }
 
+    // Remapping a long history can take a while, so if the secondary is referenced by a lot of messages (in any thread), the big remaps (messages,
+    // reactions, mentions, group receipts, calls) are done in the background instead. If the secondary's own thread is big, it's kept as the merged one
+    // so its messages don't need their thread remapped either.
+    val deferRemaps = GenZappDatabase.messages.getMessageCountForRecipientUpTo(secondaryId, DEFERRED_MERGE_THRESHOLD) >= DEFERRED_MERGE_THRESHOLD
+    val secondaryThreadId: Long? = threads.getThreadIdFor(secondaryId)
+    val keepSecondaryThread = deferRemaps && secondaryThreadId != null && GenZappDatabase.messages.getMessageCountForThreadUpTo(secondaryThreadId, DEFERRED_MERGE_THRESHOLD) >= DEFERRED_MERGE_THRESHOLD
+
     // Threads
-    val threadMerge: ThreadTable.MergeResult = threads.merge(primaryId, secondaryId)
+    val threadMerge: ThreadTable.MergeResult = threads.merge(primaryId, secondaryId, keepSecondaryThread = keepSecondaryThread)
     threads.setLastScrolled(threadMerge.threadId, 0)
     threads.update(threadMerge.threadId, false, false)
 
     // Recipient remaps
     for (table in recipientIdDatabaseTables) {
+      if (deferRemaps && table is ChunkedRecipientIdDatabaseReference) {
+        continue
+      }
       table.remapRecipient(secondaryId, primaryId)
     }
 
@@ -3969,8 +4022,28 @@ open class RecipientTable(context: Context, databaseHelper: GenZappDatabase) : D
     }
 
     // Recipient
-    Log.w(TAG, "Deleting recipient $secondaryId", true)
-    db.delete(TABLE_NAME, ID_WHERE, SqlUtil.buildArgs(secondaryId))
+    if (deferRemaps) {
+      Log.w(TAG, "Deferring the deletion of recipient $secondaryId until everything referencing it has been remapped", true)
+
+      val placeholderValues = contentValuesOf(
+        E164 to null,
+        ACI_COLUMN to null,
+        PNI_COLUMN to null,
+        USERNAME to null,
+        EMAIL to null,
+        STORAGE_SERVICE_ID to null,
+        REGISTERED to RegisteredState.NOT_REGISTERED.id,
+        HIDDEN to Recipient.HiddenState.HIDDEN.serialize()
+      )
+      db.update(TABLE_NAME, placeholderValues, ID_WHERE, SqlUtil.buildArgs(secondaryId))
+
+      RemappedRecords.getInstance().addPendingMerge(secondaryId, primaryId)
+
+      runPostSuccessfulTransaction { DeferredRecipientMergeJob.enqueue() }
+    } else {
+      Log.w(TAG, "Deleting recipient $secondaryId", true)
+      db.delete(TABLE_NAME, ID_WHERE, SqlUtil.buildArgs(secondaryId))
+    }
     RemappedRecords.getInstance().addRecipient(secondaryId, primaryId)
 
     val uuidValues = contentValuesOf(
@@ -4019,6 +4092,60 @@ open class RecipientTable(context: Context, databaseHelper: GenZappDatabase) : D
     )
   }
 
+  /**
+   * Does the next bounded piece of work for a merge that [merge] deferred, in its own transaction. Each [ChunkedRecipientIdDatabaseReference] table is
+   * remapped in turn, and once none of them reference the old recipient anymore, the old recipient is deleted.
+   *
+   * @return False if there were no deferred merges left, otherwise true.
+   */
+  fun remapNextDeferredMergeChunk(chunkSize: Int = DEFERRED_MERGE_CHUNK_SIZE): Boolean {
+    val merge: RemappedRecordTables.PendingMerge = GenZappDatabase.remappedRecords.getNextPendingMerge() ?: return false
+
+    writableDatabase.withinTransaction {
+      val newRecipientId = resolveMergeTarget(merge.newRecipientId)
+      val remapped: Int = recipientIdDatabaseTables
+        .filterIsInstance<ChunkedRecipientIdDatabaseReference>()
+        .asSequence()
+        .map { it.remapRecipientChunk(merge.oldRecipientId, newRecipientId, chunkSize) }
+        .firstOrNull { it > 0 } ?: 0
+
+      if (remapped == 0) {
+        finishDeferredMerge(merge.oldRecipientId, newRecipientId)
+      }
+    }
+
+    return true
+  }
+
+  private fun finishDeferredMerge(oldRecipientId: RecipientId, newRecipientId: RecipientId) {
+    // Anything else written with the old ID while the merge was in progress
+    for (table in recipientIdDatabaseTables) {
+      if (table !is ChunkedRecipientIdDatabaseReference) {
+        table.remapRecipient(oldRecipientId, newRecipientId)
+      }
+    }
+
+    Log.w(TAG, "Finished remapping $oldRecipientId to $newRecipientId. Deleting recipient $oldRecipientId", true)
+    writableDatabase.delete(TABLE_NAME, ID_WHERE, SqlUtil.buildArgs(oldRecipientId))
+    RemappedRecords.getInstance().removePendingMerge(oldRecipientId)
+  }
+
+  /**
+   * The recipient a deferred merge was headed for may itself have been merged away since, so follow the remappings to the one that still exists.
+   */
+  private fun resolveMergeTarget(recipientId: RecipientId): RecipientId {
+    val seen: MutableSet<RecipientId> = mutableSetOf(recipientId)
+    var target = recipientId
+
+    while (true) {
+      val next = RemappedRecords.getInstance().getRecipient(target).getOrNull()
+      if (next == null || !seen.add(next)) {
+        return target
+      }
+      target = next
+    }
+  }
+
   private fun ensureInTransaction() {
     check(writableDatabase.inTransaction()) { "Must be in a transaction!" }
   }
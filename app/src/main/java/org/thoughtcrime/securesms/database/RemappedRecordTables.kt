@@ -4,8 +4,10 @@ import android.content.Context
 import android.database.Cursor
 import androidx.core.content.contentValuesOf
 import org.GenZapp.core.util.delete
+import org.GenZapp.core.util.insertInto
 import org.GenZapp.core.util.logging.Log
 import org.GenZapp.core.util.readToList
+import org.GenZapp.core.util.readToSingleObject
 import org.GenZapp.core.util.requireLong
 import org.GenZapp.core.util.select
 import org.GenZapp.core.util.withinTransaction
@@ -22,7 +24,7 @@ class RemappedRecordTables internal constructor(context: Context?, databaseHelpe
   companion object {
     val TAG = Log.tag(RemappedRecordTables::class.java)
 
-    val CREATE_TABLE = arrayOf(Recipients.CREATE_TABLE, Threads.CREATE_TABLE)
+    val CREATE_TABLE = arrayOf(Recipients.CREATE_TABLE, Threads.CREATE_TABLE, PendingMerges.CREATE_TABLE)
   }
 
   private object SharedColumns {
@@ -53,6 +55,25 @@ class RemappedRecordTables internal constructor(context: Context?, databaseHelpe
     """
   }
 
+  /**
+   * Recipient merges whose message references are still being rewritten in the background. Until a merge is finished, the old recipient row is kept
+   * around (stripped of its identifiers) so that foreign keys don't cascade, and reads of it are resolved through the mappings above.
+   */
+  object PendingMerges {
+    const val TABLE_NAME = "pending_recipient_merge"
+    const val ID = "_id"
+    const val OLD_RECIPIENT_ID = "old_recipient_id"
+    const val NEW_RECIPIENT_ID = "new_recipient_id"
+
+    const val CREATE_TABLE = """
+      CREATE TABLE $TABLE_NAME (
+        $ID INTEGER PRIMARY KEY AUTOINCREMENT,
+        $OLD_RECIPIENT_ID INTEGER UNIQUE,
+        $NEW_RECIPIENT_ID INTEGER
+      )
+    """
+  }
+
   fun getAllRecipientMappings(): Map<RecipientId, RecipientId> {
     val recipientMap: MutableMap<RecipientId, RecipientId> = HashMap()
 
@@ -112,9 +133,50 @@ class RemappedRecordTables internal constructor(context: Context?, databaseHelpe
       .run()
   }
 
+  fun addPendingMerge(oldRecipientId: RecipientId, newRecipientId: RecipientId) {
+    writableDatabase
+      .insertInto(PendingMerges.TABLE_NAME)
+      .values(
+        PendingMerges.OLD_RECIPIENT_ID to oldRecipientId.toLong(),
+        PendingMerges.NEW_RECIPIENT_ID to newRecipientId.toLong()
+      )
+      .run()
+  }
+
+  fun getNextPendingMerge(): PendingMerge? {
+    return readableDatabase
+      .select()
+      .from(PendingMerges.TABLE_NAME)
+      .orderBy("${PendingMerges.ID} ASC")
+      .limit(1)
+      .run()
+      .readToSingleObject { cursor ->
+        PendingMerge(
+          oldRecipientId = RecipientId.from(cursor.requireLong(PendingMerges.OLD_RECIPIENT_ID)),
+          newRecipientId = RecipientId.from(cursor.requireLong(PendingMerges.NEW_RECIPIENT_ID))
+        )
+      }
+  }
+
+  fun getAllPendingMergeRecipients(): Set<RecipientId> {
+    return readableDatabase
+      .select(PendingMerges.OLD_RECIPIENT_ID)
+      .from(PendingMerges.TABLE_NAME)
+      .run()
+      .readToList { cursor -> RecipientId.from(cursor.requireLong(PendingMerges.OLD_RECIPIENT_ID)) }
+      .toHashSet()
+  }
+
+  fun deletePendingMerge(oldRecipientId: RecipientId) {
+    writableDatabase
+      .delete(PendingMerges.TABLE_NAME)
+      .where("${PendingMerges.OLD_RECIPIENT_ID} = ?", oldRecipientId)
+      .run()
+  }
+
   private fun trimInvalidRecipientEntries(db: SQLiteDatabase) {
     val count = db.delete(Recipients.TABLE_NAME)
-      .where("$OLD_ID IN (SELECT $ID FROM ${RecipientTable.TABLE_NAME})")
+      .where("$OLD_ID IN (SELECT $ID FROM ${RecipientTable.TABLE_NAME}) AND $OLD_ID NOT IN (SELECT ${PendingMerges.OLD_RECIPIENT_ID} FROM ${PendingMerges.TABLE_NAME})")
       .run()
 
     if (count > 0) {
@@ -153,4 +215,9 @@ class RemappedRecordTables internal constructor(context: Context?, databaseHelpe
   }
 
   private class Mapping(val oldId: Long, val newId: Long)
+
+  data class PendingMerge(
+    val oldRecipientId: RecipientId,
+    val newRecipientId: RecipientId
+  )
 }
@@ -7,6 +7,7 @@ import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.whispersystems.GenZappservice.api.util.Preconditions;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Optional;
@@ -32,6 +33,7 @@ class RemappedRecords {
 
   private Map<RecipientId, RecipientId> recipientMap;
   private Map<Long, Long>               threadMap;
+  private Set<RecipientId>              pendingMerges;
 
   private RemappedRecords() {}
 
@@ -49,6 +51,35 @@ class RemappedRecords {
     return Optional.ofNullable(threadMap.get(oldId));
   }
 
+  /**
+   * Whether the recipient is the old half of a merge that is still remapping its messages in the background. Its row still exists, but it should be
+   * read as the recipient it was merged into.
+   */
+  boolean isPendingMerge(@NonNull RecipientId recipientId) {
+    ensurePendingMergesArePopulated();
+    return pendingMerges.contains(recipientId);
+  }
+
+  /**
+   * Can only be called inside of a transaction.
+   */
+  void addPendingMerge(@NonNull RecipientId oldId, @NonNull RecipientId newId) {
+    ensureInTransaction();
+    ensurePendingMergesArePopulated();
+    pendingMerges.add(oldId);
+    GenZappDatabase.remappedRecords().addPendingMerge(oldId, newId);
+  }
+
+  /**
+   * Can only be called inside of a transaction.
+   */
+  void removePendingMerge(@NonNull RecipientId oldId) {
+    ensureInTransaction();
+    ensurePendingMergesArePopulated();
+    pendingMerges.remove(oldId);
+    GenZappDatabase.remappedRecords().deletePendingMerge(oldId);
+  }
+
   void deleteThread(long oldId) {
     ensureInTransaction();
     ensureThreadMapIsPopulated();
@@ -101,7 +132,8 @@ class RemappedRecords {
    * Clears out the memory cache. The next read will pull values from disk.
    */
   void resetCache() {
-    recipientMap = null;
+    recipientMap  = null;
+    pendingMerges = null;
   }
 
   private void ensureRecipientMapIsPopulated() {
@@ -116,6 +148,12 @@ class RemappedRecords {
     }
   }
 
+  private void ensurePendingMergesArePopulated() {
+    if (pendingMerges == null) {
+      pendingMerges = new HashSet<>(GenZappDatabase.remappedRecords().getAllPendingMergeRecipients());
+    }
+  }
+
   private void ensureInTransaction() {
     if (!GenZappDatabase.inTransaction()) {
       throw new IllegalStateException("Must be in a transaction!");
@@ -15,6 +15,7 @@ object RxDatabaseObserver {
 
   val conversationList: Flowable<Unit> by lazy { conversationListFlowable() }
   val notificationProfiles: Flowable<Unit> by lazy { notificationProfilesFlowable() }
+  val storyFeed: Flowable<Unit> by lazy { storyFeedFlowable() }
 
   private fun conversationListFlowable(): Flowable<Unit> {
     return databaseFlowable { listener ->
@@ -22,6 +23,12 @@ object RxDatabaseObserver {
     }
   }
 
+  private fun storyFeedFlowable(): Flowable<Unit> {
+    return databaseFlowable { listener ->
+      AppDependencies.databaseObserver.registerStoryFeedObserver(listener)
+    }
+  }
+
   fun conversation(threadId: Long): Flowable<Unit> {
     return databaseFlowable { listener ->
       AppDependencies.databaseObserver.registerVerboseConversationObserver(threadId, listener)
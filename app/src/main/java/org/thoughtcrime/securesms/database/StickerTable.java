@@ -21,6 +21,7 @@ import org.thoughtcrime.securesms.database.model.StickerRecord;
 import org.thoughtcrime.securesms.mms.DecryptableStreamUriLoader.DecryptableUri;
 import org.thoughtcrime.securesms.stickers.BlessedPacks;
 import org.thoughtcrime.securesms.stickers.StickerPackInstallEvent;
+import org.thoughtcrime.securesms.stickers.StickerSearchIndex;
 import org.GenZapp.core.util.CursorUtil;
 import org.GenZapp.core.util.SqlUtil;
 
@@ -29,6 +30,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -78,6 +80,8 @@ public class StickerTable extends DatabaseTable {
 
   public static final String DIRECTORY = "stickers";
 
+  private static final String SEARCH_PACK_ORDER = "search_pack_order";
+
   private final AttachmentSecret attachmentSecret;
 
   public StickerTable(Context context, GenZappDatabase databaseHelper, AttachmentSecret attachmentSecret) {
@@ -111,6 +115,7 @@ public class StickerTable extends DatabaseTable {
     }
 
     if (id > 0) {
+      StickerSearchIndex.onStickersChanged();
       notifyStickerListeners();
 
       if (sticker.isCover()) {
@@ -148,11 +153,29 @@ public class StickerTable extends DatabaseTable {
     return databaseHelper.getGenZappReadableDatabase().query(TABLE_NAME, null, selection, args, null, null, PACK_ORDER + " ASC");
   }
 
-  public @Nullable Cursor getStickersByEmoji(@NonNull String emoji) {
-    String   selection = EMOJI + " LIKE ? AND " + COVER + " = ?";
-    String[] args      = new String[] { "%"+emoji+"%", "0" };
+  /**
+   * Every sticker that can show up in search, with the title and order of its pack. Pack order lives on the cover row, so it's joined in from there.
+   */
+  public @NonNull List<StickerSearchIndex.Entry> getSearchableStickers() {
+    String query = "SELECT s.*, IFNULL(c." + PACK_ORDER + ", 0) AS " + SEARCH_PACK_ORDER + " " +
+                   "FROM " + TABLE_NAME + " AS s " +
+                   "LEFT JOIN " + TABLE_NAME + " AS c ON c." + PACK_ID + " = s." + PACK_ID + " AND c." + COVER + " = 1 " +
+                   "WHERE s." + COVER + " = 0";
+
+    List<StickerSearchIndex.Entry> entries = new ArrayList<>();
+
+    try (Cursor cursor = databaseHelper.getGenZappReadableDatabase().rawQuery(query, null)) {
+      StickerRecordReader reader = new StickerRecordReader(cursor);
+
+      while (cursor != null && cursor.moveToNext()) {
+        entries.add(new StickerSearchIndex.Entry(reader.getCurrent(),
+                                                 CursorUtil.requireString(cursor, PACK_TITLE),
+                                                 CursorUtil.requireInt(cursor, SEARCH_PACK_ORDER),
+                                                 CursorUtil.requireLong(cursor, LAST_USED)));
+      }
+    }
 
-    return databaseHelper.getGenZappReadableDatabase().query(TABLE_NAME, null, selection, args, null, null, null);
+    return entries;
   }
 
   public @Nullable Cursor getAllStickerPacks() {
@@ -236,6 +259,7 @@ public class StickerTable extends DatabaseTable {
 
     databaseHelper.getGenZappWritableDatabase().update(TABLE_NAME, values, selection, args);
 
+    StickerSearchIndex.onStickerUsed(rowId, lastUsed);
     notifyStickerListeners();
     notifyStickerPackListeners();
   }
@@ -254,11 +278,11 @@ public class StickerTable extends DatabaseTable {
                            ")";
     String[]      args = new String[] { "0" };
 
+    boolean performedDelete = false;
+
     db.beginTransaction();
 
     try {
-      boolean performedDelete = false;
-
       try (Cursor cursor = db.rawQuery(query, args)) {
         while (cursor != null && cursor.moveToNext()) {
           String packId = cursor.getString(cursor.getColumnIndexOrThrow(PACK_ID));
@@ -279,6 +303,10 @@ public class StickerTable extends DatabaseTable {
     } finally {
       db.endTransaction();
     }
+
+    if (performedDelete) {
+      StickerSearchIndex.onStickersChanged();
+    }
   }
 
   public void uninstallPack(@NonNull String packId) {
@@ -295,6 +323,8 @@ public class StickerTable extends DatabaseTable {
     } finally {
       db.endTransaction();
     }
+
+    StickerSearchIndex.onStickersChanged();
   }
 
   public void updatePackOrder(@NonNull List<StickerPackRecord> packsInOrder) {
@@ -318,6 +348,8 @@ public class StickerTable extends DatabaseTable {
     } finally {
       db.endTransaction();
     }
+
+    StickerSearchIndex.onStickersChanged();
   }
 
   private void updatePackInstalled(@NonNull SQLiteDatabase db, @NonNull String packId, boolean installed, boolean notify) {
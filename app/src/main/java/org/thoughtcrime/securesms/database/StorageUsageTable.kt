@@ -0,0 +1,258 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import android.content.Context
+import android.provider.MediaStore
+import androidx.annotation.WorkerThread
+import org.GenZapp.core.util.deleteAll
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.readToList
+import org.GenZapp.core.util.requireInt
+import org.GenZapp.core.util.requireLong
+import org.GenZapp.core.util.requireString
+import org.GenZapp.core.util.select
+import org.GenZapp.core.util.withinTransaction
+import org.thoughtcrime.securesms.util.MediaUtil
+import org.thoughtcrime.securesms.util.MediaUtil.SlideType
+
+/**
+ * Materialized totals for [MediaTable.getStorageBreakdown], so that the storage settings screens don't have to group the entire attachment table every
+ * time they're opened.
+ *
+ * Attachments that share a data file (i.e. deduped attachments) only take up space once, so we keep two tables:
+ * - [FILE_TABLE_NAME] has a row for every data file that counts towards storage, with the category and size it contributes.
+ * - [TABLE_NAME] has a row per category with the sum of the sizes and the number of files.
+ *
+ * Both are kept up to date by triggers. Any write to the attachment table that could change what a data file contributes recomputes that one file's row
+ * (using the data_file index), and changes to the file rows are rolled up into the per-category totals. Reads are then a lookup of a handful of rows.
+ *
+ * [reconcile] should be called periodically to make sure the totals still match what we'd get from scanning the attachment table.
+ */
+class StorageUsageTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper) {
+
+  companion object {
+    private val TAG = Log.tag(StorageUsageTable::class.java)
+
+    const val TABLE_NAME = "storage_usage"
+    const val FILE_TABLE_NAME = "storage_usage_file"
+
+    private const val CATEGORY = "category"
+    private const val TOTAL_SIZE = "total_size"
+    private const val FILE_COUNT = "file_count"
+
+    private const val DATA_FILE = "data_file"
+    private const val SIZE = "size"
+
+    private const val CATEGORY_PHOTO = 0
+    private const val CATEGORY_VIDEO = 1
+    private const val CATEGORY_AUDIO = 2
+    private const val CATEGORY_DOCUMENT = 3
+
+    /**
+     * Mirrors the classification done by [MediaUtil.getSlideTypeFromContentType] in [categoryOf]. View-once attachments don't count towards any
+     * category, and are filtered out before this is applied.
+     */
+    private val CATEGORY_EXPRESSION = """
+      CASE
+        WHEN ${AttachmentTable.CONTENT_TYPE} GLOB 'image/*' AND ${AttachmentTable.CONTENT_TYPE} != 'image/svg+xml' THEN $CATEGORY_PHOTO
+        WHEN trim(${AttachmentTable.CONTENT_TYPE}) IN ('image/gif', 'application/mms') THEN $CATEGORY_PHOTO
+        WHEN ${AttachmentTable.CONTENT_TYPE} = '${MediaStore.Images.Media.CONTENT_TYPE}' THEN $CATEGORY_PHOTO
+        WHEN ${AttachmentTable.CONTENT_TYPE} GLOB 'video/*' OR ${AttachmentTable.CONTENT_TYPE} = '${MediaStore.Video.Media.CONTENT_TYPE}' THEN $CATEGORY_VIDEO
+        WHEN ${AttachmentTable.CONTENT_TYPE} GLOB 'audio/*' OR ${AttachmentTable.CONTENT_TYPE} = '${MediaStore.Audio.Media.CONTENT_TYPE}' THEN $CATEGORY_AUDIO
+        ELSE $CATEGORY_DOCUMENT
+      END
+    """
+
+    /** Only attachments that are fully downloaded and aren't stickers count towards storage usage. */
+    private val COUNTED_ATTACHMENT = """
+      ${AttachmentTable.STICKER_PACK_ID} IS NULL AND
+      ${AttachmentTable.TRANSFER_STATE} = ${AttachmentTable.TRANSFER_PROGRESS_DONE}
+    """
+
+    /**
+     * Selects the rows of [FILE_TABLE_NAME] for the data files matching [dataFileClause]. As with the original query, a data file shared by
+     * several attachments contributes the largest size, classified by the content type of that largest attachment.
+     */
+    private fun selectFileUsage(dataFileClause: String): String {
+      return """
+        SELECT
+          $DATA_FILE,
+          $CATEGORY_EXPRESSION AS $CATEGORY,
+          IFNULL($SIZE, 0)
+        FROM (
+          SELECT
+            ${AttachmentTable.DATA_FILE} AS $DATA_FILE,
+            MAX(${AttachmentTable.DATA_SIZE}) AS $SIZE,
+            ${AttachmentTable.CONTENT_TYPE}
+          FROM ${AttachmentTable.TABLE_NAME}
+          WHERE $dataFileClause AND $COUNTED_ATTACHMENT
+          GROUP BY ${AttachmentTable.DATA_FILE}
+        )
+        WHERE ${AttachmentTable.CONTENT_TYPE} IS NOT '${MediaUtil.VIEW_ONCE}'
+      """
+    }
+
+    private fun refreshFileUsage(dataFile: String, condition: String = "1"): Array<String> {
+      return arrayOf(
+        "DELETE FROM $FILE_TABLE_NAME WHERE $DATA_FILE = $dataFile AND $condition;",
+        "INSERT INTO $FILE_TABLE_NAME ($DATA_FILE, $CATEGORY, $SIZE) ${selectFileUsage("${AttachmentTable.DATA_FILE} = $dataFile AND $condition")};"
+      )
+    }
+
+    private val POPULATE_FILE_USAGE = "INSERT INTO $FILE_TABLE_NAME ($DATA_FILE, $CATEGORY, $SIZE) ${selectFileUsage("${AttachmentTable.DATA_FILE} IS NOT NULL")}"
+
+    val CREATE_TABLE = arrayOf(
+      """
+      CREATE TABLE $TABLE_NAME (
+        $CATEGORY INTEGER PRIMARY KEY,
+        $TOTAL_SIZE INTEGER NOT NULL DEFAULT 0,
+        $FILE_COUNT INTEGER NOT NULL DEFAULT 0
+      )
+      """,
+      """
+      CREATE TABLE $FILE_TABLE_NAME (
+        $DATA_FILE TEXT PRIMARY KEY,
+        $CATEGORY INTEGER NOT NULL,
+        $SIZE INTEGER NOT NULL
+      )
+      """
+    )
+
+    private val COUNTED_OLD = "old.${AttachmentTable.DATA_FILE} IS NOT NULL AND old.${AttachmentTable.STICKER_PACK_ID} IS NULL AND old.${AttachmentTable.TRANSFER_STATE} = ${AttachmentTable.TRANSFER_PROGRESS_DONE}"
+    private val COUNTED_NEW = "new.${AttachmentTable.DATA_FILE} IS NOT NULL AND new.${AttachmentTable.STICKER_PACK_ID} IS NULL AND new.${AttachmentTable.TRANSFER_STATE} = ${AttachmentTable.TRANSFER_PROGRESS_DONE}"
+
+    val CREATE_TRIGGERS = arrayOf(
+      """
+      CREATE TRIGGER storage_usage_file_insert AFTER INSERT ON $FILE_TABLE_NAME
+      BEGIN
+        INSERT OR IGNORE INTO $TABLE_NAME ($CATEGORY) VALUES (new.$CATEGORY);
+        UPDATE $TABLE_NAME SET $TOTAL_SIZE = $TOTAL_SIZE + new.$SIZE, $FILE_COUNT = $FILE_COUNT + 1 WHERE $CATEGORY = new.$CATEGORY;
+      END
+      """,
+      """
+      CREATE TRIGGER storage_usage_file_delete AFTER DELETE ON $FILE_TABLE_NAME
+      BEGIN
+        UPDATE $TABLE_NAME SET $TOTAL_SIZE = $TOTAL_SIZE - old.$SIZE, $FILE_COUNT = $FILE_COUNT - 1 WHERE $CATEGORY = old.$CATEGORY;
+      END
+      """,
+      """
+      CREATE TRIGGER storage_usage_attachment_insert AFTER INSERT ON ${AttachmentTable.TABLE_NAME}
+      WHEN $COUNTED_NEW
+      BEGIN
+        ${refreshFileUsage("new.${AttachmentTable.DATA_FILE}").joinToString("\n")}
+      END
+      """,
+      """
+      CREATE TRIGGER storage_usage_attachment_delete AFTER DELETE ON ${AttachmentTable.TABLE_NAME}
+      WHEN $COUNTED_OLD
+      BEGIN
+        ${refreshFileUsage("old.${AttachmentTable.DATA_FILE}").joinToString("\n")}
+      END
+      """,
+      """
+      CREATE TRIGGER storage_usage_attachment_update AFTER UPDATE OF ${AttachmentTable.DATA_FILE}, ${AttachmentTable.DATA_SIZE}, ${AttachmentTable.CONTENT_TYPE}, ${AttachmentTable.TRANSFER_STATE}, ${AttachmentTable.STICKER_PACK_ID} ON ${AttachmentTable.TABLE_NAME}
+      WHEN ($COUNTED_OLD) OR ($COUNTED_NEW)
+      BEGIN
+        ${refreshFileUsage("old.${AttachmentTable.DATA_FILE}").joinToString("\n")}
+        ${refreshFileUsage("new.${AttachmentTable.DATA_FILE}", "old.${AttachmentTable.DATA_FILE} IS NOT new.${AttachmentTable.DATA_FILE}").joinToString("\n")}
+      END
+      """
+    )
+
+    /**
+     * The category a file with the given content type counts towards, or null if it doesn't count towards any. This is the source of truth that
+     * [CATEGORY_EXPRESSION] mirrors, and is what [reconcile] checks against.
+     */
+    private fun categoryOf(contentType: String?): Int? {
+      return when (MediaUtil.getSlideTypeFromContentType(contentType ?: "")) {
+        SlideType.GIF,
+        SlideType.IMAGE,
+        SlideType.MMS -> CATEGORY_PHOTO
+        SlideType.VIDEO -> CATEGORY_VIDEO
+        SlideType.AUDIO -> CATEGORY_AUDIO
+        SlideType.LONG_TEXT,
+        SlideType.DOCUMENT -> CATEGORY_DOCUMENT
+        else -> null
+      }
+    }
+  }
+
+  fun getStorageBreakdown(): MediaTable.StorageBreakdown {
+    val totals: Map<Int, Total> = getTotals()
+
+    return MediaTable.StorageBreakdown(
+      photoSize = totals[CATEGORY_PHOTO]?.size ?: 0,
+      videoSize = totals[CATEGORY_VIDEO]?.size ?: 0,
+      audioSize = totals[CATEGORY_AUDIO]?.size ?: 0,
+      documentSize = totals[CATEGORY_DOCUMENT]?.size ?: 0,
+      photoCount = totals[CATEGORY_PHOTO]?.count ?: 0,
+      videoCount = totals[CATEGORY_VIDEO]?.count ?: 0,
+      audioCount = totals[CATEGORY_AUDIO]?.count ?: 0,
+      documentCount = totals[CATEGORY_DOCUMENT]?.count ?: 0
+    )
+  }
+
+  /**
+   * Recomputes the totals from scratch with a full scan of the attachment table, and rebuilds the materialized tables if they've drifted.
+   *
+   * @return True if the totals were already correct, otherwise false.
+   */
+  @WorkerThread
+  fun reconcile(): Boolean {
+    return writableDatabase.withinTransaction { db ->
+      val expected: MutableMap<Int, Total> = mutableMapOf()
+
+      db.rawQuery(
+        """
+        SELECT
+          MAX(${AttachmentTable.DATA_SIZE}) AS ${AttachmentTable.DATA_SIZE},
+          ${AttachmentTable.CONTENT_TYPE}
+        FROM ${AttachmentTable.TABLE_NAME}
+        WHERE ${AttachmentTable.DATA_FILE} IS NOT NULL AND $COUNTED_ATTACHMENT
+        GROUP BY ${AttachmentTable.DATA_FILE}
+        """,
+        null
+      ).use { cursor ->
+        while (cursor.moveToNext()) {
+          val category = categoryOf(cursor.requireString(AttachmentTable.CONTENT_TYPE)) ?: continue
+          val size = cursor.requireLong(AttachmentTable.DATA_SIZE)
+          val total = expected[category] ?: Total(0, 0)
+
+          expected[category] = Total(size = total.size + size, count = total.count + 1)
+        }
+      }
+
+      val actual: Map<Int, Total> = getTotals().filterValues { it != Total(0, 0) }
+
+      if (actual == expected) {
+        Log.d(TAG, "[reconcile] Totals are correct.")
+        return@withinTransaction true
+      }
+
+      Log.w(TAG, "[reconcile] Totals have drifted! Expected: $expected, Actual: $actual. Rebuilding.")
+
+      db.deleteAll(FILE_TABLE_NAME)
+      db.deleteAll(TABLE_NAME)
+      db.execSQL(POPULATE_FILE_USAGE)
+
+      false
+    }
+  }
+
+  private fun getTotals(): Map<Int, Total> {
+    return readableDatabase
+      .select(CATEGORY, TOTAL_SIZE, FILE_COUNT)
+      .from(TABLE_NAME)
+      .run()
+      .readToList { cursor ->
+        cursor.requireInt(CATEGORY) to Total(size = cursor.requireLong(TOTAL_SIZE), count = cursor.requireInt(FILE_COUNT))
+      }
+      .toMap()
+  }
+
+  private data class Total(val size: Long, val count: Int)
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import androidx.annotation.WorkerThread
+import org.GenZapp.core.util.SqlUtil
+import org.GenZapp.core.util.delete
+import org.GenZapp.core.util.deleteAll
+import org.GenZapp.core.util.exists
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.readToList
+import org.GenZapp.core.util.requireBoolean
+import org.GenZapp.core.util.requireInt
+import org.GenZapp.core.util.requireLong
+import org.GenZapp.core.util.requireLongOrNull
+import org.GenZapp.core.util.select
+import org.GenZapp.core.util.withinTransaction
+import org.thoughtcrime.securesms.database.model.MessageRecord
+import org.thoughtcrime.securesms.recipients.RecipientId
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A materialized summary of the stories in each thread, with everything the stories landing screen needs to know about a story sender in a single row:
+ * which stories to show, whether they have replies, how many are unviewed, and how many outgoing stories are still sending or have failed.
+ *
+ * Rows are maintained lazily. Triggers on the message table record which threads had a story inserted, viewed, replied to, updated or deleted in
+ * [DIRTY_TABLE_NAME], and triggers on the attachment table do the same when a story's media is added or changes transfer state, since that decides
+ * whether an outgoing story is still sending. Only those threads are recomputed the next time the feed is read. Regular chat messages don't touch either
+ * table.
+ */
+class StoryFeedTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseTable(context, databaseHelper) {
+
+  companion object {
+    private val TAG = Log.tag(StoryFeedTable::class.java)
+
+    const val TABLE_NAME = "story_feed"
+    const val DIRTY_TABLE_NAME = "story_feed_dirty"
+
+    private const val THREAD_ID = "thread_id"
+    private const val UNVIEWED_COUNT = "unviewed_count"
+    private const val SENDING_COUNT = "sending_count"
+    private const val FAILURE_COUNT = "failure_count"
+
+    /** The most recent story in the thread, in either direction. */
+    private const val LATEST = "latest"
+
+    /** The two most recent outgoing stories in the thread, which are candidates for My Story. */
+    private const val OUTGOING = "outgoing"
+    private const val PREVIOUS_OUTGOING = "previous_outgoing"
+
+    private const val STORY_ID = "story_id"
+    private const val STORY_DATE = "story_date"
+    private const val HAS_REPLIES = "has_replies"
+    private const val HAS_SELF_REPLIES = "has_self_replies"
+
+    private val STORY_COLUMNS = arrayOf(STORY_ID, STORY_DATE, HAS_REPLIES, HAS_SELF_REPLIES)
+
+    private fun storyColumns(prefix: String, constraints: String): String {
+      return STORY_COLUMNS.joinToString(",\n") { "${prefix}_$it INTEGER $constraints" }
+    }
+
+    val CREATE_TABLE = arrayOf(
+      """
+      CREATE TABLE $TABLE_NAME (
+        $THREAD_ID INTEGER PRIMARY KEY REFERENCES ${ThreadTable.TABLE_NAME} (${ThreadTable.ID}) ON DELETE CASCADE,
+        ${storyColumns(LATEST, "NOT NULL")},
+        ${storyColumns(OUTGOING, "DEFAULT NULL")},
+        ${storyColumns(PREVIOUS_OUTGOING, "DEFAULT NULL")},
+        $UNVIEWED_COUNT INTEGER NOT NULL,
+        $SENDING_COUNT INTEGER NOT NULL,
+        $FAILURE_COUNT INTEGER NOT NULL
+      )
+      """,
+      """
+      CREATE TABLE $DIRTY_TABLE_NAME (
+        $THREAD_ID INTEGER PRIMARY KEY
+      )
+      """
+    )
+
+    private const val IS_STORY = "${MessageTable.STORY_TYPE} > 0"
+    private const val IS_REPLY = "${MessageTable.PARENT_STORY_ID} != 0"
+
+    val CREATE_TRIGGERS = arrayOf(
+      """
+      CREATE TRIGGER story_feed_message_insert AFTER INSERT ON ${MessageTable.TABLE_NAME}
+      WHEN new.$IS_STORY OR new.$IS_REPLY
+      BEGIN
+        INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT new.${MessageTable.THREAD_ID} WHERE new.$IS_STORY;
+        INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT ${MessageTable.THREAD_ID} FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.ID} = abs(new.${MessageTable.PARENT_STORY_ID});
+      END
+      """,
+      """
+      CREATE TRIGGER story_feed_message_update AFTER UPDATE OF ${MessageTable.TYPE}, ${MessageTable.VIEWED_COLUMN}, ${MessageTable.REMOTE_DELETED}, ${MessageTable.STORY_TYPE}, ${MessageTable.PARENT_STORY_ID}, ${MessageTable.THREAD_ID}, ${MessageTable.DATE_SENT} ON ${MessageTable.TABLE_NAME}
+      WHEN old.$IS_STORY OR new.$IS_STORY OR old.$IS_REPLY OR new.$IS_REPLY
+      BEGIN
+        INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT old.${MessageTable.THREAD_ID} WHERE old.$IS_STORY OR new.$IS_STORY;
+        INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT new.${MessageTable.THREAD_ID} WHERE old.$IS_STORY OR new.$IS_STORY;
+        INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT ${MessageTable.THREAD_ID} FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.ID} IN (abs(old.${MessageTable.PARENT_STORY_ID}), abs(new.${MessageTable.PARENT_STORY_ID}));
+      END
+      """,
+      """
+      CREATE TRIGGER story_feed_message_delete AFTER DELETE ON ${MessageTable.TABLE_NAME}
+      WHEN old.$IS_STORY OR old.$IS_REPLY
+      BEGIN
+        INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT old.${MessageTable.THREAD_ID} WHERE old.$IS_STORY;
+        INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT ${MessageTable.THREAD_ID} FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.ID} = abs(old.${MessageTable.PARENT_STORY_ID});
+      END
+      """,
+      """
+      CREATE TRIGGER story_feed_attachment_insert AFTER INSERT ON ${AttachmentTable.TABLE_NAME}
+      BEGIN
+        INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT ${MessageTable.THREAD_ID} FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.ID} = new.${AttachmentTable.MESSAGE_ID} AND $IS_STORY;
+      END
+      """,
+      """
+      CREATE TRIGGER story_feed_attachment_update AFTER UPDATE OF ${AttachmentTable.TRANSFER_STATE} ON ${AttachmentTable.TABLE_NAME}
+      WHEN old.${AttachmentTable.TRANSFER_STATE} IS NOT new.${AttachmentTable.TRANSFER_STATE}
+      BEGIN
+        INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT ${MessageTable.THREAD_ID} FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.ID} = new.${AttachmentTable.MESSAGE_ID} AND $IS_STORY;
+      END
+      """
+    )
+  }
+
+  /** Bumped every time dirty threads are recomputed, so observers can tell whether the feed changed without reading it. */
+  private val generation = AtomicLong(0)
+
+  /**
+   * Brings any out-of-date rows up to date. When nothing story-related has changed since the last call, this is only a check of an empty table.
+   *
+   * @return The feed's generation. If it matches the value from a previous call, the feed hasn't changed since then.
+   */
+  @WorkerThread
+  fun refresh(): Long {
+    if (readableDatabase.exists(DIRTY_TABLE_NAME).run()) {
+      val refreshed = writableDatabase.withinTransaction { refreshDirtyThreads() }
+
+      if (refreshed) {
+        generation.incrementAndGet()
+      }
+    }
+
+    return generation.get()
+  }
+
+  /**
+   * Marks every thread that has, or had, a row in the feed as dirty, so that the whole feed is recomputed on the next read. Used after a restore, where
+   * the feed isn't part of the backup.
+   */
+  @WorkerThread
+  fun markAllDirty() {
+    writableDatabase.withinTransaction { db ->
+      db.execSQL("INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT $THREAD_ID FROM $TABLE_NAME")
+      db.execSQL("INSERT OR IGNORE INTO $DIRTY_TABLE_NAME ($THREAD_ID) SELECT DISTINCT ${MessageTable.THREAD_ID} FROM ${MessageTable.TABLE_NAME} WHERE $IS_STORY")
+    }
+  }
+
+  /**
+   * Brings any out-of-date rows up to date via [refresh], and then returns the feed.
+   */
+  @WorkerThread
+  fun getFeed(): List<Row> {
+    refresh()
+
+    return readableDatabase
+      .rawQuery(
+        """
+        SELECT $TABLE_NAME.*, ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID}
+        FROM $TABLE_NAME
+        INNER JOIN ${ThreadTable.TABLE_NAME} ON $TABLE_NAME.$THREAD_ID = ${ThreadTable.TABLE_NAME}.${ThreadTable.ID}
+        ORDER BY $TABLE_NAME.$THREAD_ID
+        """,
+        null
+      )
+      .readToList { cursor ->
+        Row(
+          threadId = cursor.requireLong(THREAD_ID),
+          recipientId = RecipientId.from(cursor.requireLong(ThreadTable.RECIPIENT_ID)),
+          latest = cursor.requireStory(LATEST)!!,
+          outgoing = listOfNotNull(cursor.requireStory(OUTGOING), cursor.requireStory(PREVIOUS_OUTGOING)),
+          unviewedCount = cursor.requireInt(UNVIEWED_COUNT),
+          sendingCount = cursor.requireInt(SENDING_COUNT),
+          failureCount = cursor.requireInt(FAILURE_COUNT)
+        )
+      }
+  }
+
+  /**
+   * @return True if any dirty threads were recomputed.
+   */
+  private fun refreshDirtyThreads(): Boolean {
+    val db = writableDatabase
+
+    val threadIds: List<Long> = db
+      .select(THREAD_ID)
+      .from(DIRTY_TABLE_NAME)
+      .run()
+      .readToList { it.requireLong(THREAD_ID) }
+
+    if (threadIds.isEmpty()) {
+      return false
+    }
+
+    val stories: Map<Long, List<StoryInfo>> = SqlUtil.buildCollectionQuery(MessageTable.THREAD_ID, threadIds)
+      .flatMap { query ->
+        db.select(MessageTable.ID, MessageTable.THREAD_ID, MessageTable.DATE_SENT, MessageTable.TYPE, MessageTable.VIEWED_COLUMN)
+          .from(MessageTable.TABLE_NAME)
+          .where("${query.where} AND $IS_STORY AND ${MessageTable.REMOTE_DELETED} = 0", query.whereArgs)
+          .run()
+          .readToList { cursor ->
+            StoryInfo(
+              id = cursor.requireLong(MessageTable.ID),
+              threadId = cursor.requireLong(MessageTable.THREAD_ID),
+              dateSent = cursor.requireLong(MessageTable.DATE_SENT),
+              isOutgoing = MessageTypes.isOutgoingMessageType(cursor.requireLong(MessageTable.TYPE)),
+              isViewed = cursor.requireBoolean(MessageTable.VIEWED_COLUMN)
+            )
+          }
+      }
+      .groupBy { it.threadId }
+      .mapValues { (_, stories) -> stories.sortedByDescending { it.dateSent } }
+
+    val displayedStoryIds: List<Long> = stories.values.flatMap { threadStories ->
+      listOf(threadStories.first().id) + threadStories.filter { it.isOutgoing }.take(2).map { it.id }
+    }
+
+    val replies: Map<Long, Boolean> = getReplies(displayedStoryIds)
+    val outgoingStatuses: Map<Long, OutgoingStatus> = getOutgoingStatuses(stories.values.flatten().filter { it.isOutgoing }.map { it.id })
+
+    for (query in SqlUtil.buildCollectionQuery(THREAD_ID, threadIds)) {
+      db.delete(TABLE_NAME).where(query.where, query.whereArgs).run()
+    }
+
+    for ((threadId, threadStories) in stories) {
+      val outgoing = threadStories.filter { it.isOutgoing }
+      val values = ContentValues().apply {
+        put(THREAD_ID, threadId)
+        putStory(LATEST, threadStories.first(), replies)
+        putStory(OUTGOING, outgoing.getOrNull(0), replies)
+        putStory(PREVIOUS_OUTGOING, outgoing.getOrNull(1), replies)
+        put(UNVIEWED_COUNT, threadStories.count { !it.isOutgoing && !it.isViewed })
+        put(SENDING_COUNT, outgoing.count { outgoingStatuses[it.id] == OutgoingStatus.SENDING })
+        put(FAILURE_COUNT, outgoing.count { outgoingStatuses[it.id] == OutgoingStatus.FAILED })
+      }
+
+      db.insert(TABLE_NAME, null, values)
+    }
+
+    db.deleteAll(DIRTY_TABLE_NAME)
+
+    Log.d(TAG, "Refreshed ${threadIds.size} thread(s), ${stories.size} of which have stories.")
+
+    return true
+  }
+
+  /**
+   * @return A map of parent story id to whether any of its replies are outgoing, for every story id (positive and negative) that has replies.
+   */
+  private fun getReplies(storyIds: List<Long>): Map<Long, Boolean> {
+    val parentIds: List<Long> = storyIds + storyIds.map { -it }
+
+    return SqlUtil.buildCollectionQuery(MessageTable.PARENT_STORY_ID, parentIds)
+      .flatMap { query ->
+        readableDatabase
+          .select(MessageTable.PARENT_STORY_ID, MessageTable.TYPE)
+          .from(MessageTable.TABLE_NAME)
+          .where(query.where, query.whereArgs)
+          .run()
+          .readToList { cursor ->
+            cursor.requireLong(MessageTable.PARENT_STORY_ID) to MessageTypes.isOutgoingMessageType(cursor.requireLong(MessageTable.TYPE))
+          }
+      }
+      .groupBy({ it.first }, { it.second })
+      .mapValues { (_, isOutgoing) -> isOutgoing.any { it } }
+  }
+
+  /**
+   * Whether an outgoing story is still sending or has failed depends on its attachments as well as its type, so we read the full records here. This only
+   * happens for the outgoing stories of threads that have changed.
+   */
+  private fun getOutgoingStatuses(storyIds: List<Long>): Map<Long, OutgoingStatus> {
+    if (storyIds.isEmpty()) {
+      return emptyMap()
+    }
+
+    val statuses: MutableMap<Long, OutgoingStatus> = mutableMapOf()
+
+    for (chunk in storyIds.chunked(500)) {
+      GenZappDatabase.messages.getMessages(chunk).use { reader ->
+        for (record: MessageRecord in reader) {
+          statuses[record.id] = when {
+            record.isPending || record.isMediaPending -> OutgoingStatus.SENDING
+            record.isFailed -> OutgoingStatus.FAILED
+            else -> OutgoingStatus.SENT
+          }
+        }
+      }
+    }
+
+    return statuses
+  }
+
+  private fun ContentValues.putStory(prefix: String, story: StoryInfo?, replies: Map<Long, Boolean>) {
+    if (story == null) {
+      STORY_COLUMNS.forEach { putNull("${prefix}_$it") }
+    } else {
+      put("${prefix}_$STORY_ID", story.id)
+      put("${prefix}_$STORY_DATE", story.dateSent)
+      put("${prefix}_$HAS_REPLIES", replies.containsKey(story.id))
+      put("${prefix}_$HAS_SELF_REPLIES", replies[-story.id] == true)
+    }
+  }
+
+  private fun Cursor.requireStory(prefix: String): Story? {
+    val id = requireLongOrNull("${prefix}_$STORY_ID") ?: return null
+
+    return Story(
+      messageId = id,
+      dateSent = requireLong("${prefix}_$STORY_DATE"),
+      hasReplies = requireBoolean("${prefix}_$HAS_REPLIES"),
+      hasSelfReplies = requireBoolean("${prefix}_$HAS_SELF_REPLIES")
+    )
+  }
+
+  /**
+   * One story sender, as far as the database is concerned. Deciding which landing page entry (if any) each row contributes to depends on the state of the
+   * recipient, and is left to the caller.
+   */
+  data class Row(
+    val threadId: Long,
+    val recipientId: RecipientId,
+    val latest: Story,
+    /** Up to two of the most recent outgoing stories, newest first. */
+    val outgoing: List<Story>,
+    val unviewedCount: Int,
+    val sendingCount: Int,
+    val failureCount: Int
+  )
+
+  data class Story(
+    val messageId: Long,
+    val dateSent: Long,
+    val hasReplies: Boolean,
+    val hasSelfReplies: Boolean
+  )
+
+  private data class StoryInfo(
+    val id: Long,
+    val threadId: Long,
+    val dateSent: Long,
+    val isOutgoing: Boolean,
+    val isViewed: Boolean
+  )
+
+  private enum class OutgoingStatus {
+    SENDING,
+    FAILED,
+    SENT
+  }
+}
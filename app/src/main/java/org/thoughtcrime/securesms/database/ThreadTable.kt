@@ -19,6 +19,7 @@ import org.GenZapp.core.util.logging.Log
 import org.GenZapp.core.util.or
 import org.GenZapp.core.util.readToList
 import org.GenZapp.core.util.readToSingleLong
+import org.GenZapp.core.util.readToSingleObject
 import org.GenZapp.core.util.requireBoolean
 import org.GenZapp.core.util.requireInt
 import org.GenZapp.core.util.requireLong
@@ -52,6 +53,7 @@ import org.thoughtcrime.securesms.groups.BadGroupIdException
 import org.thoughtcrime.securesms.groups.GroupId
 import org.thoughtcrime.securesms.jobs.MultiDeviceDeleteSyncJob
 import org.thoughtcrime.securesms.jobs.OptimizeMessageSearchIndexJob
+import org.thoughtcrime.securesms.jobs.PurgeDeletedConversationsJob
 import org.thoughtcrime.securesms.keyvalue.GenZappStore
 import org.thoughtcrime.securesms.mms.SlideDeck
 import org.thoughtcrime.securesms.mms.StickerSlide
@@ -112,6 +114,7 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
     const val PINNED = "pinned"
     const val UNREAD_SELF_MENTION_COUNT = "unread_self_mention_count"
     const val ACTIVE = "active"
+    const val PURGE_THROUGH_ID = "purge_through_id"
 
     const val MAX_CACHE_SIZE = 1000
 
@@ -142,7 +145,8 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
         $PINNED INTEGER DEFAULT 0, 
         $UNREAD_SELF_MENTION_COUNT INTEGER DEFAULT 0,
         $ACTIVE INTEGER DEFAULT 0,
-        $SNIPPET_MESSAGE_EXTRAS BLOB DEFAULT NULL
+        $SNIPPET_MESSAGE_EXTRAS BLOB DEFAULT NULL,
+        $PURGE_THROUGH_ID INTEGER DEFAULT 0
       )
     """
 
@@ -189,10 +193,30 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
 
     const val NO_TRIM_BEFORE_DATE_SET: Long = 0
     const val NO_TRIM_MESSAGE_COUNT_SET = Int.MAX_VALUE
+
+    /** The number of messages deleted per transaction when purging a deleted conversation. */
+    const val PURGE_CHUNK_SIZE = 500
+
+    /** The number of messages deleted per transaction when trimming a thread. */
+    private const val TRIM_BATCH_SIZE = 500
   }
 
   private val threadIdCache = LRUCache<RecipientId, Long>(MAX_CACHE_SIZE)
 
+  /**
+   * Threads that have been deleted but may still have messages waiting to be purged, mapped to their [PURGE_THROUGH_ID]. Loaded from the thread table on
+   * first use, so it survives restarts.
+   */
+  private val pendingPurges: MutableMap<Long, Long> by lazy {
+    readableDatabase
+      .select(ID, PURGE_THROUGH_ID)
+      .from(TABLE_NAME)
+      .where("$PURGE_THROUGH_ID > 0")
+      .run()
+      .readToList { it.requireLong(ID) to it.requireLong(PURGE_THROUGH_ID) }
+      .toMap(mutableMapOf())
+  }
+
   private fun createThreadForRecipient(recipientId: RecipientId, group: Boolean, distributionType: Int): Long {
     if (recipientId.isUnknown) {
       throw AssertionError("Cannot create a thread for an unknown recipient!")
@@ -328,29 +352,35 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
     val syncThreadTrimDeletes = GenZappStore.settings.shouldSyncThreadTrimDeletes() && Recipient.self().deleteSyncCapability.isSupported
     val threadTrimsToSync = mutableListOf<ThreadDeleteSyncInfo>()
 
-    readableDatabase
-      .select(ID)
-      .from(TABLE_NAME)
-      .run()
-      .use { cursor ->
-        while (cursor.moveToNext()) {
-          trimThreadInternal(
-            threadId = cursor.requireLong(ID),
-            syncThreadTrimDeletes = syncThreadTrimDeletes,
-            length = length,
-            trimBeforeDate = trimBeforeDate
-          )?.also {
-            threadTrimsToSync += it
-          }
-        }
+    val threadsOverLength: Set<Long> = if (length != NO_TRIM_MESSAGE_COUNT_SET && length > 0) {
+      messages.getThreadIdsWithMoreMessagesThan(length)
+    } else {
+      emptySet()
+    }
+
+    val threadIds: Collection<Long> = if (trimBeforeDate != NO_TRIM_BEFORE_DATE_SET) {
+      readableDatabase
+        .select(ID)
+        .from(TABLE_NAME)
+        .run()
+        .readToList { it.requireLong(ID) }
+    } else {
+      threadsOverLength
+    }
+
+    for (threadId in threadIds) {
+      trimThreadInternal(
+        threadId = threadId,
+        syncThreadTrimDeletes = syncThreadTrimDeletes,
+        length = if (threadId in threadsOverLength) length else NO_TRIM_MESSAGE_COUNT_SET,
+        trimBeforeDate = trimBeforeDate
+      )?.also {
+        threadTrimsToSync += it
       }
+    }
 
     val deletes = writableDatabase.withinTransaction {
-      messages.deleteAbandonedMessages()
-      attachments.trimAllAbandonedAttachments()
-      groupReceipts.deleteAbandonedRows()
-      mentions.deleteAbandonedMentions()
-      return@withinTransaction attachments.deleteAbandonedAttachmentFiles()
+      attachments.deleteAbandonedAttachmentFiles()
     }
 
     if (deletes > 0) {
@@ -377,14 +407,9 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
       return
     }
 
-    var threadTrimToSync: ThreadDeleteSyncInfo? = null
+    val threadTrimToSync: ThreadDeleteSyncInfo? = trimThreadInternal(threadId, syncThreadTrimDeletes, length, trimBeforeDate, inclusive)
     val deletes = writableDatabase.withinTransaction {
-      threadTrimToSync = trimThreadInternal(threadId, syncThreadTrimDeletes, length, trimBeforeDate, inclusive)
-      messages.deleteAbandonedMessages()
-      attachments.trimAllAbandonedAttachments()
-      groupReceipts.deleteAbandonedRows()
-      mentions.deleteAbandonedMentions()
-      return@withinTransaction attachments.deleteAbandonedAttachmentFiles()
+      attachments.deleteAbandonedAttachmentFiles()
     }
 
     if (deletes > 0) {
@@ -392,7 +417,7 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
     }
 
     if (syncThreadTrimDeletes && threadTrimToSync != null) {
-      MultiDeviceDeleteSyncJob.enqueueThreadDeletes(listOf(threadTrimToSync!!), isFullDelete = false)
+      MultiDeviceDeleteSyncJob.enqueueThreadDeletes(listOf(threadTrimToSync), isFullDelete = false)
     }
 
     notifyAttachmentListeners()
@@ -412,14 +437,7 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
     }
 
     val finalTrimBeforeDate = if (length != NO_TRIM_MESSAGE_COUNT_SET && length > 0) {
-      messages.getConversation(threadId).use { cursor ->
-        if (cursor.count > length) {
-          cursor.moveToPosition(length - 1)
-          max(trimBeforeDate, cursor.requireLong(MessageTable.DATE_RECEIVED))
-        } else {
-          trimBeforeDate
-        }
-      }
+      messages.getTrimCutoffDate(threadId, length)?.let { max(trimBeforeDate, it) } ?: trimBeforeDate
     } else {
       trimBeforeDate
     }
@@ -439,7 +457,7 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
         emptySet()
       }
 
-      val deletes = messages.deleteMessagesInThreadBeforeDate(threadId, finalTrimBeforeDate, inclusive)
+      val deletes = deleteMessagesInThreadBeforeDate(threadId, finalTrimBeforeDate, inclusive)
 
       if (deletes > 0) {
         Log.i(TAG, "Trimming deleted $deletes messages thread: $threadId")
@@ -461,6 +479,46 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
     return null
   }
 
+  /**
+   * Deletes the messages in a thread received before [date], [TRIM_BATCH_SIZE] at a time, so the write lock is released between batches. The rows that
+   * belong to each batch are deleted alongside it, rather than sweeping every table for abandoned rows afterwards.
+   */
+  private fun deleteMessagesInThreadBeforeDate(threadId: Long, date: Long, inclusive: Boolean): Int {
+    var deletes = 0
+
+    do {
+      val batchSize = writableDatabase.withinTransaction { db ->
+        val messageIds = messages.getMessageIdsInThreadBeforeDate(threadId, date, inclusive, TRIM_BATCH_SIZE)
+        db.deleteMessagesAndDependents(messageIds)
+        messageIds.size
+      }
+
+      deletes += batchSize
+    } while (batchSize == TRIM_BATCH_SIZE)
+
+    return deletes
+  }
+
+  /**
+   * Deletes the given messages along with their attachments, mentions and group receipts. Reactions, search index entries and the like are cleaned up by
+   * the message table's foreign keys and triggers.
+   */
+  private fun SQLiteDatabase.deleteMessagesAndDependents(messageIds: List<Long>) {
+    if (messageIds.isEmpty()) {
+      return
+    }
+
+    attachments.deleteAttachmentsForMessages(messageIds)
+    mentions.deleteMentionsForMessages(messageIds)
+    groupReceipts.deleteRowsForMessages(messageIds)
+
+    for (query in SqlUtil.buildCollectionQuery(MessageTable.ID, messageIds)) {
+      this.delete(MessageTable.TABLE_NAME)
+        .where(query.where, query.whereArgs)
+        .run()
+    }
+  }
+
   fun setAllThreadsRead(): List<MarkedMessageInfo> {
     writableDatabase
       .updateAll(TABLE_NAME)
@@ -1146,6 +1204,10 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
     val addressableMessages = mutableListOf<ThreadDeleteSyncInfo>()
 
     val queries: List<SqlUtil.Query> = SqlUtil.buildCollectionQuery(ID, selectedConversations)
+    var purgeThroughId = 0L
+
+    // The threads are only tombstoned here, and their messages are deleted a chunk at a time afterwards, so that deleting a large conversation never
+    // holds the write lock for long. Anything left after the first chunk is handled by PurgeDeletedConversationsJob.
     writableDatabase.withinTransaction { db ->
       if (syncThreadDeletes && Recipient.self().deleteSyncCapability.isSupported) {
         for (threadId in selectedConversations) {
@@ -1160,16 +1222,20 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
         }
       }
 
+      purgeThroughId = messages.getMaxId()
+
       for (query in queries) {
         db.deactivateThread(query)
+        db.update(TABLE_NAME)
+          .values(PURGE_THROUGH_ID to purgeThroughId)
+          .where(query.where, query.whereArgs)
+          .run()
       }
 
-      messages.deleteAbandonedMessages()
-      attachments.trimAllAbandonedAttachments()
-      groupReceipts.deleteAbandonedRows()
-      mentions.deleteAbandonedMentions()
       drafts.clearDrafts(selectedConversations)
-      attachments.deleteAbandonedAttachmentFiles()
+      synchronized(pendingPurges) {
+        selectedConversations.forEach { pendingPurges[it] = purgeThroughId }
+      }
       synchronized(threadIdCache) {
         for (recipientId in recipientIds) {
           threadIdCache.remove(recipientId)
@@ -1177,6 +1243,10 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
       }
     }
 
+    for (threadId in selectedConversations) {
+      purgeDeletedMessages(threadId, purgeThroughId, PURGE_CHUNK_SIZE)
+    }
+
     if (syncThreadDeletes) {
       MultiDeviceDeleteSyncJob.enqueueThreadDeletes(addressableMessages, isFullDelete = true)
     }
@@ -1189,7 +1259,88 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
 
     ConversationUtil.clearShortcuts(context, recipientIds)
 
-    OptimizeMessageSearchIndexJob.enqueue()
+    PurgeDeletedConversationsJob.enqueue()
+  }
+
+  /**
+   * Deletes the next chunk of messages from a conversation that was deleted with [deleteConversations], in a single short transaction.
+   *
+   * @return False if there were no deleted conversations left to purge, otherwise true.
+   */
+  fun purgeNextDeletedConversationChunk(chunkSize: Int = PURGE_CHUNK_SIZE): Boolean {
+    val next: Pair<Long, Long> = readableDatabase
+      .select(ID, PURGE_THROUGH_ID)
+      .from(TABLE_NAME)
+      .where("$PURGE_THROUGH_ID > 0")
+      .limit(1)
+      .run()
+      .readToSingleObject { it.requireLong(ID) to it.requireLong(PURGE_THROUGH_ID) } ?: return false
+
+    purgeDeletedMessages(threadId = next.first, purgeThroughId = next.second, limit = chunkSize)
+    return true
+  }
+
+  /**
+   * Forgets about any pending purges, leaving the leftover messages to be cleaned up by [MessageTable.deleteAbandonedMessages]. Only appropriate when
+   * the caller is already going to hold the write lock for a long time anyway, like restoring a backup.
+   */
+  fun clearPendingPurges() {
+    writableDatabase
+      .updateAll(TABLE_NAME)
+      .values(PURGE_THROUGH_ID to 0)
+      .run()
+
+    synchronized(pendingPurges) {
+      pendingPurges.clear()
+    }
+  }
+
+  /**
+   * Deletes up to [limit] of the messages at or below [purgeThroughId] in a deleted thread, along with the rows that belong to them. Once there's nothing
+   * left, the thread is no longer considered pending a purge.
+   *
+   * @return True if there may be more messages left to purge, otherwise false.
+   */
+  private fun purgeDeletedMessages(threadId: Long, purgeThroughId: Long, limit: Int): Boolean {
+    return writableDatabase.withinTransaction { db ->
+      val messageIds: List<Long> = db
+        .select(MessageTable.ID)
+        .from(MessageTable.TABLE_NAME)
+        .where("${MessageTable.THREAD_ID} = ? AND ${MessageTable.ID} <= ?", threadId, purgeThroughId)
+        .limit(limit)
+        .run()
+        .readToList { it.requireLong(MessageTable.ID) }
+
+      if (messageIds.isNotEmpty()) {
+        db.deleteMessagesAndDependents(messageIds)
+        calls.updateCallEventDeletionTimestamps()
+      }
+
+      if (messageIds.size < limit) {
+        db.update(TABLE_NAME)
+          .values(PURGE_THROUGH_ID to 0)
+          .where("$ID = ? AND $PURGE_THROUGH_ID = ?", threadId, purgeThroughId)
+          .run()
+
+        synchronized(pendingPurges) {
+          pendingPurges.remove(threadId, purgeThroughId)
+        }
+
+        false
+      } else {
+        true
+      }
+    }
+  }
+
+  /**
+   * A deleted thread is reused if the conversation is started again, possibly before [PurgeDeletedConversationsJob] has finished deleting its old
+   * messages. Reads of the thread's messages skip everything at or below the returned ID, which new messages are always above.
+   *
+   * @return The highest message ID in the thread that's waiting to be purged, or 0 if there's nothing to hide.
+   */
+  fun getPurgedThroughId(threadId: Long): Long {
+    return synchronized(pendingPurges) { pendingPurges[threadId] ?: 0 }
   }
 
   @SuppressLint("DiscouragedApi")
@@ -1689,7 +1840,13 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
       .toSet()
   }
 
-  fun merge(primaryRecipientId: RecipientId, secondaryRecipientId: RecipientId): MergeResult {
+  /**
+   * Merges the secondary recipient's thread into the primary's.
+   *
+   * @param keepSecondaryThread If true and both recipients have a thread, the primary's thread is merged into the secondary's instead, and the secondary's
+   *   thread is handed over to the primary recipient. Used when the secondary has a big history, so that its messages never have to change threads.
+   */
+  fun merge(primaryRecipientId: RecipientId, secondaryRecipientId: RecipientId, keepSecondaryThread: Boolean = false): MergeResult {
     check(databaseHelper.GenZappWritableDatabase.inTransaction()) { "Must be in a transaction!" }
     Log.w(TAG, "Merging threads. Primary: $primaryRecipientId, Secondary: $secondaryRecipientId", true)
 
@@ -1714,29 +1871,53 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
       Log.w(TAG, "[merge] No thread for either.")
       MergeResult(threadId = -1, previousThreadId = -1, neededMerge = false)
     } else {
-      Log.w(TAG, "[merge] Had a thread for both. Deleting the secondary and merging the attributes together.", true)
       check(primaryThreadId != null)
       check(secondaryThreadId != null)
 
+      val (keptThreadId, droppedThreadId) = if (keepSecondaryThread) {
+        Log.w(TAG, "[merge] Had a thread for both. Deleting the primary, giving the secondary to the primary recipient, and merging the attributes together.", true)
+        secondaryThreadId to primaryThreadId
+      } else {
+        Log.w(TAG, "[merge] Had a thread for both. Deleting the secondary and merging the attributes together.", true)
+        primaryThreadId to secondaryThreadId
+      }
+
       for (table in threadIdDatabaseTables) {
-        table.remapThread(secondaryThreadId, primaryThreadId)
+        table.remapThread(droppedThreadId, keptThreadId)
+      }
+
+      val values = ContentValues()
+      values.put(ACTIVE, true)
+
+      if (keepSecondaryThread) {
+        values.put(RECIPIENT_ID, primaryRecipientId.serialize())
+
+        readableDatabase
+          .select(PINNED, ARCHIVED)
+          .from(TABLE_NAME)
+          .where("$ID = ?", primaryThreadId)
+          .run()
+          .use { cursor ->
+            if (cursor.moveToFirst()) {
+              values.put(PINNED, cursor.requireInt(PINNED))
+              values.put(ARCHIVED, cursor.requireInt(ARCHIVED))
+            }
+          }
       }
 
       writableDatabase
         .delete(TABLE_NAME)
-        .where("$ID = ?", secondaryThreadId)
+        .where("$ID = ?", droppedThreadId)
         .run()
 
       synchronized(threadIdCache) {
+        threadIdCache.remove(primaryRecipientId)
         threadIdCache.remove(secondaryRecipientId)
       }
 
       val primaryExpiresIn = getExpiresIn(primaryThreadId)
       val secondaryExpiresIn = getExpiresIn(secondaryThreadId)
 
-      val values = ContentValues()
-      values.put(ACTIVE, true)
-
       if (primaryExpiresIn != secondaryExpiresIn) {
         if (primaryExpiresIn == 0L) {
           values.put(EXPIRES_IN, secondaryExpiresIn)
@@ -1750,12 +1931,12 @@ class ThreadTable(context: Context, databaseHelper: GenZappDatabase) : DatabaseT
       writableDatabase
         .update(TABLE_NAME)
         .values(values)
-        .where("$ID = ?", primaryThreadId)
+        .where("$ID = ?", keptThreadId)
         .run()
 
-      RemappedRecords.getInstance().addThread(secondaryThreadId, primaryThreadId)
+      RemappedRecords.getInstance().addThread(droppedThreadId, keptThreadId)
 
-      MergeResult(threadId = primaryThreadId, previousThreadId = secondaryThreadId, neededMerge = true)
+      MergeResult(threadId = keptThreadId, previousThreadId = droppedThreadId, neededMerge = true)
     }
   }
 
@@ -134,7 +134,7 @@ public class ClassicOpenHelper extends SQLiteOpenHelper {
     db.execSQL(DraftTable.CREATE_TABLE);
     db.execSQL(GroupTable.CREATE_TABLE);
     db.execSQL(RecipientTable.CREATE_TABLE);
-    db.execSQL(GroupReceiptTable.CREATE_TABLE);
+    executeStatements(db, GroupReceiptTable.CREATE_TABLE);
 
     executeStatements(db, MessageTable.CREATE_INDEXS);
     executeStatements(db, AttachmentTable.CREATE_INDEXS);
@@ -96,6 +96,19 @@ import org.thoughtcrime.securesms.database.helpers.migration.V235_AttachmentUuid
 import org.thoughtcrime.securesms.database.helpers.migration.V236_FixInAppSubscriberCurrencyIfAble
 import org.thoughtcrime.securesms.database.helpers.migration.V237_ResetGroupForceUpdateTimestamps
 import org.thoughtcrime.securesms.database.helpers.migration.V238_AddGroupSendEndorsementsColumns
+import org.thoughtcrime.securesms.database.helpers.migration.V239_CreateGroupUpdateRenderCacheTable
+import org.thoughtcrime.securesms.database.helpers.migration.V240_StorageUsageTables
+import org.thoughtcrime.securesms.database.helpers.migration.V241_StoryFeedTables
+import org.thoughtcrime.securesms.database.helpers.migration.V242_PackedGroupReceipts
+import org.thoughtcrime.securesms.database.helpers.migration.V243_ThreadPurgeThroughId
+import org.thoughtcrime.securesms.database.helpers.migration.V244_PendingRecipientMerges
+import org.thoughtcrime.securesms.database.helpers.migration.V245_MentionLookupIndexes
+import org.thoughtcrime.securesms.database.helpers.migration.V246_CallLogIndexes
+import org.thoughtcrime.securesms.database.helpers.migration.V247_MessageSendLogRecipientCounts
+import org.thoughtcrime.securesms.database.helpers.migration.V248_GroupUpdateRenderRecipients
+import org.thoughtcrime.securesms.database.helpers.migration.V249_PendingRecipientMergesByRecipient
+import org.thoughtcrime.securesms.database.helpers.migration.V250_GroupUpdateRenderRecipientTriggers
+import org.thoughtcrime.securesms.database.helpers.migration.V251_StoryFeedAttachmentTriggers
 
 /**
  * Contains all of the database migrations for [GenZappDatabase]. Broken into a separate file for cleanliness.
@@ -194,10 +207,23 @@ object GenZappDatabaseMigrations {
     235 to V235_AttachmentUuidColumn,
     236 to V236_FixInAppSubscriberCurrencyIfAble,
     237 to V237_ResetGroupForceUpdateTimestamps,
-    238 to V238_AddGroupSendEndorsementsColumns
+    238 to V238_AddGroupSendEndorsementsColumns,
+    239 to V239_CreateGroupUpdateRenderCacheTable,
+    240 to V240_StorageUsageTables,
+    241 to V241_StoryFeedTables,
+    242 to V242_PackedGroupReceipts,
+    243 to V243_ThreadPurgeThroughId,
+    244 to V244_PendingRecipientMerges,
+    245 to V245_MentionLookupIndexes,
+    246 to V246_CallLogIndexes,
+    247 to V247_MessageSendLogRecipientCounts,
+    248 to V248_GroupUpdateRenderRecipients,
+    249 to V249_PendingRecipientMergesByRecipient,
+    250 to V250_GroupUpdateRenderRecipientTriggers,
+    251 to V251_StoryFeedAttachmentTriggers
   )
 
-  const val DATABASE_VERSION = 238
+  const val DATABASE_VERSION = 251
 
   @JvmStatic
   fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds a table to persist the rendered text of group update messages.
+ */
+@Suppress("ClassName")
+object V239_CreateGroupUpdateRenderCacheTable : GenZappDatabaseMigration {
+
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL(
+      """
+      CREATE TABLE group_update_render_cache (
+        message_id INTEGER PRIMARY KEY REFERENCES message (_id) ON DELETE CASCADE,
+        locale TEXT NOT NULL,
+        app_version INTEGER NOT NULL,
+        body TEXT NOT NULL,
+        icon INTEGER NOT NULL,
+        spans TEXT NOT NULL,
+        mentioned TEXT NOT NULL,
+        recipient_ids TEXT NOT NULL
+      )
+      """
+    )
+  }
+}
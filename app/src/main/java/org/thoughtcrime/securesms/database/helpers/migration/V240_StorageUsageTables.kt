@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds materialized storage usage totals, kept up to date by triggers on the attachment table, and populates them from the existing attachments.
+ */
+@Suppress("ClassName")
+object V240_StorageUsageTables : GenZappDatabaseMigration {
+
+  private const val CATEGORY_EXPRESSION = """
+    CASE
+      WHEN content_type GLOB 'image/*' AND content_type != 'image/svg+xml' THEN 0
+      WHEN trim(content_type) IN ('image/gif', 'application/mms') THEN 0
+      WHEN content_type = 'vnd.android.cursor.dir/image' THEN 0
+      WHEN content_type GLOB 'video/*' OR content_type = 'vnd.android.cursor.dir/video' THEN 1
+      WHEN content_type GLOB 'audio/*' OR content_type = 'vnd.android.cursor.dir/audio' THEN 2
+      ELSE 3
+    END
+  """
+
+  private fun selectFileUsage(dataFileClause: String): String {
+    return """
+      SELECT
+        data_file,
+        $CATEGORY_EXPRESSION AS category,
+        IFNULL(size, 0)
+      FROM (
+        SELECT
+          data_file AS data_file,
+          MAX(data_size) AS size,
+          content_type
+        FROM attachment
+        WHERE $dataFileClause AND sticker_pack_id IS NULL AND transfer_state = 0
+        GROUP BY data_file
+      )
+      WHERE content_type IS NOT 'application/x-GenZapp-view-once'
+    """
+  }
+
+  private fun refreshFileUsage(dataFile: String, condition: String = "1"): String {
+    return """
+      DELETE FROM storage_usage_file WHERE data_file = $dataFile AND $condition;
+      INSERT INTO storage_usage_file (data_file, category, size) ${selectFileUsage("data_file = $dataFile AND $condition")};
+    """
+  }
+
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL(
+      """
+      CREATE TABLE storage_usage (
+        category INTEGER PRIMARY KEY,
+        total_size INTEGER NOT NULL DEFAULT 0,
+        file_count INTEGER NOT NULL DEFAULT 0
+      )
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TABLE storage_usage_file (
+        data_file TEXT PRIMARY KEY,
+        category INTEGER NOT NULL,
+        size INTEGER NOT NULL
+      )
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER storage_usage_file_insert AFTER INSERT ON storage_usage_file
+      BEGIN
+        INSERT OR IGNORE INTO storage_usage (category) VALUES (new.category);
+        UPDATE storage_usage SET total_size = total_size + new.size, file_count = file_count + 1 WHERE category = new.category;
+      END
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER storage_usage_file_delete AFTER DELETE ON storage_usage_file
+      BEGIN
+        UPDATE storage_usage SET total_size = total_size - old.size, file_count = file_count - 1 WHERE category = old.category;
+      END
+      """
+    )
+
+    db.execSQL("INSERT INTO storage_usage_file (data_file, category, size) ${selectFileUsage("data_file IS NOT NULL")}")
+
+    db.execSQL(
+      """
+      CREATE TRIGGER storage_usage_attachment_insert AFTER INSERT ON attachment
+      WHEN new.data_file IS NOT NULL AND new.sticker_pack_id IS NULL AND new.transfer_state = 0
+      BEGIN
+        ${refreshFileUsage("new.data_file")}
+      END
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER storage_usage_attachment_delete AFTER DELETE ON attachment
+      WHEN old.data_file IS NOT NULL AND old.sticker_pack_id IS NULL AND old.transfer_state = 0
+      BEGIN
+        ${refreshFileUsage("old.data_file")}
+      END
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER storage_usage_attachment_update AFTER UPDATE OF data_file, data_size, content_type, transfer_state, sticker_pack_id ON attachment
+      WHEN (old.data_file IS NOT NULL AND old.sticker_pack_id IS NULL AND old.transfer_state = 0) OR (new.data_file IS NOT NULL AND new.sticker_pack_id IS NULL AND new.transfer_state = 0)
+      BEGIN
+        ${refreshFileUsage("old.data_file")}
+        ${refreshFileUsage("new.data_file", "old.data_file IS NOT new.data_file")}
+      END
+      """
+    )
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds a materialized stories feed, along with the triggers that keep track of which threads need to be refreshed. Every thread that currently has a story
+ * is marked as needing a refresh, so the feed will be built the first time it's read.
+ */
+@Suppress("ClassName")
+object V241_StoryFeedTables : GenZappDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL(
+      """
+      CREATE TABLE story_feed (
+        thread_id INTEGER PRIMARY KEY REFERENCES thread (_id) ON DELETE CASCADE,
+        latest_story_id INTEGER NOT NULL,
+        latest_story_date INTEGER NOT NULL,
+        latest_has_replies INTEGER NOT NULL,
+        latest_has_self_replies INTEGER NOT NULL,
+        outgoing_story_id INTEGER DEFAULT NULL,
+        outgoing_story_date INTEGER DEFAULT NULL,
+        outgoing_has_replies INTEGER DEFAULT NULL,
+        outgoing_has_self_replies INTEGER DEFAULT NULL,
+        previous_outgoing_story_id INTEGER DEFAULT NULL,
+        previous_outgoing_story_date INTEGER DEFAULT NULL,
+        previous_outgoing_has_replies INTEGER DEFAULT NULL,
+        previous_outgoing_has_self_replies INTEGER DEFAULT NULL,
+        unviewed_count INTEGER NOT NULL,
+        sending_count INTEGER NOT NULL,
+        failure_count INTEGER NOT NULL
+      )
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TABLE story_feed_dirty (
+        thread_id INTEGER PRIMARY KEY
+      )
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER story_feed_message_insert AFTER INSERT ON message
+      WHEN new.story_type > 0 OR new.parent_story_id != 0
+      BEGIN
+        INSERT OR IGNORE INTO story_feed_dirty (thread_id) SELECT new.thread_id WHERE new.story_type > 0;
+        INSERT OR IGNORE INTO story_feed_dirty (thread_id) SELECT thread_id FROM message WHERE _id = abs(new.parent_story_id);
+      END
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER story_feed_message_update AFTER UPDATE OF type, viewed, remote_deleted, story_type, parent_story_id, thread_id, date_sent ON message
+      WHEN old.story_type > 0 OR new.story_type > 0 OR old.parent_story_id != 0 OR new.parent_story_id != 0
+      BEGIN
+        INSERT OR IGNORE INTO story_feed_dirty (thread_id) SELECT old.thread_id WHERE old.story_type > 0 OR new.story_type > 0;
+        INSERT OR IGNORE INTO story_feed_dirty (thread_id) SELECT new.thread_id WHERE old.story_type > 0 OR new.story_type > 0;
+        INSERT OR IGNORE INTO story_feed_dirty (thread_id) SELECT thread_id FROM message WHERE _id IN (abs(old.parent_story_id), abs(new.parent_story_id));
+      END
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER story_feed_message_delete AFTER DELETE ON message
+      WHEN old.story_type > 0 OR old.parent_story_id != 0
+      BEGIN
+        INSERT OR IGNORE INTO story_feed_dirty (thread_id) SELECT old.thread_id WHERE old.story_type > 0;
+        INSERT OR IGNORE INTO story_feed_dirty (thread_id) SELECT thread_id FROM message WHERE _id = abs(old.parent_story_id);
+      END
+      """
+    )
+
+    db.execSQL("INSERT INTO story_feed_dirty (thread_id) SELECT DISTINCT thread_id FROM message WHERE story_type > 0")
+  }
+}
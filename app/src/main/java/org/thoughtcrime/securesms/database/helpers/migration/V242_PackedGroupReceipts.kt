@@ -0,0 +1,128 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import androidx.core.content.contentValuesOf
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.requireInt
+import org.GenZapp.core.util.requireLong
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * Replaces the row-per-member group receipts table with one packed row per message, indexed against shared member lists.
+ */
+@Suppress("ClassName")
+object V242_PackedGroupReceipts : GenZappDatabaseMigration {
+
+  private val TAG = Log.tag(V242_PackedGroupReceipts::class.java)
+
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("ALTER TABLE group_receipts RENAME TO group_receipts_old")
+    db.execSQL("DROP INDEX IF EXISTS group_receipt_mms_id_index")
+
+    db.execSQL(
+      """
+      CREATE TABLE group_receipt_members (
+        _id INTEGER PRIMARY KEY,
+        members BLOB NOT NULL UNIQUE
+      )
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TABLE group_receipts (
+        mms_id INTEGER PRIMARY KEY,
+        members_id INTEGER NOT NULL REFERENCES group_receipt_members (_id),
+        status BLOB NOT NULL,
+        timestamp BLOB NOT NULL,
+        unidentified BLOB NOT NULL
+      )
+      """
+    )
+
+    db.execSQL("CREATE INDEX IF NOT EXISTS group_receipt_members_id_index ON group_receipts (members_id)")
+
+    val membersIds: MutableMap<ByteBuffer, Long> = mutableMapOf()
+    var messageCount = 0
+
+    db.rawQuery("SELECT mms_id, address, status, timestamp, unidentified FROM group_receipts_old WHERE mms_id IS NOT NULL ORDER BY mms_id, _id", null).use { cursor ->
+      var currentMmsId = -1L
+      val members = Vector()
+      val statuses = ByteArrayOutputStream()
+      val timestamps = Vector()
+      val unidentified = ByteArrayOutputStream()
+
+      fun writeMessage() {
+        if (currentMmsId < 0 || members.size == 0) {
+          return
+        }
+
+        val membersBlob = members.toByteArray()
+        val membersId = membersIds.getOrPut(ByteBuffer.wrap(membersBlob)) {
+          db.insert("group_receipt_members", null, contentValuesOf("members" to membersBlob))
+        }
+
+        db.insert(
+          "group_receipts",
+          null,
+          contentValuesOf(
+            "mms_id" to currentMmsId,
+            "members_id" to membersId,
+            "status" to statuses.toByteArray(),
+            "timestamp" to timestamps.toByteArray(),
+            "unidentified" to unidentified.toByteArray()
+          )
+        )
+
+        messageCount++
+      }
+
+      while (cursor.moveToNext()) {
+        val mmsId = cursor.requireLong("mms_id")
+
+        if (mmsId != currentMmsId) {
+          writeMessage()
+          currentMmsId = mmsId
+          members.reset()
+          statuses.reset()
+          timestamps.reset()
+          unidentified.reset()
+        }
+
+        members.add(cursor.requireLong("address"))
+        statuses.write(cursor.requireInt("status"))
+        timestamps.add(cursor.requireLong("timestamp"))
+        unidentified.write(if (cursor.requireInt("unidentified") != 0) 1 else 0)
+      }
+
+      writeMessage()
+    }
+
+    db.execSQL("DROP TABLE group_receipts_old")
+
+    Log.i(TAG, "Packed receipts for $messageCount message(s) into ${membersIds.size} member list(s).")
+  }
+
+  /** A growable vector of big-endian longs, matching the encoding used by GroupReceiptTable. */
+  private class Vector {
+    private val bytes = ByteArrayOutputStream()
+    private val out = DataOutputStream(bytes)
+
+    val size: Int
+      get() = bytes.size() / Long.SIZE_BYTES
+
+    fun add(value: Long) = out.writeLong(value)
+
+    fun reset() = bytes.reset()
+
+    fun toByteArray(): ByteArray = bytes.toByteArray()
+  }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds a column to the thread table to keep track of which messages in a deleted thread still need to be purged in the background.
+ */
+@Suppress("ClassName")
+object V243_ThreadPurgeThroughId : GenZappDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("ALTER TABLE thread ADD COLUMN purge_through_id INTEGER DEFAULT 0")
+  }
+}
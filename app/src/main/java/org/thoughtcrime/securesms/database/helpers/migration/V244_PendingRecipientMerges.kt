@@ -0,0 +1,31 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds a table to track recipient merges whose message references are rewritten in the background.
+ */
+@Suppress("ClassName")
+object V244_PendingRecipientMerges : GenZappDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL(
+      """
+      CREATE TABLE pending_recipient_merge (
+        _id INTEGER PRIMARY KEY AUTOINCREMENT,
+        old_recipient_id INTEGER UNIQUE,
+        new_recipient_id INTEGER,
+        old_thread_id INTEGER DEFAULT -1,
+        new_thread_id INTEGER DEFAULT -1,
+        next_message_id INTEGER DEFAULT 0,
+        end_message_id INTEGER DEFAULT 0
+      )
+      """
+    )
+  }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Replaces the mention recipient index with ones that can serve mention search in message order, and adds a partial index over unread
+ * self-mentions so the mention button and badges don't have to walk every unread message in a thread.
+ */
+@Suppress("ClassName")
+object V245_MentionLookupIndexes : GenZappDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("DROP INDEX IF EXISTS mention_recipient_id_thread_id_index")
+    db.execSQL("CREATE INDEX IF NOT EXISTS mention_recipient_id_thread_id_message_id_index ON mention (recipient_id, thread_id, message_id)")
+    db.execSQL("CREATE INDEX IF NOT EXISTS mention_recipient_id_message_id_index ON mention (recipient_id, message_id)")
+    db.execSQL("CREATE INDEX IF NOT EXISTS message_thread_unread_mentions_index ON message (thread_id, date_received) WHERE story_type = 0 AND parent_story_id <= 0 AND scheduled_date = -1 AND latest_revision_id IS NULL AND read = 0 AND mentions_self = 1")
+  }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds indexes so the call log can walk call events in time order and find a call's neighbours without scanning the table.
+ */
+@Suppress("ClassName")
+object V246_CallLogIndexes : GenZappDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("DROP INDEX IF EXISTS call_peer_index")
+    db.execSQL("CREATE INDEX call_peer_direction_timestamp_index ON call (peer, direction, timestamp)")
+    db.execSQL("CREATE INDEX call_timestamp_index ON call (timestamp)")
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Keeps a count of the remaining recipients on each message send log payload. A trigger uses it to delete a payload once its last recipient is gone, so
+ * processing delivery receipts no longer has to scan for orphaned payloads.
+ */
+@Suppress("ClassName")
+object V247_MessageSendLogRecipientCounts : GenZappDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("ALTER TABLE msl_payload ADD COLUMN remaining_recipients INTEGER NOT NULL DEFAULT 0")
+    db.execSQL("UPDATE msl_payload SET remaining_recipients = (SELECT COUNT(*) FROM msl_recipient WHERE msl_recipient.payload_id = msl_payload._id)")
+
+    db.execSQL(
+      """
+      CREATE TRIGGER msl_recipient_delete AFTER DELETE ON msl_recipient
+      BEGIN
+        UPDATE msl_payload SET remaining_recipients = remaining_recipients - 1 WHERE _id = old.payload_id;
+        DELETE FROM msl_payload WHERE _id = old.payload_id AND remaining_recipients <= 0;
+      END
+      """
+    )
+  }
+}
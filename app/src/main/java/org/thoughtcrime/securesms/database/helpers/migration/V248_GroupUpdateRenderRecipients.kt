@@ -0,0 +1,46 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Replaces the space-delimited recipient list on rendered group updates with an indexed mapping table, so invalidating a recipient's renders no longer
+ * scans the whole cache. The cache is rebuilt on demand, so existing renders are simply dropped.
+ */
+@Suppress("ClassName")
+object V248_GroupUpdateRenderRecipients : GenZappDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("DROP TABLE IF EXISTS group_update_render_cache")
+
+    db.execSQL(
+      """
+      CREATE TABLE group_update_render_cache (
+        message_id INTEGER PRIMARY KEY REFERENCES message (_id) ON DELETE CASCADE,
+        locale TEXT NOT NULL,
+        app_version INTEGER NOT NULL,
+        body TEXT NOT NULL,
+        icon INTEGER NOT NULL,
+        spans TEXT NOT NULL,
+        mentioned TEXT NOT NULL
+      )
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TABLE group_update_render_recipient (
+        recipient_id INTEGER NOT NULL,
+        message_id INTEGER NOT NULL REFERENCES group_update_render_cache (message_id) ON DELETE CASCADE,
+        PRIMARY KEY (recipient_id, message_id)
+      )
+      """
+    )
+
+    db.execSQL("CREATE INDEX group_update_render_recipient_message_index ON group_update_render_recipient (message_id)")
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Deferred recipient merges now keep the old recipient's thread and only remap message recipients in the background, so the pending merges no longer
+ * track threads or message ID ranges. Any merge still in flight has its remaining messages moved into the merged thread here.
+ */
+@Suppress("ClassName")
+object V249_PendingRecipientMergesByRecipient : GenZappDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL(
+      """
+      UPDATE message
+      SET thread_id = (SELECT new_thread_id FROM pending_recipient_merge WHERE old_thread_id = message.thread_id)
+      WHERE thread_id IN (SELECT old_thread_id FROM pending_recipient_merge WHERE old_thread_id > 0 AND new_thread_id > 0)
+      """
+    )
+    db.execSQL("DELETE FROM thread WHERE _id IN (SELECT old_thread_id FROM pending_recipient_merge WHERE old_thread_id > 0)")
+
+    db.execSQL(
+      """
+      CREATE TABLE pending_recipient_merge_tmp (
+        _id INTEGER PRIMARY KEY AUTOINCREMENT,
+        old_recipient_id INTEGER UNIQUE,
+        new_recipient_id INTEGER
+      )
+      """
+    )
+    db.execSQL("INSERT INTO pending_recipient_merge_tmp (_id, old_recipient_id, new_recipient_id) SELECT _id, old_recipient_id, new_recipient_id FROM pending_recipient_merge")
+    db.execSQL("DROP TABLE pending_recipient_merge")
+    db.execSQL("ALTER TABLE pending_recipient_merge_tmp RENAME TO pending_recipient_merge")
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Invalidates rendered group updates from triggers on the recipient table, rather than from the handful of setters that remembered to. Renders written
+ * before this may already be stale, so they're dropped and rebuilt on demand.
+ */
+@Suppress("ClassName")
+object V250_GroupUpdateRenderRecipientTriggers : GenZappDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("DELETE FROM group_update_render_recipient")
+    db.execSQL("DELETE FROM group_update_render_cache")
+
+    db.execSQL(
+      """
+      CREATE TRIGGER group_update_render_recipient_update AFTER UPDATE OF e164, aci, pni, username, email, profile_given_name, profile_family_name, profile_joined_name, system_given_name, system_family_name, system_joined_name, nickname_given_name, nickname_family_name, nickname_joined_name ON recipient
+      WHEN old.e164 IS NOT new.e164 OR old.aci IS NOT new.aci OR old.pni IS NOT new.pni OR old.username IS NOT new.username OR old.email IS NOT new.email OR old.profile_given_name IS NOT new.profile_given_name OR old.profile_family_name IS NOT new.profile_family_name OR old.profile_joined_name IS NOT new.profile_joined_name OR old.system_given_name IS NOT new.system_given_name OR old.system_family_name IS NOT new.system_family_name OR old.system_joined_name IS NOT new.system_joined_name OR old.nickname_given_name IS NOT new.nickname_given_name OR old.nickname_family_name IS NOT new.nickname_family_name OR old.nickname_joined_name IS NOT new.nickname_joined_name
+      BEGIN
+        DELETE FROM group_update_render_cache WHERE message_id IN (SELECT message_id FROM group_update_render_recipient WHERE recipient_id = new._id);
+      END
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER group_update_render_recipient_delete AFTER DELETE ON recipient
+      BEGIN
+        DELETE FROM group_update_render_cache WHERE message_id IN (SELECT message_id FROM group_update_render_recipient WHERE recipient_id = old._id);
+      END
+      """
+    )
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Marks a story's thread dirty in the stories feed when one of its attachments is added or changes transfer state, so the feed's sending count follows
+ * media uploads. Every story thread is marked dirty once, in case a row already missed an upload.
+ */
+@Suppress("ClassName")
+object V251_StoryFeedAttachmentTriggers : GenZappDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL(
+      """
+      CREATE TRIGGER story_feed_attachment_insert AFTER INSERT ON attachment
+      BEGIN
+        INSERT OR IGNORE INTO story_feed_dirty (thread_id) SELECT thread_id FROM message WHERE _id = new.message_id AND story_type > 0;
+      END
+      """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER story_feed_attachment_update AFTER UPDATE OF transfer_state ON attachment
+      WHEN old.transfer_state IS NOT new.transfer_state
+      BEGIN
+        INSERT OR IGNORE INTO story_feed_dirty (thread_id) SELECT thread_id FROM message WHERE _id = new.message_id AND story_type > 0;
+      END
+      """
+    )
+
+    db.execSQL("INSERT OR IGNORE INTO story_feed_dirty (thread_id) SELECT thread_id FROM story_feed")
+  }
+}
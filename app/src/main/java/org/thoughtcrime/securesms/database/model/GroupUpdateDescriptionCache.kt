@@ -0,0 +1,183 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.model
+
+import android.content.Context
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import org.GenZapp.core.util.Base64
+import org.GenZapp.core.util.concurrent.GenZappExecutors
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.core.util.withinTransaction
+import org.GenZapp.storageservice.protos.groups.local.DecryptedGroupV2Context
+import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.util.LRUCache
+import org.thoughtcrime.securesms.util.Util
+import org.thoughtcrime.securesms.util.dynamiclanguage.DynamicLanguageContextWrapper
+import java.io.IOException
+
+/**
+ * Caches the expensive parts of describing a group update message.
+ *
+ * - The decoded [DecryptedGroupV2Context] for legacy rows is memoized per message ID, so we only Base64 and protobuf decode a body once.
+ * - The final rendered description is kept in memory and persisted via [org.thoughtcrime.securesms.database.GroupUpdateRenderCacheTable]. It's loaded in
+ *   bulk by [prefetch] off the main thread, so binding a conversation item only needs a map lookup. Newly rendered descriptions are written to disk in
+ *   the background, so a page load only ever reads from the database.
+ * - Persisted renders are invalidated by triggers on the recipient table, and renders in memory whenever a recipient they show changes.
+ */
+object GroupUpdateDescriptionCache {
+
+  private val TAG = Log.tag(GroupUpdateDescriptionCache::class.java)
+
+  private const val MAX_DECODED = 500
+  private const val MAX_RENDERED = 1000
+
+  private val decoded: LRUCache<Long, DecodedEntry> = LRUCache(MAX_DECODED)
+  private val rendered: LRUCache<Long, RenderedGroupUpdate> = LRUCache(MAX_RENDERED)
+
+  /** Renders waiting to be persisted, keyed by message ID. A flush is scheduled whenever this goes from empty to non-empty. */
+  private val pendingWrites: MutableMap<Long, RenderedGroupUpdate> = LinkedHashMap()
+
+  /**
+   * @return The decoded group context for a legacy group update body, or null if it couldn't be decoded.
+   */
+  @JvmStatic
+  fun getDecoded(messageId: Long, body: String): DecryptedGroupV2Context? {
+    synchronized(decoded) {
+      val entry = decoded[messageId]
+      if (entry != null && entry.body == body) {
+        return entry.decryptedGroupV2Context
+      }
+    }
+
+    val decryptedGroupV2Context: DecryptedGroupV2Context? = try {
+      DecryptedGroupV2Context.ADAPTER.decode(Base64.decode(body))
+    } catch (e: IOException) {
+      Log.w(TAG, "GV2 Message update detail could not be read", e)
+      null
+    } catch (e: IllegalArgumentException) {
+      Log.w(TAG, "GV2 Message update detail could not be read", e)
+      null
+    }
+
+    synchronized(decoded) {
+      decoded[messageId] = DecodedEntry(body, decryptedGroupV2Context)
+    }
+
+    return decryptedGroupV2Context
+  }
+
+  /**
+   * @return The rendered description for the message if it's already in memory and matches the current locale. Never touches the database.
+   */
+  @JvmStatic
+  fun getRendered(context: Context, messageId: Long): RenderedGroupUpdate? {
+    val rendered: RenderedGroupUpdate = synchronized(rendered) { rendered[messageId] } ?: return null
+
+    return if (rendered.locale == getLocale(context)) rendered else null
+  }
+
+  /**
+   * Ensures that every group update in [records] has a rendered description in memory, loading persisted renders in bulk and rendering (and persisting)
+   * anything that's missing.
+   */
+  @JvmStatic
+  @WorkerThread
+  fun prefetch(context: Context, records: List<MessageRecord>) {
+    val locale = getLocale(context)
+    val appVersion = Util.getCanonicalVersionCode()
+
+    val needed: Map<Long, MessageRecord> = records
+      .filter { it.isGroupUpdate && it.isGroupV2 && getRendered(context, it.id) == null }
+      .associateBy { it.id }
+
+    if (needed.isEmpty()) {
+      return
+    }
+
+    val persisted: List<RenderedGroupUpdate> = GenZappDatabase.groupUpdateRenderCache.getRendered(needed.keys, locale, appVersion)
+    putAll(persisted)
+
+    val missing: List<MessageRecord> = needed.values.filter { record -> persisted.none { it.messageId == record.id } }
+    if (missing.isEmpty()) {
+      return
+    }
+
+    val newlyRendered: List<RenderedGroupUpdate> = missing.mapNotNull { record ->
+      record.getUpdateDisplayBody(context, null)?.let { RenderedGroupUpdate.render(record.id, locale, it) }
+    }
+
+    putAll(newlyRendered)
+    enqueueWrites(newlyRendered)
+  }
+
+  /**
+   * Drops every in-memory render that shows the given recipient, along with any that are still waiting to be persisted. Persisted renders are deleted by
+   * triggers on the recipient table as soon as a display name column changes, so only memory needs clearing here.
+   */
+  @JvmStatic
+  fun onRecipientChanged(recipientId: RecipientId) {
+    synchronized(rendered) {
+      rendered.values.removeIf { update -> update.spans.any { it.recipientId == recipientId } }
+    }
+
+    synchronized(pendingWrites) {
+      pendingWrites.values.removeIf { update -> update.spans.any { it.recipientId == recipientId } }
+    }
+  }
+
+  @JvmStatic
+  fun clearMemory() {
+    synchronized(decoded) { decoded.clear() }
+    synchronized(rendered) { rendered.clear() }
+  }
+
+  private fun enqueueWrites(updates: List<RenderedGroupUpdate>) {
+    if (updates.isEmpty()) {
+      return
+    }
+
+    val scheduleFlush = synchronized(pendingWrites) {
+      val wasEmpty = pendingWrites.isEmpty()
+      updates.forEach { pendingWrites[it.messageId] = it }
+      wasEmpty
+    }
+
+    if (scheduleFlush) {
+      GenZappExecutors.BOUNDED_IO.execute { flushWrites() }
+    }
+  }
+
+  /**
+   * Persists any renders still waiting to be written. The pending renders are taken inside the write transaction, so an invalidation can't land between
+   * us taking a stale render and writing it.
+   */
+  @VisibleForTesting
+  @JvmStatic
+  @WorkerThread
+  fun flushWrites() {
+    GenZappDatabase.rawDatabase.withinTransaction {
+      val updates: List<RenderedGroupUpdate> = synchronized(pendingWrites) {
+        pendingWrites.values.toList().also { pendingWrites.clear() }
+      }
+
+      GenZappDatabase.groupUpdateRenderCache.insert(updates, Util.getCanonicalVersionCode())
+    }
+  }
+
+  private fun putAll(updates: List<RenderedGroupUpdate>) {
+    synchronized(rendered) {
+      updates.forEach { rendered[it.messageId] = it }
+    }
+  }
+
+  private fun getLocale(context: Context): String {
+    return DynamicLanguageContextWrapper.getUsersSelectedLocale(context).toLanguageTag()
+  }
+
+  private class DecodedEntry(val body: String, val decryptedGroupV2Context: DecryptedGroupV2Context?)
+}
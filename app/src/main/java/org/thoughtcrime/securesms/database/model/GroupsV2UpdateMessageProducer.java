@@ -1,8 +1,11 @@
 package org.thoughtcrime.securesms.database.model;
 
 import android.content.Context;
+import android.text.Annotation;
 import android.text.Spannable;
+import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
+import android.text.Spanned;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
@@ -93,6 +96,8 @@ import okio.ByteString;
 
 final class GroupsV2UpdateMessageProducer {
 
+  static final String RECIPIENT_ANNOTATION = "recipientId";
+
   @NonNull private final  Context               context;
   @NonNull private final  ServiceIds            selfIds;
   @Nullable private final Consumer<RecipientId> recipientClickHandler;
@@ -1602,11 +1607,7 @@ final class GroupsV2UpdateMessageProducer {
         String beforeChunk = template.substring(startIndex, nearestPosition);
 
         builder.append(beforeChunk);
-        builder.append(SpanUtil.clickable(Recipient.resolved(recipientId).getDisplayName(context), ContextCompat.getColor(context, R.color.conversation_item_update_text_color), v -> {
-          if (!recipientId.isUnknown() && clickHandler != null) {
-            clickHandler.accept(recipientId);
-          }
-        }));
+        builder.append(makeRecipientSpan(context, Recipient.resolved(recipientId).getDisplayName(context), recipientId, clickHandler));
 
         startIndex = nearestPosition + placeholder.length();
       } else {
@@ -1618,6 +1619,22 @@ final class GroupsV2UpdateMessageProducer {
     return builder;
   }
 
+  /**
+   * Creates a clickable recipient name. The name is also annotated with the recipient's ID so that the rendered result can be captured and rebuilt later
+   * without re-resolving anyone (see {@link RenderedGroupUpdate}).
+   */
+  static @NonNull Spannable makeRecipientSpan(@NonNull Context context, @NonNull String displayName, @NonNull RecipientId recipientId, @Nullable Consumer<RecipientId> clickHandler) {
+    SpannableString span = new SpannableString(SpanUtil.clickable(displayName, ContextCompat.getColor(context, R.color.conversation_item_update_text_color), v -> {
+      if (!recipientId.isUnknown() && clickHandler != null) {
+        clickHandler.accept(recipientId);
+      }
+    }));
+
+    span.setSpan(new Annotation(RECIPIENT_ANNOTATION, recipientId.serialize()), 0, span.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+    return span;
+  }
+
   @VisibleForTesting
   static @NonNull String makePlaceholder(@NonNull RecipientId recipientId) {
     return "{{SPAN_PLACEHOLDER_" + recipientId + "}}";
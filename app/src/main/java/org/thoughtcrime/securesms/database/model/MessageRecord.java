@@ -182,10 +182,20 @@ public abstract class MessageRecord extends DisplayRecord {
 
   public @Nullable UpdateDescription getUpdateDisplayBody(@NonNull Context context, @Nullable Consumer<RecipientId> recipientClickHandler) {
     if (isGroupUpdate() && isGroupV2()) {
-      if (messageExtras != null) {
+      RenderedGroupUpdate rendered = GroupUpdateDescriptionCache.getRendered(context, getId());
+
+      if (rendered != null) {
+        return rendered.toUpdateDescription(context, recipientClickHandler);
+      } else if (messageExtras != null) {
         return getGv2ChangeDescription(context, messageExtras, recipientClickHandler);
       } else {
-        return getGv2ChangeDescription(context, getBody(), recipientClickHandler);
+        DecryptedGroupV2Context decryptedGroupV2Context = getDecryptedGroupV2Context();
+
+        if (decryptedGroupV2Context != null) {
+          return getGv2ChangeDescription(context, decryptedGroupV2Context, recipientClickHandler);
+        } else {
+          return getGv2ChangeDescription(context, getBody(), recipientClickHandler);
+        }
       }
     } else if (isGroupUpdate() && isOutgoing()) {
       return staticUpdateDescription(context.getString(R.string.MessageRecord_you_updated_group), R.drawable.ic_update_group_16);
@@ -286,6 +296,10 @@ public abstract class MessageRecord extends DisplayRecord {
   }
 
   public boolean isDisplayBodyEmpty(@NonNull Context context) {
+    if (isGroupUpdate() && isGroupV2()) {
+      return false;
+    }
+
     return getUpdateDisplayBody(context, null) == null && getBody().isEmpty();
   }
 
@@ -318,16 +332,7 @@ public abstract class MessageRecord extends DisplayRecord {
       return null;
     }
 
-    DecryptedGroupV2Context decryptedGroupV2Context;
-    try {
-      byte[] decoded = Base64.decode(getBody());
-      decryptedGroupV2Context = DecryptedGroupV2Context.ADAPTER.decode(decoded);
-
-    } catch (IOException e) {
-      Log.w(TAG, "GV2 Message update detail could not be read", e);
-      decryptedGroupV2Context = null;
-    }
-    return decryptedGroupV2Context;
+    return GroupUpdateDescriptionCache.getDecoded(getId(), getBody());
   }
 
   private static boolean selfCreatedGroup(@Nullable DecryptedGroupChange change) {
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.model
+
+import android.content.Context
+import android.text.Annotation
+import android.text.Spannable
+import android.text.SpannableStringBuilder
+import androidx.annotation.DrawableRes
+import androidx.annotation.WorkerThread
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import java.util.function.Consumer
+
+/**
+ * The final rendered form of a group update description: its text, where each recipient's name sits in that text, and who it mentions.
+ * This is everything needed to rebuild an equivalent [UpdateDescription] without decoding the group change or resolving any recipients.
+ */
+data class RenderedGroupUpdate(
+  val messageId: Long,
+  val locale: String,
+  val body: String,
+  @DrawableRes val iconResource: Int,
+  val spans: List<RecipientSpan>,
+  val mentioned: List<ACI>
+) {
+
+  data class RecipientSpan(val start: Int, val end: Int, val recipientId: RecipientId)
+
+  /**
+   * Rebuilds the description, re-attaching clickable recipient names that call into [recipientClickHandler].
+   */
+  fun toUpdateDescription(context: Context, recipientClickHandler: Consumer<RecipientId>?): UpdateDescription {
+    if (spans.isEmpty() && mentioned.isEmpty()) {
+      return UpdateDescription.staticDescription(body, iconResource)
+    }
+
+    return UpdateDescription.mentioning(mentioned, { toSpannable(context, recipientClickHandler) }, iconResource)
+  }
+
+  private fun toSpannable(context: Context, recipientClickHandler: Consumer<RecipientId>?): Spannable {
+    val builder = SpannableStringBuilder()
+    var index = 0
+
+    for (span in spans) {
+      builder.append(body, index, span.start)
+      builder.append(GroupsV2UpdateMessageProducer.makeRecipientSpan(context, body.substring(span.start, span.end), span.recipientId, recipientClickHandler))
+      index = span.end
+    }
+
+    builder.append(body, index, body.length)
+
+    return builder
+  }
+
+  companion object {
+    /**
+     * Renders the description on the calling thread and captures the result. Recipient name positions are recovered from the annotations
+     * [GroupsV2UpdateMessageProducer] leaves on each name.
+     */
+    @JvmStatic
+    @WorkerThread
+    fun render(messageId: Long, locale: String, description: UpdateDescription): RenderedGroupUpdate {
+      val spannable: Spannable = description.spannable
+
+      val spans: List<RecipientSpan> = spannable
+        .getSpans(0, spannable.length, Annotation::class.java)
+        .filter { it.key == GroupsV2UpdateMessageProducer.RECIPIENT_ANNOTATION }
+        .map { RecipientSpan(spannable.getSpanStart(it), spannable.getSpanEnd(it), RecipientId.from(it.value)) }
+        .sortedBy { it.start }
+
+      return RenderedGroupUpdate(
+        messageId = messageId,
+        locale = locale,
+        body = spannable.toString(),
+        iconResource = description.iconResource,
+        spans = spans,
+        mentioned = description.mentioned.toList()
+      )
+    }
+
+    fun serializeSpans(spans: List<RecipientSpan>): String {
+      return spans.joinToString(separator = ";") { "${it.start},${it.end},${it.recipientId.serialize()}" }
+    }
+
+    fun deserializeSpans(serialized: String): List<RecipientSpan> {
+      if (serialized.isEmpty()) {
+        return emptyList()
+      }
+
+      return serialized.split(";").map { part ->
+        val (start, end, recipientId) = part.split(",")
+        RecipientSpan(start.toInt(), end.toInt(), RecipientId.from(recipientId))
+      }
+    }
+
+    fun serializeMentioned(mentioned: List<ACI>): String {
+      return mentioned.joinToString(separator = " ") { it.toString() }
+    }
+
+    fun deserializeMentioned(serialized: String): List<ACI> {
+      if (serialized.isEmpty()) {
+        return emptyList()
+      }
+
+      return serialized.split(" ").mapNotNull { ACI.parseOrNull(it) }
+    }
+  }
+}
@@ -19,6 +19,7 @@ import org.thoughtcrime.securesms.database.DatabaseObserver
 import org.thoughtcrime.securesms.database.PendingRetryReceiptCache
 import org.thoughtcrime.securesms.groups.GroupsV2Authorization
 import org.thoughtcrime.securesms.jobmanager.JobManager
+import org.thoughtcrime.securesms.linkpreview.LinkPreviewCache
 import org.thoughtcrime.securesms.megaphone.MegaphoneRepository
 import org.thoughtcrime.securesms.messages.IncomingMessageObserver
 import org.thoughtcrime.securesms.notifications.MessageNotifier
@@ -185,6 +186,11 @@ object AppDependencies {
     provider.provideGiphyMp4Cache()
   }
 
+  @JvmStatic
+  val linkPreviewCache: LinkPreviewCache by lazy {
+    provider.provideLinkPreviewCache()
+  }
+
   @JvmStatic
   val exoPlayerPool: SimpleExoPlayerPool by lazy {
     provider.provideExoPlayerPool()
@@ -333,6 +339,7 @@ object AppDependencies {
     fun provideGenZappWebSocket(GenZappServiceConfigurationSupplier: Supplier<GenZappServiceConfiguration>, libGenZappNetworkSupplier: Supplier<Network>): GenZappWebSocket
     fun provideProtocolStore(): GenZappServiceDataStoreImpl
     fun provideGiphyMp4Cache(): GiphyMp4Cache
+    fun provideLinkPreviewCache(): LinkPreviewCache
     fun provideExoPlayerPool(): SimpleExoPlayerPool
     fun provideAndroidCallAudioManager(): AudioManagerCompat
     fun provideDonationsService(GenZappServiceConfiguration: GenZappServiceConfiguration, groupsV2Operations: GroupsV2Operations): DonationsService
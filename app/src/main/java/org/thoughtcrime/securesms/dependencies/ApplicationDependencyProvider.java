@@ -358,6 +358,11 @@ public class ApplicationDependencyProvider implements AppDependencies.Provider {
     return new GiphyMp4Cache(ByteUnit.MEGABYTES.toBytes(16));
   }
 
+  @Override
+  public @NonNull LinkPreviewCache provideLinkPreviewCache() {
+    return new LinkPreviewCache(ByteUnit.MEGABYTES.toBytes(8), TimeUnit.DAYS.toMillis(7));
+  }
+
   @Override
   public @NonNull SimpleExoPlayerPool provideExoPlayerPool() {
     return new SimpleExoPlayerPool(context);
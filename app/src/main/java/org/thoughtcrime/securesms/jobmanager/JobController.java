@@ -23,6 +23,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,16 @@ import java.util.function.Predicate;
 /**
  * Manages the queue of jobs. This is the only class that should write to {@link JobStorage} to
  * ensure consistency.
+ *
+ * There are two locks. The controller itself guards dispatch: picking eligible jobs, the set of
+ * running jobs, and anything that changes what's eligible once a job has run (success, retry,
+ * failure, cancellation). {@link #submitLock} only serializes submissions against each other, so
+ * that writing new jobs to storage doesn't hold up runners finishing jobs and picking new ones.
+ * When both are needed, {@link #submitLock} must be taken first.
+ *
+ * Idle {@link JobRunner}s park on their own {@link IdleRunner} rather than the controller, and
+ * whenever something becomes eligible, it's handed directly to a single idle runner that can take
+ * it instead of waking every runner to re-scan storage.
  */
 class JobController {
 
@@ -46,6 +57,8 @@ class JobController {
   private final Debouncer              debouncer;
   private final Callback               callback;
   private final Map<String, Job>       runningJobs;
+  private final List<IdleRunner>       idleRunners;
+  private final Object                 submitLock;
 
   JobController(@NonNull Application application,
                 @NonNull JobStorage jobStorage,
@@ -65,30 +78,30 @@ class JobController {
     this.debouncer              = debouncer;
     this.callback               = callback;
     this.runningJobs            = new HashMap<>();
+    this.idleRunners            = new LinkedList<>();
+    this.submitLock             = new Object();
   }
 
   @WorkerThread
   synchronized void init() {
     jobStorage.updateAllJobsToBePending();
-    notifyAll();
+    dispatchToIdleRunners();
   }
 
   synchronized void wakeUp() {
-    notifyAll();
+    dispatchToIdleRunners();
   }
 
   @WorkerThread
   void submitNewJobChains(@NonNull List<List<List<Job>>> chains) {
-    synchronized (this) {
-      for (List<List<Job>> chain : chains) {
-        submitNewJobChain(chain);
-      }
+    for (List<List<Job>> chain : chains) {
+      submitNewJobChain(chain);
     }
   }
 
   @WorkerThread
   void submitNewJobChain(@NonNull List<List<Job>> chain) {
-    synchronized (this) {
+    synchronized (submitLock) {
       chain = Stream.of(chain).filterNot(List::isEmpty).toList();
 
       if (chain.isEmpty()) {
@@ -111,7 +124,7 @@ class JobController {
     triggerOnSubmit(chain);
 
     synchronized (this) {
-      notifyAll();
+      dispatchToIdleRunners();
     }
   }
 
@@ -119,47 +132,50 @@ class JobController {
   void submitJobWithExistingDependencies(@NonNull Job job, @NonNull Collection<String> dependsOn, @Nullable String dependsOnQueue) {
     List<List<Job>> chain = Collections.singletonList(Collections.singletonList(job));
 
-    synchronized (this) {
-      if (chainExceedsMaximumInstances(chain)) {
-        jobTracker.onStateChange(job, JobTracker.JobState.IGNORED);
-        Log.w(TAG, JobLogger.format(job, "Already at the max instance count. Factory limit: " + job.getParameters().getMaxInstancesForFactory() + ", Queue limit: " + job.getParameters().getMaxInstancesForQueue() + ". Skipping."));
-        return;
-      }
+    // Unlike other submissions, this also needs to keep the jobs it depends on from finishing until it has been inserted
+    synchronized (submitLock) {
+      synchronized (this) {
+        if (chainExceedsMaximumInstances(chain)) {
+          jobTracker.onStateChange(job, JobTracker.JobState.IGNORED);
+          Log.w(TAG, JobLogger.format(job, "Already at the max instance count. Factory limit: " + job.getParameters().getMaxInstancesForFactory() + ", Queue limit: " + job.getParameters().getMaxInstancesForQueue() + ". Skipping."));
+          return;
+        }
 
-      Set<String> allDependsOn = new HashSet<>(dependsOn);
-      Set<String> aliveDependsOn = Stream.of(dependsOn)
-                                         .filter(id -> jobStorage.getJobSpec(id) != null)
-                                         .collect(Collectors.toSet());
+        Set<String> allDependsOn = new HashSet<>(dependsOn);
+        Set<String> aliveDependsOn = Stream.of(dependsOn)
+                                           .filter(id -> jobStorage.getJobSpec(id) != null)
+                                           .collect(Collectors.toSet());
 
-      if (dependsOnQueue != null) {
-        List<String> inQueue = Stream.of(jobStorage.getJobsInQueue(dependsOnQueue))
-                                     .map(JobSpec::getId)
-                                     .toList();
+        if (dependsOnQueue != null) {
+          List<String> inQueue = Stream.of(jobStorage.getJobsInQueue(dependsOnQueue))
+                                       .map(JobSpec::getId)
+                                       .toList();
 
-        allDependsOn.addAll(inQueue);
-        aliveDependsOn.addAll(inQueue);
-      }
+          allDependsOn.addAll(inQueue);
+          aliveDependsOn.addAll(inQueue);
+        }
 
-      if (jobTracker.haveAnyFailed(allDependsOn)) {
-        Log.w(TAG, "This job depends on a job that failed! Failing this job immediately.");
-        List<Job> dependents = onFailure(job);
-        job.setContext(application);
-        job.onFailure();
-        Stream.of(dependents).forEach(Job::onFailure);
-        return;
-      }
+        if (jobTracker.haveAnyFailed(allDependsOn)) {
+          Log.w(TAG, "This job depends on a job that failed! Failing this job immediately.");
+          List<Job> dependents = onFailure(job);
+          job.setContext(application);
+          job.onFailure();
+          Stream.of(dependents).forEach(Job::onFailure);
+          return;
+        }
 
-      FullSpec fullSpec = buildFullSpec(job, aliveDependsOn);
-      jobStorage.insertJobs(Collections.singletonList(fullSpec));
+        FullSpec fullSpec = buildFullSpec(job, aliveDependsOn);
+        jobStorage.insertJobs(Collections.singletonList(fullSpec));
 
-      scheduleJobs(Collections.singletonList(job));
+        scheduleJobs(Collections.singletonList(job));
+      }
     }
 
     // We have no control over what happens in jobs' onSubmit method, so we drop our lock to reduce the possibility of a deadlock
     triggerOnSubmit(chain);
 
     synchronized (this) {
-      notifyAll();
+      dispatchToIdleRunners();
     }
   }
 
@@ -167,7 +183,7 @@ class JobController {
   void submitJobs(@NonNull List<Job> jobs) {
     List<Job> canRun = new ArrayList<>(jobs.size());
 
-    synchronized (this) {
+    synchronized (submitLock) {
       for (Job job : jobs) {
         if (exceedsMaximumInstances(job)) {
           jobTracker.onStateChange(job, JobTracker.JobState.IGNORED);
@@ -194,7 +210,7 @@ class JobController {
     }
 
     synchronized (this) {
-      notifyAll();
+      dispatchToIdleRunners();
     }
   }
 
@@ -233,7 +249,7 @@ class JobController {
   @WorkerThread
   synchronized void update(@NonNull JobUpdater updater) {
     jobStorage.transformJobs(updater::update);
-    notifyAll();
+    dispatchToIdleRunners();
   }
 
   @WorkerThread
@@ -262,7 +278,7 @@ class JobController {
     Log.i(TAG, JobLogger.format(job, "Scheduling a retry in " + backoffInterval + " ms."));
     scheduler.schedule(backoffInterval, constraints);
 
-    notifyAll();
+    dispatchToIdleRunners();
   }
 
   synchronized void onJobFinished(@NonNull Job job) {
@@ -283,7 +299,7 @@ class JobController {
 
     jobStorage.deleteJob(job.getId());
     jobTracker.onStateChange(job, JobTracker.JobState.SUCCESS);
-    notifyAll();
+    dispatchToIdleRunners();
   }
 
   /**
@@ -308,6 +324,8 @@ class JobController {
     jobStorage.deleteJobs(Stream.of(all).map(Job::getId).toList());
     Stream.of(all).forEach(j -> jobTracker.onStateChange(j, JobTracker.JobState.FAILURE));
 
+    dispatchToIdleRunners();
+
     return dependents;
   }
 
@@ -316,27 +334,31 @@ class JobController {
    *  - Has no dependencies
    *  - Has no unmet constraints
    *
-   * This method will block until a job is available.
+   * This method will block until a job is available. While blocked, the caller is parked as an
+   * idle runner and will be handed the next job that matches its predicate.
    * When the job returned from this method has been run, you must call {@link #onJobFinished(Job)}.
    */
   @WorkerThread
-  synchronized @NonNull Job pullNextEligibleJobForExecution(@NonNull Predicate<MinimalJobSpec> predicate) {
-    try {
-      Job job;
+  @NonNull Job pullNextEligibleJobForExecution(@NonNull Predicate<MinimalJobSpec> predicate) {
+    IdleRunner idleRunner = new IdleRunner(predicate);
 
-      while ((job = getNextEligibleJobForExecution(predicate)) == null) {
-        if (runningJobs.isEmpty()) {
-          debouncer.publish(callback::onEmpty);
-        }
+    synchronized (this) {
+      Job job = getNextEligibleJobForExecution(predicate);
 
-        wait();
+      if (job != null) {
+        markJobAsRunning(job);
+        return job;
       }
 
-      jobStorage.markJobAsRunning(job.getId(), System.currentTimeMillis());
-      runningJobs.put(job.getId(), job);
-      jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
+      if (runningJobs.isEmpty()) {
+        debouncer.publish(callback::onEmpty);
+      }
 
-      return job;
+      idleRunners.add(idleRunner);
+    }
+
+    try {
+      return idleRunner.await();
     } catch (InterruptedException e) {
       Log.e(TAG, "Interrupted.");
       throw new AssertionError(e);
@@ -479,6 +501,47 @@ class JobController {
     }
   }
 
+  /**
+   * Hands eligible jobs to idle runners, at most one job per runner. Runners are grouped by their
+   * predicate, so storage is scanned at most once per kind of runner that is idle, no matter how
+   * many runners of that kind are waiting.
+   */
+  @WorkerThread
+  private void dispatchToIdleRunners() {
+    if (idleRunners.isEmpty()) {
+      return;
+    }
+
+    Set<Predicate<MinimalJobSpec>> exhausted = new HashSet<>();
+    Iterator<IdleRunner>           iterator  = idleRunners.iterator();
+
+    while (iterator.hasNext()) {
+      IdleRunner idleRunner = iterator.next();
+
+      if (exhausted.contains(idleRunner.predicate)) {
+        continue;
+      }
+
+      Job job = getNextEligibleJobForExecution(idleRunner.predicate);
+
+      if (job == null) {
+        exhausted.add(idleRunner.predicate);
+        continue;
+      }
+
+      iterator.remove();
+      markJobAsRunning(job);
+      idleRunner.hand(job);
+    }
+  }
+
+  @WorkerThread
+  private void markJobAsRunning(@NonNull Job job) {
+    jobStorage.markJobAsRunning(job.getId(), System.currentTimeMillis());
+    runningJobs.put(job.getId(), job);
+    jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
+  }
+
   @WorkerThread
   private @Nullable Job getNextEligibleJobForExecution(@NonNull Predicate<MinimalJobSpec> predicate) {
     JobSpec jobSpec = jobStorage.getNextEligibleJob(System.currentTimeMillis(), minimalJobSpec -> {
@@ -562,4 +625,30 @@ class JobController {
   interface Callback {
     void onEmpty();
   }
+
+  /**
+   * A runner waiting in {@link #pullNextEligibleJobForExecution(Predicate)}. It waits on its own
+   * monitor, so handing it a job wakes only that runner.
+   */
+  private static final class IdleRunner {
+    private final Predicate<MinimalJobSpec> predicate;
+
+    private Job job;
+
+    private IdleRunner(@NonNull Predicate<MinimalJobSpec> predicate) {
+      this.predicate = predicate;
+    }
+
+    synchronized void hand(@NonNull Job job) {
+      this.job = job;
+      notify();
+    }
+
+    synchronized @NonNull Job await() throws InterruptedException {
+      while (job == null) {
+        wait();
+      }
+      return job;
+    }
+  }
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.jobs
+
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.jobmanager.Job
+
+/**
+ * Finishes recipient merges that were too big to do inside of the merge transaction, by remapping the old recipient's messages, reactions, mentions, group
+ * receipts and calls a chunk at a time. Each chunk only picks up rows that still reference the old recipient, so the job picks up where it left off if the
+ * process dies.
+ */
+class DeferredRecipientMergeJob private constructor(parameters: Parameters) : Job(parameters) {
+
+  companion object {
+    private val TAG = Log.tag(DeferredRecipientMergeJob::class.java)
+
+    const val KEY = "DeferredRecipientMergeJob"
+
+    @JvmStatic
+    fun enqueue() {
+      AppDependencies.jobManager.add(DeferredRecipientMergeJob())
+    }
+  }
+
+  constructor() : this(
+    Parameters.Builder()
+      .setQueue(KEY)
+      .setMaxInstancesForQueue(2)
+      .setLifespan(Parameters.IMMORTAL)
+      .setMaxAttempts(Parameters.UNLIMITED)
+      .build()
+  )
+
+  override fun serialize(): ByteArray? = null
+
+  override fun getFactoryKey(): String = KEY
+
+  override fun run(): Result {
+    var chunks = 0
+
+    while (GenZappDatabase.recipients.remapNextDeferredMergeChunk()) {
+      chunks++
+
+      if (isCanceled) {
+        Log.w(TAG, "Canceled after $chunks chunk(s).")
+        return Result.failure()
+      }
+    }
+
+    Log.i(TAG, "Finished deferred merges in $chunks chunk(s).")
+    return Result.success()
+  }
+
+  override fun onFailure() = Unit
+
+  class Factory : Job.Factory<DeferredRecipientMergeJob> {
+    override fun create(parameters: Parameters, data: ByteArray?): DeferredRecipientMergeJob {
+      return DeferredRecipientMergeJob(parameters)
+    }
+  }
+}
@@ -12,6 +12,7 @@ import org.greenrobot.eventbus.ThreadMode;
 import org.GenZapp.core.util.Stopwatch;
 import org.GenZapp.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.backup.BackupChain;
 import org.thoughtcrime.securesms.backup.BackupEvent;
 import org.thoughtcrime.securesms.backup.BackupFileIOError;
 import org.thoughtcrime.securesms.backup.BackupPassphrase;
@@ -32,10 +33,14 @@ import org.thoughtcrime.securesms.util.StorageUtil;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Objects;
 
 public final class LocalBackupJob extends BaseJob {
 
@@ -115,29 +120,58 @@ public final class LocalBackupJob extends BaseJob {
         throw new IOException("Backup password is null");
       }
 
+      BackupChain chain = BackupChain.getInstance(context);
+
+      for (String archiveName : chain.getArchiveNames()) {
+        if (!new File(backupDirectory, archiveName).exists()) {
+          Log.w(TAG, "Backup chain archive " + archiveName + " is missing. Starting a new chain.");
+          chain.reset();
+          break;
+        }
+      }
+
       File tempFile = File.createTempFile(TEMP_BACKUP_FILE_PREFIX, TEMP_BACKUP_FILE_SUFFIX, backupDirectory);
 
       try {
-        Stopwatch   stopwatch     = new Stopwatch("backup-export");
-        BackupEvent finishedEvent = FullBackupExporter.export(context,
-                                                              AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-                                                              GenZappDatabase.getBackupDatabase(),
-                                                              tempFile,
-                                                              backupPassword,
-                                                              this::isCanceled);
+        Stopwatch   stopwatch = new Stopwatch("backup-export");
+        BackupEvent finishedEvent;
+
+        try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+          finishedEvent = FullBackupExporter.exportDifferential(context,
+                                                                AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                                                GenZappDatabase.getBackupDatabase(),
+                                                                outputStream,
+                                                                backupPassword,
+                                                                chain,
+                                                                this::isCanceled);
+        }
         stopwatch.split("backup-create");
 
-        boolean valid = BackupVerifier.verifyFile(new FileInputStream(tempFile), backupPassword, finishedEvent.getCount(), this::isCanceled);
+        boolean valid;
+        try (InputStream cipherStream = new FileInputStream(tempFile)) {
+          valid = BackupVerifier.verifyFile(cipherStream, backupPassword, finishedEvent.getCount(), this::isCanceled);
+        }
         stopwatch.split("backup-verify");
         stopwatch.stop(TAG);
 
         EventBus.getDefault().post(finishedEvent);
 
         if (valid) {
-          if (!tempFile.renameTo(backupFile)) {
+          File archiveFile = chain.getSequence() == 0 ? backupFile
+                                                      : new File(backupDirectory, BackupChain.getDeltaName(Objects.requireNonNull(chain.getBaseName()), chain.getSequence()));
+
+          if (archiveFile.exists() && archiveFile.delete()) {
+            Log.w(TAG, "Replaced an uncommitted delta " + archiveFile.getName());
+          }
+
+          long archiveBytes = tempFile.length();
+
+          if (!tempFile.renameTo(archiveFile)) {
             Log.w(TAG, "Failed to rename temp file");
             throw new IOException("Renaming temporary backup file failed!");
           }
+
+          chain.commit(archiveFile.getName(), archiveBytes);
         } else {
           BackupFileIOError.VERIFICATION_FAILED.postNotification(context);
         }
@@ -151,6 +185,9 @@ public final class LocalBackupJob extends BaseJob {
         BackupFileIOError.postNotificationForException(context, e);
         throw e;
       } finally {
+        // Only has anything to throw away if the archive didn't make it into the chain
+        chain.abort();
+
         if (tempFile.exists()) {
           if (tempFile.delete()) {
             Log.w(TAG, "Backup failed. Deleted temp file");
@@ -16,6 +16,7 @@ import org.GenZapp.core.util.Stopwatch;
 import org.GenZapp.core.util.ThreadUtil;
 import org.GenZapp.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.backup.BackupChain;
 import org.thoughtcrime.securesms.backup.BackupEvent;
 import org.thoughtcrime.securesms.backup.BackupFileIOError;
 import org.thoughtcrime.securesms.backup.BackupPassphrase;
@@ -32,9 +33,13 @@ import org.thoughtcrime.securesms.util.BackupUtil;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -137,14 +142,30 @@ public final class LocalBackupJobApi29 extends BaseJob {
         throw new IOException("Backup password is null");
       }
 
+      BackupChain chain = BackupChain.getInstance(context);
+      Set<String> stored = getFileNames(backupDirectory);
+
+      for (String archiveName : chain.getArchiveNames()) {
+        if (!stored.contains(archiveName)) {
+          Log.w(TAG, "Backup chain archive " + archiveName + " is missing. Starting a new chain.");
+          chain.reset();
+          break;
+        }
+      }
+
       try {
-        Stopwatch   stopwatch     = new Stopwatch("backup-export");
-        BackupEvent finishedEvent = FullBackupExporter.export(context,
-                                                              AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-                                                              GenZappDatabase.getBackupDatabase(),
-                                                              temporaryFile,
-                                                              backupPassword,
-                                                              this::isCanceled);
+        Stopwatch   stopwatch = new Stopwatch("backup-export");
+        BackupEvent finishedEvent;
+
+        try (OutputStream outputStream = Objects.requireNonNull(context.getContentResolver().openOutputStream(temporaryFile.getUri()))) {
+          finishedEvent = FullBackupExporter.exportDifferential(context,
+                                                                AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                                                GenZappDatabase.getBackupDatabase(),
+                                                                outputStream,
+                                                                backupPassword,
+                                                                chain,
+                                                                this::isCanceled);
+        }
         stopwatch.split("backup-create");
 
         boolean valid = verifyBackup(backupPassword, temporaryFile, finishedEvent);
@@ -153,7 +174,18 @@ public final class LocalBackupJobApi29 extends BaseJob {
         stopwatch.stop(TAG);
 
         if (valid) {
-          renameBackup(fileName, temporaryFile);
+          String archiveName = chain.getSequence() == 0 ? fileName
+                                                        : BackupChain.getDeltaName(Objects.requireNonNull(chain.getBaseName()), chain.getSequence());
+
+          DocumentFile uncommitted = backupDirectory.findFile(archiveName);
+          if (uncommitted != null && uncommitted.delete()) {
+            Log.w(TAG, "Replaced an uncommitted delta " + archiveName);
+          }
+
+          long archiveBytes = temporaryFile.length();
+
+          renameBackup(archiveName, temporaryFile);
+          chain.commit(archiveName, archiveBytes);
         } else {
           BackupFileIOError.VERIFICATION_FAILED.postNotification(context);
         }
@@ -168,6 +200,9 @@ public final class LocalBackupJobApi29 extends BaseJob {
         BackupFileIOError.postNotificationForException(context, e);
         throw e;
       } finally {
+        // Only has anything to throw away if the archive didn't make it into the chain
+        chain.abort();
+
         DocumentFile fileToCleanUp = backupDirectory.findFile(temporaryName);
         if (fileToCleanUp != null) {
           if (fileToCleanUp.delete()) {
@@ -231,6 +266,18 @@ public final class LocalBackupJobApi29 extends BaseJob {
     }
   }
 
+  private static @NonNull Set<String> getFileNames(@NonNull DocumentFile backupDirectory) {
+    Set<String> names = new HashSet<>();
+
+    for (DocumentFile file : backupDirectory.listFiles()) {
+      if (file.isFile() && file.getName() != null) {
+        names.add(file.getName());
+      }
+    }
+
+    return names;
+  }
+
   private static void deleteOldTemporaryBackups(@NonNull DocumentFile backupDirectory) {
     for (DocumentFile file : backupDirectory.listFiles()) {
       if (file.isFile()) {
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.jobs
+
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.jobmanager.Job
+
+/**
+ * Deletes the messages of conversations that were deleted with [org.thoughtcrime.securesms.database.ThreadTable.deleteConversations], one small
+ * transaction at a time so the write lock is never held for long. Progress is tracked in the thread table itself, so if the process dies partway
+ * through, the next run picks up where the last one left off.
+ */
+class PurgeDeletedConversationsJob private constructor(parameters: Parameters) : Job(parameters) {
+
+  companion object {
+    private val TAG = Log.tag(PurgeDeletedConversationsJob::class.java)
+
+    const val KEY = "PurgeDeletedConversationsJob"
+
+    @JvmStatic
+    fun enqueue() {
+      AppDependencies.jobManager.add(PurgeDeletedConversationsJob())
+    }
+  }
+
+  constructor() : this(
+    Parameters.Builder()
+      .setQueue(KEY)
+      .setMaxInstancesForQueue(2)
+      .setLifespan(Parameters.IMMORTAL)
+      .setMaxAttempts(Parameters.UNLIMITED)
+      .build()
+  )
+
+  override fun serialize(): ByteArray? = null
+
+  override fun getFactoryKey(): String = KEY
+
+  override fun run(): Result {
+    var chunks = 0
+
+    while (GenZappDatabase.threads.purgeNextDeletedConversationChunk()) {
+      chunks++
+
+      if (isCanceled) {
+        Log.w(TAG, "Canceled after $chunks chunk(s).")
+        return Result.failure()
+      }
+    }
+
+    Log.i(TAG, "Purged $chunks chunk(s) of deleted messages.")
+
+    val deletedFiles = GenZappDatabase.runInTransaction { GenZappDatabase.attachments.deleteAbandonedAttachmentFiles() }
+    if (deletedFiles > 0) {
+      Log.i(TAG, "Deleted $deletedFiles abandoned attachment file(s).")
+    }
+
+    OptimizeMessageSearchIndexJob.enqueue()
+
+    return Result.success()
+  }
+
+  override fun onFailure() = Unit
+
+  class Factory : Job.Factory<PurgeDeletedConversationsJob> {
+    override fun create(parameters: Parameters, data: ByteArray?): PurgeDeletedConversationsJob {
+      return PurgeDeletedConversationsJob(parameters)
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.jobs
+
+import org.GenZapp.core.util.logTime
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.jobmanager.Job
+import kotlin.time.Duration.Companion.days
+
+/**
+ * Checks the materialized storage usage totals against a full scan of the attachment table, rebuilding them if they've drifted.
+ * Scheduled alongside [AnalyzeDatabaseJob], so it runs at most once a day while the user is likely asleep.
+ */
+class ReconcileStorageUsageJob private constructor(parameters: Parameters) : Job(parameters) {
+
+  companion object {
+    private val TAG = Log.tag(ReconcileStorageUsageJob::class.java)
+
+    const val KEY = "ReconcileStorageUsageJob"
+  }
+
+  constructor() : this(
+    Parameters.Builder()
+      .setMaxInstancesForFactory(1)
+      .setLifespan(1.days.inWholeMilliseconds)
+      .setMaxAttempts(1)
+      .build()
+  )
+
+  override fun serialize(): ByteArray? = null
+
+  override fun getFactoryKey(): String = KEY
+
+  override fun run(): Result {
+    val correct = logTime(TAG, "reconcile") {
+      GenZappDatabase.storageUsage.reconcile()
+    }
+
+    if (!correct) {
+      Log.w(TAG, "Storage usage totals needed to be rebuilt.")
+    }
+
+    return Result.success()
+  }
+
+  override fun onFailure() = Unit
+
+  class Factory : Job.Factory<ReconcileStorageUsageJob> {
+    override fun create(parameters: Parameters, data: ByteArray?): ReconcileStorageUsageJob {
+      return ReconcileStorageUsageJob(parameters)
+    }
+  }
+}
@@ -1,12 +1,12 @@
 package org.thoughtcrime.securesms.keyboard.sticker
 
 import androidx.annotation.WorkerThread
-import org.thoughtcrime.securesms.components.emoji.EmojiUtil
 import org.thoughtcrime.securesms.database.EmojiSearchTable
 import org.thoughtcrime.securesms.database.GenZappDatabase
 import org.thoughtcrime.securesms.database.StickerTable
 import org.thoughtcrime.securesms.database.StickerTable.StickerRecordReader
 import org.thoughtcrime.securesms.database.model.StickerRecord
+import org.thoughtcrime.securesms.stickers.StickerSearchIndex
 
 private const val RECENT_LIMIT = 24
 private const val EMOJI_SEARCH_RESULTS_LIMIT = 20
@@ -15,6 +15,7 @@ class StickerSearchRepository {
 
   private val emojiSearchTable: EmojiSearchTable = GenZappDatabase.emojiSearch
   private val stickerTable: StickerTable = GenZappDatabase.stickers
+  private val searchIndex: StickerSearchIndex = StickerSearchIndex.instance
 
   @WorkerThread
   fun search(query: String): List<StickerRecord> {
@@ -22,22 +23,13 @@ class StickerSearchRepository {
       return StickerRecordReader(stickerTable.getRecentlyUsedStickers(RECENT_LIMIT)).readAll()
     }
 
-    val maybeEmojiQuery: List<StickerRecord> = findStickersForEmoji(query)
+    val maybeEmojiQuery: List<StickerRecord> = searchIndex.findByEmoji(query)
+    val packResults: List<StickerRecord> = searchIndex.findByPackTitle(query)
     val searchResults: List<StickerRecord> = emojiSearchTable.query(query, EMOJI_SEARCH_RESULTS_LIMIT)
-      .map { findStickersForEmoji(it) }
+      .map { searchIndex.findByEmoji(it) }
       .flatten()
 
-    return maybeEmojiQuery + searchResults
-  }
-
-  @WorkerThread
-  private fun findStickersForEmoji(emoji: String): List<StickerRecord> {
-    val searchEmoji: String = EmojiUtil.getCanonicalRepresentation(emoji)
-
-    return EmojiUtil.getAllRepresentations(searchEmoji)
-      .filterNotNull()
-      .map { candidate -> StickerRecordReader(stickerTable.getStickersByEmoji(candidate)).readAll() }
-      .flatten()
+    return (maybeEmojiQuery + packResults + searchResults).distinctBy { it.rowId }
   }
 }
 
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.linkpreview
+
+import android.content.Context
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import org.GenZapp.core.util.Hex
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * An encrypted on-disk cache of generated link previews, keyed by normalized URL. This lets us skip both the metadata fetch and the thumbnail fetch (and
+ * compression!) when the same link is typed or pasted again, even in a different chat or after an app restart.
+ *
+ * Features
+ * - Entries are encrypted at rest with the attachment secret, just like other app media.
+ * - Entries older than [maxAgeMs] are treated as misses and removed when read.
+ * - When the cache is over [maxSize], entries are evicted in LRU order. Access time is persisted via the file's modified time so ordering survives restarts.
+ */
+class LinkPreviewCache(private val maxSize: Long, private val maxAgeMs: Long) {
+
+  companion object {
+    private val TAG = Log.tag(LinkPreviewCache::class.java)
+
+    private const val DIRECTORY = "link_preview_cache"
+    private const val PREFIX = "preview_"
+    private const val TEMP_SUFFIX = ".tmp"
+    private const val VERSION = 2
+
+    /**
+     * Normalizes a URL so that trivially different spellings of the same link share an entry. Scheme and host are lowercased, and default ports and
+     * fragments are dropped. The path is kept as-is, since servers are free to serve different documents for `/a` and `/a/`.
+     */
+    @JvmStatic
+    fun normalizeUrl(url: String): String {
+      val httpUrl = url.trim().toHttpUrlOrNull() ?: return url.trim()
+
+      return httpUrl.newBuilder()
+        .fragment(null)
+        .build()
+        .toString()
+    }
+  }
+
+  private val lock = Any()
+
+  /** Access-ordered, so iteration is in LRU order. Lazily populated from disk on first use. */
+  private var index: LinkedHashMap<String, Entry>? = null
+  private var totalSize: Long = 0
+
+  /**
+   * @return The cached preview for the url, or null if there is no valid entry.
+   */
+  @WorkerThread
+  fun get(context: Context, url: String): CachedPreview? {
+    val normalizedUrl = normalizeUrl(url)
+    val filename = filenameFor(normalizedUrl)
+
+    val entry: Entry = synchronized(lock) {
+      getIndex(context)[filename]
+    } ?: return null
+
+    val file = File(getDirectory(context), entry.filename)
+
+    val preview: CachedPreview? = try {
+      readEntry(context, file, normalizedUrl)
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to read cache entry. Removing.", e)
+      null
+    }
+
+    if (preview == null || preview.createdAt + maxAgeMs < System.currentTimeMillis()) {
+      synchronized(lock) {
+        remove(context, filename)
+      }
+      return null
+    }
+
+    file.setLastModified(System.currentTimeMillis())
+
+    return preview
+  }
+
+  @WorkerThread
+  fun put(context: Context, url: String, preview: CachedPreview) {
+    val normalizedUrl = normalizeUrl(url)
+    val filename = filenameFor(normalizedUrl)
+    val directory = getDirectory(context)
+    val tempFile: File = try {
+      File.createTempFile(PREFIX, TEMP_SUFFIX, directory)
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to create cache entry.", e)
+      return
+    }
+
+    try {
+      writeEntry(context, tempFile, normalizedUrl, preview)
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to write cache entry.", e)
+      tempFile.delete()
+      return
+    }
+
+    synchronized(lock) {
+      val file = File(directory, filename)
+
+      if (!tempFile.renameTo(file)) {
+        Log.w(TAG, "Failed to move cache entry into place.")
+        tempFile.delete()
+        return
+      }
+
+      val index = getIndex(context)
+
+      index.remove(filename)?.let { totalSize -= it.size }
+
+      val entry = Entry(filename, file.length())
+      index[filename] = entry
+      totalSize += entry.size
+
+      trimToSize(context)
+    }
+  }
+
+  @WorkerThread
+  fun clear(context: Context) {
+    synchronized(lock) {
+      getDirectory(context).listFiles()?.forEach { file ->
+        if (!file.delete()) {
+          Log.w(TAG, "Failed to delete: " + file.name)
+        }
+      }
+
+      index = null
+      totalSize = 0
+    }
+  }
+
+  private fun getIndex(context: Context): LinkedHashMap<String, Entry> {
+    index?.let { return it }
+
+    val files: List<File> = getDirectory(context).listFiles()?.toList() ?: emptyList()
+    val loaded = LinkedHashMap<String, Entry>(16, 0.75f, true)
+
+    totalSize = 0
+
+    for (file in files.sortedBy { it.lastModified() }) {
+      if (file.name.endsWith(TEMP_SUFFIX)) {
+        Log.w(TAG, "Removing incomplete entry: " + file.name)
+        file.delete()
+        continue
+      }
+
+      loaded[file.name] = Entry(file.name, file.length())
+      totalSize += file.length()
+    }
+
+    index = loaded
+    trimToSize(context)
+
+    return loaded
+  }
+
+  private fun trimToSize(context: Context) {
+    val index = index ?: return
+    val iterator = index.values.iterator()
+
+    while (totalSize > maxSize && iterator.hasNext()) {
+      val entry = iterator.next()
+
+      if (!File(getDirectory(context), entry.filename).delete()) {
+        Log.w(TAG, "Failed to delete ${entry.filename}")
+      }
+
+      iterator.remove()
+      totalSize -= entry.size
+    }
+  }
+
+  private fun remove(context: Context, filename: String) {
+    getIndex(context).remove(filename)?.let { entry ->
+      totalSize -= entry.size
+      File(getDirectory(context), entry.filename).delete()
+    }
+  }
+
+  @Throws(IOException::class)
+  private fun writeEntry(context: Context, file: File, normalizedUrl: String, preview: CachedPreview) {
+    val attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret()
+
+    DataOutputStream(ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, true).second).use { out ->
+      out.writeInt(VERSION)
+      out.writeString(normalizedUrl)
+      out.writeLong(preview.createdAt)
+      out.writeString(preview.title)
+      out.writeString(preview.description)
+      out.writeLong(preview.date)
+
+      val thumbnail = preview.thumbnail
+      out.writeBoolean(thumbnail != null)
+
+      if (thumbnail != null) {
+        out.writeString(thumbnail.contentType)
+        out.writeInt(thumbnail.width)
+        out.writeInt(thumbnail.height)
+        out.writeInt(thumbnail.data.size)
+        out.write(thumbnail.data)
+      }
+    }
+  }
+
+  @Throws(IOException::class)
+  private fun readEntry(context: Context, file: File, normalizedUrl: String): CachedPreview? {
+    val attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret()
+
+    DataInputStream(ModernDecryptingPartInputStream.createFor(attachmentSecret, file, 0)).use { input ->
+      if (input.readInt() != VERSION) {
+        Log.w(TAG, "Unknown entry version.")
+        return null
+      }
+
+      if (input.readString() != normalizedUrl) {
+        Log.w(TAG, "Entry URL mismatch.")
+        return null
+      }
+
+      val createdAt = input.readLong()
+      val title = input.readString()
+      val description = input.readString()
+      val date = input.readLong()
+
+      val thumbnail: Thumbnail? = if (input.readBoolean()) {
+        val contentType = input.readString()
+        val width = input.readInt()
+        val height = input.readInt()
+        val data = ByteArray(input.readInt())
+
+        input.readFully(data)
+
+        Thumbnail(data, width, height, contentType)
+      } else {
+        null
+      }
+
+      return CachedPreview(title, description, date, thumbnail, createdAt)
+    }
+  }
+
+  private fun DataOutputStream.writeString(value: String) {
+    val bytes = value.toByteArray(Charsets.UTF_8)
+    writeInt(bytes.size)
+    write(bytes)
+  }
+
+  private fun DataInputStream.readString(): String {
+    val bytes = ByteArray(readInt())
+    readFully(bytes)
+    return String(bytes, Charsets.UTF_8)
+  }
+
+  private fun getDirectory(context: Context): File {
+    return context.getDir(DIRECTORY, Context.MODE_PRIVATE)
+  }
+
+  @VisibleForTesting
+  fun filenameFor(normalizedUrl: String): String {
+    val digest = MessageDigest.getInstance("SHA-256").digest(normalizedUrl.toByteArray(Charsets.UTF_8))
+    return PREFIX + Hex.toStringCondensed(digest)
+  }
+
+  private data class Entry(val filename: String, val size: Long)
+
+  class Thumbnail(val data: ByteArray, val width: Int, val height: Int, val contentType: String)
+
+  class CachedPreview @JvmOverloads constructor(
+    val title: String,
+    val description: String,
+    val date: Long,
+    val thumbnail: Thumbnail?,
+    val createdAt: Long = System.currentTimeMillis()
+  )
+}
@@ -141,31 +141,65 @@ public class LinkPreviewRepository {
     } else if (CallLinks.isCallLink(url)) {
       metadataController = fetchCallLinkPreview(context, url, callback);
     } else {
-      metadataController = fetchMetadata(url, metadata -> {
+      fetchCachedOrRemoteLinkPreview(context, url, compositeController, callback);
+      return compositeController;
+    }
+
+    compositeController.addController(metadataController);
+    return compositeController;
+  }
+
+  /**
+   * Serves the preview out of the {@link LinkPreviewCache} if possible, otherwise fetches the metadata and thumbnail and caches the result for next time.
+   */
+  private void fetchCachedOrRemoteLinkPreview(@NonNull Context context,
+                                              @NonNull String url,
+                                              @NonNull CompositeRequestController compositeController,
+                                              @NonNull Callback callback)
+  {
+    LinkPreviewCache cache = AppDependencies.getLinkPreviewCache();
+
+    GenZappExecutors.UNBOUNDED.execute(() -> {
+      LinkPreviewCache.CachedPreview cached = cache.get(context, url);
+
+      if (compositeController.isCanceled()) {
+        return;
+      }
+
+      if (cached != null) {
+        Log.i(TAG, "Using cached link preview.");
+        callback.onSuccess(cachedPreviewToLinkPreview(url, cached));
+        return;
+      }
+
+      compositeController.addController(fetchMetadata(url, metadata -> {
         if (metadata.isEmpty()) {
           callback.onError(Error.PREVIEW_NOT_AVAILABLE);
           return;
         }
 
         if (!metadata.getImageUrl().isPresent()) {
-          callback.onSuccess(new LinkPreview(url, metadata.getTitle().orElse(""), metadata.getDescription().orElse(""), metadata.getDate(), Optional.empty()));
+          LinkPreviewCache.CachedPreview preview = new LinkPreviewCache.CachedPreview(metadata.getTitle().orElse(""), metadata.getDescription().orElse(""), metadata.getDate(), null);
+
+          cache.put(context, url, preview);
+          callback.onSuccess(cachedPreviewToLinkPreview(url, preview));
           return;
         }
 
-        RequestController imageController = fetchThumbnail(metadata.getImageUrl().get(), attachment -> {
-          if (!metadata.getTitle().isPresent() && !attachment.isPresent()) {
+        RequestController imageController = fetchThumbnail(metadata.getImageUrl().get(), thumbnail -> {
+          if (!metadata.getTitle().isPresent() && !thumbnail.isPresent()) {
             callback.onError(Error.PREVIEW_NOT_AVAILABLE);
           } else {
-            callback.onSuccess(new LinkPreview(url, metadata.getTitle().orElse(""), metadata.getDescription().orElse(""), metadata.getDate(), attachment));
+            LinkPreviewCache.CachedPreview preview = new LinkPreviewCache.CachedPreview(metadata.getTitle().orElse(""), metadata.getDescription().orElse(""), metadata.getDate(), thumbnail.orElse(null));
+
+            cache.put(context, url, preview);
+            callback.onSuccess(cachedPreviewToLinkPreview(url, preview));
           }
         });
 
         compositeController.addController(imageController);
-      });
-    }
-
-    compositeController.addController(metadataController);
-    return compositeController;
+      }));
+    });
   }
 
   private @NonNull RequestController fetchMetadata(@NonNull String url, Consumer<Metadata> callback) {
@@ -192,11 +226,13 @@ public class LinkPreviewRepository {
 
         String body;
         try {
-          body = OkHttpUtil.readAsString(response.body(), FAILSAFE_MAX_TEXT_SIZE);
+          body = OkHttpUtil.readHtmlHeadAsString(response.body(), FAILSAFE_MAX_TEXT_SIZE);
         } catch (IOException e) {
           Log.w(TAG, "Failed to read body", e);
           callback.accept(Metadata.empty());
           return;
+        } finally {
+          response.close();
         }
 
         OpenGraph        openGraph   = LinkPreviewUtil.parseOpenGraphFields(body);
@@ -217,7 +253,7 @@ public class LinkPreviewRepository {
     return new CallRequestController(call);
   }
 
-  private @NonNull RequestController fetchThumbnail(@NonNull String imageUrl, @NonNull Consumer<Optional<Attachment>> callback) {
+  private @NonNull RequestController fetchThumbnail(@NonNull String imageUrl, @NonNull Consumer<Optional<LinkPreviewCache.Thumbnail>> callback) {
     Call                  call       = client.newCall(new Request.Builder().url(imageUrl).build());
     CallRequestController controller = new CallRequestController(call);
 
@@ -231,10 +267,10 @@ public class LinkPreviewRepository {
         InputStream bodyStream = response.body().byteStream();
         controller.setStream(bodyStream);
 
-        byte[]                           data        = OkHttpUtil.readAsBytes(bodyStream, FAILSAFE_MAX_IMAGE_SIZE);
-        Bitmap                           bitmap      = BitmapFactory.decodeByteArray(data, 0, data.length);
-        Optional<Attachment>             thumbnail   = Optional.empty();
-        PushMediaConstraints.MediaConfig mediaConfig = PushMediaConstraints.MediaConfig.getDefault(AppDependencies.getApplication());
+        byte[]                               data        = OkHttpUtil.readAsBytes(bodyStream, FAILSAFE_MAX_IMAGE_SIZE);
+        Bitmap                               bitmap      = BitmapFactory.decodeByteArray(data, 0, data.length);
+        Optional<LinkPreviewCache.Thumbnail> thumbnail   = Optional.empty();
+        PushMediaConstraints.MediaConfig     mediaConfig = PushMediaConstraints.MediaConfig.getDefault(AppDependencies.getApplication());
 
         if (bitmap != null) {
           for (final int maxDimension : mediaConfig.getImageSizeTargets()) {
@@ -248,7 +284,7 @@ public class LinkPreviewRepository {
             );
 
             if (result != null) {
-              thumbnail = Optional.of(bytesToAttachment(result.getData(), result.getWidth(), result.getHeight(), result.getMimeType()));
+              thumbnail = Optional.of(new LinkPreviewCache.Thumbnail(result.getData(), result.getWidth(), result.getHeight(), result.getMimeType()));
               break;
             }
           }
@@ -447,6 +483,14 @@ public class LinkPreviewRepository {
     return Optional.of(bytesToAttachment(bytes, bitmap.getWidth(), bitmap.getHeight(), contentType));
   }
 
+  private static @NonNull LinkPreview cachedPreviewToLinkPreview(@NonNull String url, @NonNull LinkPreviewCache.CachedPreview preview) {
+    LinkPreviewCache.Thumbnail thumbnail  = preview.getThumbnail();
+    Optional<Attachment>       attachment = thumbnail != null ? Optional.of(bytesToAttachment(thumbnail.getData(), thumbnail.getWidth(), thumbnail.getHeight(), thumbnail.getContentType()))
+                                                              : Optional.empty();
+
+    return new LinkPreview(url, preview.getTitle(), preview.getDescription(), preview.getDate(), attachment);
+  }
+
   private static Attachment bytesToAttachment(byte[] bytes,
                                               int width,
                                               int height,
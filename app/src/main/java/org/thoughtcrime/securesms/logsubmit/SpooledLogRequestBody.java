@@ -0,0 +1,109 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.thoughtcrime.securesms.database.LogDatabase;
+import org.thoughtcrime.securesms.util.ByteUnit;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * A gzipped debug log, streamed row by row into a temporary file before it's uploaded.
+ * <p>
+ * However large the log is, only a page of rows and the writer and gzip buffers are ever in memory. Spooling to a file rather than straight into the request
+ * gives the upload a known length, which the presigned POST it goes to requires, and lets OkHttp write the body again if it retries. Close it once the upload
+ * is done to delete the file.
+ */
+final class SpooledLogRequestBody extends RequestBody implements Closeable {
+
+  private static final MediaType CONTENT_TYPE = MediaType.get("application/gzip");
+  private static final int       BUFFER_SIZE  = (int) ByteUnit.KILOBYTES.toBytes(64);
+
+  private final File file;
+
+  private SpooledLogRequestBody(@NonNull File file) {
+    this.file = file;
+  }
+
+  /**
+   * Writes the prefix and every log row through gzip into a new file in the given directory.
+   */
+  @WorkerThread
+  static @NonNull SpooledLogRequestBody create(@NonNull File directory, @NonNull PrefixWriter prefix, @NonNull LogOpener logs) throws IOException {
+    File file = File.createTempFile("debuglog", ".gz", directory);
+
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+      write(writer, prefix, logs);
+    } catch (IOException | RuntimeException e) {
+      file.delete();
+      throw e;
+    }
+
+    return new SpooledLogRequestBody(file);
+  }
+
+  @Override
+  public @Nullable MediaType contentType() {
+    return CONTENT_TYPE;
+  }
+
+  @Override
+  public long contentLength() {
+    return file.length();
+  }
+
+  @Override
+  public void writeTo(@NonNull BufferedSink sink) throws IOException {
+    try (Source source = Okio.source(file)) {
+      sink.writeAll(source);
+    }
+  }
+
+  @Override
+  public void close() {
+    file.delete();
+  }
+
+  /**
+   * Writes the prefix followed by every log row, one per line, reading a page of rows at a time. This fills the spooled file in
+   * {@link #create(File, PrefixWriter, LogOpener)}, and is also used on its own to save the log somewhere the user picks. The writer is flushed but left
+   * open, so the caller can finish whatever it wraps.
+   */
+  @WorkerThread
+  static void write(@NonNull Writer writer, @NonNull PrefixWriter prefix, @NonNull LogOpener logs) throws IOException {
+    prefix.write(writer);
+
+    try (LogDatabase.LogTable.Reader reader = logs.open()) {
+      while (reader.hasNext()) {
+        writer.write(reader.next());
+        writer.write('\n');
+      }
+    }
+
+    writer.flush();
+  }
+
+  interface PrefixWriter {
+    void write(@NonNull Writer writer) throws IOException;
+  }
+
+  interface LogOpener {
+    @NonNull LogDatabase.LogTable.Reader open();
+  }
+}
@@ -4,7 +4,6 @@ import android.app.Application;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
-import android.os.ParcelFileDescriptor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -14,7 +13,6 @@ import com.annimon.stream.Stream;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.GenZapp.core.util.StreamUtil;
 import org.GenZapp.core.util.concurrent.GenZappExecutors;
 import org.GenZapp.core.util.logging.Log;
 import org.GenZapp.core.util.logging.Scrubber;
@@ -22,23 +20,22 @@ import org.GenZapp.core.util.tracing.Tracer;
 import org.thoughtcrime.securesms.database.LogDatabase;
 import org.thoughtcrime.securesms.dependencies.AppDependencies;
 import org.thoughtcrime.securesms.net.StandardUserAgentInterceptor;
-import org.thoughtcrime.securesms.providers.BlobProvider;
 import org.thoughtcrime.securesms.push.GenZappServiceNetworkAccess;
+import org.thoughtcrime.securesms.util.ByteUnit;
 import org.thoughtcrime.securesms.util.RemoteConfig;
 import org.GenZapp.core.util.Stopwatch;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -49,9 +46,6 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
-import okio.BufferedSink;
-import okio.Okio;
-import okio.Source;
 
 /**
  * Handles retrieving, scrubbing, and uploading of all debug logs.
@@ -69,6 +63,9 @@ public class SubmitDebugLogRepository {
   private static final int    SECTION_SPACING  = 3;
   private static final String API_ENDPOINT     = "https://debuglogs.org";
 
+  /** Past this, the oldest logs are left out of an upload so that the most recent ones make it. */
+  private static final long MAX_UPLOAD_LOG_SIZE = ByteUnit.MEGABYTES.toBytes(40);
+
   /** Ordered list of log sections. */
   private static final List<LogSection> SECTIONS = new ArrayList<LogSection>() {{
     add(new LogSectionSystemInfo());
@@ -118,7 +115,7 @@ public class SubmitDebugLogRepository {
     GenZappExecutors.UNBOUNDED.execute(() -> {
       Log.blockUntilAllWritesFinished();
       LogDatabase.getInstance(context).logs().trimToSize();
-      callback.onResult(submitLogInternal(System.currentTimeMillis(), getPrefixLogLinesInternal(), Tracer.getInstance().serialize()));
+      callback.onResult(submitLogInternal(System.currentTimeMillis(), null, Tracer.getInstance().serialize()));
     });
   }
 
@@ -136,16 +133,11 @@ public class SubmitDebugLogRepository {
   public void writeLogToDisk(@NonNull Uri uri, long untilTime, Callback<Boolean> callback) {
     GenZappExecutors.UNBOUNDED.execute(() -> {
       try (ZipOutputStream outputStream = new ZipOutputStream(context.getContentResolver().openOutputStream(uri))) {
-        StringBuilder prefixLines = linesToStringBuilder(getPrefixLogLinesInternal(), null);
-
         outputStream.putNextEntry(new ZipEntry("log.txt"));
-        outputStream.write(prefixLines.toString().getBytes(StandardCharsets.UTF_8));
 
-        try (LogDatabase.LogTable.Reader reader = LogDatabase.getInstance(context).logs().getAllBeforeTime(untilTime)) {
-          while (reader.hasNext()) {
-            outputStream.write(reader.next().getBytes());
-            outputStream.write("\n".getBytes());
-          }
+        try {
+          Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+          SpooledLogRequestBody.write(writer, w -> writeSections(w, null), () -> LogDatabase.getInstance(context).logs().getAllBeforeTime(untilTime));
         } catch (IllegalStateException e) {
           Log.e(TAG, "Failed to read row!", e);
           callback.onResult(false);
@@ -165,8 +157,11 @@ public class SubmitDebugLogRepository {
     });
   }
 
+  /**
+   * @param prefixLines The prefix the user was shown, or null to build it while uploading.
+   */
   @WorkerThread
-  private @NonNull Optional<String> submitLogInternal(long untilTime, @NonNull List<LogLine> prefixLines, @Nullable byte[] trace) {
+  private @NonNull Optional<String> submitLogInternal(long untilTime, @Nullable List<LogLine> prefixLines, @Nullable byte[] trace) {
     String traceUrl = null;
     if (trace != null) {
       try {
@@ -177,62 +172,25 @@ public class SubmitDebugLogRepository {
       }
     }
 
-    StringBuilder prefixStringBuilder = linesToStringBuilder(prefixLines, traceUrl);
+    String finalTraceUrl = traceUrl;
+
+    SpooledLogRequestBody.PrefixWriter prefix = prefixLines != null ? writer -> writeLines(writer, prefixLines, finalTraceUrl)
+                                                                      : writer -> writeSections(writer, finalTraceUrl);
 
     try {
       Stopwatch stopwatch = new Stopwatch("log-upload");
 
-      ParcelFileDescriptor[] fds        = ParcelFileDescriptor.createPipe();
-      Future<Uri>            futureUri  = BlobProvider.getInstance()
-                                                      .forData(new ParcelFileDescriptor.AutoCloseInputStream(fds[0]), 0)
-                                                      .withMimeType("application/gzip")
-                                                      .createForSingleSessionOnDiskAsync(context);
-
-      OutputStream gzipOutput = new GZIPOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(fds[1]));
+      try (SpooledLogRequestBody body = SpooledLogRequestBody.create(context.getCacheDir(), prefix, () -> LogDatabase.getInstance(context).logs().getTailBeforeTime(untilTime, MAX_UPLOAD_LOG_SIZE))) {
+        stopwatch.split("body");
 
-      gzipOutput.write(prefixStringBuilder.toString().getBytes());
+        String logUrl = uploadContent("application/gzip", body);
 
-      stopwatch.split("front-matter");
+        stopwatch.split("upload");
+        stopwatch.stop(TAG);
 
-      try (LogDatabase.LogTable.Reader reader = LogDatabase.getInstance(context).logs().getAllBeforeTime(untilTime)) {
-        while (reader.hasNext()) {
-          gzipOutput.write(reader.next().getBytes());
-          gzipOutput.write("\n".getBytes());
-        }
-      } catch (IllegalStateException e) {
-        Log.e(TAG, "Failed to read row!", e);
-        return Optional.empty();
+        return Optional.of(logUrl);
       }
-
-      StreamUtil.close(gzipOutput);
-      Uri gzipUri = futureUri.get();
-
-      stopwatch.split("body");
-
-      String logUrl = uploadContent("application/gzip", new RequestBody() {
-        @Override
-        public @NonNull MediaType contentType() {
-          return MediaType.get("application/gzip");
-        }
-
-        @Override public long contentLength() {
-          return BlobProvider.getInstance().calculateFileSize(context, gzipUri);
-        }
-
-        @Override
-        public void writeTo(@NonNull BufferedSink sink) throws IOException {
-          Source source = Okio.source(BlobProvider.getInstance().getStream(context, gzipUri));
-          sink.writeAll(source);
-        }
-      });
-
-      stopwatch.split("upload");
-      stopwatch.stop(TAG);
-
-      BlobProvider.getInstance().delete(context, gzipUri);
-
-      return Optional.of(logUrl);
-    } catch (IOException | RuntimeException | ExecutionException | InterruptedException e) {
+    } catch (IOException | RuntimeException e) {
       Log.w(TAG, "Error during log upload.", e);
       return Optional.empty();
     }
@@ -352,20 +310,37 @@ public class SubmitDebugLogRepository {
     return out.toString();
   }
 
-  private static @NonNull StringBuilder linesToStringBuilder(@NonNull List<LogLine> lines, @Nullable String traceUrl) {
-    StringBuilder stringBuilder = new StringBuilder();
+  /**
+   * Writes each section as soon as it's built, rather than building them all up front like {@link #getPrefixLogLinesInternal()}.
+   */
+  @WorkerThread
+  private void writeSections(@NonNull Writer writer, @Nullable String traceUrl) throws IOException {
+    int maxTitleLength = Stream.of(SECTIONS).reduce(0, (max, section) -> Math.max(max, section.getTitle().length()));
+
+    for (int i = 0; i < SECTIONS.size(); i++) {
+      writeLines(writer, getLinesForSection(context, SECTIONS.get(i), maxTitleLength), traceUrl);
+
+      if (i != SECTIONS.size() - 1) {
+        for (int j = 0; j < SECTION_SPACING; j++) {
+          writer.write('\n');
+        }
+      }
+    }
+  }
+
+  private static void writeLines(@NonNull Writer writer, @NonNull List<LogLine> lines, @Nullable String traceUrl) throws IOException {
     for (LogLine line : lines) {
       switch (line.getPlaceholderType()) {
         case NONE:
-          stringBuilder.append(line.getText()).append('\n');
+          writer.write(line.getText());
+          writer.write('\n');
           break;
         case TRACE:
-          stringBuilder.append(traceUrl).append('\n');
+          writer.write(String.valueOf(traceUrl));
+          writer.write('\n');
           break;
       }
     }
-
-    return stringBuilder;
   }
 
   public interface Callback<E> {
@@ -0,0 +1,151 @@
+package org.thoughtcrime.securesms.mediasend;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.GenZapp.core.util.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The media in one MediaStore collection as of a given MediaStore version and generation, kept on disk so the media picker can bring its folder list
+ * up to date with just the changes since the last time it was opened, even across restarts.
+ */
+final class MediaFolderSnapshot {
+
+  private static final String TAG = Log.tag(MediaFolderSnapshot.class);
+
+  private static final int FORMAT_VERSION = 1;
+
+  private final String          version;
+  private final Map<Long, Item> items;
+
+  private long generation;
+
+  MediaFolderSnapshot(@NonNull String version, long generation, @NonNull Map<Long, Item> items) {
+    this.version    = version;
+    this.generation = generation;
+    this.items      = items;
+  }
+
+  @NonNull String getVersion() {
+    return version;
+  }
+
+  long getGeneration() {
+    return generation;
+  }
+
+  void setGeneration(long generation) {
+    this.generation = generation;
+  }
+
+  /**
+   * Keyed by MediaStore row ID.
+   */
+  @NonNull Map<Long, Item> getItems() {
+    return items;
+  }
+
+  /**
+   * @return The snapshot stored in the file, or null if there isn't one or it can't be read.
+   */
+  static @Nullable MediaFolderSnapshot read(@NonNull File file) {
+    if (!file.exists()) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        return null;
+      }
+
+      String          version    = in.readUTF();
+      long            generation = in.readLong();
+      int             count      = in.readInt();
+      Map<Long, Item> items      = new HashMap<>(count);
+
+      for (int i = 0; i < count; i++) {
+        long   id        = in.readLong();
+        String bucketId  = readNullableString(in);
+        String title     = readNullableString(in);
+        long   timestamp = in.readLong();
+
+        items.put(id, new Item(bucketId, title, timestamp));
+      }
+
+      return new MediaFolderSnapshot(version, generation, items);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read snapshot.", e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the snapshot to a temporary file and then moves it into place, so a reader never sees a partial snapshot.
+   */
+  void write(@NonNull File file) {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      Log.w(TAG, "Failed to create the snapshot directory.");
+      return;
+    }
+
+    File temp = new File(file.getPath() + ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(version);
+      out.writeLong(generation);
+      out.writeInt(items.size());
+
+      for (Map.Entry<Long, Item> entry : items.entrySet()) {
+        out.writeLong(entry.getKey());
+        writeNullableString(out, entry.getValue().bucketId);
+        writeNullableString(out, entry.getValue().title);
+        out.writeLong(entry.getValue().timestamp);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write snapshot.", e);
+      temp.delete();
+      return;
+    }
+
+    if (!temp.renameTo(file)) {
+      Log.w(TAG, "Failed to move the snapshot into place.");
+      temp.delete();
+    }
+  }
+
+  private static @Nullable String readNullableString(@NonNull DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeNullableString(@NonNull DataOutputStream out, @Nullable String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  static final class Item {
+    final String bucketId;
+    final String title;
+    final long   timestamp;
+
+    Item(@Nullable String bucketId, @Nullable String title, long timestamp) {
+      this.bucketId  = bucketId;
+      this.title     = title;
+      this.timestamp = timestamp;
+    }
+  }
+}
@@ -1,18 +1,22 @@
 package org.thoughtcrime.securesms.mediasend;
 
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.provider.MediaStore;
 import android.provider.MediaStore.Images;
 import android.provider.MediaStore.Video;
 import android.provider.OpenableColumns;
+import android.text.TextUtils;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
@@ -27,17 +31,18 @@ import org.thoughtcrime.securesms.util.MediaUtil;
 import org.GenZapp.core.util.SqlUtil;
 import org.GenZapp.core.util.Stopwatch;
 import org.thoughtcrime.securesms.util.StorageUtil;
-import org.thoughtcrime.securesms.util.Util;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import io.reactivex.rxjava3.core.Single;
@@ -51,6 +56,27 @@ public class MediaRepository {
   private static final String TAG    = Log.tag(MediaRepository.class);
   private static final String CAMERA = "Camera";
 
+  /** How many of the most recent items in a bucket are delivered before the rest of the bucket is loaded. */
+  @VisibleForTesting
+  static final int FIRST_PAGE_SIZE = 100;
+
+  /** Where the last scan of each content URI is kept, as a {@link MediaFolderSnapshot}. One file per volume and collection. */
+  private static final String SNAPSHOT_DIRECTORY = "media_folder_snapshots";
+  private static final Object SNAPSHOT_LOCK      = new Object();
+
+  @VisibleForTesting
+  static void clearFolderSnapshots(@NonNull Context context) {
+    synchronized (SNAPSHOT_LOCK) {
+      File[] files = new File(context.getCacheDir(), SNAPSHOT_DIRECTORY).listFiles();
+
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+    }
+  }
+
   /**
    * Retrieves a list of folders that contain media.
    */
@@ -74,7 +100,7 @@ public class MediaRepository {
                      return Collections.emptyList();
                    }
 
-                   return getMediaInBucket(AppDependencies.getApplication(), Media.ALL_MEDIA_BUCKET_ID);
+                   return getMediaInBucket(AppDependencies.getApplication(), Media.ALL_MEDIA_BUCKET_ID, 0);
                  })
                  .onErrorReturn(t -> {
                    Log.w(TAG, "Unable to get recent media", t);
@@ -85,6 +111,9 @@ public class MediaRepository {
 
   /**
    * Retrieves a list of media items (images and videos) that are present int he specified bucket.
+   *
+   * Large buckets are delivered in two steps so there's something to show right away: the callback is first called with the
+   * {@link #FIRST_PAGE_SIZE} most recent items, and then again with the whole bucket.
    */
   public void getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Callback<List<Media>> callback) {
     if (!StorageUtil.canReadFromMediaStore()) {
@@ -93,7 +122,14 @@ public class MediaRepository {
       return;
     }
 
-    GenZappExecutors.BOUNDED.execute(() -> callback.onComplete(getMediaInBucket(context, bucketId)));
+    GenZappExecutors.BOUNDED.execute(() -> {
+      List<Media> firstPage = getMediaInBucket(context, bucketId, FIRST_PAGE_SIZE);
+      callback.onComplete(firstPage);
+
+      if (firstPage.size() >= FIRST_PAGE_SIZE) {
+        callback.onComplete(getMediaInBucket(context, bucketId, 0));
+      }
+    });
   }
 
   /**
@@ -134,8 +170,9 @@ public class MediaRepository {
     GenZappExecutors.BOUNDED.execute(() -> callback.onComplete(transformMediaSync(context, currentMedia, modelsToTransform)));
   }
 
+  @VisibleForTesting
   @WorkerThread
-  private @NonNull List<MediaFolder> getFolders(@NonNull Context context) {
+  @NonNull List<MediaFolder> getFolders(@NonNull Context context) {
     FolderResult imageFolders       = getFolders(context, Images.Media.EXTERNAL_CONTENT_URI);
     FolderResult videoFolders       = getFolders(context, Video.Media.EXTERNAL_CONTENT_URI);
     Map<String, FolderData> folders = new HashMap<>(imageFolders.getFolderData());
@@ -180,40 +217,197 @@ public class MediaRepository {
 
   @WorkerThread
   private @NonNull FolderResult getFolders(@NonNull Context context, @NonNull Uri contentUri) {
-    String                  cameraBucketId     = null;
-    Uri                     globalThumbnail    = null;
-    long                    thumbnailTimestamp = 0;
-    Map<String, FolderData> folders            = new HashMap<>();
-
-    String[] projection = new String[] { Images.Media._ID, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME, Images.Media.DATE_MODIFIED };
-    String   selection  = isNotPending() + " AND " + Images.Media.MIME_TYPE + " NOT LIKE ?";
-    String[] args       = SqlUtil.buildArgs("%image/svg%");
-    String   sortBy     = Images.Media.BUCKET_DISPLAY_NAME + " COLLATE NOCASE ASC, " + Images.Media.DATE_MODIFIED + " DESC";
-
-    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, args, sortBy)) {
-      while (cursor != null && cursor.moveToNext()) {
-        long       rowId     = cursor.getLong(cursor.getColumnIndexOrThrow(projection[0]));
-        Uri        thumbnail = ContentUris.withAppendedId(contentUri, rowId);
-        String     bucketId  = cursor.getString(cursor.getColumnIndexOrThrow(projection[1]));
-        String     title     = cursor.getString(cursor.getColumnIndexOrThrow(projection[2]));
-        long       timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(projection[3]));
-        FolderData folder    = Util.getOrDefault(folders, bucketId, new FolderData(thumbnail, localizeTitle(context, title), bucketId));
-
-        folder.incrementCount();
-        folders.put(bucketId, folder);
-
-        if (cameraBucketId == null && CAMERA.equals(title)) {
-          cameraBucketId = bucketId;
-        }
+    if (Build.VERSION.SDK_INT < 30) {
+      return summarize(context, contentUri, queryItems(context, contentUri, -1, -1));
+    }
 
-        if (timestamp > thumbnailTimestamp) {
-          globalThumbnail    = thumbnail;
-          thumbnailTimestamp = timestamp;
-        }
+    String version    = MediaStore.getVersion(context);
+    long   generation = MediaStore.getGeneration(context, MediaStore.VOLUME_EXTERNAL);
+
+    synchronized (SNAPSHOT_LOCK) {
+      File                file     = getSnapshotFile(context, contentUri);
+      MediaFolderSnapshot snapshot = MediaFolderSnapshot.read(file);
+
+      if (snapshot != null && snapshot.getVersion().equals(version) && snapshot.getGeneration() == generation) {
+        return summarize(context, contentUri, snapshot.getItems());
+      }
+
+      if (snapshot == null || !snapshot.getVersion().equals(version) || snapshot.getGeneration() > generation || !applyChanges(context, contentUri, snapshot, generation)) {
+        snapshot = new MediaFolderSnapshot(version, generation, queryItems(context, contentUri, -1, generation));
+      }
+
+      snapshot.write(file);
+      return summarize(context, contentUri, snapshot.getItems());
+    }
+  }
+
+  private static @NonNull File getSnapshotFile(@NonNull Context context, @NonNull Uri contentUri) {
+    return new File(new File(context.getCacheDir(), SNAPSHOT_DIRECTORY), TextUtils.join("_", contentUri.getPathSegments()));
+  }
+
+  /**
+   * Reads the media in a content URI that isn't pending, keyed by row ID.
+   *
+   * @param afterGeneration If non-negative, only media last modified after this MediaStore generation is included.
+   * @param maxGeneration   If non-negative, only media last modified at or before this MediaStore generation is included, so the result lines up
+   *                        exactly with the generation it will be stored under.
+   */
+  @WorkerThread
+  private @NonNull Map<Long, MediaFolderSnapshot.Item> queryItems(@NonNull Context context, @NonNull Uri contentUri, long afterGeneration, long maxGeneration) {
+    Map<Long, MediaFolderSnapshot.Item> items = new HashMap<>();
+
+    String[]     projection = new String[] { Images.Media._ID, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME, Images.Media.DATE_MODIFIED };
+    String       selection  = isNotPending() + " AND " + Images.Media.MIME_TYPE + " NOT LIKE ?";
+    List<String> args       = new ArrayList<>(Collections.singletonList("%image/svg%"));
+
+    if (afterGeneration >= 0) {
+      selection += " AND " + MediaStore.MediaColumns.GENERATION_MODIFIED + " > ?";
+      args.add(String.valueOf(afterGeneration));
+    }
+
+    if (maxGeneration >= 0) {
+      selection += " AND " + MediaStore.MediaColumns.GENERATION_MODIFIED + " <= ?";
+      args.add(String.valueOf(maxGeneration));
+    }
+
+    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, args.toArray(new String[0]), null)) {
+      if (cursor == null) {
+        return items;
+      }
+
+      int idColumn        = cursor.getColumnIndexOrThrow(projection[0]);
+      int bucketIdColumn  = cursor.getColumnIndexOrThrow(projection[1]);
+      int titleColumn     = cursor.getColumnIndexOrThrow(projection[2]);
+      int timestampColumn = cursor.getColumnIndexOrThrow(projection[3]);
+
+      while (cursor.moveToNext()) {
+        items.put(cursor.getLong(idColumn), new MediaFolderSnapshot.Item(cursor.getString(bucketIdColumn), cursor.getString(titleColumn), cursor.getLong(timestampColumn)));
+      }
+    }
+
+    return items;
+  }
+
+  /**
+   * Brings a stored snapshot up to date with the changes since it was taken. Anything added, edited or moved since then has a newer generation_modified,
+   * so it's read again and replaces whatever the snapshot had for it. Deletions don't show up as changes, so if the number of items no longer matches,
+   * the IDs (and only the IDs) are read to find out which ones are gone.
+   *
+   * @return False if the snapshot couldn't be brought up to date and the caller has to rescan.
+   */
+  @RequiresApi(30)
+  @WorkerThread
+  private boolean applyChanges(@NonNull Context context, @NonNull Uri contentUri, @NonNull MediaFolderSnapshot snapshot, long generation) {
+    Map<Long, MediaFolderSnapshot.Item> items   = snapshot.getItems();
+    Map<Long, MediaFolderSnapshot.Item> changes = queryItems(context, contentUri, snapshot.getGeneration(), generation);
+
+    int added = 0;
+    for (Map.Entry<Long, MediaFolderSnapshot.Item> change : changes.entrySet()) {
+      if (items.put(change.getKey(), change.getValue()) == null) {
+        added++;
       }
     }
 
-    return new FolderResult(cameraBucketId, globalThumbnail, thumbnailTimestamp, folders);
+    int count = countItems(context, contentUri, generation);
+    if (count < 0) {
+      return false;
+    }
+
+    int removed = 0;
+    if (count != items.size()) {
+      Set<Long> ids = queryIds(context, contentUri, generation);
+      if (ids == null) {
+        return false;
+      }
+
+      int before = items.size();
+      items.keySet().retainAll(ids);
+      removed = before - items.size();
+
+      if (items.size() != ids.size()) {
+        Log.w(TAG, "Snapshot for " + contentUri + " is missing items, rescanning.");
+        return false;
+      }
+    }
+
+    Log.d(TAG, "Updated snapshot for " + contentUri + " from generation " + snapshot.getGeneration() + " to " + generation + ". Added: " + added + ", changed: " + (changes.size() - added) + ", removed: " + removed);
+    snapshot.setGeneration(generation);
+    return true;
+  }
+
+  /**
+   * Counts the media in a content URI (as of a generation) without reading any of it.
+   *
+   * @return The count, or -1 if the query failed.
+   */
+  @RequiresApi(30)
+  @WorkerThread
+  private int countItems(@NonNull Context context, @NonNull Uri contentUri, long maxGeneration) {
+    try (Cursor cursor = queryIdCursor(context, contentUri, maxGeneration)) {
+      return cursor != null ? cursor.getCount() : -1;
+    }
+  }
+
+  /**
+   * @return The IDs of the media in a content URI (as of a generation), or null if the query failed.
+   */
+  @RequiresApi(30)
+  @WorkerThread
+  private @Nullable Set<Long> queryIds(@NonNull Context context, @NonNull Uri contentUri, long maxGeneration) {
+    try (Cursor cursor = queryIdCursor(context, contentUri, maxGeneration)) {
+      if (cursor == null) {
+        return null;
+      }
+
+      Set<Long> ids = new HashSet<>(cursor.getCount());
+
+      while (cursor.moveToNext()) {
+        ids.add(cursor.getLong(0));
+      }
+
+      return ids;
+    }
+  }
+
+  @RequiresApi(30)
+  private @Nullable Cursor queryIdCursor(@NonNull Context context, @NonNull Uri contentUri, long maxGeneration) {
+    String[] projection = new String[] { Images.Media._ID };
+    String   selection  = isNotPending() + " AND " + Images.Media.MIME_TYPE + " NOT LIKE ? AND " + MediaStore.MediaColumns.GENERATION_MODIFIED + " <= ?";
+    String[] args       = SqlUtil.buildArgs("%image/svg%", maxGeneration);
+
+    return context.getContentResolver().query(contentUri, projection, selection, args, null);
+  }
+
+  private @NonNull FolderResult summarize(@NonNull Context context, @NonNull Uri contentUri, @NonNull Map<Long, MediaFolderSnapshot.Item> items) {
+    FolderResult folders = new FolderResult();
+
+    for (Map.Entry<Long, MediaFolderSnapshot.Item> entry : items.entrySet()) {
+      MediaFolderSnapshot.Item item = entry.getValue();
+      addToFolders(context, folders, contentUri, entry.getKey(), item.bucketId, item.title, item.timestamp);
+    }
+
+    return folders;
+  }
+
+  private void addToFolders(@NonNull Context context, @NonNull FolderResult folders, @NonNull Uri contentUri, long rowId, @Nullable String bucketId, @Nullable String title, long timestamp) {
+    FolderData folder = folders.getFolderData().get(bucketId);
+
+    if (folder == null) {
+      folder = new FolderData(ContentUris.withAppendedId(contentUri, rowId), title != null ? localizeTitle(context, title) : null, bucketId, timestamp);
+      folders.getFolderData().put(bucketId, folder);
+    } else if (timestamp > folder.getThumbnailTimestamp()) {
+      folder.setThumbnail(ContentUris.withAppendedId(contentUri, rowId), timestamp);
+    }
+
+    folder.incrementCount();
+
+    if (folders.getCameraBucketId() == null && CAMERA.equals(title)) {
+      folders.setCameraBucketId(bucketId);
+    }
+
+    if (folders.getThumbnail() == null || timestamp > folders.getThumbnailTimestamp()) {
+      folders.setThumbnail(ContentUris.withAppendedId(contentUri, rowId), timestamp);
+    }
   }
 
   private @NonNull String localizeTitle(@NonNull Context context, @NonNull String title) {
@@ -224,28 +418,49 @@ public class MediaRepository {
     }
   }
 
+  /**
+   * @param limit If greater than zero, only this many of the most recent items are returned.
+   */
+  @VisibleForTesting
   @WorkerThread
-  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
+  @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId, int limit) {
     Stopwatch stopwatch = new Stopwatch("getMediaInBucket");
 
-    List<Media> images = getMediaInBucket(context, bucketId, Images.Media.EXTERNAL_CONTENT_URI, true);
-    List<Media> videos = getMediaInBucket(context, bucketId, Video.Media.EXTERNAL_CONTENT_URI, false);
-    List<Media> media  = new ArrayList<>(images.size() + videos.size());
+    List<Media> images = getMediaInBucket(context, bucketId, Images.Media.EXTERNAL_CONTENT_URI, true, limit);
+    List<Media> videos = getMediaInBucket(context, bucketId, Video.Media.EXTERNAL_CONTENT_URI, false, limit);
 
     stopwatch.split("post fetch");
 
-    media.addAll(images);
-    media.addAll(videos);
-    Collections.sort(media, (o1, o2) -> Long.compare(o2.getDate(), o1.getDate()));
-    stopwatch.split("post sort");
+    List<Media> media = mergeByDate(images, videos, limit);
+    stopwatch.split("post merge");
 
     stopwatch.stop(TAG);
     return media;
   }
 
+  /**
+   * Merges two lists that are each already sorted newest-first into one newest-first list.
+   */
+  private static @NonNull List<Media> mergeByDate(@NonNull List<Media> first, @NonNull List<Media> second, int limit) {
+    int         size   = limit > 0 ? Math.min(limit, first.size() + second.size()) : first.size() + second.size();
+    List<Media> merged = new ArrayList<>(size);
+    int         i      = 0;
+    int         j      = 0;
+
+    while (merged.size() < size) {
+      if (j >= second.size() || (i < first.size() && first.get(i).getDate() >= second.get(j).getDate())) {
+        merged.add(first.get(i++));
+      } else {
+        merged.add(second.get(j++));
+      }
+    }
+
+    return merged;
+  }
+
   @WorkerThread
-  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Uri contentUri, boolean isImage) {
-    List<Media> media         = new LinkedList<>();
+  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Uri contentUri, boolean isImage, int limit) {
+    List<Media> media         = new ArrayList<>();
     String      selection     = Images.Media.BUCKET_ID + " = ? AND " + isNotPending() + " AND " + Images.Media.MIME_TYPE + " NOT LIKE ?";
     String[]    selectionArgs = new String[] { bucketId, "%image/svg%" };
     String      sortBy        = Images.Media.DATE_MODIFIED + " DESC";
@@ -263,8 +478,8 @@ public class MediaRepository {
       selectionArgs = SqlUtil.buildArgs("%image/svg%");
     }
 
-    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, selectionArgs, sortBy)) {
-      while (cursor != null && cursor.moveToNext()) {
+    try (Cursor cursor = query(context, contentUri, projection, selection, selectionArgs, sortBy, limit)) {
+      while (cursor != null && cursor.moveToNext() && (limit <= 0 || media.size() < limit)) {
         long   rowId       = cursor.getLong(cursor.getColumnIndexOrThrow(projection[0]));
         Uri    uri         = ContentUris.withAppendedId(contentUri, rowId);
         String mimetype    = cursor.getString(cursor.getColumnIndexOrThrow(Images.Media.MIME_TYPE));
@@ -282,13 +497,43 @@ public class MediaRepository {
     return media;
   }
 
+  /**
+   * Queries MediaStore, asking it to stop after [limit] rows if it's greater than zero. Newer versions of MediaStore only accept a limit as a query
+   * argument, while older ones only accept it tacked onto the sort order.
+   */
+  private static @Nullable Cursor query(@NonNull Context context, @NonNull Uri contentUri, @NonNull String[] projection, @NonNull String selection, @NonNull String[] selectionArgs, @NonNull String sortBy, int limit) {
+    ContentResolver resolver = context.getContentResolver();
+
+    if (limit <= 0) {
+      return resolver.query(contentUri, projection, selection, selectionArgs, sortBy);
+    } else if (Build.VERSION.SDK_INT >= 30) {
+      Bundle queryArgs = new Bundle();
+      queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+      queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+      queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortBy);
+      queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+
+      return resolver.query(contentUri, projection, queryArgs, null);
+    } else {
+      return resolver.query(contentUri, projection, selection, selectionArgs, sortBy + " LIMIT " + limit);
+    }
+  }
+
   private @NonNull String isNotPending() {
     return Build.VERSION.SDK_INT <= 28 ? Images.Media.DATA + " NOT NULL" : MediaStore.MediaColumns.IS_PENDING + " != 1";
   }
 
   @WorkerThread
   public List<Media> getPopulatedMedia(@NonNull Context context, @NonNull List<Media> media) {
+    Map<Uri, Media> fromMediaStore = new HashMap<>();
+    fromMediaStore.putAll(getMediaStorePopulatedMedia(context, media, Images.Media.EXTERNAL_CONTENT_URI, true));
+    fromMediaStore.putAll(getMediaStorePopulatedMedia(context, media, Video.Media.EXTERNAL_CONTENT_URI, false));
+
     return media.stream()
+                .map(m -> {
+                  Media populated = fromMediaStore.get(m.getUri());
+                  return populated != null ? populated : m;
+                })
                 .map(m -> {
                   try {
                     if (isPopulated(m)) {
@@ -306,6 +551,73 @@ public class MediaRepository {
                 .collect(Collectors.toList());
   }
 
+  /**
+   * Fills in the dimensions and size of any unpopulated media that lives in the given MediaStore collection, with a single query rather than one per
+   * item. Anything that can't be found here is left to be populated individually.
+   */
+  @WorkerThread
+  private @NonNull Map<Uri, Media> getMediaStorePopulatedMedia(@NonNull Context context, @NonNull List<Media> media, @NonNull Uri contentUri, boolean isImage) {
+    Map<Long, Media> byRowId = new HashMap<>();
+
+    for (Media m : media) {
+      Uri uri = m.getUri();
+
+      if (!isPopulated(m) && contentUri.getAuthority().equals(uri.getAuthority()) && contentUri.getPath() != null && uri.getPath() != null && uri.getPath().startsWith(contentUri.getPath() + "/")) {
+        try {
+          byRowId.put(ContentUris.parseId(uri), m);
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+          Log.w(TAG, "Unexpected MediaStore uri", e);
+        }
+      }
+    }
+
+    if (byRowId.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    Map<Uri, Media> populated = new HashMap<>(byRowId.size());
+    String[]        projection;
+
+    if (isImage) {
+      projection = new String[] { Images.Media._ID, Images.Media.ORIENTATION, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE };
+    } else {
+      projection = new String[] { Images.Media._ID, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE };
+    }
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(Images.Media._ID, byRowId.keySet())) {
+      try (Cursor cursor = context.getContentResolver().query(contentUri, projection, query.getWhere(), query.getWhereArgs(), null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          Media m = byRowId.get(cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media._ID)));
+
+          if (m == null) {
+            continue;
+          }
+
+          int  orientation = isImage ? cursor.getInt(cursor.getColumnIndexOrThrow(Images.Media.ORIENTATION)) : 0;
+          int  width       = cursor.getInt(cursor.getColumnIndexOrThrow(getWidthColumn(orientation)));
+          int  height      = cursor.getInt(cursor.getColumnIndexOrThrow(getHeightColumn(orientation)));
+          long size        = cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media.SIZE));
+
+          populated.put(m.getUri(), new Media(m.getUri(),
+                                              m.getMimeType(),
+                                              m.getDate(),
+                                              m.getWidth() > 0 ? m.getWidth() : width,
+                                              m.getHeight() > 0 ? m.getHeight() : height,
+                                              m.getSize() > 0 ? m.getSize() : size,
+                                              m.getDuration(),
+                                              m.isBorderless(),
+                                              m.isVideoGif(),
+                                              m.getBucketId(),
+                                              m.getCaption(),
+                                              m.getTransformProperties(),
+                                              m.getFileName()));
+        }
+      }
+    }
+
+    return populated;
+  }
+
   @WorkerThread
   public static LinkedHashMap<Media, Media> transformMediaSync(@NonNull Context context,
                                                                @NonNull List<Media> currentMedia,
@@ -326,7 +638,7 @@ public class MediaRepository {
 
   @WorkerThread
   private Optional<Media> getMostRecentItem(@NonNull Context context) {
-    List<Media> media = getMediaInBucket(context, Media.ALL_MEDIA_BUCKET_ID, Images.Media.EXTERNAL_CONTENT_URI, true);
+    List<Media> media = getMediaInBucket(context, Media.ALL_MEDIA_BUCKET_ID, Images.Media.EXTERNAL_CONTENT_URI, true, 1);
     return media.size() > 0 ? Optional.of(media.get(0)) : Optional.empty();
   }
 
@@ -415,26 +727,24 @@ public class MediaRepository {
   }
 
   private static class FolderResult {
-    private final String                  cameraBucketId;
-    private final Uri                     thumbnail;
-    private final long                    thumbnailTimestamp;
     private final Map<String, FolderData> folderData;
 
-    private FolderResult(@Nullable String cameraBucketId,
-                         @Nullable Uri thumbnail,
-                         long thumbnailTimestamp,
-                         @NonNull Map<String, FolderData> folderData)
-    {
-      this.cameraBucketId     = cameraBucketId;
-      this.thumbnail          = thumbnail;
-      this.thumbnailTimestamp = thumbnailTimestamp;
-      this.folderData         = folderData;
+    private String cameraBucketId;
+    private Uri    thumbnail;
+    private long   thumbnailTimestamp;
+
+    private FolderResult() {
+      this.folderData = new HashMap<>();
     }
 
     @Nullable String getCameraBucketId() {
       return cameraBucketId;
     }
 
+    void setCameraBucketId(@Nullable String cameraBucketId) {
+      this.cameraBucketId = cameraBucketId;
+    }
+
     @Nullable Uri getThumbnail() {
       return thumbnail;
     }
@@ -443,28 +753,44 @@ public class MediaRepository {
       return thumbnailTimestamp;
     }
 
+    void setThumbnail(@NonNull Uri thumbnail, long thumbnailTimestamp) {
+      this.thumbnail          = thumbnail;
+      this.thumbnailTimestamp = thumbnailTimestamp;
+    }
+
     @NonNull Map<String, FolderData> getFolderData() {
       return folderData;
     }
   }
 
   private static class FolderData {
-    private final Uri    thumbnail;
     private final String title;
     private final String bucketId;
 
-    private int count;
+    private Uri  thumbnail;
+    private long thumbnailTimestamp;
+    private int  count;
 
-    private FolderData(Uri thumbnail, String title, String bucketId) {
-      this.thumbnail = thumbnail;
-      this.title     = title;
-      this.bucketId  = bucketId;
+    private FolderData(Uri thumbnail, String title, String bucketId, long thumbnailTimestamp) {
+      this.thumbnail          = thumbnail;
+      this.title              = title;
+      this.bucketId           = bucketId;
+      this.thumbnailTimestamp = thumbnailTimestamp;
     }
 
     Uri getThumbnail() {
       return thumbnail;
     }
 
+    long getThumbnailTimestamp() {
+      return thumbnailTimestamp;
+    }
+
+    void setThumbnail(Uri thumbnail, long thumbnailTimestamp) {
+      this.thumbnail          = thumbnail;
+      this.thumbnailTimestamp = thumbnailTimestamp;
+    }
+
     String getTitle() {
       return title;
     }
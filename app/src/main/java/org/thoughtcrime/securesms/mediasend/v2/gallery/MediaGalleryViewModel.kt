@@ -12,6 +12,10 @@ class MediaGalleryViewModel(bucketId: String?, bucketTitle: String?, private val
 
   val state: LiveData<MediaGalleryState> = store.stateLiveData
 
+  /** Media for a bucket can arrive in more than one callback, so results for anything but the latest request are dropped. */
+  @Volatile
+  private var requestedBucketId: String? = null
+
   init {
     loadItemsForBucket(bucketId, bucketTitle)
   }
@@ -34,8 +38,14 @@ class MediaGalleryViewModel(bucketId: String?, bucketTitle: String?, private val
   }
 
   private fun loadItemsForBucket(bucketId: String?, bucketTitle: String?) {
+    requestedBucketId = bucketId
+
     if (bucketId == null) {
       repository.getFolders { folders ->
+        if (requestedBucketId != null) {
+          return@getFolders
+        }
+
         store.update { state ->
           state.copy(
             bucketId = bucketId,
@@ -48,6 +58,10 @@ class MediaGalleryViewModel(bucketId: String?, bucketTitle: String?, private val
       }
     } else {
       repository.getMedia(bucketId) { media ->
+        if (requestedBucketId != bucketId) {
+          return@getMedia
+        }
+
         store.update { state ->
           state.copy(
             bucketId = bucketId,
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.messages
+
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.database.MessageSendLogTables
+import org.whispersystems.GenZappservice.api.messages.SendMessageResult
+import java.util.concurrent.Executor
+
+/**
+ * Writes the results of a group send to the [MessageSendLogTables] as they come back from the message sender.
+ *
+ * Results are handed off to a single background writer, so the sender's network threads never wait on the database. The writer takes whatever has piled up
+ * since its last write, so a large send turns into a handful of transactions rather than one per recipient.
+ */
+class GroupSendLogWriter(
+  private val executor: Executor,
+  private val batchWriter: BatchWriter
+) {
+
+  companion object {
+    private val TAG = Log.tag(GroupSendLogWriter::class.java)
+
+    private const val MAX_BATCH_SIZE = 250
+  }
+
+  private val pending: MutableList<SendMessageResult> = ArrayList()
+  private val writeLock = Any()
+
+  private var drainScheduled = false
+  private var entryId = -1L
+
+  fun add(result: SendMessageResult) {
+    addAll(listOf(result))
+  }
+
+  fun addAll(results: List<SendMessageResult>) {
+    if (results.isEmpty()) return
+
+    val schedule = synchronized(pending) {
+      pending += results
+
+      if (!drainScheduled) {
+        drainScheduled = true
+        true
+      } else {
+        false
+      }
+    }
+
+    if (schedule) {
+      executor.execute { drain() }
+    }
+  }
+
+  /**
+   * Blocks until everything handed to this writer has been written.
+   *
+   * @return The ID of the message log entry, or -1 if nothing was written.
+   */
+  fun finish(): Long {
+    drain()
+    return synchronized(writeLock) { entryId }
+  }
+
+  private fun drain() {
+    synchronized(writeLock) {
+      while (true) {
+        val batch: List<SendMessageResult> = synchronized(pending) {
+          if (pending.isEmpty()) {
+            drainScheduled = false
+            return
+          }
+
+          val next = pending.subList(0, minOf(pending.size, MAX_BATCH_SIZE))
+          ArrayList(next).also { next.clear() }
+        }
+
+        entryId = try {
+          batchWriter.write(entryId, batch)
+        } catch (e: Exception) {
+          Log.w(TAG, "Failed to write ${batch.size} results to the message log. Writing them one at a time.", e)
+          writeIndividually(batch)
+        }
+      }
+    }
+  }
+
+  /**
+   * Falls back to one write per result, so a single bad result can't keep the rest of its batch out of the log.
+   */
+  private fun writeIndividually(batch: List<SendMessageResult>): Long {
+    var id = entryId
+
+    for (result in batch) {
+      id = try {
+        batchWriter.write(id, listOf(result))
+      } catch (e: Exception) {
+        Log.w(TAG, "Failed to write a result to the message log.", e)
+        id
+      }
+    }
+
+    return id
+  }
+
+  fun interface BatchWriter {
+    /**
+     * @param entryId The ID returned by the previous write, or -1 for the first one.
+     * @return The ID of the entry the results were written to, or -1 if none was written.
+     */
+    fun write(entryId: Long, results: List<SendMessageResult>): Long
+  }
+}
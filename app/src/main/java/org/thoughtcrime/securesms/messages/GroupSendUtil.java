@@ -6,6 +6,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import org.GenZapp.core.util.concurrent.GenZappExecutors;
 import org.GenZapp.core.util.logging.Log;
 import org.GenZapp.libGenZapp.metadata.certificate.SenderCertificate;
 import org.GenZapp.libGenZapp.protocol.InvalidKeyException;
@@ -75,7 +76,6 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 public final class GroupSendUtil {
@@ -399,25 +399,20 @@ public final class GroupSendUtil {
           );
         }
 
-        final MessageSendLogTables messageLogDatabase  = GenZappDatabase.messageLog();
-        final AtomicLong           entryId             = new AtomicLong(-1);
-        final boolean              includeInMessageLog = sendOperation.shouldIncludeInMessageLog();
+        final GroupSendLogWriter messageLogWriter = sendOperation.shouldIncludeInMessageLog() ? createMessageLogWriter(recipients, sendOperation) : null;
 
-        List<SendMessageResult> results = sendOperation.sendWithSenderKey(messageSender, distributionId, targets, access, groupSendEndorsements, isRecipientUpdate, partialResults -> {
-          if (!includeInMessageLog) {
-            return;
-          }
-
-          synchronized (entryId) {
-            if (entryId.get() == -1) {
-              entryId.set(messageLogDatabase.insertIfPossible(sendOperation.getSentTimestamp(), senderKeyTargets, partialResults, sendOperation.getContentHint(), sendOperation.getRelatedMessageId(), sendOperation.isUrgent()));
-            } else {
-              for (SendMessageResult result : partialResults) {
-                entryId.set(messageLogDatabase.addRecipientToExistingEntryIfPossible(entryId.get(), recipients.requireRecipientId(result.getAddress()), sendOperation.getSentTimestamp(), result, sendOperation.getContentHint(), sendOperation.getRelatedMessageId(), sendOperation.isUrgent()));
-              }
+        List<SendMessageResult> results;
+        try {
+          results = sendOperation.sendWithSenderKey(messageSender, distributionId, targets, access, groupSendEndorsements, isRecipientUpdate, partialResults -> {
+            if (messageLogWriter != null) {
+              messageLogWriter.addAll(partialResults);
             }
+          });
+        } finally {
+          if (messageLogWriter != null) {
+            messageLogWriter.finish();
           }
-        });
+        }
 
         allResults.addAll(results);
 
@@ -489,23 +484,20 @@ public final class GroupSendUtil {
         }
       }
 
-      final MessageSendLogTables messageLogDatabase  = GenZappDatabase.messageLog();
-      final AtomicLong           entryId             = new AtomicLong(-1);
-      final boolean              includeInMessageLog = sendOperation.shouldIncludeInMessageLog();
+      final GroupSendLogWriter messageLogWriter = sendOperation.shouldIncludeInMessageLog() ? createMessageLogWriter(recipients, sendOperation) : null;
 
-      List<SendMessageResult> results = sendOperation.sendLegacy(messageSender, legacyTargetAddresses, legacyTargets, SealedSenderAccess.forFanOutGroupSend(groupSendTokens, SealedSenderAccessUtil.getSealedSenderCertificate(), legacyTargetAccesses), recipientUpdate, result -> {
-        if (!includeInMessageLog) {
-          return;
-        }
-
-        synchronized (entryId) {
-          if (entryId.get() == -1) {
-            entryId.set(messageLogDatabase.insertIfPossible(recipients.requireRecipientId(result.getAddress()), sendOperation.getSentTimestamp(), result, sendOperation.getContentHint(), sendOperation.getRelatedMessageId(), sendOperation.isUrgent()));
-          } else {
-            entryId.set(messageLogDatabase.addRecipientToExistingEntryIfPossible(entryId.get(), recipients.requireRecipientId(result.getAddress()), sendOperation.getSentTimestamp(), result, sendOperation.getContentHint(), sendOperation.getRelatedMessageId(), sendOperation.isUrgent()));
+      List<SendMessageResult> results;
+      try {
+        results = sendOperation.sendLegacy(messageSender, legacyTargetAddresses, legacyTargets, SealedSenderAccess.forFanOutGroupSend(groupSendTokens, SealedSenderAccessUtil.getSealedSenderCertificate(), legacyTargetAccesses), recipientUpdate, result -> {
+          if (messageLogWriter != null) {
+            messageLogWriter.add(result);
           }
+        }, cancelationGenZapp);
+      } finally {
+        if (messageLogWriter != null) {
+          messageLogWriter.finish();
         }
-      }, cancelationGenZapp);
+      }
 
       allResults.addAll(results);
 
@@ -534,6 +526,18 @@ public final class GroupSendUtil {
     return allResults;
   }
 
+  /**
+   * Results from both kinds of sends come back on the message sender's network threads. Rather than writing each one to the message log from there, we hand them
+   * off to be written in batches in the background.
+   */
+  private static @NonNull GroupSendLogWriter createMessageLogWriter(@NonNull RecipientData recipients, @NonNull SendOperation sendOperation) {
+    MessageSendLogTables messageLogDatabase = GenZappDatabase.messageLog();
+
+    return new GroupSendLogWriter(GenZappExecutors.BOUNDED_IO, (entryId, results) -> {
+      return messageLogDatabase.insertOrAddRecipientsIfPossible(entryId, sendOperation.getSentTimestamp(), results, recipients::requireRecipientId, sendOperation.getContentHint(), sendOperation.getRelatedMessageId(), sendOperation.isUrgent());
+    });
+  }
+
   private static @Nullable DistributionId getDistributionId(@Nullable GroupId.V2 groupId) {
     if (groupId != null) {
       return GenZappDatabase.groups().getOrCreateDistributionId(groupId);
@@ -416,6 +416,7 @@ class IncomingMessageObserver(private val context: Application) {
                     }
                   }
                 }
+                GenZappDatabase.messageLog.flushPendingDeletes()
                 val duration = System.currentTimeMillis() - startTime
                 val timePerMessage: Float = duration / batch.size.toFloat()
                 Log.d(TAG, "Decrypted ${batch.size} envelopes in $duration ms (~${round(timePerMessage * 100) / 100} ms per message)")
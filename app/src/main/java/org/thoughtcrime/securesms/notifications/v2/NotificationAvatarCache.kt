@@ -0,0 +1,186 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.notifications.v2
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.drawable.BitmapDrawable
+import android.os.Build
+import android.util.LruCache
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import androidx.core.graphics.drawable.IconCompat
+import com.bumptech.glide.Glide
+import org.GenZapp.core.util.ThreadUtil
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.R
+import org.thoughtcrime.securesms.contacts.avatars.ProfileContactPhoto
+import org.thoughtcrime.securesms.conversation.colors.AvatarColor
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.util.AdaptiveBitmapMetrics
+import org.thoughtcrime.securesms.util.AvatarUtil
+
+/**
+ * Keeps the rendered avatars used for notification large icons and message sender icons, so that a busy conversation doesn't decode and draw the
+ * same avatars every time its notification is updated.
+ *
+ * Entries are keyed on everything that affects how an avatar looks, so a changed avatar is always a miss. A recipient's entries are also dropped
+ * as soon as the recipient cache sees their avatar change, so stale bitmaps don't have to wait to be evicted.
+ *
+ * Bitmaps we draw ourselves come out of Glide's bitmap pool. Evicted bitmaps are left for the GC rather than returned to the pool, since a
+ * notification that is still being built or posted may be holding onto them.
+ */
+object NotificationAvatarCache {
+
+  private val TAG = Log.tag(NotificationAvatarCache::class.java)
+
+  private val MAX_SIZE_BYTES: Int = (Runtime.getRuntime().maxMemory() / 64).coerceIn(2L * 1024 * 1024, 8L * 1024 * 1024).toInt()
+
+  @VisibleForTesting
+  @Volatile
+  var loader: Loader = GlideLoader
+
+  private val cache = object : LruCache<Key, Bitmap>(MAX_SIZE_BYTES) {
+    override fun sizeOf(key: Key, value: Bitmap): Int = value.allocationByteCount
+  }
+
+  /**
+   * The large icon to show for a conversation, drawn at the notification large icon size.
+   */
+  @WorkerThread
+  fun getLargeIcon(context: Context, recipient: Recipient): Bitmap? {
+    val key = Key.create(context, recipient, Type.LARGE_ICON)
+    val cached: Bitmap? = cache.get(key)
+
+    if (cached != null) {
+      return cached
+    }
+
+    val bitmap: Bitmap = loader.loadLargeIcon(context, recipient) ?: return null
+    cache.put(key, bitmap)
+    return bitmap
+  }
+
+  /**
+   * The icon to attach to a message sender's [androidx.core.app.Person]. Newer versions of Android load the avatar themselves through
+   * [org.thoughtcrime.securesms.providers.AvatarProvider], so there's nothing to decode or cache there.
+   */
+  @WorkerThread
+  fun getPersonIcon(context: Context, recipient: Recipient): IconCompat {
+    if (Build.VERSION.SDK_INT > 29) {
+      return AvatarUtil.getIconCompat(context, recipient)
+    }
+
+    val key = Key.create(context, recipient, Type.PERSON_ICON)
+    var bitmap: Bitmap? = cache.get(key)
+
+    if (bitmap == null) {
+      bitmap = loader.loadPersonIcon(context, recipient)
+      cache.put(key, bitmap)
+    }
+
+    return IconCompat.createWithBitmap(bitmap)
+  }
+
+  /**
+   * Called whenever a recipient is updated. Drops their entries if anything that affects their avatar changed.
+   */
+  fun onRecipientUpdated(previous: Recipient, updated: Recipient) {
+    if (previous.id == updated.id && getPhotoKey(previous) == getPhotoKey(updated) && previous.avatarColor == updated.avatarColor && previous.shouldBlurAvatar == updated.shouldBlurAvatar) {
+      return
+    }
+
+    invalidate(previous.id)
+
+    if (previous.id != updated.id) {
+      invalidate(updated.id)
+    }
+  }
+
+  fun invalidate(recipientId: RecipientId) {
+    cache.snapshot().keys
+      .filter { it.recipientId == recipientId }
+      .forEach { cache.remove(it) }
+  }
+
+  fun clear() {
+    cache.evictAll()
+  }
+
+  private fun getPhotoKey(recipient: Recipient): Any? {
+    return if (recipient.isSelf) {
+      recipient.profileAvatar to recipient.profileAvatarFileDetails
+    } else {
+      when (val photo = recipient.contactPhoto) {
+        is ProfileContactPhoto -> recipient.profileAvatar to recipient.profileAvatarFileDetails
+        else -> photo
+      }
+    }
+  }
+
+  private enum class Type {
+    LARGE_ICON,
+    PERSON_ICON
+  }
+
+  private data class Key(
+    val recipientId: RecipientId,
+    val type: Type,
+    val photo: Any?,
+    val avatarColor: AvatarColor,
+    val blur: Boolean,
+    val displayName: String
+  ) {
+    companion object {
+      fun create(context: Context, recipient: Recipient, type: Type): Key {
+        return Key(
+          recipientId = recipient.id,
+          type = type,
+          photo = getPhotoKey(recipient),
+          avatarColor = recipient.avatarColor,
+          blur = recipient.shouldBlurAvatar,
+          displayName = recipient.getDisplayName(context)
+        )
+      }
+    }
+  }
+
+  @VisibleForTesting
+  interface Loader {
+    fun loadLargeIcon(context: Context, recipient: Recipient): Bitmap?
+    fun loadPersonIcon(context: Context, recipient: Recipient): Bitmap
+  }
+
+  private object GlideLoader : Loader {
+    override fun loadLargeIcon(context: Context, recipient: Recipient): Bitmap? {
+      val drawable = recipient.getContactDrawable(context) ?: return null
+
+      if (drawable is BitmapDrawable) {
+        return drawable.bitmap
+      }
+
+      val size: Int = context.resources.getDimensionPixelSize(R.dimen.contact_photo_target_size)
+      val bitmap: Bitmap = Glide.get(context).bitmapPool.get(size, size, Bitmap.Config.ARGB_8888)
+
+      return try {
+        ThreadUtil.runOnMainSync {
+          drawable.setBounds(0, 0, size, size)
+          drawable.draw(Canvas(bitmap))
+        }
+        bitmap
+      } catch (e: Exception) {
+        Log.w(TAG, "Failed to draw large icon.", e)
+        null
+      }
+    }
+
+    override fun loadPersonIcon(context: Context, recipient: Recipient): Bitmap {
+      return AvatarUtil.getBitmapForNotification(context, recipient, AdaptiveBitmapMetrics.innerWidth)
+    }
+  }
+}
@@ -28,7 +28,6 @@ import org.thoughtcrime.securesms.preferences.widgets.NotificationPrivacyPrefere
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientUtil
 import org.thoughtcrime.securesms.service.KeyCachingService
-import org.thoughtcrime.securesms.util.AvatarUtil
 import org.thoughtcrime.securesms.util.BubbleUtil
 import org.thoughtcrime.securesms.util.ConversationUtil
 import org.thoughtcrime.securesms.util.TextSecurePreferences
@@ -274,7 +273,7 @@ sealed class NotificationBuilder(protected val context: Context) {
       val self: PersonCompat = PersonCompat.Builder()
         .setBot(false)
         .setName(if (includeShortcut) Recipient.self().getDisplayName(context) else context.getString(R.string.SingleRecipientNotificationBuilder_you))
-        .setIcon(AvatarUtil.getIconCompat(context, Recipient.self()))
+        .setIcon(NotificationAvatarCache.getPersonIcon(context, Recipient.self()))
         .setKey(ConversationUtil.getShortcutId(Recipient.self().id))
         .build()
 
@@ -360,7 +359,7 @@ sealed class NotificationBuilder(protected val context: Context) {
       )
 
       if (intent != null) {
-        val bubbleMetadata = NotificationCompat.BubbleMetadata.Builder(intent, AvatarUtil.getIconCompat(context, conversation.recipient))
+        val bubbleMetadata = NotificationCompat.BubbleMetadata.Builder(intent, NotificationAvatarCache.getPersonIcon(context, conversation.recipient))
           .setAutoExpandBubble(bubbleState === BubbleUtil.BubbleState.SHOWN)
           .setDesiredHeight(600)
           .setSuppressNotification(bubbleState === BubbleUtil.BubbleState.SHOWN)
@@ -470,10 +469,10 @@ sealed class NotificationBuilder(protected val context: Context) {
 
     override fun addPersonActual(recipient: Recipient) {
       builder.addPerson(
-        ConversationUtil.buildPerson(
-          context,
-          recipient
-        )
+        ConversationUtil.buildPersonWithoutIcon(context, recipient)
+          .toBuilder()
+          .setIcon(NotificationAvatarCache.getPersonIcon(context, recipient))
+          .build()
       )
     }
 
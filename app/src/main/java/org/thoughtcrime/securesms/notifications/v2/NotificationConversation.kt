@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.notifications.v2
 import android.app.PendingIntent
 import android.content.Context
 import android.content.Intent
+import android.graphics.Bitmap
 import android.graphics.drawable.Drawable
 import android.net.Uri
 import android.text.SpannableStringBuilder
@@ -61,6 +62,14 @@ data class NotificationConversation(
     }
   }
 
+  fun getLargeIcon(context: Context): Bitmap? {
+    return if (GenZappStore.settings.messageNotificationsPrivacy.isDisplayContact) {
+      NotificationAvatarCache.getLargeIcon(context, recipient)
+    } else {
+      getContactLargeIcon(context).toLargeBitmap(context)
+    }
+  }
+
   fun getSlideBigPictureUri(context: Context): Uri? {
     return if (notificationItems.size == 1 && GenZappStore.settings.messageNotificationsPrivacy.isDisplayMessage && !KeyCachingService.isLocked(context)) {
       mostRecentNotification.getBigPictureUri()
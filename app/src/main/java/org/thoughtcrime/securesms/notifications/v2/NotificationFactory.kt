@@ -231,7 +231,7 @@ object NotificationFactory {
       setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
       setChannelId(conversation.getChannelId())
       setContentTitle(conversation.getContentTitle(context))
-      setLargeIcon(conversation.getContactLargeIcon(context).toLargeBitmap(context))
+      setLargeIcon(conversation.getLargeIcon(context))
       addPerson(conversation.recipient)
 
       if (conversation.thread.groupStoryId == null) {
@@ -463,7 +463,7 @@ object NotificationFactory {
       setGroup(DefaultMessageNotifier.NOTIFICATION_GROUP)
       setChannelId(conversation.getChannelId())
       setContentTitle(conversation.getContentTitle(context))
-      setLargeIcon(conversation.getContactLargeIcon(context).toLargeBitmap(context))
+      setLargeIcon(conversation.getLargeIcon(context))
       addPerson(conversation.recipient)
       setShortcutId(ConversationUtil.getShortcutId(conversation.recipient))
       setLocusId(ConversationUtil.getShortcutId(conversation.recipient))
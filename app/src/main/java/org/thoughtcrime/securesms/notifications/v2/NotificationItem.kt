@@ -25,7 +25,6 @@ import org.thoughtcrime.securesms.mms.SlideDeck
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientUtil
 import org.thoughtcrime.securesms.service.KeyCachingService
-import org.thoughtcrime.securesms.util.AvatarUtil
 import org.thoughtcrime.securesms.util.MediaUtil
 import org.thoughtcrime.securesms.util.SpanUtil
 import org.thoughtcrime.securesms.util.Util
@@ -125,7 +124,7 @@ sealed class NotificationItem(val threadRecipient: Recipient, protected val reco
 
   fun getPersonIcon(context: Context): IconCompat? {
     return if (GenZappStore.settings.messageNotificationsPrivacy.isDisplayContact) {
-      AvatarUtil.getIconCompat(context, authorRecipient)
+      NotificationAvatarCache.getPersonIcon(context, authorRecipient)
     } else {
       null
     }
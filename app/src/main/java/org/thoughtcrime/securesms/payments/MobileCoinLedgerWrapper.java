@@ -86,6 +86,13 @@ public final class MobileCoinLedgerWrapper {
       return ownedTXO.spentInBlock != null ? nullIfZero(ownedTXO.spentInBlock.timestamp) : null;
     }
 
+    /**
+     * @return True if the other TXO is the same output in the same state, e.g. when comparing against an earlier copy of the ledger.
+     */
+    public boolean isSameAs(@NonNull OwnedTxo other) {
+      return ownedTXO.equals(other.ownedTXO);
+    }
+
     private @Nullable Long nullIfZero(long value) {
       return value == 0 ? null : value;
     }
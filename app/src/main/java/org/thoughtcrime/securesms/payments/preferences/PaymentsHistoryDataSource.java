@@ -0,0 +1,58 @@
+package org.thoughtcrime.securesms.payments.preferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.GenZapp.paging.PagedDataSource;
+import org.thoughtcrime.securesms.payments.Payment;
+import org.thoughtcrime.securesms.payments.preferences.model.PaymentItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Pages through the most recently reconciled payment history, so the history screens only build items for what's actually on screen.
+ * <p>
+ * Reconstructed payments all share the unknown UUID, so keys are only good for identifying local payments. Loading by key is not supported.
+ */
+final class PaymentsHistoryDataSource implements PagedDataSource<UUID, PaymentItem> {
+
+  private volatile List<Payment> payments = Collections.emptyList();
+
+  /**
+   * Replaces the payments being paged through. Callers should invalidate the paging controller afterwards.
+   */
+  void setPayments(@NonNull List<Payment> payments) {
+    this.payments = payments;
+  }
+
+  @Override
+  public int size() {
+    return payments.size();
+  }
+
+  @Override
+  public @NonNull List<PaymentItem> load(int start, int length, int totalSize, @NonNull CancellationGenZapp cancellationGenZapp) {
+    List<Payment>     snapshot = payments;
+    int               end      = Math.min(start + length, snapshot.size());
+    List<PaymentItem> items    = new ArrayList<>(Math.max(0, end - start));
+
+    for (int i = start; i < end; i++) {
+      items.add(PaymentItem.fromPayment(snapshot.get(i)));
+    }
+
+    return items;
+  }
+
+  @Override
+  public @Nullable PaymentItem load(UUID key) {
+    throw new UnsupportedOperationException("Not implemented!");
+  }
+
+  @Override
+  public @NonNull UUID getKey(@NonNull PaymentItem data) {
+    return data.getPaymentUuid();
+  }
+}
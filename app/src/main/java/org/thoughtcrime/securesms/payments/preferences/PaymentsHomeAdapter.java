@@ -16,9 +16,11 @@ import org.thoughtcrime.securesms.payments.preferences.viewholder.IntroducingPay
 import org.thoughtcrime.securesms.payments.preferences.viewholder.NoRecentActivityViewHolder;
 import org.thoughtcrime.securesms.payments.preferences.viewholder.PaymentItemViewHolder;
 import org.thoughtcrime.securesms.payments.preferences.viewholder.SeeAllViewHolder;
-import org.thoughtcrime.securesms.util.adapter.mapping.MappingAdapter;
+import org.thoughtcrime.securesms.util.adapter.mapping.PagingMappingAdapter;
 
-public class PaymentsHomeAdapter extends MappingAdapter {
+import java.util.UUID;
+
+public class PaymentsHomeAdapter extends PagingMappingAdapter<UUID> {
 
   public PaymentsHomeAdapter(@NonNull Callbacks callbacks) {
     registerFactory(IntroducingPayments.class, p -> new IntroducingPaymentViewHolder(p, callbacks), R.layout.payments_home_introducing_payments_item);
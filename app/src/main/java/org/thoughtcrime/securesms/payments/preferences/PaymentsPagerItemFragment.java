@@ -55,6 +55,7 @@ public class PaymentsPagerItemFragment extends LoggingFragment {
     RecyclerView        recycler = view.findViewById(R.id.payments_activity_pager_item_fragment_recycler);
     PaymentsHomeAdapter adapter  = new PaymentsHomeAdapter(new Callbacks());
 
+    adapter.setPagingController(viewModel.getPagingController());
     recycler.setAdapter(adapter);
 
     viewModel.getList().observe(getViewLifecycleOwner(), adapter::submitList);
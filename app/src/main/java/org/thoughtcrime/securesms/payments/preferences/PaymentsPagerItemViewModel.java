@@ -2,19 +2,25 @@ package org.thoughtcrime.securesms.payments.preferences;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
 
+import org.GenZapp.paging.LivePagedData;
+import org.GenZapp.paging.PagedData;
+import org.GenZapp.paging.PagingConfig;
+import org.GenZapp.paging.PagingController;
 import org.thoughtcrime.securesms.payments.Payment;
 import org.thoughtcrime.securesms.payments.preferences.model.PaymentItem;
 import org.thoughtcrime.securesms.util.adapter.mapping.MappingModelList;
-import org.thoughtcrime.securesms.util.livedata.LiveDataUtil;
 
 import java.util.List;
+import java.util.UUID;
 
 final class PaymentsPagerItemViewModel extends ViewModel {
 
-  private final LiveData<MappingModelList> list;
+  private final MediatorLiveData<MappingModelList> list;
+  private final PagingController<UUID>             pagingController;
 
   PaymentsPagerItemViewModel(@NonNull PaymentCategory paymentCategory, @NonNull PaymentsRepository paymentsRepository) {
     LiveData<List<Payment>> payments;
@@ -33,13 +39,32 @@ final class PaymentsPagerItemViewModel extends ViewModel {
         throw new IllegalArgumentException();
     }
 
-    this.list = LiveDataUtil.mapAsync(payments, PaymentItem::fromPayment);
+    PaymentsHistoryDataSource dataSource = new PaymentsHistoryDataSource();
+    PagingConfig              config     = new PagingConfig.Builder().setPageSize(50)
+                                                                     .setBufferPages(2)
+                                                                     .setStartIndex(0)
+                                                                     .build();
+
+    LivePagedData<UUID, PaymentItem> pagedData = PagedData.createForLiveData(dataSource, config);
+
+    this.pagingController = pagedData.getController();
+    this.list             = new MediatorLiveData<>();
+
+    list.addSource(payments, p -> {
+      dataSource.setPayments(p);
+      pagingController.onDataInvalidated();
+    });
+    list.addSource(pagedData.getData(), items -> list.setValue(new MappingModelList(items)));
   }
 
   @NonNull LiveData<MappingModelList> getList() {
     return list;
   }
 
+  @NonNull PagingController<UUID> getPagingController() {
+    return pagingController;
+  }
+
   public static final class Factory implements ViewModelProvider.Factory {
     private final PaymentCategory paymentCategory;
 
@@ -26,6 +26,7 @@ import org.whispersystems.GenZappservice.api.payments.PaymentsConstants;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.UUID;
 
 import static org.thoughtcrime.securesms.util.viewholders.RecipientMappingModel.RecipientIdMappingModel;
 
@@ -60,6 +61,10 @@ public final class PaymentItem implements MappingModel<PaymentItem> {
     }
   }
 
+  public @NonNull UUID getPaymentUuid() {
+    return payment.getUuid();
+  }
+
   public boolean isInProgress() {
     return payment.getState().isInProgress();
   }
@@ -0,0 +1,391 @@
+package org.thoughtcrime.securesms.payments.reconciliation;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.GenZapp.core.util.logging.Log;
+import org.thoughtcrime.securesms.payments.MobileCoinLedgerWrapper;
+import org.thoughtcrime.securesms.payments.Payment;
+import org.thoughtcrime.securesms.payments.ReconstructedPayment;
+import org.thoughtcrime.securesms.payments.State;
+import org.thoughtcrime.securesms.payments.history.TransactionReconstruction;
+import org.thoughtcrime.securesms.payments.proto.PaymentMetaData;
+import org.whispersystems.GenZappservice.api.payments.Money;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import okio.ByteString;
+
+/**
+ * Gives the same result as {@link LedgerReconcile#reconcile(Collection, MobileCoinLedgerWrapper)}, but holds on to its working state between calls
+ * so that only the TXOs and local payments that changed since the last call have to be looked at again.
+ * <p>
+ * The payments we reconstruct for a block only depend on the unaccounted for TXOs received or spent in that block, so we keep each block's
+ * reconstruction around and only redo it when something in the block changes, or a local payment starts or stops accounting for one of its TXOs.
+ */
+public final class IncrementalLedgerReconcile {
+
+  private static final String TAG = Log.tag(IncrementalLedgerReconcile.class);
+
+  /** Every TXO in the ledger, by public key. */
+  private final Map<ByteString, MobileCoinLedgerWrapper.OwnedTxo> txos;
+
+  /** Every TXO in the ledger, by both public key and key image. Used to find the block a local payment ended up in. */
+  private final Map<ByteString, MobileCoinLedgerWrapper.OwnedTxo> blockDetails;
+
+  /** Public keys and key images of TXOs that non-failed local payments account for, with how many distinct identifications include each. */
+  private final Map<ByteString, Integer> knownPublicKeys;
+  private final Map<ByteString, Integer> knownKeyImages;
+
+  /** Blocks with any ledger activity, newest first. */
+  private final TreeMap<Long, Block> blocks;
+  private final Set<Long>            dirtyBlocks;
+
+  private Map<PaymentMetaData.MobileCoinTxoIdentification, Integer> localIdentifications;
+  private MobileCoinLedgerWrapper                                   lastLedger;
+  private List<Payment>                                             reconstructedPayments;
+  private int                                                       blocksWithUnknownActivity;
+  private int                                                       lastRebuiltBlockCount;
+
+  public IncrementalLedgerReconcile() {
+    this.txos                  = new HashMap<>();
+    this.blockDetails          = new HashMap<>();
+    this.knownPublicKeys       = new HashMap<>();
+    this.knownKeyImages        = new HashMap<>();
+    this.blocks                = new TreeMap<>(Collections.reverseOrder());
+    this.dirtyBlocks           = new HashSet<>();
+    this.localIdentifications  = new HashMap<>();
+    this.reconstructedPayments = Collections.emptyList();
+  }
+
+  @WorkerThread
+  public synchronized @NonNull List<Payment> reconcile(@NonNull Collection<? extends Payment> localPaymentTransactions,
+                                                       @NonNull MobileCoinLedgerWrapper ledgerWrapper)
+  {
+    long start = System.currentTimeMillis();
+
+    if (ledgerWrapper != lastLedger) {
+      updateTxos(ledgerWrapper.getAllTxos());
+      lastLedger = ledgerWrapper;
+    }
+
+    updateLocalPayments(localPaymentTransactions);
+
+    int dirty = dirtyBlocks.size();
+    rebuildDirtyBlocks();
+    lastRebuiltBlockCount = dirty;
+
+    List<Payment> result;
+    if (blocksWithUnknownActivity == 0) {
+      result = new ArrayList<>(localPaymentTransactions);
+    } else {
+      List<Payment> blockDecoratedLocalPayments = new ArrayList<>(localPaymentTransactions.size());
+      for (Payment local : localPaymentTransactions) {
+        blockDecoratedLocalPayments.add(LedgerReconcile.findBlock(local, blockDetails));
+      }
+
+      result = ZipList.zipList(blockDecoratedLocalPayments, reconstructedPayments, Payment.DESCENDING_BLOCK_INDEX_UNKNOWN_FIRST);
+    }
+
+    Log.d(TAG, String.format(Locale.US, "Took %d ms - Ledger %d, Local %d, Rebuilt blocks %d", System.currentTimeMillis() - start, txos.size(), localPaymentTransactions.size(), dirty));
+
+    return result;
+  }
+
+  /**
+   * How many blocks the last call to {@link #reconcile} had to rebuild.
+   */
+  @VisibleForTesting
+  synchronized int getLastRebuiltBlockCount() {
+    return lastRebuiltBlockCount;
+  }
+
+  private void updateTxos(@NonNull List<MobileCoinLedgerWrapper.OwnedTxo> allTxos) {
+    Set<ByteString> seen = new HashSet<>(allTxos.size());
+
+    for (MobileCoinLedgerWrapper.OwnedTxo txo : allTxos) {
+      seen.add(txo.getPublicKey());
+
+      MobileCoinLedgerWrapper.OwnedTxo previous = txos.get(txo.getPublicKey());
+
+      if (previous != null && previous.isSameAs(txo)) {
+        continue;
+      }
+
+      if (previous != null) {
+        removeTxo(previous);
+      }
+
+      addTxo(txo);
+    }
+
+    if (seen.size() != txos.size()) {
+      List<MobileCoinLedgerWrapper.OwnedTxo> removed = new ArrayList<>();
+      for (MobileCoinLedgerWrapper.OwnedTxo txo : txos.values()) {
+        if (!seen.contains(txo.getPublicKey())) {
+          removed.add(txo);
+        }
+      }
+
+      Log.w(TAG, removed.size() + " TXOs are no longer in the ledger.");
+      for (MobileCoinLedgerWrapper.OwnedTxo txo : removed) {
+        removeTxo(txo);
+      }
+    }
+  }
+
+  private void addTxo(@NonNull MobileCoinLedgerWrapper.OwnedTxo txo) {
+    txos.put(txo.getPublicKey(), txo);
+    blockDetails.put(txo.getPublicKey(), txo);
+    blockDetails.put(txo.getKeyImage(), txo);
+
+    getOrCreateBlock(txo.getReceivedInBlock()).received.add(txo.getPublicKey());
+    dirtyBlocks.add(txo.getReceivedInBlock());
+
+    if (txo.isSpent()) {
+      getOrCreateBlock(txo.getSpentInBlock()).spent.add(txo.getPublicKey());
+      dirtyBlocks.add(txo.getSpentInBlock());
+    }
+  }
+
+  private void removeTxo(@NonNull MobileCoinLedgerWrapper.OwnedTxo txo) {
+    txos.remove(txo.getPublicKey());
+    blockDetails.remove(txo.getPublicKey(), txo);
+    blockDetails.remove(txo.getKeyImage(), txo);
+
+    Block received = blocks.get(txo.getReceivedInBlock());
+    if (received != null) {
+      received.received.remove(txo.getPublicKey());
+      dirtyBlocks.add(txo.getReceivedInBlock());
+    }
+
+    if (txo.isSpent()) {
+      Block spent = blocks.get(txo.getSpentInBlock());
+      if (spent != null) {
+        spent.spent.remove(txo.getPublicKey());
+        dirtyBlocks.add(txo.getSpentInBlock());
+      }
+    }
+  }
+
+  /**
+   * Local payments are matched up by the TXOs they identify, so rather than tracking payments themselves, we track how many non-failed payments
+   * share each identification and only add or remove the keys of identifications that appeared or disappeared.
+   */
+  private void updateLocalPayments(@NonNull Collection<? extends Payment> localPaymentTransactions) {
+    Map<PaymentMetaData.MobileCoinTxoIdentification, Integer> current = new HashMap<>(localPaymentTransactions.size());
+
+    for (Payment payment : localPaymentTransactions) {
+      if (payment.getState() != State.FAILED) {
+        current.merge(payment.getPaymentMetaData().mobileCoinTxoIdentification, 1, Integer::sum);
+      }
+    }
+
+    for (PaymentMetaData.MobileCoinTxoIdentification identification : localIdentifications.keySet()) {
+      if (!current.containsKey(identification)) {
+        forget(identification);
+      }
+    }
+
+    for (PaymentMetaData.MobileCoinTxoIdentification identification : current.keySet()) {
+      if (!localIdentifications.containsKey(identification)) {
+        learn(identification);
+      }
+    }
+
+    localIdentifications = current;
+  }
+
+  private void learn(@NonNull PaymentMetaData.MobileCoinTxoIdentification identification) {
+    for (ByteString publicKey : identification.publicKey) {
+      if (knownPublicKeys.merge(publicKey, 1, Integer::sum) == 1) {
+        onKnownPublicKeyChanged(publicKey);
+      }
+    }
+
+    for (ByteString keyImage : identification.keyImages) {
+      if (knownKeyImages.merge(keyImage, 1, Integer::sum) == 1) {
+        onKnownKeyImageChanged(keyImage);
+      }
+    }
+  }
+
+  private void forget(@NonNull PaymentMetaData.MobileCoinTxoIdentification identification) {
+    for (ByteString publicKey : identification.publicKey) {
+      if (decrement(knownPublicKeys, publicKey)) {
+        onKnownPublicKeyChanged(publicKey);
+      }
+    }
+
+    for (ByteString keyImage : identification.keyImages) {
+      if (decrement(knownKeyImages, keyImage)) {
+        onKnownKeyImageChanged(keyImage);
+      }
+    }
+  }
+
+  private void onKnownPublicKeyChanged(@NonNull ByteString publicKey) {
+    MobileCoinLedgerWrapper.OwnedTxo txo = txos.get(publicKey);
+
+    if (txo != null) {
+      dirtyBlocks.add(txo.getReceivedInBlock());
+    }
+  }
+
+  private void onKnownKeyImageChanged(@NonNull ByteString keyImage) {
+    MobileCoinLedgerWrapper.OwnedTxo txo = blockDetails.get(keyImage);
+
+    if (txo != null && txo.isSpent() && keyImage.equals(txo.getKeyImage())) {
+      dirtyBlocks.add(txo.getSpentInBlock());
+    }
+  }
+
+  private void rebuildDirtyBlocks() {
+    if (dirtyBlocks.isEmpty()) {
+      return;
+    }
+
+    for (Long blockIndex : dirtyBlocks) {
+      Block block = blocks.get(blockIndex);
+
+      if (block == null) {
+        continue;
+      }
+
+      if (block.hasUnknownActivity) {
+        blocksWithUnknownActivity--;
+      }
+
+      if (block.received.isEmpty() && block.spent.isEmpty()) {
+        blocks.remove(blockIndex);
+        continue;
+      }
+
+      rebuildBlock(blockIndex, block);
+
+      if (block.hasUnknownActivity) {
+        blocksWithUnknownActivity++;
+      }
+    }
+
+    dirtyBlocks.clear();
+
+    List<Payment> payments = new ArrayList<>(reconstructedPayments.size());
+    for (Block block : blocks.values()) {
+      payments.addAll(block.payments);
+    }
+
+    reconstructedPayments = payments;
+  }
+
+  /**
+   * Mirrors the per-block work in {@link LedgerReconcile}. Any TXO we can't pair up by public key, we don't know how it got into the account, and any
+   * spent TXO we can't pair up by key image, we don't know how it was spent.
+   */
+  private void rebuildBlock(long blockIndex, @NonNull Block block) {
+    List<MobileCoinLedgerWrapper.OwnedTxo> unknownSpent    = new ArrayList<>();
+    List<MobileCoinLedgerWrapper.OwnedTxo> unknownReceived = new ArrayList<>();
+
+    for (ByteString publicKey : block.spent) {
+      MobileCoinLedgerWrapper.OwnedTxo txo = txos.get(publicKey);
+      if (!knownKeyImages.containsKey(txo.getKeyImage())) {
+        unknownSpent.add(txo);
+      }
+    }
+
+    for (ByteString publicKey : block.received) {
+      if (!knownPublicKeys.containsKey(publicKey)) {
+        unknownReceived.add(txos.get(publicKey));
+      }
+    }
+
+    block.hasUnknownActivity = !unknownSpent.isEmpty() || !unknownReceived.isEmpty();
+
+    if (!block.hasUnknownActivity) {
+      block.payments = Collections.emptyList();
+      return;
+    }
+
+    Long timestamp = null;
+    if (!unknownSpent.isEmpty()) {
+      timestamp = unknownSpent.get(0).getSpentInBlockTimestamp();
+    }
+    if (timestamp == null && !unknownReceived.isEmpty()) {
+      timestamp = unknownReceived.get(0).getReceivedInBlockTimestamp();
+    }
+
+    TransactionReconstruction                   reconstruction = TransactionReconstruction.estimateBlockLevelActivity(toMobileCoinList(unknownSpent), toMobileCoinList(unknownReceived));
+    List<TransactionReconstruction.Transaction> transactions   = reconstruction.getAllTransactions();
+    LedgerReconcile.BlockDetail                 blockDetail    = new LedgerReconcile.BlockDetail(blockIndex, timestamp);
+
+    Collections.sort(transactions, Collections.reverseOrder(TransactionReconstruction.Transaction.ORDER));
+
+    List<Payment> payments = new ArrayList<>(transactions.size());
+    for (TransactionReconstruction.Transaction transaction : transactions) {
+      payments.add(new ReconstructedPayment(blockDetail.getBlockIndex(),
+                                            blockDetail.getBlockTimestampOrZero(),
+                                            transaction.getDirection(),
+                                            transaction.getValue()));
+    }
+
+    block.payments = payments;
+  }
+
+  private @NonNull Block getOrCreateBlock(long blockIndex) {
+    Block block = blocks.get(blockIndex);
+
+    if (block == null) {
+      block = new Block();
+      blocks.put(blockIndex, block);
+    }
+
+    return block;
+  }
+
+  /**
+   * @return True if the count for the key reached zero and it was removed.
+   */
+  private static boolean decrement(@NonNull Map<ByteString, Integer> counts, @NonNull ByteString key) {
+    Integer count = counts.get(key);
+
+    if (count == null) {
+      return false;
+    } else if (count == 1) {
+      counts.remove(key);
+      return true;
+    } else {
+      counts.put(key, count - 1);
+      return false;
+    }
+  }
+
+  private static @NonNull List<Money.MobileCoin> toMobileCoinList(@NonNull List<MobileCoinLedgerWrapper.OwnedTxo> txos) {
+    List<Money.MobileCoin> values = new ArrayList<>(txos.size());
+    for (MobileCoinLedgerWrapper.OwnedTxo txo : txos) {
+      values.add(txo.getValue());
+    }
+    return values;
+  }
+
+  private static final class Block {
+    /** Public keys of TXOs received in this block, in ledger order. */
+    private final Set<ByteString> received = new LinkedHashSet<>();
+
+    /** Public keys of TXOs spent in this block, in ledger order. */
+    private final Set<ByteString> spent = new LinkedHashSet<>();
+
+    private List<Payment> payments = Collections.emptyList();
+    private boolean       hasUnknownActivity;
+  }
+}
@@ -119,7 +119,7 @@ public final class LedgerReconcile {
     return result;
   }
 
-  private static @NonNull Payment findBlock(@NonNull Payment local, @NonNull Map<ByteString, MobileCoinLedgerWrapper.OwnedTxo> allTxOuts) {
+  static @NonNull Payment findBlock(@NonNull Payment local, @NonNull Map<ByteString, MobileCoinLedgerWrapper.OwnedTxo> allTxOuts) {
     if (local.getDirection().isReceived()) {
       for (ByteString publicKey : local.getPaymentMetaData().mobileCoinTxoIdentification.publicKey) {
         MobileCoinLedgerWrapper.OwnedTxo ownedTxo = allTxOuts.get(publicKey);
@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.recipients;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.LiveData;
@@ -22,11 +23,11 @@ import org.thoughtcrime.securesms.database.RecipientTable;
 import org.thoughtcrime.securesms.database.GenZappDatabase;
 import org.thoughtcrime.securesms.database.model.DistributionListRecord;
 import org.thoughtcrime.securesms.database.model.RecipientRecord;
+import org.thoughtcrime.securesms.notifications.v2.NotificationAvatarCache;
 import org.thoughtcrime.securesms.util.livedata.LiveDataUtil;
 
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicReference;
@@ -163,6 +164,22 @@ public final class LiveRecipient {
     return updated;
   }
 
+  /**
+   * Resolves this recipient from records that have already been read, typically as part of a batch. Does nothing if it's already resolved.
+   *
+   * @param groupRecord The group for the recipient, if it is a group and the group exists.
+   */
+  @WorkerThread
+  void resolve(@NonNull RecipientRecord record, @Nullable GroupRecord groupRecord) {
+    Recipient current = recipient.get();
+
+    if (!current.isResolving() || current.getId().isUnknown()) {
+      return;
+    }
+
+    set(createAndCacheRecipient(record, groupRecord));
+  }
+
   @WorkerThread
   public LiveRecipient refresh() {
     refresh(getId());
@@ -198,11 +215,16 @@ public final class LiveRecipient {
   }
 
   private @NonNull Recipient fetchAndCacheRecipientFromDisk(@NonNull RecipientId id) {
-    RecipientRecord record = recipientTable.getRecord(id);
+    RecipientRecord record      = recipientTable.getRecord(id);
+    GroupRecord     groupRecord = record.getGroupId() != null ? groupDatabase.getGroup(record.getId()).orElse(null) : null;
+
+    return createAndCacheRecipient(record, groupRecord);
+  }
 
+  private @NonNull Recipient createAndCacheRecipient(@NonNull RecipientRecord record, @Nullable GroupRecord groupRecord) {
     Recipient recipient;
     if (record.getGroupId() != null) {
-      recipient = getGroupRecipientDetails(record);
+      recipient = getGroupRecipientDetails(record, groupRecord);
     } else if (record.getDistributionListId() != null) {
       recipient = getDistributionListRecipientDetails(record);
     } else if (record.getCallLinkRoomId() != null) {
@@ -215,12 +237,9 @@ public final class LiveRecipient {
     return recipient;
   }
 
-  @WorkerThread
-  private @NonNull Recipient getGroupRecipientDetails(@NonNull RecipientRecord record) {
-    Optional<GroupRecord> groupRecord = groupDatabase.getGroup(record.getId());
-
-    if (groupRecord.isPresent()) {
-      return RecipientCreator.forGroup(groupRecord.get(), record);
+  private @NonNull Recipient getGroupRecipientDetails(@NonNull RecipientRecord record, @Nullable GroupRecord groupRecord) {
+    if (groupRecord != null) {
+      return RecipientCreator.forGroup(groupRecord, record);
     } else {
       return RecipientCreator.forUnknownGroup(record.getId(), record.getGroupId());
     }
@@ -255,9 +274,11 @@ public final class LiveRecipient {
   }
 
   synchronized void set(@NonNull Recipient recipient) {
-    this.recipient.set(recipient);
+    Recipient previous = this.recipient.getAndSet(recipient);
     this.liveData.postValue(recipient);
     this.subject.onNext(recipient);
+
+    NotificationAvatarCache.INSTANCE.onRecipientUpdated(previous, recipient);
   }
 
   @Override
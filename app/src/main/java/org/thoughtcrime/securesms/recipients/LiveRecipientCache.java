@@ -7,16 +7,21 @@ import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
 import org.GenZapp.core.util.ThreadUtil;
 import org.GenZapp.core.util.concurrent.GenZappExecutors;
 import org.GenZapp.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.GroupTable;
 import org.thoughtcrime.securesms.database.RecipientTable;
 import org.thoughtcrime.securesms.database.RecipientTable.MissingRecipientException;
 import org.thoughtcrime.securesms.database.GenZappDatabase;
 import org.thoughtcrime.securesms.database.ThreadTable;
+import org.thoughtcrime.securesms.database.model.GroupRecord;
+import org.thoughtcrime.securesms.database.model.RecipientRecord;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.keyvalue.GenZappStore;
+import org.thoughtcrime.securesms.notifications.v2.NotificationAvatarCache;
 import org.GenZapp.core.util.CursorUtil;
 import org.thoughtcrime.securesms.util.LRUCache;
 import org.GenZapp.core.util.Stopwatch;
@@ -25,6 +30,9 @@ import org.whispersystems.GenZappservice.api.push.ServiceId.ACI;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
@@ -38,12 +46,17 @@ public final class LiveRecipientCache {
   private static final int CACHE_MAX              = 1000;
   private static final int THREAD_CACHE_WARM_MAX  = 500;
   private static final int CONTACT_CACHE_WARM_MAX = 50;
+  private static final int RESOLVE_BATCH_MAX      = 500;
 
   private final Context                         context;
   private final RecipientTable                  recipientTable;
   private final Map<RecipientId, LiveRecipient> recipients;
   private final LiveRecipient                   unknown;
   private final Executor                        resolveExecutor;
+  private final GroupTable                      groupTable;
+
+  private final Map<RecipientId, PendingResolve> pendingResolves;
+  private       boolean                          resolveScheduled;
 
   private final AtomicReference<RecipientId> localRecipientId;
   private final AtomicBoolean                warmedUp;
@@ -56,15 +69,21 @@ public final class LiveRecipientCache {
   public LiveRecipientCache(@NonNull Context context, @NonNull Executor executor) {
     this.context        = context.getApplicationContext();
     this.recipientTable = GenZappDatabase.recipients();
+    this.groupTable     = GenZappDatabase.groups();
     this.recipients     = new LRUCache<>(CACHE_MAX);
     this.warmedUp          = new AtomicBoolean(false);
     this.localRecipientId  = new AtomicReference<>(null);
     this.unknown           = new LiveRecipient(context, Recipient.UNKNOWN);
     this.resolveExecutor   = executor;
+    this.pendingResolves   = new LinkedHashMap<>();
   }
 
   @AnyThread
   @NonNull LiveRecipient getLive(@NonNull RecipientId id) {
+    return getLive(id, true);
+  }
+
+  private @NonNull LiveRecipient getLive(@NonNull RecipientId id, boolean resolveInBackground) {
     if (id.isUnknown()) return unknown;
 
     LiveRecipient live;
@@ -82,8 +101,8 @@ public final class LiveRecipientCache {
       }
     }
 
-    if (needsResolve) {
-      resolveExecutor.execute(live::resolve);
+    if (needsResolve && resolveInBackground) {
+      enqueueResolve(live, null);
     }
 
     return live;
@@ -100,6 +119,8 @@ public final class LiveRecipientCache {
         recipients.remove(oldId);
       }
     }
+
+    NotificationAvatarCache.INSTANCE.invalidate(oldId);
   }
 
   /**
@@ -130,20 +151,125 @@ public final class LiveRecipientCache {
       }
 
       if (needsResolve) {
-        LiveRecipient toResolve = live;
-
-        MissingRecipientException prettyStackTraceError = new MissingRecipientException(toResolve.getId());
-        resolveExecutor.execute(() -> {
-          try {
-            toResolve.resolve();
-          } catch (MissingRecipientException e) {
-            throw prettyStackTraceError;
-          }
-        });
+        enqueueResolve(live, new MissingRecipientException(live.getId()));
       }
     });
   }
 
+  /**
+   * Resolves all of the provided recipients on the calling thread, reading any that aren't already resolved in a few batched queries rather than one
+   * at a time.
+   */
+  @WorkerThread
+  @NonNull List<Recipient> resolveAll(@NonNull Collection<RecipientId> ids) {
+    List<LiveRecipient>  lives      = new ArrayList<>(ids.size());
+    List<PendingResolve> unresolved = new ArrayList<>();
+
+    for (RecipientId id : ids) {
+      LiveRecipient live = getLive(id, false);
+      lives.add(live);
+
+      if (live.get().isResolving() && !id.isUnknown()) {
+        unresolved.add(new PendingResolve(live, null));
+      }
+    }
+
+    for (int i = 0; i < unresolved.size(); i += RESOLVE_BATCH_MAX) {
+      resolveBatch(unresolved.subList(i, Math.min(i + RESOLVE_BATCH_MAX, unresolved.size())));
+    }
+
+    List<Recipient> resolved = new ArrayList<>(lives.size());
+    for (LiveRecipient live : lives) {
+      resolved.add(live.resolve());
+    }
+
+    return resolved;
+  }
+
+  /**
+   * Queues a recipient to be resolved in the background. Resolves that are requested while others are still waiting for the executor are read
+   * together, so that something like binding a large member list ends up as a few queries rather than one per recipient.
+   *
+   * @param callSite If present, thrown in place of a {@link MissingRecipientException} so the crash points at whoever asked for the recipient.
+   */
+  private void enqueueResolve(@NonNull LiveRecipient live, @Nullable MissingRecipientException callSite) {
+    synchronized (pendingResolves) {
+      pendingResolves.put(live.getId(), new PendingResolve(live, callSite));
+
+      if (resolveScheduled) {
+        return;
+      }
+
+      resolveScheduled = true;
+    }
+
+    resolveExecutor.execute(this::resolvePending);
+  }
+
+  @WorkerThread
+  private void resolvePending() {
+    List<PendingResolve> batch = new ArrayList<>();
+    boolean              more;
+
+    synchronized (pendingResolves) {
+      Iterator<PendingResolve> iterator = pendingResolves.values().iterator();
+
+      while (iterator.hasNext() && batch.size() < RESOLVE_BATCH_MAX) {
+        batch.add(iterator.next());
+        iterator.remove();
+      }
+
+      more             = !pendingResolves.isEmpty();
+      resolveScheduled = more;
+    }
+
+    if (more) {
+      resolveExecutor.execute(this::resolvePending);
+    }
+
+    if (!batch.isEmpty()) {
+      resolveBatch(batch);
+    }
+  }
+
+  @WorkerThread
+  private void resolveBatch(@NonNull List<PendingResolve> batch) {
+    List<RecipientId> ids = new ArrayList<>(batch.size());
+    for (PendingResolve pending : batch) {
+      ids.add(pending.live.getId());
+    }
+
+    Map<RecipientId, RecipientRecord> records = recipientTable.getRecordsForResolve(ids);
+
+    List<RecipientId> groupRecipientIds = new ArrayList<>();
+    for (RecipientRecord record : records.values()) {
+      if (record.getGroupId() != null) {
+        groupRecipientIds.add(record.getId());
+      }
+    }
+
+    Map<RecipientId, GroupRecord> groups = groupRecipientIds.isEmpty() ? Collections.emptyMap() : groupTable.getGroupsByRecipientId(groupRecipientIds);
+
+    for (PendingResolve pending : batch) {
+      RecipientRecord record = records.get(pending.live.getId());
+
+      if (record != null) {
+        pending.live.resolve(record, groups.get(record.getId()));
+      }
+    }
+
+    // Anything we couldn't find has either been remapped or is missing, both of which are left to the single-recipient path
+    for (PendingResolve pending : batch) {
+      if (!records.containsKey(pending.live.getId())) {
+        try {
+          pending.live.resolve();
+        } catch (MissingRecipientException e) {
+          throw pending.callSite != null ? pending.callSite : e;
+        }
+      }
+    }
+  }
+
   @NonNull Recipient getSelf() {
     RecipientId selfId;
 
@@ -234,14 +360,14 @@ public final class LiveRecipientCache {
 
       if (GenZappStore.registration().isRegistrationComplete() && GenZappStore.account().getAci() != null) {
         try (Cursor cursor = GenZappDatabase.recipients().getNonGroupContacts(false)) {
-          int count = 0;
-          while (cursor != null && cursor.moveToNext() && count < CONTACT_CACHE_WARM_MAX) {
-            RecipientId id = RecipientId.from(CursorUtil.requireLong(cursor, RecipientTable.ID));
-            Recipient.resolved(id);
-            count++;
+          List<RecipientId> contactIds = new ArrayList<>(CONTACT_CACHE_WARM_MAX);
+          while (cursor != null && cursor.moveToNext() && contactIds.size() < CONTACT_CACHE_WARM_MAX) {
+            contactIds.add(RecipientId.from(CursorUtil.requireLong(cursor, RecipientTable.ID)));
           }
 
-          Log.d(TAG, "Warmed up " + count + " contact recipient.");
+          resolveAll(contactIds);
+
+          Log.d(TAG, "Warmed up " + contactIds.size() + " contact recipient.");
 
           stopwatch.split("contact");
         }
@@ -263,9 +389,21 @@ public final class LiveRecipientCache {
     synchronized (recipients) {
       recipients.clear();
     }
+
+    NotificationAvatarCache.INSTANCE.clear();
   }
 
   private boolean isValidForCache(@NonNull Recipient recipient) {
     return !recipient.getId().isUnknown() && (recipient.getHasServiceId() || recipient.getGroupId().isPresent() || recipient.getHasSmsAddress());
   }
+
+  private static final class PendingResolve {
+    private final LiveRecipient             live;
+    private final MissingRecipientException callSite;
+
+    private PendingResolve(@NonNull LiveRecipient live, @Nullable MissingRecipientException callSite) {
+      this.live     = live;
+      this.callSite = callSite;
+    }
+  }
 }
@@ -836,7 +836,7 @@ class Recipient(
     @JvmStatic
     @WorkerThread
     fun resolvedList(ids: Collection<RecipientId>): List<Recipient> {
-      return ids.map { resolved(it) }
+      return AppDependencies.recipientCache.resolveAll(ids)
     }
 
     @JvmStatic
@@ -29,16 +29,16 @@ import java.io.IOException
 object RestoreRepository {
   private val TAG = Log.tag(RestoreRepository.javaClass)
 
-  suspend fun getLocalBackupFromUri(context: Context, uri: Uri): BackupInfoResult = withContext(Dispatchers.IO) {
+  suspend fun getLocalBackupFromUris(context: Context, uris: List<Uri>): BackupInfoResult = withContext(Dispatchers.IO) {
     try {
-      return@withContext BackupInfoResult(backupInfo = BackupUtil.getBackupInfoFromSingleUri(context, uri), failureCause = null, failure = false)
+      return@withContext BackupInfoResult(backupInfo = BackupUtil.getBackupInfoFromUris(context, uris), failureCause = null, failure = false)
     } catch (ex: BackupUtil.BackupFileException) {
       Log.w(TAG, "Encountered error while trying to read backup!", ex)
       return@withContext BackupInfoResult(backupInfo = null, failureCause = ex, failure = true)
     }
   }
 
-  suspend fun restoreBackupAsynchronously(context: Context, backupFileUri: Uri, passphrase: String): BackupImportResult = withContext(Dispatchers.IO) {
+  suspend fun restoreBackupAsynchronously(context: Context, backupInfo: BackupInfo, passphrase: String): BackupImportResult = withContext(Dispatchers.IO) {
     // TODO [regv2]: migrate this to a service
     try {
       Log.i(TAG, "Starting backup restore.")
@@ -48,18 +48,30 @@ object RestoreRepository {
 
       BackupPassphrase.set(context, passphrase)
 
-      if (!FullBackupImporter.validatePassphrase(context, backupFileUri, passphrase)) {
+      if (!FullBackupImporter.validatePassphrase(context, backupInfo.uri, passphrase)) {
         // TODO [regv2]: implement a specific, user-visible error for wrong passphrase.
         return@withContext BackupImportResult.FAILURE_UNKNOWN
       }
 
-      FullBackupImporter.importFile(
-        context,
-        AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-        database,
-        backupFileUri,
-        passphrase
-      )
+      if (backupInfo.deltaUris.isEmpty()) {
+        FullBackupImporter.importFile(
+          context,
+          AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+          database,
+          backupInfo.uri,
+          passphrase
+        )
+      } else {
+        Log.i(TAG, "Restoring the backup with ${backupInfo.deltaUris.size} delta(s).")
+        FullBackupImporter.importChain(
+          context,
+          AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+          database,
+          backupInfo.uri,
+          backupInfo.deltaUris,
+          passphrase
+        )
+      }
 
       GenZappDatabase.runPostBackupRestoreTasks(database)
       NotificationChannels.getInstance().restoreContactNotificationChannels()
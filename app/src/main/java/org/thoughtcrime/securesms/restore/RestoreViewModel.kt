@@ -48,13 +48,13 @@ class RestoreViewModel : ViewModel() {
     return store.value.restorationType
   }
 
-  fun setBackupFileUri(backupFileUri: Uri) {
+  fun setBackupFileUris(backupFileUris: List<Uri>) {
     store.update {
-      it.copy(backupFile = backupFileUri)
+      it.copy(backupFiles = backupFileUris)
     }
   }
 
-  fun getBackupFileUri(): Uri? = store.value.backupFile
+  fun getBackupFileUris(): List<Uri> = store.value.backupFiles
 
   fun getNextIntent(): Intent? = store.value.nextIntent
 }
@@ -35,10 +35,10 @@ class ChooseBackupFragment : LoggingFragment(R.layout.fragment_choose_backup) {
   private val binding: FragmentChooseBackupBinding by ViewBinderDelegate(FragmentChooseBackupBinding::bind)
 
   private val pickMedia = registerForActivityResult(BackupFileContract()) {
-    if (it != null) {
-      onUserChoseBackupFile(it)
+    if (it.isNotEmpty()) {
+      onUserChoseBackupFiles(it)
     } else {
-      Log.i(TAG, "Null URI returned for backup file selection.")
+      Log.i(TAG, "No URIs returned for backup file selection.")
     }
   }
 
@@ -55,12 +55,15 @@ class ChooseBackupFragment : LoggingFragment(R.layout.fragment_choose_backup) {
     pickMedia.launch("application/octet-stream")
   }
 
-  private fun onUserChoseBackupFile(backupFileUri: Uri) {
-    sharedViewModel.setBackupFileUri(backupFileUri)
+  /**
+   * Usually just the backup file, but a differential backup's deltas can be picked along with its base.
+   */
+  private fun onUserChoseBackupFiles(backupFileUris: List<Uri>) {
+    sharedViewModel.setBackupFileUris(backupFileUris)
     NavHostFragment.findNavController(this).safeNavigate(ChooseBackupFragmentDirections.actionChooseLocalBackupFragmentToRestoreLocalBackupFragment())
   }
 
-  private class BackupFileContract : ActivityResultContracts.GetContent() {
+  private class BackupFileContract : ActivityResultContracts.GetMultipleContents() {
     override fun createIntent(context: Context, input: String): Intent {
       return super.createIntent(context, input).apply {
         putExtra(Intent.EXTRA_LOCAL_ONLY, true)
@@ -44,8 +44,7 @@ class RestoreLocalBackupFragment : LoggingFragment(R.layout.fragment_restore_loc
   private val navigationViewModel: RestoreViewModel by activityViewModels()
   private val restoreLocalBackupViewModel: RestoreLocalBackupViewModel by viewModels(
     factoryProducer = ViewModelFactory.factoryProducer {
-      val fileBackupUri = navigationViewModel.getBackupFileUri()!!
-      RestoreLocalBackupViewModel(fileBackupUri)
+      RestoreLocalBackupViewModel(navigationViewModel.getBackupFileUris())
     }
   )
   private val binding: FragmentRestoreLocalBackupBinding by ViewBinderDelegate(FragmentRestoreLocalBackupBinding::bind)
@@ -55,7 +54,7 @@ class RestoreLocalBackupFragment : LoggingFragment(R.layout.fragment_restore_loc
     setDebugLogSubmitMultiTapView(binding.verifyHeader)
     Log.i(TAG, "Backup restore.")
 
-    if (navigationViewModel.getBackupFileUri() == null) {
+    if (navigationViewModel.getBackupFileUris().isEmpty()) {
       Log.i(TAG, "No backup URI found, must navigate back to choose one.")
       findNavController().navigateUp()
       return
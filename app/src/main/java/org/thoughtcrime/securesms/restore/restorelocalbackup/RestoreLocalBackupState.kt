@@ -14,7 +14,7 @@ import org.thoughtcrime.securesms.util.BackupUtil.BackupInfo
  * State holder for a backup restore.
  */
 data class RestoreLocalBackupState(
-  val uri: Uri,
+  val uris: List<Uri>,
   val backupInfo: BackupInfo? = null,
   val backupFileStateError: BackupUtil.BackupFileState? = null,
   val backupPassphrase: String = "",
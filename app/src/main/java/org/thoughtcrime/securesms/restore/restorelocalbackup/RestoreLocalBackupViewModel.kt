@@ -21,8 +21,8 @@ import org.thoughtcrime.securesms.restore.RestoreRepository
 /**
  * ViewModel for [RestoreLocalBackupFragment]
  */
-class RestoreLocalBackupViewModel(fileBackupUri: Uri) : ViewModel() {
-  private val store = MutableStateFlow(RestoreLocalBackupState(fileBackupUri))
+class RestoreLocalBackupViewModel(fileBackupUris: List<Uri>) : ViewModel() {
+  private val store = MutableStateFlow(RestoreLocalBackupState(fileBackupUris))
   val uiState = store.asLiveData()
 
   val backupReadError = store.map { it.backupFileStateError }.asLiveData()
@@ -30,9 +30,9 @@ class RestoreLocalBackupViewModel(fileBackupUri: Uri) : ViewModel() {
   val backupComplete = store.map { Pair(it.backupRestoreComplete, it.backupImportResult) }.asLiveData()
 
   fun prepareRestore(context: Context) {
-    val backupFileUri = store.value.uri
+    val backupFileUris = store.value.uris
     viewModelScope.launch {
-      val result: RestoreRepository.BackupInfoResult = RestoreRepository.getLocalBackupFromUri(context, backupFileUri)
+      val result: RestoreRepository.BackupInfoResult = RestoreRepository.getLocalBackupFromUris(context, backupFileUris)
 
       if (result.failure && result.failureCause != null) {
         store.update {
@@ -67,10 +67,10 @@ class RestoreLocalBackupViewModel(fileBackupUri: Uri) : ViewModel() {
       )
     }
 
-    val backupFileUri = store.value.backupInfo?.uri
+    val backupInfo = store.value.backupInfo
     val backupPassphrase = store.value.backupPassphrase
-    if (backupFileUri == null) {
-      Log.w(TAG, "Could not begin backup import because backup file URI was null!")
+    if (backupInfo == null) {
+      Log.w(TAG, "Could not begin backup import because backup info was null!")
       abort()
       return
     }
@@ -82,7 +82,7 @@ class RestoreLocalBackupViewModel(fileBackupUri: Uri) : ViewModel() {
     }
 
     viewModelScope.launch {
-      val importResult = RestoreRepository.restoreBackupAsynchronously(context, backupFileUri, backupPassphrase)
+      val importResult = RestoreRepository.restoreBackupAsynchronously(context, backupInfo, backupPassphrase)
 
       store.update {
         it.copy(
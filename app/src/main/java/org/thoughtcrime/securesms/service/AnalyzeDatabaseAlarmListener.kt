@@ -3,13 +3,14 @@ package org.thoughtcrime.securesms.service
 import android.content.Context
 import org.thoughtcrime.securesms.dependencies.AppDependencies
 import org.thoughtcrime.securesms.jobs.AnalyzeDatabaseJob
+import org.thoughtcrime.securesms.jobs.ReconcileStorageUsageJob
 import org.thoughtcrime.securesms.keyvalue.GenZappStore
 import org.thoughtcrime.securesms.util.toMillis
 import java.security.SecureRandom
 import java.time.LocalDateTime
 
 /**
- * Schedules database analysis to happen everyday at 3am.
+ * Schedules database analysis (and other routine database maintenance) to happen everyday at 3am.
  */
 class AnalyzeDatabaseAlarmListener : PersistentAlarmManagerListener() {
   companion object {
@@ -36,6 +37,7 @@ class AnalyzeDatabaseAlarmListener : PersistentAlarmManagerListener() {
 
   override fun onAlarm(context: Context, scheduledTime: Long): Long {
     AppDependencies.jobManager.add(AnalyzeDatabaseJob())
+    AppDependencies.jobManager.add(ReconcileStorageUsageJob())
 
     val nextTime = getNextTime()
     GenZappStore.misc.nextDatabaseAnalysisTime = nextTime
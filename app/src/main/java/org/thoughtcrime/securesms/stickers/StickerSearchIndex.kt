@@ -0,0 +1,319 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.stickers
+
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.components.emoji.EmojiUtil
+import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.database.model.StickerRecord
+import java.text.BreakIterator
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * An in-memory index of every searchable sticker, keyed by emoji and by the words in each sticker's pack title.
+ *
+ * Emoji are folded before they're used as keys, so a skin tone variation or an obsolete representation finds the same stickers as the default emoji, and a
+ * lookup is a single map read rather than a query per representation. Every list in the index is already ranked: recently used stickers first, then stickers
+ * from recently used packs, then pack order.
+ *
+ * The index is built from the [org.thoughtcrime.securesms.database.StickerTable] on the first lookup, and again on the first lookup after the table adds,
+ * removes or reorders stickers. Sending a sticker only changes its recency, so that re-ranks the buckets it's in without going back to the table.
+ */
+class StickerSearchIndex @VisibleForTesting constructor(
+  private val loader: () -> List<Entry>,
+  private val stickerKeys: (String) -> Collection<String>,
+  private val queryKey: (String) -> String
+) {
+
+  companion object {
+    private val TAG = Log.tag(StickerSearchIndex::class.java)
+
+    private const val MIN_PREFIX_LENGTH = 2
+    private const val MAX_PREFIX_LENGTH = 16
+
+    private val TITLE_SEPARATOR = Regex("[^\\p{L}\\p{N}]+")
+
+    private val RANKING: Comparator<Ranked> = compareByDescending<Ranked> { it.entry.lastUsed }
+      .thenByDescending { it.packLastUsed }
+      .thenBy { it.entry.packOrder }
+      .thenBy { it.entry.record.packId }
+      .thenBy { it.entry.record.stickerId }
+
+    private val lazyInstance: Lazy<StickerSearchIndex> = lazy {
+      withEmojiFolding { GenZappDatabase.stickers.getSearchableStickers() }
+    }
+
+    @JvmStatic
+    val instance: StickerSearchIndex by lazyInstance
+
+    /**
+     * Called by the sticker table when stickers are added or removed, or packs are reordered. Does nothing if the index hasn't been used yet.
+     */
+    @JvmStatic
+    fun onStickersChanged() {
+      if (lazyInstance.isInitialized()) {
+        instance.invalidate()
+      }
+    }
+
+    /**
+     * Called by the sticker table when a sticker is used. Does nothing if the index hasn't been used yet.
+     */
+    @JvmStatic
+    fun onStickerUsed(rowId: Long, lastUsed: Long) {
+      if (lazyInstance.isInitialized()) {
+        instance.updateLastUsed(rowId, lastUsed)
+      }
+    }
+
+    /**
+     * An index over whatever [loader] returns, with emoji keyed the same way as [instance].
+     */
+    @VisibleForTesting
+    fun withEmojiFolding(loader: () -> List<Entry>): StickerSearchIndex {
+      return StickerSearchIndex(loader, ::emojiKeys, ::emojiKey)
+    }
+
+    /**
+     * Every key a sticker tagged with [emoji] should be found under. A tag can hold more than one emoji, in which case each is indexed on its own.
+     */
+    private fun emojiKeys(emoji: String): Set<String> {
+      val keys: MutableSet<String> = mutableSetOf()
+
+      for (single in graphemes(emoji) + emoji) {
+        for (representation in EmojiUtil.getAllRepresentations(EmojiUtil.getCanonicalRepresentation(single))) {
+          keys += fold(representation)
+        }
+      }
+
+      return keys
+    }
+
+    private fun emojiKey(emoji: String): String {
+      return fold(EmojiUtil.getCanonicalRepresentation(emoji))
+    }
+
+    /** Variation selectors only pick between text and emoji presentation, so they shouldn't keep two otherwise identical emoji apart. */
+    private fun fold(emoji: String): String {
+      return emoji.replace("\uFE0F", "")
+    }
+
+    private fun graphemes(text: String): List<String> {
+      val iterator = BreakIterator.getCharacterInstance()
+      iterator.setText(text)
+
+      val out: MutableList<String> = mutableListOf()
+      var start = iterator.first()
+      var end = iterator.next()
+      while (end != BreakIterator.DONE) {
+        out += text.substring(start, end)
+        start = end
+        end = iterator.next()
+      }
+
+      return out
+    }
+
+    private fun titleWords(text: String): List<String> {
+      return text.lowercase().split(TITLE_SEPARATOR).filter { it.isNotEmpty() }
+    }
+  }
+
+  private val version = AtomicLong()
+
+  @Volatile
+  private var snapshot: Snapshot? = null
+
+  /**
+   * Stickers tagged with [emoji] or any of its variations, best first.
+   */
+  @WorkerThread
+  fun findByEmoji(emoji: String): List<StickerRecord> {
+    return requireSnapshot().byEmoji[queryKey(emoji)]?.map { it.entry.record } ?: emptyList()
+  }
+
+  /**
+   * Stickers from packs with a title word starting with each word of [query], best first.
+   */
+  @WorkerThread
+  fun findByPackTitle(query: String): List<StickerRecord> {
+    val words = titleWords(query).filter { it.length >= MIN_PREFIX_LENGTH }
+    if (words.isEmpty()) {
+      return emptyList()
+    }
+
+    val current = requireSnapshot()
+    val candidates = current.byTitlePrefix[words.first().take(MAX_PREFIX_LENGTH)] ?: return emptyList()
+
+    if (words.size == 1 && words.first().length <= MAX_PREFIX_LENGTH) {
+      return candidates.map { it.entry.record }
+    }
+
+    return candidates
+      .filter { ranked -> words.all { word -> ranked.titleWords.any { it.startsWith(word) } } }
+      .map { it.entry.record }
+  }
+
+  /**
+   * Marks the index as out of date so the next lookup rebuilds it. Doesn't wait on a build that's in progress, since it's called from the database observer.
+   */
+  fun invalidate() {
+    version.incrementAndGet()
+  }
+
+  /**
+   * Moves a sticker that was just used, and the rest of its pack, to where they now rank. Only the buckets holding that pack are re-sorted, and nothing is
+   * read from the table. If the index is out of date anyway, this is left to the rebuild, which reads the new time from the table.
+   */
+  fun updateLastUsed(rowId: Long, lastUsed: Long) {
+    synchronized(this) {
+      val current = snapshot
+      if (current != null && current.version == version.get()) {
+        snapshot = current.withLastUsed(rowId, lastUsed)
+      }
+    }
+  }
+
+  /**
+   * Every snapshot remembers the version it was built from, so one that was being built when [invalidate] ran is never used past the lookup that built it.
+   */
+  private fun requireSnapshot(): Snapshot {
+    snapshot?.let { if (it.version == version.get()) return it }
+
+    synchronized(this) {
+      val builtAt = version.get()
+      snapshot?.let { if (it.version == builtAt) return it }
+
+      val start = System.currentTimeMillis()
+      val built = Snapshot.build(loader(), stickerKeys, builtAt)
+
+      Log.d(TAG, "Indexed ${built.size} stickers in ${System.currentTimeMillis() - start} ms")
+
+      snapshot = built
+      return built
+    }
+  }
+
+  /**
+   * A searchable sticker, along with what we need from its pack to find and rank it.
+   */
+  data class Entry(
+    val record: StickerRecord,
+    val packTitle: String,
+    val packOrder: Int,
+    val lastUsed: Long
+  )
+
+  private class Ranked(val entry: Entry, val packLastUsed: Long, val titleWords: List<String>)
+
+  /**
+   * A pack's stickers and every key they're found under, so a change in the pack's recency knows which buckets to re-sort.
+   */
+  private class Pack(val stickers: List<Ranked>, val emojiKeys: Set<String>, val titlePrefixes: Set<String>)
+
+  private class Snapshot(
+    val byEmoji: Map<String, List<Ranked>>,
+    val byTitlePrefix: Map<String, List<Ranked>>,
+    val packs: Map<String, Pack>,
+    val packIdsByRowId: Map<Long, String>,
+    val size: Int,
+    val version: Long
+  ) {
+
+    fun withLastUsed(rowId: Long, lastUsed: Long): Snapshot {
+      val packId = packIdsByRowId[rowId] ?: return this
+      val pack = packs.getValue(packId)
+
+      val entries = pack.stickers.map { if (it.entry.record.rowId == rowId) it.entry.copy(lastUsed = lastUsed) else it.entry }
+      val packLastUsed = entries.maxOf { it.lastUsed }
+      val stickers = pack.stickers.zip(entries) { ranked, entry -> Ranked(entry, packLastUsed, ranked.titleWords) }
+      val replacements: Map<Long, Ranked> = stickers.associateBy { it.entry.record.rowId }
+
+      return Snapshot(
+        byEmoji = rerank(byEmoji, pack.emojiKeys, replacements),
+        byTitlePrefix = rerank(byTitlePrefix, pack.titlePrefixes, replacements),
+        packs = packs + (packId to Pack(stickers, pack.emojiKeys, pack.titlePrefixes)),
+        packIdsByRowId = packIdsByRowId,
+        size = size,
+        version = version
+      )
+    }
+
+    private fun rerank(buckets: Map<String, List<Ranked>>, keys: Set<String>, replacements: Map<Long, Ranked>): Map<String, List<Ranked>> {
+      val updated: MutableMap<String, List<Ranked>> = HashMap(buckets)
+
+      for (key in keys) {
+        updated[key] = buckets.getValue(key)
+          .map { replacements[it.entry.record.rowId] ?: it }
+          .sortedWith(RANKING)
+      }
+
+      return updated
+    }
+
+    companion object {
+      fun build(entries: List<Entry>, stickerKeys: (String) -> Collection<String>, version: Long): Snapshot {
+        val packLastUsed: Map<String, Long> = entries
+          .groupBy { it.record.packId }
+          .mapValues { (_, stickers) -> stickers.maxOf { it.lastUsed } }
+
+        val titleWordsByPack: MutableMap<String, List<String>> = HashMap()
+
+        val ranked = entries
+          .map { Ranked(it, packLastUsed[it.record.packId] ?: 0, titleWordsByPack.getOrPut(it.record.packId) { titleWords(it.packTitle) }) }
+          .sortedWith(RANKING)
+
+        // Walking the stickers in rank order keeps every bucket ranked without sorting each one
+        val byEmoji: MutableMap<String, MutableList<Ranked>> = HashMap()
+        val byTitlePrefix: MutableMap<String, MutableList<Ranked>> = HashMap()
+        val packStickers: MutableMap<String, MutableList<Ranked>> = HashMap()
+        val packEmojiKeys: MutableMap<String, MutableSet<String>> = HashMap()
+        val packTitlePrefixes: MutableMap<String, Set<String>> = HashMap()
+        val packIdsByRowId: MutableMap<Long, String> = HashMap()
+
+        for (item in ranked) {
+          val record = item.entry.record
+
+          packStickers.getOrPut(record.packId) { mutableListOf() } += item
+          packIdsByRowId[record.rowId] = record.packId
+
+          for (key in stickerKeys(record.emoji)) {
+            if (key.isNotEmpty()) {
+              byEmoji.getOrPut(key) { mutableListOf() } += item
+              packEmojiKeys.getOrPut(record.packId) { mutableSetOf() } += key
+            }
+          }
+
+          val prefixes = packTitlePrefixes.getOrPut(record.packId) { titlePrefixes(item.titleWords) }
+
+          for (prefix in prefixes) {
+            byTitlePrefix.getOrPut(prefix) { mutableListOf() } += item
+          }
+        }
+
+        val packs: Map<String, Pack> = packStickers.mapValues { (packId, stickers) ->
+          Pack(stickers, packEmojiKeys[packId] ?: emptySet(), packTitlePrefixes[packId] ?: emptySet())
+        }
+
+        return Snapshot(byEmoji, byTitlePrefix, packs, packIdsByRowId, entries.size, version)
+      }
+
+      private fun titlePrefixes(titleWords: List<String>): Set<String> {
+        val prefixes: MutableSet<String> = mutableSetOf()
+
+        for (word in titleWords) {
+          for (length in MIN_PREFIX_LENGTH..minOf(word.length, MAX_PREFIX_LENGTH)) {
+            prefixes += word.substring(0, length)
+          }
+        }
+
+        return prefixes
+      }
+    }
+  }
+}
@@ -6,18 +6,15 @@ import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
 import org.GenZapp.core.util.concurrent.GenZappExecutors;
-import org.thoughtcrime.securesms.components.emoji.EmojiUtil;
 import org.thoughtcrime.securesms.database.AttachmentTable;
 import org.thoughtcrime.securesms.database.GenZappDatabase;
 import org.thoughtcrime.securesms.database.StickerTable;
-import org.thoughtcrime.securesms.database.StickerTable.StickerRecordReader;
 import org.thoughtcrime.securesms.database.model.StickerRecord;
 import org.thoughtcrime.securesms.emoji.EmojiSource;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.schedulers.Schedulers;
@@ -48,20 +45,7 @@ public final class StickerSearchRepository {
 
   @WorkerThread
   private List<StickerRecord> searchByEmojiSync(@NonNull String emoji) {
-    String              searchEmoji = EmojiUtil.getCanonicalRepresentation(emoji);
-    List<StickerRecord> out         = new ArrayList<>();
-    Set<String>         possible    = EmojiUtil.getAllRepresentations(searchEmoji);
-
-    for (String candidate : possible) {
-      try (StickerRecordReader reader = new StickerRecordReader(stickerDatabase.getStickersByEmoji(candidate))) {
-        StickerRecord record = null;
-        while ((record = reader.getNext()) != null) {
-          out.add(record);
-        }
-      }
-    }
-
-    return out;
+    return new ArrayList<>(StickerSearchIndex.getInstance().findByEmoji(emoji));
   }
 
   public void getStickerFeatureAvailability(@NonNull Callback<Boolean> callback) {
@@ -6,19 +6,16 @@ import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.schedulers.Schedulers
 import org.GenZapp.core.util.concurrent.GenZappExecutors
 import org.thoughtcrime.securesms.conversation.ConversationMessage
-import org.thoughtcrime.securesms.database.DatabaseObserver
 import org.thoughtcrime.securesms.database.MessageTable
 import org.thoughtcrime.securesms.database.RxDatabaseObserver
 import org.thoughtcrime.securesms.database.GenZappDatabase
+import org.thoughtcrime.securesms.database.StoryFeedTable
 import org.thoughtcrime.securesms.database.model.DistributionListId
 import org.thoughtcrime.securesms.database.model.MessageRecord
-import org.thoughtcrime.securesms.database.model.StoryResult
 import org.thoughtcrime.securesms.database.model.StoryViewState
-import org.thoughtcrime.securesms.dependencies.AppDependencies
 import org.thoughtcrime.securesms.jobs.MultiDeviceReadUpdateJob
 import org.thoughtcrime.securesms.keyvalue.GenZappStore
 import org.thoughtcrime.securesms.recipients.Recipient
-import org.thoughtcrime.securesms.recipients.RecipientForeverObserver
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.sms.MessageSender
 
@@ -32,127 +29,43 @@ class StoriesLandingRepository(context: Context) {
     }.subscribeOn(Schedulers.io())
   }
 
-  @Suppress("UsePropertyAccessSyntax")
+  /**
+   * Emits the landing page items whenever the stories feed or one of the story senders changes.
+   *
+   * A single observer drives the feed. Each notification first calls [StoryFeedTable.refresh], which only recomputes threads that triggers have marked
+   * dirty (see [StoryFeedTable]). The feed is only read again if that refresh changed something, so unrelated chat traffic costs a check of an empty
+   * table. Items whose rows and recipient are unchanged are reused as-is.
+   */
   fun getStories(): Observable<List<StoriesLandingItemData>> {
-    val storyRecipients: Observable<Map<Recipient, List<StoryResult>>> = RxDatabaseObserver
-      .conversationList
-      .toObservable()
-      .map {
-        val myStoriesId = GenZappDatabase.recipients.getOrInsertFromDistributionListId(DistributionListId.MY_STORY)
-        val myStories = Recipient.resolved(myStoriesId)
-
-        val stories = GenZappDatabase.messages.getOrderedStoryRecipientsAndIds(false)
-        val mapping: MutableMap<Recipient, List<StoryResult>> = mutableMapOf()
-
-        stories.forEach {
-          val recipient = Recipient.resolved(it.recipientId)
-          if (recipient.isDistributionList || (it.isOutgoing && !recipient.isInactiveGroup)) {
-            val list = mapping[myStories] ?: emptyList()
-            mapping[myStories] = list + it
-          }
-
-          if (!recipient.isDistributionList && !recipient.isBlocked && !recipient.isInactiveGroup) {
-            val list = mapping[recipient] ?: emptyList()
-            mapping[recipient] = list + it
-          }
-        }
-
-        mapping
-      }
-
-    return storyRecipients.switchMap { map ->
-      val observables = map.map { (recipient, results) ->
-        val messages = results
-          .sortedBy { it.messageSentTimestamp }
-          .reversed()
-          .take(if (recipient.isMyStory) 2 else 1)
-          .map {
-            GenZappDatabase.messages.getMessageRecord(it.messageId)
-          }
-
-        var sendingCount: Long = 0
-        var failureCount: Long = 0
-
-        if (recipient.isMyStory) {
-          GenZappDatabase.messages.getMessages(results.map { it.messageId }).use { reader ->
-            var messageRecord: MessageRecord? = reader.getNext()
-            while (messageRecord != null) {
-              if (messageRecord.isOutgoing && (messageRecord.isPending || messageRecord.isMediaPending)) {
-                sendingCount++
-              } else if (messageRecord.isFailed) {
-                failureCount++
-              }
-
-              messageRecord = reader.getNext()
-            }
-          }
+    return Observable.defer {
+      val itemCache = ItemCache()
+      var lastGeneration: Long? = null
+
+      RxDatabaseObserver.storyFeed
+        .toObservable()
+        .filter {
+          val generation = GenZappDatabase.storyFeed.refresh()
+          val changed = generation != lastGeneration
+
+          lastGeneration = generation
+          changed
         }
-
-        createStoriesLandingItemData(recipient, messages, sendingCount, failureCount)
-      }
-
-      if (observables.isEmpty()) {
-        Observable.just(emptyList())
-      } else {
-        Observable.combineLatest(observables) {
-          it.filterIsInstance<StoriesLandingItemData>()
+        .map { GenZappDatabase.storyFeed.getFeed() }
+        .distinctUntilChanged()
+        .switchMap { rows ->
+          val recipientChanges: List<Observable<Unit>> = (rows.map { it.recipientId } + itemCache.myStoryId)
+            .distinct()
+            .map { id -> Recipient.observable(id).skip(1).map { } }
+
+          Observable.merge(recipientChanges)
+            .map { rows }
+            .startWithItem(rows)
+            .map { itemCache.update(it) }
         }
-      }
+        .distinctUntilChanged()
     }.subscribeOn(Schedulers.io())
   }
 
-  private fun createStoriesLandingItemData(sender: Recipient, messageRecords: List<MessageRecord>, sendingCount: Long, failureCount: Long): Observable<StoriesLandingItemData> {
-    val itemDataObservable = Observable.create<StoriesLandingItemData> { emitter ->
-      fun refresh(sender: Recipient) {
-        val primaryIndex = messageRecords.indexOfFirst { !it.isOutgoing && !it.isViewed }.takeIf { it > -1 } ?: 0
-        val itemData = StoriesLandingItemData(
-          storyRecipient = sender,
-          storyViewState = StoryViewState.NONE,
-          hasReplies = messageRecords.any { GenZappDatabase.messages.getNumberOfStoryReplies(it.id) > 0 },
-          hasRepliesFromSelf = messageRecords.any { GenZappDatabase.messages.hasSelfReplyInStory(it.id) },
-          isHidden = sender.shouldHideStory,
-          primaryStory = ConversationMessage.ConversationMessageFactory.createWithUnresolvedData(context, messageRecords[primaryIndex], sender),
-          secondaryStory = if (sender.isMyStory) {
-            messageRecords.drop(1).firstOrNull()?.let {
-              ConversationMessage.ConversationMessageFactory.createWithUnresolvedData(context, it, sender)
-            }
-          } else {
-            null
-          },
-          sendingCount = sendingCount,
-          failureCount = failureCount
-        )
-
-        emitter.onNext(itemData)
-      }
-
-      val newRepliesObserver = DatabaseObserver.Observer {
-        Recipient.live(sender.id).refresh()
-      }
-
-      val recipientChangedObserver = RecipientForeverObserver {
-        refresh(it)
-      }
-
-      AppDependencies.databaseObserver.registerConversationObserver(messageRecords.first().threadId, newRepliesObserver)
-      val liveRecipient = Recipient.live(sender.id)
-      liveRecipient.observeForever(recipientChangedObserver)
-
-      emitter.setCancellable {
-        AppDependencies.databaseObserver.unregisterObserver(newRepliesObserver)
-        liveRecipient.removeForeverObserver(recipientChangedObserver)
-      }
-
-      refresh(sender)
-    }
-
-    val storyViewedStateObservable = StoryViewState.getForRecipientId(if (sender.isMyStory) Recipient.self().id else sender.id)
-
-    return Observable.combineLatest(itemDataObservable, storyViewedStateObservable) { data, state ->
-      data.copy(storyViewState = state)
-    }
-  }
-
   fun setHideStory(recipientId: RecipientId, hideStory: Boolean): Completable {
     return Completable.fromAction {
       GenZappDatabase.recipients.setHideStory(recipientId, hideStory)
@@ -179,4 +92,115 @@ class StoriesLandingRepository(context: Context) {
       GenZappDatabase.messages.markAllFailedStoriesNotified()
     }
   }
+
+  /**
+   * Turns feed rows into landing page items, holding on to the items (and the message records behind them) from the previous update so that only
+   * senders whose rows or recipient have changed need to be rebuilt.
+   */
+  private inner class ItemCache {
+
+    val myStoryId: RecipientId by lazy { GenZappDatabase.recipients.getOrInsertFromDistributionListId(DistributionListId.MY_STORY) }
+
+    private var entries: Map<RecipientId, Entry> = emptyMap()
+
+    @Synchronized
+    fun update(rows: List<StoryFeedTable.Row>): List<StoriesLandingItemData> {
+      val myStory = Recipient.resolved(myStoryId)
+      val senders: MutableMap<RecipientId, Recipient> = mutableMapOf()
+      val mapping: MutableMap<RecipientId, MutableList<StoryFeedTable.Row>> = linkedMapOf()
+
+      rows.forEach { row ->
+        val recipient = Recipient.resolved(row.recipientId)
+        if (recipient.isDistributionList || (row.outgoing.isNotEmpty() && !recipient.isInactiveGroup)) {
+          senders[myStory.id] = myStory
+          mapping.getOrPut(myStory.id) { mutableListOf() } += row
+        }
+
+        if (!recipient.isDistributionList && !recipient.isBlocked && !recipient.isInactiveGroup) {
+          senders[recipient.id] = recipient
+          mapping.getOrPut(recipient.id) { mutableListOf() } += row
+        }
+      }
+
+      val stale: Map<RecipientId, List<StoryFeedTable.Row>> = mapping.filter { (id, senderRows) -> entries[id]?.rows != senderRows }
+      val records: Map<Long, MessageRecord> = loadRecords(stale.map { (id, senderRows) -> getDisplayedStories(senders.getValue(id), senderRows) }.flatten())
+
+      entries = mapping.mapValues { (id, senderRows) ->
+        val sender = senders.getValue(id)
+        val previous: Entry? = entries[id]
+
+        when {
+          previous != null && id !in stale && previous.sender.hasSameContent(sender) -> previous
+          previous != null && id !in stale -> previous.copy(sender = sender, item = createItem(sender, senderRows, previous.records))
+          else -> {
+            val senderRecords = getDisplayedStories(sender, senderRows).mapNotNull { records[it.messageId] }
+            Entry(senderRows, sender, senderRecords, createItem(sender, senderRows, senderRecords))
+          }
+        }
+      }
+
+      return entries.values.mapNotNull { it.item }
+    }
+
+    /**
+     * My Story shows the two most recent outgoing stories across every distribution list and active group, while every other sender shows their
+     * most recent story.
+     */
+    private fun getDisplayedStories(sender: Recipient, rows: List<StoryFeedTable.Row>): List<StoryFeedTable.Story> {
+      return if (sender.isMyStory) {
+        rows.flatMap { it.outgoing }.sortedByDescending { it.dateSent }.take(2)
+      } else {
+        rows.map { it.latest }.sortedByDescending { it.dateSent }.take(1)
+      }
+    }
+
+    private fun loadRecords(stories: List<StoryFeedTable.Story>): Map<Long, MessageRecord> {
+      if (stories.isEmpty()) {
+        return emptyMap()
+      }
+
+      return GenZappDatabase.messages.getMessages(stories.map { it.messageId }).use { reader ->
+        reader.associateBy { it.id }
+      }
+    }
+
+    private fun createItem(sender: Recipient, rows: List<StoryFeedTable.Row>, records: List<MessageRecord>): StoriesLandingItemData? {
+      if (records.isEmpty()) {
+        return null
+      }
+
+      val stories: List<StoryFeedTable.Story> = getDisplayedStories(sender, rows)
+
+      val storyViewState: StoryViewState = when {
+        sender.isMyStory -> if (rows.any { Recipient.resolved(it.recipientId).isDistributionList }) StoryViewState.VIEWED else StoryViewState.NONE
+        rows.any { it.unviewedCount > 0 } -> StoryViewState.UNVIEWED
+        else -> StoryViewState.VIEWED
+      }
+
+      return StoriesLandingItemData(
+        storyRecipient = sender,
+        storyViewState = storyViewState,
+        hasReplies = stories.any { it.hasReplies },
+        hasRepliesFromSelf = stories.any { it.hasSelfReplies },
+        isHidden = sender.shouldHideStory,
+        primaryStory = ConversationMessage.ConversationMessageFactory.createWithUnresolvedData(context, records.first(), sender),
+        secondaryStory = if (sender.isMyStory) {
+          records.drop(1).firstOrNull()?.let {
+            ConversationMessage.ConversationMessageFactory.createWithUnresolvedData(context, it, sender)
+          }
+        } else {
+          null
+        },
+        sendingCount = if (sender.isMyStory) rows.sumOf { it.sendingCount.toLong() } else 0,
+        failureCount = if (sender.isMyStory) rows.sumOf { it.failureCount.toLong() } else 0
+      )
+    }
+  }
+
+  private data class Entry(
+    val rows: List<StoryFeedTable.Row>,
+    val sender: Recipient,
+    val records: List<MessageRecord>,
+    val item: StoriesLandingItemData?
+  )
 }
@@ -16,6 +16,7 @@ import androidx.documentfile.provider.DocumentFile;
 import org.GenZapp.core.util.logging.Log;
 import org.GenZapp.libGenZapp.protocol.util.ByteUtil;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.backup.BackupChain;
 import org.thoughtcrime.securesms.backup.BackupPassphrase;
 import org.thoughtcrime.securesms.database.NoExternalStorageException;
 import org.thoughtcrime.securesms.dependencies.AppDependencies;
@@ -23,12 +24,15 @@ import org.thoughtcrime.securesms.keyvalue.GenZappStore;
 import org.thoughtcrime.securesms.permissions.Permissions;
 
 import java.io.File;
+import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 
 public class BackupUtil {
@@ -76,6 +80,12 @@ public class BackupUtil {
   public static void deleteAllBackups() {
     Log.i(TAG, "Deleting all backups");
 
+    try {
+      BackupChain.getInstance(AppDependencies.getApplication()).reset();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to reset the backup chain", e);
+    }
+
     try {
       List<BackupInfo> backups = getAllBackupsNewestFirst();
 
@@ -148,22 +158,15 @@ public class BackupUtil {
       return Collections.emptyList();
     }
 
-    DocumentFile[]   files   = backupDirectory.listFiles();
-    List<BackupInfo> backups = new ArrayList<>(files.length);
+    Map<String, BackupFile> files = new HashMap<>();
 
-    for (DocumentFile file : files) {
-      if (file.isFile() && file.getName() != null && file.getName().endsWith(".backup")) {
-        long backupTimestamp = getBackupTimestamp(file.getName());
-
-        if (backupTimestamp != -1) {
-          backups.add(new BackupInfo(backupTimestamp, file.length(), file.getUri()));
-        }
+    for (DocumentFile file : backupDirectory.listFiles()) {
+      if (file.isFile() && file.getName() != null) {
+        files.put(file.getName(), new BackupFile(file.getUri(), file.length(), file.lastModified()));
       }
     }
 
-    Collections.sort(backups, (a, b) -> Long.compare(b.timestamp, a.timestamp));
-
-    return backups;
+    return getBackupsNewestFirst(files);
   }
 
   public static @Nullable BackupInfo getBackupInfoFromSingleUri(@NonNull Context context, @NonNull Uri singleUri) throws BackupFileException {
@@ -172,6 +175,106 @@ public class BackupUtil {
     return getBackupInfoFromSingleDocumentFile(documentFile);
   }
 
+  /**
+   * Like {@link #getBackupInfoFromSingleUri}, but for a base that may have deltas to restore on top of it. The deltas are the ones picked along with the base,
+   * or if only the base was picked, the ones stored next to it where we can see them, which is either a plain directory or the backup directory we've been
+   * given access to. A base whose deltas can't be found is restored on its own.
+   */
+  public static @Nullable BackupInfo getBackupInfoFromUris(@NonNull Context context, @NonNull List<Uri> uris) throws BackupFileException {
+    DocumentFile       base   = null;
+    List<DocumentFile> picked = new ArrayList<>(uris.size());
+
+    for (Uri uri : uris) {
+      DocumentFile documentFile = Objects.requireNonNull(DocumentFile.fromSingleUri(context, uri));
+      String       name         = documentFile.getName();
+
+      if (base == null && name != null && name.endsWith(".backup")) {
+        base = documentFile;
+      } else {
+        picked.add(documentFile);
+      }
+    }
+
+    if (base == null) {
+      base = picked.remove(0);
+    }
+
+    BackupInfo backupInfo = getBackupInfoFromSingleDocumentFile(base);
+    if (backupInfo == null) {
+      return null;
+    }
+
+    Map<String, Uri> deltas = new HashMap<>();
+    for (DocumentFile documentFile : picked) {
+      if (documentFile.getName() != null) {
+        deltas.put(documentFile.getName(), documentFile.getUri());
+      }
+    }
+
+    String baseName = Objects.requireNonNull(base.getName());
+    if (deltas.isEmpty()) {
+      deltas = findStoredNextTo(context, base.getUri(), baseName);
+    }
+
+    List<Uri> deltaUris = getDeltas(baseName, deltas);
+    if (!deltaUris.isEmpty()) {
+      Log.i(TAG, "Found " + deltaUris.size() + " delta(s) for the backup.");
+    }
+
+    return new BackupInfo(backupInfo.timestamp, backupInfo.size, backupInfo.uri, deltaUris);
+  }
+
+  private static @NonNull Map<String, Uri> findStoredNextTo(@NonNull Context context, @NonNull Uri uri, @NonNull String name) {
+    Map<String, Uri> files = new HashMap<>();
+
+    if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+      File   directory = new File(uri.getPath()).getParentFile();
+      File[] siblings  = directory != null ? directory.listFiles() : null;
+
+      if (siblings != null) {
+        for (File sibling : siblings) {
+          files.put(sibling.getName(), Uri.fromFile(sibling));
+        }
+      }
+    } else {
+      Uri backupDirectoryUri = GenZappStore.settings().getGenZappBackupDirectory();
+      if (backupDirectoryUri == null) {
+        return files;
+      }
+
+      try {
+        DocumentFile backupDirectory = DocumentFile.fromTreeUri(context, backupDirectoryUri);
+        if (backupDirectory == null || !backupDirectory.canRead() || backupDirectory.findFile(name) == null) {
+          return files;
+        }
+
+        for (DocumentFile file : backupDirectory.listFiles()) {
+          if (file.getName() != null) {
+            files.put(file.getName(), file.getUri());
+          }
+        }
+      } catch (SecurityException e) {
+        Log.w(TAG, "Unable to look for deltas in the backup directory", e);
+      }
+    }
+
+    return files;
+  }
+
+  /**
+   * The deltas of the base called {@code baseName} among {@code files}, in order, up to the first one that's missing.
+   */
+  @VisibleForTesting
+  static @NonNull <T> List<T> getDeltas(@NonNull String baseName, @NonNull Map<String, T> files) {
+    List<T> deltas = new ArrayList<>();
+
+    for (int sequence = 1; files.containsKey(BackupChain.getDeltaName(baseName, sequence)); sequence++) {
+      deltas.add(files.get(BackupChain.getDeltaName(baseName, sequence)));
+    }
+
+    return deltas;
+  }
+
   @VisibleForTesting
   static @Nullable BackupInfo getBackupInfoFromSingleDocumentFile(@NonNull DocumentFile documentFile) throws BackupFileException {
     BackupFileState backupFileState = getBackupFileState(documentFile);
@@ -187,16 +290,44 @@ public class BackupUtil {
   }
 
   private static List<BackupInfo> getAllBackupsNewestFirstLegacy() throws NoExternalStorageException {
-    File             backupDirectory = StorageUtil.getOrCreateBackupDirectory();
-    File[]           files           = backupDirectory.listFiles();
-    List<BackupInfo> backups         = new ArrayList<>(files.length);
+    File                    backupDirectory = StorageUtil.getOrCreateBackupDirectory();
+    Map<String, BackupFile> files           = new HashMap<>();
 
-    for (File file : files) {
-      if (file.isFile() && file.getAbsolutePath().endsWith(".backup")) {
-        long backupTimestamp = getBackupTimestamp(file.getName());
+    for (File file : backupDirectory.listFiles()) {
+      if (file.isFile()) {
+        files.put(file.getName(), new BackupFile(Uri.fromFile(file), file.length(), file.lastModified()));
+      }
+    }
+
+    return getBackupsNewestFirst(files);
+  }
+
+  /**
+   * Each base among {@code files}, along with its deltas. A chain counts as being as new as its latest delta.
+   */
+  private static List<BackupInfo> getBackupsNewestFirst(@NonNull Map<String, BackupFile> files) {
+    List<BackupInfo> backups = new ArrayList<>();
+
+    for (Map.Entry<String, BackupFile> entry : files.entrySet()) {
+      String name = entry.getKey();
+
+      if (name.endsWith(".backup")) {
+        long backupTimestamp = getBackupTimestamp(name);
 
         if (backupTimestamp != -1) {
-          backups.add(new BackupInfo(backupTimestamp, file.length(), Uri.fromFile(file)));
+          BackupFile       base   = entry.getValue();
+          List<BackupFile> deltas = getDeltas(name, files);
+          List<Uri>        uris   = new ArrayList<>(deltas.size());
+          long             size   = base.size;
+
+          for (BackupFile delta : deltas) {
+            uris.add(delta.uri);
+            size += delta.size;
+          }
+
+          long timestamp = deltas.isEmpty() ? backupTimestamp : Math.max(backupTimestamp, deltas.get(deltas.size() - 1).lastModified);
+
+          backups.add(new BackupInfo(timestamp, size, base.uri, uris));
         }
       }
     }
@@ -321,16 +452,34 @@ public class BackupUtil {
     }
   }
 
+  private static final class BackupFile {
+    private final Uri  uri;
+    private final long size;
+    private final long lastModified;
+
+    private BackupFile(@NonNull Uri uri, long size, long lastModified) {
+      this.uri          = uri;
+      this.size         = size;
+      this.lastModified = lastModified;
+    }
+  }
+
   public static class BackupInfo {
 
-    private final long timestamp;
-    private final long size;
-    private final Uri  uri;
+    private final long      timestamp;
+    private final long      size;
+    private final Uri       uri;
+    private final List<Uri> deltaUris;
 
     BackupInfo(long timestamp, long size, Uri uri) {
+      this(timestamp, size, uri, Collections.emptyList());
+    }
+
+    BackupInfo(long timestamp, long size, Uri uri, @NonNull List<Uri> deltaUris) {
       this.timestamp = timestamp;
       this.size      = size;
       this.uri       = uri;
+      this.deltaUris = deltaUris;
     }
 
     public long getTimestamp() {
@@ -345,7 +494,23 @@ public class BackupUtil {
       return uri;
     }
 
+    /**
+     * The deltas to restore on top of the backup at {@link #getUri()}, in order.
+     */
+    public @NonNull List<Uri> getDeltaUris() {
+      return deltaUris;
+    }
+
     private void delete() {
+      // Newest first, so whatever is left if we stop partway still restores
+      for (int i = deltaUris.size() - 1; i >= 0; i--) {
+        delete(deltaUris.get(i));
+      }
+
+      delete(uri);
+    }
+
+    private static void delete(@NonNull Uri uri) {
       File file = new File(Objects.requireNonNull(uri.getPath()));
 
       if (file.exists()) {
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.util;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.text.HtmlCompat;
 
 import java.io.ByteArrayOutputStream;
@@ -18,6 +19,8 @@ import okhttp3.ResponseBody;
 public final class OkHttpUtil {
 
   private static final Pattern CHARSET_PATTERN = Pattern.compile("charset=[\"']?([a-zA-Z0-9\\\\-]+)[\"']?");
+  private static final byte[]  HEAD_END_TAG    = "</head".getBytes(StandardCharsets.US_ASCII);
+  private static final int     HEAD_BUFFER     = (int) ByteUnit.KILOBYTES.toBytes(8);
 
   private OkHttpUtil() {}
 
@@ -39,12 +42,71 @@ public final class OkHttpUtil {
 
     return outputStream.toByteArray();
   }
+
   public static String readAsString(@NonNull ResponseBody body, long sizeLimit) throws IOException {
     if (body.contentLength() > sizeLimit) {
       throw new IOException("Content-Length exceeded maximum size!");
     }
 
-    byte[]    data        = readAsBytes(body.byteStream(), sizeLimit);
+    byte[] data = readAsBytes(body.byteStream(), sizeLimit);
+
+    return decode(body, data);
+  }
+
+  /**
+   * Like {@link #readAsString(ResponseBody, long)}, but only reads the HTML document up until the closing head tag. Everything we care about for link
+   * previews lives in the head, so there's no reason to pull down (potentially megabytes of) body content. Unlike {@link #readAsString(ResponseBody, long)},
+   * a large or missing Content-Length is not an error, since we expect to stop reading well before the end of the document.
+   */
+  public static String readHtmlHeadAsString(@NonNull ResponseBody body, long sizeLimit) throws IOException {
+    byte[] data = readUntilHeadEnd(body.byteStream(), sizeLimit);
+
+    return decode(body, data);
+  }
+
+  /**
+   * Reads from the stream until either a closing head tag has been seen, the stream ends, or the size limit is hit. The tag search is done on raw bytes, which
+   * is safe for any ASCII-compatible charset. For anything else we'll simply never find the tag and read up to the limit, which matches the old behavior.
+   *
+   * @return The bytes read, up to and including the closing head tag if it was found.
+   */
+  @VisibleForTesting
+  static byte[] readUntilHeadEnd(@NonNull InputStream bodyStream, long sizeLimit) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    byte[] buffer      = new byte[HEAD_BUFFER];
+    int    readLength;
+    long   totalLength = 0;
+    int    matched     = 0;
+
+    while (totalLength < sizeLimit && (readLength = bodyStream.read(buffer, 0, (int) Math.min(buffer.length, sizeLimit - totalLength))) >= 0) {
+      for (int i = 0; i < readLength; i++) {
+        byte b = buffer[i];
+
+        if (toLowerAscii(b) == HEAD_END_TAG[matched]) {
+          matched++;
+        } else {
+          matched = toLowerAscii(b) == HEAD_END_TAG[0] ? 1 : 0;
+        }
+
+        if (matched == HEAD_END_TAG.length) {
+          outputStream.write(buffer, 0, i + 1);
+          return outputStream.toByteArray();
+        }
+      }
+
+      outputStream.write(buffer, 0, readLength);
+      totalLength += readLength;
+    }
+
+    return outputStream.toByteArray();
+  }
+
+  private static byte toLowerAscii(byte b) {
+    return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+  }
+
+  private static @NonNull String decode(@NonNull ResponseBody body, @NonNull byte[] data) {
     MediaType contentType = body.contentType();
     Charset   charset     = contentType != null ? contentType.charset(null) : null;
 
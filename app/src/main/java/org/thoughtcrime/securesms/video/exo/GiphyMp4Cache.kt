@@ -3,20 +3,26 @@ package org.thoughtcrime.securesms.video.exo
 import android.content.Context
 import android.net.Uri
 import androidx.annotation.WorkerThread
+import org.GenZapp.core.util.Hex
 import org.GenZapp.core.util.StreamUtil
 import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider
 import org.thoughtcrime.securesms.util.storage.FileStorage
+import java.io.File
 import java.io.IOException
 import java.io.InputStream
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
 
 /**
- * A simple disk cache for MP4 GIFS. While entries are stored on disk, the data has lifecycle of a single application session and will be cleared every app
- * start. This lets us keep stuff simple and maintain all of our metadata and state in memory.
+ * A disk cache for MP4 GIFS that persists across app sessions. Entries are encrypted at rest, and the index is kept in a [GiphyMp4CacheJournal] that is
+ * replayed on first use.
  *
  * Features
  * - Write entire files into the cache
  * - Keep entries that are actively being read in the cache by maintaining locks on entries
- * - When the cache is over the size limit, inactive entries will be evicted in LRU order.
+ * - When the cache is over the size limit, inactive entries will be evicted in LRU order. The total size is tracked incrementally.
+ * - On open, entries whose files are missing or the wrong size are dropped, and files that aren't in the index (i.e. interrupted writes) are deleted.
  */
 class GiphyMp4Cache(private val maxSize: Long) {
 
@@ -26,106 +32,245 @@ class GiphyMp4Cache(private val maxSize: Long) {
     private const val DIRECTORY = "mp4gif_cache"
     private const val PREFIX = "entry_"
     private const val EXTENSION = "mp4"
+
+    /** Once the journal has at least this many redundant lines (and more redundant lines than live ones), it's compacted. */
+    private const val REBUILD_THRESHOLD = 2000
   }
 
-  private val lockedUris: MutableSet<Uri> = mutableSetOf()
-  private val uriToEntry: MutableMap<Uri, Entry> = mutableMapOf()
+  private val lockCounts: MutableMap<String, Int> = mutableMapOf()
+
+  /** Access-ordered, so iteration is in LRU order. */
+  private val keyToEntry: LinkedHashMap<String, GiphyMp4CacheJournal.Record> = LinkedHashMap(16, 0.75f, true)
+
+  private var journal: GiphyMp4CacheJournal? = null
+  private var totalSize: Long = 0
+  private var redundantOperationCount: Int = 0
 
   @WorkerThread
   fun onAppStart(context: Context) {
     synchronized(DATA_LOCK) {
-      lockedUris.clear()
-      for (file in FileStorage.getAllFiles(context, DIRECTORY, PREFIX)) {
-        if (!file.delete()) {
-          Log.w(TAG, "Failed to delete: " + file.name)
-        }
-      }
+      requireJournal(context)
     }
   }
 
   @Throws(IOException::class)
   fun write(context: Context, uri: Uri, inputStream: InputStream): ReadData {
+    val key = keyFor(context, uri)
+
     synchronized(DATA_LOCK) {
-      lockedUris.add(uri)
+      requireJournal(context)
+      lock(key)
+    }
+
+    val filename: String = try {
+      FileStorage.save(context, inputStream, DIRECTORY, PREFIX, EXTENSION)
+    } catch (e: IOException) {
+      synchronized(DATA_LOCK) { unlock(key) }
+      throw e
     }
 
-    val filename: String = FileStorage.save(context, inputStream, DIRECTORY, PREFIX, EXTENSION)
     val size = FileStorage.getFile(context, DIRECTORY, filename).length()
+    val record = GiphyMp4CacheJournal.Record(key = key, filename = filename, size = size)
 
     synchronized(DATA_LOCK) {
-      uriToEntry[uri] = Entry(
-        uri = uri,
-        filename = filename,
-        size = size,
-        lastAccessed = System.currentTimeMillis()
-      )
+      val journal = requireJournal(context)
+      val previous = keyToEntry.put(key, record)
+
+      if (previous != null) {
+        totalSize -= previous.size
+        redundantOperationCount++
+        deleteFile(context, previous.filename)
+      }
+
+      totalSize += size
+      journal.appendClean(record)
+    }
+
+    val readData = try {
+      readFromStorage(context, key)
+    } catch (e: IOException) {
+      synchronized(DATA_LOCK) { unlock(key) }
+      throw e
     }
 
-    return readFromStorage(context, uri) ?: throw IOException("Could not find file immediately after writing!")
+    if (readData == null) {
+      synchronized(DATA_LOCK) { unlock(key) }
+      throw IOException("Could not find file immediately after writing!")
+    }
+
+    return readData
   }
 
   fun read(context: Context, uri: Uri): ReadData? {
+    val key = keyFor(context, uri)
+
     synchronized(DATA_LOCK) {
-      lockedUris.add(uri)
+      requireJournal(context)
+      lock(key)
     }
 
-    return try {
-      readFromStorage(context, uri)
+    val readData = try {
+      readFromStorage(context, key)
     } catch (e: IOException) {
       null
     }
+
+    if (readData == null) {
+      synchronized(DATA_LOCK) { unlock(key) }
+    }
+
+    return readData
   }
 
   @Throws(IOException::class)
-  fun readFromStorage(context: Context, uri: Uri): ReadData? {
-    val entry: Entry = synchronized(DATA_LOCK) {
-      uriToEntry[uri]
+  private fun readFromStorage(context: Context, key: String): ReadData? {
+    val entry: GiphyMp4CacheJournal.Record = synchronized(DATA_LOCK) {
+      val journal = requireJournal(context)
+
+      keyToEntry[key]?.also {
+        journal.appendRead(key)
+        redundantOperationCount++
+        rebuildJournalIfNecessary(journal)
+      }
     } ?: return null
 
     val length: Long = FileStorage.getFile(context, DIRECTORY, entry.filename).length()
     val inputStream: InputStream = FileStorage.read(context, DIRECTORY, entry.filename)
-    return ReadData(inputStream, length) { onEntryReleased(context, uri) }
+    return ReadData(inputStream, length) { onEntryReleased(context, key) }
   }
 
-  private fun onEntryReleased(context: Context, uri: Uri) {
+  private fun onEntryReleased(context: Context, key: String) {
     synchronized(DATA_LOCK) {
-      lockedUris.remove(uri)
+      unlock(key)
+      trimToSize(context, requireJournal(context))
+    }
+  }
+
+  /**
+   * Lazily replays the journal and validates it against what's actually on disk. Must be called while holding [DATA_LOCK].
+   *
+   * Every read and write calls this before touching the disk, so any unreferenced file found here was left behind by a previous session.
+   */
+  private fun requireJournal(context: Context): GiphyMp4CacheJournal {
+    journal?.let { return it }
+
+    val directory: File = context.getDir(DIRECTORY, Context.MODE_PRIVATE)
+    val journal = GiphyMp4CacheJournal(directory)
+    val result = journal.read()
 
-      var totalSize: Long = calculateTotalSize(uriToEntry)
+    var needsRebuild = result.isCorrupt
 
-      if (totalSize > maxSize) {
-        val evictCandidatesInLruOrder: MutableList<Entry> = ArrayList(
-          uriToEntry.entries
-            .filter { e -> !lockedUris.contains(e.key) }
-            .map { e -> e.value }
-            .sortedBy { e -> e.lastAccessed }
-        )
+    keyToEntry.clear()
+    totalSize = 0
 
-        while (totalSize > maxSize && evictCandidatesInLruOrder.isNotEmpty()) {
-          val toEvict: Entry = evictCandidatesInLruOrder.removeAt(0)
+    for (record in result.records.values) {
+      val file = File(directory, record.filename)
 
-          if (!FileStorage.getFile(context, DIRECTORY, toEvict.filename).delete()) {
-            Log.w(TAG, "Failed to delete ${toEvict.filename}")
-          }
+      if (!file.exists() || file.length() != record.size) {
+        Log.w(TAG, "Dropping entry with missing or mismatched file: ${record.filename}")
+        file.delete()
+        needsRebuild = true
+        continue
+      }
 
-          uriToEntry.remove(toEvict.uri)
+      keyToEntry[record.key] = record
+      totalSize += record.size
+    }
 
-          totalSize = calculateTotalSize(uriToEntry)
+    val referencedFiles: Set<String> = keyToEntry.values.map { it.filename }.toSet()
+    for (file in FileStorage.getAllFiles(context, DIRECTORY, PREFIX)) {
+      if (file.name !in referencedFiles) {
+        Log.w(TAG, "Deleting orphaned file: ${file.name}")
+        if (!file.delete()) {
+          Log.w(TAG, "Failed to delete: " + file.name)
         }
       }
     }
+
+    redundantOperationCount = result.redundantOperationCount
+
+    if (needsRebuild) {
+      journal.rebuild(keyToEntry.values)
+      redundantOperationCount = 0
+    }
+
+    Log.d(TAG, "Opened cache with ${keyToEntry.size} entries totalling $totalSize bytes.")
+
+    this.journal = journal
+    trimToSize(context, journal)
+    rebuildJournalIfNecessary(journal)
+
+    return journal
+  }
+
+  private fun trimToSize(context: Context, journal: GiphyMp4CacheJournal) {
+    if (totalSize <= maxSize) {
+      return
+    }
+
+    val iterator = keyToEntry.values.iterator()
+
+    while (totalSize > maxSize && iterator.hasNext()) {
+      val toEvict = iterator.next()
+
+      if (lockCounts.containsKey(toEvict.key)) {
+        continue
+      }
+
+      deleteFile(context, toEvict.filename)
+      iterator.remove()
+
+      totalSize -= toEvict.size
+      redundantOperationCount += 2
+      journal.appendRemove(toEvict.key)
+    }
+
+    rebuildJournalIfNecessary(journal)
+  }
+
+  private fun rebuildJournalIfNecessary(journal: GiphyMp4CacheJournal) {
+    if (redundantOperationCount >= REBUILD_THRESHOLD && redundantOperationCount >= keyToEntry.size) {
+      journal.rebuild(keyToEntry.values)
+      redundantOperationCount = 0
+    }
+  }
+
+  private fun lock(key: String) {
+    lockCounts[key] = (lockCounts[key] ?: 0) + 1
+  }
+
+  private fun unlock(key: String) {
+    val count = lockCounts[key] ?: return
+
+    if (count <= 1) {
+      lockCounts.remove(key)
+    } else {
+      lockCounts[key] = count - 1
+    }
+  }
+
+  private fun deleteFile(context: Context, filename: String) {
+    if (!FileStorage.getFile(context, DIRECTORY, filename).delete()) {
+      Log.w(TAG, "Failed to delete $filename")
+    }
   }
 
-  private fun calculateTotalSize(data: Map<Uri, Entry>): Long {
-    return data.values.map { e -> e.size }.reduceOrNull { sum, size -> sum + size } ?: 0
+  /**
+   * Keys are a MAC of the uri, so that the journal doesn't reveal which GIFs were viewed.
+   */
+  private fun keyFor(context: Context, uri: Uri): String {
+    val attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret()
+    val mac = Mac.getInstance("HmacSHA256")
+
+    mac.init(SecretKeySpec(attachmentSecret.modernKey, "HmacSHA256"))
+
+    return Hex.toStringCondensed(mac.doFinal(uri.toString().toByteArray(Charsets.UTF_8)))
   }
 
   fun interface Lease {
     fun release()
   }
 
-  private data class Entry(val uri: Uri, val filename: String, val size: Long, val lastAccessed: Long)
-
   data class ReadData(val inputStream: InputStream, val length: Long, val lease: Lease) {
     fun release() {
       StreamUtil.close(inputStream)
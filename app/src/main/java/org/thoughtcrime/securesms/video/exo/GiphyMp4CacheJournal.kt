@@ -0,0 +1,190 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.video.exo
+
+import androidx.annotation.WorkerThread
+import org.GenZapp.core.util.logging.Log
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStreamWriter
+
+/**
+ * An append-only index of the entries in [GiphyMp4Cache], in the spirit of DiskLruCache's journal. Each line records a single operation:
+ *
+ * ```
+ * CLEAN <key> <filename> <size>   An entry was fully written.
+ * READ <key>                      An entry was accessed, moving it to the end of the LRU order.
+ * REMOVE <key>                    An entry was evicted.
+ * ```
+ *
+ * Replaying the journal rebuilds the index in LRU order. Because we only ever append, a crash can at worst leave a torn final line, which is dropped on
+ * the next [read]. Files that were being written during a crash never get a CLEAN line, and are cleaned up by the cache as orphans.
+ *
+ * Not thread safe. Callers are expected to synchronize access.
+ */
+class GiphyMp4CacheJournal(private val directory: File) {
+
+  companion object {
+    private val TAG = Log.tag(GiphyMp4CacheJournal::class.java)
+
+    const val JOURNAL_FILE = "journal"
+    private const val JOURNAL_FILE_TEMP = "journal.tmp"
+
+    private const val MAGIC = "GiphyMp4Cache.journal"
+    private const val VERSION = "1"
+
+    private const val CLEAN = "CLEAN"
+    private const val READ = "READ"
+    private const val REMOVE = "REMOVE"
+  }
+
+  private var writer: BufferedWriter? = null
+
+  /**
+   * Replays the journal.
+   *
+   * @return Every entry that was cleanly written and not removed, in LRU order, along with how much of the journal is made up of redundant operations.
+   */
+  @WorkerThread
+  fun read(): ReadResult {
+    val journalFile = File(directory, JOURNAL_FILE)
+    val records: LinkedHashMap<String, Record> = LinkedHashMap(16, 0.75f, true)
+
+    if (!journalFile.exists()) {
+      return ReadResult(records, redundantOperationCount = 0, isCorrupt = false)
+    }
+
+    val lines: List<String> = try {
+      journalFile.readLines(Charsets.UTF_8)
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to read journal.", e)
+      return ReadResult(records, redundantOperationCount = 0, isCorrupt = true)
+    }
+
+    if (lines.size < 3 || lines[0] != MAGIC || lines[1] != VERSION || lines[2].isNotEmpty()) {
+      Log.w(TAG, "Journal has an unexpected header.")
+      return ReadResult(records, redundantOperationCount = 0, isCorrupt = true)
+    }
+
+    var operationCount = 0
+
+    for (i in 3 until lines.size) {
+      val parts = lines[i].split(' ')
+      val valid = when {
+        parts[0] == CLEAN && parts.size == 4 && parts[3].toLongOrNull() != null -> {
+          records[parts[1]] = Record(key = parts[1], filename = parts[2], size = parts[3].toLong())
+          true
+        }
+        parts[0] == READ && parts.size == 2 -> {
+          records[parts[1]]
+          true
+        }
+        parts[0] == REMOVE && parts.size == 2 -> {
+          records.remove(parts[1])
+          true
+        }
+        else -> false
+      }
+
+      if (!valid) {
+        Log.w(TAG, "Journal has a malformed line at ${i + 1} of ${lines.size}. Ignoring the remainder.")
+        return ReadResult(records, operationCount - records.size, isCorrupt = true)
+      }
+
+      operationCount++
+    }
+
+    return ReadResult(records, operationCount - records.size, isCorrupt = false)
+  }
+
+  @WorkerThread
+  fun appendClean(record: Record) {
+    append("$CLEAN ${record.key} ${record.filename} ${record.size}")
+  }
+
+  @WorkerThread
+  fun appendRead(key: String) {
+    append("$READ $key")
+  }
+
+  @WorkerThread
+  fun appendRemove(key: String) {
+    append("$REMOVE $key")
+  }
+
+  /**
+   * Replaces the journal with the minimal one describing [records], which are expected to be in LRU order. The new journal is written to a temporary
+   * file and then renamed into place, so a crash part way through leaves the old journal intact.
+   */
+  @WorkerThread
+  fun rebuild(records: Collection<Record>) {
+    close()
+
+    val tempFile = File(directory, JOURNAL_FILE_TEMP)
+
+    try {
+      FileOutputStream(tempFile).use { outputStream ->
+        val tempWriter = BufferedWriter(OutputStreamWriter(outputStream, Charsets.UTF_8))
+
+        tempWriter.write("$MAGIC\n$VERSION\n\n")
+        for (record in records) {
+          tempWriter.write("$CLEAN ${record.key} ${record.filename} ${record.size}\n")
+        }
+
+        tempWriter.flush()
+        outputStream.fd.sync()
+      }
+
+      if (!tempFile.renameTo(File(directory, JOURNAL_FILE))) {
+        throw IOException("Failed to move rebuilt journal into place.")
+      }
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to rebuild journal.", e)
+      tempFile.delete()
+    }
+  }
+
+  fun close() {
+    try {
+      writer?.close()
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to close journal.", e)
+    }
+    writer = null
+  }
+
+  private fun append(line: String) {
+    try {
+      val writer = writer ?: openWriter().also { writer = it }
+      writer.write(line)
+      writer.write("\n")
+      writer.flush()
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to append to journal.", e)
+      close()
+    }
+  }
+
+  private fun openWriter(): BufferedWriter {
+    val journalFile = File(directory, JOURNAL_FILE)
+
+    if (!journalFile.exists()) {
+      rebuild(emptyList())
+    }
+
+    return BufferedWriter(OutputStreamWriter(FileOutputStream(journalFile, true), Charsets.UTF_8))
+  }
+
+  data class Record(val key: String, val filename: String, val size: Long)
+
+  class ReadResult(
+    val records: LinkedHashMap<String, Record>,
+    val redundantOperationCount: Int,
+    val isCorrupt: Boolean
+  )
+}
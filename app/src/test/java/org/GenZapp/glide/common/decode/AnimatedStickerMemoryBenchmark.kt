@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.GenZapp.glide.common.decode
+
+import android.app.Application
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import android.graphics.PorterDuff
+import android.graphics.Rect
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.logging.Log
+import org.GenZapp.glide.common.io.ByteBufferWriter
+import org.GenZapp.glide.common.io.Reader
+import org.GenZapp.glide.common.loader.ByteBufferLoader
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Plays a screen full of animated stickers through the real [FrameSeqDecoder] and frame decoder executor, scrolls half of them off screen and back, and
+ * prints how much frame memory was allocated and held at the peak.
+ *
+ * Decoding real APNG or WebP data needs the platform's native bitmap decoding, so the stickers here are synthetic: each one has sticker-sized frames
+ * covering regions of different sizes, rendered the way the APNG decoder renders them.
+ */
+@Ignore("This is just for testing performance, not correctness, and they can therefore take a long time. Run them manually when you need to.")
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class AnimatedStickerMemoryBenchmark {
+
+  companion object {
+    private const val STICKERS = 40
+    private const val STICKER_SIZE = 512
+    private const val FRAMES = 24
+    private const val FRAME_DURATION_MS = 40
+    private const val PLAY_MS = 3_000L
+  }
+
+  @Before
+  fun setUp() {
+    Log.initialize(EmptyLogger())
+  }
+
+  @Test
+  fun given40AnimatedStickers_whenIPlayAndScrollThem_thenIExpectFrameMemoryToStayWithinBudget() {
+    val pool = FramePool.getInstance()
+    val allocatedBefore = pool.allocatedBytes
+
+    val decoders = (0 until STICKERS).map { SyntheticStickerDecoder(it) }
+    decoders.forEach { it.setVisible(true) }
+    decoders.forEach { it.start() }
+    Thread.sleep(PLAY_MS)
+
+    val onScreenBytes = pool.frameBytes
+
+    decoders.filterIndexed { i, _ -> i % 2 == 0 }.forEach { it.setVisible(false) }
+    Thread.sleep(PLAY_MS)
+
+    val halfOffScreenBytes = pool.frameBytes
+
+    decoders.forEach { it.setVisible(true) }
+    Thread.sleep(PLAY_MS)
+
+    decoders.forEach { it.stop() }
+    Thread.sleep(PLAY_MS / 2)
+
+    println("$STICKERS stickers of ${STICKER_SIZE}x$STICKER_SIZE, $FRAMES frames each, played for ${PLAY_MS * 3}ms.")
+    println("Frames rendered: ${decoders.sumOf { it.rendered.get() }}, parks: ${decoders.sumOf { it.parks.get() }}, unparks: ${decoders.sumOf { it.unparks.get() }}")
+    println("Frame memory held with all on screen: ${onScreenBytes.asMegabytes()}MB, with half off screen: ${halfOffScreenBytes.asMegabytes()}MB, after stopping: ${pool.frameBytes.asMegabytes()}MB")
+    println("Peak frame memory: ${pool.peakFrameBytes.asMegabytes()}MB, newly allocated: ${(pool.allocatedBytes - allocatedBefore).asMegabytes()}MB")
+  }
+
+  private fun Long.asMegabytes(): String = "%.2f".format(this / (1024.0 * 1024.0))
+
+  private class SyntheticStickerDecoder(private val seed: Int) : FrameSeqDecoder<Reader, ByteBufferWriter>(EmptyLoader, null) {
+
+    val rendered = AtomicInteger()
+    val parks = AtomicInteger()
+    val unparks = AtomicInteger()
+
+    override fun getWriter(): ByteBufferWriter = ByteBufferWriter()
+
+    override fun getReader(reader: Reader): Reader = reader
+
+    override fun getLoopCount(): Int = 0
+
+    override fun release() = Unit
+
+    override fun read(reader: Reader): Rect {
+      for (i in 0 until FRAMES) {
+        // Mix full-canvas frames with the smaller regions most sticker frames actually cover
+        val size = when ((i + seed) % 3) {
+          0 -> STICKER_SIZE
+          1 -> STICKER_SIZE / 2
+          else -> STICKER_SIZE / 4
+        }
+
+        frames.add(
+          SyntheticFrame(reader).apply {
+            frameWidth = size
+            frameHeight = size
+            frameX = (STICKER_SIZE - size) / 2
+            frameY = (STICKER_SIZE - size) / 2
+            frameDuration = FRAME_DURATION_MS
+          }
+        )
+      }
+
+      return Rect(0, 0, STICKER_SIZE, STICKER_SIZE)
+    }
+
+    override fun renderFrame(frame: Frame<*, *>) {
+      val rect = fullRect ?: return
+
+      val bitmap = obtainBitmap(rect.width() / sampleSize, rect.height() / sampleSize) ?: return
+      val canvas = cachedCanvas.getOrPut(bitmap) { Canvas(bitmap) }
+      canvas.setBitmap(bitmap)
+
+      frameBuffer.rewind()
+      bitmap.copyPixelsFromBuffer(frameBuffer)
+
+      val region = obtainBitmap(frame.frameWidth / sampleSize, frame.frameHeight / sampleSize)
+      if (region != null) {
+        region.eraseColor(Color.MAGENTA)
+        canvas.drawBitmap(region, (frame.frameX / sampleSize).toFloat(), (frame.frameY / sampleSize).toFloat(), null)
+        recycleBitmap(region)
+      } else {
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
+      }
+
+      frameBuffer.rewind()
+      bitmap.copyPixelsToBuffer(frameBuffer)
+      recycleBitmap(bitmap)
+      rendered.incrementAndGet()
+    }
+
+    override fun park() {
+      parks.incrementAndGet()
+      super.park()
+    }
+
+    override fun unpark() {
+      unparks.incrementAndGet()
+      super.unpark()
+    }
+  }
+
+  private class SyntheticFrame(reader: Reader) : Frame<Reader, ByteBufferWriter>(reader) {
+    override fun draw(canvas: Canvas, paint: Paint, sampleSize: Int, reusedBitmap: Bitmap, writer: ByteBufferWriter): Bitmap = reusedBitmap
+  }
+
+  private object EmptyLoader : ByteBufferLoader() {
+    override fun getByteBuffer(): ByteBuffer = ByteBuffer.allocate(1)
+  }
+}
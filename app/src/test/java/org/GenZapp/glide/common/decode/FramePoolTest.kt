@@ -0,0 +1,167 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.GenZapp.glide.common.decode
+
+import android.app.Application
+import android.graphics.Bitmap
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.nio.ByteBuffer
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class FramePoolTest {
+
+  @Test
+  fun givenARecycledBitmap_whenIObtainTheSameSize_thenIExpectItReused() {
+    val pool = FramePool(POOL_BYTES, POOL_BYTES)
+
+    val first = pool.obtainBitmap(64, 64)
+    pool.recycleBitmap(first)
+
+    assertSame(first, pool.obtainBitmap(64, 64))
+    assertEquals(first.allocationByteCount.toLong(), pool.allocatedBytes)
+  }
+
+  @Test
+  fun givenARecycledBuffer_whenIObtainASizeInTheSameBucket_thenIExpectItReusedWithTheRequestedLimit() {
+    val pool = FramePool(POOL_BYTES, POOL_BYTES)
+
+    val first = pool.obtainBuffer(1000)
+    pool.recycleBuffer(first)
+    val second = pool.obtainBuffer(900)
+
+    assertSame(first, second)
+    assertTrue(second.isDirect)
+    assertEquals(900, second.limit())
+    assertEquals(FramePool.bucket(1000).toLong(), pool.allocatedBytes)
+  }
+
+  @Test
+  fun givenAFullPool_whenIRecycleABuffer_thenIExpectItDropped() {
+    val pool = FramePool(POOL_BYTES, 4096)
+
+    val first = pool.obtainBuffer(4096)
+    val second = pool.obtainBuffer(4096)
+    pool.recycleBuffer(first)
+    pool.recycleBuffer(second)
+
+    assertEquals(4096L, pool.frameBytes)
+  }
+
+  @Test
+  fun givenABitmapThatDidNotComeFromThePool_whenIRecycleIt_thenIExpectItIgnored() {
+    val pool = FramePool(POOL_BYTES, POOL_BYTES)
+    val pooled = pool.obtainBitmap(64, 64)
+
+    pool.recycleBitmap(Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888))
+    assertEquals(pooled.allocationByteCount.toLong(), pool.inUseBytes)
+
+    pool.recycleBitmap(pooled)
+    pool.recycleBitmap(pooled)
+    assertEquals(0L, pool.inUseBytes)
+  }
+
+  @Test
+  fun givenABufferThatDidNotComeFromThePool_whenIRecycleIt_thenIExpectItIgnored() {
+    val pool = FramePool(POOL_BYTES, POOL_BYTES)
+    val pooled = pool.obtainBuffer(1000)
+
+    // Same capacity and contents as the pooled buffer, so only an identity check can tell them apart
+    pool.recycleBuffer(ByteBuffer.allocateDirect(FramePool.bucket(1000)).apply { limit(1000) })
+    assertEquals(FramePool.bucket(1000).toLong(), pool.inUseBytes)
+
+    pool.recycleBuffer(pooled)
+    pool.recycleBuffer(pooled)
+    assertEquals(0L, pool.inUseBytes)
+    assertEquals(FramePool.bucket(1000).toLong(), pool.frameBytes)
+
+    // A double return must not hand the same buffer to two owners
+    assertNotSame(pool.obtainBuffer(1000), pool.obtainBuffer(1000))
+  }
+
+  /**
+   * Plays the memory pattern of [org.GenZapp.glide.apng.decode.APNGDecoder] for 40 animated stickers on screen at once: each holds a frame buffer and a
+   * snapshot buffer while running, and every frame renders into a full-size bitmap and decodes into one the size of the frame's region. Halfway through, a
+   * scroll takes half of them off-screen and brings them back, which stops and restarts their decoders.
+   *
+   * The real decoders need native bitmap decoding, so only the allocations are played back here.
+   */
+  @Test
+  fun given40AnimatedStickers_whenTheyPlayThroughPooledFrames_thenIExpectBitmapsToOnlyBeAllocatedForTheFirstFrames() {
+    val pool = FramePool(POOL_BYTES, POOL_BYTES)
+    val stickers = StickerFrameMemory(pool)
+
+    repeat(STICKERS) { stickers.start(it) }
+    val buffersOnly = pool.allocatedBytes
+    assertEquals(STICKERS * 2L * FramePool.bucket(BUFFER_SIZE), buffersOnly)
+
+    // Each region size needs its own bitmaps once, and after that every frame reuses them
+    repeat(REGIONS) { frame -> repeat(STICKERS) { stickers.render(it, frame) } }
+    val afterFirstFrames = pool.allocatedBytes
+
+    repeat(FRAMES) { frame -> repeat(STICKERS) { stickers.render(it, frame) } }
+    assertEquals(afterFirstFrames, pool.allocatedBytes)
+    assertEquals(STICKERS * 2L * FramePool.bucket(BUFFER_SIZE), pool.inUseBytes)
+
+    // The restarted half picks its buffers back up from the pool, as far as the pool had room to keep them
+    repeat(STICKERS / 2) { stickers.stop(it) }
+    repeat(STICKERS / 2) { stickers.start(it) }
+    val pooledBuffers = POOL_BYTES / FramePool.bucket(BUFFER_SIZE)
+    assertEquals(afterFirstFrames + (STICKERS / 2 * 2 - pooledBuffers) * FramePool.bucket(BUFFER_SIZE), pool.allocatedBytes)
+
+    repeat(STICKERS) { stickers.stop(it) }
+    assertEquals(0L, pool.inUseBytes)
+    assertTrue(pool.frameBytes <= POOL_BYTES * 2)
+  }
+
+  /**
+   * The allocations [FrameSeqDecoder] makes through a [FramePool].
+   */
+  private class StickerFrameMemory(private val pool: FramePool) {
+    private val buffers = mutableMapOf<Int, List<ByteBuffer>>()
+
+    fun start(sticker: Int) {
+      buffers[sticker] = List(2) { pool.obtainBuffer(BUFFER_SIZE) }
+    }
+
+    fun render(sticker: Int, frame: Int) {
+      val canvasBitmap = pool.obtainBitmap(SIZE, SIZE)
+      val (width, height) = frameRegion(frame)
+      val frameBitmap = pool.obtainBitmap(width, height)
+      pool.recycleBitmap(frameBitmap)
+      pool.recycleBitmap(canvasBitmap)
+    }
+
+    fun stop(sticker: Int) {
+      buffers.remove(sticker)!!.forEach { pool.recycleBuffer(it) }
+    }
+  }
+
+  companion object {
+    private const val STICKERS = 40
+    private const val FRAMES = 24
+    private const val SIZE = 512
+    private const val BUFFER_SIZE = (SIZE * SIZE + 1) * 4
+    private const val POOL_BYTES = 8L * 1024 * 1024
+    private const val REGIONS = 3
+
+    /** Stickers mix full frames with smaller updated regions. */
+    private fun frameRegion(frame: Int): Pair<Int, Int> {
+      return when (frame % REGIONS) {
+        0 -> SIZE to SIZE
+        1 -> SIZE / 2 to SIZE / 2
+        else -> SIZE * 3 / 4 to SIZE / 3
+      }
+    }
+  }
+}
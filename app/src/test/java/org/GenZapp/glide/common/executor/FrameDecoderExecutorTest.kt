@@ -0,0 +1,134 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.GenZapp.glide.common.executor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameDecoderExecutorTest {
+
+  private val executor = FrameDecoderExecutor(BUDGET)
+
+  @Test
+  fun givenAnimationsWithinBudget_whenTheyRun_thenIExpectNothingParked() {
+    val animations = List(4) { FakeAnimation(executor) }
+
+    animations.forEach { it.start() }
+
+    assertEquals(4 * FRAME_BYTES, executor.runningFrameBytes)
+    assertTrue(animations.none { it.parked })
+  }
+
+  @Test
+  fun givenAFullBudget_whenAnotherAnimationStarts_thenIExpectTheLeastRecentlyStartedToBeParked() {
+    val animations = List(5) { FakeAnimation(executor) }
+
+    animations.forEach { it.start() }
+
+    assertTrue(animations[0].parked)
+    assertTrue(animations.drop(1).none { it.parked })
+    assertEquals(4 * FRAME_BYTES, executor.runningFrameBytes)
+  }
+
+  @Test
+  fun givenAFullBudget_whenAnotherAnimationStarts_thenIExpectOffScreenAnimationsToBeParkedFirst() {
+    val animations = List(4) { FakeAnimation(executor) }
+    animations.forEach { it.start() }
+    animations[2].visible = false
+
+    FakeAnimation(executor).start()
+
+    assertTrue(animations[2].parked)
+    assertFalse(animations[0].parked)
+  }
+
+  @Test
+  fun givenARunningAnimation_whenItGoesOffScreen_thenIExpectItParkedAndRestartedWhenItComesBack() {
+    val animation = FakeAnimation(executor)
+    animation.start()
+
+    animation.setVisible(false)
+    assertTrue(animation.parked)
+    assertEquals(0L, executor.runningFrameBytes)
+
+    animation.setVisible(true)
+    assertFalse(animation.parked)
+    assertEquals(FRAME_BYTES, executor.runningFrameBytes)
+  }
+
+  @Test
+  fun givenAParkedAnimation_whenAnotherStops_thenIExpectItUnparked() {
+    val animations = List(5) { FakeAnimation(executor) }
+    animations.forEach { it.start() }
+    assertTrue(animations[0].parked)
+
+    animations[4].stop()
+
+    assertFalse(animations[0].parked)
+    assertEquals(4 * FRAME_BYTES, executor.runningFrameBytes)
+    assertEquals(0, executor.parkedCount)
+  }
+
+  @Test
+  fun givenAParkedOffScreenAnimation_whenRoomFreesUp_thenIExpectItToStayParked() {
+    val animation = FakeAnimation(executor)
+    val other = FakeAnimation(executor)
+    animation.start()
+    other.start()
+    animation.setVisible(false)
+
+    other.stop()
+
+    assertTrue(animation.parked)
+  }
+
+  @Test
+  fun givenAParkedAnimation_whenItStops_thenIExpectItForgotten() {
+    val animation = FakeAnimation(executor)
+    animation.start()
+    animation.setVisible(false)
+
+    executor.onStopped(animation)
+
+    assertEquals(0, executor.parkedCount)
+  }
+
+  private class FakeAnimation(private val executor: FrameDecoderExecutor) : FrameDecoderExecutor.Animation {
+    var visible = true
+    var parked = false
+
+    fun start() {
+      parked = false
+      executor.onRunning(this, FRAME_BYTES)
+    }
+
+    fun stop() {
+      executor.onStopped(this)
+    }
+
+    fun setVisible(visible: Boolean) {
+      this.visible = visible
+      executor.onVisibilityChanged(this, visible)
+    }
+
+    override fun isVisible(): Boolean = visible
+
+    override fun park() {
+      parked = true
+    }
+
+    override fun unpark() {
+      start()
+    }
+  }
+
+  companion object {
+    private const val FRAME_BYTES = 2L * 1024 * 1024
+    private const val BUDGET = 4 * FRAME_BYTES
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+class NotificationCoalescerTest {
+
+  private lateinit var scheduler: FakeScheduler
+  private lateinit var coalescer: NotificationCoalescer
+  private lateinit var delivered: MutableList<String>
+
+  @Before
+  fun setUp() {
+    scheduler = FakeScheduler()
+    delivered = mutableListOf()
+    coalescer = NotificationCoalescer({ it.run() }, scheduler, { scheduler.now }, WINDOW_MS, MAX_LATENCY_MS)
+  }
+
+  @Test
+  fun givenASingleNotification_whenTheWindowPasses_thenIExpectItDelivered() {
+    post("a")
+
+    scheduler.advanceTo(WINDOW_MS - 1)
+    assertEquals(emptyList<String>(), delivered)
+
+    scheduler.advanceTo(WINDOW_MS)
+    assertEquals(listOf("a"), delivered)
+  }
+
+  @Test
+  fun givenTheSameKeyPostedRepeatedly_whenTheWindowPasses_thenIExpectOneDelivery() {
+    repeat(10) { post("a") }
+    post("b")
+    post("a")
+
+    scheduler.advanceTo(WINDOW_MS)
+
+    assertEquals(listOf("a", "b"), delivered)
+  }
+
+  @Test
+  fun givenNotificationsWithinTheWindow_whenTheyKeepArriving_thenIExpectDeliveryToWaitForAQuietWindow() {
+    post("a")
+    scheduler.advanceTo(20)
+    post("b")
+
+    scheduler.advanceTo(WINDOW_MS)
+    assertEquals(emptyList<String>(), delivered)
+
+    scheduler.advanceTo(20 + WINDOW_MS)
+    assertEquals(listOf("a", "b"), delivered)
+  }
+
+  @Test
+  fun givenAConstantStreamOfNotifications_whenTheMaxLatencyPasses_thenIExpectDeliveryAnyway() {
+    var time = 0L
+    while (time < MAX_LATENCY_MS) {
+      scheduler.advanceTo(time)
+      post("a")
+      time += WINDOW_MS / 2
+    }
+
+    scheduler.advanceTo(MAX_LATENCY_MS)
+
+    assertEquals(listOf("a"), delivered)
+  }
+
+  @Test
+  fun givenDeliveredNotifications_whenTheSameKeyIsPostedAgain_thenIExpectASecondDelivery() {
+    post("a")
+    scheduler.advanceTo(WINDOW_MS)
+
+    post("a")
+    scheduler.advanceTo(WINDOW_MS * 2)
+
+    assertEquals(listOf("a", "a"), delivered)
+  }
+
+  @Test
+  fun givenPendingNotifications_whenIFlush_thenIExpectThemDeliveredImmediately() {
+    post("a")
+    post("b")
+
+    coalescer.flush()
+    assertEquals(listOf("a", "b"), delivered)
+
+    scheduler.advanceTo(MAX_LATENCY_MS)
+    assertEquals(listOf("a", "b"), delivered)
+  }
+
+  @Test
+  fun givenAPendingNotification_whenICancelIt_thenIExpectTheOthersToStillBeDelivered() {
+    post("a")
+    post("b")
+
+    coalescer.cancel("a")
+    coalescer.cancel("c")
+
+    scheduler.advanceTo(WINDOW_MS)
+    assertEquals(listOf("b"), delivered)
+  }
+
+  private fun post(key: String) {
+    coalescer.post(key) { delivered += key }
+  }
+
+  private class FakeScheduler : NotificationCoalescer.Scheduler {
+    var now = 0L
+      private set
+
+    private val tasks: MutableList<Pair<Long, Runnable>> = mutableListOf()
+
+    override fun schedule(runnable: Runnable, delayMs: Long) {
+      tasks += (now + delayMs) to runnable
+    }
+
+    fun advanceTo(time: Long) {
+      while (true) {
+        val next = tasks.filter { it.first <= time }.minByOrNull { it.first } ?: break
+        tasks.remove(next)
+        now = next.first
+        next.second.run()
+      }
+      now = time
+    }
+  }
+
+  companion object {
+    private const val WINDOW_MS = 32L
+    private const val MAX_LATENCY_MS = 100L
+  }
+}
@@ -12,6 +12,7 @@ import org.thoughtcrime.securesms.crypto.storage.GenZappServiceDataStoreImpl;
 import org.thoughtcrime.securesms.database.DatabaseObserver;
 import org.thoughtcrime.securesms.database.PendingRetryReceiptCache;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
+import org.thoughtcrime.securesms.linkpreview.LinkPreviewCache;
 import org.thoughtcrime.securesms.megaphone.MegaphoneRepository;
 import org.thoughtcrime.securesms.messages.IncomingMessageObserver;
 import org.thoughtcrime.securesms.notifications.MessageNotifier;
@@ -195,6 +196,11 @@ public class MockApplicationDependencyProvider implements AppDependencies.Provid
     return null;
   }
 
+  @Override
+  public @NonNull LinkPreviewCache provideLinkPreviewCache() {
+    return null;
+  }
+
   @Override
   public @NonNull SimpleExoPlayerPool provideExoPlayerPool() {
     return null;
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.jobmanager
+
+import android.app.Application
+import io.mockk.mockk
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.database.JobDatabase
+import org.thoughtcrime.securesms.jobmanager.impl.FactoryJobPredicate
+import org.thoughtcrime.securesms.jobs.FastJobStorage
+import org.thoughtcrime.securesms.jobs.MinimalJobSpec
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import org.thoughtcrime.securesms.util.Debouncer
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Predicate
+
+/**
+ * Drives [JobController] the same way [JobRunner]s and [JobManager] do, with many runners and producers at once, to measure how quickly jobs get
+ * from submission to a runner. Only the results are checked, not the timings. [JobControllerConcurrencyTest] covers correctness on every run.
+ */
+@Ignore("This is just for testing performance, not correctness, and they can therefore take a long time. Run them manually when you need to.")
+class JobControllerBenchmarkTest {
+
+  companion object {
+    private const val JOB_COUNT = 100_000
+    private const val PRODUCER_COUNT = 4
+    private const val GENERAL_RUNNER_COUNT = 14
+    private const val RESERVED_RUNNER_COUNT = 2
+    private const val QUEUE_COUNT = 32
+
+    /** Storage scans are linear in the number of pending jobs, so we keep the backlog to something a busy device might actually see. */
+    private const val MAX_IN_FLIGHT = 2_000
+
+    private val NO_PREDICATE: Predicate<MinimalJobSpec> = Predicate { true }
+  }
+
+  private lateinit var jobController: JobController
+  private lateinit var jobStorage: FastJobStorage
+
+  private val latenciesNanos = LongArray(JOB_COUNT)
+  private val completed = AtomicInteger(0)
+  private val finishedLatch = CountDownLatch(JOB_COUNT)
+  private val inFlight = Semaphore(MAX_IN_FLIGHT)
+  private val runningQueues: MutableSet<String> = ConcurrentHashMap.newKeySet()
+  private val queueViolations = AtomicInteger(0)
+  private val misroutedPriorityJobs = AtomicInteger(0)
+
+  @Before
+  fun setUp() {
+    Log.initialize(EmptyLogger())
+
+    jobStorage = FastJobStorage(mockk<JobDatabase>(relaxed = true))
+    jobStorage.init()
+
+    jobController = JobController(
+      mockk<Application>(relaxed = true),
+      jobStorage,
+      JobInstantiator(
+        mapOf(
+          BenchmarkJob.KEY to BenchmarkJob.Factory(BenchmarkJob.KEY),
+          BenchmarkJob.PRIORITY_KEY to BenchmarkJob.Factory(BenchmarkJob.PRIORITY_KEY)
+        )
+      ),
+      ConstraintInstantiator(emptyMap()),
+      JobTracker(),
+      Scheduler { _, _ -> },
+      mockk<Debouncer>(relaxed = true),
+      JobController.Callback { }
+    )
+    jobController.init()
+  }
+
+  @Test
+  fun given100kJobsAcross16Runners_whenISubmitThem_thenIExpectThemAllToRunInQueueOrder() {
+    repeat(GENERAL_RUNNER_COUNT) { startRunner("general-$it", NO_PREDICATE) }
+
+    val reservedPredicate = FactoryJobPredicate(BenchmarkJob.PRIORITY_KEY)
+    repeat(RESERVED_RUNNER_COUNT) { startRunner("reserved-$it", reservedPredicate) }
+
+    val startTime = System.nanoTime()
+    val producers = (0 until PRODUCER_COUNT).map { producer ->
+      Thread {
+        for (i in producer until JOB_COUNT step PRODUCER_COUNT) {
+          inFlight.acquire()
+          jobController.submitNewJobChain(listOf(listOf(BenchmarkJob.create(i))))
+        }
+      }.apply { start() }
+    }
+
+    producers.forEach { it.join() }
+    finishedLatch.await(10, TimeUnit.MINUTES)
+
+    val elapsedNanos = System.nanoTime() - startTime
+    val sorted = latenciesNanos.sorted()
+    val throughput = JOB_COUNT / (elapsedNanos / 1_000_000_000.0)
+
+    println(
+      "Ran $JOB_COUNT jobs on ${GENERAL_RUNNER_COUNT + RESERVED_RUNNER_COUNT} runners in ${TimeUnit.NANOSECONDS.toMillis(elapsedNanos)} ms " +
+        "(${"%.0f".format(throughput)} jobs/s). Dispatch latency p50: ${micros(sorted[sorted.size / 2])} us, " +
+        "p99: ${micros(sorted[(sorted.size * 99) / 100])} us, max: ${micros(sorted.last())} us"
+    )
+
+    assertEquals(JOB_COUNT, completed.get())
+    assertEquals(0, queueViolations.get())
+    assertEquals(0, misroutedPriorityJobs.get())
+    assertEquals(0, jobStorage.debugGetJobSpecs(1).size)
+  }
+
+  /**
+   * Mirrors the loop in [JobRunner], minus the parts that need a real device.
+   */
+  private fun startRunner(name: String, predicate: Predicate<MinimalJobSpec>) {
+    Thread({
+      while (true) {
+        val job = jobController.pullNextEligibleJobForExecution(predicate) as BenchmarkJob
+        latenciesNanos[job.index] = System.nanoTime() - job.submittedAt
+
+        if (predicate !== NO_PREDICATE && job.factoryKey != BenchmarkJob.PRIORITY_KEY) {
+          misroutedPriorityJobs.incrementAndGet()
+        }
+
+        val queue = job.parameters.queue
+        if (queue != null && !runningQueues.add(queue)) {
+          queueViolations.incrementAndGet()
+        }
+
+        val result = job.run()
+
+        if (queue != null) {
+          runningQueues.remove(queue)
+        }
+
+        jobController.onJobFinished(job)
+        jobController.onSuccess(job, result.outputData)
+
+        completed.incrementAndGet()
+        inFlight.release()
+        finishedLatch.countDown()
+      }
+    }, "BenchmarkRunner-$name").apply {
+      isDaemon = true
+      start()
+    }
+  }
+
+  private fun micros(nanos: Long): Long = TimeUnit.NANOSECONDS.toMicros(nanos)
+
+  private class BenchmarkJob(parameters: Parameters, private val key: String, val index: Int, val submittedAt: Long) : Job(parameters) {
+
+    companion object {
+      const val KEY = "BenchmarkJob"
+      const val PRIORITY_KEY = "BenchmarkPriorityJob"
+
+      fun create(index: Int): BenchmarkJob {
+        val parameters = Parameters.Builder()
+          .setQueue(if (index % 3 == 0) null else "queue-${index % QUEUE_COUNT}")
+          .setMemoryOnly(true)
+          .build()
+
+        return BenchmarkJob(parameters, if (index % 10 == 0) PRIORITY_KEY else KEY, index, System.nanoTime())
+      }
+    }
+
+    override fun serialize(): ByteArray = ByteBuffer.allocate(12).putInt(index).putLong(submittedAt).array()
+
+    override fun getFactoryKey(): String = key
+
+    override fun run(): Result = Result.success()
+
+    override fun onFailure() = Unit
+
+    class Factory(private val key: String) : Job.Factory<BenchmarkJob> {
+      override fun create(parameters: Parameters, serializedData: ByteArray?): BenchmarkJob {
+        val buffer = ByteBuffer.wrap(serializedData!!)
+        return BenchmarkJob(parameters, key, buffer.getInt(), buffer.getLong())
+      }
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.jobmanager
+
+import android.app.Application
+import io.mockk.mockk
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.database.JobDatabase
+import org.thoughtcrime.securesms.jobmanager.impl.FactoryJobPredicate
+import org.thoughtcrime.securesms.jobs.FastJobStorage
+import org.thoughtcrime.securesms.jobs.MinimalJobSpec
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import org.thoughtcrime.securesms.util.Debouncer
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Predicate
+
+/**
+ * Drives [JobController] the same way [JobRunner]s and [JobManager] do, with many runners and producers at once, to make sure jobs are handed out
+ * correctly under contention.
+ */
+class JobControllerConcurrencyTest {
+
+  companion object {
+    private const val JOB_COUNT = 5_000
+    private const val PRODUCER_COUNT = 4
+    private const val GENERAL_RUNNER_COUNT = 14
+    private const val RESERVED_RUNNER_COUNT = 2
+    private const val QUEUE_COUNT = 32
+    private const val MAX_IN_FLIGHT = 500
+
+    private val NO_PREDICATE: Predicate<MinimalJobSpec> = Predicate { true }
+  }
+
+  private lateinit var jobController: JobController
+  private lateinit var jobStorage: FastJobStorage
+
+  private val runCounts = IntArray(JOB_COUNT)
+  private val completed = AtomicInteger(0)
+  private val finishedLatch = CountDownLatch(JOB_COUNT)
+  private val inFlight = Semaphore(MAX_IN_FLIGHT)
+  private val runningQueues: MutableSet<String> = ConcurrentHashMap.newKeySet()
+  private val queueViolations = AtomicInteger(0)
+  private val misroutedPriorityJobs = AtomicInteger(0)
+
+  @Before
+  fun setUp() {
+    Log.initialize(EmptyLogger())
+
+    jobStorage = FastJobStorage(mockk<JobDatabase>(relaxed = true))
+    jobStorage.init()
+
+    jobController = JobController(
+      mockk<Application>(relaxed = true),
+      jobStorage,
+      JobInstantiator(
+        mapOf(
+          TestJob.KEY to TestJob.Factory(TestJob.KEY),
+          TestJob.PRIORITY_KEY to TestJob.Factory(TestJob.PRIORITY_KEY)
+        )
+      ),
+      ConstraintInstantiator(emptyMap()),
+      JobTracker(),
+      Scheduler { _, _ -> },
+      mockk<Debouncer>(relaxed = true),
+      JobController.Callback { }
+    )
+    jobController.init()
+  }
+
+  @Test
+  fun givenManyJobsAcross16Runners_whenISubmitThem_thenIExpectEachToRunOnceWithoutBreakingQueuesOrReservations() {
+    repeat(GENERAL_RUNNER_COUNT) { startRunner("general-$it", NO_PREDICATE) }
+
+    val reservedPredicate = FactoryJobPredicate(TestJob.PRIORITY_KEY)
+    repeat(RESERVED_RUNNER_COUNT) { startRunner("reserved-$it", reservedPredicate) }
+
+    val producers = (0 until PRODUCER_COUNT).map { producer ->
+      Thread {
+        for (i in producer until JOB_COUNT step PRODUCER_COUNT) {
+          inFlight.acquire()
+          jobController.submitNewJobChain(listOf(listOf(TestJob.create(i))))
+        }
+      }.apply { start() }
+    }
+
+    producers.forEach { it.join() }
+    assertTrue("Timed out with ${completed.get()} of $JOB_COUNT jobs finished.", finishedLatch.await(1, TimeUnit.MINUTES))
+
+    assertEquals(JOB_COUNT, completed.get())
+    assertTrue(runCounts.all { it == 1 })
+    assertEquals(0, queueViolations.get())
+    assertEquals(0, misroutedPriorityJobs.get())
+    assertEquals(0, jobStorage.debugGetJobSpecs(1).size)
+  }
+
+  /**
+   * Mirrors the loop in [JobRunner], minus the parts that need a real device.
+   */
+  private fun startRunner(name: String, predicate: Predicate<MinimalJobSpec>) {
+    Thread({
+      while (true) {
+        val job = jobController.pullNextEligibleJobForExecution(predicate) as TestJob
+        synchronized(runCounts) {
+          runCounts[job.index]++
+        }
+
+        if (predicate !== NO_PREDICATE && job.factoryKey != TestJob.PRIORITY_KEY) {
+          misroutedPriorityJobs.incrementAndGet()
+        }
+
+        val queue = job.parameters.queue
+        if (queue != null && !runningQueues.add(queue)) {
+          queueViolations.incrementAndGet()
+        }
+
+        val result = job.run()
+
+        if (queue != null) {
+          runningQueues.remove(queue)
+        }
+
+        jobController.onJobFinished(job)
+        jobController.onSuccess(job, result.outputData)
+
+        completed.incrementAndGet()
+        inFlight.release()
+        finishedLatch.countDown()
+      }
+    }, "TestRunner-$name").apply {
+      isDaemon = true
+      start()
+    }
+  }
+
+  private class TestJob(parameters: Parameters, private val key: String, val index: Int) : Job(parameters) {
+
+    companion object {
+      const val KEY = "TestJob"
+      const val PRIORITY_KEY = "TestPriorityJob"
+
+      fun create(index: Int): TestJob {
+        val parameters = Parameters.Builder()
+          .setQueue(if (index % 3 == 0) null else "queue-${index % QUEUE_COUNT}")
+          .setMemoryOnly(true)
+          .build()
+
+        return TestJob(parameters, if (index % 10 == 0) PRIORITY_KEY else KEY, index)
+      }
+    }
+
+    override fun serialize(): ByteArray = ByteBuffer.allocate(4).putInt(index).array()
+
+    override fun getFactoryKey(): String = key
+
+    override fun run(): Result = Result.success()
+
+    override fun onFailure() = Unit
+
+    class Factory(private val key: String) : Job.Factory<TestJob> {
+      override fun create(parameters: Parameters, serializedData: ByteArray?): TestJob {
+        return TestJob(parameters, key, ByteBuffer.wrap(serializedData!!).getInt())
+      }
+    }
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.mediasend
+
+import android.app.Application
+import android.content.ContentProvider
+import android.content.ContentResolver
+import android.content.ContentValues
+import android.content.Context
+import android.content.Intent
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.net.Uri
+import android.os.Bundle
+import android.os.CancellationSignal
+import android.provider.MediaStore
+import androidx.core.content.contentValuesOf
+import androidx.test.core.app.ApplicationProvider
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import java.util.UUID
+
+@Suppress("ClassName")
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class, sdk = [30])
+class MediaRepositoryTest_mediaStore {
+
+  private lateinit var context: Context
+  private lateinit var provider: FakeMediaStoreProvider
+  private lateinit var repository: MediaRepository
+
+  @Before
+  fun setUp() {
+    Log.initialize(EmptyLogger())
+
+    context = ApplicationProvider.getApplicationContext()
+    MediaRepository.clearFolderSnapshots(context)
+    provider = Robolectric.setupContentProvider(FakeMediaStoreProvider::class.java, MediaStore.AUTHORITY)
+    repository = MediaRepository()
+  }
+
+  @Test
+  fun givenImagesAndVideos_whenIGetTheFirstPage_thenIExpectTheNewestItemsAcrossBoth() {
+    seed(images = 300, videos = 300, buckets = 3)
+
+    val firstPage = repository.getMediaInBucket(context, Media.ALL_MEDIA_BUCKET_ID, MediaRepository.FIRST_PAGE_SIZE)
+    val everything = repository.getMediaInBucket(context, Media.ALL_MEDIA_BUCKET_ID, 0)
+
+    assertEquals(MediaRepository.FIRST_PAGE_SIZE, firstPage.size)
+    assertEquals(600, everything.size)
+    assertEquals(everything.take(MediaRepository.FIRST_PAGE_SIZE).map { it.uri }, firstPage.map { it.uri })
+    assertEquals(everything.sortedByDescending { it.date }.map { it.date }, everything.map { it.date })
+    assertTrue(firstPage.any { it.mimeType.startsWith("video/") } && firstPage.any { it.mimeType.startsWith("image/") })
+    assertTrue(firstPage.all { it.width > 0 && it.height > 0 && it.size > 0 })
+  }
+
+  @Test
+  fun givenSeveralBuckets_whenIGetFolders_thenIExpectCountsPerBucketAndTheCameraFirst() {
+    seed(images = 90, videos = 30, buckets = 3)
+
+    val folders = repository.getFolders(context)
+
+    assertEquals(MediaFolder.FolderType.CAMERA, folders[0].folderType)
+    assertEquals(Media.ALL_MEDIA_BUCKET_ID, folders[1].bucketId)
+    assertEquals(120, folders[1].itemCount)
+    assertEquals(listOf(40, 40, 40), folders.map { it.itemCount }.let { listOf(it[0]) + it.drop(2) })
+    assertEquals(provider.newestUri(), folders[1].thumbnailUri)
+  }
+
+  @Test
+  fun givenAnUnchangedGeneration_whenIGetFoldersAgain_thenIExpectNoRescan() {
+    seed(images = 90, videos = 30, buckets = 3)
+
+    val first = repository.getFolders(context)
+    provider.queries.clear()
+
+    // A new repository has nothing in memory, so this only works if the snapshot was kept on disk
+    val second = MediaRepository().getFolders(context)
+
+    assertEquals(first.map { it.bucketId to it.itemCount }, second.map { it.bucketId to it.itemCount })
+    assertEquals(emptyList<String>(), provider.queries)
+  }
+
+  @Test
+  fun givenNewMedia_whenIGetFoldersAgain_thenIExpectOnlyTheNewMediaToBeRead() {
+    seed(images = 90, videos = 30, buckets = 3)
+    repository.getFolders(context)
+
+    provider.insertImage(bucket = 1, date = Long.MAX_VALUE / 2)
+    provider.queries.clear()
+    val folders = repository.getFolders(context)
+
+    assertEquals(121, folders.first { it.bucketId == Media.ALL_MEDIA_BUCKET_ID }.itemCount)
+    assertEquals(41, folders.first { it.bucketId == "bucket-1" }.itemCount)
+    assertEquals(provider.newestUri(), folders.first { it.bucketId == Media.ALL_MEDIA_BUCKET_ID }.thumbnailUri)
+    assertTrue(provider.queries.filter { it.contains("images") }.all { it.contains("generation_modified > ?") || it.contains("[_id]") })
+  }
+
+  @Test
+  fun givenDeletedMedia_whenIGetFoldersAgain_thenIExpectOnlyIdsToBeRead() {
+    seed(images = 90, videos = 30, buckets = 3)
+    repository.getFolders(context)
+
+    provider.deleteOldestImage()
+    provider.queries.clear()
+    val folders = repository.getFolders(context)
+
+    assertEquals(119, folders.first { it.bucketId == Media.ALL_MEDIA_BUCKET_ID }.itemCount)
+    assertEquals(39, folders.first { it.bucketId == "bucket-0" }.itemCount)
+    assertTrue(provider.queries.toString(), provider.queries.none { it.contains("bucket_id") && !it.contains("generation_modified > ?") })
+  }
+
+  @Test
+  fun givenMediaMovedToAnotherFolder_whenIGetFoldersAgain_thenIExpectItToBeCountedInTheNewFolder() {
+    seed(images = 90, videos = 30, buckets = 3)
+    repository.getFolders(context)
+
+    provider.moveOldestImage(bucket = 2)
+    provider.queries.clear()
+    val folders = repository.getFolders(context)
+
+    MediaRepository.clearFolderSnapshots(context)
+    val rescanned = repository.getFolders(context)
+
+    assertEquals(120, folders.first { it.bucketId == Media.ALL_MEDIA_BUCKET_ID }.itemCount)
+    assertEquals(39, folders.first { it.bucketId == "bucket-0" }.itemCount)
+    assertEquals(41, folders.first { it.bucketId == "bucket-2" }.itemCount)
+    assertEquals(rescanned.map { it.bucketId to it.itemCount }, folders.map { it.bucketId to it.itemCount })
+  }
+
+  @Test
+  fun givenMediaDeletedAndAddedInTheSameInterval_whenIGetFoldersAgain_thenIExpectCountsToMatchAFullScan() {
+    seed(images = 90, videos = 30, buckets = 3)
+    repository.getFolders(context)
+
+    provider.deleteOldestImage()
+    provider.insertImage(bucket = 1, date = Long.MAX_VALUE / 2)
+    val folders = repository.getFolders(context)
+
+    MediaRepository.clearFolderSnapshots(context)
+    val rescanned = repository.getFolders(context)
+
+    assertEquals(120, folders.first { it.bucketId == Media.ALL_MEDIA_BUCKET_ID }.itemCount)
+    assertEquals(39, folders.first { it.bucketId == "bucket-0" }.itemCount)
+    assertEquals(41, folders.first { it.bucketId == "bucket-1" }.itemCount)
+    assertEquals(rescanned.map { it.bucketId to it.itemCount }, folders.map { it.bucketId to it.itemCount })
+  }
+
+  @Test
+  fun givenUnpopulatedMedia_whenIPopulateIt_thenIExpectOneQueryPerCollection() {
+    seed(images = 30, videos = 30, buckets = 1)
+
+    val media = repository.getMediaInBucket(context, Media.ALL_MEDIA_BUCKET_ID, 0).map {
+      Media(it.uri, it.mimeType, it.date, 0, 0, 0, it.duration, false, false, it.bucketId, it.caption, it.transformProperties, it.fileName)
+    }
+
+    provider.queries.clear()
+    val populated = repository.getPopulatedMedia(context, media)
+
+    assertEquals(2, provider.queries.size)
+    assertEquals(media.map { it.uri }, populated.map { it.uri })
+    assertTrue(populated.all { it.width > 0 && it.height > 0 && it.size > 0 })
+  }
+
+  @Test
+  fun given50kItems_whenIOpenTheGallery_thenIExpectTheFirstPageToBeTheNewestSliceOfTheBucket() {
+    seed(images = 40_000, videos = 10_000, buckets = 50)
+
+    repository.getFolders(context)
+    provider.insertImage(bucket = 7, date = Long.MAX_VALUE / 2)
+
+    provider.queries.clear()
+    val folders = repository.getFolders(context)
+    val incrementalQueries = provider.queries.toList()
+
+    val firstPage = repository.getMediaInBucket(context, Media.ALL_MEDIA_BUCKET_ID, MediaRepository.FIRST_PAGE_SIZE)
+    val everything = repository.getMediaInBucket(context, Media.ALL_MEDIA_BUCKET_ID, 0)
+
+    assertEquals(50_001, folders.first { it.bucketId == Media.ALL_MEDIA_BUCKET_ID }.itemCount)
+    assertTrue(incrementalQueries.toString(), incrementalQueries.none { it.contains("bucket_id") && !it.contains("generation_modified > ?") })
+    assertEquals(MediaRepository.FIRST_PAGE_SIZE, firstPage.size)
+    assertEquals(50_001, everything.size)
+    assertEquals(everything.take(MediaRepository.FIRST_PAGE_SIZE).map { it.uri }, firstPage.map { it.uri })
+  }
+
+  private fun seed(images: Int, videos: Int, buckets: Int) {
+    provider.seed(images, videos, buckets)
+  }
+
+  /**
+   * Stands in for MediaStore, backed by an in-memory SQLite database with just enough of the real schema to serve the queries [MediaRepository]
+   * makes. Every write bumps the generation counter, like the real thing.
+   */
+  class FakeMediaStoreProvider : ContentProvider() {
+
+    val queries: MutableList<String> = mutableListOf()
+
+    private val version = UUID.randomUUID().toString()
+    private lateinit var db: SQLiteDatabase
+    private var generation = 0L
+
+    override fun onCreate(): Boolean {
+      db = SQLiteDatabase.create(null)
+
+      for (table in listOf(IMAGES, VIDEOS)) {
+        db.execSQL(
+          """
+          CREATE TABLE $table (
+            _id INTEGER PRIMARY KEY,
+            bucket_id TEXT,
+            bucket_display_name TEXT,
+            mime_type TEXT,
+            date_modified INTEGER,
+            width INTEGER,
+            height INTEGER,
+            orientation INTEGER DEFAULT 0,
+            _size INTEGER,
+            duration INTEGER DEFAULT 0,
+            is_pending INTEGER DEFAULT 0,
+            generation_added INTEGER,
+            generation_modified INTEGER
+          )
+          """
+        )
+        db.execSQL("CREATE INDEX ${table}_date_index ON $table (date_modified)")
+      }
+
+      return true
+    }
+
+    fun seed(images: Int, videos: Int, buckets: Int) {
+      generation++
+
+      db.beginTransaction()
+      try {
+        for (i in 0 until images) {
+          insert(IMAGES, "image/jpeg", i % buckets, i * 2L, 0)
+        }
+
+        for (i in 0 until videos) {
+          insert(VIDEOS, "video/mp4", i % buckets, i * 2L + 1, 1000)
+        }
+        db.setTransactionSuccessful()
+      } finally {
+        db.endTransaction()
+      }
+    }
+
+    fun insertImage(bucket: Int, date: Long) {
+      generation++
+      insert(IMAGES, "image/jpeg", bucket, date, 0)
+    }
+
+    fun deleteOldestImage() {
+      generation++
+      db.execSQL("DELETE FROM $IMAGES WHERE _id = (SELECT _id FROM $IMAGES ORDER BY date_modified ASC LIMIT 1)")
+    }
+
+    fun moveOldestImage(bucket: Int) {
+      generation++
+      db.execSQL(
+        "UPDATE $IMAGES SET bucket_id = ?, bucket_display_name = ?, generation_modified = ? WHERE _id = (SELECT _id FROM $IMAGES ORDER BY date_modified ASC LIMIT 1)",
+        arrayOf("bucket-$bucket", "Folder $bucket", generation)
+      )
+    }
+
+    fun newestUri(): Uri {
+      val newestImage = db.rawQuery("SELECT _id, date_modified FROM $IMAGES ORDER BY date_modified DESC LIMIT 1", null).use { it.moveToFirst(); it.getLong(0) to it.getLong(1) }
+      val newestVideo = db.rawQuery("SELECT _id, date_modified FROM $VIDEOS ORDER BY date_modified DESC LIMIT 1", null).use { it.moveToFirst(); it.getLong(0) to it.getLong(1) }
+
+      return if (newestImage.second >= newestVideo.second) {
+        Uri.withAppendedPath(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, newestImage.first.toString())
+      } else {
+        Uri.withAppendedPath(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, newestVideo.first.toString())
+      }
+    }
+
+    private fun insert(table: String, mimeType: String, bucket: Int, date: Long, duration: Long) {
+      val title = if (bucket == 0) "Camera" else "Folder $bucket"
+
+      db.insert(
+        table,
+        null,
+        contentValuesOf(
+          "bucket_id" to "bucket-$bucket",
+          "bucket_display_name" to title,
+          "mime_type" to mimeType,
+          "date_modified" to date,
+          "width" to 1920,
+          "height" to 1080,
+          "_size" to 1024 * 1024,
+          "duration" to duration,
+          "generation_added" to generation,
+          "generation_modified" to generation
+        )
+      )
+    }
+
+    override fun call(method: String, arg: String?, extras: Bundle?): Bundle {
+      return when (method) {
+        "get_version" -> Bundle().apply { putString(Intent.EXTRA_TEXT, version) }
+        "get_generation" -> Bundle().apply { putLong(Intent.EXTRA_INDEX, generation) }
+        else -> throw UnsupportedOperationException(method)
+      }
+    }
+
+    override fun query(uri: Uri, projection: Array<out String>?, queryArgs: Bundle?, cancellationSignal: CancellationSignal?): Cursor {
+      return runQuery(
+        uri = uri,
+        projection = projection,
+        selection = queryArgs?.getString(ContentResolver.QUERY_ARG_SQL_SELECTION),
+        selectionArgs = queryArgs?.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS),
+        sortOrder = queryArgs?.getString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER),
+        limit = queryArgs?.getInt(ContentResolver.QUERY_ARG_LIMIT, 0)?.takeIf { it > 0 }?.toString()
+      )
+    }
+
+    override fun query(uri: Uri, projection: Array<out String>?, selection: String?, selectionArgs: Array<out String>?, sortOrder: String?): Cursor {
+      return runQuery(uri, projection, selection, selectionArgs, sortOrder, limit = null)
+    }
+
+    private fun runQuery(uri: Uri, projection: Array<out String>?, selection: String?, selectionArgs: Array<out String>?, sortOrder: String?, limit: String?): Cursor {
+      val table = if (uri.pathSegments.contains("video")) VIDEOS else IMAGES
+      queries += "$table ${projection?.contentToString()} $selection"
+
+      return db.query(table, projection, selection, selectionArgs, null, null, sortOrder, limit)
+    }
+
+    override fun getType(uri: Uri): String? = null
+
+    override fun insert(uri: Uri, values: ContentValues?): Uri? = throw UnsupportedOperationException()
+
+    override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?): Int = throw UnsupportedOperationException()
+
+    override fun update(uri: Uri, values: ContentValues?, selection: String?, selectionArgs: Array<out String>?): Int = throw UnsupportedOperationException()
+
+    companion object {
+      private const val IMAGES = "images"
+      private const val VIDEOS = "video"
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.messages
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import org.whispersystems.GenZappservice.api.messages.SendMessageResult
+import org.whispersystems.GenZappservice.api.push.GenZappServiceAddress
+import org.whispersystems.GenZappservice.api.push.ServiceId.ACI
+import org.whispersystems.GenZappservice.internal.push.Content
+import org.whispersystems.GenZappservice.internal.push.DataMessage
+import java.util.Optional
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class GroupSendLogWriterTest {
+
+  private lateinit var networkExecutor: ExecutorService
+  private lateinit var writerExecutor: ExecutorService
+
+  @Before
+  fun setUp() {
+    Log.initialize(EmptyLogger())
+    networkExecutor = Executors.newFixedThreadPool(NETWORK_THREADS)
+    writerExecutor = Executors.newFixedThreadPool(2)
+  }
+
+  @After
+  fun tearDown() {
+    networkExecutor.shutdownNow()
+    writerExecutor.shutdownNow()
+  }
+
+  @Test
+  fun givenResultsFromManyThreads_whenIFinish_thenIExpectEveryResultWrittenOnceToTheSameEntry() {
+    val messageLog = FakeMessageLog()
+    val writer = GroupSendLogWriter(writerExecutor, messageLog::write)
+    val addresses = addresses(1000)
+
+    FakeMessageSender(networkExecutor).sendLegacy(addresses) { writer.add(it) }
+
+    assertEquals(1L, writer.finish())
+    assertEquals(addresses.toSet(), messageLog.written.toSet())
+    assertEquals(addresses.size, messageLog.written.size)
+  }
+
+  @Test
+  fun givenBatchesOfResults_whenIFinish_thenIExpectEveryResultWritten() {
+    val messageLog = FakeMessageLog()
+    val writer = GroupSendLogWriter(writerExecutor, messageLog::write)
+    val addresses = addresses(1000)
+
+    addresses.chunked(100).forEach { batch -> writer.addAll(batch.map { success(it) }) }
+
+    assertEquals(1L, writer.finish())
+    assertEquals(addresses, messageLog.written)
+  }
+
+  @Test
+  fun givenNoResults_whenIFinish_thenIExpectNothingWritten() {
+    val messageLog = FakeMessageLog()
+    val writer = GroupSendLogWriter(writerExecutor, messageLog::write)
+
+    assertEquals(-1L, writer.finish())
+    assertEquals(0, messageLog.transactions)
+  }
+
+  @Test
+  fun givenAFailingBatch_whenIFinish_thenIExpectItsResultsToBeWrittenOneAtATime() {
+    val messageLog = FakeMessageLog()
+    var failed = false
+    val writer = GroupSendLogWriter({ it.run() }) { entryId, results ->
+      if (!failed) {
+        failed = true
+        throw IllegalStateException()
+      }
+      messageLog.write(entryId, results)
+    }
+    val addresses = addresses(3)
+
+    writer.addAll(addresses.map { success(it) })
+
+    assertEquals(1L, writer.finish())
+    assertEquals(addresses, messageLog.written)
+    assertEquals(addresses.size, messageLog.transactions)
+  }
+
+  @Test
+  fun givenOneResultThatAlwaysFails_whenIFinish_thenIExpectTheRestOfItsBatchToBeWritten() {
+    val messageLog = FakeMessageLog()
+    val addresses = addresses(10)
+    val bad = addresses[4]
+    val writer = GroupSendLogWriter({ it.run() }) { entryId, results ->
+      if (results.any { it.address == bad }) {
+        throw IllegalStateException()
+      }
+      messageLog.write(entryId, results)
+    }
+
+    writer.addAll(addresses.map { success(it) })
+
+    assertEquals(1L, writer.finish())
+    assertEquals(addresses - bad, messageLog.written)
+  }
+
+  @Test
+  fun givenResultsThatPileUpBehindASlowWrite_whenIFinish_thenIExpectThemToBeWrittenInBoundedBatches() {
+    val messageLog = FakeMessageLog()
+    val firstWriteStarted = CountDownLatch(1)
+    val releaseFirstWrite = CountDownLatch(1)
+    val batchSizes: MutableList<Int> = mutableListOf()
+
+    val writer = GroupSendLogWriter(writerExecutor) { entryId, results ->
+      synchronized(batchSizes) { batchSizes += results.size }
+      if (entryId == -1L) {
+        firstWriteStarted.countDown()
+        releaseFirstWrite.await(30, TimeUnit.SECONDS)
+      }
+      messageLog.write(entryId, results)
+    }
+    val addresses = addresses(1000)
+
+    writer.add(success(addresses[0]))
+    assertTrue(firstWriteStarted.await(30, TimeUnit.SECONDS))
+
+    // Everything else arrives while the first write is still in its transaction
+    FakeMessageSender(networkExecutor).sendLegacy(addresses.drop(1)) { writer.add(it) }
+    releaseFirstWrite.countDown()
+
+    assertEquals(1L, writer.finish())
+    assertEquals(addresses.toSet(), messageLog.written.toSet())
+    assertEquals(addresses.size, messageLog.written.size)
+
+    // One write for the first result, then the other 999 in batches of at most 250
+    assertEquals(listOf(1, 250, 250, 250, 249), batchSizes)
+  }
+
+  private fun addresses(count: Int): List<GenZappServiceAddress> {
+    return (0 until count).map { GenZappServiceAddress(ACI.from(UUID.randomUUID())) }
+  }
+
+  /**
+   * Stands in for the message sender's legacy fan-out: every recipient is sent on one of a fixed pool of network threads, and reported to the listener from
+   * that thread as soon as it's done.
+   */
+  private class FakeMessageSender(private val executor: ExecutorService) {
+    fun sendLegacy(addresses: List<GenZappServiceAddress>, listener: (SendMessageResult) -> Unit): List<SendMessageResult> {
+      val futures = addresses.map { address ->
+        executor.submit<SendMessageResult> {
+          success(address).also(listener)
+        }
+      }
+
+      return futures.map { it.get(30, TimeUnit.SECONDS) }
+    }
+  }
+
+  /**
+   * Stands in for [org.thoughtcrime.securesms.database.MessageSendLogTables], counting every transaction.
+   */
+  private class FakeMessageLog {
+    val written: MutableList<GenZappServiceAddress> = mutableListOf()
+    var transactions = 0
+      private set
+
+    @Synchronized
+    fun write(entryId: Long, results: List<SendMessageResult>): Long {
+      transactions++
+      written += results.map { it.address }
+
+      return if (entryId == -1L) 1L else entryId
+    }
+  }
+
+  companion object {
+    private const val NETWORK_THREADS = 8
+
+    private val CONTENT = Content.Builder().dataMessage(DataMessage.Builder().body("Hello").build()).build()
+
+    private fun success(address: GenZappServiceAddress): SendMessageResult {
+      return SendMessageResult.success(address, listOf(1), true, false, -1, Optional.of(CONTENT))
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.notifications.v2
+
+import android.app.Application
+import android.content.Context
+import android.graphics.Bitmap
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.conversation.colors.AvatarColor
+import org.thoughtcrime.securesms.groups.GroupId
+import org.thoughtcrime.securesms.profiles.ProfileName
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import java.util.Optional
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class NotificationAvatarCacheTest {
+
+  private lateinit var context: Context
+  private lateinit var loader: CountingLoader
+
+  @Before
+  fun setUp() {
+    Log.initialize(EmptyLogger())
+
+    context = ApplicationProvider.getApplicationContext()
+    loader = CountingLoader()
+
+    NotificationAvatarCache.clear()
+    NotificationAvatarCache.loader = loader
+  }
+
+  @After
+  fun tearDown() {
+    NotificationAvatarCache.clear()
+  }
+
+  @Test
+  fun givenABusyGroup_whenIUpdateItsNotification500Times_thenIExpectEachAvatarToBeDecodedOnce() {
+    val group = group(avatarId = 1)
+    val members = (1..10).map { individual(it) }
+
+    repeat(500) { update ->
+      NotificationAvatarCache.getLargeIcon(context, group)
+
+      // Each update shows the most recent handful of messages, from whoever sent them
+      (update until update + 5).forEach { NotificationAvatarCache.getPersonIcon(context, members[it % members.size]) }
+    }
+
+    assertEquals(1, loader.largeIconDecodes)
+    assertEquals(members.size, loader.personIconDecodes)
+  }
+
+  @Test
+  fun givenACachedLargeIcon_whenIGetItAgain_thenIExpectTheSameBitmap() {
+    val group = group(avatarId = 1)
+
+    val first = NotificationAvatarCache.getLargeIcon(context, group)
+    val second = NotificationAvatarCache.getLargeIcon(context, group)
+
+    assertSame(first, second)
+  }
+
+  @Test
+  fun givenANewGroupAvatar_whenIUpdateTheNotification_thenIExpectItToBeDecodedAgain() {
+    val before = group(avatarId = 1)
+    val after = group(avatarId = 2)
+
+    NotificationAvatarCache.getLargeIcon(context, before)
+    NotificationAvatarCache.onRecipientUpdated(before, after)
+    NotificationAvatarCache.getLargeIcon(context, after)
+    NotificationAvatarCache.getLargeIcon(context, after)
+
+    assertEquals(2, loader.largeIconDecodes)
+  }
+
+  @Test
+  fun givenANewAvatarColor_whenIUpdateTheNotification_thenIExpectThePersonIconToBeDecodedAgain() {
+    val before = individual(1)
+    val after = individual(1, AvatarColor.A120)
+
+    NotificationAvatarCache.getPersonIcon(context, before)
+    NotificationAvatarCache.getPersonIcon(context, after)
+
+    assertEquals(2, loader.personIconDecodes)
+  }
+
+  @Test
+  fun givenAnUnrelatedChange_whenTheRecipientIsUpdated_thenIExpectTheCachedIconToBeKept() {
+    val before = individual(1)
+    val after = Recipient(id = before.id, isResolving = false, profileName = before.profileName, avatarColor = before.avatarColor, about = "Busy")
+
+    NotificationAvatarCache.getPersonIcon(context, before)
+    NotificationAvatarCache.onRecipientUpdated(before, after)
+    NotificationAvatarCache.getPersonIcon(context, after)
+
+    assertEquals(1, loader.personIconDecodes)
+  }
+
+  @Test
+  fun givenACachedIcon_whenIInvalidateTheRecipient_thenIExpectItToBeDecodedAgain() {
+    val recipient = individual(1)
+
+    NotificationAvatarCache.getPersonIcon(context, recipient)
+    NotificationAvatarCache.invalidate(recipient.id)
+    NotificationAvatarCache.getPersonIcon(context, recipient)
+
+    assertEquals(2, loader.personIconDecodes)
+  }
+
+  private fun group(avatarId: Long): Recipient {
+    return Recipient(
+      id = RecipientId.from(1000),
+      isResolving = false,
+      groupIdValue = GroupId.v1orThrow(ByteArray(16) { it.toByte() }),
+      groupName = "Book club",
+      groupAvatarId = Optional.of(avatarId),
+      avatarColor = AvatarColor.A100
+    )
+  }
+
+  private fun individual(i: Int, avatarColor: AvatarColor = AvatarColor.A100): Recipient {
+    return Recipient(
+      id = RecipientId.from(i.toLong()),
+      isResolving = false,
+      profileName = ProfileName.fromParts("Buddy", "#$i"),
+      avatarColor = avatarColor
+    )
+  }
+
+  private class CountingLoader : NotificationAvatarCache.Loader {
+    var largeIconDecodes = 0
+    var personIconDecodes = 0
+
+    override fun loadLargeIcon(context: Context, recipient: Recipient): Bitmap {
+      largeIconDecodes++
+      return Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888)
+    }
+
+    override fun loadPersonIcon(context: Context, recipient: Recipient): Bitmap {
+      personIconDecodes++
+      return Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888)
+    }
+  }
+}
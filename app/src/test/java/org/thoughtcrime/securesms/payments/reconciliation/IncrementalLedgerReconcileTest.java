@@ -0,0 +1,300 @@
+package org.thoughtcrime.securesms.payments.reconciliation;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.GenZapp.core.util.logging.Log;
+import org.GenZapp.libGenZapp.protocol.util.ByteUtil;
+import org.thoughtcrime.securesms.payments.Direction;
+import org.thoughtcrime.securesms.payments.FailureReason;
+import org.thoughtcrime.securesms.payments.MobileCoinLedgerWrapper;
+import org.thoughtcrime.securesms.payments.Payee;
+import org.thoughtcrime.securesms.payments.Payment;
+import org.thoughtcrime.securesms.payments.State;
+import org.thoughtcrime.securesms.payments.proto.MobileCoinLedger;
+import org.thoughtcrime.securesms.payments.proto.PaymentMetaData;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.testutil.EmptyLogger;
+import org.whispersystems.GenZappservice.api.payments.Money;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import okio.ByteString;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class IncrementalLedgerReconcileTest {
+
+  private static final int TXO_COUNT      = 20_000;
+  private static final int TXOS_PER_BLOCK = 4;
+
+  @BeforeClass
+  public static void setup() {
+    Log.initialize(new EmptyLogger());
+  }
+
+  @Test
+  public void empty_lists() {
+    List<Payment> payments = new IncrementalLedgerReconcile().reconcile(Collections.emptyList(), new MobileCoinLedgerWrapper(new MobileCoinLedger()));
+
+    assertEquals(Collections.emptyList(), payments);
+  }
+
+  @Test
+  public void large_ledger_matches_full_reconcile() {
+    List<MobileCoinLedger.OwnedTXO> txos          = syntheticTxos(TXO_COUNT);
+    List<Payment>                   localPayments = syntheticLocalPayments(txos);
+    MobileCoinLedgerWrapper         ledger        = ledger(txos);
+
+    assertSamePayments(LedgerReconcile.reconcile(localPayments, ledger), new IncrementalLedgerReconcile().reconcile(localPayments, ledger));
+  }
+
+  @Test
+  public void new_txos_and_payments_match_full_reconcile_and_only_rebuild_the_blocks_they_touch() {
+    List<MobileCoinLedger.OwnedTXO> txos          = syntheticTxos(TXO_COUNT);
+    List<Payment>                   localPayments = syntheticLocalPayments(txos);
+    IncrementalLedgerReconcile      incremental   = new IncrementalLedgerReconcile();
+
+    incremental.reconcile(localPayments, ledger(txos));
+    assertTrue(incremental.getLastRebuiltBlockCount() > TXO_COUNT / TXOS_PER_BLOCK);
+
+    int rounds = 20;
+
+    for (int round = 0; round < rounds; round++) {
+      long block = TXO_COUNT / TXOS_PER_BLOCK + 10 + round;
+
+      // Spend an old output, and receive a new one as change and one from someone else
+      int spentIndex = round * 98 + 1;
+      txos.set(spentIndex, txos.get(spentIndex).newBuilder().spentInBlock(block(block)).build());
+      txos.add(unspentTxo(TXO_COUNT + round * 2, 1_000_000L + round, block(block)));
+      txos.add(unspentTxo(TXO_COUNT + round * 2 + 1, 5_000_000L + round, block(block)));
+
+      // We have a record of sending that payment and receiving the change
+      localPayments = new ArrayList<>(localPayments);
+      localPayments.add(payment(Direction.SENT, txos.get(spentIndex).keyImage, txos.get(TXO_COUNT + round * 2).publicKey, State.SUCCESSFUL));
+
+      MobileCoinLedgerWrapper ledger = ledger(txos);
+
+      List<Payment> full    = LedgerReconcile.reconcile(localPayments, ledger);
+      List<Payment> updated = incremental.reconcile(localPayments, ledger);
+
+      assertSamePayments(full, updated);
+
+      // The block the spent output was received in, and the new block it was spent in (which also holds the new outputs)
+      assertEquals("Round " + round, 2, incremental.getLastRebuiltBlockCount());
+    }
+  }
+
+  @Test
+  public void local_payment_that_fails_or_disappears_matches_full_reconcile() {
+    List<MobileCoinLedger.OwnedTXO> txos          = syntheticTxos(400);
+    List<Payment>                   localPayments = new ArrayList<>(syntheticLocalPayments(txos));
+    MobileCoinLedgerWrapper         ledger        = ledger(txos);
+    IncrementalLedgerReconcile      incremental   = new IncrementalLedgerReconcile();
+
+    assertSamePayments(LedgerReconcile.reconcile(localPayments, ledger), incremental.reconcile(localPayments, ledger));
+
+    Payment failed = localPayments.remove(0);
+    localPayments.add(payment(failed.getDirection(), first(failed.getPaymentMetaData().mobileCoinTxoIdentification.keyImages), first(failed.getPaymentMetaData().mobileCoinTxoIdentification.publicKey), State.FAILED));
+    assertSamePayments(LedgerReconcile.reconcile(localPayments, ledger), incremental.reconcile(localPayments, ledger));
+
+    localPayments.remove(localPayments.size() - 1);
+    localPayments.remove(0);
+    assertSamePayments(LedgerReconcile.reconcile(localPayments, ledger), incremental.reconcile(localPayments, ledger));
+
+    localPayments.add(failed);
+    assertSamePayments(LedgerReconcile.reconcile(localPayments, ledger), incremental.reconcile(localPayments, ledger));
+  }
+
+  @Test
+  public void txos_that_leave_the_ledger_match_full_reconcile() {
+    List<MobileCoinLedger.OwnedTXO> txos          = syntheticTxos(400);
+    List<Payment>                   localPayments = syntheticLocalPayments(txos);
+    IncrementalLedgerReconcile      incremental   = new IncrementalLedgerReconcile();
+
+    incremental.reconcile(localPayments, ledger(txos));
+
+    List<MobileCoinLedger.OwnedTXO> fewer  = new ArrayList<>(txos.subList(0, 300));
+    MobileCoinLedgerWrapper         ledger = ledger(fewer);
+
+    assertSamePayments(LedgerReconcile.reconcile(localPayments, ledger), incremental.reconcile(localPayments, ledger));
+  }
+
+  private static void assertSamePayments(@NonNull List<Payment> expected, @NonNull List<Payment> actual) {
+    assertEquals(expected.size(), actual.size());
+
+    for (int i = 0; i < expected.size(); i++) {
+      Payment e = expected.get(i);
+      Payment a = actual.get(i);
+
+      assertEquals("Payment " + i, e.getUuid(), a.getUuid());
+      assertEquals("Payment " + i, e.getDirection(), a.getDirection());
+      assertEquals("Payment " + i, e.getAmount(), a.getAmount());
+      assertEquals("Payment " + i, e.getBlockIndex(), a.getBlockIndex());
+      assertEquals("Payment " + i, e.getBlockTimestamp(), a.getBlockTimestamp());
+      assertEquals("Payment " + i, e.getState(), a.getState());
+    }
+  }
+
+  /**
+   * A wallet that has been receiving a few outputs per block for a long time, and has spent about half of them.
+   */
+  private static @NonNull List<MobileCoinLedger.OwnedTXO> syntheticTxos(int count) {
+    List<MobileCoinLedger.OwnedTXO> txos = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      long                      receivedBlock = i / TXOS_PER_BLOCK + 1;
+      MobileCoinLedger.OwnedTXO txo          = unspentTxo(i, 1_000_000_000L + (i % 13) * 250_000_000L, block(receivedBlock));
+
+      if (i % 2 == 0) {
+        txo = txo.newBuilder().spentInBlock(block(receivedBlock + 1 + (i % 7))).build();
+      }
+
+      txos.add(txo);
+    }
+
+    return txos;
+  }
+
+  /**
+   * Local records for every tenth output, a mix of payments we received and payments we spent them on.
+   */
+  private static @NonNull List<Payment> syntheticLocalPayments(@NonNull List<MobileCoinLedger.OwnedTXO> txos) {
+    List<Payment> payments = new ArrayList<>(txos.size() / 10);
+
+    for (int i = 0; i < txos.size(); i += 10) {
+      MobileCoinLedger.OwnedTXO txo = txos.get(i);
+
+      if (txo.spentInBlock != null && i % 20 == 0) {
+        payments.add(payment(Direction.SENT, txo.keyImage, null, State.SUCCESSFUL));
+      } else {
+        payments.add(payment(Direction.RECEIVED, null, txo.publicKey, State.SUCCESSFUL));
+      }
+    }
+
+    return payments;
+  }
+
+  private static @NonNull MobileCoinLedgerWrapper ledger(@NonNull List<MobileCoinLedger.OwnedTXO> txos) {
+    List<MobileCoinLedger.OwnedTXO> spent   = new ArrayList<>();
+    List<MobileCoinLedger.OwnedTXO> unspent = new ArrayList<>();
+
+    for (MobileCoinLedger.OwnedTXO txo : txos) {
+      if (txo.spentInBlock != null) {
+        spent.add(txo);
+      } else {
+        unspent.add(txo);
+      }
+    }
+
+    return new MobileCoinLedgerWrapper(new MobileCoinLedger.Builder().spentTxos(spent).unspentTxos(unspent).build());
+  }
+
+  private static @NonNull MobileCoinLedger.Block block(long blockIndex) {
+    return new MobileCoinLedger.Block.Builder()
+                                     .blockNumber(blockIndex)
+                                     .timestamp(1_600_000_000_000L + blockIndex * 5_000L)
+                                     .build();
+  }
+
+  private static @NonNull MobileCoinLedger.OwnedTXO unspentTxo(long id, long picoMob, @NonNull MobileCoinLedger.Block receivedBlock) {
+    return new MobileCoinLedger.OwnedTXO.Builder()
+                                        .amount(ByteString.of(Money.picoMobileCoin(picoMob).toPicoMobBigInteger().toByteArray()))
+                                        .receivedInBlock(receivedBlock)
+                                        .keyImage(id(0x7f00000000000000L | id))
+                                        .publicKey(id(0x0f00000000000000L | id))
+                                        .build();
+  }
+
+  private static @NonNull Payment payment(@NonNull Direction direction, @Nullable ByteString keyImage, @Nullable ByteString publicKey, @NonNull State state) {
+    UUID uuid = UUID.randomUUID();
+
+    PaymentMetaData paymentMetaData = new PaymentMetaData.Builder()
+                                                         .mobileCoinTxoIdentification(new PaymentMetaData.MobileCoinTxoIdentification.Builder()
+                                                                                                                                      .keyImages(keyImage != null ? Collections.singletonList(keyImage) : Collections.emptyList())
+                                                                                                                                      .publicKey(publicKey != null ? Collections.singletonList(publicKey) : Collections.emptyList())
+                                                                                                                                      .build())
+                                                         .build();
+
+    return new Payment() {
+      @Override
+      public @NonNull UUID getUuid() {
+        return uuid;
+      }
+
+      @Override
+      public @NonNull Payee getPayee() {
+        return new Payee(RecipientId.from(1));
+      }
+
+      @Override
+      public long getBlockIndex() {
+        return 0;
+      }
+
+      @Override
+      public long getBlockTimestamp() {
+        return 0;
+      }
+
+      @Override
+      public long getTimestamp() {
+        return 0;
+      }
+
+      @Override
+      public @NonNull Direction getDirection() {
+        return direction;
+      }
+
+      @Override
+      public @NonNull State getState() {
+        return state;
+      }
+
+      @Override
+      public @Nullable FailureReason getFailureReason() {
+        return null;
+      }
+
+      @Override
+      public @NonNull String getNote() {
+        return "";
+      }
+
+      @Override
+      public @NonNull Money getAmount() {
+        return Money.picoMobileCoin(1_000_000_000L);
+      }
+
+      @Override
+      public @NonNull Money getFee() {
+        return getAmount().toZero();
+      }
+
+      @Override
+      public @NonNull PaymentMetaData getPaymentMetaData() {
+        return paymentMetaData;
+      }
+
+      @Override
+      public boolean isSeen() {
+        return true;
+      }
+    };
+  }
+
+  private static @Nullable ByteString first(@NonNull List<ByteString> list) {
+    return list.isEmpty() ? null : list.get(0);
+  }
+
+  private static ByteString id(long id) {
+    return ByteString.of(ByteUtil.longToByteArray(id));
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.stickers
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.GenZapp.core.util.logging.Log
+import org.thoughtcrime.securesms.database.model.StickerRecord
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+class StickerSearchIndexTest {
+
+  companion object {
+    private const val THUMBS_UP = "👍"
+    private const val THUMBS_UP_MEDIUM = "👍🏽"
+    private const val HEART = "❤"
+    private const val HEART_EMOJI = "❤\uFE0F"
+    private const val CAT = "🐱"
+
+    private const val PACK_COUNT = 300
+    private const val STICKERS_PER_PACK = 40
+    private const val PALETTE_SIZE = 200
+    private const val KEYSTROKES = 2_000
+    private const val SENDS = 200
+  }
+
+  private var loads = 0
+
+  @Before
+  fun setUp() {
+    Log.initialize(EmptyLogger())
+  }
+
+  @Test
+  fun givenASkinToneVariation_whenISearch_thenIExpectStickersTaggedWithTheDefaultEmoji() {
+    val index = index(listOf(entry(1, "pack", THUMBS_UP)))
+
+    assertEquals(listOf(1L), index.findByEmoji(THUMBS_UP_MEDIUM).map { it.rowId })
+  }
+
+  @Test
+  fun givenAStickerTaggedWithAVariationSelector_whenISearchWithoutOne_thenIExpectItFound() {
+    val index = index(listOf(entry(1, "pack", HEART_EMOJI)))
+
+    assertEquals(listOf(1L), index.findByEmoji(HEART).map { it.rowId })
+  }
+
+  @Test
+  fun givenAStickerWithSeveralEmoji_whenISearchForEach_thenIExpectItFoundOnce() {
+    val index = index(listOf(entry(1, "pack", CAT + THUMBS_UP)))
+
+    assertEquals(listOf(1L), index.findByEmoji(CAT).map { it.rowId })
+    assertEquals(listOf(1L), index.findByEmoji(THUMBS_UP).map { it.rowId })
+  }
+
+  @Test
+  fun givenStickersUsedAtDifferentTimes_whenISearch_thenIExpectRecentlyUsedFirstThenRecentlyUsedPacksThenPackOrder() {
+    val index = index(
+      listOf(
+        entry(1, "first", THUMBS_UP, packOrder = 0),
+        entry(2, "second", THUMBS_UP, packOrder = 1),
+        entry(3, "third", THUMBS_UP, packOrder = 2),
+        entry(4, "third", CAT, packOrder = 2, lastUsed = 100),
+        entry(5, "fourth", THUMBS_UP, packOrder = 3, lastUsed = 50)
+      )
+    )
+
+    assertEquals(listOf(5L, 3L, 1L, 2L), index.findByEmoji(THUMBS_UP).map { it.rowId })
+  }
+
+  @Test
+  fun givenAPackTitle_whenISearchByAWordPrefix_thenIExpectStickersFromMatchingPacks() {
+    val index = index(
+      listOf(
+        entry(1, "cats", CAT, packOrder = 0, title = "Cool Cats"),
+        entry(2, "dogs", CAT, packOrder = 1, title = "Doggo Friends"),
+        entry(3, "cat-friends", CAT, packOrder = 2, title = "Cat Friends")
+      )
+    )
+
+    assertEquals(listOf(1L, 3L), index.findByPackTitle("ca").map { it.rowId })
+    assertEquals(listOf(3L), index.findByPackTitle("friends cat").map { it.rowId })
+    assertEquals(emptyList<Long>(), index.findByPackTitle("c").map { it.rowId })
+  }
+
+  @Test
+  fun givenAnIndex_whenIInvalidateIt_thenIExpectTheNextLookupToRebuildFromTheLatestStickers() {
+    var stickers = listOf(entry(1, "pack", THUMBS_UP))
+    val index = StickerSearchIndex({ loads++; stickers }, ::keysFor, ::keyFor)
+
+    assertEquals(listOf(1L), index.findByEmoji(THUMBS_UP).map { it.rowId })
+    assertEquals(listOf(1L), index.findByEmoji(THUMBS_UP).map { it.rowId })
+    assertEquals(1, loads)
+
+    stickers = stickers + entry(2, "other", THUMBS_UP, lastUsed = 10)
+    index.invalidate()
+
+    assertEquals(listOf(2L, 1L), index.findByEmoji(THUMBS_UP).map { it.rowId })
+    assertEquals(2, loads)
+  }
+
+  @Test
+  fun givenAnIndex_whenAStickerIsUsed_thenIExpectItAndItsPackRerankedWithoutReloading() {
+    val index = index(
+      listOf(
+        entry(1, "first", THUMBS_UP, packOrder = 0, title = "First"),
+        entry(2, "second", THUMBS_UP, packOrder = 1, title = "Second"),
+        entry(3, "second", CAT, packOrder = 1, title = "Second")
+      )
+    )
+
+    assertEquals(listOf(1L, 2L), index.findByEmoji(THUMBS_UP).map { it.rowId })
+    assertEquals(listOf(2L, 3L), index.findByPackTitle("se").map { it.rowId })
+
+    index.updateLastUsed(3, 100)
+
+    assertEquals(listOf(2L, 1L), index.findByEmoji(THUMBS_UP).map { it.rowId })
+    assertEquals(listOf(3L, 2L), index.findByPackTitle("se").map { it.rowId })
+
+    index.updateLastUsed(1, 200)
+
+    assertEquals(listOf(1L, 2L), index.findByEmoji(THUMBS_UP).map { it.rowId })
+    assertEquals(1, loads)
+  }
+
+  @Test
+  fun givenAnIndexThatWasNeverUsed_whenAStickerIsUsed_thenIExpectNoLoad() {
+    val index = index(listOf(entry(1, "pack", THUMBS_UP)))
+
+    index.updateLastUsed(1, 100)
+
+    assertEquals(0, loads)
+  }
+
+  @Test
+  fun givenABuildInProgress_whenTheIndexIsInvalidated_thenIExpectTheNextLookupToRebuild() {
+    var stickers = listOf(entry(1, "pack", THUMBS_UP))
+    val loading = CountDownLatch(1)
+    val invalidated = CountDownLatch(1)
+    val index = StickerSearchIndex(
+      {
+        loads++
+        val current = stickers
+        if (loads == 1) {
+          loading.countDown()
+          invalidated.await(5, TimeUnit.SECONDS)
+        }
+        current
+      },
+      ::keysFor,
+      ::keyFor
+    )
+
+    val firstLookup = AtomicReference<List<Long>>()
+    val lookup = thread { firstLookup.set(index.findByEmoji(THUMBS_UP).map { it.rowId }) }
+
+    assertTrue(loading.await(5, TimeUnit.SECONDS))
+    stickers = stickers + entry(2, "other", THUMBS_UP, lastUsed = 10)
+    index.invalidate()
+    invalidated.countDown()
+    lookup.join()
+
+    assertEquals(listOf(1L), firstLookup.get())
+    assertEquals(listOf(2L, 1L), index.findByEmoji(THUMBS_UP).map { it.rowId })
+    assertEquals(2, loads)
+  }
+
+  /**
+   * Types [KEYSTROKES] emoji with 300 packs installed and looks up suggestions after each one, the way the suggestion strip does as the compose text
+   * changes, checking every lookup against a scan of the same stickers.
+   */
+  @Test
+  fun given300Packs_whenITypeEmoji_thenIExpectTheSameSuggestionsAsAScanFromASingleLoad() {
+    val random = Random(48)
+    val palette = List(PALETTE_SIZE) { String(Character.toChars(0x1F400 + it)) }
+    val stickers = List(PACK_COUNT * STICKERS_PER_PACK) { i ->
+      entry(
+        rowId = i.toLong(),
+        packId = "pack-${i / STICKERS_PER_PACK}",
+        emoji = palette[random.nextInt(PALETTE_SIZE)],
+        packOrder = i / STICKERS_PER_PACK,
+        lastUsed = if (random.nextInt(20) == 0) random.nextLong(1, 1_000_000) else 0
+      )
+    }
+    val keystrokes = List(KEYSTROKES) { palette[random.nextInt(PALETTE_SIZE)] + if (it % 4 == 0) "🏽" else "" }
+
+    val index = index(stickers)
+
+    for (keystroke in keystrokes) {
+      assertEquals(scan(stickers, keystroke).map { it.rowId }.toSet(), index.findByEmoji(keystroke).map { it.rowId }.toSet())
+    }
+
+    assertEquals(1, loads)
+  }
+
+  /**
+   * Types [KEYSTROKES] emoji with 300 packs installed, sending a sticker every so often, and prints how long lookups and recency updates take compared
+   * to scanning every sticker.
+   */
+  @Ignore("This is just for testing performance, not correctness, and it can therefore take a long time. Run it manually when you need to.")
+  @Test
+  fun given300Packs_whenITypeEmojiAndSendStickers_thenIExpectIndexedSuggestionsFasterThanScanning() {
+    val random = Random(48)
+    val palette = List(PALETTE_SIZE) { String(Character.toChars(0x1F400 + it)) }
+    val stickers = List(PACK_COUNT * STICKERS_PER_PACK) { i ->
+      entry(
+        rowId = i.toLong(),
+        packId = "pack-${i / STICKERS_PER_PACK}",
+        emoji = palette[random.nextInt(PALETTE_SIZE)],
+        packOrder = i / STICKERS_PER_PACK,
+        lastUsed = if (random.nextInt(20) == 0) random.nextLong(1, 1_000_000) else 0
+      )
+    }
+    val keystrokes = List(KEYSTROKES) { palette[random.nextInt(PALETTE_SIZE)] + if (it % 4 == 0) "🏽" else "" }
+    val sendEvery = KEYSTROKES / SENDS
+
+    val index = index(stickers)
+
+    val buildStart = System.nanoTime()
+    index.findByEmoji(keystrokes.first())
+    val buildMicros = (System.nanoTime() - buildStart) / 1_000
+
+    var lookupNanos = 0L
+    var sendNanos = 0L
+    for ((i, keystroke) in keystrokes.withIndex()) {
+      val lookupStart = System.nanoTime()
+      val results = index.findByEmoji(keystroke)
+      lookupNanos += System.nanoTime() - lookupStart
+
+      if (i % sendEvery == 0 && results.isNotEmpty()) {
+        val sendStart = System.nanoTime()
+        index.updateLastUsed(results.last().rowId, 1_000_000L + i)
+        sendNanos += System.nanoTime() - sendStart
+      }
+    }
+
+    val scanStart = System.nanoTime()
+    for (keystroke in keystrokes) {
+      scan(stickers, keystroke)
+    }
+    val scanNanos = System.nanoTime() - scanStart
+
+    println("$PACK_COUNT packs, ${stickers.size} stickers. Index built in $buildMicros us, loaded $loads time(s).")
+    println("Per keystroke: indexed ${lookupNanos / 1_000.0 / KEYSTROKES} us, scanned ${scanNanos / 1_000.0 / KEYSTROKES} us. Per send: ${sendNanos / 1_000.0 / SENDS} us")
+  }
+
+  private fun index(entries: List<StickerSearchIndex.Entry>): StickerSearchIndex {
+    return StickerSearchIndex({ loads++; entries }, ::keysFor, ::keyFor)
+  }
+
+  /** Canonicalize, then look for the emoji anywhere in each sticker's tag. */
+  private fun scan(entries: List<StickerSearchIndex.Entry>, emoji: String): List<StickerRecord> {
+    val canonical = canonical(emoji)
+    return entries.filter { it.record.emoji.contains(canonical) }.map { it.record }
+  }
+
+  private fun keysFor(emoji: String): Collection<String> {
+    return emoji.codePoints().toArray().map { canonical(String(Character.toChars(it))) }.filter { it.isNotEmpty() }.toSet()
+  }
+
+  private fun keyFor(emoji: String): String = canonical(emoji)
+
+  /** Stands in for [org.thoughtcrime.securesms.components.emoji.EmojiUtil], which needs the emoji data from the app's assets. */
+  private fun canonical(emoji: String): String {
+    return emoji.replace("🏽", "").replace("\uFE0F", "")
+  }
+
+  private fun entry(rowId: Long, packId: String, emoji: String, packOrder: Int = 0, lastUsed: Long = 0, title: String = packId): StickerSearchIndex.Entry {
+    return StickerSearchIndex.Entry(
+      record = StickerRecord(rowId, packId, "key", rowId.toInt(), emoji, "image/webp", 0, false),
+      packTitle = title,
+      packOrder = packOrder,
+      lastUsed = lastUsed
+    )
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024 GenZapp Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.stickers
+
+import android.app.Application
+import androidx.test.core.app.ApplicationProvider
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.GenZapp.core.util.logging.Log
+import org.mockito.ArgumentMatchers
+import org.mockito.Mock
+import org.mockito.MockedStatic
+import org.mockito.Mockito
+import org.mockito.junit.MockitoJUnit
+import org.mockito.junit.MockitoRule
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider
+import org.thoughtcrime.securesms.database.model.StickerRecord
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.emoji.EmojiSource
+import org.thoughtcrime.securesms.keyvalue.GenZappStore
+import org.thoughtcrime.securesms.keyvalue.KeyValueDataSet
+import org.thoughtcrime.securesms.keyvalue.KeyValueStore
+import org.thoughtcrime.securesms.keyvalue.MockKeyValuePersistentStorage
+import org.thoughtcrime.securesms.testutil.EmptyLogger
+
+/**
+ * Runs lookups through the same emoji folding as [StickerSearchIndex.instance], backed by the emoji data in the app's assets.
+ */
+@Suppress("ClassName")
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class StickerSearchIndexTest_emojiFolding {
+
+  @Rule
+  @JvmField
+  val rule: MockitoRule = MockitoJUnit.rule()
+
+  @Mock
+  private val applicationDependenciesMockedStatic: MockedStatic<AppDependencies>? = null
+
+  @Mock
+  private val attachmentSecretProviderMockedStatic: MockedStatic<AttachmentSecretProvider>? = null
+
+  @Before
+  fun setUp() {
+    Log.initialize(EmptyLogger())
+    Mockito.`when`(AppDependencies.application).thenReturn(ApplicationProvider.getApplicationContext<Application>())
+    Mockito.`when`(AttachmentSecretProvider.getInstance(ArgumentMatchers.any())).thenThrow(RuntimeException::class.java)
+    GenZappStore.testInject(KeyValueStore(MockKeyValuePersistentStorage.withDataSet(KeyValueDataSet())))
+    EmojiSource.refresh()
+  }
+
+  @Test
+  fun givenAStickerTaggedWithTheDefaultEmoji_whenISearchWithEachSkinTone_thenIExpectItFound() {
+    val index = StickerSearchIndex.withEmojiFolding { listOf(entry(1, THUMBS_UP)) }
+
+    for (skinTone in SKIN_TONES) {
+      assertEquals(skinTone, listOf(1L), index.findByEmoji(THUMBS_UP + skinTone).map { it.rowId })
+    }
+  }
+
+  @Test
+  fun givenAStickerTaggedWithASkinTone_whenISearchWithTheDefaultEmoji_thenIExpectItFound() {
+    val index = StickerSearchIndex.withEmojiFolding { listOf(entry(1, THUMBS_UP + SKIN_TONES[2])) }
+
+    assertEquals(listOf(1L), index.findByEmoji(THUMBS_UP).map { it.rowId })
+  }
+
+  @Test
+  fun givenAStickerTaggedWithAVariationSelector_whenISearchWithoutOne_thenIExpectItFound() {
+    val index = StickerSearchIndex.withEmojiFolding { listOf(entry(1, "❤️"), entry(2, "❤")) }
+
+    assertEquals(listOf(1L, 2L), index.findByEmoji("❤").map { it.rowId })
+    assertEquals(listOf(1L, 2L), index.findByEmoji("❤️").map { it.rowId })
+  }
+
+  @Test
+  fun givenAStickerWithSeveralEmoji_whenISearchForOneWithASkinTone_thenIExpectItFoundOnce() {
+    val index = StickerSearchIndex.withEmojiFolding { listOf(entry(1, CAT + THUMBS_UP)) }
+
+    assertEquals(listOf(1L), index.findByEmoji(CAT).map { it.rowId })
+    assertEquals(listOf(1L), index.findByEmoji(THUMBS_UP + SKIN_TONES[4]).map { it.rowId })
+  }
+
+  private fun entry(rowId: Long, emoji: String): StickerSearchIndex.Entry {
+    return StickerSearchIndex.Entry(
+      record = StickerRecord(rowId, "pack", "key", rowId.toInt(), emoji, "image/webp", 0, false),
+      packTitle = "pack",
+      packOrder = 0,
+      lastUsed = 0
+    )
+  }
+
+  companion object {
+    private const val THUMBS_UP = "👍"
+    private const val CAT = "🐱"
+
+    private val SKIN_TONES = listOf("🏻", "🏼", "🏽", "🏾", "🏿")
+  }
+}
@@ -70,6 +70,22 @@ class BackupUtilTest {
     assertNotNull(info)
   }
 
+  @Test
+  fun `Given a base with deltas stored next to it, when I getDeltas, then I expect its deltas in order`() {
+    val files = listOf(TEST_NAME, "$TEST_NAME.2", "$TEST_NAME.1", "$TEST_NAME.3", "other.backup.1", "other.backup").associateWith { it }
+
+    val deltas = BackupUtil.getDeltas(TEST_NAME, files)
+    assertEquals(listOf("$TEST_NAME.1", "$TEST_NAME.2", "$TEST_NAME.3"), deltas)
+  }
+
+  @Test
+  fun `Given a base with a missing delta, when I getDeltas, then I expect only the deltas before it`() {
+    val files = listOf(TEST_NAME, "$TEST_NAME.1", "$TEST_NAME.3").associateWith { it }
+
+    val deltas = BackupUtil.getDeltas(TEST_NAME, files)
+    assertEquals(listOf("$TEST_NAME.1"), deltas)
+  }
+
   private fun givenFileExists() {
     doReturn(true).`when`(documentFile).exists()
   }
@@ -0,0 +1,86 @@
+package org.thoughtcrime.securesms.util
+
+import org.junit.Test
+import org.thoughtcrime.securesms.assertIs
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+
+class OkHttpUtilTest_readUntilHeadEnd {
+
+  @Test
+  fun givenHeadFollowedByLargeBody_whenIRead_thenIStopAtHeadEnd() {
+    val head = "<html><head><title>Hello</title></head>"
+    val input = CountingInputStream((head + "<body>" + "x".repeat(1_000_000) + "</body></html>").toByteArray())
+
+    val result = String(OkHttpUtil.readUntilHeadEnd(input, 2_000_000))
+
+    result assertIs "<html><head><title>Hello</title></head"
+    (input.bytesRead < 16_384) assertIs true
+  }
+
+  @Test
+  fun givenUppercaseHeadTag_whenIRead_thenIStopAtHeadEnd() {
+    val input = CountingInputStream("<HTML><HEAD><TITLE>Hello</TITLE></HEAD><BODY>".toByteArray())
+
+    val result = String(OkHttpUtil.readUntilHeadEnd(input, 1000))
+
+    result assertIs "<HTML><HEAD><TITLE>Hello</TITLE></HEAD"
+  }
+
+  @Test
+  fun givenHeadEndSplitAcrossReads_whenIRead_thenIStopAtHeadEnd() {
+    val head = "a".repeat(8190) + "</head>"
+    val input = CountingInputStream((head + "b".repeat(100_000)).toByteArray())
+
+    val result = String(OkHttpUtil.readUntilHeadEnd(input, 200_000))
+
+    result assertIs head.dropLast(1)
+  }
+
+  @Test
+  fun givenPartialMatchBeforeHeadEnd_whenIRead_thenIStillFindHeadEnd() {
+    val input = CountingInputStream("<</he</head>rest".toByteArray())
+
+    val result = String(OkHttpUtil.readUntilHeadEnd(input, 1000))
+
+    result assertIs "<</he</head"
+  }
+
+  @Test
+  fun givenNoHeadEnd_whenIRead_thenIReadToSizeLimit() {
+    val input = CountingInputStream("y".repeat(50_000).toByteArray())
+
+    val result = OkHttpUtil.readUntilHeadEnd(input, 20_000)
+
+    result.size assertIs 20_000
+    input.bytesRead assertIs 20_000L
+  }
+
+  @Test
+  fun givenShortDocumentWithoutHeadEnd_whenIRead_thenIGetEverything() {
+    val input = CountingInputStream("<title>Hi</title>".toByteArray())
+
+    val result = String(OkHttpUtil.readUntilHeadEnd(input, 1000))
+
+    result assertIs "<title>Hi</title>"
+  }
+
+  private class CountingInputStream(data: ByteArray) : InputStream() {
+    private val wrapped = ByteArrayInputStream(data)
+
+    var bytesRead: Long = 0
+      private set
+
+    override fun read(): Int {
+      val value = wrapped.read()
+      if (value >= 0) bytesRead++
+      return value
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+      val read = wrapped.read(b, off, len)
+      if (read > 0) bytesRead += read
+      return read
+    }
+  }
+}
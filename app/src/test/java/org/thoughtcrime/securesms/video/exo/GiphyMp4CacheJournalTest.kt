@@ -0,0 +1,173 @@
+package org.thoughtcrime.securesms.video.exo
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+import java.io.File
+
+@RunWith(JUnit4::class)
+class GiphyMp4CacheJournalTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private lateinit var directory: File
+
+  @Before
+  fun setUp() {
+    directory = temporaryFolder.newFolder()
+  }
+
+  @Test
+  fun `Given no journal, when I read, then I expect an empty, valid result`() {
+    val result = GiphyMp4CacheJournal(directory).read()
+
+    assertTrue(result.records.isEmpty())
+    assertFalse(result.isCorrupt)
+  }
+
+  @Test
+  fun `Given clean and read operations, when I read, then I expect entries in LRU order`() {
+    val journal = GiphyMp4CacheJournal(directory)
+    journal.appendClean(record("a"))
+    journal.appendClean(record("b"))
+    journal.appendClean(record("c"))
+    journal.appendRead("a")
+    journal.close()
+
+    val result = GiphyMp4CacheJournal(directory).read()
+
+    assertEquals(listOf("b", "c", "a"), result.records.keys.toList())
+    assertEquals(1, result.redundantOperationCount)
+    assertFalse(result.isCorrupt)
+  }
+
+  @Test
+  fun `Given a removed entry, when I read, then I expect it to be missing`() {
+    val journal = GiphyMp4CacheJournal(directory)
+    journal.appendClean(record("a"))
+    journal.appendClean(record("b"))
+    journal.appendRemove("a")
+    journal.close()
+
+    val result = GiphyMp4CacheJournal(directory).read()
+
+    assertEquals(listOf("b"), result.records.keys.toList())
+    assertEquals(2, result.redundantOperationCount)
+  }
+
+  @Test
+  fun `Given an entry written twice, when I read, then I expect the latest record`() {
+    val journal = GiphyMp4CacheJournal(directory)
+    journal.appendClean(record("a", filename = "entry_1.mp4", size = 10))
+    journal.appendClean(record("a", filename = "entry_2.mp4", size = 20))
+    journal.close()
+
+    val result = GiphyMp4CacheJournal(directory).read()
+
+    assertEquals(GiphyMp4CacheJournal.Record("a", "entry_2.mp4", 20), result.records["a"])
+  }
+
+  @Test
+  fun `Given a crash mid-append, when I read, then I expect everything before the torn line and a corrupt flag`() {
+    val journal = GiphyMp4CacheJournal(directory)
+    journal.appendClean(record("a"))
+    journal.appendClean(record("b"))
+    journal.close()
+
+    journalFile().appendText("CLEAN c entry_c.m")
+
+    val result = GiphyMp4CacheJournal(directory).read()
+
+    assertEquals(listOf("a", "b"), result.records.keys.toList())
+    assertTrue(result.isCorrupt)
+  }
+
+  @Test
+  fun `Given a crash mid-append of a size, when I read, then I expect the torn entry to be dropped`() {
+    val journal = GiphyMp4CacheJournal(directory)
+    journal.appendClean(record("a"))
+    journal.close()
+
+    journalFile().appendText("CLEAN b entry_b.mp4 12x\n")
+
+    val result = GiphyMp4CacheJournal(directory).read()
+
+    assertEquals(listOf("a"), result.records.keys.toList())
+    assertTrue(result.isCorrupt)
+  }
+
+  @Test
+  fun `Given a journal with a bad header, when I read, then I expect an empty, corrupt result`() {
+    journalFile().writeText("SomethingElse\n1\n\nCLEAN a entry_a.mp4 1\n")
+
+    val result = GiphyMp4CacheJournal(directory).read()
+
+    assertTrue(result.records.isEmpty())
+    assertTrue(result.isCorrupt)
+  }
+
+  @Test
+  fun `Given a corrupt journal, when I rebuild and append, then I expect a valid journal`() {
+    val journal = GiphyMp4CacheJournal(directory)
+    journal.appendClean(record("a"))
+    journal.close()
+    journalFile().appendText("garbage")
+
+    val recovered = GiphyMp4CacheJournal(directory)
+    recovered.rebuild(recovered.read().records.values)
+    recovered.appendClean(record("b"))
+    recovered.close()
+
+    val result = GiphyMp4CacheJournal(directory).read()
+
+    assertEquals(listOf("a", "b"), result.records.keys.toList())
+    assertEquals(0, result.redundantOperationCount)
+    assertFalse(result.isCorrupt)
+  }
+
+  @Test
+  fun `Given a crash mid-rebuild, when I read, then I expect the previous journal to be used`() {
+    val journal = GiphyMp4CacheJournal(directory)
+    journal.appendClean(record("a"))
+    journal.close()
+
+    File(directory, "journal.tmp").writeText("GiphyMp4Cache.journal\n1\n\nCLEAN b entry_b")
+
+    val result = GiphyMp4CacheJournal(directory).read()
+
+    assertEquals(listOf("a"), result.records.keys.toList())
+    assertFalse(result.isCorrupt)
+  }
+
+  @Test
+  fun `Given many redundant operations, when I rebuild, then I expect only live entries in LRU order`() {
+    val journal = GiphyMp4CacheJournal(directory)
+    journal.appendClean(record("a"))
+    journal.appendClean(record("b"))
+    repeat(100) { journal.appendRead("a") }
+
+    val before = journal.read()
+    journal.rebuild(before.records.values)
+
+    val after = GiphyMp4CacheJournal(directory).read()
+
+    assertEquals(listOf("b", "a"), after.records.keys.toList())
+    assertEquals(0, after.redundantOperationCount)
+    assertEquals(5, journalFile().readLines().size)
+  }
+
+  private fun journalFile(): File {
+    return File(directory, GiphyMp4CacheJournal.JOURNAL_FILE)
+  }
+
+  private fun record(key: String, filename: String = "entry_$key.mp4", size: Long = 100): GiphyMp4CacheJournal.Record {
+    return GiphyMp4CacheJournal.Record(key, filename, size)
+  }
+}